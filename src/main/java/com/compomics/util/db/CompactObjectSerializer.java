@@ -0,0 +1,1303 @@
+package com.compomics.util.db;
+
+import com.compomics.util.experiment.biology.AminoAcidSequence;
+import com.compomics.util.experiment.biology.MassGap;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
+import com.compomics.util.experiment.identification.amino_acid_tags.TagComponent;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.matches.VariantMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.personalization.ExperimentObject;
+import com.compomics.util.experiment.personalization.UrParameter;
+import com.compomics.util.experiment.refinementparameters.PepnovoAssumptionDetails;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serializer writing the identification matches in a compact binary format.
+ * The matches, peptides, assumptions, modifications and charges are written
+ * field by field, other objects are written using the codecs registered with
+ * registerCodec, or embedded using the Java serialization otherwise. Codecs
+ * are registered by default for the user parameters of this library stored
+ * with the matches. The score parameters of the matches defined by the
+ * applications should be registered using registerCodec on the serializer of
+ * the database.
+ *
+ * The serialized objects start with a version byte. Objects serialized with
+ * the Java serialization, as in databases created with previous versions, are
+ * recognized and can still be deserialized.
+ *
+ * Within a serialized object, an object referenced multiple times is written
+ * once and then referenced. Cyclic references are only supported within the
+ * objects embedded using the Java serialization.
+ *
+ * @author Marc Vaudel
+ */
+public class CompactObjectSerializer implements ObjectSerializer {
+
+    /**
+     * The version of the format.
+     */
+    public static final byte VERSION = 1;
+    /**
+     * The identifier of the codec of the tag assumptions.
+     */
+    public static final int TAG_ASSUMPTION_CODEC = 1;
+    /**
+     * The first codec identifier available to registerCodec, the lower
+     * identifiers are reserved for the codecs of this library.
+     */
+    public static final int FIRST_USER_CODEC_ID = 100;
+    /**
+     * Tag for null.
+     */
+    private static final byte NULL = 0;
+    /**
+     * Tag for an object already written.
+     */
+    private static final byte REFERENCE = 1;
+    /**
+     * Tag for an object embedded using the Java serialization.
+     */
+    private static final byte JAVA = 2;
+    /**
+     * Tag for an object written by a registered codec.
+     */
+    private static final byte CUSTOM = 3;
+    /**
+     * Tag for a string.
+     */
+    private static final byte STRING = 4;
+    /**
+     * Tag for an integer.
+     */
+    private static final byte INTEGER = 5;
+    /**
+     * Tag for a double.
+     */
+    private static final byte DOUBLE = 6;
+    /**
+     * Tag for a boolean.
+     */
+    private static final byte BOOLEAN = 7;
+    /**
+     * Tag for a charge.
+     */
+    private static final byte CHARGE = 8;
+    /**
+     * Tag for a modification match.
+     */
+    private static final byte MODIFICATION_MATCH = 9;
+    /**
+     * Tag for a peptide.
+     */
+    private static final byte PEPTIDE = 10;
+    /**
+     * Tag for a peptide assumption.
+     */
+    private static final byte PEPTIDE_ASSUMPTION = 11;
+    /**
+     * Tag for a spectrum match.
+     */
+    private static final byte SPECTRUM_MATCH = 12;
+    /**
+     * Tag for a peptide match.
+     */
+    private static final byte PEPTIDE_MATCH = 13;
+    /**
+     * Tag for a protein match.
+     */
+    private static final byte PROTEIN_MATCH = 14;
+    /**
+     * Tag for PepNovo assumption details.
+     */
+    private static final byte PEPNOVO_ASSUMPTION_DETAILS = 15;
+    /**
+     * The serializer used for the objects without codec.
+     */
+    private final JavaObjectSerializer javaObjectSerializer = new JavaObjectSerializer();
+    /**
+     * The identifiers of the registered codecs indexed by class.
+     */
+    private final ConcurrentHashMap<Class, Integer> codecIds = new ConcurrentHashMap<Class, Integer>();
+    /**
+     * The registered codecs indexed by identifier.
+     */
+    private final ConcurrentHashMap<Integer, Codec> codecs = new ConcurrentHashMap<Integer, Codec>();
+
+    /**
+     * Constructor.
+     */
+    public CompactObjectSerializer() {
+        putCodec(TAG_ASSUMPTION_CODEC, TagAssumption.class, new TagAssumptionCodec());
+    }
+
+    /**
+     * Registers a codec for the objects of the given class, typically
+     * implementations of UrParameter. The identifier is saved with the
+     * objects and must remain the same for the databases to be read.
+     *
+     * @param <T> the type of object
+     * @param id the identifier of the codec, at least FIRST_USER_CODEC_ID
+     * @param objectClass the class of the objects, subclasses are not
+     * considered
+     * @param codec the codec
+     */
+    public <T> void registerCodec(int id, Class<T> objectClass, Codec<T> codec) {
+        if (id < FIRST_USER_CODEC_ID) {
+            throw new IllegalArgumentException("Codec ids lower than " + FIRST_USER_CODEC_ID + " are reserved.");
+        }
+        putCodec(id, objectClass, codec);
+    }
+
+    /**
+     * Adds a codec to the registry.
+     *
+     * @param <T> the type of object
+     * @param id the identifier of the codec
+     * @param objectClass the class of the objects
+     * @param codec the codec
+     */
+    private synchronized <T> void putCodec(int id, Class<T> objectClass, Codec<T> codec) {
+        Codec registeredCodec = codecs.get(id);
+        if (registeredCodec != null && registeredCodec != codec) {
+            throw new IllegalArgumentException("A codec is already registered with id " + id + ".");
+        }
+        codecs.put(id, codec);
+        codecIds.put(objectClass, id);
+    }
+
+    @Override
+    public byte[] serialize(Object object) throws IOException {
+        CompactOutput output = new CompactOutput();
+        output.writeByte(VERSION);
+        output.writeObject(object);
+        return output.toByteArray();
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        if (JavaObjectSerializer.isJavaSerialization(bytes)) {
+            return javaObjectSerializer.deserialize(bytes);
+        }
+        if (bytes.length == 0 || bytes[0] != VERSION) {
+            throw new IOException("Serialization format " + (bytes.length == 0 ? "" : bytes[0] + " ") + "not supported.");
+        }
+        CompactInput input = new CompactInput(bytes, 1);
+        return input.readObject();
+    }
+
+    /**
+     * Writes and reads objects of a given class.
+     *
+     * @param <T> the type of object
+     */
+    public interface Codec<T> {
+
+        /**
+         * Writes an object.
+         *
+         * @param object the object
+         * @param output the output
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the object
+         */
+        public void write(T object, CompactOutput output) throws IOException;
+
+        /**
+         * Reads an object.
+         *
+         * @param input the input
+         *
+         * @return the object
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the object
+         * @throws ClassNotFoundException exception thrown whenever the class
+         * of an embedded object could not be found
+         */
+        public T read(CompactInput input) throws IOException, ClassNotFoundException;
+    }
+
+    /**
+     * Output of the compact serialization. Integers are written as variable
+     * length integers, strings in UTF-8.
+     */
+    public class CompactOutput {
+
+        /**
+         * The bytes written.
+         */
+        private byte[] buffer = new byte[256];
+        /**
+         * The number of bytes written.
+         */
+        private int size = 0;
+        /**
+         * The objects written and their handle.
+         */
+        private final IdentityHashMap<Object, Integer> handles = new IdentityHashMap<Object, Integer>();
+
+        /**
+         * Constructor.
+         */
+        private CompactOutput() {
+        }
+
+        /**
+         * Returns the bytes written.
+         *
+         * @return the bytes written
+         */
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        /**
+         * Makes sure that the given number of bytes can be written.
+         *
+         * @param length the number of bytes to write
+         */
+        private void ensureCapacity(int length) {
+            if (size + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, size + length));
+            }
+        }
+
+        /**
+         * Writes a byte.
+         *
+         * @param value the byte
+         */
+        public void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        /**
+         * Writes a boolean.
+         *
+         * @param value the boolean
+         */
+        public void writeBoolean(boolean value) {
+            writeByte(value ? 1 : 0);
+        }
+
+        /**
+         * Writes an integer, small absolute values take less space.
+         *
+         * @param value the integer
+         */
+        public void writeInt(int value) {
+            writeUnsignedInt((value << 1) ^ (value >> 31));
+        }
+
+        /**
+         * Writes an integer as unsigned, small positive values take less
+         * space.
+         *
+         * @param value the integer
+         */
+        private void writeUnsignedInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        /**
+         * Writes a double.
+         *
+         * @param value the double
+         */
+        public void writeDouble(double value) {
+            long bits = Double.doubleToLongBits(value);
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[size++] = (byte) (bits >>> shift);
+            }
+        }
+
+        /**
+         * Writes a double which can be null.
+         *
+         * @param value the double
+         */
+        public void writeNullableDouble(Double value) {
+            writeBoolean(value != null);
+            if (value != null) {
+                writeDouble(value.doubleValue());
+            }
+        }
+
+        /**
+         * Writes a string which can be null.
+         *
+         * @param value the string
+         *
+         * @throws UnsupportedEncodingException exception thrown whenever the
+         * string could not be encoded
+         */
+        public void writeString(String value) throws UnsupportedEncodingException {
+            if (value == null) {
+                writeUnsignedInt(0);
+                return;
+            }
+            int length = value.length();
+            boolean ascii = true;
+            for (int i = 0; i < length && ascii; i++) {
+                ascii = value.charAt(i) < 0x80;
+            }
+            if (ascii) {
+                writeUnsignedInt(length + 1);
+                ensureCapacity(length);
+                for (int i = 0; i < length; i++) {
+                    buffer[size++] = (byte) value.charAt(i);
+                }
+            } else {
+                byte[] bytes = value.getBytes("UTF-8");
+                writeBytes(bytes);
+            }
+        }
+
+        /**
+         * Writes an array of bytes preceded by its length.
+         *
+         * @param bytes the bytes
+         */
+        private void writeBytes(byte[] bytes) {
+            writeUnsignedInt(bytes.length + 1);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        /**
+         * Writes a list of strings which can be null.
+         *
+         * @param values the strings
+         *
+         * @throws UnsupportedEncodingException exception thrown whenever a
+         * string could not be encoded
+         */
+        public void writeStrings(ArrayList<String> values) throws UnsupportedEncodingException {
+            writeUnsignedInt(values == null ? 0 : values.size() + 1);
+            if (values != null) {
+                for (String value : values) {
+                    writeString(value);
+                }
+            }
+        }
+
+        /**
+         * Writes a list of objects which can be null.
+         *
+         * @param values the objects
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing an object
+         */
+        public void writeObjects(ArrayList<?> values) throws IOException {
+            writeUnsignedInt(values == null ? 0 : values.size() + 1);
+            if (values != null) {
+                for (Object value : values) {
+                    writeObject(value);
+                }
+            }
+        }
+
+        /**
+         * Writes an object which can be null. Strings, boxed primitives,
+         * identification matches and the objects of registered classes are
+         * written in the compact format, other objects are embedded using the
+         * Java serialization.
+         *
+         * @param object the object
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the object
+         */
+        @SuppressWarnings("unchecked")
+        public void writeObject(Object object) throws IOException {
+            if (object == null) {
+                writeByte(NULL);
+                return;
+            }
+            Class objectClass = object.getClass();
+            if (objectClass == String.class) {
+                writeByte(STRING);
+                writeString((String) object);
+                return;
+            } else if (objectClass == Integer.class) {
+                writeByte(INTEGER);
+                writeInt((Integer) object);
+                return;
+            } else if (objectClass == Double.class) {
+                writeByte(DOUBLE);
+                writeDouble(((Double) object).doubleValue());
+                return;
+            } else if (objectClass == Boolean.class) {
+                writeByte(BOOLEAN);
+                writeBoolean((Boolean) object);
+                return;
+            }
+            Integer handle = handles.get(object);
+            if (handle != null) {
+                writeByte(REFERENCE);
+                writeUnsignedInt(handle);
+                return;
+            }
+            Integer codecId = codecIds.get(objectClass);
+            if (objectClass == SpectrumMatch.class) {
+                writeByte(SPECTRUM_MATCH);
+                writeSpectrumMatch((SpectrumMatch) object);
+            } else if (objectClass == PeptideAssumption.class) {
+                writeByte(PEPTIDE_ASSUMPTION);
+                writePeptideAssumption((PeptideAssumption) object);
+            } else if (objectClass == Peptide.class) {
+                writeByte(PEPTIDE);
+                writePeptide((Peptide) object);
+            } else if (objectClass == ModificationMatch.class) {
+                writeByte(MODIFICATION_MATCH);
+                writeModificationMatch((ModificationMatch) object);
+            } else if (objectClass == Charge.class) {
+                writeByte(CHARGE);
+                Charge charge = (Charge) object;
+                writeInt(charge.sign);
+                writeInt(charge.value);
+                writeUrParameters(charge);
+            } else if (objectClass == PeptideMatch.class) {
+                writeByte(PEPTIDE_MATCH);
+                writePeptideMatch((PeptideMatch) object);
+            } else if (objectClass == ProteinMatch.class) {
+                writeByte(PROTEIN_MATCH);
+                writeProteinMatch((ProteinMatch) object);
+            } else if (objectClass == PepnovoAssumptionDetails.class) {
+                writeByte(PEPNOVO_ASSUMPTION_DETAILS);
+                PepnovoAssumptionDetails pepnovoAssumptionDetails = (PepnovoAssumptionDetails) object;
+                writeDouble(pepnovoAssumptionDetails.getRankScore());
+                writeDouble(pepnovoAssumptionDetails.getMH());
+            } else if (codecId != null) {
+                writeByte(CUSTOM);
+                writeUnsignedInt(codecId);
+                codecs.get(codecId).write(object, this);
+            } else {
+                writeByte(JAVA);
+                writeBytes(javaObjectSerializer.serialize(object));
+            }
+            // the handle is attributed once written to match the reading order
+            handles.put(object, handles.size());
+        }
+
+        /**
+         * Writes the user parameters of an object.
+         *
+         * @param experimentObject the object
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing a parameter
+         */
+        private void writeUrParameters(ExperimentObject experimentObject) throws IOException {
+            HashMap<String, UrParameter> urParameters = experimentObject.getUrParams();
+            if (urParameters == null) {
+                writeUnsignedInt(0);
+            } else {
+                writeObjects(new ArrayList<UrParameter>(urParameters.values()));
+            }
+        }
+
+        /**
+         * Writes a spectrum match.
+         *
+         * @param spectrumMatch the spectrum match
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the match
+         */
+        private void writeSpectrumMatch(SpectrumMatch spectrumMatch) throws IOException {
+            writeString(spectrumMatch.getKey());
+            Integer spectrumNumber = spectrumMatch.getSpectrumNumber();
+            writeBoolean(spectrumNumber != null);
+            if (spectrumNumber != null) {
+                writeInt(spectrumNumber);
+            }
+            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = spectrumMatch.getAssumptionsMap();
+            writeUnsignedInt(assumptionsMap == null ? 0 : assumptionsMap.size() + 1);
+            if (assumptionsMap != null) {
+                for (Integer advocate : assumptionsMap.keySet()) {
+                    writeInt(advocate);
+                    HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptionsMap.get(advocate);
+                    writeUnsignedInt(advocateMap == null ? 0 : advocateMap.size() + 1);
+                    if (advocateMap != null) {
+                        for (Double score : advocateMap.keySet()) {
+                            writeDouble(score);
+                            writeObjects(advocateMap.get(score));
+                        }
+                    }
+                }
+            }
+            writeObject(spectrumMatch.getBestPeptideAssumption());
+            writeObject(spectrumMatch.getBestTagAssumption());
+            writeUrParameters(spectrumMatch);
+        }
+
+        /**
+         * Writes a peptide assumption.
+         *
+         * @param peptideAssumption the peptide assumption
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the assumption
+         */
+        private void writePeptideAssumption(PeptideAssumption peptideAssumption) throws IOException {
+            writeObject(peptideAssumption.getPeptide());
+            writeInt(peptideAssumption.getRank());
+            writeInt(peptideAssumption.getAdvocate());
+            writeObject(peptideAssumption.getIdentificationCharge());
+            writeNullableDouble(peptideAssumption.getScore());
+            writeString(peptideAssumption.getIdentificationFile());
+            writeNullableDouble(peptideAssumption.getRawScore());
+            writeDoubleArrays(peptideAssumption.getAminoAcidScores());
+            writeUrParameters(peptideAssumption);
+        }
+
+        /**
+         * Writes a list of arrays of doubles which can be null.
+         *
+         * @param arrays the arrays
+         */
+        private void writeDoubleArrays(ArrayList<double[]> arrays) {
+            writeUnsignedInt(arrays == null ? 0 : arrays.size() + 1);
+            if (arrays != null) {
+                for (double[] array : arrays) {
+                    writeUnsignedInt(array == null ? 0 : array.length + 1);
+                    if (array != null) {
+                        for (double value : array) {
+                            writeDouble(value);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Writes a peptide.
+         *
+         * @param peptide the peptide
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the peptide
+         */
+        private void writePeptide(Peptide peptide) throws IOException {
+            writeString(peptide.getSequence());
+            writeObjects(peptide.getModificationMatches());
+            writeObjects(peptide.getVariantMatches());
+            writeStrings(peptide.getParentProteinsNoRemapping());
+            writeUrParameters(peptide);
+        }
+
+        /**
+         * Writes a modification match.
+         *
+         * @param modificationMatch the modification match
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the modification match
+         */
+        private void writeModificationMatch(ModificationMatch modificationMatch) throws IOException {
+            writeString(modificationMatch.getTheoreticPtm());
+            writeBoolean(modificationMatch.isVariable());
+            writeInt(modificationMatch.getModificationSite());
+            writeBoolean(modificationMatch.isConfident());
+            writeBoolean(modificationMatch.isInferred());
+            writeUrParameters(modificationMatch);
+        }
+
+        /**
+         * Writes a peptide match.
+         *
+         * @param peptideMatch the peptide match
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the match
+         */
+        private void writePeptideMatch(PeptideMatch peptideMatch) throws IOException {
+            writeString(peptideMatch.getKey());
+            writeObject(peptideMatch.getTheoreticPeptide());
+            writeStrings(peptideMatch.getSpectrumMatchesKeys());
+            writeUrParameters(peptideMatch);
+        }
+
+        /**
+         * Writes a protein match.
+         *
+         * @param proteinMatch the protein match
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the match
+         */
+        private void writeProteinMatch(ProteinMatch proteinMatch) throws IOException {
+            writeStrings(proteinMatch.getTheoreticProteinsAccessions());
+            writeString(proteinMatch.getMainMatch());
+            writeStrings(proteinMatch.getPeptideMatchesKeys());
+            writeUrParameters(proteinMatch);
+        }
+    }
+
+    /**
+     * Input of the compact serialization.
+     */
+    public class CompactInput {
+
+        /**
+         * The bytes to read.
+         */
+        private final byte[] buffer;
+        /**
+         * The position of the next byte to read.
+         */
+        private int position;
+        /**
+         * The objects read indexed by handle.
+         */
+        private final ArrayList<Object> objects = new ArrayList<Object>();
+        /**
+         * Buffer used to decode ASCII strings.
+         */
+        private char[] chars = new char[64];
+
+        /**
+         * Constructor.
+         *
+         * @param buffer the bytes to read
+         * @param position the position of the first byte to read
+         */
+        private CompactInput(byte[] buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        /**
+         * Reads a byte.
+         *
+         * @return the byte
+         *
+         * @throws IOException exception thrown whenever the end of the input
+         * is reached
+         */
+        public byte readByte() throws IOException {
+            if (position >= buffer.length) {
+                throw new IOException("Unexpected end of serialized object.");
+            }
+            return buffer[position++];
+        }
+
+        /**
+         * Reads a boolean.
+         *
+         * @return the boolean
+         *
+         * @throws IOException exception thrown whenever the end of the input
+         * is reached
+         */
+        public boolean readBoolean() throws IOException {
+            return readByte() != 0;
+        }
+
+        /**
+         * Reads an integer.
+         *
+         * @return the integer
+         *
+         * @throws IOException exception thrown whenever the end of the input
+         * is reached
+         */
+        public int readInt() throws IOException {
+            int value = readUnsignedInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * Reads an unsigned integer.
+         *
+         * @return the integer
+         *
+         * @throws IOException exception thrown whenever the end of the input
+         * is reached
+         */
+        private int readUnsignedInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed integer in serialized object.");
+        }
+
+        /**
+         * Reads a double.
+         *
+         * @return the double
+         *
+         * @throws IOException exception thrown whenever the end of the input
+         * is reached
+         */
+        public double readDouble() throws IOException {
+            if (position + 8 > buffer.length) {
+                throw new IOException("Unexpected end of serialized object.");
+            }
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (buffer[position++] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        /**
+         * Reads a double which can be null.
+         *
+         * @return the double
+         *
+         * @throws IOException exception thrown whenever the end of the input
+         * is reached
+         */
+        public Double readNullableDouble() throws IOException {
+            return readBoolean() ? readDouble() : null;
+        }
+
+        /**
+         * Reads a string which can be null.
+         *
+         * @return the string
+         *
+         * @throws IOException exception thrown whenever the end of the input
+         * is reached or the string could not be decoded
+         */
+        public String readString() throws IOException {
+            int length = readUnsignedInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            if (position + length > buffer.length) {
+                throw new IOException("Unexpected end of serialized object.");
+            }
+            if (length > chars.length) {
+                chars = new char[Math.max(length, 2 * chars.length)];
+            }
+            for (int i = 0; i < length; i++) {
+                byte value = buffer[position + i];
+                if (value < 0) {
+                    String result = new String(buffer, position, length, "UTF-8");
+                    position += length;
+                    return result;
+                }
+                chars[i] = (char) value;
+            }
+            position += length;
+            return new String(chars, 0, length);
+        }
+
+        /**
+         * Reads a list of strings which can be null.
+         *
+         * @return the strings
+         *
+         * @throws IOException exception thrown whenever the end of the input
+         * is reached or a string could not be decoded
+         */
+        public ArrayList<String> readStrings() throws IOException {
+            int size = readUnsignedInt() - 1;
+            if (size < 0) {
+                return null;
+            }
+            ArrayList<String> result = new ArrayList<String>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(readString());
+            }
+            return result;
+        }
+
+        /**
+         * Reads a list of objects which can be null.
+         *
+         * @param <T> the type of the objects
+         * @param objectClass the class of the objects
+         *
+         * @return the objects
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading an object
+         * @throws ClassNotFoundException exception thrown whenever the class
+         * of an embedded object could not be found
+         */
+        public <T> ArrayList<T> readObjects(Class<T> objectClass) throws IOException, ClassNotFoundException {
+            int size = readUnsignedInt() - 1;
+            if (size < 0) {
+                return null;
+            }
+            ArrayList<T> result = new ArrayList<T>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(readObject(objectClass));
+            }
+            return result;
+        }
+
+        /**
+         * Reads an object and casts it to the given class.
+         *
+         * @param <T> the type of the object
+         * @param objectClass the class of the object
+         *
+         * @return the object
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the object or if the object is not of the expected
+         * class
+         * @throws ClassNotFoundException exception thrown whenever the class
+         * of an embedded object could not be found
+         */
+        public <T> T readObject(Class<T> objectClass) throws IOException, ClassNotFoundException {
+            Object object = readObject();
+            if (object != null && !objectClass.isInstance(object)) {
+                throw new IOException("Expected " + objectClass.getSimpleName() + ", found " + object.getClass().getSimpleName() + ".");
+            }
+            return objectClass.cast(object);
+        }
+
+        /**
+         * Reads an object which can be null.
+         *
+         * @return the object
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the object
+         * @throws ClassNotFoundException exception thrown whenever the class
+         * of an embedded object could not be found
+         */
+        public Object readObject() throws IOException, ClassNotFoundException {
+            byte tag = readByte();
+            Object object;
+            switch (tag) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return readString();
+                case INTEGER:
+                    return readInt();
+                case DOUBLE:
+                    return readDouble();
+                case BOOLEAN:
+                    return readBoolean();
+                case REFERENCE:
+                    int handle = readUnsignedInt();
+                    if (handle >= objects.size()) {
+                        throw new IOException("Invalid reference in serialized object.");
+                    }
+                    return objects.get(handle);
+                case SPECTRUM_MATCH:
+                    object = readSpectrumMatch();
+                    break;
+                case PEPTIDE_ASSUMPTION:
+                    object = readPeptideAssumption();
+                    break;
+                case PEPTIDE:
+                    object = readPeptide();
+                    break;
+                case MODIFICATION_MATCH:
+                    object = readModificationMatch();
+                    break;
+                case CHARGE:
+                    Charge charge = new Charge(readInt(), readInt());
+                    readUrParameters(charge);
+                    object = charge;
+                    break;
+                case PEPTIDE_MATCH:
+                    object = readPeptideMatch();
+                    break;
+                case PROTEIN_MATCH:
+                    object = readProteinMatch();
+                    break;
+                case PEPNOVO_ASSUMPTION_DETAILS:
+                    PepnovoAssumptionDetails pepnovoAssumptionDetails = new PepnovoAssumptionDetails();
+                    pepnovoAssumptionDetails.setRankScore(readDouble());
+                    pepnovoAssumptionDetails.setMH(readDouble());
+                    object = pepnovoAssumptionDetails;
+                    break;
+                case CUSTOM:
+                    int codecId = readUnsignedInt();
+                    Codec codec = codecs.get(codecId);
+                    if (codec == null) {
+                        throw new IOException("No codec registered for id " + codecId + ".");
+                    }
+                    object = codec.read(this);
+                    break;
+                case JAVA:
+                    int length = readUnsignedInt() - 1;
+                    if (length < 0 || position + length > buffer.length) {
+                        throw new IOException("Unexpected end of serialized object.");
+                    }
+                    object = javaObjectSerializer.deserialize(buffer, position, length);
+                    position += length;
+                    break;
+                default:
+                    throw new IOException("Unknown tag " + tag + " in serialized object.");
+            }
+            objects.add(object);
+            return object;
+        }
+
+        /**
+         * Reads the user parameters of an object.
+         *
+         * @param experimentObject the object
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading a parameter
+         * @throws ClassNotFoundException exception thrown whenever the class
+         * of an embedded object could not be found
+         */
+        private void readUrParameters(ExperimentObject experimentObject) throws IOException, ClassNotFoundException {
+            ArrayList<UrParameter> urParameters = readObjects(UrParameter.class);
+            if (urParameters != null) {
+                for (UrParameter urParameter : urParameters) {
+                    experimentObject.addUrParam(urParameter);
+                }
+            }
+        }
+
+        /**
+         * Reads a spectrum match.
+         *
+         * @return the spectrum match
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the match
+         * @throws ClassNotFoundException exception thrown whenever the class
+         * of an embedded object could not be found
+         */
+        private SpectrumMatch readSpectrumMatch() throws IOException, ClassNotFoundException {
+            SpectrumMatch spectrumMatch = new SpectrumMatch(readString());
+            if (readBoolean()) {
+                spectrumMatch.setSpectrumNumber(readInt());
+            }
+            int nAdvocates = readUnsignedInt() - 1;
+            if (nAdvocates >= 0) {
+                HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap
+                        = new HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>(nAdvocates);
+                for (int i = 0; i < nAdvocates; i++) {
+                    int advocate = readInt();
+                    int nScores = readUnsignedInt() - 1;
+                    HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = null;
+                    if (nScores >= 0) {
+                        advocateMap = new HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>(nScores);
+                        for (int j = 0; j < nScores; j++) {
+                            double score = readDouble();
+                            advocateMap.put(score, readObjects(SpectrumIdentificationAssumption.class));
+                        }
+                    }
+                    assumptionsMap.put(advocate, advocateMap);
+                }
+                spectrumMatch.setAssumptionsMap(assumptionsMap);
+            }
+            spectrumMatch.setBestPeptideAssumption(readObject(PeptideAssumption.class));
+            spectrumMatch.setBestTagAssumption(readObject(TagAssumption.class));
+            readUrParameters(spectrumMatch);
+            return spectrumMatch;
+        }
+
+        /**
+         * Reads a peptide assumption.
+         *
+         * @return the peptide assumption
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the assumption
+         * @throws ClassNotFoundException exception thrown whenever the class
+         * of an embedded object could not be found
+         */
+        private PeptideAssumption readPeptideAssumption() throws IOException, ClassNotFoundException {
+            Peptide peptide = readObject(Peptide.class);
+            int rank = readInt();
+            int advocate = readInt();
+            Charge charge = readObject(Charge.class);
+            Double score = readNullableDouble();
+            String identificationFile = readString();
+            PeptideAssumption peptideAssumption;
+            if (score != null) {
+                peptideAssumption = new PeptideAssumption(peptide, rank, advocate, charge, score, identificationFile);
+            } else {
+                // assumption created for annotation only
+                peptideAssumption = new PeptideAssumption(peptide, charge);
+                peptideAssumption.setRank(rank);
+            }
+            peptideAssumption.setRawScore(readNullableDouble());
+            ArrayList<double[]> aminoAcidScores = readDoubleArrays();
+            if (aminoAcidScores != null) {
+                peptideAssumption.setAminoAcidScores(aminoAcidScores);
+            }
+            readUrParameters(peptideAssumption);
+            return peptideAssumption;
+        }
+
+        /**
+         * Reads a list of arrays of doubles which can be null.
+         *
+         * @return the arrays
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the arrays
+         */
+        private ArrayList<double[]> readDoubleArrays() throws IOException {
+            int nArrays = readUnsignedInt() - 1;
+            if (nArrays < 0) {
+                return null;
+            }
+            ArrayList<double[]> arrays = new ArrayList<double[]>(nArrays);
+            for (int i = 0; i < nArrays; i++) {
+                int length = readUnsignedInt() - 1;
+                double[] array = null;
+                if (length >= 0) {
+                    array = new double[length];
+                    for (int j = 0; j < length; j++) {
+                        array[j] = readDouble();
+                    }
+                }
+                arrays.add(array);
+            }
+            return arrays;
+        }
+
+        /**
+         * Reads a peptide.
+         *
+         * @return the peptide
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the peptide
+         * @throws ClassNotFoundException exception thrown whenever the class
+         * of an embedded object could not be found
+         */
+        private Peptide readPeptide() throws IOException, ClassNotFoundException {
+            String sequence = readString();
+            ArrayList<ModificationMatch> modificationMatches = readObjects(ModificationMatch.class);
+            Peptide peptide = new Peptide(sequence, modificationMatches);
+            ArrayList<VariantMatch> variantMatches = readObjects(VariantMatch.class);
+            if (variantMatches != null) {
+                peptide.setVariantMatches(variantMatches);
+            }
+            ArrayList<String> parentProteins = readStrings();
+            if (parentProteins != null) {
+                peptide.setParentProteins(parentProteins);
+            }
+            readUrParameters(peptide);
+            return peptide;
+        }
+
+        /**
+         * Reads a modification match.
+         *
+         * @return the modification match
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the modification match
+         * @throws ClassNotFoundException exception thrown whenever the class
+         * of an embedded object could not be found
+         */
+        private ModificationMatch readModificationMatch() throws IOException, ClassNotFoundException {
+            String theoreticPtm = readString();
+            boolean variable = readBoolean();
+            int site = readInt();
+            ModificationMatch modificationMatch = new ModificationMatch(theoreticPtm, variable, site);
+            modificationMatch.setConfident(readBoolean());
+            modificationMatch.setInferred(readBoolean());
+            readUrParameters(modificationMatch);
+            return modificationMatch;
+        }
+
+        /**
+         * Reads a peptide match.
+         *
+         * @return the peptide match
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the match
+         * @throws ClassNotFoundException exception thrown whenever the class
+         * of an embedded object could not be found
+         */
+        private PeptideMatch readPeptideMatch() throws IOException, ClassNotFoundException {
+            String key = readString();
+            PeptideMatch peptideMatch = new PeptideMatch(readObject(Peptide.class), key);
+            ArrayList<String> spectrumMatchesKeys = readStrings();
+            if (spectrumMatchesKeys != null) {
+                peptideMatch.getSpectrumMatchesKeys().addAll(spectrumMatchesKeys);
+            }
+            readUrParameters(peptideMatch);
+            return peptideMatch;
+        }
+
+        /**
+         * Reads a protein match.
+         *
+         * @return the protein match
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the match
+         * @throws ClassNotFoundException exception thrown whenever the class
+         * of an embedded object could not be found
+         */
+        private ProteinMatch readProteinMatch() throws IOException, ClassNotFoundException {
+            ProteinMatch proteinMatch = new ProteinMatch();
+            ArrayList<String> accessions = readStrings();
+            if (accessions != null) {
+                for (String accession : accessions) {
+                    proteinMatch.addTheoreticProtein(accession);
+                }
+            }
+            proteinMatch.setMainMatch(readString());
+            ArrayList<String> peptideMatchesKeys = readStrings();
+            if (peptideMatchesKeys != null) {
+                proteinMatch.setPeptideKeys(peptideMatchesKeys);
+            }
+            readUrParameters(proteinMatch);
+            return proteinMatch;
+        }
+    }
+
+    /**
+     * Codec for the tag assumptions. The mass gaps and amino acid sequences
+     * of the tags are written field by field, other tag components are
+     * embedded using the Java serialization.
+     */
+    private static class TagAssumptionCodec implements Codec<TagAssumption> {
+
+        /**
+         * Type of a mass gap in a tag.
+         */
+        private static final byte MASS_GAP = 0;
+        /**
+         * Type of an amino acid sequence in a tag.
+         */
+        private static final byte AMINO_ACID_SEQUENCE = 1;
+        /**
+         * Type of another tag component.
+         */
+        private static final byte OTHER_COMPONENT = 2;
+
+        @Override
+        public void write(TagAssumption tagAssumption, CompactOutput output) throws IOException {
+            output.writeInt(tagAssumption.getAdvocate());
+            output.writeInt(tagAssumption.getRank());
+            output.writeObject(tagAssumption.getIdentificationCharge());
+            output.writeNullableDouble(tagAssumption.getScore());
+            output.writeString(tagAssumption.getIdentificationFile());
+            output.writeNullableDouble(tagAssumption.getRawScore());
+            output.writeDoubleArrays(tagAssumption.getAminoAcidScores());
+            Tag tag = tagAssumption.getTag();
+            output.writeBoolean(tag != null);
+            if (tag != null) {
+                ArrayList<TagComponent> content = tag.getContent();
+                output.writeUnsignedInt(content.size());
+                for (TagComponent component : content) {
+                    Class componentClass = component.getClass();
+                    if (componentClass == MassGap.class) {
+                        MassGap massGap = (MassGap) component;
+                        output.writeByte(MASS_GAP);
+                        output.writeDouble(massGap.getMass());
+                        output.writeUrParameters(massGap);
+                    } else if (componentClass == AminoAcidSequence.class) {
+                        AminoAcidSequence aminoAcidSequence = (AminoAcidSequence) component;
+                        output.writeByte(AMINO_ACID_SEQUENCE);
+                        output.writeString(aminoAcidSequence.getSequence());
+                        HashMap<Integer, ArrayList<ModificationMatch>> modificationMatches = aminoAcidSequence.getModificationMatches();
+                        output.writeUnsignedInt(modificationMatches == null ? 0 : modificationMatches.size() + 1);
+                        if (modificationMatches != null) {
+                            for (Integer site : modificationMatches.keySet()) {
+                                output.writeInt(site);
+                                output.writeObjects(modificationMatches.get(site));
+                            }
+                        }
+                        output.writeUrParameters(aminoAcidSequence);
+                    } else {
+                        output.writeByte(OTHER_COMPONENT);
+                        output.writeObject(component);
+                    }
+                }
+                output.writeUrParameters(tag);
+            }
+            output.writeUrParameters(tagAssumption);
+        }
+
+        @Override
+        public TagAssumption read(CompactInput input) throws IOException, ClassNotFoundException {
+            int advocate = input.readInt();
+            int rank = input.readInt();
+            Charge charge = input.readObject(Charge.class);
+            Double score = input.readNullableDouble();
+            String identificationFile = input.readString();
+            Double rawScore = input.readNullableDouble();
+            ArrayList<double[]> aminoAcidScores = input.readDoubleArrays();
+            Tag tag = null;
+            if (input.readBoolean()) {
+                tag = new Tag();
+                ArrayList<TagComponent> content = tag.getContent();
+                int nComponents = input.readUnsignedInt();
+                for (int i = 0; i < nComponents; i++) {
+                    byte type = input.readByte();
+                    switch (type) {
+                        case MASS_GAP:
+                            MassGap massGap = new MassGap(input.readDouble());
+                            input.readUrParameters(massGap);
+                            content.add(massGap);
+                            break;
+                        case AMINO_ACID_SEQUENCE:
+                            String sequence = input.readString();
+                            int nSites = input.readUnsignedInt() - 1;
+                            HashMap<Integer, ArrayList<ModificationMatch>> modificationMatches = null;
+                            if (nSites >= 0) {
+                                modificationMatches = new HashMap<Integer, ArrayList<ModificationMatch>>(nSites);
+                                for (int j = 0; j < nSites; j++) {
+                                    int site = input.readInt();
+                                    modificationMatches.put(site, input.readObjects(ModificationMatch.class));
+                                }
+                            }
+                            AminoAcidSequence aminoAcidSequence = new AminoAcidSequence(sequence, modificationMatches);
+                            input.readUrParameters(aminoAcidSequence);
+                            content.add(aminoAcidSequence);
+                            break;
+                        case OTHER_COMPONENT:
+                            content.add(input.readObject(TagComponent.class));
+                            break;
+                        default:
+                            throw new IOException("Unknown tag component type " + type + " in serialized object.");
+                    }
+                }
+                input.readUrParameters(tag);
+            }
+            TagAssumption tagAssumption = new TagAssumption(advocate, rank, tag, charge, score, identificationFile);
+            tagAssumption.setRawScore(rawScore);
+            if (aminoAcidScores != null) {
+                tagAssumption.setAminoAcidScores(aminoAcidScores);
+            }
+            input.readUrParameters(tagAssumption);
+            return tagAssumption;
+        }
+    }
+}
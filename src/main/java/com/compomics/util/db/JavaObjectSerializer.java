@@ -0,0 +1,79 @@
+package com.compomics.util.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Serializer using the Java serialization.
+ *
+ * @author Marc Vaudel
+ */
+public class JavaObjectSerializer implements ObjectSerializer {
+
+    /**
+     * The first two bytes of a Java serialization stream.
+     */
+    private static final int STREAM_MAGIC = 0xACED;
+
+    /**
+     * Constructor.
+     */
+    public JavaObjectSerializer() {
+    }
+
+    @Override
+    public byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        try {
+            oos.writeObject(object);
+        } finally {
+            oos.close();
+        }
+        return bos.toByteArray();
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        return deserialize(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Deserializes an object from a part of an array.
+     *
+     * @param bytes the array
+     * @param offset the offset of the serialized object in the array
+     * @param length the length of the serialized object
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * deserializing the object
+     * @throws ClassNotFoundException exception thrown whenever the class of a
+     * serialized object could not be found
+     */
+    public Object deserialize(byte[] bytes, int offset, int length) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes, offset, length));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Indicates whether the given bytes start like a Java serialization
+     * stream.
+     *
+     * @param bytes the bytes
+     *
+     * @return a boolean indicating whether the given bytes start like a Java
+     * serialization stream
+     */
+    public static boolean isJavaSerialization(byte[] bytes) {
+        return bytes.length > 1 && ((bytes[0] & 0xFF) << 8 | (bytes[1] & 0xFF)) == STREAM_MAGIC;
+    }
+}
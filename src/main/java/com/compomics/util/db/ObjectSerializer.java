@@ -0,0 +1,38 @@
+package com.compomics.util.db;
+
+import java.io.IOException;
+
+/**
+ * Converts the objects stored in an ObjectsDB to and from the bytes saved in
+ * the database.
+ *
+ * @author Marc Vaudel
+ */
+public interface ObjectSerializer {
+
+    /**
+     * Serializes an object.
+     *
+     * @param object the object to serialize
+     *
+     * @return the serialized object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * serializing the object
+     */
+    public byte[] serialize(Object object) throws IOException;
+
+    /**
+     * Deserializes an object.
+     *
+     * @param bytes the serialized object
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * deserializing the object
+     * @throws ClassNotFoundException exception thrown whenever the class of a
+     * serialized object could not be found
+     */
+    public Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException;
+}
@@ -1,14 +1,15 @@
 package com.compomics.util.db;
 
-import com.compomics.util.maps.MapMutex;
 import com.compomics.util.waiting.WaitingHandler;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * An object cache can be combined to an ObjectDB to improve its performance. A
@@ -16,44 +17,96 @@ import java.util.concurrent.Semaphore;
  * serialized. The length of lists/maps in the cache shall stay independent from
  * the number of objects in cache.
  *
+ * The cache content is limited either by the number of objects or by the
+ * estimated size of the objects in memory. The objects are evicted following a
+ * segmented LRU policy: new objects enter a probationary segment and are
+ * promoted to a protected segment when accessed again, so that scanning many
+ * objects once does not evict the objects used repeatedly. Modified objects
+ * are written back to the database in batches by a background thread, they
+ * remain accessible via the cache until written.
+ *
  * @author Marc Vaudel
  */
 public class ObjectsCache {
 
+    /**
+     * The share of the cache that the protected segment can occupy.
+     */
+    private static final double PROTECTED_SHARE = 0.8;
+    /**
+     * Factor between the size of a serialized object and its estimated size
+     * in memory.
+     */
+    private static final int SERIALIZED_SIZE_FACTOR = 4;
+    /**
+     * Estimated memory used by the cache for every entry, in bytes.
+     */
+    private static final long ENTRY_OVERHEAD = 128;
+    /**
+     * Estimated size of an object in memory when no size is known, in bytes.
+     */
+    private static final long DEFAULT_OBJECT_SIZE = 4096;
     /**
      * Map of the databases for which this cache should be used.
      */
-    private HashMap<String, ObjectsDB> databases = new HashMap<String, ObjectsDB>();
+    private ConcurrentHashMap<String, ObjectsDB> databases = new ConcurrentHashMap<String, ObjectsDB>();
     /**
      * The cache size in number of matches.
      */
     private int cacheSize = 0;
     /**
      * Boolean indicating whether the memory management should be done
-     * automatically. If true, the cache size will be extended to reach 99% of
-     * the available heap size. True by default.
+     * automatically. If true, the size of the cache is limited by the
+     * estimated memory used by the objects. True by default.
      */
     private boolean automatedMemoryManagement = true;
     /**
-     * Share of the memory to be used.
+     * Share of the heap that the cached objects can use when the memory
+     * management is automated.
+     */
+    private double memoryShare = 0.5;
+    /**
+     * Map of the loaded matches. db &gt; table &gt; object key &gt; entry.
+     */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, ConcurrentHashMap<String, CacheEntry>>> loadedObjectsMap = new ConcurrentHashMap<String, ConcurrentHashMap<String, ConcurrentHashMap<String, CacheEntry>>>(1);
+    /**
+     * Lock for the eviction policy.
      */
-    private double memoryShare = 0.8;
+    private final ReentrantLock policyLock = new ReentrantLock();
     /**
-     * Map of the loaded matches. db &gt; table &gt; object key &gt; object.
+     * The probationary segment, ordered from least to most recently used.
      */
-    private HashMap<String, HashMap<String, HashMap<String, CacheEntry>>> loadedObjectsMap = new HashMap<String, HashMap<String, HashMap<String, CacheEntry>>>(1);
+    private final EntryList probationSegment = new EntryList();
     /**
-     * Mutex for the database maps.
+     * The protected segment, ordered from least to most recently used.
      */
-    private HashMap<String, MapMutex<String>> dbCacheMutexMap = new HashMap<String, MapMutex<String>>(1);
+    private final EntryList protectedSegment = new EntryList();
     /**
-     * List of the loaded objects with the most used matches in the end.
+     * The entries evicted and waiting to be written in the database indexed
+     * by cache key.
      */
-    private LinkedBlockingDeque<String> loadedObjectsKeys = new LinkedBlockingDeque<String>();
+    private final ConcurrentHashMap<String, CacheEntry> writeBackEntries = new ConcurrentHashMap<String, CacheEntry>();
     /**
-     * Mutex for the edition of the object keys list.
+     * The keys of the entries to write back in the database.
      */
-    private Semaphore loadedObjectKeysMutex = new Semaphore(1);
+    private final LinkedBlockingQueue<String> writeBackQueue = new LinkedBlockingQueue<String>();
+    /**
+     * Lock held while writing back entries.
+     */
+    private final Object writeBackLock = new Object();
+    /**
+     * The number of keys queued for write back or being written. A key is
+     * counted before it is queued and until its batch is written.
+     */
+    private final AtomicInteger writeBackPending = new AtomicInteger(0);
+    /**
+     * The thread writing back the entries, null if not started.
+     */
+    private Thread writeBackThread = null;
+    /**
+     * The last exception thrown while writing back entries, null if none.
+     */
+    private Exception writeBackException = null;
     /**
      * Separator used to concatenate strings.
      */
@@ -67,14 +120,41 @@ public class ObjectsCache {
      */
     private boolean readOnly = false;
     /**
-     * Indicates whether the cache is being updated.
+     * The sum of the sizes of the objects with a known size.
+     */
+    private final AtomicLong knownSizesTotal = new AtomicLong(0);
+    /**
+     * The number of objects with a known size.
+     */
+    private final AtomicLong knownSizesCount = new AtomicLong(0);
+    /**
+     * The number of objects found in cache.
      */
-    private boolean updating = false;
+    private final AtomicLong hitCount = new AtomicLong(0);
     /**
-     * Boolean indicating whether the cache is being saved to reduce the memory
-     * consumption.
+     * The number of objects not found in cache.
      */
-    private boolean reducingMemoryConsumption = false;
+    private final AtomicLong missCount = new AtomicLong(0);
+    /**
+     * The number of objects evicted from the cache.
+     */
+    private final AtomicLong evictionCount = new AtomicLong(0);
+    /**
+     * The number of objects written back in the database.
+     */
+    private final AtomicLong writeBackCount = new AtomicLong(0);
+    /**
+     * The number of batches written back in the database.
+     */
+    private final AtomicLong writeBackBatchCount = new AtomicLong(0);
+    /**
+     * The total time spent writing back batches in nanoseconds.
+     */
+    private final AtomicLong writeBackTime = new AtomicLong(0);
+    /**
+     * The longest time spent writing back a batch in nanoseconds.
+     */
+    private volatile long maxWriteBackTime = 0;
 
     /**
      * Constructor.
@@ -139,22 +219,21 @@ public class ObjectsCache {
     }
 
     /**
-     * Returns the share of heap size which can be used before emptying the
-     * cache. 0.99 (default) means that objects will be removed from the cache
-     * as long as more than 99% of the heap size is used.
+     * Returns the share of the heap that the cached objects can use when the
+     * memory management is automated.
      *
-     * @return the share of heap size which can be used before emptying the
-     * cache
+     * @return the share of the heap that the cached objects can use
      */
     public double getMemoryShare() {
         return memoryShare;
     }
 
     /**
-     * Sets the share of heap size which can be used before emptying the cache.
+     * Sets the share of the heap that the cached objects can use when the
+     * memory management is automated.
      *
-     * @param memoryShare the share of heap size which can be used before
-     * emptying the cache
+     * @param memoryShare the share of the heap that the cached objects can
+     * use
      */
     public void setMemoryShare(double memoryShare) {
         this.memoryShare = memoryShare;
@@ -176,7 +255,9 @@ public class ObjectsCache {
             throw new IllegalArgumentException("Database name (" + dbName + ") should not contain " + cacheSeparator);
         }
         databases.put(dbName, objectsDB);
-        loadedObjectsMap.put(dbName, new HashMap<String, HashMap<String, CacheEntry>>());
+        if (!loadedObjectsMap.containsKey(dbName)) {
+            loadedObjectsMap.put(dbName, new ConcurrentHashMap<String, ConcurrentHashMap<String, CacheEntry>>());
+        }
     }
 
     /**
@@ -190,27 +271,21 @@ public class ObjectsCache {
      */
     public void removeObject(String dbName, String tableName, String objectKey) throws InterruptedException {
         if (!readOnly) {
-            String cacheKey = getCacheKey(dbName, tableName, objectKey);
-            loadedObjectKeysMutex.acquire();
-            loadedObjectsKeys.remove(cacheKey);
-            loadedObjectKeysMutex.release();
-            HashMap<String, HashMap<String, CacheEntry>> dbObjects = loadedObjectsMap.get(dbName);
-            if (dbObjects != null) {
-                MapMutex<String> dbMutexMap = getMapMutex(dbName);
-                dbMutexMap.acquire(tableName);
-                HashMap<String, CacheEntry> tableObjects = dbObjects.get(tableName);
-                if (tableObjects != null) {
-                    tableObjects.remove(objectKey);
+            CacheEntry entry = getEntry(dbName, tableName, objectKey);
+            if (entry != null) {
+                removeEntry(entry);
+            }
+            if (!writeBackEntries.isEmpty()) {
+                // make sure that the object is not written back after removal
+                synchronized (writeBackLock) {
+                    writeBackEntries.remove(getCacheKey(dbName, tableName, objectKey));
                 }
-                dbMutexMap.release(tableName);
             }
         }
     }
 
     /**
-     * Returns the entry if present in the cache. Null if not. Warning: this
-     * method returns the object as it is and does not wait for cache edition
-     * operations to finish.
+     * Returns the entry if present in the cache. Null if not.
      *
      * @param dbName the name of the database
      * @param tableName the name of the table
@@ -219,9 +294,9 @@ public class ObjectsCache {
      * @return the entry of interest, null if not present in the cache
      */
     private CacheEntry getEntry(String dbName, String tableName, String objectKey) {
-        HashMap<String, HashMap<String, CacheEntry>> dbObjects = loadedObjectsMap.get(dbName);
+        ConcurrentHashMap<String, ConcurrentHashMap<String, CacheEntry>> dbObjects = loadedObjectsMap.get(dbName);
         if (dbObjects != null) {
-            HashMap<String, CacheEntry> tableObjects = dbObjects.get(tableName);
+            ConcurrentHashMap<String, CacheEntry> tableObjects = dbObjects.get(tableName);
             if (tableObjects != null) {
                 return tableObjects.get(objectKey);
             }
@@ -229,6 +304,22 @@ public class ObjectsCache {
         return null;
     }
 
+    /**
+     * Returns the entry waiting to be written back, null if none.
+     *
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     * @param objectKey the key of the object
+     *
+     * @return the entry waiting to be written back
+     */
+    private CacheEntry getWriteBackEntry(String dbName, String tableName, String objectKey) {
+        if (writeBackEntries.isEmpty()) {
+            return null;
+        }
+        return writeBackEntries.get(getCacheKey(dbName, tableName, objectKey));
+    }
+
     /**
      * Returns the objects if present in the cache. Null if not. Warning: this
      * method returns the object as it is and does not wait for cache edition
@@ -243,10 +334,24 @@ public class ObjectsCache {
     public Object getObject(String dbName, String tableName, String objectKey) {
         CacheEntry entry = getEntry(dbName, tableName, objectKey);
         if (entry != null) {
+            hitCount.incrementAndGet();
+            // the access order is not updated when another thread edits the policy
+            if (policyLock.tryLock()) {
+                try {
+                    recordAccess(entry);
+                } finally {
+                    policyLock.unlock();
+                }
+            }
             return entry.getObject();
-        } else {
-            return null;
         }
+        entry = getWriteBackEntry(dbName, tableName, objectKey);
+        if (entry != null) {
+            hitCount.incrementAndGet();
+            return entry.getObject();
+        }
+        missCount.incrementAndGet();
+        return null;
     }
 
     /**
@@ -264,21 +369,24 @@ public class ObjectsCache {
      */
     public boolean updateObject(String dbName, String tableName, String objectKey, Object object) throws InterruptedException {
         if (!readOnly) {
-            CacheEntry entry = getEntry(dbName, tableName, objectKey);
-            if (entry != null) {
-                MapMutex<String> dbMutexMap = getMapMutex(dbName);
-                dbMutexMap.acquire(tableName);
-                entry = getEntry(dbName, tableName, objectKey);
-                boolean result = false;
-                if (entry != null && !readOnly) {
-                    entry.setModified(true);
+            // the entry must not be evicted between the lookup and the update, otherwise the update is lost
+            policyLock.lock();
+            try {
+                CacheEntry entry = getEntry(dbName, tableName, objectKey);
+                if (entry != null && entry.segment != null) {
                     entry.setObject(object);
-                    result = true;
+                    entry.setModified(true);
+                    return true;
                 }
-                dbMutexMap.release(tableName);
-                return result;
+            } finally {
+                policyLock.unlock();
+            }
+            CacheEntry entry = getWriteBackEntry(dbName, tableName, objectKey);
+            if (entry != null) {
+                // bring the object back in cache, it will be written again when evicted
+                addEntry(new CacheEntry(dbName, tableName, objectKey, object, true, entry.getSize()), true);
+                return true;
             }
-            return false;
         }
         return false;
     }
@@ -303,44 +411,389 @@ public class ObjectsCache {
      * writing to the database
      */
     public void addObject(String dbName, String tableName, String objectKey, Object object, boolean modifiedOrNew, boolean updateCache) throws IOException, SQLException, InterruptedException {
+        addObject(dbName, tableName, objectKey, object, -1, modifiedOrNew, updateCache);
+    }
+
+    /**
+     * Adds an object to the cache. The object must not necessarily be in the
+     * database. If an object is already present with the same identifiers, it
+     * will be silently overwritten.
+     *
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     * @param objectKey the key of the object
+     * @param object the object to store in the cache
+     * @param serializedSize the size of the object serialized in the
+     * database, used to estimate the memory used by the object, negative if
+     * unknown
+     * @param modifiedOrNew true if the object is modified or new
+     * @param updateCache boolean indicating whether the cache should be updated
+     *
+     * @throws IOException if an IOException occurs while writing to the
+     * database
+     * @throws SQLException if an SQLException occurs while writing to the
+     * database
+     * @throws java.lang.InterruptedException if a threading error occurs
+     * writing to the database
+     */
+    public void addObject(String dbName, String tableName, String objectKey, Object object, int serializedSize, boolean modifiedOrNew, boolean updateCache) throws IOException, SQLException, InterruptedException {
         if (!readOnly) {
             if (objectKey.contains(cacheSeparator)) {
                 throw new IllegalArgumentException("Object key (" + objectKey + ") should not contain " + cacheSeparator + ".");
             }
-            HashMap<String, HashMap<String, CacheEntry>> dbCache = loadedObjectsMap.get(dbName);
-            MapMutex<String> dbMutexMap = getMapMutex(dbName);
-            dbMutexMap.acquire(tableName);
-            HashMap<String, CacheEntry> tableCache = dbCache.get(tableName);
+            if (tableName.contains(cacheSeparator)) {
+                throw new IllegalArgumentException("Table name (" + tableName + ") should not contain " + cacheSeparator + ".");
+            }
+            long size;
+            if (serializedSize >= 0) {
+                size = SERIALIZED_SIZE_FACTOR * (long) serializedSize + ENTRY_OVERHEAD;
+                knownSizesTotal.addAndGet(size);
+                knownSizesCount.incrementAndGet();
+            } else {
+                long nKnownSizes = knownSizesCount.get();
+                size = nKnownSizes > 0 ? knownSizesTotal.get() / nKnownSizes : DEFAULT_OBJECT_SIZE + ENTRY_OVERHEAD;
+            }
+            addEntry(new CacheEntry(dbName, tableName, objectKey, object, modifiedOrNew, size), updateCache);
+        }
+    }
+
+    /**
+     * Adds an entry to the cache, replacing the entry with the same keys if
+     * any.
+     *
+     * @param entry the entry
+     * @param evict if true, entries are evicted if the cache is full
+     */
+    private void addEntry(CacheEntry entry, boolean evict) {
+        ConcurrentHashMap<String, ConcurrentHashMap<String, CacheEntry>> dbCache = loadedObjectsMap.get(entry.dbName);
+        if (dbCache == null) {
+            throw new IllegalStateException("Database " + entry.dbName + " not loaded in cache");
+        }
+        ConcurrentHashMap<String, CacheEntry> tableCache = dbCache.get(entry.tableName);
+        if (tableCache == null) {
+            ConcurrentHashMap<String, CacheEntry> newTableCache = new ConcurrentHashMap<String, CacheEntry>(512);
+            tableCache = dbCache.putIfAbsent(entry.tableName, newTableCache);
             if (tableCache == null) {
-                tableCache = dbCache.get(tableName);
-                if (tableCache == null) {
-                    if (tableName.contains(cacheSeparator)) {
-                        throw new IllegalArgumentException("Table name (" + tableName + ") should not contain " + cacheSeparator + ".");
+                tableCache = newTableCache;
+            }
+        }
+        policyLock.lock();
+        try {
+            CacheEntry previousEntry = tableCache.put(entry.objectKey, entry);
+            if (previousEntry != null) {
+                previousEntry.segment.remove(previousEntry);
+            }
+            probationSegment.addLast(entry);
+            if (evict) {
+                evict(false);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Removes an entry from the cache.
+     *
+     * @param entry the entry
+     */
+    private void removeEntry(CacheEntry entry) {
+        policyLock.lock();
+        try {
+            if (entry.segment != null) {
+                entry.segment.remove(entry);
+                ConcurrentHashMap<String, ConcurrentHashMap<String, CacheEntry>> dbCache = loadedObjectsMap.get(entry.dbName);
+                if (dbCache != null) {
+                    ConcurrentHashMap<String, CacheEntry> tableCache = dbCache.get(entry.tableName);
+                    if (tableCache != null) {
+                        tableCache.remove(entry.objectKey, entry);
                     }
-                    tableCache = new HashMap<String, CacheEntry>(512);
-                    dbCache.put(tableName, tableCache);
                 }
             }
-            if (!tableCache.containsKey(objectKey)) {
-                String key = getCacheKey(dbName, tableName, objectKey);
-                loadedObjectKeysMutex.acquire();
-                loadedObjectsKeys.add(key);
-                loadedObjectKeysMutex.release();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Records an access to an entry: an entry of the probationary segment is
+     * promoted to the protected segment, an entry of the protected segment
+     * becomes the most recently used. The policy lock must be held.
+     *
+     * @param entry the entry
+     */
+    private void recordAccess(CacheEntry entry) {
+        if (entry.segment == protectedSegment) {
+            protectedSegment.remove(entry);
+            protectedSegment.addLast(entry);
+        } else if (entry.segment == probationSegment) {
+            probationSegment.remove(entry);
+            protectedSegment.addLast(entry);
+            // demote the least recently used protected entries
+            while (protectedSegment.count > 1 && isFull(protectedSegment.count, protectedSegment.size, PROTECTED_SHARE)) {
+                CacheEntry demotedEntry = protectedSegment.first;
+                protectedSegment.remove(demotedEntry);
+                probationSegment.addLast(demotedEntry);
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the given content exceeds the given share of the
+     * cache.
+     *
+     * @param count the number of entries
+     * @param size the estimated size of the entries
+     * @param share the share of the cache
+     *
+     * @return a boolean indicating whether the given content exceeds the given
+     * share of the cache
+     */
+    private boolean isFull(int count, long size, double share) {
+        if (automatedMemoryManagement) {
+            return size > share * memoryShare * Runtime.getRuntime().maxMemory();
+        }
+        return count > share * cacheSize;
+    }
+
+    /**
+     * Evicts entries until the cache is not full anymore. Modified entries are
+     * queued for write back. The policy lock must be held.
+     *
+     * @param all if true all entries are evicted
+     */
+    private void evict(boolean all) {
+        while (all || isFull(probationSegment.count + protectedSegment.count, probationSegment.size + protectedSegment.size, 1)) {
+            CacheEntry victim = probationSegment.first != null ? probationSegment.first : protectedSegment.first;
+            if (victim == null) {
+                return;
+            }
+            evict(victim);
+        }
+    }
+
+    /**
+     * Evicts an entry and queues it for write back if modified. The policy
+     * lock must be held.
+     *
+     * @param victim the entry to evict
+     */
+    private void evict(CacheEntry victim) {
+        if (victim.isModified()) {
+            String cacheKey = getCacheKey(victim.dbName, victim.tableName, victim.objectKey);
+            // the entry must be accessible before being removed from the cache
+            writeBackEntries.put(cacheKey, victim);
+            writeBackPending.incrementAndGet();
+            writeBackQueue.add(cacheKey);
+            startWriteBack();
+        }
+        victim.segment.remove(victim);
+        ConcurrentHashMap<String, ConcurrentHashMap<String, CacheEntry>> dbCache = loadedObjectsMap.get(victim.dbName);
+        if (dbCache != null) {
+            ConcurrentHashMap<String, CacheEntry> tableCache = dbCache.get(victim.tableName);
+            if (tableCache != null) {
+                tableCache.remove(victim.objectKey, victim);
             }
-            tableCache.put(objectKey, new CacheEntry(object, modifiedOrNew));
-            dbMutexMap.release(tableName);
-            if (updateCache) {
-                updateCache();
+        }
+        evictionCount.incrementAndGet();
+    }
+
+    /**
+     * Starts the write back thread if not started already. The policy lock
+     * must be held.
+     */
+    private void startWriteBack() {
+        if (writeBackThread == null) {
+            writeBackThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeBack();
+                }
+            }, "ObjectsCache write back");
+            writeBackThread.setDaemon(true);
+            writeBackThread.start();
+        }
+    }
+
+    /**
+     * Writes back the queued entries in batches.
+     */
+    private void writeBack() {
+        while (true) {
+            ArrayList<String> keys = new ArrayList<String>(batchSize);
+            try {
+                keys.add(writeBackQueue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            writeBackQueue.drainTo(keys, Math.max(batchSize - 1, 0));
+            try {
+                writeBack(keys);
+            } catch (Exception e) {
+                synchronized (writeBackLock) {
+                    writeBackException = e;
+                }
+            } finally {
+                synchronized (writeBackLock) {
+                    writeBackPending.addAndGet(-keys.size());
+                    writeBackLock.notifyAll();
+                }
             }
         }
     }
 
     /**
-     * Indicates whether the memory used by the application is lower than 99% of
-     * the heap size.
+     * Writes back the entries of the given keys which are still waiting to be
+     * written. If an error occurs, the entries are put back in cache.
+     *
+     * @param keys the cache keys of the entries
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the objects
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing the objects
+     * @throws InterruptedException exception thrown if a threading error
+     * occurs while writing the objects
+     */
+    private void writeBack(ArrayList<String> keys) throws IOException, SQLException, InterruptedException {
+        synchronized (writeBackLock) {
+            long start = System.nanoTime();
+            HashMap<String, HashMap<String, HashMap<String, Object>>> toSave = new HashMap<String, HashMap<String, HashMap<String, Object>>>(1);
+            ArrayList<CacheEntry> entries = new ArrayList<CacheEntry>(keys.size());
+            for (String key : keys) {
+                CacheEntry entry = writeBackEntries.get(key);
+                if (entry != null && !entries.contains(entry)) {
+                    entries.add(entry);
+                    getTableMap(toSave, entry.dbName, entry.tableName).put(entry.objectKey, entry.getObject());
+                }
+            }
+            try {
+                insertObjects(toSave, null);
+            } catch (IOException e) {
+                restoreWriteBackEntries(entries);
+                throw e;
+            } catch (SQLException e) {
+                restoreWriteBackEntries(entries);
+                throw e;
+            } catch (InterruptedException e) {
+                restoreWriteBackEntries(entries);
+                throw e;
+            }
+            for (CacheEntry entry : entries) {
+                writeBackEntries.remove(getCacheKey(entry.dbName, entry.tableName, entry.objectKey), entry);
+            }
+            long time = System.nanoTime() - start;
+            writeBackCount.addAndGet(entries.size());
+            writeBackBatchCount.incrementAndGet();
+            writeBackTime.addAndGet(time);
+            if (time > maxWriteBackTime) {
+                maxWriteBackTime = time;
+            }
+        }
+    }
+
+    /**
+     * Puts entries which could not be written back in the cache so that they
+     * are saved later on. The write back lock must be held.
+     *
+     * @param entries the entries
+     */
+    private void restoreWriteBackEntries(ArrayList<CacheEntry> entries) {
+        for (CacheEntry entry : entries) {
+            String cacheKey = getCacheKey(entry.dbName, entry.tableName, entry.objectKey);
+            if (writeBackEntries.remove(cacheKey, entry) && getEntry(entry.dbName, entry.tableName, entry.objectKey) == null) {
+                addEntry(new CacheEntry(entry.dbName, entry.tableName, entry.objectKey, entry.getObject(), true, entry.getSize()), false);
+            }
+        }
+    }
+
+    /**
+     * Waits for the entries queued for write back to be written in the
+     * database.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing back an object
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing back an object
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    public void flushWriteBack() throws IOException, SQLException, InterruptedException {
+        synchronized (writeBackLock) {
+            while (writeBackPending.get() > 0) {
+                writeBackLock.wait(100);
+            }
+            Exception exception = writeBackException;
+            writeBackException = null;
+            if (exception instanceof IOException) {
+                throw (IOException) exception;
+            } else if (exception instanceof SQLException) {
+                throw (SQLException) exception;
+            } else if (exception instanceof InterruptedException) {
+                throw (InterruptedException) exception;
+            } else if (exception != null) {
+                throw new IOException("An error occurred while writing back objects: " + exception.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the map of the objects to save for the given table, creates it
+     * if needed.
+     *
+     * @param toSave the objects to save: db &gt; table &gt; object key &gt;
+     * object
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     *
+     * @return the map of the objects to save for the given table
+     */
+    private HashMap<String, Object> getTableMap(HashMap<String, HashMap<String, HashMap<String, Object>>> toSave, String dbName, String tableName) {
+        HashMap<String, HashMap<String, Object>> dbMap = toSave.get(dbName);
+        if (dbMap == null) {
+            dbMap = new HashMap<String, HashMap<String, Object>>();
+            toSave.put(dbName, dbMap);
+        }
+        HashMap<String, Object> tableMap = dbMap.get(tableName);
+        if (tableMap == null) {
+            tableMap = new HashMap<String, Object>();
+            dbMap.put(tableName, tableMap);
+        }
+        return tableMap;
+    }
+
+    /**
+     * Inserts the given objects in their databases.
+     *
+     * @param toSave the objects to save: db &gt; table &gt; object key &gt;
+     * object
+     * @param waitingHandler a waiting handler displaying progress to the user,
+     * can be null
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the object in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    private void insertObjects(HashMap<String, HashMap<String, HashMap<String, Object>>> toSave, WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException {
+        for (String dbName : toSave.keySet()) {
+            ObjectsDB objectsDB = databases.get(dbName);
+            if (objectsDB == null) {
+                throw new IllegalStateException("Database " + dbName + " not loaded in cache");
+            }
+            for (String tableName : toSave.get(dbName).keySet()) {
+                objectsDB.insertObjects(tableName, toSave.get(dbName).get(tableName), waitingHandler);
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the memory used by the application is lower than the
+     * memory share of the heap size. Note that this is not used by the cache
+     * which estimates the size of its content instead.
      *
      * @return a boolean indicating whether the memory used by the application
-     * is lower than 99% of the heap
+     * is lower than the memory share of the heap size
      */
     public boolean memoryCheck() {
         return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() < (long) (memoryShare * Runtime.getRuntime().maxMemory());
@@ -397,48 +850,72 @@ public class ObjectsCache {
         if (!readOnly) {
             if (waitingHandler != null) {
                 waitingHandler.resetSecondaryProgressCounter();
-                if (clearEntries) {
-                    waitingHandler.setMaxSecondaryProgressCounter(3 * entryKeys.size());
-                } else {
-                    waitingHandler.setMaxSecondaryProgressCounter(2 * entryKeys.size());
-                }
+                waitingHandler.setMaxSecondaryProgressCounter(2 * entryKeys.size());
             }
-            // temporary map for batch saving
-            HashMap<String, HashMap<String, HashMap<String, Object>>> toSave = new HashMap<String, HashMap<String, HashMap<String, Object>>>(1);
-            HashMap<String, HashSet<String>> blockedTablesMap = new HashMap<String, HashSet<String>>(1);
+            flushWriteBack();
+            ArrayList<CacheEntry> entries = new ArrayList<CacheEntry>(entryKeys.size());
             for (String entryKey : entryKeys) {
                 String[] splittedKey = getKeyComponents(entryKey);
-                String dbName = splittedKey[0];
-                String tableName = splittedKey[1];
-                String objectKey = splittedKey[2];
-                HashSet<String> blockedTables = blockedTablesMap.get(dbName);
-                if (blockedTables == null) {
-                    blockedTables = new HashSet<String>();
-                    blockedTablesMap.put(dbName, blockedTables);
-                }
-                if (!blockedTables.contains(tableName)) {
-                    MapMutex<String> mapMutex = getMapMutex(dbName);
-                    mapMutex.acquire(tableName);
-                    blockedTables.add(tableName);
-                }
-                CacheEntry entry = getEntry(dbName, tableName, objectKey);
-
+                CacheEntry entry = getEntry(splittedKey[0], splittedKey[1], splittedKey[2]);
                 if (entry == null) {
-                    throw new IllegalArgumentException("Object " + objectKey + " corresponding to entry " + entryKey + " not found in cache when saving.");
-                } else if (entry.isModified()) {
-                    HashMap<String, HashMap<String, Object>> dbMap = toSave.get(dbName);
-                    if (dbMap == null) {
-                        dbMap = new HashMap<String, HashMap<String, Object>>();
-                        toSave.put(dbName, dbMap);
-                    }
-                    HashMap<String, Object> tableMap = dbMap.get(tableName);
-                    if (tableMap == null) {
-                        tableMap = new HashMap<String, Object>();
-                        dbMap.put(tableName, tableMap);
-                    }
-                    tableMap.put(objectKey, entry.getObject());
+                    throw new IllegalArgumentException("Object " + splittedKey[2] + " corresponding to entry " + entryKey + " not found in cache when saving.");
                 }
+                entries.add(entry);
+            }
+            saveEntries(entries, waitingHandler, clearEntries);
+        }
+    }
 
+    /**
+     * Saves the modified entries in the database and clears them from the
+     * cache if needed.
+     *
+     * @param entries the entries
+     * @param waitingHandler a waiting handler displaying progress to the user.
+     * Can be null. Progress will be displayed as secondary.
+     * @param clearEntries a boolean indicating whether the entries shall be
+     * cleared from the cache
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the object in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    private void saveEntries(ArrayList<CacheEntry> entries, WaitingHandler waitingHandler, boolean clearEntries) throws IOException, SQLException, InterruptedException {
+        HashMap<String, HashMap<String, HashMap<String, Object>>> toSave = new HashMap<String, HashMap<String, HashMap<String, Object>>>(1);
+        ArrayList<CacheEntry> savedEntries = new ArrayList<CacheEntry>();
+        for (CacheEntry entry : entries) {
+            if (entry.isModified()) {
+                // a modification during saving sets the entry as modified again
+                entry.setModified(false);
+                savedEntries.add(entry);
+                getTableMap(toSave, entry.dbName, entry.tableName).put(entry.objectKey, entry.getObject());
+            }
+            if (waitingHandler != null) {
+                waitingHandler.increaseSecondaryProgressCounter();
+                if (waitingHandler.isRunCanceled()) {
+                    restoreModified(savedEntries);
+                    return;
+                }
+            }
+        }
+        try {
+            insertObjects(toSave, waitingHandler);
+        } catch (IOException e) {
+            restoreModified(savedEntries);
+            throw e;
+        } catch (SQLException e) {
+            restoreModified(savedEntries);
+            throw e;
+        }
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            restoreModified(savedEntries);
+            return;
+        }
+        if (clearEntries) {
+            for (CacheEntry entry : entries) {
+                removeEntry(entry);
                 if (waitingHandler != null) {
                     waitingHandler.increaseSecondaryProgressCounter();
                     if (waitingHandler.isRunCanceled()) {
@@ -446,49 +923,17 @@ public class ObjectsCache {
                     }
                 }
             }
-            for (String dbName : toSave.keySet()) {
-                ObjectsDB objectsDB = databases.get(dbName);
-                for (String tableName : toSave.get(dbName).keySet()) {
-                    objectsDB.insertObjects(tableName, toSave.get(dbName).get(tableName), waitingHandler);
-                }
-            }
-            if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
-                if (clearEntries) {
-                    for (String entryKey : entryKeys) {
-                        String[] splittedKey = getKeyComponents(entryKey);
-                        String dbName = splittedKey[0];
-                        String tableName = splittedKey[1];
-                        String objectKey = splittedKey[2];
-                        HashMap<String, HashMap<String, CacheEntry>> dbMap = loadedObjectsMap.get(dbName);
-                        if (dbMap != null) {
-                            HashMap<String, CacheEntry> tableMap = dbMap.get(tableName);
-                            if (tableMap != null) {
-                                tableMap.remove(objectKey);
-                                if (tableMap.isEmpty()) {
-                                    dbMap.remove(tableName);
-                                }
-                            }
-                            if (dbMap.isEmpty()) {
-                                loadedObjectsMap.remove(dbName);
-                            }
-                        }
-
-                        if (waitingHandler != null) {
-                            waitingHandler.increaseSecondaryProgressCounter();
-                            if (waitingHandler.isRunCanceled()) {
-                                return;
-                            }
-                        }
-                    }
-                }
-            }
-            for (String dbName : blockedTablesMap.keySet()) {
-                HashSet<String> blockedTables = blockedTablesMap.get(dbName);
-                MapMutex<String> mapMutex = getMapMutex(dbName);
-                for (String blockedTable : blockedTables) {
-                    mapMutex.release(blockedTable);
-                }
-            }
+        }
+    }
+
+    /**
+     * Sets the given entries as modified.
+     *
+     * @param entries the entries
+     */
+    private void restoreModified(ArrayList<CacheEntry> entries) {
+        for (CacheEntry entry : entries) {
+            entry.setModified(true);
         }
     }
 
@@ -526,14 +971,17 @@ public class ObjectsCache {
      */
     public synchronized void saveObject(String entryKey, boolean clearEntry) throws IOException, SQLException, InterruptedException {
         if (!readOnly) {
+            flushWriteBack();
             String[] splittedKey = getKeyComponents(entryKey);
             String dbName = splittedKey[0];
             String tableName = splittedKey[1];
             String objectKey = splittedKey[2];
-            MapMutex<String> mapMutex = getMapMutex(dbName);
-            mapMutex.acquire(tableName);
-            CacheEntry entry = loadedObjectsMap.get(dbName).get(tableName).get(objectKey);
+            CacheEntry entry = getEntry(dbName, tableName, objectKey);
+            if (entry == null) {
+                throw new IllegalArgumentException("Object " + objectKey + " corresponding to entry " + entryKey + " not found in cache when saving.");
+            }
             if (entry.isModified()) {
+                entry.setModified(false);
                 try {
                     ObjectsDB objectsDB = databases.get(dbName);
                     if (objectsDB == null) {
@@ -545,30 +993,24 @@ public class ObjectsCache {
                         objectsDB.insertObject(tableName, objectKey, entry.getObject(), false);
                     }
                 } catch (IOException e) {
+                    entry.setModified(true);
                     e.printStackTrace();
                     throw new IOException("Error while writing match " + objectKey + " in table " + tableName + " in database" + dbName + ".");
                 } catch (SQLException e) {
+                    entry.setModified(true);
                     e.printStackTrace();
                     throw new SQLException("Error while writing match " + objectKey + " in table " + tableName + " in database" + dbName + ".");
                 }
             }
             if (clearEntry) {
-                loadedObjectKeysMutex.acquire();
-                loadedObjectsKeys.remove(entryKey);
-                loadedObjectKeysMutex.release();
-                HashMap<String, HashMap<String, ObjectsCache.CacheEntry>> dbCache = loadedObjectsMap.get(dbName);
-                HashMap<String, ObjectsCache.CacheEntry> tableCache = dbCache.get(tableName);
-                tableCache.remove(objectKey);
-                if (tableCache.isEmpty()) {
-                    dbCache.remove(tableName);
-                }
+                removeEntry(entry);
             }
-            mapMutex.release(tableName);
         }
     }
 
     /**
-     * Updates the cache according to the memory settings.
+     * Updates the cache according to the memory settings. The evicted objects
+     * are written back in the database by a background thread.
      *
      * @throws SQLException exception thrown whenever an error occurred while
      * adding the object in the database
@@ -577,13 +1019,14 @@ public class ObjectsCache {
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
     public void updateCache() throws IOException, SQLException, InterruptedException {
-        if (!readOnly && !updating) {
+        if (!readOnly) {
             updateCacheSynchronized();
         }
     }
 
     /**
-     * Updates the cache according to the memory settings.
+     * Updates the cache according to the memory settings. The evicted objects
+     * are written back in the database by a background thread.
      *
      * @throws SQLException exception thrown whenever an error occurred while
      * adding the object in the database
@@ -591,33 +1034,18 @@ public class ObjectsCache {
      * writing the object
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
-    public synchronized void updateCacheSynchronized() throws IOException, SQLException, InterruptedException {
-        updating = true;
-        while ((!automatedMemoryManagement && loadedObjectsKeys.size() > cacheSize)
-                || (automatedMemoryManagement && !memoryCheck())) {
-            int toRemove = (int) (((double) loadedObjectsKeys.size()) * 0.25); // remove 25% of the objects from the cache
-            if (toRemove <= 1) {
-                loadedObjectKeysMutex.acquire();
-                String objectKey = loadedObjectsKeys.take();
-                loadedObjectKeysMutex.release();
-                saveObject(objectKey);
-            } else {
-                ArrayList<String> keysToRemove = new ArrayList<String>(toRemove);
-                loadedObjectKeysMutex.acquire();
-                loadedObjectsKeys.drainTo(keysToRemove, toRemove);
-                loadedObjectKeysMutex.release();
-                saveObjects(keysToRemove);
-            }
-            if (loadedObjectsKeys.isEmpty()) {
-                break;
-            }
+    public void updateCacheSynchronized() throws IOException, SQLException, InterruptedException {
+        policyLock.lock();
+        try {
+            evict(false);
+        } finally {
+            policyLock.unlock();
         }
-        updating = false;
     }
 
     /**
      * Reduces the memory consumption by saving the given share of cache
-     * content.
+     * content. The least recently used objects are saved first.
      *
      * @param share the share to be saved, 0.25 means that 25% of the hits will
      * be saved
@@ -630,40 +1058,30 @@ public class ObjectsCache {
      * writing the object
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
-    public void reduceMemoryConsumption(double share, WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException {
-        if (!reducingMemoryConsumption) {
-            reduceMemoryConsumptionSynchronized(share, waitingHandler);
+    public synchronized void reduceMemoryConsumption(double share, WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException {
+        if (!readOnly) {
+            ArrayList<CacheEntry> entries;
+            policyLock.lock();
+            try {
+                int toRemove = (int) (share * (probationSegment.count + protectedSegment.count));
+                entries = new ArrayList<CacheEntry>(toRemove);
+                probationSegment.addFirst(entries, toRemove);
+                protectedSegment.addFirst(entries, toRemove - entries.size());
+            } finally {
+                policyLock.unlock();
+            }
+            if (waitingHandler != null) {
+                waitingHandler.resetSecondaryProgressCounter();
+                waitingHandler.setMaxSecondaryProgressCounter(2 * entries.size());
+            }
+            flushWriteBack();
+            saveEntries(entries, waitingHandler, true);
         }
     }
 
     /**
-     * Reduces the memory consumption by saving the given share of cache
-     * content.
-     *
-     * @param share the share to be saved, 0.25 means that 25% of the hits will
-     * be saved
-     * @param waitingHandler a waiting handler on which the progress will be
-     * displayed as secondary progress. can be null
-     *
-     * @throws SQLException exception thrown whenever an error occurred while
-     * adding the object in the database
-     * @throws IOException exception thrown whenever an error occurred while
-     * writing the object
-     * @throws java.lang.InterruptedException if the thread is interrupted
-     */
-    private synchronized void reduceMemoryConsumptionSynchronized(double share, WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException {
-        reducingMemoryConsumption = true;
-        int toRemove = (int) (share * loadedObjectsKeys.size());
-        ArrayList<String> keysToRemove = new ArrayList<String>(toRemove);
-        loadedObjectKeysMutex.acquire();
-        loadedObjectsKeys.drainTo(keysToRemove, toRemove);
-        loadedObjectKeysMutex.release();
-        saveObjects(keysToRemove, waitingHandler);
-        reducingMemoryConsumption = false;
-    }
-
-    /**
-     * Indicates whether an object is loaded in the cache
+     * Indicates whether an object is loaded in the cache, including the
+     * objects waiting to be written back in the database.
      *
      * @param dbName the database name
      * @param tableName the table name
@@ -671,7 +1089,7 @@ public class ObjectsCache {
      * @return a boolean indicating whether an object is loaded in the cache
      */
     public boolean inCache(String dbName, String tableName, String objectKey) {
-        return getEntry(dbName, tableName, objectKey) != null;
+        return getEntry(dbName, tableName, objectKey) != null || getWriteBackEntry(dbName, tableName, objectKey) != null;
     }
 
     /**
@@ -689,53 +1107,132 @@ public class ObjectsCache {
      */
     public synchronized void saveCache(WaitingHandler waitingHandler, boolean emptyCache) throws IOException, SQLException, InterruptedException {
 
+        ArrayList<CacheEntry> entries = new ArrayList<CacheEntry>();
+        for (ConcurrentHashMap<String, ConcurrentHashMap<String, CacheEntry>> dbCache : loadedObjectsMap.values()) {
+            for (ConcurrentHashMap<String, CacheEntry> tableCache : dbCache.values()) {
+                entries.addAll(tableCache.values());
+            }
+        }
+
         if (waitingHandler != null) {
-            waitingHandler.setMaxSecondaryProgressCounter((loadedObjectsKeys.size() * 2) + 1);
+            waitingHandler.setMaxSecondaryProgressCounter((entries.size() * 2) + 1);
             waitingHandler.setSecondaryProgressCounterIndeterminate(false);
             waitingHandler.setSecondaryProgressCounter(0);
         }
 
-        // add the objects to the database
-        for (String dbName : loadedObjectsMap.keySet()) {
+        flushWriteBack();
+        saveEntries(entries, waitingHandler, emptyCache && !readOnly);
+    }
 
-            ObjectsDB objectsDB = databases.get(dbName);
+    /**
+     * Returns the number of objects in cache.
+     *
+     * @return the number of objects in cache
+     */
+    public int getNObjects() {
+        policyLock.lock();
+        try {
+            return probationSegment.count + protectedSegment.count;
+        } finally {
+            policyLock.unlock();
+        }
+    }
 
-            if (objectsDB == null) {
-                throw new IllegalStateException("Database " + dbName + " not loaded in cache");
-            }
-            for (String tableName : loadedObjectsMap.get(dbName).keySet()) {
-                MapMutex<String> mapMutex = getMapMutex(dbName);
-                mapMutex.acquire(tableName);
+    /**
+     * Returns the estimated memory used by the objects in cache in bytes.
+     *
+     * @return the estimated memory used by the objects in cache
+     */
+    public long getEstimatedSize() {
+        policyLock.lock();
+        try {
+            return probationSegment.size + protectedSegment.size;
+        } finally {
+            policyLock.unlock();
+        }
+    }
 
-                HashMap<String, CacheEntry> data = loadedObjectsMap.get(dbName).get(tableName);
-                HashMap<String, Object> objectsToStore = new HashMap<String, Object>(data.size());
+    /**
+     * Returns the share of the objects requested which were found in cache,
+     * NaN if no object was requested.
+     *
+     * @return the share of the objects requested which were found in cache
+     */
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long requests = hits + missCount.get();
+        return requests == 0 ? Double.NaN : ((double) hits) / requests;
+    }
 
-                for (String objectKey : data.keySet()) {
-                    CacheEntry entry = data.get(objectKey);
-                    if (entry.isModified()) {
-                        objectsToStore.put(objectKey, entry.getObject());
-                    }
+    /**
+     * Returns the number of objects requested which were found in cache.
+     *
+     * @return the number of objects requested which were found in cache
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
 
-                    if (waitingHandler != null) {
-                        waitingHandler.increaseSecondaryProgressCounter();
-                        if (waitingHandler.isRunCanceled()) {
-                            return;
-                        }
-                    }
-                }
+    /**
+     * Returns the number of objects requested which were not found in cache.
+     *
+     * @return the number of objects requested which were not found in cache
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
 
-                objectsDB.insertObjects(tableName, objectsToStore, waitingHandler);
+    /**
+     * Returns the number of objects evicted from the cache.
+     *
+     * @return the number of objects evicted from the cache
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
 
-                mapMutex.release(tableName);
-            }
-        }
+    /**
+     * Returns the number of objects written back in the database after
+     * eviction.
+     *
+     * @return the number of objects written back in the database
+     */
+    public long getWriteBackCount() {
+        return writeBackCount.get();
+    }
 
-        if (emptyCache && !readOnly) {
-            loadedObjectsMap.clear();
-            loadedObjectKeysMutex.acquire();
-            loadedObjectsKeys.clear();
-            loadedObjectKeysMutex.release();
-        }
+    /**
+     * Returns the average time spent writing back a batch of objects in
+     * milliseconds, NaN if none.
+     *
+     * @return the average time spent writing back a batch of objects
+     */
+    public double getAverageWriteBackLatency() {
+        long nBatches = writeBackBatchCount.get();
+        return nBatches == 0 ? Double.NaN : writeBackTime.get() / (1e6 * nBatches);
+    }
+
+    /**
+     * Returns the longest time spent writing back a batch of objects in
+     * milliseconds.
+     *
+     * @return the longest time spent writing back a batch of objects
+     */
+    public double getMaxWriteBackLatency() {
+        return maxWriteBackTime / 1e6;
+    }
+
+    /**
+     * Resets the hit, miss, eviction and write back statistics.
+     */
+    public void resetStatistics() {
+        hitCount.set(0);
+        missCount.set(0);
+        evictionCount.set(0);
+        writeBackCount.set(0);
+        writeBackBatchCount.set(0);
+        writeBackTime.set(0);
+        maxWriteBackTime = 0;
     }
 
     /**
@@ -771,7 +1268,7 @@ public class ObjectsCache {
      * @return a boolean indicating whether the cache is empty
      */
     public boolean isEmpty() {
-        return loadedObjectsKeys.isEmpty();
+        return getNObjects() == 0 && writeBackEntries.isEmpty();
     }
 
     /**
@@ -785,61 +1282,150 @@ public class ObjectsCache {
     }
 
     /**
-     * Adds a map mutex to the dbCacheMutexMap.
-     *
-     * @param dbName the name of the database
-     *
-     * @return the map mutex corresponding to the database
+     * Doubly linked list of cache entries ordered from least to most recently
+     * used. The sizes of the entries are summed. Not thread safe, the policy
+     * lock must be held.
      */
-    private synchronized MapMutex<String> addMapMutex(String dbName) {
-        MapMutex<String> mapMutex = dbCacheMutexMap.get(dbName);
-        if (mapMutex == null) {
-            mapMutex = new MapMutex<String>();
-            dbCacheMutexMap.put(dbName, mapMutex);
+    private static class EntryList {
+
+        /**
+         * The least recently used entry.
+         */
+        private CacheEntry first = null;
+        /**
+         * The most recently used entry.
+         */
+        private CacheEntry last = null;
+        /**
+         * The number of entries.
+         */
+        private int count = 0;
+        /**
+         * The sum of the estimated sizes of the entries.
+         */
+        private long size = 0;
+
+        /**
+         * Adds an entry as most recently used.
+         *
+         * @param entry the entry
+         */
+        private void addLast(CacheEntry entry) {
+            entry.previous = last;
+            entry.next = null;
+            if (last == null) {
+                first = entry;
+            } else {
+                last.next = entry;
+            }
+            last = entry;
+            entry.segment = this;
+            count++;
+            size += entry.getSize();
         }
-        return mapMutex;
-    }
 
-    /**
-     * Returns the map mutex for the given database.
-     *
-     * @param dbName the name of the database
-     *
-     * @return the map mutex
-     */
-    private MapMutex<String> getMapMutex(String dbName) {
-        MapMutex<String> dbMutexMap = dbCacheMutexMap.get(dbName);
-        if (dbMutexMap == null) {
-            dbMutexMap = addMapMutex(dbName);
+        /**
+         * Removes an entry.
+         *
+         * @param entry the entry
+         */
+        private void remove(CacheEntry entry) {
+            if (entry.segment != this) {
+                return;
+            }
+            if (entry.previous == null) {
+                first = entry.next;
+            } else {
+                entry.previous.next = entry.next;
+            }
+            if (entry.next == null) {
+                last = entry.previous;
+            } else {
+                entry.next.previous = entry.previous;
+            }
+            entry.previous = null;
+            entry.next = null;
+            entry.segment = null;
+            count--;
+            size -= entry.getSize();
+        }
+
+        /**
+         * Adds the given number of least recently used entries to a list.
+         *
+         * @param entries the list
+         * @param number the number of entries to add
+         */
+        private void addFirst(ArrayList<CacheEntry> entries, int number) {
+            CacheEntry entry = first;
+            for (int i = 0; i < number && entry != null; i++) {
+                entries.add(entry);
+                entry = entry.next;
+            }
         }
-        return dbMutexMap;
     }
 
     /**
      * Class representing a cache entry.
      */
-    private class CacheEntry {
+    private static class CacheEntry {
 
+        /**
+         * The name of the database.
+         */
+        private final String dbName;
+        /**
+         * The name of the table.
+         */
+        private final String tableName;
+        /**
+         * The key of the object.
+         */
+        private final String objectKey;
         /**
          * The object of this entry.
          */
-        private Object object;
+        private volatile Object object;
         /**
          * A boolean indicating whether this entry is modified when compared to
          * the version of the database. Only modified entries will be saved when
          * the cache is emptied.
          */
-        private boolean modified;
+        private volatile boolean modified;
+        /**
+         * The estimated size of the object in memory.
+         */
+        private final long size;
+        /**
+         * The segment containing the entry, null if evicted.
+         */
+        private EntryList segment = null;
+        /**
+         * The previous entry in the segment.
+         */
+        private CacheEntry previous = null;
+        /**
+         * The next entry in the segment.
+         */
+        private CacheEntry next = null;
 
         /**
          * Constructor.
          *
+         * @param dbName the name of the database
+         * @param tableName the name of the table
+         * @param objectKey the key of the object
          * @param object the object of the entry
          * @param modified boolean indicating whether the entry is modified
+         * @param size the estimated size of the object in memory
          */
-        public CacheEntry(Object object, boolean modified) {
+        public CacheEntry(String dbName, String tableName, String objectKey, Object object, boolean modified, long size) {
+            this.dbName = dbName;
+            this.tableName = tableName;
+            this.objectKey = objectKey;
             this.object = object;
             this.modified = modified;
+            this.size = size;
         }
 
         /**
@@ -881,5 +1467,14 @@ public class ObjectsCache {
         public void setObject(Object object) {
             this.object = object;
         }
+
+        /**
+         * Returns the estimated size of the object in memory.
+         *
+         * @return the estimated size of the object in memory
+         */
+        public long getSize() {
+            return size;
+        }
     }
 }
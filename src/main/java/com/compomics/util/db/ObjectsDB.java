@@ -8,7 +8,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.concurrent.Semaphore;
-import javax.sql.rowset.serial.SerialBlob;
 
 /**
  * A database which can easily be used to store objects.
@@ -154,6 +153,10 @@ public class ObjectsDB implements Serializable {
      * class.
      */
     public static final String derbyConnectionID = "objectsDB";
+    /**
+     * The serializer used to convert the objects to blobs.
+     */
+    private transient ObjectSerializer objectSerializer;
 
     /**
      * Constructor.
@@ -207,6 +210,31 @@ public class ObjectsDB implements Serializable {
         objectCache.addDb(this);
     }
 
+    /**
+     * Returns the serializer used to convert the objects to blobs. By default
+     * a CompactObjectSerializer, which can also read the objects stored using
+     * the Java serialization.
+     *
+     * @return the serializer used to convert the objects to blobs
+     */
+    public ObjectSerializer getObjectSerializer() {
+        if (objectSerializer == null) {
+            objectSerializer = new CompactObjectSerializer();
+        }
+        return objectSerializer;
+    }
+
+    /**
+     * Sets the serializer used to convert the objects to blobs. The serializer
+     * must be able to read the objects already stored in the database.
+     *
+     * @param objectSerializer the serializer used to convert the objects to
+     * blobs
+     */
+    public void setObjectSerializer(ObjectSerializer objectSerializer) {
+        this.objectSerializer = objectSerializer;
+    }
+
     /**
      * Adds the desired table in the database.
      *
@@ -355,18 +383,7 @@ public class ObjectsDB implements Serializable {
         PreparedStatement ps = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
         try {
             ps.setString(1, correctedKey);
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            try {
-                ObjectOutputStream oos = new ObjectOutputStream(bos);
-                try {
-                    oos.writeObject(object);
-                } finally {
-                    oos.close();
-                }
-            } finally {
-                bos.close();
-            }
-            ps.setBytes(2, bos.toByteArray());
+            ps.setBytes(2, getObjectSerializer().serialize(object));
             ps.executeUpdate();
         } finally {
             ps.close();
@@ -438,29 +455,17 @@ public class ObjectsDB implements Serializable {
                 if (tableContent.contains(correctedKey)) {
                     updateKeys.put(objectKey, correctedKey);
                 } else {
-                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                    try {
-                        ObjectOutputStream oos = new ObjectOutputStream(bos);
-                        try {
-
-                            oos.writeObject(objects.get(objectKey));
-                            insertStatement.setString(1, correctedKey);
-                            insertStatement.setBytes(2, bos.toByteArray());
-                            insertStatement.addBatch();
-
-                            if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
-                                insertStatement.executeBatch();
-                                insertStatement.clearParameters();
-                                dbConnection.commit();
-                                insertStatement.close();
-                                insertStatement = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
-                                rowCounter = 0;
-                            }
-                        } finally {
-                            oos.close();
-                        }
-                    } finally {
-                        bos.close();
+                    insertStatement.setString(1, correctedKey);
+                    insertStatement.setBytes(2, getObjectSerializer().serialize(objects.get(objectKey)));
+                    insertStatement.addBatch();
+
+                    if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
+                        insertStatement.executeBatch();
+                        insertStatement.clearParameters();
+                        dbConnection.commit();
+                        insertStatement.close();
+                        insertStatement = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
+                        rowCounter = 0;
                     }
 
                     addedKeys.add(correctedKey);
@@ -513,29 +518,17 @@ public class ObjectsDB implements Serializable {
                     debugContentWriter.flush();
                 }
 
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                try {
-                    ObjectOutputStream oos = new ObjectOutputStream(bos);
-                    try {
-                        oos.writeObject(objects.get(objectKey));
-
-                        updateStatement.setString(2, correctedKey);
-                        updateStatement.setBytes(1, bos.toByteArray());
-                        updateStatement.addBatch();
-
-                        if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
-                            updateStatement.executeBatch();
-                            updateStatement.clearParameters();
-                            dbConnection.commit();
-                            updateStatement.close();
-                            updateStatement = dbConnection.prepareStatement("UPDATE " + tableName + " SET MATCH_BLOB=? WHERE NAME=?");
-                            rowCounter = 0;
-                        }
-                    } finally {
-                        oos.close();
-                    }
-                } finally {
-                    bos.close();
+                updateStatement.setString(2, correctedKey);
+                updateStatement.setBytes(1, getObjectSerializer().serialize(objects.get(objectKey)));
+                updateStatement.addBatch();
+
+                if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
+                    updateStatement.executeBatch();
+                    updateStatement.clearParameters();
+                    dbConnection.commit();
+                    updateStatement.close();
+                    updateStatement = dbConnection.prepareStatement("UPDATE " + tableName + " SET MATCH_BLOB=? WHERE NAME=?");
+                    rowCounter = 0;
                 }
 
                 if (waitingHandler != null) {
@@ -561,6 +554,38 @@ public class ObjectsDB implements Serializable {
         dbMutex.release();
     }
 
+    /**
+     * Stores a batch of objects, whether they are new or already present. The
+     * objects held by the cache are replaced in the cache and will be written
+     * when leaving it, the others are inserted or updated in the table with a
+     * single batch.
+     *
+     * @param tableName the name of the table
+     * @param objects map of the objects (object key &gt; object)
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null). The progress will be displayed on the secondary progress bar.
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     */
+    public void insertOrUpdateObjects(String tableName, HashMap<String, Object> objects, WaitingHandler waitingHandler) throws SQLException, IOException, InterruptedException {
+        HashMap<String, Object> toWrite = new HashMap<String, Object>(objects.size());
+        for (String objectKey : objects.keySet()) {
+            Object object = objects.get(objectKey);
+            String correctedKey = correctKey(tableName, objectKey);
+            if (!objectsCache.updateObject(dbName, tableName, correctedKey, object)) {
+                toWrite.put(objectKey, object);
+            }
+        }
+        if (!toWrite.isEmpty()) {
+            insertObjects(tableName, toWrite, waitingHandler);
+        }
+    }
+
     /**
      * Loads all objects from a table in the cache.
      *
@@ -611,8 +636,6 @@ public class ObjectsDB implements Serializable {
                     }
                 }
 
-                HashMap<String, Object> objectsFromDb = new HashMap<String, Object>();
-
                 dbMutex.acquire();
                 loading = true;
 
@@ -635,29 +658,12 @@ public class ObjectsDB implements Serializable {
 
                                 String key = results.getString(1);
 
+                                // objects are added to the cache before releasing the mutex so that objects waiting to be written back are not replaced
                                 if (!objectsCache.inCache(dbName, tableName, key)) {
 
-                                    Blob tempBlob;
-
-                                    if (useSQLite) {
-                                        byte[] bytes = results.getBytes(2);
-                                        tempBlob = new SerialBlob(bytes);
-                                    } else {
-                                        tempBlob = results.getBlob(2);
-                                    }
-
-                                    BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                                    try {
-                                        ObjectInputStream in = new ObjectInputStream(bis);
-                                        try {
-                                            Object object = in.readObject();
-                                            objectsFromDb.put(key, object);
-                                        } finally {
-                                            in.close();
-                                        }
-                                    } finally {
-                                        bis.close();
-                                    }
+                                    byte[] bytes = getBytes(results, 2);
+                                    Object object = getObjectSerializer().deserialize(bytes);
+                                    objectsCache.addObject(dbName, tableName, key, object, bytes.length, false, false);
                                 }
                             }
 
@@ -675,12 +681,6 @@ public class ObjectsDB implements Serializable {
                 }
                 dbMutex.release();
 
-                for (String key : objectsFromDb.keySet()) {
-                    if (!objectsCache.inCache(dbName, tableName, key)) {
-                        Object object = objectsFromDb.get(key);
-                        objectsCache.addObject(dbName, tableName, key, object, false, false);
-                    }
-                }
                 objectsCache.updateCache();
 
             } else {
@@ -776,8 +776,6 @@ public class ObjectsDB implements Serializable {
 
                 if (!toLoad.isEmpty()) {
 
-                    HashMap<String, Object> objectsFromDb = new HashMap<String, Object>(toLoad.size());
-
                     dbMutex.acquire();
                     loading = true;
 
@@ -796,26 +794,10 @@ public class ObjectsDB implements Serializable {
                                     String key = results.getString(1);
                                     if (toLoad.contains(key)) {
                                         found++;
-                                        Blob tempBlob;
-
-                                        if (useSQLite) {
-                                            byte[] bytes = results.getBytes(2);
-                                            tempBlob = new SerialBlob(bytes);
-                                        } else {
-                                            tempBlob = results.getBlob(2);
-                                        }
-
-                                        BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                                        try {
-                                            ObjectInputStream in = new ObjectInputStream(bis);
-                                            try {
-                                                Object object = in.readObject();
-                                                objectsFromDb.put(key, object);
-                                            } finally {
-                                                in.close();
-                                            }
-                                        } finally {
-                                            bis.close();
+                                        if (!objectsCache.inCache(dbName, tableName, key)) {
+                                            byte[] bytes = getBytes(results, 2);
+                                            Object object = getObjectSerializer().deserialize(bytes);
+                                            objectsCache.addObject(dbName, tableName, key, object, bytes.length, false, false);
                                         }
                                         if (waitingHandler != null && displayProgress) {
                                             waitingHandler.increaseSecondaryProgressCounter();
@@ -837,12 +819,6 @@ public class ObjectsDB implements Serializable {
                     }
                     dbMutex.release();
 
-                    for (String key : objectsFromDb.keySet()) {
-                        if (!objectsCache.inCache(dbName, tableName, key)) {
-                            Object object = objectsFromDb.get(key);
-                            objectsCache.addObject(dbName, tableName, key, object, false, false);
-                        }
-                    }
                     objectsCache.updateCache();
                 }
             } else {
@@ -981,25 +957,11 @@ public class ObjectsDB implements Serializable {
 
                 if (results.next()) {
 
-                    Blob tempBlob;
+                    byte[] bytes = getBytes(results, 1);
+                    object = getObjectSerializer().deserialize(bytes);
 
-                    if (useSQLite) {
-                        byte[] bytes = results.getBytes(1);
-                        tempBlob = new SerialBlob(bytes);
-                    } else {
-                        tempBlob = results.getBlob(1);
-                    }
-
-                    BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                    try {
-                        ObjectInputStream in = new ObjectInputStream(bis);
-                        try {
-                            object = in.readObject();
-                        } finally {
-                            in.close();
-                        }
-                    } finally {
-                        bis.close();
+                    if (useCache && !objectsCache.inCache(dbName, tableName, objectKey)) {
+                        objectsCache.addObject(dbName, tableName, objectKey, object, bytes.length, false, true);
                     }
 
                     if (debugSpeed) {
@@ -1017,7 +979,7 @@ public class ObjectsDB implements Serializable {
                         long written = System.currentTimeMillis();
 
                         FileInputStream fis = new FileInputStream(debugObjectFile);
-                        bis = new BufferedInputStream(fis);
+                        BufferedInputStream bis = new BufferedInputStream(fis);
                         ObjectInputStream in = new ObjectInputStream(bis);
                         Object match = in.readObject();
                         fis.close();
@@ -1044,15 +1006,29 @@ public class ObjectsDB implements Serializable {
 
         dbMutex.release();
 
-        if (useCache) {
-            if (!objectsCache.inCache(dbName, tableName, objectKey)) {
-                objectsCache.addObject(dbName, tableName, objectKey, object, false, true);
-            }
-        }
-
         return object;
     }
 
+    /**
+     * Returns the serialized object stored in the given column of the current
+     * row of a result set.
+     *
+     * @param results the result set
+     * @param column the index of the column
+     *
+     * @return the serialized object
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * reading the result set
+     */
+    private byte[] getBytes(ResultSet results, int column) throws SQLException {
+        if (useSQLite) {
+            return results.getBytes(column);
+        }
+        Blob blob = results.getBlob(column);
+        return blob.getBytes(1, (int) blob.length());
+    }
+
     /**
      * Indicates whether an object is loaded in the given table.
      *
@@ -1349,18 +1325,7 @@ public class ObjectsDB implements Serializable {
             }
             PreparedStatement ps = dbConnection.prepareStatement("update " + tableName + " set MATCH_BLOB=? where NAME='" + objectKey + "'");
             try {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                try {
-                    ObjectOutputStream oos = new ObjectOutputStream(bos);
-                    try {
-                        oos.writeObject(object);
-                    } finally {
-                        oos.close();
-                    }
-                } finally {
-                    bos.close();
-                }
-                ps.setBytes(1, bos.toByteArray());
+                ps.setBytes(1, getObjectSerializer().serialize(object));
                 ps.executeUpdate();
             } finally {
                 ps.close();
@@ -1468,6 +1433,15 @@ public class ObjectsDB implements Serializable {
      */
     public void close() throws SQLException, InterruptedException {
 
+        // Make sure that the objects evicted from the cache are written
+        if (objectsCache != null) {
+            try {
+                objectsCache.flushWriteBack();
+            } catch (IOException e) {
+                throw new SQLException("An error occurred while writing the cache content: " + e.getMessage());
+            }
+        }
+
         // Make sure that previous queries are done
         dbMutex.acquire();
         while (dbMutex.getQueueLength() > 0) {
@@ -0,0 +1,246 @@
+package com.compomics.util.experiment.biology;
+
+import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.biology.ions.PrecursorIon;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The theoretic fragment ions of a peptide stored as arrays. The peptide
+ * fragment ions and the precursor ions are stored as arrays of masses,
+ * numbers and neutral losses per ion type and subtype, and the ion objects
+ * are only created on demand. The other ions, e.g. immonium or reporter ions,
+ * are few and kept as objects. Instances are not modified after construction
+ * and can be shared between threads.
+ *
+ * @author Marc Vaudel
+ */
+public class CompactFragmentIons {
+
+    /**
+     * The ions indexed by ion type and subtype.
+     */
+    private final HashMap<Integer, HashMap<Integer, IonArrays>> ions;
+    /**
+     * The number of ions.
+     */
+    private final int size;
+
+    /**
+     * Constructor.
+     *
+     * @param fragmentIons the theoretic fragment ions indexed by ion type and
+     * subtype
+     */
+    public CompactFragmentIons(HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentIons) {
+        ions = new HashMap<Integer, HashMap<Integer, IonArrays>>(fragmentIons.size());
+        int nIons = 0;
+        for (Integer ionType : fragmentIons.keySet()) {
+            HashMap<Integer, ArrayList<Ion>> ionsMap = fragmentIons.get(ionType);
+            HashMap<Integer, IonArrays> arraysMap = new HashMap<Integer, IonArrays>(ionsMap.size());
+            for (Integer subType : ionsMap.keySet()) {
+                ArrayList<Ion> subTypeIons = ionsMap.get(subType);
+                if (subTypeIons != null) {
+                    Ion.IonType type = subTypeIons.isEmpty() ? null : subTypeIons.get(0).getType();
+                    arraysMap.put(subType, new IonArrays(type, subType, subTypeIons));
+                    nIons += subTypeIons.size();
+                }
+            }
+            ions.put(ionType, arraysMap);
+        }
+        size = nIons;
+    }
+
+    /**
+     * Returns the ions of the given type and subtype, null if none.
+     *
+     * @param ionType the index of the ion type
+     * @param subType the ion subtype
+     *
+     * @return the ions of the given type and subtype
+     */
+    public IonArrays getIons(int ionType, int subType) {
+        HashMap<Integer, IonArrays> arraysMap = ions.get(ionType);
+        if (arraysMap == null) {
+            return null;
+        }
+        return arraysMap.get(subType);
+    }
+
+    /**
+     * Returns the number of ions.
+     *
+     * @return the number of ions
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the ions as objects indexed by ion type and subtype. The ion
+     * objects are created at every call.
+     *
+     * @return the ions indexed by ion type and subtype
+     */
+    public HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> getFragmentIons() {
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentIons = new HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>(ions.size());
+        for (Integer ionType : ions.keySet()) {
+            HashMap<Integer, IonArrays> arraysMap = ions.get(ionType);
+            HashMap<Integer, ArrayList<Ion>> ionsMap = new HashMap<Integer, ArrayList<Ion>>(arraysMap.size());
+            for (Integer subType : arraysMap.keySet()) {
+                IonArrays ionArrays = arraysMap.get(subType);
+                ArrayList<Ion> subTypeIons = new ArrayList<Ion>(ionArrays.size());
+                for (int i = 0; i < ionArrays.size(); i++) {
+                    subTypeIons.add(ionArrays.getIon(i));
+                }
+                ionsMap.put(subType, subTypeIons);
+            }
+            fragmentIons.put(ionType, ionsMap);
+        }
+        return fragmentIons;
+    }
+
+    /**
+     * The ions of a given type and subtype.
+     */
+    public static class IonArrays {
+
+        /**
+         * The ion type.
+         */
+        private final Ion.IonType ionType;
+        /**
+         * The ion subtype.
+         */
+        private final int subType;
+        /**
+         * The theoretic masses of the ions.
+         */
+        private final double[] masses;
+        /**
+         * The numbers of the ions, -1 if not applicable.
+         */
+        private final int[] numbers;
+        /**
+         * The neutral losses of the peptide fragment and precursor ions,
+         * shared with the ions they were taken from.
+         */
+        private final NeutralLoss[][] neutralLosses;
+        /**
+         * The ion objects for the ion types which cannot be created from the
+         * arrays, null otherwise.
+         */
+        private final Ion[] ions;
+
+        /**
+         * Constructor.
+         *
+         * @param ionType the ion type
+         * @param subType the ion subtype
+         * @param subTypeIons the ions
+         */
+        private IonArrays(Ion.IonType ionType, int subType, ArrayList<Ion> subTypeIons) {
+            this.ionType = ionType;
+            this.subType = subType;
+            int nIons = subTypeIons.size();
+            masses = new double[nIons];
+            numbers = new int[nIons];
+            neutralLosses = new NeutralLoss[nIons][];
+            ions = ionType == Ion.IonType.PEPTIDE_FRAGMENT_ION || ionType == Ion.IonType.PRECURSOR_ION ? null : new Ion[nIons];
+            for (int i = 0; i < nIons; i++) {
+                Ion ion = subTypeIons.get(i);
+                masses[i] = ion.getTheoreticMass();
+                numbers[i] = ionType == Ion.IonType.PEPTIDE_FRAGMENT_ION ? ((PeptideFragmentIon) ion).getNumber() : -1;
+                if (ions == null) {
+                    neutralLosses[i] = ion.getNeutralLosses();
+                } else {
+                    ions[i] = ion;
+                }
+            }
+        }
+
+        /**
+         * Returns the number of ions.
+         *
+         * @return the number of ions
+         */
+        public int size() {
+            return masses.length;
+        }
+
+        /**
+         * Returns the theoretic mass of the ion at the given index.
+         *
+         * @param index the index of the ion
+         *
+         * @return the theoretic mass of the ion
+         */
+        public double getMass(int index) {
+            return masses[index];
+        }
+
+        /**
+         * Returns the theoretic m/z of the ion at the given index for the
+         * given charge.
+         *
+         * @param index the index of the ion
+         * @param charge the charge
+         *
+         * @return the theoretic m/z of the ion
+         */
+        public double getMz(int index, int charge) {
+            return Ion.getTheoreticMz(masses[index], charge);
+        }
+
+        /**
+         * Returns the number of the ion at the given index, -1 if not
+         * applicable.
+         *
+         * @param index the index of the ion
+         *
+         * @return the number of the ion
+         */
+        public int getNumber(int index) {
+            return numbers[index];
+        }
+
+        /**
+         * Returns the ion type.
+         *
+         * @return the ion type
+         */
+        public Ion.IonType getIonType() {
+            return ionType;
+        }
+
+        /**
+         * Returns the neutral losses of the ion at the given index, null if
+         * none or if the ion is kept as object.
+         *
+         * @param index the index of the ion
+         *
+         * @return the neutral losses of the ion
+         */
+        public NeutralLoss[] getNeutralLosses(int index) {
+            return neutralLosses[index];
+        }
+
+        /**
+         * Returns the ion at the given index. The peptide fragment and
+         * precursor ions are created at every call.
+         *
+         * @param index the index of the ion
+         *
+         * @return the ion
+         */
+        public Ion getIon(int index) {
+            if (ions != null) {
+                return ions[index];
+            }
+            if (ionType == Ion.IonType.PEPTIDE_FRAGMENT_ION) {
+                return new PeptideFragmentIon(subType, numbers[index], masses[index], neutralLosses[index]);
+            }
+            return new PrecursorIon(masses[index], neutralLosses[index]);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.compomics.util.experiment.biology;
+
+import com.compomics.util.maps.BoundedCache;
+
+/**
+ * Bounded cache for the fragment ions of peptides. The fragment ions are
+ * cached as CompactFragmentIons in a BoundedCache weighted by the number of
+ * ions.
+ *
+ * @author Marc Vaudel
+ */
+public class FragmentIonsCache {
+
+    /**
+     * The default capacity in number of cached ions.
+     */
+    public static final long DEFAULT_CAPACITY = 1000000;
+    /**
+     * The cached fragment ions.
+     */
+    private final BoundedCache<String, CompactFragmentIons> cache;
+
+    /**
+     * Constructor with the default capacity.
+     */
+    public FragmentIonsCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the capacity in number of cached ions
+     */
+    public FragmentIonsCache(long capacity) {
+        cache = new BoundedCache<String, CompactFragmentIons>(capacity);
+    }
+
+    /**
+     * Returns the fragment ions cached under the given key, null if not
+     * cached.
+     *
+     * @param key the key of the fragment ions
+     *
+     * @return the cached fragment ions
+     */
+    public CompactFragmentIons get(String key) {
+        return cache.get(key);
+    }
+
+    /**
+     * Caches the fragment ions under the given key if not already cached, and
+     * evicts the least recently used entries if the capacity is exceeded.
+     *
+     * @param key the key of the fragment ions
+     * @param fragmentIons the fragment ions
+     *
+     * @return the fragment ions cached under this key, the given ones if none
+     * were cached
+     */
+    public CompactFragmentIons put(String key, CompactFragmentIons fragmentIons) {
+        return cache.put(key, fragmentIons, fragmentIons.size());
+    }
+
+    /**
+     * Empties the cache. The counters are not reset.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Returns the capacity in number of cached ions.
+     *
+     * @return the capacity
+     */
+    public long getCapacity() {
+        return cache.getCapacity();
+    }
+
+    /**
+     * Sets the capacity in number of cached ions. A capacity of zero disables
+     * the cache.
+     *
+     * @param capacity the capacity
+     */
+    public void setCapacity(long capacity) {
+        cache.setCapacity(capacity);
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return the number of cached entries
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the number of ions currently cached.
+     *
+     * @return the number of ions currently cached
+     */
+    public long getWeight() {
+        return cache.getWeight();
+    }
+
+    /**
+     * Returns the number of lookups which found an entry.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    /**
+     * Returns the number of lookups which did not find an entry.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    /**
+     * Returns the number of evicted entries.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return cache.getEvictions();
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters.
+     */
+    public void resetCounters() {
+        cache.resetCounters();
+    }
+}
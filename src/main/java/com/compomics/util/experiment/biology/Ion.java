@@ -254,8 +254,21 @@ public abstract class Ion extends ExperimentObject {
      * @return the m/z expected for this ion
      */
     public double getTheoreticMz(Integer charge) {
+        return getTheoreticMz(getTheoreticMass(), charge);
+    }
+
+    /**
+     * Returns the m/z expected for an ion of the given mass at the given
+     * charge.
+     *
+     * @param theoreticMass the theoretic mass of the ion
+     * @param charge the charge of interest
+     *
+     * @return the m/z expected for the ion
+     */
+    public static double getTheoreticMz(double theoreticMass, int charge) {
         double protonMass = ElementaryIon.proton.getTheoreticMass();
-        double mz = getTheoreticMass() + protonMass;
+        double mz = theoreticMass + protonMass;
         if (charge > 1) {
             mz = (mz + (charge - 1) * protonMass) / charge;
         }
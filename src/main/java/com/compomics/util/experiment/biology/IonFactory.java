@@ -2,6 +2,7 @@ package com.compomics.util.experiment.biology;
 
 import com.compomics.util.experiment.biology.ions.ImmoniumIon;
 import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.biology.ions.PeptideFragmentTable;
 import com.compomics.util.experiment.biology.ions.PrecursorIon;
 import com.compomics.util.experiment.biology.ions.RelatedIon;
 import com.compomics.util.experiment.biology.ions.ReporterIon;
@@ -13,8 +14,10 @@ import com.compomics.util.experiment.identification.identification_parameters.Pt
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.TreeSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This factory generates the expected ions from a peptide.
@@ -36,7 +39,11 @@ public class IonFactory {
     /**
      * Cache for the possible combinations of neutral losses.
      */
-    private HashMap<String, NeutralLossCombination[]> neutralLossesCombinationsCache = new HashMap<String, NeutralLossCombination[]>();
+    private final ConcurrentHashMap<String, NeutralLossCombination[]> neutralLossesCombinationsCache = new ConcurrentHashMap<String, NeutralLossCombination[]>();
+    /**
+     * Cache for the fragment ions of peptides.
+     */
+    private final FragmentIonsCache fragmentIonsCache = new FragmentIonsCache();
     /**
      * Cache for the mass of NH3.
      */
@@ -183,6 +190,121 @@ public class IonFactory {
      * @return the expected fragment ions
      */
     public HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> getFragmentIons(Peptide peptide, SpecificAnnotationSettings specificAnnotationSettings) {
+        return getFragmentIons(peptide, specificAnnotationSettings, getPeptideFragmentTable(peptide));
+    }
+
+    /**
+     * Returns the theoretic ions expected from a peptide from the cache of the
+     * factory. The ions are cached as arrays of masses, use getFragmentIons to
+     * get ions which can be modified, e.g. to apply mass shifts. /!\ this
+     * method will work only if the PMTs found in the peptide are in the
+     * PTMFactory, and the cache must be cleared if a PTM is changed.
+     *
+     * @param peptide The considered peptide
+     * @param specificAnnotationSettings if provided, only the ions detectable
+     * using these settings will be selected
+     *
+     * @return the expected fragment ions
+     */
+    public CompactFragmentIons getCachedFragmentIons(Peptide peptide, SpecificAnnotationSettings specificAnnotationSettings) {
+        String key = getFragmentIonsKey(peptide, specificAnnotationSettings);
+        CompactFragmentIons fragmentIons = fragmentIonsCache.get(key);
+        if (fragmentIons == null) {
+            fragmentIons = new CompactFragmentIons(getFragmentIons(peptide, specificAnnotationSettings));
+            fragmentIons = fragmentIonsCache.put(key, fragmentIons);
+        }
+        return fragmentIons;
+    }
+
+    /**
+     * Returns the key of the fragment ions of a peptide in the cache. The key
+     * contains the sequence, all modifications with their sites, and the ions
+     * selected in the settings.
+     *
+     * @param peptide the peptide
+     * @param specificAnnotationSettings the annotation settings, can be null
+     *
+     * @return the key of the fragment ions in the cache
+     */
+    private String getFragmentIonsKey(Peptide peptide, SpecificAnnotationSettings specificAnnotationSettings) {
+        StringBuilder key = new StringBuilder(peptide.getSequence());
+        key.append('_');
+        if (peptide.isModified()) {
+            TreeSet<String> modifications = new TreeSet<String>();
+            for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                modifications.add(modificationMatch.getTheoreticPtm() + '@' + modificationMatch.getModificationSite());
+            }
+            for (String modification : modifications) {
+                key.append(modification).append(',');
+            }
+        }
+        key.append('_');
+        if (specificAnnotationSettings == null) {
+            key.append("all");
+        } else {
+            TreeSet<Integer> ionTypes = new TreeSet<Integer>();
+            for (Ion.IonType ionType : specificAnnotationSettings.getIonTypes().keySet()) {
+                ionTypes.add(ionType.index);
+            }
+            key.append(ionTypes).append(new TreeSet<Integer>(specificAnnotationSettings.getFragmentIonTypes()));
+            if (!specificAnnotationSettings.getNeutralLossesMap().isEmpty()) {
+                key.append("_losses");
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the cache used for the fragment ions of peptides.
+     *
+     * @return the cache used for the fragment ions of peptides
+     */
+    public FragmentIonsCache getFragmentIonsCache() {
+        return fragmentIonsCache;
+    }
+
+    /**
+     * Returns the table of the fragment masses of the given peptide. /!\ this
+     * method will work only if the PMTs found in the peptide are in the
+     * PTMFactory.
+     *
+     * @param peptide the peptide
+     *
+     * @return the table of the fragment masses of the peptide
+     */
+    public PeptideFragmentTable getPeptideFragmentTable(Peptide peptide) {
+        String sequence = peptide.getSequence();
+        double[] modificationMasses = new double[sequence.length()];
+        if (peptide.isModified()) {
+            PTMFactory ptmFactory = PTMFactory.getInstance();
+            for (ModificationMatch ptmMatch : peptide.getModificationMatches()) {
+                int location = ptmMatch.getModificationSite();
+                String ptmName = ptmMatch.getTheoreticPtm();
+                PTM ptm = ptmFactory.getPTM(ptmName);
+                if (ptm == null) {
+                    throw new IllegalArgumentException("PTM " + ptmName + " not loaded in the PTM factory.");
+                }
+                if (location >= 1 && location <= sequence.length()) {
+                    modificationMasses[location - 1] += ptm.getMass();
+                }
+            }
+        }
+        return new PeptideFragmentTable(sequence, modificationMasses);
+    }
+
+    /**
+     * This method returns the theoretic ions expected from a peptide using the
+     * fragment masses of the given table. /!\ this method will work only if
+     * the PMTs found in the peptide are in the PTMFactory.
+     *
+     * @param peptide The considered peptide
+     * @param specificAnnotationSettings if provided, only the ions detectable
+     * using these settings will be selected
+     * @param fragmentTable the table of the fragment masses of the peptide
+     *
+     * @return the expected fragment ions
+     */
+    public HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> getFragmentIons(Peptide peptide, SpecificAnnotationSettings specificAnnotationSettings, PeptideFragmentTable fragmentTable) {
 
         HashMap<Ion.IonType, HashSet<Integer>> selectedIonTypes = null;
         if (specificAnnotationSettings != null) {
@@ -191,7 +313,6 @@ public class IonFactory {
 
         HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> result = new HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>();
         String sequence = peptide.getSequence();
-        HashMap<Integer, ArrayList<PTM>> modifications = new HashMap<Integer, ArrayList<PTM>>(peptide.getNModifications());
         PTMFactory ptmFactory = PTMFactory.getInstance();
         ArrayList<String> processedPtms = null;
         ArrayList<NeutralLoss> possibleNeutralLosses = null;
@@ -201,18 +322,11 @@ public class IonFactory {
 
         if (peptide.isModified()) {
             for (ModificationMatch ptmMatch : peptide.getModificationMatches()) {
-                int location = ptmMatch.getModificationSite();
                 String ptmName = ptmMatch.getTheoreticPtm();
                 PTM ptm = ptmFactory.getPTM(ptmName);
                 if (ptm == null) {
                     throw new IllegalArgumentException("PTM " + ptmName + " not loaded in the PTM factory.");
                 }
-                ArrayList<PTM> modificationsAtSite = modifications.get(location);
-                if (modificationsAtSite == null) {
-                    modificationsAtSite = new ArrayList<PTM>(1);
-                    modifications.put(location, modificationsAtSite);
-                }
-                modificationsAtSite.add(ptm);
                 if (processedPtms == null || !processedPtms.contains(ptmName)) {
                     if (selectedIonTypes == null || selectedIonTypes.keySet().contains(Ion.IonType.REPORTER_ION)) {
                         for (ReporterIon ptmReporterIon : ptm.getReporterIons()) {
@@ -258,9 +372,6 @@ public class IonFactory {
             neutralLossesCombinations = getNeutralLossesCombinations(possibleNeutralLosses);
         }
 
-        double forwardMass = 0;
-        double rewindMass = Atom.O.getMonoisotopicMass();
-
         for (int aa = 0; aa < sequence.length() - 1; aa++) {
 
             char aaName = sequence.charAt(aa);
@@ -306,14 +417,7 @@ public class IonFactory {
             }
 
             int faa = aa + 1;
-            AminoAcid currentAA = AminoAcid.getAminoAcid(aaName);
-            forwardMass += currentAA.getMonoisotopicMass();
-
-            if (modifications.get(faa) != null) {
-                for (PTM ptm : modifications.get(faa)) {
-                    forwardMass += ptm.getMass();
-                }
-            }
+            double forwardMass = fragmentTable.getForwardMass(faa);
 
             HashMap<Integer, ArrayList<Ion>> ionsMap = result.get(Ion.IonType.PEPTIDE_FRAGMENT_ION.index);
             if (ionsMap == null) {
@@ -384,15 +488,7 @@ public class IonFactory {
                 }
             }
 
-            int raa = sequence.length() - aa - 1;
-            currentAA = AminoAcid.getAminoAcid(sequence.charAt(raa));
-            rewindMass += currentAA.getMonoisotopicMass();
-
-            if (modifications.get(raa + 1) != null) {
-                for (PTM ptm : modifications.get(raa + 1)) {
-                    rewindMass += ptm.getMass();
-                }
-            }
+            double rewindMass = fragmentTable.getRewindMass(faa);
 
             if (specificAnnotationSettings == null || selectedIonTypes.keySet().contains(Ion.IonType.PEPTIDE_FRAGMENT_ION) && specificAnnotationSettings.getFragmentIonTypes().contains(PeptideFragmentIon.X_ION)) {
                 // add the x-ion
@@ -458,14 +554,7 @@ public class IonFactory {
             }
         }
 
-        AminoAcid currentAA = AminoAcid.getAminoAcid(sequence.charAt(sequence.length() - 1));
-        forwardMass += currentAA.getMonoisotopicMass();
-
-        if (modifications.get(sequence.length()) != null) {
-            for (PTM ptm : modifications.get(sequence.length())) {
-                forwardMass += ptm.getMass();
-            }
-        }
+        double forwardMass = fragmentTable.getForwardMass(sequence.length());
 
         if (specificAnnotationSettings == null || selectedIonTypes.keySet().contains(Ion.IonType.PRECURSOR_ION)) {
             // add the precursor ion
@@ -0,0 +1,199 @@
+package com.compomics.util.experiment.biology.ions;
+
+import com.compomics.util.experiment.biology.AminoAcid;
+import com.compomics.util.experiment.biology.Atom;
+
+/**
+ * Table of the masses of the peptide fragment ions of a peptide without
+ * neutral losses. The masses of the forward (a, b, c) and rewind (x, y, z)
+ * fragments are derived from the cumulated residue masses stored in primitive
+ * arrays. Tables are not modified after construction and can be shared
+ * between threads.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideFragmentTable {
+
+    /**
+     * The mass of NH3.
+     */
+    private static final double nh3 = Atom.N.getMonoisotopicMass() + 3 * Atom.H.getMonoisotopicMass();
+    /**
+     * The mass of CO.
+     */
+    private static final double co = Atom.C.getMonoisotopicMass() + Atom.O.getMonoisotopicMass();
+    /**
+     * The mass of H2.
+     */
+    private static final double h2 = 2 * Atom.H.getMonoisotopicMass();
+    /**
+     * The mass of H2O.
+     */
+    private static final double h2o = 2 * Atom.H.getMonoisotopicMass() + Atom.O.getMonoisotopicMass();
+    /**
+     * The amino acid sequence.
+     */
+    private final String sequence;
+    /**
+     * The mass of the modifications on every amino acid, the first amino acid
+     * has index 0.
+     */
+    private final double[] modificationMasses;
+    /**
+     * The mass of the first i+1 residues at index i, including modifications.
+     */
+    private final double[] forwardMasses;
+    /**
+     * The mass of the last i+1 residues plus an oxygen at index i, including
+     * modifications.
+     */
+    private final double[] rewindMasses;
+
+    /**
+     * Constructor.
+     *
+     * @param sequence the amino acid sequence
+     * @param modificationMasses the mass of the modifications on every amino
+     * acid, the first amino acid has index 0
+     */
+    public PeptideFragmentTable(String sequence, double[] modificationMasses) {
+        int length = sequence.length();
+        if (modificationMasses.length != length) {
+            throw new IllegalArgumentException("The number of modification masses (" + modificationMasses.length + ") does not match the length of the sequence (" + length + ").");
+        }
+        this.sequence = sequence;
+        this.modificationMasses = modificationMasses.clone();
+        forwardMasses = new double[length];
+        rewindMasses = new double[length];
+        double forwardMass = 0;
+        double rewindMass = Atom.O.getMonoisotopicMass();
+        for (int i = 0; i < length; i++) {
+            forwardMass += AminoAcid.getAminoAcid(sequence.charAt(i)).getMonoisotopicMass();
+            forwardMass += modificationMasses[i];
+            forwardMasses[i] = forwardMass;
+            int raa = length - i - 1;
+            rewindMass += AminoAcid.getAminoAcid(sequence.charAt(raa)).getMonoisotopicMass();
+            rewindMass += modificationMasses[raa];
+            rewindMasses[i] = rewindMass;
+        }
+    }
+
+    /**
+     * Returns the amino acid sequence.
+     *
+     * @return the amino acid sequence
+     */
+    public String getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the number of fragments of every type, i.e., the length of the
+     * sequence minus one.
+     *
+     * @return the number of fragments of every type
+     */
+    public int getNFragments() {
+        return sequence.length() - 1;
+    }
+
+    /**
+     * Returns the mass of the modifications on the given site.
+     *
+     * @param site the site, 1 is the first amino acid
+     *
+     * @return the mass of the modifications on the given site
+     */
+    public double getModificationMass(int site) {
+        return modificationMasses[site - 1];
+    }
+
+    /**
+     * Returns the cumulated mass of the first residues.
+     *
+     * @param number the number of residues
+     *
+     * @return the cumulated mass of the first residues
+     */
+    public double getForwardMass(int number) {
+        return forwardMasses[number - 1];
+    }
+
+    /**
+     * Returns the cumulated mass of the last residues plus an oxygen.
+     *
+     * @param number the number of residues
+     *
+     * @return the cumulated mass of the last residues plus an oxygen
+     */
+    public double getRewindMass(int number) {
+        return rewindMasses[number - 1];
+    }
+
+    /**
+     * Returns the mass of the given peptide fragment ion without neutral
+     * losses.
+     *
+     * @param subType the type of fragment as indexed in PeptideFragmentIon
+     * @param number the number of the fragment
+     *
+     * @return the mass of the fragment ion
+     */
+    public double getMass(int subType, int number) {
+        switch (subType) {
+            case PeptideFragmentIon.A_ION:
+                return forwardMasses[number - 1] - co;
+            case PeptideFragmentIon.B_ION:
+                return forwardMasses[number - 1];
+            case PeptideFragmentIon.C_ION:
+                return forwardMasses[number - 1] + nh3;
+            case PeptideFragmentIon.X_ION:
+                return rewindMasses[number - 1] + co;
+            case PeptideFragmentIon.Y_ION:
+                return rewindMasses[number - 1] + h2;
+            case PeptideFragmentIon.Z_ION:
+                return rewindMasses[number - 1] - Atom.N.getMonoisotopicMass();
+            default:
+                throw new UnsupportedOperationException("Fragment ion type " + subType + " not implemented.");
+        }
+    }
+
+    /**
+     * Returns the m/z of the given peptide fragment ion without neutral losses
+     * at the given charge.
+     *
+     * @param subType the type of fragment as indexed in PeptideFragmentIon
+     * @param number the number of the fragment
+     * @param charge the charge
+     *
+     * @return the m/z of the fragment ion
+     */
+    public double getMz(int subType, int number, int charge) {
+        return (getMass(subType, number) + charge * ElementaryIon.proton.getTheoreticMass()) / charge;
+    }
+
+    /**
+     * Writes the m/z of all fragments of the given type at the given charge in
+     * the given array, the fragment number i is at index i-1.
+     *
+     * @param subType the type of fragment as indexed in PeptideFragmentIon
+     * @param charge the charge
+     * @param mzs the array where to write the m/z, must have at least
+     * getNFragments() elements
+     */
+    public void getMzs(int subType, int charge, double[] mzs) {
+        for (int number = 1; number < sequence.length(); number++) {
+            mzs[number - 1] = getMz(subType, number, charge);
+        }
+    }
+
+    /**
+     * Returns the mass of the peptide, i.e., the mass of the precursor without
+     * neutral losses.
+     *
+     * @return the mass of the peptide
+     */
+    public double getPeptideMass() {
+        return forwardMasses[sequence.length() - 1] + h2o;
+    }
+}
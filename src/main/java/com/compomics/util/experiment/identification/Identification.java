@@ -10,6 +10,9 @@ import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.matches_iterators.PeptideMatchesIterator;
 import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
 import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
+import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
+import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.personalization.ExperimentObject;
 import com.compomics.util.experiment.personalization.UrParameter;
@@ -22,6 +25,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class contains identification results.
@@ -34,6 +44,11 @@ public abstract class Identification extends ExperimentObject {
      * The version UID for Serialization/Deserialization compatibility.
      */
     static final long serialVersionUID = -2551700699384242554L;
+    /**
+     * The number of spectrum matches loaded at a time when building the
+     * peptide and protein matches.
+     */
+    public static final int BUILD_BATCH_SIZE = 1000;
     /**
      * List of the keys of all imported proteins.
      */
@@ -1457,15 +1472,44 @@ public abstract class Identification extends ExperimentObject {
         return spectrumKeys;
     }
 
+    /**
+     * Creates the peptides and protein instances based on the spectrum matches
+     * using all available processors. Note that the attribute bestAssumption
+     * should be set for every spectrum match at this point.
+     *
+     * @param waitingHandler the waiting handler displaying the progress. Can be
+     * null. The progress will be displayed as secondary.
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading the object from the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object in the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while casting the database input in the desired match class
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    public void buildPeptidesAndProteins(WaitingHandler waitingHandler, SequenceMatchingPreferences sequenceMatchingPreferences) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        buildPeptidesAndProteins(waitingHandler, sequenceMatchingPreferences, Runtime.getRuntime().availableProcessors());
+    }
+
     /**
      * Creates the peptides and protein instances based on the spectrum matches.
      * Note that the attribute bestAssumption should be set for every spectrum
-     * match at this point. This operation will be very slow if the cache is
-     * already full.
+     * match at this point.
+     *
+     * The spectrum matches are loaded from the database in batches. The
+     * peptides of a batch are mapped to the proteins at once using the batch
+     * mapping of the default peptide mapper, and the matches of the batch are
+     * then built in parallel. The peptide and protein matches are gathered in
+     * memory and written at the end with one batch per table. If the process
+     * is canceled, nothing is written.
      *
      * @param waitingHandler the waiting handler displaying the progress. Can be
      * null. The progress will be displayed as secondary.
      * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param nThreads the number of threads to use
      *
      * @throws SQLException exception thrown whenever an error occurred while
      * loading the object from the database
@@ -1476,23 +1520,158 @@ public abstract class Identification extends ExperimentObject {
      * @throws InterruptedException thrown whenever a threading issue occurred
      * while interacting with the database
      */
-    public void buildPeptidesAndProteins(WaitingHandler waitingHandler, SequenceMatchingPreferences sequenceMatchingPreferences) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+    public void buildPeptidesAndProteins(WaitingHandler waitingHandler, SequenceMatchingPreferences sequenceMatchingPreferences, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         if (waitingHandler != null) {
             waitingHandler.setSecondaryProgressCounterIndeterminate(false);
             waitingHandler.setMaxSecondaryProgressCounter(getSpectrumIdentificationSize());
             waitingHandler.setSecondaryProgressCounter(0);
         }
-        for (String spectrumFile : spectrumIdentificationMap.keySet()) {
-            for (String spectrumMatchKey : spectrumIdentificationMap.get(spectrumFile)) {
-                buildPeptidesAndProteins(spectrumMatchKey, sequenceMatchingPreferences);
-                if (waitingHandler != null) {
-                    waitingHandler.increaseSecondaryProgressCounter();
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
+
+        nThreads = Math.max(nThreads, 1);
+        ConcurrentHashMap<String, PeptideMatch> peptideMatches = new ConcurrentHashMap<String, PeptideMatch>();
+        ConcurrentHashMap<String, ProteinMatch> proteinMatches = new ConcurrentHashMap<String, ProteinMatch>();
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+            for (String spectrumFile : spectrumIdentificationMap.keySet()) {
+                ArrayList<String> spectrumKeys = new ArrayList<String>(spectrumIdentificationMap.get(spectrumFile));
+                for (int batchStart = 0; batchStart < spectrumKeys.size(); batchStart += BUILD_BATCH_SIZE) {
+                    int batchEnd = Math.min(batchStart + BUILD_BATCH_SIZE, spectrumKeys.size());
+                    ArrayList<String> batch = new ArrayList<String>(spectrumKeys.subList(batchStart, batchEnd));
+                    identificationDB.loadSpectrumMatches(batch, null, false);
+                    HashMap<String, ArrayList<String>> parentProteins = mapPeptides(batch, sequenceMatchingPreferences, nThreads);
+                    int nChunks = Math.min(nThreads, batch.size());
+                    ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(nChunks);
+                    for (int chunk = 0; chunk < nChunks; chunk++) {
+                        int start = (batch.size() * chunk) / nChunks;
+                        int end = (batch.size() * (chunk + 1)) / nChunks;
+                        futures.add(pool.submit(new MatchesBuilder(batch.subList(start, end), sequenceMatchingPreferences, parentProteins, peptideMatches, proteinMatches)));
+                    }
+                    for (Future<Object> future : futures) {
+                        future.get();
+                    }
+                    if (waitingHandler != null) {
+                        waitingHandler.increaseSecondaryProgressCounter(batch.size());
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("An error occurred while building the peptide and protein matches.", cause);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (ProteinMatch proteinMatch : proteinMatches.values()) {
+            String proteinKey = proteinMatch.getKey();
+            if (!proteinIdentification.contains(proteinKey)) {
+                for (String protein : proteinMatch.getTheoreticProteinsAccessions()) {
+                    HashSet<String> proteinKeys = proteinMap.get(protein);
+                    if (proteinKeys == null) {
+                        proteinKeys = new HashSet<String>();
+                        proteinMap.put(protein, proteinKeys);
                     }
+                    proteinKeys.add(proteinKey);
+                }
+            }
+        }
+
+        try {
+            identificationDB.addPeptideMatches(new HashMap<String, Object>(peptideMatches), null);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new IOException("Error while writing the peptide matches in the database.");
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException("Error while writing the peptide matches in the database.");
+        }
+        peptideIdentification.addAll(peptideMatches.keySet());
+
+        try {
+            identificationDB.addProteinMatches(new HashMap<String, Object>(proteinMatches), null);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new IOException("Error while writing the protein matches in the database.");
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException("Error while writing the protein matches in the database.");
+        }
+        proteinIdentification.addAll(proteinMatches.keySet());
+    }
+
+    /**
+     * Maps the best peptides of the given spectrum matches which are not
+     * mapped to proteins yet. The peptides are mapped in a single batch by the
+     * default peptide mapper, which decides whether it can use multiple
+     * threads: a protein tree for instance cannot be queried concurrently.
+     *
+     * @param spectrumMatchKeys the keys of the spectrum matches
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param nThreads the number of threads the mapper can use
+     *
+     * @return the sorted accessions of the parent proteins indexed by peptide
+     * sequence
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading the object from the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object in the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while casting the database input in the desired match class
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    private HashMap<String, ArrayList<String>> mapPeptides(ArrayList<String> spectrumMatchKeys, SequenceMatchingPreferences sequenceMatchingPreferences, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        HashSet<String> sequences = new HashSet<String>();
+        for (String spectrumMatchKey : spectrumMatchKeys) {
+            SpectrumMatch spectrumMatch = getSpectrumMatch(spectrumMatchKey);
+            if (spectrumMatch != null && spectrumMatch.getBestPeptideAssumption() != null) {
+                Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
+                if (peptide.getParentProteinsNoRemapping() == null) {
+                    sequences.add(peptide.getSequence());
                 }
             }
         }
+
+        HashMap<String, ArrayList<String>> result = new HashMap<String, ArrayList<String>>(sequences.size());
+        if (sequences.isEmpty()) {
+            return result;
+        }
+
+        PeptideMapper peptideMapper = SequenceFactory.getInstance().getDefaultPeptideMapper();
+        if (peptideMapper == null) {
+            throw new IllegalArgumentException("Index not created for peptide to protein mapping.");
+        }
+
+        HashMap<String, ArrayList<PeptideProteinMapping>> proteinMappings = peptideMapper.getProteinMapping(sequences, sequenceMatchingPreferences, nThreads);
+        for (String sequence : sequences) {
+            HashSet<String> accessionsFound = new HashSet<String>(2);
+            ArrayList<PeptideProteinMapping> proteinMapping = proteinMappings.get(sequence);
+            if (proteinMapping != null) {
+                for (PeptideProteinMapping peptideProteinMapping : proteinMapping) {
+                    accessionsFound.add(peptideProteinMapping.getProteinAccession());
+                }
+            }
+            ArrayList<String> accessions = new ArrayList<String>(accessionsFound);
+            Collections.sort(accessions);
+            result.put(sequence, accessions);
+        }
+
+        return result;
     }
 
     /**
@@ -1952,4 +2131,147 @@ public abstract class Identification extends ExperimentObject {
     public IdentificationDB getIdentificationDB() {
         return identificationDB;
     }
+
+    /**
+     * Adds the spectrum matches of a list of keys to the peptide and protein
+     * matches being built.
+     */
+    private class MatchesBuilder implements Callable<Object> {
+
+        /**
+         * The keys of the spectrum matches to process.
+         */
+        private final List<String> spectrumMatchKeys;
+        /**
+         * The sequence matching preferences.
+         */
+        private final SequenceMatchingPreferences sequenceMatchingPreferences;
+        /**
+         * The accessions of the parent proteins of the peptides not mapped yet
+         * indexed by peptide sequence.
+         */
+        private final HashMap<String, ArrayList<String>> parentProteins;
+        /**
+         * The peptide matches being built indexed by key.
+         */
+        private final ConcurrentHashMap<String, PeptideMatch> peptideMatches;
+        /**
+         * The protein matches being built indexed by key.
+         */
+        private final ConcurrentHashMap<String, ProteinMatch> proteinMatches;
+
+        /**
+         * Constructor.
+         *
+         * @param spectrumMatchKeys the keys of the spectrum matches to process
+         * @param sequenceMatchingPreferences the sequence matching preferences
+         * @param parentProteins the accessions of the parent proteins of the
+         * peptides not mapped yet indexed by peptide sequence
+         * @param peptideMatches the peptide matches being built
+         * @param proteinMatches the protein matches being built
+         */
+        public MatchesBuilder(List<String> spectrumMatchKeys, SequenceMatchingPreferences sequenceMatchingPreferences, HashMap<String, ArrayList<String>> parentProteins,
+                ConcurrentHashMap<String, PeptideMatch> peptideMatches, ConcurrentHashMap<String, ProteinMatch> proteinMatches) {
+            this.spectrumMatchKeys = spectrumMatchKeys;
+            this.sequenceMatchingPreferences = sequenceMatchingPreferences;
+            this.parentProteins = parentProteins;
+            this.peptideMatches = peptideMatches;
+            this.proteinMatches = proteinMatches;
+        }
+
+        @Override
+        public Object call() throws Exception {
+            for (String spectrumMatchKey : spectrumMatchKeys) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                addSpectrumMatch(spectrumMatchKey);
+            }
+            return null;
+        }
+
+        /**
+         * Adds the best peptide assumption of the given spectrum match to the
+         * peptide and protein matches. The parent proteins of the peptide are
+         * set from the batch mapping if not set already.
+         *
+         * @param spectrumMatchKey the key of the spectrum match
+         *
+         * @throws SQLException exception thrown whenever an error occurred while
+         * loading an object from the database
+         * @throws IOException exception thrown whenever an error occurred while
+         * reading an object in the database
+         * @throws ClassNotFoundException exception thrown whenever an error
+         * occurred while casting the database input in the desired match class
+         * @throws InterruptedException thrown whenever a threading issue
+         * occurred while interacting with the database
+         */
+        private void addSpectrumMatch(String spectrumMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+            SpectrumMatch spectrumMatch = getSpectrumMatch(spectrumMatchKey);
+            if (spectrumMatch == null) {
+                throw new IllegalArgumentException("Spectrum match " + spectrumMatchKey + " not found.");
+            }
+            if (spectrumMatch.getBestPeptideAssumption() == null) {
+                return;
+            }
+            Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
+            if (peptide.getParentProteinsNoRemapping() == null) {
+                ArrayList<String> accessions = parentProteins.get(peptide.getSequence());
+                if (accessions == null) {
+                    throw new IllegalStateException("Peptide " + peptide.getSequence() + " of spectrum " + spectrumMatchKey + " not mapped to the proteins.");
+                }
+                peptide.setParentProteins(new ArrayList<String>(accessions));
+            }
+            String peptideKey = peptide.getMatchingKey(sequenceMatchingPreferences);
+
+            PeptideMatch peptideMatch = peptideMatches.get(peptideKey);
+            if (peptideMatch == null) {
+                PeptideMatch newPeptideMatch;
+                if (peptideIdentification.contains(peptideKey)) {
+                    newPeptideMatch = getPeptideMatch(peptideKey);
+                    if (newPeptideMatch == null) {
+                        throw new IllegalArgumentException("Peptide match " + peptideKey + " not found.");
+                    }
+                } else {
+                    newPeptideMatch = new PeptideMatch(peptide, peptideKey);
+                }
+                peptideMatch = peptideMatches.putIfAbsent(peptideKey, newPeptideMatch);
+                if (peptideMatch == null) {
+                    peptideMatch = newPeptideMatch;
+                }
+            }
+            synchronized (peptideMatch) {
+                peptideMatch.addSpectrumMatchKey(spectrumMatchKey);
+            }
+
+            String proteinKey = ProteinMatch.getProteinMatchKey(peptide);
+
+            ProteinMatch proteinMatch = proteinMatches.get(proteinKey);
+            if (proteinMatch == null) {
+                ProteinMatch newProteinMatch;
+                if (proteinIdentification.contains(proteinKey)) {
+                    newProteinMatch = getProteinMatch(proteinKey);
+                    if (newProteinMatch == null) {
+                        throw new IllegalArgumentException("Protein match " + proteinKey + " not found.");
+                    }
+                } else {
+                    newProteinMatch = new ProteinMatch(peptideMatch.getTheoreticPeptide(), peptideKey);
+                    if (!newProteinMatch.getKey().equals(proteinKey)) {
+                        throw new IllegalArgumentException("Protein inference issue: the protein key " + proteinKey + " does not match the peptide proteins " + newProteinMatch.getKey() + "."
+                                + " Peptide: " + peptideKey + " found in spectrum " + spectrumMatchKey + ".");
+                    }
+                }
+                proteinMatch = proteinMatches.putIfAbsent(proteinKey, newProteinMatch);
+                if (proteinMatch == null) {
+                    proteinMatch = newProteinMatch;
+                }
+            }
+            synchronized (proteinMatch) {
+                if (!proteinMatch.getPeptideMatchesKeys().contains(peptideKey)) {
+                    proteinMatch.addPeptideMatchKey(peptideKey);
+                }
+            }
+        }
+    }
 }
@@ -588,6 +588,25 @@ public class IdentificationDB implements Serializable {
         objectsDB.insertObject(peptideTableName, peptideMatch.getKey(), peptideMatch, true);
     }
 
+    /**
+     * Adds a batch of peptide matches to the database. Matches already in the
+     * database are updated.
+     *
+     * @param peptideMatches the peptide matches indexed by key
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null)
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the objects in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the objects
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred when interacting with the database
+     */
+    public void addPeptideMatches(HashMap<String, Object> peptideMatches, WaitingHandler waitingHandler) throws SQLException, IOException, InterruptedException {
+        objectsDB.insertOrUpdateObjects(peptideTableName, peptideMatches, waitingHandler);
+    }
+
     /**
      * Returns the desired protein match.
      *
@@ -623,6 +642,25 @@ public class IdentificationDB implements Serializable {
         objectsDB.insertObject(proteinTableName, proteinMatch.getKey(), proteinMatch, true);
     }
 
+    /**
+     * Adds a batch of protein matches to the database. Matches already in the
+     * database are updated.
+     *
+     * @param proteinMatches the protein matches indexed by key
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null)
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the objects in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the objects
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred when interacting with the database
+     */
+    public void addProteinMatches(HashMap<String, Object> proteinMatches, WaitingHandler waitingHandler) throws SQLException, IOException, InterruptedException {
+        objectsDB.insertOrUpdateObjects(proteinTableName, proteinMatches, waitingHandler);
+    }
+
     /**
      * Adds an identification match to the database.
      *
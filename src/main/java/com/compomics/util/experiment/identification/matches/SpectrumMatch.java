@@ -173,6 +173,16 @@ public class SpectrumMatch extends IdentificationMatch {
         return assumptionsMap;
     }
 
+    /**
+     * Sets the assumptions map: advocate id &gt; score &gt; list of
+     * assumptions.
+     *
+     * @param assumptionsMap the assumptions map
+     */
+    public void setAssumptionsMap(HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap) {
+        this.assumptionsMap = assumptionsMap;
+    }
+
     /**
      * Removes all assumptions but the best ones from the spectrum map.
      */
@@ -0,0 +1,405 @@
+package com.compomics.util.experiment.identification.matches_iterators;
+
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Base class for the matches iterators. The matches are loaded in the cache
+ * of the identification in batches by background threads, ahead of the
+ * iteration. The iterator can be used by multiple threads.
+ *
+ * @param <T> the type of match returned by the iterator
+ *
+ * @author Marc Vaudel
+ */
+public abstract class MatchesIterator<T> {
+
+    /**
+     * The default number of batches loaded ahead of the iteration.
+     */
+    public static final int DEFAULT_READ_AHEAD = 2;
+    /**
+     * The maximal batch size.
+     */
+    public static final int MAX_BATCH_SIZE = 10000;
+    /**
+     * The threads loading the batches, shared by all iterators. The threads
+     * are daemon threads so that an iterator which is not iterated until the
+     * end does not prevent the application from exiting.
+     */
+    private static final ExecutorService batchLoader = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Matches iterator loader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    /**
+     * The identification where to get the matches from.
+     */
+    protected final Identification identification;
+    /**
+     * The keys of the matches to iterate.
+     */
+    private final ArrayList<String> keys;
+    /**
+     * The total number of matches to iterate.
+     */
+    private final int nMatches;
+    /**
+     * The current index of the iterator.
+     */
+    private int index = -1;
+    /**
+     * The default batch size.
+     */
+    public final int defaultBatchSize = 1000;
+    /**
+     * The default margin used to start batch loading before the loading index
+     * was reached.
+     *
+     * @deprecated no longer used, the batches are loaded ahead of the
+     * iteration, see setReadAhead
+     */
+    @Deprecated
+    public final double defaultMargin = 0.1;
+    /**
+     * The batch size set for this iterator, the batch size does not go below
+     * this value when adapted.
+     */
+    private int initialBatchSize = defaultBatchSize;
+    /**
+     * The current batch size.
+     */
+    private int batchSize = defaultBatchSize;
+    /**
+     * The number of batches loaded ahead of the iteration.
+     */
+    private int readAhead = DEFAULT_READ_AHEAD;
+    /**
+     * The index of the last match submitted for loading.
+     */
+    private int loadingIndex = -1;
+    /**
+     * The index of the last match loaded in the cache.
+     */
+    private volatile int bufferedIndex = -1;
+    /**
+     * The batches being loaded in the order of the keys. Each future returns
+     * the index of the last match of its batch.
+     */
+    private final LinkedList<Future<Integer>> pendingBatches = new LinkedList<Future<Integer>>();
+    /**
+     * The loading time of the last batch in milliseconds.
+     */
+    private volatile long lastLoadingTime = 0;
+    /**
+     * The waiting handler.
+     */
+    protected final WaitingHandler waitingHandler;
+
+    /**
+     * Constructor.
+     *
+     * @param keys the keys of the matches to iterate
+     * @param identification the identification where to get the matches from
+     * @param waitingHandler the waiting handler
+     */
+    public MatchesIterator(ArrayList<String> keys, Identification identification, WaitingHandler waitingHandler) {
+        this.keys = keys;
+        this.identification = identification;
+        this.waitingHandler = waitingHandler;
+        nMatches = keys.size();
+    }
+
+    /**
+     * Loads the matches of the given keys in the cache of the identification,
+     * along with the objects needed by the iteration. This method is called
+     * from the loading threads.
+     *
+     * @param keysInBatch the keys of the matches to load
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while loading the matches
+     */
+    protected abstract void loadBatch(ArrayList<String> keysInBatch) throws SQLException, IOException, ClassNotFoundException, InterruptedException;
+
+    /**
+     * Returns the match of the given key.
+     *
+     * @param key the key of the match
+     *
+     * @return the match
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while retrieving the match
+     */
+    protected abstract T getMatch(String key) throws SQLException, IOException, ClassNotFoundException, InterruptedException;
+
+    /**
+     * Indicates whether the iterator is done iterating. Warning: this method
+     * can be wrong when multi threading.
+     *
+     * @return false if the iterator is done iterating
+     */
+    public boolean hasNext() {
+        return index < nMatches - 1;
+    }
+
+    /**
+     * Returns the next match and updates the buffer. Null if the iterator is
+     * done iterating.
+     *
+     * @return the next match
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while retrieving the match
+     */
+    public T next() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        int threadIndex = incrementIndex(1);
+        if (threadIndex < nMatches) {
+            checkBuffer(threadIndex);
+            String key = keys.get(threadIndex);
+            return getMatch(key);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the next matches as a partition of at most the current batch
+     * size. Multiple threads can process the matches by iterating partitions.
+     * An empty list is returned if the iterator is done iterating.
+     *
+     * @return the next matches
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while retrieving the match
+     */
+    public ArrayList<T> nextBatch() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        int partitionSize = batchSize;
+        int newIndex = incrementIndex(partitionSize);
+        int firstIndex = newIndex - partitionSize + 1;
+        int lastIndex = Math.min(newIndex, nMatches - 1);
+        ArrayList<T> result = new ArrayList<T>(Math.max(lastIndex - firstIndex + 1, 0));
+        if (firstIndex <= lastIndex) {
+            checkBuffer(lastIndex);
+            for (int i = firstIndex; i <= lastIndex; i++) {
+                result.add(getMatch(keys.get(i)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Makes sure that the match at the given index is buffered in the
+     * identification cache and that the next batches are being loaded.
+     *
+     * @param matchIndex the index of the match to be returned
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while retrieving the match
+     */
+    private void checkBuffer(int matchIndex) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        if (matchIndex <= bufferedIndex) {
+            return;
+        }
+
+        synchronized (pendingBatches) {
+
+            submitBatches();
+
+            while (bufferedIndex < matchIndex) {
+
+                Future<Integer> batch = pendingBatches.peek();
+
+                if (batch == null) {
+                    // canceled, the matches will be retrieved one by one
+                    bufferedIndex = nMatches - 1;
+                    return;
+                }
+
+                boolean stalled = !batch.isDone();
+
+                try {
+                    bufferedIndex = batch.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof SQLException) {
+                        throw (SQLException) cause;
+                    } else if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof ClassNotFoundException) {
+                        throw (ClassNotFoundException) cause;
+                    } else if (cause instanceof InterruptedException) {
+                        throw (InterruptedException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IllegalStateException("An error occurred while loading the matches.", cause);
+                }
+
+                pendingBatches.poll();
+
+                // when the iteration had to wait, the loading latency is not covered by the read-ahead: load more matches per query
+                if (stalled) {
+                    batchSize = Math.min(MAX_BATCH_SIZE, 3 * batchSize / 2);
+                } else if (batchSize > initialBatchSize) {
+                    batchSize = Math.max(initialBatchSize, 9 * batchSize / 10);
+                }
+
+                submitBatches();
+            }
+        }
+    }
+
+    /**
+     * Submits batches for loading until the read-ahead is reached or all
+     * matches are being loaded. Must be called while synchronized on the
+     * pending batches.
+     */
+    private void submitBatches() {
+        while (pendingBatches.size() < readAhead && loadingIndex < nMatches - 1) {
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return;
+            }
+            int newLoadingIndex = Math.min(loadingIndex + batchSize, nMatches - 1);
+            ArrayList<String> keysInBatch = new ArrayList<String>(keys.subList(loadingIndex + 1, newLoadingIndex + 1));
+            pendingBatches.add(batchLoader.submit(new BatchLoader(keysInBatch, newLoadingIndex)));
+            loadingIndex = newLoadingIndex;
+        }
+    }
+
+    /**
+     * Increments the index of the iterator.
+     *
+     * @param increment the number of matches to skip
+     *
+     * @return an integer with value the incremented index
+     */
+    private synchronized int incrementIndex(int increment) {
+        index += increment;
+        return index;
+    }
+
+    /**
+     * Set the batch size.
+     *
+     * @param batchSize the batch size
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        initialBatchSize = batchSize;
+    }
+
+    /**
+     * Returns the current batch size.
+     *
+     * @return the current batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of batches to load ahead of the iteration.
+     *
+     * @param readAhead the number of batches to load ahead of the iteration
+     */
+    public void setReadAhead(int readAhead) {
+        this.readAhead = Math.max(readAhead, 1);
+    }
+
+    /**
+     * Returns the number of batches loaded ahead of the iteration.
+     *
+     * @return the number of batches loaded ahead of the iteration
+     */
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Returns the loading time of the last batch in milliseconds.
+     *
+     * @return the loading time of the last batch in milliseconds
+     */
+    public long getLastLoadingTime() {
+        return lastLoadingTime;
+    }
+
+    /**
+     * Loads a batch of matches in the cache.
+     */
+    private class BatchLoader implements Callable<Integer> {
+
+        /**
+         * The keys of the matches to load.
+         */
+        private final ArrayList<String> keysInBatch;
+        /**
+         * The index of the last match of the batch.
+         */
+        private final int lastIndex;
+
+        /**
+         * Constructor.
+         *
+         * @param keysInBatch the keys of the matches to load
+         * @param lastIndex the index of the last match of the batch
+         */
+        public BatchLoader(ArrayList<String> keysInBatch, int lastIndex) {
+            this.keysInBatch = keysInBatch;
+            this.lastIndex = lastIndex;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            long start = System.currentTimeMillis();
+            loadBatch(keysInBatch);
+            lastLoadingTime = System.currentTimeMillis() - start;
+            return lastIndex;
+        }
+    }
+}
@@ -6,6 +6,8 @@ import com.compomics.util.preferences.SequenceMatchingPreferences;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 
 /**
  * Interface for a class mapping peptides to a protein.
@@ -39,6 +41,30 @@ public interface PeptideMapper {
     public ArrayList<PeptideProteinMapping> getProteinMapping(String peptideSequence, SequenceMatchingPreferences proteinInferencePreferences)
             throws IOException, InterruptedException, ClassNotFoundException, SQLException;
 
+    /**
+     * Returns the protein mapping of a batch of peptide sequences in a map:
+     * peptide sequence as given &gt; mappings as returned by
+     * getProteinMapping(String, SequenceMatchingPreferences). Duplicate
+     * sequences are mapped only once.
+     *
+     * @param peptideSequences the peptide sequences
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param nThreads the number of threads to use
+     *
+     * @return the protein mapping of every peptide sequence
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the tree
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with the tree database
+     */
+    public HashMap<String, ArrayList<PeptideProteinMapping>> getProteinMapping(Collection<String> peptideSequences, SequenceMatchingPreferences sequenceMatchingPreferences, int nThreads)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException;
+
     /**
      * Returns the protein mappings for the given peptide sequence. Peptide
      * sequence | Protein accession | Index in the protein. An empty map if not
@@ -22,6 +22,7 @@ import com.compomics.util.preferences.SequenceMatchingPreferences;
 import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.regex.Pattern;
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -99,17 +100,37 @@ public class PeptideMapping {
             sequenceMatchingPreferences.setLimitX(0.25);
         }
 
+        int nThreads = Math.max(Runtime.getRuntime().availableProcessors(), 1);
         System.err.println("Start indexing proteome");
         long startTimeIndex = System.nanoTime();
         PeptideMapper peptideMapper = null;
         if (peptideMapperType == PeptideMapperType.fm_index) {
-            peptideMapper = new FMIndex(waitingHandlerCLIImpl, true, peptideVariantsPreferences, searchParameters);
+            File indexFile = FMIndex.getIndexFile(sequences);
+            try {
+                peptideMapper = new FMIndex(waitingHandlerCLIImpl, true, peptideVariantsPreferences, searchParameters, indexFile, nThreads);
+            } catch (Exception e) {
+                e.printStackTrace();
+                if (!indexFile.exists()) {
+                    System.err.println("Error: could not set up index");
+                    System.exit(-1);
+                }
+                // the saved index could not be used, index the proteome again without it
+                System.err.println("Reindexing: " + indexFile.getName() + ". (Reason: " + e.getLocalizedMessage() + ")");
+                try {
+                    peptideMapper = new FMIndex(waitingHandlerCLIImpl, true, peptideVariantsPreferences, searchParameters, null, nThreads);
+                } catch (Exception e1) {
+                    e1.printStackTrace();
+                    System.err.println("Error: could not set up index");
+                    System.exit(-1);
+                }
+            }
         } else {
             try {
                 peptideMapper = new ProteinTree(1000, 1000);
                 ExceptionHandler exceptionHandler = new CommandLineExceptionHandler();
                 ((ProteinTree) peptideMapper).initiateTree(3, 50, 50, waitingHandlerCLIImpl, exceptionHandler, true, false, 1);
             } catch (Exception e) {
+                e.printStackTrace();
                 System.err.println("Error: could not set up index");
                 System.exit(-1);
             }
@@ -147,11 +168,10 @@ public class PeptideMapping {
             // starting the mapping
             try {
                 long startTimeMapping = System.nanoTime();
+                HashMap<String, ArrayList<PeptideProteinMapping>> peptideProteinMappings = peptideMapper.getProteinMapping(peptides, sequenceMatchingPreferences, nThreads);
                 for (int i = 0; i < peptides.size(); ++i) {
-                    String peptide = peptides.get(i);
                     waitingHandlerCLIImpl.increaseSecondaryProgressCounter();
-                    ArrayList<PeptideProteinMapping> peptideProteinMappings = peptideMapper.getProteinMapping(peptide, sequenceMatchingPreferences);
-                    allPeptideProteinMappings.addAll(peptideProteinMappings);
+                    allPeptideProteinMappings.addAll(peptideProteinMappings.get(peptides.get(i)));
                 }
                 long diffTimeMapping = System.nanoTime() - startTimeMapping;
                 System.err.println();
@@ -0,0 +1,93 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.io.IOException;
+
+/**
+ * Rank over a bit vector as used by the wavelet tree. Rank stores the bit
+ * vector in arrays on the heap, MappedRank reads it from an index file and
+ * InterleavedRank interleaves the counts with the bits.
+ *
+ * @author Dominik Kopczynski
+ */
+public abstract class AbstractRank {
+
+    /**
+     * The length.
+     */
+    public final int length;
+    /**
+     * The shift.
+     */
+    protected final int shift = 6;
+    /**
+     * The mask.
+     */
+    protected final int mask = 63;
+
+    /**
+     * Constructor.
+     *
+     * @param length the length
+     */
+    protected AbstractRank(int length) {
+        this.length = length;
+    }
+
+    /**
+     * Writes the rank to an index file in the layout read by MappedRank.
+     *
+     * @param writer the index file writer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public abstract void write(IndexFileWriter writer) throws IOException;
+
+    /**
+     * Returns the rank.
+     *
+     * @param index the value
+     * @param zeros the zeros
+     * @return the rank
+     */
+    public abstract int getRank(int index, boolean zeros);
+
+    /**
+     * Returns the rank of ones.
+     *
+     * @param index the value
+     * @return the rank
+     */
+    public abstract int getRankOne(int index);
+
+    /**
+     * Returns the rank of zeros.
+     *
+     * @param index the value
+     * @return the rank
+     */
+    public abstract int getRankZero(int index);
+
+    /**
+     * Returns true if the value is equal to one.
+     *
+     * @param index the value
+     * @return true if the value is equal to one
+     */
+    public abstract boolean isOne(int index);
+
+    /**
+     * Returns true if the value is equal to one.
+     *
+     * @param index the value
+     * @return the bit
+     */
+    public abstract int isOneInt(int index);
+
+    /**
+     * Returns the number of bytes for the allocated arrays.
+     *
+     * @return the number of bytes for the allocated arrays
+     */
+    public abstract int getAllocatedBytes();
+}
@@ -21,10 +21,17 @@ import com.compomics.util.experiment.identification.protein_inference.PeptidePro
 import com.compomics.util.preferences.PeptideVariantsPreferences;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -32,6 +39,12 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 import org.jsuffixarrays.*;
 import java.util.concurrent.Semaphore;
 
@@ -43,9 +56,29 @@ import java.util.concurrent.Semaphore;
  */
 public class FMIndex implements PeptideMapper {
     /**
-     * Semaphore for caching.
+     * Extension of the files where the index is saved.
      */
-    static Semaphore cacheMutex = new Semaphore(1);
+    public static final String INDEX_FILE_EXTENSION = ".fmi";
+    /**
+     * Identifier at the beginning of the index files ("FMIX").
+     */
+    private static final int INDEX_FILE_MAGIC = 0x464D4958;
+    /**
+     * Version of the index file format. Files of another version are
+     * rebuilt.
+     */
+    private static final int INDEX_FILE_VERSION = 2;
+    /**
+     * Size of the index file header in bytes.
+     */
+    private static final int INDEX_FILE_HEADER_SIZE = 48;
+    /**
+     * If true, a CRC32 checksum of the FASTA file is stored in the index file
+     * and verified when reopening it. This reads the whole FASTA file at every
+     * start. Otherwise the index file is matched to the FASTA file by its
+     * length and last modification date.
+     */
+    private static boolean strictIndexFileCheck = false;
     /**
     * Number of chunks of complete index.
     **/
@@ -55,9 +88,21 @@ public class FMIndex implements PeptideMapper {
      */
     private final int indexChunkSize = 100 * 1024 * 1024;
     /**
-     * Sampled suffix array.
+     * Estimated number of bytes needed per character of an index part while
+     * it is built: the text and its reversed copy, the integer texts, the
+     * suffix arrays, the Burrows-Wheeler transforms and the wavelet trees of
+     * both directions.
+     */
+    private static final int BUILD_BYTES_PER_CHARACTER = 26;
+    /**
+     * Share of the free memory which can be used to build index parts
+     * concurrently.
      */
-    private final ArrayList<int[]> suffixArraysPrimary = new ArrayList<int[]>();
+    private static final double BUILD_MEMORY_SHARE = 0.75;
+    /**
+     * Sampled suffix array, either on the heap or mapped from the index file.
+     */
+    private final ArrayList<IntBuffer> suffixArraysPrimary = new ArrayList<IntBuffer>();
     /**
      * Wavelet tree for storing the burrows wheeler transform.
      */
@@ -365,7 +410,7 @@ public class FMIndex implements PeptideMapper {
     public long getAllocatedBytes() {
         long bytes = 0;
         for (int indexPart = 0; indexPart < indexParts; ++indexPart){
-            bytes += occurrenceTablesPrimary.get(indexPart).getAllocatedBytes() + occurrenceTablesReversed.get(indexPart).getAllocatedBytes() + suffixArraysPrimary.get(indexPart).length * 4;
+            bytes += occurrenceTablesPrimary.get(indexPart).getAllocatedBytes() + occurrenceTablesReversed.get(indexPart).getAllocatedBytes() + suffixArraysPrimary.get(indexPart).limit() * 4;
         }
         return bytes;
     }
@@ -379,11 +424,62 @@ public class FMIndex implements PeptideMapper {
      * @param displayProgress if true, the progress is displayed
      * @param peptideVariantsPreferences contains all parameters for variants
      * @param searchParameters the search parameters
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file or building the index
+     * @throws InterruptedException exception thrown whenever a threading
+     * error occurred while building the index
+     */
+    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PeptideVariantsPreferences peptideVariantsPreferences, SearchParameters searchParameters) throws IOException, InterruptedException {
+        this(waitingHandler, displayProgress, peptideVariantsPreferences, searchParameters, null);
+    }
+
+    /**
+     * Constructor. If PTM settings are provided the index will contain
+     * modification information, ignored if null. If an index file is
+     * provided, the index is loaded from this file when it matches the
+     * current FASTA file and settings, and saved to it otherwise.
+     *
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param peptideVariantsPreferences contains all parameters for variants
+     * @param searchParameters the search parameters
+     * @param indexFile the file where to save the index, ignored if null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file or building the index
+     * @throws InterruptedException exception thrown whenever a threading
+     * error occurred while building the index
      */
-    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PeptideVariantsPreferences peptideVariantsPreferences, SearchParameters searchParameters) {
+    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PeptideVariantsPreferences peptideVariantsPreferences, SearchParameters searchParameters, File indexFile) throws IOException, InterruptedException {
+        this(waitingHandler, displayProgress, peptideVariantsPreferences, searchParameters, indexFile, 1);
+    }
+
+    /**
+     * Constructor. If PTM settings are provided the index will contain
+     * modification information, ignored if null. If an index file is
+     * provided, the index is loaded from this file when it matches the
+     * current FASTA file and settings, and saved to it otherwise. When the
+     * index has to be built, the index parts and their forward and reversed
+     * structures are built concurrently using the given number of threads,
+     * as far as the free memory allows.
+     *
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param peptideVariantsPreferences contains all parameters for variants
+     * @param searchParameters the search parameters
+     * @param indexFile the file where to save the index, ignored if null
+     * @param nThreads the number of threads to use when building the index
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file or building the index
+     * @throws InterruptedException exception thrown whenever a threading
+     * error occurred while building the index
+     */
+    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PeptideVariantsPreferences peptideVariantsPreferences, SearchParameters searchParameters, File indexFile, int nThreads) throws IOException, InterruptedException {
         massTolerance = searchParameters.getFragmentIonAccuracy();
         massAccuracyType = searchParameters.getFragmentAccuracyType();
-        init(waitingHandler, displayProgress, searchParameters.getPtmSettings(), peptideVariantsPreferences);
+        init(waitingHandler, displayProgress, searchParameters.getPtmSettings(), peptideVariantsPreferences, indexFile, nThreads);
     }
     
     /**
@@ -394,9 +490,14 @@ public class FMIndex implements PeptideMapper {
      * @param displayProgress if true, the progress is displayed
      * @param ptmSettings contains modification parameters for identification
      * @param peptideVariantsPreferences contains all parameters for variants
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file or building the index
+     * @throws InterruptedException exception thrown whenever a threading
+     * error occurred while building the index
      */
-    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PtmSettings ptmSettings, PeptideVariantsPreferences peptideVariantsPreferences) {
-        init(waitingHandler, displayProgress, ptmSettings, peptideVariantsPreferences);
+    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PtmSettings ptmSettings, PeptideVariantsPreferences peptideVariantsPreferences) throws IOException, InterruptedException {
+        init(waitingHandler, displayProgress, ptmSettings, peptideVariantsPreferences, null, 1);
     }
         
     /**
@@ -407,9 +508,15 @@ public class FMIndex implements PeptideMapper {
      * @param displayProgress if true, the progress is displayed
      * @param ptmSettings contains modification parameters for identification
      * @param peptideVariantsPreferences contains all parameters for variants
-     * @param massTolerance the mass tolerance
+     * @param indexFile the file where to save the index, ignored if null
+     * @param nThreads the number of threads to use when building the index
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file or building the index
+     * @throws InterruptedException exception thrown whenever a threading
+     * error occurred while building the index
      */
-    private void init(WaitingHandler waitingHandler, boolean displayProgress, PtmSettings ptmSettings, PeptideVariantsPreferences peptideVariantsPreferences){
+    private void init(WaitingHandler waitingHandler, boolean displayProgress, PtmSettings ptmSettings, PeptideVariantsPreferences peptideVariantsPreferences, File indexFile, int nThreads) throws IOException, InterruptedException {
         // load all variant preferences
         maxNumberVariants = peptideVariantsPreferences.getnVariants();
         genericVariantMatching = !peptideVariantsPreferences.getUseSpecificCount();
@@ -815,10 +922,6 @@ public class FMIndex implements PeptideMapper {
         }
         numMasses = aaMassVector.size() + 1; // +1 because of X
 
-        SequenceFactory sf = SequenceFactory.getInstance();
-        
-        
-
         // Prepare alphabet
         char[] sortedAas = new char[AminoAcid.getAminoAcids().length + 2];
         System.arraycopy(AminoAcid.getAminoAcids(), 0, sortedAas, 0, AminoAcid.getAminoAcids().length);
@@ -830,53 +933,46 @@ public class FMIndex implements PeptideMapper {
             alphabet[sortedAas[i] >> 6] |= 1L << (sortedAas[i] & 63);
         }
 
-        // reading all proteins in a first pass to get information about number and total length
-        ArrayList<Integer> tmpLengths = new ArrayList<Integer>();
-        ArrayList<Integer> tmpProteins = new ArrayList<Integer>();
-        long ticker = indexChunkSize;
-        try {
-            int indexStringLength = 1;
-            int numProteins = 0;
-            ProteinIterator pi = sf.getProteinIterator(false);
-            while (pi.hasNext()) {
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    return;
-                }
-                Protein currentProtein = pi.getNextProtein();
-                int proteinLen = currentProtein.getLength();
-                indexStringLength += proteinLen;
-                ++numProteins;
-                if (indexStringLength > ticker){
-                    tmpLengths.add(indexStringLength);
-                    tmpProteins.add(numProteins);
-                    indexStringLength = 1;
-                    numProteins = 0;
+        boolean indexLoaded = false;
+        long fastaChecksum = 0;
+        if (indexFile != null) {
+            try {
+                fastaChecksum = getFastaChecksum(SequenceFactory.getInstance().getCurrentFastaFile());
+                if (indexFile.exists()) {
+                    indexLoaded = loadIndex(indexFile, fastaChecksum);
                 }
+            } catch (Exception e) {
+                System.err.println("Reindexing: " + indexFile.getName() + ". (Reason: " + e.getLocalizedMessage() + ")");
+                clearIndex();
             }
-            tmpLengths.add(indexStringLength);
-            tmpProteins.add(numProteins);
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
-            e.printStackTrace();
-        }
-        
-        int maxProgressBar = 10 * tmpLengths.size();
-
-        if (waitingHandler != null && displayProgress && !waitingHandler.isRunCanceled()) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-            waitingHandler.setMaxSecondaryProgressCounter(maxProgressBar);
-            waitingHandler.setSecondaryProgressCounter(0);
         }
-        
-        try {
-            ProteinIterator pi = sf.getProteinIterator(false);
-            for (int i = 0; i < tmpLengths.size(); ++i){
-                addDataToIndex(pi, tmpLengths.get(i), tmpProteins.get(i), alphabet, waitingHandler, displayProgress);
+        if (!indexLoaded) {
+            boolean indexBuilt = false;
+            try {
+                buildIndex(alphabet, waitingHandler, displayProgress, nThreads);
+                indexBuilt = waitingHandler == null || !waitingHandler.isRunCanceled();
+            } finally {
+                // never keep nor save the parts of a failed or canceled build
+                if (!indexBuilt) {
+                    clearIndex();
+                }
+            }
+            if (!indexBuilt) {
+                return;
+            }
+            if (indexFile != null) {
+                try {
+                    saveIndex(indexFile, fastaChecksum);
+                } catch (IOException e) {
+                    // the index is usable, report that it will be rebuilt next time
+                    if (waitingHandler == null) {
+                        throw e;
+                    }
+                    waitingHandler.appendReport("Impossible to save the index to " + indexFile.getAbsolutePath() + ": " + e.getLocalizedMessage(), true, true);
+                }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
-        
+
         int lookupLength = ((int) ((lookupMaxMass + computeInverseMassValue(massTolerance, lookupMaxMass)) * lookupMultiplier));
         lookupMasses = new long[(lookupLength >>> 6) + 3];
         for (int i = 0; i < lookupMasses.length; ++i) {
@@ -899,16 +995,415 @@ public class FMIndex implements PeptideMapper {
                return (int)((m1.mass - m2.mass) * 1000000.);
            } 
         });
-        cache = (HashMap<String, CacheElement>[])new HashMap[indexParts];
-        for (int indexPart = 0; indexPart < indexParts; ++indexPart) cache[indexPart] = new HashMap<String, CacheElement>();
     }
     
     
     
     
-    void addDataToIndex(ProteinIterator pi, int indexStringLength, int numProteins, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress){
-        indexParts += 1;
-        indexStringLength += numProteins + 1; // delimiters between protein sequences + sentinal
+    /**
+     * Builds the index parts from the proteins of the FASTA file loaded in
+     * the sequence factory. The texts of the parts are read sequentially,
+     * the suffix arrays and wavelet trees of both directions are built
+     * concurrently. The number of parts in memory at the same time is
+     * bounded by a share of the free memory.
+     *
+     * @param alphabet the alphabet
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param nThreads the number of threads to use
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file or building an index part
+     * @throws InterruptedException exception thrown whenever a threading
+     * error occurred while building the index
+     */
+    private void buildIndex(long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress, int nThreads) throws IOException, InterruptedException {
+
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+
+        // reading all proteins in a first pass to get information about number and total length
+        ArrayList<Integer> tmpLengths = new ArrayList<Integer>();
+        ArrayList<Integer> tmpProteins = new ArrayList<Integer>();
+        long ticker = indexChunkSize;
+        int indexStringLength = 1;
+        int numProteins = 0;
+        ProteinIterator pi = sequenceFactory.getProteinIterator(false);
+        while (pi.hasNext()) {
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                pi.close();
+                return;
+            }
+            Protein currentProtein = pi.getNextProtein();
+            int proteinLen = currentProtein.getLength();
+            indexStringLength += proteinLen;
+            ++numProteins;
+            if (indexStringLength > ticker){
+                tmpLengths.add(indexStringLength);
+                tmpProteins.add(numProteins);
+                indexStringLength = 1;
+                numProteins = 0;
+            }
+        }
+        tmpLengths.add(indexStringLength);
+        tmpProteins.add(numProteins);
+        
+        int maxProgressBar = 10 * tmpLengths.size();
+
+        if (waitingHandler != null && displayProgress && !waitingHandler.isRunCanceled()) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(maxProgressBar);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+        
+        Runtime runtime = Runtime.getRuntime();
+        long freeMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        int memoryBudget = Math.max((int) ((freeMemory * BUILD_MEMORY_SHARE) / 1048576), 1);
+        Semaphore memoryPermits = new Semaphore(memoryBudget);
+
+        ArrayList<IndexPartBuilder> builders = new ArrayList<IndexPartBuilder>(2 * tmpLengths.size());
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>(2 * tmpLengths.size());
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(nThreads, 1));
+        boolean completed = false;
+        pi = sequenceFactory.getProteinIterator(false);
+        try {
+            for (int i = 0; i < tmpLengths.size(); ++i) {
+                int partLength = tmpLengths.get(i) + tmpProteins.get(i) + 1; // delimiters between protein sequences + sentinal
+                int partPermits = (int) Math.min(((long) partLength * BUILD_BYTES_PER_CHARACTER) / 1048576 + 1, memoryBudget);
+                memoryPermits.acquire(partPermits);
+                byte[] T = readIndexPart(pi, partLength, tmpProteins.get(i), waitingHandler, displayProgress);
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
+                }
+                IndexPartBuilder builderPrimary = new IndexPartBuilder(T, false, alphabet, waitingHandler, displayProgress, memoryPermits, partPermits / 2);
+                IndexPartBuilder builderReversed = new IndexPartBuilder(T, true, alphabet, waitingHandler, displayProgress, memoryPermits, partPermits - partPermits / 2);
+                builders.add(builderPrimary);
+                builders.add(builderReversed);
+                futures.add(pool.submit(builderPrimary));
+                futures.add(pool.submit(builderReversed));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IOException("An error occurred while building the index: " + cause.getMessage(), cause);
+                }
+            }
+            completed = true;
+        } finally {
+            pi.close();
+            if (completed) {
+                pool.shutdown();
+            } else {
+                pool.shutdownNow();
+            }
+        }
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return;
+        }
+
+        for (int i = 0; i < builders.size(); i += 2) {
+            IndexPartBuilder builderPrimary = builders.get(i);
+            IndexPartBuilder builderReversed = builders.get(i + 1);
+            suffixArraysPrimary.add(builderPrimary.sampledSuffixArray);
+            occurrenceTablesPrimary.add(builderPrimary.occurrenceTable);
+            occurrenceTablesReversed.add(builderReversed.occurrenceTable);
+            lessTablesPrimary.add(builderPrimary.lessTable);
+            lessTablesReversed.add(builderReversed.lessTable);
+            ++indexParts;
+        }
+    }
+
+    /**
+     * Returns the default file where the index of the given FASTA file is
+     * saved.
+     *
+     * @param fastaFile the FASTA file
+     *
+     * @return the index file
+     */
+    public static File getIndexFile(File fastaFile) {
+        return getIndexFile(fastaFile.getParentFile(), fastaFile);
+    }
+
+    /**
+     * Returns the file where the index of the given FASTA file is saved in
+     * the given folder.
+     *
+     * @param folder the folder where to save the index
+     * @param fastaFile the FASTA file
+     *
+     * @return the index file
+     */
+    public static File getIndexFile(File folder, File fastaFile) {
+        return new File(folder, fastaFile.getName() + INDEX_FILE_EXTENSION);
+    }
+
+    /**
+     * Indicates whether the index files are verified using a checksum of the
+     * FASTA file.
+     *
+     * @return a boolean indicating whether the index files are verified using
+     * a checksum of the FASTA file
+     */
+    public static boolean isStrictIndexFileCheck() {
+        return strictIndexFileCheck;
+    }
+
+    /**
+     * Sets whether the index files are verified using a checksum of the
+     * FASTA file. If true, the whole FASTA file is read when opening an
+     * index, and index files saved without checksum are rebuilt.
+     *
+     * @param strictIndexFileCheck a boolean indicating whether the index files
+     * are verified using a checksum of the FASTA file
+     */
+    public static void setStrictIndexFileCheck(boolean strictIndexFileCheck) {
+        FMIndex.strictIndexFileCheck = strictIndexFileCheck;
+    }
+
+    /**
+     * Returns the checksum of the FASTA file to store in the index file, 0 if
+     * the strict index file check is disabled.
+     *
+     * @param fastaFile the FASTA file
+     *
+     * @return the checksum of the FASTA file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private static long getFastaChecksum(File fastaFile) throws IOException {
+        return strictIndexFileCheck ? getChecksum(fastaFile) : 0;
+    }
+
+    /**
+     * Returns the CRC32 checksum of the given file.
+     *
+     * @param file the file
+     *
+     * @return the checksum
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private static long getChecksum(File file) throws IOException {
+        CRC32 crc32 = new CRC32();
+        byte[] buffer = new byte[1 << 20];
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                crc32.update(buffer, 0, length);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return crc32.getValue();
+    }
+
+    /**
+     * Removes all index parts.
+     */
+    private void clearIndex() {
+        indexParts = 0;
+        suffixArraysPrimary.clear();
+        occurrenceTablesPrimary.clear();
+        occurrenceTablesReversed.clear();
+        lessTablesPrimary.clear();
+        lessTablesReversed.clear();
+        indexStringLengths.clear();
+        boundaries.clear();
+        accessions.clear();
+    }
+
+    /**
+     * Saves the index to a file which can be reopened by the constructor
+     * instead of rebuilding the index.
+     *
+     * @param indexFile the file where to save the index
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file or writing the index file
+     */
+    public void saveIndex(File indexFile) throws IOException {
+        saveIndex(indexFile, getFastaChecksum(SequenceFactory.getInstance().getCurrentFastaFile()));
+    }
+
+    /**
+     * Saves the index to a file. The file starts with a header containing the
+     * format version, the length, modification date and optional checksum of
+     * the FASTA file and the settings the index depends on, followed by a table of the index parts. Every part starts at a
+     * position aligned on eight bytes so that it can be mapped separately.
+     *
+     * @param indexFile the file where to save the index
+     * @param fastaChecksum the checksum of the FASTA file, 0 if not computed
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the index file
+     */
+    private void saveIndex(File indexFile, long fastaChecksum) throws IOException {
+        File tempFile = new File(indexFile.getParentFile(), indexFile.getName() + "_temp");
+        IndexFileWriter writer = new IndexFileWriter(tempFile);
+        boolean written = false;
+        try {
+            writer.writeInt(INDEX_FILE_MAGIC);
+            writer.writeInt(INDEX_FILE_VERSION);
+            writer.writeInt(numMasses);
+            writer.writeInt(samplingShift);
+            File fastaFile = SequenceFactory.getInstance().getCurrentFastaFile();
+            writer.writeLong(fastaChecksum);
+            writer.writeLong(fastaFile.length());
+            writer.writeLong(fastaFile.lastModified());
+            writer.writeInt(indexParts);
+            writer.writeBoolean(hasPTMatTerminus);
+            writer.align();
+
+            long tablePosition = writer.getPosition();
+            for (int indexPart = 0; indexPart < indexParts; ++indexPart) {
+                writer.writeLong(0);
+                writer.writeLong(0);
+            }
+
+            long[] partPositions = new long[indexParts];
+            long[] partLengths = new long[indexParts];
+            for (int indexPart = 0; indexPart < indexParts; ++indexPart) {
+                partPositions[indexPart] = writer.getPosition();
+                writer.writeInt(indexStringLengths.get(indexPart));
+                int[] partBoundaries = boundaries.get(indexPart);
+                writer.writeInt(partBoundaries.length);
+                writer.writeInts(partBoundaries);
+                String[] partAccessions = accessions.get(indexPart);
+                writer.writeInt(partAccessions.length);
+                for (String accession : partAccessions) {
+                    writer.writeString(accession);
+                }
+                IntBuffer suffixArray = suffixArraysPrimary.get(indexPart);
+                writer.writeInt(suffixArray.limit());
+                writer.align();
+                writer.writeInts(suffixArray);
+                writer.align();
+                occurrenceTablesPrimary.get(indexPart).write(writer);
+                occurrenceTablesReversed.get(indexPart).write(writer);
+                partLengths[indexPart] = writer.getPosition() - partPositions[indexPart];
+            }
+
+            writer.seek(tablePosition);
+            for (int indexPart = 0; indexPart < indexParts; ++indexPart) {
+                writer.writeLong(partPositions[indexPart]);
+                writer.writeLong(partLengths[indexPart]);
+            }
+            written = true;
+        } finally {
+            writer.close();
+            if (!written) {
+                tempFile.delete();
+            }
+        }
+        if (indexFile.exists() && !indexFile.delete()) {
+            throw new IOException("Impossible to replace " + indexFile.getAbsolutePath() + ".");
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            throw new IOException("Impossible to rename " + tempFile.getAbsolutePath() + " to " + indexFile.getName() + ".");
+        }
+    }
+
+    /**
+     * Loads the index from a file. The suffix arrays and the bit fields of the
+     * wavelet trees are memory mapped and stay off-heap, the less tables,
+     * boundaries and accessions are copied to the heap.
+     *
+     * @param indexFile the index file
+     * @param fastaChecksum the checksum of the FASTA file, ignored if the
+     * strict index file check is disabled
+     *
+     * @return true if the index was loaded, false if the file does not match
+     * the FASTA file or the settings
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the index file
+     */
+    private boolean loadIndex(File indexFile, long fastaChecksum) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            IndexFileReader header = new IndexFileReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, INDEX_FILE_HEADER_SIZE));
+            if (header.readInt() != INDEX_FILE_MAGIC || header.readInt() != INDEX_FILE_VERSION) {
+                System.err.println("Reindexing: " + indexFile.getName() + ". (index file format changed)");
+                return false;
+            }
+            int fileNumMasses = header.readInt();
+            int fileSamplingShift = header.readInt();
+            long fileChecksum = header.readLong();
+            long fileFastaLength = header.readLong();
+            long fileFastaLastModified = header.readLong();
+            int fileIndexParts = header.readInt();
+            boolean fileHasPTMatTerminus = header.readBoolean();
+            File fastaFile = SequenceFactory.getInstance().getCurrentFastaFile();
+            if (fileFastaLength != fastaFile.length() || fileFastaLastModified != fastaFile.lastModified()
+                    || strictIndexFileCheck && fileChecksum != fastaChecksum) {
+                System.err.println("Reindexing: " + indexFile.getName() + ". (changes in the file detected)");
+                return false;
+            }
+            if (fileNumMasses != numMasses || fileSamplingShift != samplingShift || fileHasPTMatTerminus != hasPTMatTerminus) {
+                System.err.println("Reindexing: " + indexFile.getName() + ". (changes in the settings detected)");
+                return false;
+            }
+
+            IndexFileReader table = new IndexFileReader(channel.map(FileChannel.MapMode.READ_ONLY, INDEX_FILE_HEADER_SIZE, fileIndexParts * 16));
+            for (int indexPart = 0; indexPart < fileIndexParts; ++indexPart) {
+                long partPosition = table.readLong();
+                long partLength = table.readLong();
+                IndexFileReader reader = new IndexFileReader(channel.map(FileChannel.MapMode.READ_ONLY, partPosition, partLength));
+                indexStringLengths.add(reader.readInt());
+                boundaries.add(reader.readIntArray(reader.readInt()));
+                String[] partAccessions = new String[reader.readInt()];
+                for (int i = 0; i < partAccessions.length; ++i) {
+                    partAccessions[i] = reader.readString();
+                }
+                accessions.add(partAccessions);
+                int suffixArrayLength = reader.readInt();
+                reader.align();
+                suffixArraysPrimary.add(reader.readInts(suffixArrayLength));
+                reader.align();
+                WaveletTree occurrenceTablePrimary = new WaveletTree(reader);
+                WaveletTree occurrenceTableReversed = new WaveletTree(reader);
+                occurrenceTablesPrimary.add(occurrenceTablePrimary);
+                occurrenceTablesReversed.add(occurrenceTableReversed);
+                lessTablesPrimary.add(occurrenceTablePrimary.createLessTable());
+                lessTablesReversed.add(occurrenceTableReversed.createLessTable());
+                ++indexParts;
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+        return true;
+    }
+
+    /**
+     * Reads the proteins of an index part and returns its text. The
+     * boundaries and accessions of the proteins are added to the index.
+     *
+     * @param pi the protein iterator
+     * @param indexStringLength the length of the text including the
+     * delimiters and the sentinel
+     * @param numProteins the number of proteins in the index part
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     *
+     * @return the text of the index part
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file
+     * @throws InterruptedException exception thrown whenever a threading
+     * error occurred while reading the FASTA file
+     */
+    private byte[] readIndexPart(ProteinIterator pi, int indexStringLength, int numProteins, WaitingHandler waitingHandler, boolean displayProgress) throws IOException, InterruptedException {
         indexStringLengths.add(indexStringLength);
         
         if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
@@ -924,117 +1419,175 @@ public class FMIndex implements PeptideMapper {
         boundaries.add(bndaries);
         String[] accssions = new String[numProteins];
         accessions.add(accssions);
-        boundaries.get(0)[0] = 1;
+        bndaries[0] = 1;
 
         // reading proteins in a second pass to store their amino acid sequences and their accession numbers
         int tmpN = 0;
         int tmpNumProtein = 0;
-        try {
-            
-            for (int i = 0; i < numProteins; ++i){
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    return;
-                }
-                if (!pi.hasNext()) throw new Exception("More sequences from database requested than contained.");
-                Protein currentProtein = pi.getNextProtein();
-                int proteinLen = currentProtein.getLength();
-                T[tmpN++] = '/'; // adding the delimiters
-                System.arraycopy(currentProtein.getSequence().toUpperCase().getBytes(), 0, T, tmpN, proteinLen);
-                tmpN += proteinLen;
-                accssions[tmpNumProtein++] = currentProtein.getAccession();
-                bndaries[tmpNumProtein] = tmpN + 1;
-
+        for (int i = 0; i < numProteins; ++i){
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return T;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            if (!pi.hasNext()) throw new IOException("More sequences from database requested than contained.");
+            Protein currentProtein = pi.getNextProtein();
+            int proteinLen = currentProtein.getLength();
+            T[tmpN++] = '/'; // adding the delimiters
+            System.arraycopy(currentProtein.getSequence().toUpperCase().getBytes(), 0, T, tmpN, proteinLen);
+            tmpN += proteinLen;
+            accssions[tmpNumProtein++] = currentProtein.getAccession();
+            bndaries[tmpNumProtein] = tmpN + 1;
         }
         if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
             waitingHandler.increaseSecondaryProgressCounter();
         }
+        return T;
+    }
 
-        int[] T_int = new int[indexStringLength];
-        for (int i = 0; i < indexStringLength; ++i) {
-            T_int[i] = T[i];
-        }
-        int[] suffixArrayPrimary = (new DivSufSort()).buildSuffixArray(T_int, 0, indexStringLength);
+    /**
+     * Builds the suffix array, the Burrows-Wheeler transform and the wavelet
+     * tree of an index part in forward or reversed direction. The memory
+     * permits held for the part are released when done.
+     */
+    private class IndexPartBuilder implements Runnable {
 
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
-        T_int = null;
+        /**
+         * The text of the index part, released when done.
+         */
+        private byte[] text;
+        /**
+         * If true the structures are built over the reversed text.
+         */
+        private final boolean reversed;
+        /**
+         * The alphabet.
+         */
+        private final long[] alphabet;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * If true, the progress is displayed.
+         */
+        private final boolean displayProgress;
+        /**
+         * The memory permits of the index build.
+         */
+        private final Semaphore memoryPermits;
+        /**
+         * The number of memory permits held for this builder.
+         */
+        private final int nPermits;
+        /**
+         * The sampled suffix array, only built in forward direction.
+         */
+        IntBuffer sampledSuffixArray = null;
+        /**
+         * The occurrence table.
+         */
+        WaveletTree occurrenceTable = null;
+        /**
+         * The less table.
+         */
+        int[] lessTable = null;
 
-        // create Burrows-Wheeler-Transform
-        byte[] bwt = new byte[indexStringLength];
-        for (int i = 0; i < indexStringLength; ++i) {
-            bwt[i] = (suffixArrayPrimary[i] != 0) ? T[suffixArrayPrimary[i] - 1] : T[indexStringLength - 1];
-        }
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+        /**
+         * Constructor.
+         *
+         * @param text the text of the index part
+         * @param reversed if true the structures are built over the reversed
+         * text
+         * @param alphabet the alphabet
+         * @param waitingHandler the waiting handler
+         * @param displayProgress if true, the progress is displayed
+         * @param memoryPermits the memory permits of the index build
+         * @param nPermits the number of memory permits held for this builder
+         */
+        IndexPartBuilder(byte[] text, boolean reversed, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress, Semaphore memoryPermits, int nPermits) {
+            this.text = text;
+            this.reversed = reversed;
+            this.alphabet = alphabet;
+            this.waitingHandler = waitingHandler;
+            this.displayProgress = displayProgress;
+            this.memoryPermits = memoryPermits;
+            this.nPermits = nPermits;
         }
 
-        // sampling suffix array
-        int[] sampledSuffixArray = new int[((indexStringLength + 1) >> samplingShift) + 1];
-        int sampledIndex = 0;
-        for (int i = 0; i < indexStringLength; i += sampling) {
-            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                return;
+        @Override
+        public void run() {
+            try {
+                if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
+                    build();
+                }
+            } finally {
+                text = null;
+                memoryPermits.release(nPermits);
             }
-            sampledSuffixArray[sampledIndex++] = suffixArrayPrimary[i];
         }
-        suffixArraysPrimary.add(sampledSuffixArray);
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
-        
 
-        // creating the occurrence table and less table for backward search over forward text
-        WaveletTree occurrenceTablePrimary = new WaveletTree(bwt, alphabet, waitingHandler, numMasses, hasPTMatTerminus);
-        int[] lessTablePrimary = occurrenceTablePrimary.createLessTable();
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
-
-        bwt = null;
-        // create inversed text for inversed index
-        byte[] TReversed = new byte[indexStringLength];
-        for (int i = 0; i < indexStringLength - 1; ++i) {
-            TReversed[indexStringLength - 2 - i] = T[i];
-        }
-        TReversed[indexStringLength - 1] = '$';
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
+        /**
+         * Builds the structures.
+         */
+        private void build() {
+            int indexStringLength = text.length;
+            byte[] T = text;
+            if (reversed) {
+                // create inversed text for inversed index
+                T = new byte[indexStringLength];
+                for (int i = 0; i < indexStringLength - 1; ++i) {
+                    T[indexStringLength - 2 - i] = text[i];
+                }
+                T[indexStringLength - 1] = '$';
+                increaseProgress();
+            }
 
-        // create the inversed suffix array using at most 128 characters
-        T_int = new int[indexStringLength];
-        for (int i = 0; i < indexStringLength; ++i) {
-            T_int[i] = TReversed[i];
-        }
-        int[] suffixArrayReversed = (new DivSufSort()).buildSuffixArray(T_int, 0, indexStringLength);
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
+            // create the suffix array using at most 128 characters
+            int[] T_int = new int[indexStringLength];
+            for (int i = 0; i < indexStringLength; ++i) {
+                T_int[i] = T[i];
+            }
+            int[] suffixArray = (new DivSufSort()).buildSuffixArray(T_int, 0, indexStringLength);
+            T_int = null;
+            increaseProgress();
+
+            // create Burrows-Wheeler-Transform
+            byte[] bwt = new byte[indexStringLength];
+            for (int i = 0; i < indexStringLength; ++i) {
+                bwt[i] = (suffixArray[i] != 0) ? T[suffixArray[i] - 1] : T[indexStringLength - 1];
+            }
+            T = null;
+            increaseProgress();
+
+            if (!reversed) {
+                // sampling suffix array
+                int[] sampledSuffixArrayPrimary = new int[((indexStringLength + 1) >> samplingShift) + 1];
+                int sampledIndex = 0;
+                for (int i = 0; i < indexStringLength; i += sampling) {
+                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    sampledSuffixArrayPrimary[sampledIndex++] = suffixArray[i];
+                }
+                sampledSuffixArray = IntBuffer.wrap(sampledSuffixArrayPrimary);
+                increaseProgress();
+            }
+            suffixArray = null;
 
-        // create inversed Burrows-Wheeler-Transform
-        bwt = new byte[indexStringLength];
-        for (int i = 0; i < indexStringLength; ++i) {
-            bwt[i] = (suffixArrayReversed[i] != 0) ? TReversed[suffixArrayReversed[i] - 1] : TReversed[indexStringLength - 1];
-        }
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+            // creating the occurrence table and less table for backward search
+            occurrenceTable = new WaveletTree(bwt, alphabet, waitingHandler, numMasses, hasPTMatTerminus);
+            lessTable = occurrenceTable.createLessTable();
+            increaseProgress();
         }
 
-        // create inversed less and occurrence table
-        WaveletTree occurrenceTableReversed = new WaveletTree(bwt, alphabet, waitingHandler, numMasses, hasPTMatTerminus);
-        int[] lessTableReversed = occurrenceTableReversed.createLessTable();
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+        /**
+         * Increases the secondary progress counter if the progress is
+         * displayed.
+         */
+        private void increaseProgress() {
+            if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
         }
-        
-        occurrenceTablesPrimary.add(occurrenceTablePrimary);
-        occurrenceTablesReversed.add(occurrenceTableReversed);
-        lessTablesPrimary.add(lessTablePrimary);
-        lessTablesReversed.add(lessTableReversed);
     }
     
     
@@ -1214,7 +1767,7 @@ public class FMIndex implements PeptideMapper {
      * @return the text position
      */
     private int getTextPosition(int index, int indexPart) {
-        int[] suffixArrayPrimary = suffixArraysPrimary.get(indexPart);
+        IntBuffer suffixArrayPrimary = suffixArraysPrimary.get(indexPart);
         int[] lessTablePrimary = lessTablesPrimary.get(indexPart);
         WaveletTree occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
         int indexStringLength = indexStringLengths.get(indexPart);
@@ -1225,7 +1778,7 @@ public class FMIndex implements PeptideMapper {
 
             ++numIterations;
         }
-        int pos = suffixArrayPrimary[index >> samplingShift] + numIterations;
+        int pos = suffixArrayPrimary.get(index >> samplingShift) + numIterations;
         return (pos < indexStringLength) ? pos : pos - indexStringLength;
     }
 
@@ -1262,6 +1815,185 @@ public class FMIndex implements PeptideMapper {
 
     }
 
+    /**
+     * Maps a batch of peptides against all registered proteins. Duplicate
+     * peptides are mapped once. The peptides are sorted by reversed sequence
+     * so that the backward search of peptides ending with the same amino
+     * acids can share its first steps, and the sorted peptides are mapped in
+     * chunks on every index part concurrently.
+     *
+     * @param peptides the peptides
+     * @param seqMatchPref the sequence matching preferences
+     * @param nThreads the number of threads to use
+     *
+     * @return the protein mapping of every peptide
+     *
+     * @throws InterruptedException exception thrown whenever a threading
+     * issue occurred while mapping the peptides
+     */
+    @Override
+    public HashMap<String, ArrayList<PeptideProteinMapping>> getProteinMapping(Collection<String> peptides, SequenceMatchingPreferences seqMatchPref, int nThreads) throws InterruptedException {
+        HashSet<String> uniquePeptides = new HashSet<String>(peptides);
+        String[] reversedPeptides = new String[uniquePeptides.size()];
+        HashMap<String, ArrayList<PeptideProteinMapping>> result = new HashMap<String, ArrayList<PeptideProteinMapping>>(uniquePeptides.size());
+        int peptideIndex = 0;
+        for (String peptide : uniquePeptides) {
+            reversedPeptides[peptideIndex++] = new StringBuilder(peptide).reverse().toString();
+            result.put(peptide, new ArrayList<PeptideProteinMapping>());
+        }
+        if (reversedPeptides.length == 0 || indexParts == 0) {
+            return result;
+        }
+        Arrays.sort(reversedPeptides);
+
+        nThreads = Math.max(nThreads, 1);
+        int nChunks = Math.min(Math.max(4 * nThreads / indexParts, 1), reversedPeptides.length);
+        ArrayList<Future<HashMap<String, ArrayList<PeptideProteinMapping>>>> futures = new ArrayList<Future<HashMap<String, ArrayList<PeptideProteinMapping>>>>(nChunks * indexParts);
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+            for (int chunk = 0; chunk < nChunks; ++chunk) {
+                int start = (int) (((long) reversedPeptides.length * chunk) / nChunks);
+                int end = (int) (((long) reversedPeptides.length * (chunk + 1)) / nChunks);
+                for (int indexPart = 0; indexPart < indexParts; ++indexPart) {
+                    futures.add(pool.submit(new PeptideBatchMapper(reversedPeptides, start, end, seqMatchPref, indexPart)));
+                }
+            }
+            for (Future<HashMap<String, ArrayList<PeptideProteinMapping>>> future : futures) {
+                HashMap<String, ArrayList<PeptideProteinMapping>> partResult = future.get();
+                for (String peptide : partResult.keySet()) {
+                    result.get(peptide).addAll(partResult.get(peptide));
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("An error occurred while mapping the peptides.", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * Maps a chunk of sorted reversed peptides against an index part.
+     */
+    private class PeptideBatchMapper implements Callable<HashMap<String, ArrayList<PeptideProteinMapping>>> {
+
+        /**
+         * The sorted reversed peptides.
+         */
+        private final String[] reversedPeptides;
+        /**
+         * Index of the first peptide of the chunk.
+         */
+        private final int start;
+        /**
+         * Index after the last peptide of the chunk.
+         */
+        private final int end;
+        /**
+         * The sequence matching preferences.
+         */
+        private final SequenceMatchingPreferences seqMatchPref;
+        /**
+         * The index part.
+         */
+        private final int indexPart;
+
+        /**
+         * Constructor.
+         *
+         * @param reversedPeptides the sorted reversed peptides
+         * @param start index of the first peptide of the chunk
+         * @param end index after the last peptide of the chunk
+         * @param seqMatchPref the sequence matching preferences
+         * @param indexPart the index part
+         */
+        PeptideBatchMapper(String[] reversedPeptides, int start, int end, SequenceMatchingPreferences seqMatchPref, int indexPart) {
+            this.reversedPeptides = reversedPeptides;
+            this.start = start;
+            this.end = end;
+            this.seqMatchPref = seqMatchPref;
+            this.indexPart = indexPart;
+        }
+
+        @Override
+        public HashMap<String, ArrayList<PeptideProteinMapping>> call() {
+            HashMap<String, ArrayList<PeptideProteinMapping>> result = new HashMap<String, ArrayList<PeptideProteinMapping>>(end - start);
+            boolean withVariants = maxNumberVariants > 0 || maxNumberDeletions > 0 || maxNumberInsertions > 0 || maxNumberSubstitutions > 0;
+            if (withVariants) {
+                for (int i = start; i < end; ++i) {
+                    String peptide = new StringBuilder(reversedPeptides[i]).reverse().toString();
+                    if (genericVariantMatching) {
+                        result.put(peptide, getProteinMappingWithVariantsGeneric(peptide, seqMatchPref, indexPart));
+                    } else {
+                        result.put(peptide, getProteinMappingWithVariantsSpecific(peptide, seqMatchPref, indexPart));
+                    }
+                }
+                return result;
+            }
+
+            int maxLength = 0;
+            for (int i = start; i < end; ++i) {
+                maxLength = Math.max(maxLength, reversedPeptides[i].length());
+            }
+            ArrayList<MatrixContent>[] backwardList = (ArrayList<MatrixContent>[]) new ArrayList[maxLength + 1];
+            String previousPeptide = null;
+            int previousMaxX = -1;
+            int validLength = 0;
+            for (int i = start; i < end; ++i) {
+                String pep_rev = reversedPeptides[i];
+                int lenPeptide = pep_rev.length();
+                int maxX = getMaxX(lenPeptide, seqMatchPref);
+                int sharedLength = 0;
+                if (previousPeptide != null && maxX == previousMaxX) {
+                    int maxShared = Math.min(validLength, lenPeptide);
+                    while (sharedLength < maxShared && previousPeptide.charAt(sharedLength) == pep_rev.charAt(sharedLength)) {
+                        ++sharedLength;
+                    }
+                }
+                String peptide = new StringBuilder(pep_rev).reverse().toString();
+                if (getNumX(pep_rev) <= maxX) {
+                    result.put(peptide, getProteinMappingWithoutVariants(pep_rev, seqMatchPref, indexPart, backwardList, sharedLength));
+                    validLength = lenPeptide;
+                } else {
+                    result.put(peptide, new ArrayList<PeptideProteinMapping>(0));
+                    validLength = sharedLength;
+                }
+                previousPeptide = pep_rev;
+                previousMaxX = maxX;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Returns the maximal number of X allowed in a peptide.
+     *
+     * @param lenPeptide the length of the peptide
+     * @param seqMatchPref the sequence matching preferences
+     *
+     * @return the maximal number of X
+     */
+    private static int getMaxX(int lenPeptide, SequenceMatchingPreferences seqMatchPref) {
+        return (int) (((seqMatchPref.getLimitX() != null) ? seqMatchPref.getLimitX() : 1) * lenPeptide);
+    }
+
+    /**
+     * Returns the number of X in a peptide.
+     *
+     * @param peptide the peptide
+     *
+     * @return the number of X
+     */
+    private static int getNumX(String peptide) {
+        int countX = 0;
+        for (int i = 0; i < peptide.length(); ++i) {
+            if (peptide.charAt(i) == 'X') {
+                ++countX;
+            }
+        }
+        return countX;
+    }
+
     /**
      * Exact mapping peptides against the proteome.
      *
@@ -1271,82 +2003,96 @@ public class FMIndex implements PeptideMapper {
      * @return the mapping
      */
     public ArrayList<PeptideProteinMapping> getProteinMappingWithoutVariants(String peptide, SequenceMatchingPreferences seqMatchPref, int indexPart) {
+        int lenPeptide = peptide.length();
+        if (getNumX(peptide) > getMaxX(lenPeptide, seqMatchPref)) {
+            return new ArrayList<PeptideProteinMapping>();
+        }
+        String pep_rev = new StringBuilder(peptide).reverse().toString();
+        ArrayList<MatrixContent>[] backwardList = (ArrayList<MatrixContent>[]) new ArrayList[lenPeptide + 1];
+        return getProteinMappingWithoutVariants(pep_rev, seqMatchPref, indexPart, backwardList, 0);
+    }
+
+    /**
+     * Exact mapping of a reversed peptide against the proteome. The rows of
+     * the backward search up to the shared length are reused, they must have
+     * been computed for a peptide ending with the same amino acids and
+     * allowing the same number of X.
+     *
+     * @param pep_rev the reversed peptide
+     * @param seqMatchPref the sequence matching preferences
+     * @param indexPart the index part
+     * @param backwardList the rows of the backward search, at least one more
+     * than the length of the peptide
+     * @param sharedLength the number of amino acids already searched
+     * @return the mapping
+     */
+    private ArrayList<PeptideProteinMapping> getProteinMappingWithoutVariants(String pep_rev, SequenceMatchingPreferences seqMatchPref, int indexPart, ArrayList<MatrixContent>[] backwardList, int sharedLength) {
         int[] lessTablePrimary = lessTablesPrimary.get(indexPart);
         WaveletTree occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
         ArrayList<PeptideProteinMapping> allMatches = new ArrayList<PeptideProteinMapping>();
 
-        String pep_rev = new StringBuilder(peptide).reverse().toString();
-        int lenPeptide = peptide.length();
+        int lenPeptide = pep_rev.length();
         ArrayList<String> combinations = createPeptideCombinations(pep_rev, seqMatchPref);
-        int maxX = (int) (((seqMatchPref.getLimitX() != null) ? seqMatchPref.getLimitX() : 1) * lenPeptide);
-
-        ArrayList<MatrixContent>[] backwardList = (ArrayList<MatrixContent>[]) new ArrayList[lenPeptide + 1];
+        int maxX = getMaxX(lenPeptide, seqMatchPref);
 
-        int countX = 0;
-        for (int i = 0; i <= lenPeptide; ++i) {
+        if (sharedLength == 0) {
+            backwardList[0] = new ArrayList<MatrixContent>(1);
+            backwardList[0].add(new MatrixContent(indexStringLengths.get(indexPart) - 1)); // L, R, char, previous content, num of X
+        }
+        for (int i = sharedLength + 1; i <= lenPeptide; ++i) {
             backwardList[i] = new ArrayList<MatrixContent>(10);
-            if (i < lenPeptide && pep_rev.charAt(i) == 'X') {
-                ++countX;
-            }
         }
 
-        if (countX <= maxX) {
-            backwardList[0].add(new MatrixContent(indexStringLengths.get(indexPart) - 1)); // L, R, char, previous content, num of X
-            for (int j = 0; j < lenPeptide; ++j) {
-                String combinationSequence = combinations.get(j);
-                ArrayList<MatrixContent> cell = backwardList[j];
-                for (MatrixContent content : cell) {
-                    int leftIndexOld = content.left;
-                    int rightIndexOld = content.right;
-                    int numX = content.numX;
-
-                    for (int c = 0; c < combinationSequence.length(); ++c) {
-                        int aminoAcid = combinationSequence.charAt(c);
-
-                        int lessValue = lessTablePrimary[aminoAcid];
-                        int[] range = occurrenceTablePrimary.singleRangeQuery(leftIndexOld - 1, rightIndexOld, aminoAcid);
-                        final int leftIndex = lessValue + range[0];
-                        final int rightIndex = lessValue + range[1] - 1;
+        for (int j = sharedLength; j < lenPeptide; ++j) {
+            String combinationSequence = combinations.get(j);
+            ArrayList<MatrixContent> cell = backwardList[j];
+            for (MatrixContent content : cell) {
+                int leftIndexOld = content.left;
+                int rightIndexOld = content.right;
+                int numX = content.numX;
 
-                        if (leftIndex <= rightIndex) {
-                            int newNumX = numX + ((aminoAcid == 'X') ? 1 : 0);
-                            if (newNumX > maxX) {
-                                continue;
-                            }
-                            backwardList[j + 1].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, content, newNumX));
+                for (int c = 0; c < combinationSequence.length(); ++c) {
+                    int aminoAcid = combinationSequence.charAt(c);
+
+                    int lessValue = lessTablePrimary[aminoAcid];
+                    int[] range = occurrenceTablePrimary.singleRangeQuery(leftIndexOld - 1, rightIndexOld, aminoAcid);
+                    final int leftIndex = lessValue + range[0];
+                    final int rightIndex = lessValue + range[1] - 1;
+
+                    if (leftIndex <= rightIndex) {
+                        int newNumX = numX + ((aminoAcid == 'X') ? 1 : 0);
+                        if (newNumX > maxX) {
+                            continue;
                         }
+                        backwardList[j + 1].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, content, newNumX));
                     }
                 }
             }
+        }
 
-            // traceback
-            for (MatrixContent content : backwardList[lenPeptide]) {
-                MatrixContent currentContent = content;
-                String currentPeptide = "";
+        // traceback
+        for (MatrixContent content : backwardList[lenPeptide]) {
+            MatrixContent currentContent = content;
+            String currentPeptide = "";
 
-                while (currentContent.previousContent != null) {
-                    currentPeptide += (char) currentContent.character;
-                    currentContent = currentContent.previousContent;
-                }
+            while (currentContent.previousContent != null) {
+                currentPeptide += (char) currentContent.character;
+                currentContent = currentContent.previousContent;
+            }
 
-                int leftIndex = content.left;
-                int rightIndex = content.right;
+            int leftIndex = content.left;
+            int rightIndex = content.right;
 
-                for (int j = leftIndex; j <= rightIndex; ++j) {
-                    int pos = getTextPosition(j, indexPart);
-                    int index = binarySearch(boundaries.get(indexPart), pos);
-                    String accession = accessions.get(indexPart)[index];
+            for (int j = leftIndex; j <= rightIndex; ++j) {
+                int pos = getTextPosition(j, indexPart);
+                int index = binarySearch(boundaries.get(indexPart), pos);
+                String accession = accessions.get(indexPart)[index];
 
-                    PeptideProteinMapping peptideProteinMapping = new PeptideProteinMapping(accession, currentPeptide, pos - boundaries.get(indexPart)[index]);
-                    allMatches.add(peptideProteinMapping);
-                }
+                PeptideProteinMapping peptideProteinMapping = new PeptideProteinMapping(accession, currentPeptide, pos - boundaries.get(indexPart)[index]);
+                allMatches.add(peptideProteinMapping);
             }
         }
 
-        /*
-        for (PeptideProteinMapping ppm : allMatches){
-            System.out.println(ppm.getPeptideSequence() + " " + ppm.getProteinAccession() + " " + ppm.getIndex());
-        }*/
         return allMatches;
     }
 
@@ -1691,7 +2437,17 @@ public class FMIndex implements PeptideMapper {
 
     @Override
     public void emptyCache() {
-        // No cache here
+        tagMappingCache.clear();
+    }
+
+    /**
+     * Returns the cache of intermediate tag to proteome mapping results, can
+     * be used to set its capacity and to monitor hits and misses.
+     *
+     * @return the tag mapping cache
+     */
+    public TagMappingCache getTagMappingCache() {
+        return tagMappingCache;
     }
 
     @Override
@@ -4509,86 +5265,40 @@ public class FMIndex implements PeptideMapper {
     }
 
     /**
-     * Class for caching intermediate tag to proteome mapping results.
-     */
-    private class CacheElement {
-
-        Double massFirst;
-        String sequence;
-        Double massSecond;
-        ArrayList<MatrixContent> cachedPrimary;
-
-        /**
-         * Constructor
-         *
-         * @param massFirst
-         * @param sequence
-         * @param massSecond
-         * @param cachedPrimary
-         */
-        public CacheElement(Double massFirst, String sequence, Double massSecond, ArrayList<MatrixContent> cachedPrimary) {
-            this.sequence = sequence;
-            this.massFirst = massFirst;
-            this.massSecond = massSecond;
-            this.cachedPrimary = cachedPrimary;
-        }
-    }
-
-    /**
-     * List of cached intermediate tag to proteome mapping results.
+     * Cache of intermediate tag to proteome mapping results.
      */
-    private HashMap<String, CacheElement>[] cache = null;
+    private final TagMappingCache tagMappingCache = new TagMappingCache();
 
     /**
-     * Adding intermediate tag to proteome mapping results into the cache.
+     * Returns the cached intermediate tag to proteome mapping results, null
+     * if not cached.
      *
-     * @param tagComponents
-     * @return
+     * @param tagComponents the tag components
+     * @param indexPart the index part
+     * @return the cached results
      */
     private ArrayList<MatrixContent> isCached(TagElement[] tagComponents, int indexPart) {
         if (tagComponents.length != 3 || !tagComponents[0].isMass || tagComponents[1].isMass || !tagComponents[2].isMass) {
             return null;
         }
-        ArrayList<MatrixContent> cached = null;
-
-        try {
-            cacheMutex.acquire();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        
-        
-        String key = tagComponents[1].sequence + String.format("%.5f", tagComponents[2].mass);
-        CacheElement cacheElement = cache[indexPart].get(key);
-        if (cacheElement != null) cached = cacheElement.cachedPrimary;
-        cacheMutex.release();
-        return cached;
+        return tagMappingCache.get(indexPart, tagComponents[1].sequence, tagComponents[2].mass);
     }
 
     /**
      * Caching intermediate results of previous tag to proteome matches.
      *
-     * @param tagComponents
-     * @param cachedPrimary
+     * @param tagComponents the tag components
+     * @param cachedPrimary the results to cache
+     * @param indexPart the index part
      */
     private void cacheIt(TagElement[] tagComponents, ArrayList<MatrixContent> cachedPrimary, int indexPart) {
         if (tagComponents.length != 3 || !tagComponents[0].isMass || tagComponents[1].isMass || !tagComponents[2].isMass) {
             return;
         }
-        try {
-            cacheMutex.acquire();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        ArrayList<MatrixContent> cacheContentPrimary = new ArrayList<MatrixContent>();
+        ArrayList<MatrixContent> cacheContentPrimary = new ArrayList<MatrixContent>(cachedPrimary.size());
         for (MatrixContent matrixContent : cachedPrimary) {
             cacheContentPrimary.add(new MatrixContent(matrixContent));
         }
-        
-        String key = tagComponents[1].sequence + String.format("%.5f", tagComponents[2].mass);
-        CacheElement cacheElement = new CacheElement(tagComponents[0].mass, tagComponents[1].sequence, tagComponents[2].mass, cacheContentPrimary);
-        if (!cache[indexPart].containsKey(key)) cache[indexPart].put(key, cacheElement);
-        cacheMutex.release();
+        tagMappingCache.put(indexPart, tagComponents[1].sequence, tagComponents[2].mass, cacheContentPrimary);
     }
 }
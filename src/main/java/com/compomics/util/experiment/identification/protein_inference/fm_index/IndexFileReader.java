@@ -0,0 +1,157 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Reader for a memory mapped region of the binary FM index file written by the
+ * IndexFileWriter. Arrays are returned as views on the mapped region so that
+ * their content stays off-heap.
+ *
+ * @author Dominik Kopczynski
+ */
+public class IndexFileReader {
+
+    /**
+     * The buffer to read from.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Constructor. The region must start at a position aligned on eight bytes
+     * in the file.
+     *
+     * @param buffer the buffer to read from
+     */
+    public IndexFileReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Reads a byte.
+     *
+     * @return the byte
+     */
+    public byte readByte() {
+        return buffer.get();
+    }
+
+    /**
+     * Reads a boolean.
+     *
+     * @return the boolean
+     */
+    public boolean readBoolean() {
+        return buffer.get() != 0;
+    }
+
+    /**
+     * Reads an integer.
+     *
+     * @return the integer
+     */
+    public int readInt() {
+        return buffer.getInt();
+    }
+
+    /**
+     * Reads a long.
+     *
+     * @return the long
+     */
+    public long readLong() {
+        return buffer.getLong();
+    }
+
+    /**
+     * Reads a string.
+     *
+     * @return the string
+     */
+    public String readString() {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads an array of integers to the heap.
+     *
+     * @param length the number of integers
+     *
+     * @return the integers
+     */
+    public int[] readIntArray(int length) {
+        int[] result = new int[length];
+        for (int i = 0; i < length; ++i) {
+            result[i] = buffer.getInt();
+        }
+        return result;
+    }
+
+    /**
+     * Returns a view on the next bytes.
+     *
+     * @param length the number of bytes
+     *
+     * @return a view on the bytes
+     */
+    public ByteBuffer readBytes(int length) {
+        return slice(length);
+    }
+
+    /**
+     * Returns a view on the next integers.
+     *
+     * @param length the number of integers
+     *
+     * @return a view on the integers
+     */
+    public IntBuffer readInts(int length) {
+        return slice(length << 2).asIntBuffer();
+    }
+
+    /**
+     * Returns a view on the next longs.
+     *
+     * @param length the number of longs
+     *
+     * @return a view on the longs
+     */
+    public LongBuffer readLongs(int length) {
+        return slice(length << 3).asLongBuffer();
+    }
+
+    /**
+     * Returns a little endian view on the next bytes and moves the position
+     * after them.
+     *
+     * @param nBytes the number of bytes
+     *
+     * @return a view on the bytes
+     */
+    private ByteBuffer slice(int nBytes) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(nBytes);
+        slice.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(buffer.position() + nBytes);
+        return slice;
+    }
+
+    /**
+     * Skips the padding until the position is a multiple of eight bytes.
+     */
+    public void align() {
+        while ((buffer.position() & 7) != 0) {
+            buffer.get();
+        }
+    }
+}
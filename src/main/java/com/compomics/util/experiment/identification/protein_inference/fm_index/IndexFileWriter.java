@@ -0,0 +1,273 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writer for the binary FM index file. All values are written in little
+ * endian byte order so that the file can be memory mapped and read directly by
+ * the IndexFileReader.
+ *
+ * @author Dominik Kopczynski
+ */
+public class IndexFileWriter {
+
+    /**
+     * Size of the write buffer in bytes.
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+    /**
+     * The random access file.
+     */
+    private final RandomAccessFile randomAccessFile;
+    /**
+     * The channel of the file.
+     */
+    private final FileChannel channel;
+    /**
+     * The write buffer.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * The number of bytes flushed to the channel.
+     */
+    private long flushed = 0;
+
+    /**
+     * Constructor. Existing files are overwritten.
+     *
+     * @param file the file to write
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * opening the file
+     */
+    public IndexFileWriter(File file) throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(0);
+        channel = randomAccessFile.getChannel();
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns the current position in the file.
+     *
+     * @return the current position in the file
+     */
+    public long getPosition() {
+        return flushed + buffer.position();
+    }
+
+    /**
+     * Moves the writing position to the given position in the file. Pending
+     * data is flushed first.
+     *
+     * @param position the new position
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void seek(long position) throws IOException {
+        flush();
+        channel.position(position);
+        flushed = position;
+    }
+
+    /**
+     * Makes sure that the given number of bytes fit in the buffer.
+     *
+     * @param nBytes the number of bytes
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void ensureCapacity(int nBytes) throws IOException {
+        if (buffer.remaining() < nBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the content of the buffer to the file.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushed += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes a byte.
+     *
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeByte(byte value) throws IOException {
+        ensureCapacity(1);
+        buffer.put(value);
+    }
+
+    /**
+     * Writes a boolean as a byte.
+     *
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeBoolean(boolean value) throws IOException {
+        writeByte(value ? (byte) 1 : (byte) 0);
+    }
+
+    /**
+     * Writes an integer.
+     *
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeInt(int value) throws IOException {
+        ensureCapacity(4);
+        buffer.putInt(value);
+    }
+
+    /**
+     * Writes a long.
+     *
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeLong(long value) throws IOException {
+        ensureCapacity(8);
+        buffer.putLong(value);
+    }
+
+    /**
+     * Writes a string as length followed by its UTF-8 bytes.
+     *
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        writeInt(bytes.length);
+        writeBytes(bytes);
+    }
+
+    /**
+     * Writes an array of bytes.
+     *
+     * @param values the values
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeBytes(byte[] values) throws IOException {
+        int offset = 0;
+        while (offset < values.length) {
+            ensureCapacity(1);
+            int length = Math.min(buffer.remaining(), values.length - offset);
+            buffer.put(values, offset, length);
+            offset += length;
+        }
+    }
+
+    /**
+     * Writes the remaining content of a byte buffer.
+     *
+     * @param values the values
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeBytes(ByteBuffer values) throws IOException {
+        for (int i = 0; i < values.limit(); ++i) {
+            writeByte(values.get(i));
+        }
+    }
+
+    /**
+     * Writes an array of integers.
+     *
+     * @param values the values
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeInts(int[] values) throws IOException {
+        for (int value : values) {
+            writeInt(value);
+        }
+    }
+
+    /**
+     * Writes the content of an integer buffer.
+     *
+     * @param values the values
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeInts(IntBuffer values) throws IOException {
+        for (int i = 0; i < values.limit(); ++i) {
+            writeInt(values.get(i));
+        }
+    }
+
+    /**
+     * Writes the content of a long buffer.
+     *
+     * @param values the values
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeLongs(LongBuffer values) throws IOException {
+        for (int i = 0; i < values.limit(); ++i) {
+            writeLong(values.get(i));
+        }
+    }
+
+    /**
+     * Pads the file with zeros until the position is a multiple of eight
+     * bytes.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void align() throws IOException {
+        while ((getPosition() & 7) != 0) {
+            writeByte((byte) 0);
+        }
+    }
+
+    /**
+     * Flushes and closes the file.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void close() throws IOException {
+        flush();
+        channel.force(false);
+        randomAccessFile.close();
+    }
+}
@@ -0,0 +1,94 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Rank read from an index file. The bit field and the sums are views on the
+ * mapped file and are not copied to the heap. Ranks built in memory use the
+ * arrays of Rank instead, so that the backward search does not go through the
+ * buffers when the index is not mapped.
+ *
+ * @author Dominik Kopczynski
+ */
+public class MappedRank extends AbstractRank {
+
+    /**
+     * The bit field.
+     */
+    private final LongBuffer bitfield;
+    /**
+     * The sums.
+     */
+    private final IntBuffer sums;
+    /**
+     * The sums.
+     */
+    private final ByteBuffer sumsSecondLevel;
+
+    /**
+     * Constructor.
+     *
+     * @param reader the index file reader
+     */
+    public MappedRank(IndexFileReader reader) {
+        super(reader.readInt());
+        int bitfieldLength = reader.readInt();
+        int sumsLength = reader.readInt();
+        int sumsSecondLevelLength = reader.readInt();
+        bitfield = reader.readLongs(bitfieldLength);
+        sums = reader.readInts(sumsLength);
+        sumsSecondLevel = reader.readBytes(sumsSecondLevelLength);
+        reader.align();
+    }
+
+    @Override
+    public void write(IndexFileWriter writer) throws IOException {
+        writer.writeInt(length);
+        writer.writeInt(bitfield.limit());
+        writer.writeInt(sums.limit());
+        writer.writeInt(sumsSecondLevel.limit());
+        writer.writeLongs(bitfield);
+        writer.writeInts(sums);
+        writer.writeBytes(sumsSecondLevel);
+        writer.align();
+    }
+
+    @Override
+    public int getRank(int index, boolean zeros) {
+        int count_ones = getRankOne(index);
+        return zeros ? index + 1 - count_ones : count_ones;
+    }
+
+    @Override
+    public int getRankOne(int index) {
+        final int cell = index >>> shift;
+        final int pos = index & mask;
+        final long active_ones = bitfield.get(cell) << (mask - pos);
+        return (sumsSecondLevel.get(cell) & 0xFF) + sums.get(index >>> 8) + Long.bitCount(active_ones);
+    }
+
+    @Override
+    public int getRankZero(int index) {
+        return index + 1 - getRankOne(index);
+    }
+
+    @Override
+    public boolean isOne(int index) {
+        return isOneInt(index) == 1;
+    }
+
+    @Override
+    public int isOneInt(int index) {
+        int cell = index >>> shift;
+        int pos = index & mask;
+        return (int) ((bitfield.get(cell) >>> pos) & 1L);
+    }
+
+    @Override
+    public int getAllocatedBytes() {
+        return (bitfield.limit() << 3) + (sums.limit() << 2) + sumsSecondLevel.limit();
+    }
+}
@@ -1,16 +1,16 @@
 package com.compomics.util.experiment.identification.protein_inference.fm_index;
 
+import java.io.IOException;
+import java.nio.LongBuffer;
+
 /**
- * Rank as used in the FM index.
+ * Rank as used in the FM index. The arrays are on the heap, see MappedRank for
+ * a rank mapped from an index file.
  *
  * @author Dominik Kopczynski
  */
-public class Rank {
+public class Rank extends AbstractRank {
 
-    /**
-     * The length.
-     */
-    public final int length;
     /**
      * The bit field.
      */
@@ -23,14 +23,6 @@ public class Rank {
      * The sums.
      */
     private final byte[] sumsSecondLevel;
-    /**
-     * The shift.
-     */
-    private final int shift = 6;
-    /**
-     * The mask.
-     */
-    private final int mask = 63;
 
     /**
      * Constructor.
@@ -39,7 +31,7 @@ public class Rank {
      * @param aAlphabet the alphabet
      */
     public Rank(byte[] text, long[] aAlphabet) {
-        length = text.length;
+        super(text.length);
 
         int field_len = (length >>> 6) + 1;
         bitfield = new long[field_len];
@@ -77,7 +69,7 @@ public class Rank {
      * @param length length of original bitfield
      */
     public Rank(long[] originalBitfield, int length) {
-        this.length = length;
+        super(length);
 
         int field_len = (length >>> 6) + 1;
         bitfield = originalBitfield;
@@ -102,6 +94,26 @@ public class Rank {
         }
     }
 
+    /**
+     * Writes the rank to an index file.
+     *
+     * @param writer the index file writer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    @Override
+    public void write(IndexFileWriter writer) throws IOException {
+        writer.writeInt(length);
+        writer.writeInt(bitfield.length);
+        writer.writeInt(sums.length);
+        writer.writeInt(sumsSecondLevel.length);
+        writer.writeLongs(LongBuffer.wrap(bitfield));
+        writer.writeInts(sums);
+        writer.writeBytes(sumsSecondLevel);
+        writer.align();
+    }
+
     /**
      * Returns the rank.
      *
@@ -109,6 +121,7 @@ public class Rank {
      * @param zeros the zeros
      * @return the rank
      */
+    @Override
     public int getRank(int index, boolean zeros) {
         int cell = index >>> shift;
         int pos = index & mask;
@@ -123,6 +136,7 @@ public class Rank {
      * @param index the value
      * @return the rank
      */
+    @Override
     public final int getRankOne(int index) {
         final int cell = index >>> shift;
         final int pos = index & mask;
@@ -137,6 +151,7 @@ public class Rank {
      * @param index the value
      * @return the rank
      */
+    @Override
     public int getRankZero(int index) {
         int cell = index >>> shift;
         int pos = index & mask;
@@ -151,6 +166,7 @@ public class Rank {
      * @param index the value
      * @return true if the value is equal to one
      */
+    @Override
     public boolean isOne(int index) {
         int cell = index >>> shift;
         int pos = index & mask;
@@ -163,6 +179,7 @@ public class Rank {
      * @param index the value
      * @return the bit 
      */
+    @Override
     public int isOneInt(int index) {
         int cell = index >>> shift;
         int pos = index & mask;
@@ -174,6 +191,7 @@ public class Rank {
      *
      * @return the number of bytes for the allocated arrays
      */
+    @Override
     public int getAllocatedBytes() {
         return (bitfield.length << 3) + (sums.length << 2) + sumsSecondLevel.length;
     }
@@ -0,0 +1,201 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import com.compomics.util.maps.BoundedCache;
+import java.util.ArrayList;
+
+/**
+ * Bounded cache for the intermediate results of tag to proteome mapping. The
+ * entries are indexed by index part, amino acid sequence and mass rounded to
+ * five decimals. The entries are kept in a BoundedCache weighted by the
+ * number of matrix contents.
+ *
+ * @author Dominik Kopczynski
+ */
+public class TagMappingCache {
+
+    /**
+     * The default capacity in number of cached matrix contents.
+     */
+    public static final long DEFAULT_CAPACITY = 500000;
+    /**
+     * The multiplier used to round the masses.
+     */
+    private static final double MASS_MULTIPLIER = 100000.;
+    /**
+     * The cached matrix contents.
+     */
+    private final BoundedCache<Key, ArrayList<MatrixContent>> cache;
+
+    /**
+     * Constructor with the default capacity.
+     */
+    public TagMappingCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the capacity in number of cached matrix contents
+     */
+    public TagMappingCache(long capacity) {
+        cache = new BoundedCache<Key, ArrayList<MatrixContent>>(capacity);
+    }
+
+    /**
+     * Returns the cached matrix contents for the given sequence and mass, null
+     * if not cached.
+     *
+     * @param indexPart the index part
+     * @param sequence the amino acid sequence
+     * @param mass the mass
+     *
+     * @return the cached matrix contents
+     */
+    public ArrayList<MatrixContent> get(int indexPart, String sequence, double mass) {
+        return cache.get(new Key(indexPart, sequence, mass));
+    }
+
+    /**
+     * Caches the matrix contents for the given sequence and mass if not
+     * already cached, and evicts the least recently used entries if the
+     * capacity is exceeded.
+     *
+     * @param indexPart the index part
+     * @param sequence the amino acid sequence
+     * @param mass the mass
+     * @param matrixContents the matrix contents
+     */
+    public void put(int indexPart, String sequence, double mass, ArrayList<MatrixContent> matrixContents) {
+        cache.put(new Key(indexPart, sequence, mass), matrixContents, matrixContents.size());
+    }
+
+    /**
+     * Empties the cache. The counters are not reset.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Returns the capacity in number of cached matrix contents.
+     *
+     * @return the capacity
+     */
+    public long getCapacity() {
+        return cache.getCapacity();
+    }
+
+    /**
+     * Sets the capacity in number of cached matrix contents. A capacity of
+     * zero disables the cache.
+     *
+     * @param capacity the capacity
+     */
+    public void setCapacity(long capacity) {
+        cache.setCapacity(capacity);
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return the number of cached entries
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the number of matrix contents currently cached.
+     *
+     * @return the number of matrix contents currently cached
+     */
+    public long getWeight() {
+        return cache.getWeight();
+    }
+
+    /**
+     * Returns the number of lookups which found an entry.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    /**
+     * Returns the number of lookups which did not find an entry.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    /**
+     * Returns the number of evicted entries.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return cache.getEvictions();
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters.
+     */
+    public void resetCounters() {
+        cache.resetCounters();
+    }
+
+    /**
+     * Key of a cache entry.
+     */
+    private static class Key {
+
+        /**
+         * The index part.
+         */
+        private final int indexPart;
+        /**
+         * The amino acid sequence.
+         */
+        private final String sequence;
+        /**
+         * The rounded mass.
+         */
+        private final long mass;
+        /**
+         * The hash code.
+         */
+        private final int hashCode;
+
+        /**
+         * Constructor.
+         *
+         * @param indexPart the index part
+         * @param sequence the amino acid sequence
+         * @param mass the mass
+         */
+        Key(int indexPart, String sequence, double mass) {
+            this.indexPart = indexPart;
+            this.sequence = sequence;
+            this.mass = Math.round(mass * MASS_MULTIPLIER);
+            this.hashCode = 31 * (31 * indexPart + sequence.hashCode()) + (int) (this.mass ^ (this.mass >>> 32));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hashCode == other.hashCode && indexPart == other.indexPart && mass == other.mass && sequence.equals(other.sequence);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.compomics.util.experiment.identification.protein_inference.fm_index;
 
 import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 
@@ -14,7 +15,7 @@ public class WaveletTree {
     /**
      * Instance of a rank.
      */
-    private Rank rank;
+    private AbstractRank rank;
     
     /**
      * Stored alphabet in a 128 bitfield.
@@ -77,6 +78,11 @@ public class WaveletTree {
     private int leftRightMask;
     
     private int[] less;
+
+    /**
+     * If true, the nodes use an InterleavedRank instead of a Rank.
+     */
+    private boolean interleavedRank = false;
     
 
     /**
@@ -140,6 +146,22 @@ public class WaveletTree {
         prepareWaveletTree(text, aAlphabet, waitingHandler, numMasses, hasPTMatTerminus);
     }
 
+    /**
+     * Constructor.
+     *
+     * @param text the text
+     * @param aAlphabet the alphabet
+     * @param waitingHandler the waiting handler
+     * @param numMasses  number of masses plus modifications
+     * @param hasPTMatTerminus indicates how to handle / sign
+     * @param interleavedRank if true, the nodes use an InterleavedRank instead
+     * of a Rank
+     */
+    public WaveletTree(byte[] text, long[] aAlphabet, WaitingHandler waitingHandler, int numMasses, boolean hasPTMatTerminus, boolean interleavedRank) {
+        this.interleavedRank = interleavedRank;
+        prepareWaveletTree(text, aAlphabet, waitingHandler, numMasses, hasPTMatTerminus);
+    }
+
     /**
      * Constructor.
      *
@@ -208,12 +230,94 @@ public class WaveletTree {
      * @param hasPTMatTerminus if there is a PTM at the terminus
      */
     public WaveletTree(byte[] text, WaitingHandler waitingHandler, HuffmanNode root, int numMasses, boolean hasPTMatTerminus) {
+        this(text, waitingHandler, root, numMasses, hasPTMatTerminus, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param text the text
+     * @param waitingHandler the waiting handler
+     * @param root the root
+     * @param numMasses  number of masses plus modifications
+     * @param hasPTMatTerminus if there is a PTM at the terminus
+     * @param interleavedRank if true, the nodes use an InterleavedRank instead
+     * of a Rank
+     */
+    public WaveletTree(byte[] text, WaitingHandler waitingHandler, HuffmanNode root, int numMasses, boolean hasPTMatTerminus, boolean interleavedRank) {
         this.numMasses = numMasses;
+        this.interleavedRank = interleavedRank;
         createWaveletTreeHuffman(text, waitingHandler, root, numMasses, hasPTMatTerminus);
     }
     
     
 
+    /**
+     * Constructor reading the tree from an index file. The rank bit fields are
+     * views on the mapped file.
+     *
+     * @param reader the index file reader
+     */
+    public WaveletTree(IndexFileReader reader) {
+        alphabetDirections[0] = reader.readLong();
+        alphabetDirections[1] = reader.readLong();
+        firstChar = reader.readInt();
+        lastChar = reader.readInt();
+        lenText = reader.readInt();
+        numMasses = reader.readInt();
+        leftRightMask = reader.readInt();
+        continueLeftRangeQuery = reader.readBoolean();
+        continueRightRangeQuery = reader.readBoolean();
+        boolean hasLess = reader.readBoolean();
+        boolean hasLeftChild = reader.readBoolean();
+        boolean hasRightChild = reader.readBoolean();
+        reader.align();
+        if (hasLess) {
+            less = reader.readIntArray(128);
+        }
+        rank = new MappedRank(reader);
+        if (hasLeftChild) {
+            leftChild = new WaveletTree(reader);
+        }
+        if (hasRightChild) {
+            rightChild = new WaveletTree(reader);
+        }
+    }
+
+    /**
+     * Writes the tree to an index file.
+     *
+     * @param writer the index file writer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void write(IndexFileWriter writer) throws IOException {
+        writer.writeLong(alphabetDirections[0]);
+        writer.writeLong(alphabetDirections[1]);
+        writer.writeInt(firstChar);
+        writer.writeInt(lastChar);
+        writer.writeInt(lenText);
+        writer.writeInt(numMasses);
+        writer.writeInt(leftRightMask);
+        writer.writeBoolean(continueLeftRangeQuery);
+        writer.writeBoolean(continueRightRangeQuery);
+        writer.writeBoolean(less != null);
+        writer.writeBoolean(leftChild != null);
+        writer.writeBoolean(rightChild != null);
+        writer.align();
+        if (less != null) {
+            writer.writeInts(less);
+        }
+        rank.write(writer);
+        if (leftChild != null) {
+            leftChild.write(writer);
+        }
+        if (rightChild != null) {
+            rightChild.write(writer);
+        }
+    }
+
     /**
      * Create wavelet tree huffman.
      *
@@ -250,7 +354,7 @@ public class WaveletTree {
         continueRightRangeQuery = (((alphabet_right[0] & (~alphabetExcluded[0])) + (alphabet_right[1] & (~alphabetExcluded[1]))) > 0);
 
         lenText = text.length;
-        rank = new Rank(text, alphabet_right);
+        rank = interleavedRank ? new InterleavedRank(text, alphabet_right) : new Rank(text, alphabet_right);
         leftChild = null;
         rightChild = null;
 
@@ -284,7 +388,7 @@ public class WaveletTree {
                         text_left[j++] = text[i];
                     }
                 }
-                leftChild = new WaveletTree(text_left, waitingHandler, root.leftChild, numMasses, hasPTMatTerminus);
+                leftChild = new WaveletTree(text_left, waitingHandler, root.leftChild, numMasses, hasPTMatTerminus, interleavedRank);
             }
         }
         if (waitingHandler != null && waitingHandler.isRunCanceled()) {
@@ -309,7 +413,7 @@ public class WaveletTree {
                         text_right[j++] = text[i];
                     }
                 }
-                rightChild = new WaveletTree(text_right, waitingHandler, root.rightChild, numMasses, hasPTMatTerminus);
+                rightChild = new WaveletTree(text_right, waitingHandler, root.rightChild, numMasses, hasPTMatTerminus, interleavedRank);
             }
         }
         if (leftChild != null) leftRightMask = 4;
@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -968,6 +969,37 @@ public class ProteinTree implements PeptideMapper {
         return result;
     }
 
+    /**
+     * Returns the protein mapping of a batch of peptide sequences. The tree
+     * is queried sequentially, the number of threads is ignored.
+     *
+     * @param peptideSequences the peptide sequences
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param nThreads the number of threads to use
+     *
+     * @return the protein mapping of every peptide sequence
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file.
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the tree.
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with the tree database.
+     */
+    @Override
+    public HashMap<String, ArrayList<PeptideProteinMapping>> getProteinMapping(Collection<String> peptideSequences, SequenceMatchingPreferences sequenceMatchingPreferences, int nThreads)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+        HashMap<String, ArrayList<PeptideProteinMapping>> result = new HashMap<String, ArrayList<PeptideProteinMapping>>(peptideSequences.size());
+        for (String peptideSequence : peptideSequences) {
+            if (!result.containsKey(peptideSequence)) {
+                result.put(peptideSequence, getProteinMapping(peptideSequence, sequenceMatchingPreferences));
+            }
+        }
+        return result;
+    }
+
     /**
      * Returns the protein mapping in the sequence factory for the given peptide
      * sequence. peptide sequence &gt; protein accession &gt; index in the
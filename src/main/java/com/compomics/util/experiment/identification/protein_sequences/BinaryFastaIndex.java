@@ -0,0 +1,742 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+import com.compomics.util.protein.Header.DatabaseType;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Binary index of the proteins of a FASTA file. The index file is memory
+ * mapped and contains the 64 bit hashes of the accessions sorted in ascending
+ * order, followed by a fixed size record for every protein with the offset of
+ * the header in the FASTA file, the sequence length, the species and the
+ * decoy status, and the accession and species names. Lookups run a binary
+ * search on the hashes and verify the accession, they do not lock and do not
+ * load the index on the heap.
+ *
+ * @author Marc Vaudel
+ */
+public class BinaryFastaIndex {
+
+    /**
+     * The magic number at the start of the index files.
+     */
+    private static final int MAGIC = 0x43554942;
+    /**
+     * The version of the index file format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The size of the file header in bytes.
+     */
+    private static final int HEADER_SIZE = 80;
+    /**
+     * The size of a protein record in bytes.
+     */
+    private static final int RECORD_SIZE = 32;
+    /**
+     * Flag set in the record of decoy proteins.
+     */
+    private static final int DECOY_FLAG = 1;
+    /**
+     * The number of bits used to address a position in a mapped segment.
+     */
+    private static final int SEGMENT_BITS = 30;
+    /**
+     * The size of a mapped segment. Segments overlap by eight bytes so that
+     * primitives never need to be read across two segments.
+     */
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    /**
+     * Mask returning the position in a segment.
+     */
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+    /**
+     * The encoding of the accessions and species names.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * The database types indexed by ordinal.
+     */
+    private static final DatabaseType[] DATABASE_TYPES = DatabaseType.values();
+    /**
+     * The index file.
+     */
+    private final File indexFile;
+    /**
+     * The mapped segments of the index file.
+     */
+    private final ByteBuffer[] segments;
+    /**
+     * The number of proteins.
+     */
+    private final int nSequences;
+    /**
+     * The number of bits of the protein index in the sorting keys, the hashes
+     * are truncated accordingly.
+     */
+    private final int indexBits;
+    /**
+     * The position of the hashes in the file.
+     */
+    private final long hashesPosition;
+    /**
+     * The position of the records in the file.
+     */
+    private final long recordsPosition;
+    /**
+     * The species names indexed as in the records.
+     */
+    private final String[] species;
+
+    /**
+     * Constructor.
+     *
+     * @param indexFile the index file
+     * @param segments the mapped segments of the index file
+     *
+     * @throws IOException exception thrown if the file is not a valid index
+     */
+    private BinaryFastaIndex(File indexFile, ByteBuffer[] segments) throws IOException {
+        this.indexFile = indexFile;
+        this.segments = segments;
+        nSequences = getInt(24);
+        indexBits = getInt(28);
+        int nSpecies = getInt(32);
+        hashesPosition = getLong(40);
+        recordsPosition = getLong(48);
+        long speciesPosition = getLong(64);
+        species = new String[nSpecies];
+        for (int i = 0; i < nSpecies; i++) {
+            species[i] = getString(getLong(speciesPosition + 8L * i));
+        }
+    }
+
+    /**
+     * Opens the index of the given FASTA file. Returns null if the index file
+     * does not exist or does not correspond to the current version of the
+     * FASTA file.
+     *
+     * @param indexFile the index file
+     * @param fastaFile the FASTA file
+     *
+     * @return the index, null if not valid
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the index file
+     */
+    public static BinaryFastaIndex open(File indexFile, File fastaFile) throws IOException {
+
+        if (!indexFile.exists() || indexFile.length() < HEADER_SIZE) {
+            return null;
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r");
+        try {
+            if (randomAccessFile.readInt() != MAGIC
+                    || randomAccessFile.readInt() != VERSION
+                    || randomAccessFile.readLong() != fastaFile.lastModified()
+                    || randomAccessFile.readLong() != fastaFile.length()) {
+                return null;
+            }
+            FileChannel channel = randomAccessFile.getChannel();
+            long length = channel.size();
+            int nSegments = (int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+            ByteBuffer[] segments = new ByteBuffer[nSegments];
+            for (int i = 0; i < nSegments; i++) {
+                long start = i * SEGMENT_SIZE;
+                long size = Math.min(SEGMENT_SIZE + 8, length - start);
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+                segments[i] = segment;
+            }
+            return new BinaryFastaIndex(indexFile, segments);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Writes the index of the given FASTA file. The entries of every chunk
+     * are indexed by their order in the chunks list followed by their order
+     * in the chunk.
+     *
+     * @param indexFile the file where to write the index
+     * @param fastaFile the indexed FASTA file
+     * @param chunks the entries of the FASTA file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     * @throws IllegalArgumentException exception thrown if an accession is
+     * found twice
+     */
+    public static void write(File indexFile, File fastaFile, ArrayList<Entries> chunks) throws IOException {
+
+        int[] chunkStarts = new int[chunks.size()];
+        long total = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            chunkStarts[i] = (int) total;
+            total += chunks.get(i).size();
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many sequences to index: " + total + ".");
+        }
+        int nSequences = (int) total;
+
+        // the species of all chunks
+        ArrayList<String> speciesNames = new ArrayList<String>();
+        HashMap<String, Integer> speciesIndexes = new HashMap<String, Integer>();
+        int[][] speciesMaps = new int[chunks.size()][];
+        for (int i = 0; i < chunks.size(); i++) {
+            ArrayList<String> chunkSpecies = chunks.get(i).speciesNames;
+            speciesMaps[i] = new int[chunkSpecies.size()];
+            for (int j = 0; j < chunkSpecies.size(); j++) {
+                String name = chunkSpecies.get(j);
+                Integer index = speciesIndexes.get(name);
+                if (index == null) {
+                    index = speciesNames.size();
+                    speciesNames.add(name);
+                    speciesIndexes.put(name, index);
+                }
+                speciesMaps[i][j] = index;
+            }
+        }
+
+        // sort the proteins by hash, the index of the protein is in the lower bits of the key
+        int indexBits = Math.max(1, 64 - Long.numberOfLeadingZeros(Math.max(nSequences - 1, 1)));
+        long indexMask = (1L << indexBits) - 1;
+        long[] keys = new long[nSequences];
+        int index = 0;
+        for (Entries chunk : chunks) {
+            for (int j = 0; j < chunk.size(); j++) {
+                keys[index] = (getHash(chunk.accessions.get(j)) >>> (indexBits + 1)) << indexBits | index;
+                index++;
+            }
+        }
+        Arrays.sort(keys);
+
+        long hashesPosition = HEADER_SIZE;
+        long recordsPosition = hashesPosition + 8L * nSequences;
+        long poolPosition = recordsPosition + (long) RECORD_SIZE * nSequences;
+        long speciesPosition;
+
+        DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1024 * 1024));
+        try {
+
+            // placeholder for the header, the species position is only known once the pool is written
+            outputStream.write(new byte[HEADER_SIZE]);
+
+            for (int i = 0; i < nSequences; i++) {
+                long hash = keys[i] >>> indexBits;
+                if (i > 0 && hash == keys[i - 1] >>> indexBits) {
+                    checkUnique(chunks, chunkStarts, keys, i, indexBits);
+                }
+                outputStream.writeLong(hash);
+            }
+
+            long stringPosition = poolPosition;
+            for (int i = 0; i < nSequences; i++) {
+                int proteinIndex = (int) (keys[i] & indexMask);
+                int chunkIndex = getChunk(chunkStarts, proteinIndex);
+                Entries chunk = chunks.get(chunkIndex);
+                int j = proteinIndex - chunkStarts[chunkIndex];
+                outputStream.writeLong(chunk.offsets[j]);
+                outputStream.writeLong(stringPosition);
+                outputStream.writeInt(chunk.sequenceLengths[j]);
+                outputStream.writeInt(speciesMaps[chunkIndex][chunk.species[j]]);
+                outputStream.writeInt(chunk.databaseTypes[j]);
+                outputStream.writeInt(chunk.decoys[j] ? DECOY_FLAG : 0);
+                stringPosition += 4 + chunk.accessions.get(j).getBytes(UTF8).length;
+            }
+
+            for (int i = 0; i < nSequences; i++) {
+                int proteinIndex = (int) (keys[i] & indexMask);
+                int chunkIndex = getChunk(chunkStarts, proteinIndex);
+                Entries chunk = chunks.get(chunkIndex);
+                writeString(outputStream, chunk.accessions.get(proteinIndex - chunkStarts[chunkIndex]));
+            }
+
+            long[] speciesPositions = new long[speciesNames.size()];
+            for (int i = 0; i < speciesNames.size(); i++) {
+                speciesPositions[i] = stringPosition;
+                stringPosition += writeString(outputStream, speciesNames.get(i));
+            }
+            speciesPosition = stringPosition;
+            for (long position : speciesPositions) {
+                outputStream.writeLong(position);
+            }
+
+        } finally {
+            outputStream.close();
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "rw");
+        try {
+            randomAccessFile.writeInt(MAGIC);
+            randomAccessFile.writeInt(VERSION);
+            randomAccessFile.writeLong(fastaFile.lastModified());
+            randomAccessFile.writeLong(fastaFile.length());
+            randomAccessFile.writeInt(nSequences);
+            randomAccessFile.writeInt(indexBits);
+            randomAccessFile.writeInt(speciesNames.size());
+            randomAccessFile.writeInt(0);
+            randomAccessFile.writeLong(hashesPosition);
+            randomAccessFile.writeLong(recordsPosition);
+            randomAccessFile.writeLong(poolPosition);
+            randomAccessFile.writeLong(speciesPosition);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Throws an exception if the accession of the protein at the given
+     * position of the sorted keys was already found among the proteins with
+     * the same hash.
+     *
+     * @param chunks the entries of the FASTA file
+     * @param chunkStarts the index of the first protein of every chunk
+     * @param keys the sorted keys
+     * @param i the position in the keys
+     * @param indexBits the number of bits of the protein index in the keys
+     *
+     * @throws IllegalArgumentException exception thrown if the accession is
+     * found twice
+     */
+    private static void checkUnique(ArrayList<Entries> chunks, int[] chunkStarts, long[] keys, int i, int indexBits) {
+        long indexMask = (1L << indexBits) - 1;
+        long hash = keys[i] >>> indexBits;
+        String accession = getAccession(chunks, chunkStarts, (int) (keys[i] & indexMask));
+        for (int j = i - 1; j >= 0 && keys[j] >>> indexBits == hash; j--) {
+            if (accession.equals(getAccession(chunks, chunkStarts, (int) (keys[j] & indexMask)))) {
+                throw new IllegalArgumentException("Non unique accession number found \'" + accession + "\'!\nPlease check the FASTA file.");
+            }
+        }
+    }
+
+    /**
+     * Returns the accession of the protein at the given index in the chunks.
+     *
+     * @param chunks the entries of the FASTA file
+     * @param chunkStarts the index of the first protein of every chunk
+     * @param proteinIndex the index of the protein
+     *
+     * @return the accession of the protein
+     */
+    private static String getAccession(ArrayList<Entries> chunks, int[] chunkStarts, int proteinIndex) {
+        int chunkIndex = getChunk(chunkStarts, proteinIndex);
+        return chunks.get(chunkIndex).accessions.get(proteinIndex - chunkStarts[chunkIndex]);
+    }
+
+    /**
+     * Returns the chunk containing the protein at the given index.
+     *
+     * @param chunkStarts the index of the first protein of every chunk
+     * @param proteinIndex the index of the protein
+     *
+     * @return the index of the chunk
+     */
+    private static int getChunk(int[] chunkStarts, int proteinIndex) {
+        int chunkIndex = Arrays.binarySearch(chunkStarts, proteinIndex);
+        if (chunkIndex < 0) {
+            return -chunkIndex - 2;
+        }
+        // skip empty chunks
+        while (chunkIndex < chunkStarts.length - 1 && chunkStarts[chunkIndex + 1] == proteinIndex) {
+            chunkIndex++;
+        }
+        return chunkIndex;
+    }
+
+    /**
+     * Writes a string preceded by its length in bytes.
+     *
+     * @param outputStream the stream where to write
+     * @param string the string
+     *
+     * @return the number of bytes written
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the string
+     */
+    private static int writeString(DataOutputStream outputStream, String string) throws IOException {
+        byte[] bytes = string.getBytes(UTF8);
+        outputStream.writeInt(bytes.length);
+        outputStream.write(bytes);
+        return 4 + bytes.length;
+    }
+
+    /**
+     * Returns the 64 bit hash of an accession.
+     *
+     * @param accession the accession
+     *
+     * @return the hash of the accession
+     */
+    private static long getHash(String accession) {
+        // FNV-1a followed by the finalizer of MurmurHash3 to spread the bits
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < accession.length(); i++) {
+            hash ^= accession.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Returns the long at the given position of the file.
+     *
+     * @param position the position
+     *
+     * @return the long at this position
+     */
+    private long getLong(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].getLong((int) (position & SEGMENT_MASK));
+    }
+
+    /**
+     * Returns the int at the given position of the file.
+     *
+     * @param position the position
+     *
+     * @return the int at this position
+     */
+    private int getInt(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].getInt((int) (position & SEGMENT_MASK));
+    }
+
+    /**
+     * Returns the string at the given position of the file.
+     *
+     * @param position the position
+     *
+     * @return the string at this position
+     */
+    private String getString(long position) {
+        int length = getInt(position);
+        byte[] bytes = new byte[length];
+        long start = position + 4;
+        for (int i = 0; i < length; i++) {
+            long bytePosition = start + i;
+            bytes[i] = segments[(int) (bytePosition >>> SEGMENT_BITS)].get((int) (bytePosition & SEGMENT_MASK));
+        }
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Returns the index of the given accession, -1 if not found.
+     *
+     * @param accession the accession
+     *
+     * @return the index of the accession
+     */
+    public int getIndex(String accession) {
+        long hash = getHash(accession) >>> (indexBits + 1);
+        int low = 0;
+        int high = nSequences;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getLong(hashesPosition + 8L * middle) < hash) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < nSequences && getLong(hashesPosition + 8L * i) == hash; i++) {
+            if (accession.equals(getAccession(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of proteins in the index.
+     *
+     * @return the number of proteins in the index
+     */
+    public int size() {
+        return nSequences;
+    }
+
+    /**
+     * Returns the accession of the protein at the given index.
+     *
+     * @param index the index of the protein
+     *
+     * @return the accession of the protein
+     */
+    public String getAccession(int index) {
+        return getString(getLong(recordsPosition + (long) RECORD_SIZE * index + 8));
+    }
+
+    /**
+     * Returns the offset of the header of the protein at the given index in
+     * the FASTA file.
+     *
+     * @param index the index of the protein
+     *
+     * @return the offset of the header in the FASTA file
+     */
+    public long getFastaOffset(int index) {
+        return getLong(recordsPosition + (long) RECORD_SIZE * index);
+    }
+
+    /**
+     * Returns the length of the sequence of the protein at the given index.
+     *
+     * @param index the index of the protein
+     *
+     * @return the length of the sequence
+     */
+    public int getSequenceLength(int index) {
+        return getInt(recordsPosition + (long) RECORD_SIZE * index + 16);
+    }
+
+    /**
+     * Returns the species of the protein at the given index.
+     *
+     * @param index the index of the protein
+     *
+     * @return the species of the protein
+     */
+    public String getSpecies(int index) {
+        return species[getInt(recordsPosition + (long) RECORD_SIZE * index + 20)];
+    }
+
+    /**
+     * Returns the database type of the protein at the given index.
+     *
+     * @param index the index of the protein
+     *
+     * @return the database type of the protein
+     */
+    public DatabaseType getDatabaseType(int index) {
+        return DATABASE_TYPES[getInt(recordsPosition + (long) RECORD_SIZE * index + 24)];
+    }
+
+    /**
+     * Indicates whether the protein at the given index is a decoy.
+     *
+     * @param index the index of the protein
+     *
+     * @return a boolean indicating whether the protein is a decoy
+     */
+    public boolean isDecoy(int index) {
+        return (getInt(recordsPosition + (long) RECORD_SIZE * index + 28) & DECOY_FLAG) != 0;
+    }
+
+    /**
+     * Returns the index file.
+     *
+     * @return the index file
+     */
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * Returns a read-only view of the accessions in the index. The accessions
+     * are iterated in the order of the index, not in the order of the FASTA
+     * file.
+     *
+     * @return a view of the accessions in the index
+     */
+    public AbstractSet<String> getAccessions() {
+        return new AbstractSet<String>() {
+
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+
+                    private int i = 0;
+
+                    public boolean hasNext() {
+                        return i < nSequences;
+                    }
+
+                    public String next() {
+                        if (i >= nSequences) {
+                            throw new NoSuchElementException();
+                        }
+                        return getAccession(i++);
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException("The index cannot be modified.");
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return nSequences;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && getIndex((String) o) != -1;
+            }
+        };
+    }
+
+    /**
+     * The proteins found in a chunk of a FASTA file, in the order of the file.
+     */
+    public static class Entries {
+
+        /**
+         * The accessions.
+         */
+        private final ArrayList<String> accessions = new ArrayList<String>();
+        /**
+         * The offsets of the headers in the FASTA file.
+         */
+        private long[] offsets = new long[16];
+        /**
+         * The lengths of the sequences.
+         */
+        private int[] sequenceLengths = new int[16];
+        /**
+         * The species indexed as in the species names list.
+         */
+        private int[] species = new int[16];
+        /**
+         * The ordinals of the database types.
+         */
+        private int[] databaseTypes = new int[16];
+        /**
+         * The decoy status.
+         */
+        private boolean[] decoys = new boolean[16];
+        /**
+         * The species names.
+         */
+        private final ArrayList<String> speciesNames = new ArrayList<String>();
+        /**
+         * The index of every species name.
+         */
+        private final HashMap<String, Integer> speciesIndexes = new HashMap<String, Integer>();
+
+        /**
+         * Adds a protein.
+         *
+         * @param accession the accession of the protein
+         * @param offset the offset of the header in the FASTA file
+         * @param sequenceLength the length of the sequence
+         * @param speciesName the species of the protein
+         * @param databaseType the database type of the protein
+         */
+        public void add(String accession, long offset, int sequenceLength, String speciesName, DatabaseType databaseType) {
+            int i = accessions.size();
+            if (i == offsets.length) {
+                int newLength = 2 * i;
+                offsets = Arrays.copyOf(offsets, newLength);
+                sequenceLengths = Arrays.copyOf(sequenceLengths, newLength);
+                species = Arrays.copyOf(species, newLength);
+                databaseTypes = Arrays.copyOf(databaseTypes, newLength);
+                decoys = Arrays.copyOf(decoys, newLength);
+            }
+            Integer speciesIndex = speciesIndexes.get(speciesName);
+            if (speciesIndex == null) {
+                speciesIndex = speciesNames.size();
+                speciesNames.add(speciesName);
+                speciesIndexes.put(speciesName, speciesIndex);
+            }
+            accessions.add(accession);
+            offsets[i] = offset;
+            sequenceLengths[i] = sequenceLength;
+            species[i] = speciesIndex;
+            databaseTypes[i] = databaseType.ordinal();
+        }
+
+        /**
+         * Sets the length of the sequence of the last protein added.
+         *
+         * @param sequenceLength the length of the sequence
+         */
+        public void setLastSequenceLength(int sequenceLength) {
+            sequenceLengths[accessions.size() - 1] = sequenceLength;
+        }
+
+        /**
+         * Sets whether the protein at the given index is a decoy.
+         *
+         * @param index the index of the protein
+         * @param decoy a boolean indicating whether the protein is a decoy
+         */
+        public void setDecoy(int index, boolean decoy) {
+            decoys[index] = decoy;
+        }
+
+        /**
+         * Returns the number of proteins.
+         *
+         * @return the number of proteins
+         */
+        public int size() {
+            return accessions.size();
+        }
+
+        /**
+         * Returns the accession of the protein at the given index.
+         *
+         * @param index the index of the protein
+         *
+         * @return the accession of the protein
+         */
+        public String getAccession(int index) {
+            return accessions.get(index);
+        }
+
+        /**
+         * Returns the species of the protein at the given index.
+         *
+         * @param index the index of the protein
+         *
+         * @return the species of the protein
+         */
+        public String getSpecies(int index) {
+            return speciesNames.get(species[index]);
+        }
+
+        /**
+         * Returns the database type of the protein at the given index.
+         *
+         * @param index the index of the protein
+         *
+         * @return the database type of the protein
+         */
+        public DatabaseType getDatabaseType(int index) {
+            return DATABASE_TYPES[databaseTypes[index]];
+        }
+
+        /**
+         * Indicates whether the protein at the given index is a decoy.
+         *
+         * @param index the index of the protein
+         *
+         * @return a boolean indicating whether the protein is a decoy
+         */
+        public boolean isDecoy(int index) {
+            return decoys[index];
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+import com.compomics.util.protein.Header;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the proteins of a chunk of a FASTA file. The proteins whose header
+ * starts in the chunk are returned, the sequence of the last one is read
+ * until the next header even if it is after the end of the chunk. The file is
+ * read in a byte buffer and the headers are parsed directly from the buffer.
+ * A reader is meant to be used by a single thread.
+ *
+ * @author Marc Vaudel
+ */
+public class FastaChunkReader {
+
+    /**
+     * The initial size of the buffer, increased for lines longer than the
+     * buffer.
+     */
+    private static final int BUFFER_SIZE = 1024 * 100;
+    /**
+     * The stream on the FASTA file.
+     */
+    private final FileInputStream fileInputStream;
+    /**
+     * The end of the chunk in the file, exclusive.
+     */
+    private final long end;
+    /**
+     * The buffer.
+     */
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    /**
+     * The position in the file of the first byte of the buffer.
+     */
+    private long bufferIndex;
+    /**
+     * The number of bytes in the buffer.
+     */
+    private int bufferLength = 0;
+    /**
+     * The index in the buffer of the first byte not read.
+     */
+    private int position = 0;
+    /**
+     * Indicates whether the end of the file was reached.
+     */
+    private boolean endOfFile = false;
+    /**
+     * The index in the buffer of the first byte of the current line.
+     */
+    private int lineStart;
+    /**
+     * The index in the buffer of the end of the current line, line break
+     * excluded.
+     */
+    private int lineEnd;
+    /**
+     * Indicates whether the current line is a header which was not read yet.
+     */
+    private boolean headerPending = false;
+    /**
+     * The header of the current protein.
+     */
+    private Header header;
+    /**
+     * The position in the file of the header of the current protein.
+     */
+    private long headerIndex;
+    /**
+     * The sequence of the current protein as present in the file without
+     * line breaks.
+     */
+    private final StringBuilder sequenceBuilder = new StringBuilder();
+    /**
+     * Indicates whether the current protein is the last of the file.
+     */
+    private boolean lastProtein;
+
+    /**
+     * Constructor.
+     *
+     * @param fastaFile the FASTA file
+     * @param start the start of the chunk in the file
+     * @param end the end of the chunk in the file, exclusive
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public FastaChunkReader(File fastaFile, long start, long end) throws IOException {
+        this.end = end;
+        fileInputStream = new FileInputStream(fastaFile);
+        try {
+            // move to the first line starting in the chunk
+            if (start > 0) {
+                FileChannel fileChannel = fileInputStream.getChannel();
+                fileChannel.position(start - 1);
+                bufferIndex = start - 1;
+                nextLine();
+            }
+        } catch (IOException e) {
+            fileInputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next protein of the chunk.
+     *
+     * @return true if a protein was read, false if the end of the chunk was
+     * reached
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public boolean nextProtein() throws IOException {
+
+        // skip the end of the sequence of the protein of the previous chunk
+        while (!headerPending) {
+            if (!nextLine()) {
+                return false;
+            }
+            headerPending = isHeader();
+        }
+
+        long lineIndex = bufferIndex + lineStart;
+        if (lineIndex >= end) {
+            return false;
+        }
+
+        headerPending = false;
+        headerIndex = lineIndex;
+        header = Header.parseFromFASTA(buffer, lineStart, lineEnd - lineStart);
+        sequenceBuilder.setLength(0);
+        lastProtein = true;
+
+        while (nextLine()) {
+            if (isHeader()) {
+                headerPending = true;
+                lastProtein = false;
+                break;
+            }
+            appendTrimmedLine();
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the header of the current protein.
+     *
+     * @return the header of the current protein
+     */
+    public Header getHeader() {
+        return header;
+    }
+
+    /**
+     * Returns the position in the file of the header of the current protein.
+     *
+     * @return the position in the file of the header of the current protein
+     */
+    public long getHeaderIndex() {
+        return headerIndex;
+    }
+
+    /**
+     * Returns the sequence of the current protein as present in the file
+     * without line breaks and surrounding white spaces. The builder is reused
+     * for the next protein.
+     *
+     * @return the sequence of the current protein
+     */
+    public StringBuilder getSequence() {
+        return sequenceBuilder;
+    }
+
+    /**
+     * Indicates whether the current protein is the last of the file.
+     *
+     * @return a boolean indicating whether the current protein is the last of
+     * the file
+     */
+    public boolean isLastProtein() {
+        return lastProtein;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * closing the file
+     */
+    public void close() throws IOException {
+        fileInputStream.close();
+    }
+
+    /**
+     * Indicates whether the current line is a header.
+     *
+     * @return a boolean indicating whether the current line is a header
+     */
+    private boolean isHeader() {
+        return lineEnd > lineStart && buffer[lineStart] == '>';
+    }
+
+    /**
+     * Appends the current line to the sequence without the surrounding white
+     * spaces.
+     */
+    private void appendTrimmedLine() {
+        int start = lineStart;
+        int stop = lineEnd;
+        while (start < stop && (buffer[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        while (stop > start && (buffer[stop - 1] & 0xFF) <= ' ') {
+            stop--;
+        }
+        for (int i = start; i < stop; i++) {
+            sequenceBuilder.append((char) (buffer[i] & 0xFF));
+        }
+    }
+
+    /**
+     * Reads the next line of the file. Lines end with \n, \r or \r\n.
+     *
+     * @return true if a line was read, false if the end of the file was
+     * reached
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private boolean nextLine() throws IOException {
+
+        int i = position;
+
+        while (true) {
+
+            for (; i < bufferLength; i++) {
+                byte b = buffer[i];
+                if (b == '\n' || b == '\r') {
+                    if (b == '\r' && i + 1 == bufferLength && !endOfFile) {
+                        // the line feed following the carriage return might be in the next read
+                        break;
+                    }
+                    lineStart = position;
+                    lineEnd = i;
+                    position = b == '\r' && i + 1 < bufferLength && buffer[i + 1] == '\n' ? i + 2 : i + 1;
+                    return true;
+                }
+            }
+
+            if (endOfFile) {
+                if (position < bufferLength) {
+                    lineStart = position;
+                    lineEnd = bufferLength;
+                    position = bufferLength;
+                    return true;
+                }
+                return false;
+            }
+
+            i -= position;
+            fill();
+        }
+    }
+
+    /**
+     * Moves the bytes not read to the beginning of the buffer, increases the
+     * buffer if needed, and reads more bytes from the file.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private void fill() throws IOException {
+        int remaining = bufferLength - position;
+        if (remaining == buffer.length) {
+            byte[] newBuffer = new byte[2 * buffer.length];
+            System.arraycopy(buffer, position, newBuffer, 0, remaining);
+            buffer = newBuffer;
+        } else if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        }
+        bufferIndex += position;
+        bufferLength = remaining;
+        position = 0;
+        int read = fileInputStream.read(buffer, bufferLength, buffer.length - bufferLength);
+        if (read == -1) {
+            endOfFile = true;
+        } else {
+            bufferLength += read;
+        }
+    }
+}
@@ -6,22 +6,39 @@ import com.compomics.util.protein.Header.DatabaseType;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Set;
 
 /**
- * This class contains the index of a FASTA file.
+ * This class contains the index of a FASTA file. The location of the proteins
+ * in the file is stored in a binary index which is not serialized with this
+ * object, see BinaryFastaIndex. Indexes created by older versions contain the
+ * location of the proteins in maps.
  *
  * @author Marc Vaudel
  */
 public class FastaIndex extends ExperimentObject {
 
     /**
-     * The indexes of the inspected FASTA file.
+     * The version UID for Serialization/Deserialization compatibility.
+     */
+    static final long serialVersionUID = 6048982043770405466L;
+    /**
+     * The indexes of the inspected FASTA file. Null if the binary index is
+     * used.
      */
     private HashMap<String, Long> indexes;
     /**
-     * The decoy accessions.
+     * The decoy accessions. Null if the binary index is used.
      */
     private HashSet<String> decoyAccessions;
+    /**
+     * The binary index of the proteins in the FASTA file.
+     */
+    private transient BinaryFastaIndex binaryIndex = null;
+    /**
+     * The number of sequences in the database.
+     */
+    private Integer nSequences;
     /**
      * The FASTA file name.
      */
@@ -112,17 +129,109 @@ public class FastaIndex extends ExperimentObject {
         this.decoyTag = decoyTag;
         this.version = version;
         this.speciesOccurrence = speciesOccurrence;
+        this.nSequences = indexes.size();
+    }
+
+    /**
+     * Constructor for an index where the proteins are located using a binary
+     * index.
+     *
+     * @param binaryIndex the binary index of the proteins in the FASTA file
+     * @param fileName The FASTA file name
+     * @param name the name of the database
+     * @param concatenatedTargetDecoy If the FASTA file is a concatenated
+     * target/decoy database
+     * @param isDefaultReversed is this a default reversed database
+     * @param nTarget Number of target sequences found in the database
+     * @param lastModified a long indicating the last time the indexed file was
+     * modified
+     * @param mainDatabaseType the main database type
+     * @param databaseTypes map of all the database types and how often they
+     * occur
+     * @param decoyTag the decoy tag
+     * @param version the database version
+     * @param speciesOccurrence the species occurrence in the database
+     */
+    public FastaIndex(BinaryFastaIndex binaryIndex, String fileName, String name,
+            boolean concatenatedTargetDecoy, boolean isDefaultReversed, int nTarget, long lastModified,
+            DatabaseType mainDatabaseType, HashMap<Header.DatabaseType, Integer> databaseTypes, String decoyTag, String version, HashMap<String, Integer> speciesOccurrence) {
+        this.binaryIndex = binaryIndex;
+        this.nSequences = binaryIndex.size();
+        this.fileName = fileName;
+        this.name = name;
+        this.concatenatedTargetDecoy = concatenatedTargetDecoy;
+        this.isDefaultReversed = isDefaultReversed;
+        this.nTarget = nTarget;
+        this.lastModified = lastModified;
+        this.mainDatabaseType = mainDatabaseType;
+        this.databaseTypes = databaseTypes;
+        this.decoyTag = decoyTag;
+        this.version = version;
+        this.speciesOccurrence = speciesOccurrence;
+    }
+
+    /**
+     * Returns the binary index of the proteins in the FASTA file, null if not
+     * set or for indexes created by older versions.
+     *
+     * @return the binary index of the proteins in the FASTA file
+     */
+    public BinaryFastaIndex getBinaryIndex() {
+        return binaryIndex;
+    }
+
+    /**
+     * Sets the binary index of the proteins in the FASTA file.
+     *
+     * @param binaryIndex the binary index of the proteins in the FASTA file
+     */
+    public void setBinaryIndex(BinaryFastaIndex binaryIndex) {
+        this.binaryIndex = binaryIndex;
+    }
+
+    /**
+     * Indicates whether the proteins can be located in the FASTA file, i.e.,
+     * whether the binary index is set or the index was created by an older
+     * version.
+     *
+     * @return a boolean indicating whether the proteins can be located in the
+     * FASTA file
+     */
+    public boolean isLoaded() {
+        return binaryIndex != null || indexes != null;
     }
 
     /**
      * Returns a map of all indexes of the FASTA file (accession &gt; index).
+     * The map is built from the binary index if set, use getIndex and
+     * getAccessions instead.
      *
      * @return a map of all indexes of the FASTA file (accession &gt; index)
      */
     public HashMap<String, Long> getIndexes() {
+        if (binaryIndex != null) {
+            HashMap<String, Long> result = new HashMap<String, Long>(binaryIndex.size());
+            for (int i = 0; i < binaryIndex.size(); i++) {
+                result.put(binaryIndex.getAccession(i), binaryIndex.getFastaOffset(i));
+            }
+            return result;
+        }
         return indexes;
     }
 
+    /**
+     * Returns the accessions of the proteins in the database. The set is a
+     * view of the binary index if set.
+     *
+     * @return the accessions of the proteins in the database
+     */
+    public Set<String> getAccessions() {
+        if (binaryIndex != null) {
+            return binaryIndex.getAccessions();
+        }
+        return indexes.keySet();
+    }
+
     /**
      * Returns true if the given accession number is a decoy.
      *
@@ -131,15 +240,29 @@ public class FastaIndex extends ExperimentObject {
      * @return true if the given accession number is a decoy
      */
     public boolean isDecoy(String accession) {
+        if (binaryIndex != null) {
+            int index = binaryIndex.getIndex(accession);
+            return index != -1 && binaryIndex.isDecoy(index);
+        }
         return decoyAccessions.contains(accession);
     }
 
     /**
-     * Returns the list of decoy accessions.
+     * Returns the list of decoy accessions. The list is built from the binary
+     * index if set.
      *
      * @return the list of decoy accessions
      */
     public HashSet<String> getDecoyAccesions() {
+        if (binaryIndex != null) {
+            HashSet<String> result = new HashSet<String>(binaryIndex.size() - nTarget);
+            for (int i = 0; i < binaryIndex.size(); i++) {
+                if (binaryIndex.isDecoy(i)) {
+                    result.add(binaryIndex.getAccession(i));
+                }
+            }
+            return result;
+        }
         return decoyAccessions;
     }
 
@@ -150,9 +273,52 @@ public class FastaIndex extends ExperimentObject {
      * @return the index of the accession of interest
      */
     public Long getIndex(String accession) {
+        if (binaryIndex != null) {
+            int index = binaryIndex.getIndex(accession);
+            if (index == -1) {
+                return null;
+            }
+            return binaryIndex.getFastaOffset(index);
+        }
         return indexes.get(accession);
     }
 
+    /**
+     * Returns the length of the sequence of the given protein, null if not
+     * found or not available in indexes created by older versions.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return the length of the sequence of the protein
+     */
+    public Integer getSequenceLength(String accession) {
+        if (binaryIndex != null) {
+            int index = binaryIndex.getIndex(accession);
+            if (index != -1) {
+                return binaryIndex.getSequenceLength(index);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the species of the given protein, null if not found or not
+     * available in indexes created by older versions.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return the species of the protein
+     */
+    public String getSpecies(String accession) {
+        if (binaryIndex != null) {
+            int index = binaryIndex.getIndex(accession);
+            if (index != -1) {
+                return binaryIndex.getSpecies(index);
+            }
+        }
+        return null;
+    }
+
     /**
      * Returns the file name of the indexed FASTA file.
      *
@@ -189,7 +355,13 @@ public class FastaIndex extends ExperimentObject {
      * @return the number of sequences in the databases.
      */
     public int getNSequences() {
-        return indexes.size();
+        if (binaryIndex != null) {
+            return binaryIndex.size();
+        }
+        if (indexes != null) {
+            return indexes.size();
+        }
+        return nSequences;
     }
 
     /**
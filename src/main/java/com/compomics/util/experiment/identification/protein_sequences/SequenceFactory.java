@@ -18,13 +18,20 @@ import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.preferences.UtilitiesUserPreferences;
 import com.compomics.util.protein.Header;
 import java.io.*;
+import java.nio.charset.Charset;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.swing.JProgressBar;
 import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
 
@@ -82,6 +89,11 @@ public class SequenceFactory {
      * The default peptide to protein mapper.
      */
     private PeptideMapper defaultPeptideMapper = null;
+    /**
+     * The folder where the default peptide mapper saves its FM index, null if
+     * the index is not saved.
+     */
+    private File fmIndexFolder = null;
     /**
      * Boolean indicating that the factory is reading the file.
      */
@@ -99,6 +111,16 @@ public class SequenceFactory {
      * statistics.
      */
     public static int minProteinCount = 1000; // @TODO: use a better metric
+    /**
+     * The minimal size in bytes of the chunks of FASTA file indexed in
+     * parallel.
+     */
+    private static final long MIN_INDEXING_CHUNK_SIZE = 16 * 1024 * 1024;
+    /**
+     * The minimal size in bytes of the chunks of FASTA file indexed in
+     * parallel, MIN_INDEXING_CHUNK_SIZE by default.
+     */
+    private static long indexingChunkSize = MIN_INDEXING_CHUNK_SIZE;
 
     /**
      * Constructor.
@@ -106,6 +128,31 @@ public class SequenceFactory {
     private SequenceFactory() {
     }
 
+    /**
+     * Returns the minimal size in bytes of the chunks of FASTA file indexed in
+     * parallel.
+     *
+     * @return the minimal size in bytes of the chunks of FASTA file indexed in
+     * parallel
+     */
+    public static long getIndexingChunkSize() {
+        return indexingChunkSize;
+    }
+
+    /**
+     * Sets the minimal size in bytes of the chunks of FASTA file indexed in
+     * parallel.
+     *
+     * @param indexingChunkSize the minimal size in bytes of the chunks of
+     * FASTA file indexed in parallel
+     */
+    public static void setIndexingChunkSize(long indexingChunkSize) {
+        if (indexingChunkSize <= 0) {
+            throw new IllegalArgumentException("The indexing chunk size must be positive.");
+        }
+        SequenceFactory.indexingChunkSize = indexingChunkSize;
+    }
+
     /**
      * Static method returning the instance of the factory.
      *
@@ -658,6 +705,32 @@ public class SequenceFactory {
      * found
      */
     public static synchronized FastaIndex getFastaIndex(File fastaFile, boolean overwrite, WaitingHandler waitingHandler) throws IOException, StringIndexOutOfBoundsException {
+        return getFastaIndex(fastaFile, overwrite, waitingHandler, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns the file index of the given FASTA file. If a problem occurs while
+     * reading an older index the file will be automatically overwritten and the
+     * stacktrace printed. The proteins are located using a binary index which
+     * is memory mapped, see BinaryFastaIndex. If the index needs to be
+     * created, chunks of the FASTA file are indexed in parallel.
+     *
+     * @param fastaFile the FASTA file to index
+     * @param overwrite boolean indicating whether the index .cui file shall be
+     * overwritten if present, even if the file has not been changed
+     * @param waitingHandler a waitingHandler showing the progress
+     * @param nThreads the number of threads to use to index the file
+     *
+     * @return the index of the FASTA file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the FASTA file
+     * @throws StringIndexOutOfBoundsException thrown if issues occur during the
+     * parsing of the protein headers
+     * @throws IllegalArgumentException if non unique accession numbers are
+     * found
+     */
+    public static synchronized FastaIndex getFastaIndex(File fastaFile, boolean overwrite, WaitingHandler waitingHandler, int nThreads) throws IOException, StringIndexOutOfBoundsException {
 
         FastaIndex tempFastaIndex;
         String fileName = fastaFile.getName();
@@ -670,7 +743,13 @@ public class SequenceFactory {
                     if (indexLastModified != null) {
                         long fileLastModified = fastaFile.lastModified();
                         if (indexLastModified == fileLastModified) {
-                            return tempFastaIndex;
+                            File binaryIndexFile = new File(fastaFile.getParent(), getBinaryIndexName(fileName));
+                            BinaryFastaIndex binaryIndex = BinaryFastaIndex.open(binaryIndexFile, fastaFile);
+                            if (binaryIndex != null && binaryIndex.size() == tempFastaIndex.getNSequences()) {
+                                tempFastaIndex.setBinaryIndex(binaryIndex);
+                                return tempFastaIndex;
+                            }
+                            System.err.println("Reindexing: " + fileName + ". (binary index not found)");
                         } else {
                             System.err.println("Reindexing: " + fileName + ". (changes in the file detected)");
                         }
@@ -705,7 +784,7 @@ public class SequenceFactory {
         }
 
         System.out.println("Reindexing: " + fileName + ".");
-        tempFastaIndex = createFastaIndex(fastaFile, name, decoyTag, version, waitingHandler);
+        tempFastaIndex = createFastaIndex(fastaFile, name, decoyTag, version, waitingHandler, nThreads);
         tempFastaIndex.setDescription(description);
         tempFastaIndex.setAccessionParsingRule(accessionParsingRule);
 
@@ -722,15 +801,16 @@ public class SequenceFactory {
 
     /**
      * Static method to create a FASTA index for a FASTA file. Non-valid fasta
-     * files will throw an exception.
+     * files will throw an exception. Chunks of the file are indexed in
+     * parallel.
      *
      * @param fastaFile the FASTA file
-     * @param progressBar a progress bar showing the progress
+     * @param name the name of the database. Set to file name if null.
      * @param decoyTag the decoy tag. Will be inferred if null.
-     * @param mainDatabaseType the main database type. Will be inferred if null.
      * @param version the version. last modification of the file will be used if
      * null.
-     * @param name the name of the database. Set to file name if null.
+     * @param waitingHandler a waiting handler showing the progress
+     * @param nThreads the number of threads to use
      *
      * @return the corresponding FASTA index
      *
@@ -738,77 +818,124 @@ public class SequenceFactory {
      * reading the file
      */
     private static FastaIndex createFastaIndex(File fastaFile, String name, String decoyTag, String version,
-            WaitingHandler waitingHandler) throws IOException {
-
-        HashMap<String, Long> indexes = new HashMap<String, Long>();
-        HashSet<String> decoyAccessions = new HashSet<String>();
-        BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(fastaFile, "r", 1024 * 100);
+            WaitingHandler waitingHandler, int nThreads) throws IOException {
 
         if (waitingHandler != null) {
             waitingHandler.resetSecondaryProgressCounter();
             waitingHandler.setMaxSecondaryProgressCounter(100);
         }
 
-        long progressUnit = bufferedRandomAccessFile.length() / 100;
+        long fileLength = fastaFile.length();
+        long progressUnit = fileLength / 100;
+        int nChunks = (int) Math.max(1, Math.min(4L * nThreads, fileLength / indexingChunkSize));
+        AtomicLong progress = new AtomicLong(0);
 
-        String line;
-        boolean decoy = false, defaultReversed = false;
-        int nTarget = 0;
-        long index = bufferedRandomAccessFile.getFilePointer();
-
-        // a map of the database header types
-        HashMap<Header.DatabaseType, Integer> databaseTypes = new HashMap<Header.DatabaseType, Integer>();
+        ArrayList<FastaChunkIndexer> indexers = new ArrayList<FastaChunkIndexer>(nChunks);
+        for (int i = 0; i < nChunks; i++) {
+            long start = i * fileLength / nChunks;
+            long end = (i + 1) * fileLength / nChunks;
+            indexers.add(new FastaChunkIndexer(fastaFile, start, end, decoyTag, waitingHandler, progress, progressUnit));
+        }
 
-        // a map of the species
-        HashMap<String, Integer> species = new HashMap<String, Integer>();
+        ArrayList<BinaryFastaIndex.Entries> chunks = new ArrayList<BinaryFastaIndex.Entries>(nChunks);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(nThreads, nChunks)));
+        try {
+            ArrayList<Future<BinaryFastaIndex.Entries>> futures = new ArrayList<Future<BinaryFastaIndex.Entries>>(nChunks);
+            for (FastaChunkIndexer indexer : indexers) {
+                futures.add(pool.submit(indexer));
+            }
+            for (Future<BinaryFastaIndex.Entries> future : futures) {
+                try {
+                    chunks.add(future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IOException("An error occurred while indexing " + fastaFile.getName() + ": " + cause);
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted while indexing " + fastaFile.getName() + ".");
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
 
-        StringBuilder sequenceBuilder = new StringBuilder();
-        String accession = null;
-        int lineNumber = 0;
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
 
-        while ((line = bufferedRandomAccessFile.readLine()) != null) {
+        ArrayList<String> chunkDecoyTags = new ArrayList<String>(nChunks);
+        for (FastaChunkIndexer indexer : indexers) {
+            chunkDecoyTags.add(indexer.getDecoyTag());
+        }
 
-            lineNumber++;
+        boolean temporary = waitingHandler != null && waitingHandler.isRunCanceled();
 
-            if (line.startsWith(">")) {
+        return createFastaIndex(fastaFile, chunks, chunkDecoyTags, name, version, temporary);
+    }
 
-                if (sequenceBuilder.length() != 0 && accession != null) {
-                    String sequence = importSequenceFromFasta(sequenceBuilder);
-                    try {
-                        validateSequence(sequence);
-                    } catch (Exception e) {
-                        throw new IllegalArgumentException("An error occurred while parsing the sequence of " + accession + " at line " + lineNumber + ": " + e.toString());
-                    }
-                }
+    /**
+     * Creates the FASTA index of a FASTA file from its entries and writes the
+     * binary index.
+     *
+     * @param fastaFile the FASTA file
+     * @param chunks the entries of the FASTA file in chunks
+     * @param chunkDecoyTags the decoy tag used to flag the decoys of every
+     * chunk, i.e. the given decoy tag or the tag of the first decoy found in
+     * the chunk, null if none
+     * @param name the name of the database. Set to file name if null.
+     * @param version the version. last modification of the file will be used
+     * if null.
+     * @param temporary if true the binary index is written in a temporary
+     * file
+     *
+     * @return the corresponding FASTA index
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the binary index
+     */
+    private static FastaIndex createFastaIndex(File fastaFile, ArrayList<BinaryFastaIndex.Entries> chunks, ArrayList<String> chunkDecoyTags,
+            String name, String version, boolean temporary) throws IOException {
 
-                Header fastaHeader = Header.parseFromFASTA(line);
-                accession = fastaHeader.getAccessionOrRest();
-                if (accession == null) {
-                    throw new IllegalArgumentException("No accession found for header at line " + lineNumber + ".");
+        // the decoy tag is the one of the first decoy in the file
+        String decoyTag = null;
+        for (String chunkDecoyTag : chunkDecoyTags) {
+            if (chunkDecoyTag != null) {
+                decoyTag = chunkDecoyTag;
+                break;
+            }
+        }
+        for (int i = 0; i < chunks.size(); i++) {
+            String chunkDecoyTag = chunkDecoyTags.get(i);
+            if (chunkDecoyTag != null && !chunkDecoyTag.equals(decoyTag)) {
+                BinaryFastaIndex.Entries chunk = chunks.get(i);
+                for (int j = 0; j < chunk.size(); j++) {
+                    chunk.setDecoy(j, isDecoy(chunk.getAccession(j), decoyTag));
                 }
+            }
+        }
 
-//                if (fastaHeader.getStartLocation() != -1) {
-//                    accession += " (" + fastaHeader.getStartLocation() + "-" + fastaHeader.getEndLocation() + ")"; // special dbtoolkit pattern
-//                }
-
-                // check accessions for quotation marks
-                // @TODO: implement me ..?
+        boolean decoy = false, defaultReversed = false;
+        int nTarget = 0;
 
+        // a map of the database header types
+        HashMap<Header.DatabaseType, Integer> databaseTypes = new HashMap<Header.DatabaseType, Integer>();
 
-                // check if the accession number is unique
-                if (indexes.containsKey(accession)) {
-                    throw new IllegalArgumentException("Non unique accession number found \'" + accession + "\'!\nPlease check the FASTA file.");
-                }
+        // a map of the species
+        HashMap<String, Integer> species = new HashMap<String, Integer>();
 
-                indexes.put(accession, index);
-                if (decoyTag == null) {
-                    decoyTag = getDecoyFlag(accession);
-                }
-                if (decoyTag == null || !isDecoy(accession, decoyTag)) {
+        for (BinaryFastaIndex.Entries chunk : chunks) {
+            for (int i = 0; i < chunk.size(); i++) {
+                if (!chunk.isDecoy(i)) {
                     nTarget++;
 
                     // get the database type
-                    Header.DatabaseType tempDatabaseType = fastaHeader.getDatabaseType();
+                    Header.DatabaseType tempDatabaseType = chunk.getDatabaseType(i);
                     Integer typeCounter = databaseTypes.get(tempDatabaseType);
 
                     if (typeCounter == null) {
@@ -818,10 +945,7 @@ public class SequenceFactory {
                     }
 
                     // get the species
-                    String taxonomy = fastaHeader.getTaxonomy();
-                    if (taxonomy == null || taxonomy.equals("")) {
-                        taxonomy = SpeciesFactory.UNKNOWN;
-                    }
+                    String taxonomy = chunk.getSpecies(i);
                     Integer occurrence = species.get(taxonomy);
                     if (occurrence == null) {
                         species.put(taxonomy, 1);
@@ -829,35 +953,16 @@ public class SequenceFactory {
                         species.put(taxonomy, occurrence + 1);
                     }
 
-                } else {
-                    decoyAccessions.add(accession);
-                    if (!decoy) {
-                        decoy = true;
-                        if (accession.endsWith(getDefaultDecoyAccessionSuffix())) {
-                            defaultReversed = true;
-                        }
+                } else if (!decoy) {
+                    decoy = true;
+                    if (chunk.getAccession(i).endsWith(getDefaultDecoyAccessionSuffix())) {
+                        defaultReversed = true;
                     }
                 }
-
-                if (waitingHandler != null && progressUnit != 0) {
-                    waitingHandler.setSecondaryProgressCounter((int) (index / progressUnit));
-                    if (waitingHandler.isRunCanceled()) {
-                        break;
-                    }
-                }
-                index = bufferedRandomAccessFile.getFilePointer();
-                sequenceBuilder = new StringBuilder();
-            } else {
-                index = bufferedRandomAccessFile.getFilePointer();
-                sequenceBuilder.append(line.trim());
             }
         }
 
-        if (waitingHandler != null) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
-        }
-
-        bufferedRandomAccessFile.close();
+        BinaryFastaIndex binaryIndex = writeBinaryIndex(fastaFile, chunks, temporary);
 
         long lastModified = fastaFile.lastModified();
 
@@ -882,7 +987,56 @@ public class SequenceFactory {
             }
         }
 
-        return new FastaIndex(indexes, decoyAccessions, fileName, name, decoy, defaultReversed, nTarget, lastModified, mainDatabaseType, databaseTypes, decoyTag, version, species);
+        return new FastaIndex(binaryIndex, fileName, name, decoy, defaultReversed, nTarget, lastModified, mainDatabaseType, databaseTypes, decoyTag, version, species);
+    }
+
+    /**
+     * Writes the binary index of the given FASTA file next to the file and
+     * maps it. If the index cannot be written next to the FASTA file it is
+     * written in a temporary file deleted on exit.
+     *
+     * @param fastaFile the FASTA file
+     * @param chunks the entries of the FASTA file in chunks
+     * @param temporary if true the index is written in a temporary file
+     *
+     * @return the binary index
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the index
+     */
+    private static BinaryFastaIndex writeBinaryIndex(File fastaFile, ArrayList<BinaryFastaIndex.Entries> chunks, boolean temporary) throws IOException {
+
+        File binaryIndexFile = null;
+
+        if (!temporary) {
+            File destinationFile = new File(fastaFile.getParentFile(), getBinaryIndexName(fastaFile.getName()));
+            File tempFile = new File(fastaFile.getParentFile(), destinationFile.getName() + ".tmp");
+            try {
+                BinaryFastaIndex.write(tempFile, fastaFile, chunks);
+                if ((!destinationFile.exists() || destinationFile.delete()) && tempFile.renameTo(destinationFile)) {
+                    binaryIndexFile = destinationFile;
+                } else {
+                    // the previous index might still be mapped
+                    binaryIndexFile = tempFile;
+                    tempFile.deleteOnExit();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                tempFile.delete();
+            }
+        }
+
+        if (binaryIndexFile == null) {
+            binaryIndexFile = File.createTempFile(fastaFile.getName(), ".cuib");
+            binaryIndexFile.deleteOnExit();
+            BinaryFastaIndex.write(binaryIndexFile, fastaFile, chunks);
+        }
+
+        BinaryFastaIndex binaryIndex = BinaryFastaIndex.open(binaryIndexFile, fastaFile);
+        if (binaryIndex == null) {
+            throw new IOException("Failed to open the index of " + fastaFile.getName() + ".");
+        }
+        return binaryIndex;
     }
 
     /**
@@ -912,6 +1066,18 @@ public class SequenceFactory {
         return fastaName + ".cui";
     }
 
+    /**
+     * Returns the name of the binary index corresponding to the given FASTA
+     * file name.
+     *
+     * @param fastaName the name of the FASTA file
+     *
+     * @return the name of the binary index
+     */
+    public static String getBinaryIndexName(String fastaName) {
+        return fastaName + ".cuib";
+    }
+
     /**
      * Saves the index.
      *
@@ -1044,6 +1210,8 @@ public class SequenceFactory {
 
     /**
      * Appends decoy sequences to the desired file while displaying progress.
+     * The index of the new file is derived from the written proteins, the file
+     * is not parsed again.
      *
      * @param destinationFile the destination file
      * @param waitingHandler the waiting handler
@@ -1061,9 +1229,12 @@ public class SequenceFactory {
             waitingHandler.setMaxSecondaryProgressCounter(fastaIndex.getNTarget());
         }
 
-        // first create the new target-decoy file
-        BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(destinationFile));
-        String lineBreak = System.getProperty("line.separator");
+        // first create the new target-decoy file, the offsets of the proteins are recorded for the index
+        Charset charset = Charset.defaultCharset();
+        BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(destinationFile));
+        byte[] lineBreak = System.getProperty("line.separator").getBytes(charset);
+        BinaryFastaIndex.Entries entries = new BinaryFastaIndex.Entries();
+        long offset = 0;
 
         try {
             ProteinIterator proteinIterator = getProteinIterator(true);
@@ -1096,13 +1267,22 @@ public class SequenceFactory {
                     currentRawHeader = currentRawHeader.replaceAll(escapedString, getDefaultDecoyDescription(currentHeader.getDescription()));
                 }
 
-                // write the target protein to the fasta file
-                bufferedWriter.write(currentHeader.getRawHeader() + lineBreak);
-                bufferedWriter.write(currentProtein.getSequence() + lineBreak);
+                int sequenceLength = currentProtein.getSequence().length();
 
-                // write the decoy protein to the fasta file
-                bufferedWriter.write(currentRawHeader + lineBreak);
-                bufferedWriter.write(reverseSequence(currentProtein.getSequence()) + lineBreak);
+                // write the target protein to the fasta file
+                entries.add(accession, offset, sequenceLength, getTaxonomy(currentHeader), currentHeader.getDatabaseType());
+                offset += writeLine(outputStream, currentHeader.getRawHeader(), charset, lineBreak);
+                offset += writeLine(outputStream, currentProtein.getSequence(), charset, lineBreak);
+
+                // write the decoy protein to the fasta file, indexed as parsed from the file
+                Header decoyHeader = Header.parseFromFASTA(currentRawHeader);
+                String decoyIndexAccession = decoyHeader.getAccessionOrRest();
+                if (decoyIndexAccession == null) {
+                    throw new IllegalArgumentException("No accession found for decoy header \'" + currentRawHeader + "\'.");
+                }
+                entries.add(decoyIndexAccession, offset, sequenceLength, getTaxonomy(decoyHeader), decoyHeader.getDatabaseType());
+                offset += writeLine(outputStream, currentRawHeader, charset, lineBreak);
+                offset += writeLine(outputStream, reverseSequence(currentProtein.getSequence()), charset, lineBreak);
 
                 // possible fix for the dbtoolkit uniprot format
 //            Protein currentProtein = getProtein(accession);
@@ -1122,7 +1302,7 @@ public class SequenceFactory {
             }
 
         } finally {
-            bufferedWriter.close();
+            outputStream.close();
         }
 
         if (waitingHandler != null) {
@@ -1138,13 +1318,70 @@ public class SequenceFactory {
         }
 
         if (indexFile) {
-            // now (re-)index the new target-decoy file
+
+            // flag the decoys as done when parsing the file
+            String decoyTag = null;
+            for (int i = 0; i < entries.size(); i++) {
+                String accession = entries.getAccession(i);
+                if (decoyTag == null) {
+                    decoyTag = getDecoyFlag(accession);
+                }
+                entries.setDecoy(i, decoyTag != null && isDecoy(accession, decoyTag));
+            }
+            ArrayList<BinaryFastaIndex.Entries> chunks = new ArrayList<BinaryFastaIndex.Entries>(1);
+            chunks.add(entries);
+            ArrayList<String> chunkDecoyTags = new ArrayList<String>(1);
+            chunkDecoyTags.add(decoyTag);
+
+            // write the index of the new target-decoy file and load it
+            FastaIndex newFastaIndex = createFastaIndex(destinationFile, chunks, chunkDecoyTags, null, null, false);
+            try {
+                writeIndex(newFastaIndex, destinationFile.getParentFile());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
             loadFastaFile(destinationFile, waitingHandler);
         } else {
             destinationFile.delete();
         }
     }
 
+    /**
+     * Returns the taxonomy of the given header as indexed, i.e., unknown if
+     * not set.
+     *
+     * @param header the header
+     *
+     * @return the taxonomy
+     */
+    private static String getTaxonomy(Header header) {
+        String taxonomy = header.getTaxonomy();
+        if (taxonomy == null || taxonomy.equals("")) {
+            taxonomy = SpeciesFactory.UNKNOWN;
+        }
+        return taxonomy;
+    }
+
+    /**
+     * Writes a line in the given stream.
+     *
+     * @param outputStream the stream where to write
+     * @param line the line to write
+     * @param charset the charset to use
+     * @param lineBreak the encoded line break
+     *
+     * @return the number of bytes written
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the line
+     */
+    private static int writeLine(OutputStream outputStream, String line, Charset charset, byte[] lineBreak) throws IOException {
+        byte[] bytes = line.getBytes(charset);
+        outputStream.write(bytes);
+        outputStream.write(lineBreak);
+        return bytes.length + lineBreak.length;
+    }
+
     /**
      * Reverses a protein sequence.
      *
@@ -1164,7 +1401,7 @@ public class SequenceFactory {
     public Set<String> getAccessions() {
         Set<String> setToFill = new HashSet<String>();
         if (fastaIndex != null) {
-            setToFill = fastaIndex.getIndexes().keySet();
+            setToFill = fastaIndex.getAccessions();
         }
         return setToFill;
     }
@@ -1445,7 +1682,8 @@ public class SequenceFactory {
             PeptideMapperType peptideMapperType = sequenceMatchingPreferences.getPeptideMapperType();
             switch (peptideMapperType) {
                 case fm_index:
-                    defaultPeptideMapper = new FMIndex(waitingHandler, displayProgress, peptideVariantsPreferences, searchParameters);
+                    File indexFile = fmIndexFolder == null ? null : FMIndex.getIndexFile(fmIndexFolder, currentFastaFile);
+                    defaultPeptideMapper = new FMIndex(waitingHandler, displayProgress, peptideVariantsPreferences, searchParameters, indexFile, nThreads);
                     break;
                 case tree:
 
@@ -1531,6 +1769,28 @@ public class SequenceFactory {
         this.decoyInMemory = decoyInMemory;
     }
 
+    /**
+     * Returns the folder where the default peptide mapper saves its FM index.
+     * Null if the index is not saved.
+     *
+     * @return the folder where the default peptide mapper saves its FM index
+     */
+    public File getFmIndexFolder() {
+        return fmIndexFolder;
+    }
+
+    /**
+     * Sets the folder where the default peptide mapper saves its FM index, and
+     * reopens it from there on the next runs. Null to not save the index, which is
+     * the default.
+     *
+     * @param fmIndexFolder the folder where the default peptide mapper saves
+     * its FM index
+     */
+    public void setFmIndexFolder(File fmIndexFolder) {
+        this.fmIndexFolder = fmIndexFolder;
+    }
+
     /**
      * Convenience iterator iterating the headers of a FASTA file without using
      * the cache. The order is the one in the FASTA file.
@@ -1763,4 +2023,146 @@ public class SequenceFactory {
             br.close();
         }
     }
+
+    /**
+     * Indexes the proteins of a chunk of a FASTA file. The proteins whose
+     * header starts in the chunk are indexed.
+     */
+    private static class FastaChunkIndexer implements Callable<BinaryFastaIndex.Entries> {
+
+        /**
+         * The FASTA file.
+         */
+        private final File fastaFile;
+        /**
+         * The start of the chunk in the file.
+         */
+        private final long start;
+        /**
+         * The end of the chunk in the file, exclusive.
+         */
+        private final long end;
+        /**
+         * The decoy tag, inferred from the first decoy of the chunk if null.
+         */
+        private String decoyTag;
+        /**
+         * The waiting handler, can be null.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The number of bytes indexed by all chunks.
+         */
+        private final AtomicLong progress;
+        /**
+         * The number of bytes corresponding to one percent of the file.
+         */
+        private final long progressUnit;
+
+        /**
+         * Constructor.
+         *
+         * @param fastaFile the FASTA file
+         * @param start the start of the chunk in the file
+         * @param end the end of the chunk in the file, exclusive
+         * @param decoyTag the decoy tag, inferred from the first decoy of the
+         * chunk if null
+         * @param waitingHandler the waiting handler, can be null
+         * @param progress the number of bytes indexed by all chunks
+         * @param progressUnit the number of bytes corresponding to one
+         * percent of the file
+         */
+        public FastaChunkIndexer(File fastaFile, long start, long end, String decoyTag, WaitingHandler waitingHandler, AtomicLong progress, long progressUnit) {
+            this.fastaFile = fastaFile;
+            this.start = start;
+            this.end = end;
+            this.decoyTag = decoyTag;
+            this.waitingHandler = waitingHandler;
+            this.progress = progress;
+            this.progressUnit = progressUnit;
+        }
+
+        /**
+         * Returns the decoy tag used to flag the decoys of this chunk, null if
+         * not provided and no decoy was found.
+         *
+         * @return the decoy tag
+         */
+        public String getDecoyTag() {
+            return decoyTag;
+        }
+
+        @Override
+        public BinaryFastaIndex.Entries call() throws IOException {
+
+            BinaryFastaIndex.Entries entries = new BinaryFastaIndex.Entries();
+            FastaChunkReader fastaChunkReader = new FastaChunkReader(fastaFile, start, end);
+
+            try {
+
+                long reported = start;
+
+                while (fastaChunkReader.nextProtein()) {
+
+                    long index = fastaChunkReader.getHeaderIndex();
+                    Header fastaHeader = fastaChunkReader.getHeader();
+                    String accession = fastaHeader.getAccessionOrRest();
+                    if (accession == null) {
+                        throw new IllegalArgumentException("No accession found for header at position " + index + ".");
+                    }
+
+                    entries.add(accession, index, 0, getTaxonomy(fastaHeader), fastaHeader.getDatabaseType());
+
+                    if (decoyTag == null) {
+                        decoyTag = getDecoyFlag(accession);
+                    }
+                    if (decoyTag != null && isDecoy(accession, decoyTag)) {
+                        entries.setDecoy(entries.size() - 1, true);
+                    }
+
+                    if (waitingHandler != null) {
+                        if (progressUnit != 0 && index - reported >= progressUnit) {
+                            long indexed = progress.addAndGet(index - reported);
+                            reported = index;
+                            waitingHandler.setSecondaryProgressCounter((int) (indexed / progressUnit));
+                        }
+                        if (waitingHandler.isRunCanceled()) {
+                            break;
+                        }
+                    }
+
+                    // the last sequence of the file is not validated
+                    setSequenceLength(entries, accession, fastaChunkReader.getSequence(), !fastaChunkReader.isLastProtein());
+                }
+
+            } finally {
+                fastaChunkReader.close();
+            }
+
+            return entries;
+        }
+
+        /**
+         * Sets the length of the sequence of the last protein added and
+         * eventually validates the sequence.
+         *
+         * @param entries the entries of the chunk
+         * @param accession the accession of the last protein added
+         * @param sequenceBuilder the sequence as present in the FASTA file
+         * @param validate if true the sequence is validated
+         */
+        private void setSequenceLength(BinaryFastaIndex.Entries entries, String accession, StringBuilder sequenceBuilder, boolean validate) {
+            if (sequenceBuilder.length() != 0) {
+                String sequence = importSequenceFromFasta(sequenceBuilder);
+                if (validate) {
+                    try {
+                        validateSequence(sequence);
+                    } catch (Exception e) {
+                        throw new IllegalArgumentException("An error occurred while parsing the sequence of " + accession + ": " + e.toString());
+                    }
+                }
+                entries.setLastSequenceLength(sequence.length());
+            }
+        }
+    }
 }
@@ -46,6 +46,16 @@ public class IteratorFactory {
         this(fixedModifications, null);
     }
 
+    /**
+     * Returns a new protein digester using the fixed modifications of this
+     * factory. A digester should not be used by multiple threads.
+     *
+     * @return a new protein digester
+     */
+    public ProteinDigester getProteinDigester() {
+        return new ProteinDigester(proteinIteratorUtils);
+    }
+
     /**
      * Returns a sequence iterator for the given protein sequence and digestion
      * preferences.
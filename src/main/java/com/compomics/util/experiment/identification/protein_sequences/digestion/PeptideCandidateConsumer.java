@@ -0,0 +1,27 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion;
+
+/**
+ * Interface for a consumer of the peptide candidates found by a protein
+ * digester. Candidates are given as primitives so that no object needs to be
+ * created for a candidate.
+ *
+ * @author Marc Vaudel
+ */
+public interface PeptideCandidateConsumer {
+
+    /**
+     * Processes a peptide candidate.
+     *
+     * @param start the index of the first amino acid of the peptide on the
+     * protein
+     * @param end the index after the last amino acid of the peptide on the
+     * protein
+     * @param mass the mass of the peptide including the fixed modifications
+     * @param missedCleavages the number of missed cleavages
+     * @param fixedModifications the signature of the terminal fixed
+     * modifications of the peptide as encoded by the protein digester
+     *
+     * @return a boolean indicating whether the digestion should continue
+     */
+    public boolean newCandidate(int start, int end, double mass, int missedCleavages, int fixedModifications);
+}
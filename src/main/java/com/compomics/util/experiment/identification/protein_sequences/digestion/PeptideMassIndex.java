@@ -0,0 +1,730 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Index of the peptides of a digested FASTA file sorted by mass. Every
+ * peptide is listed once with its mass, its sequence, the signature of its
+ * terminal fixed modifications as encoded by the protein digester, and the
+ * proteins where it is found. The index file is memory mapped: the masses are
+ * stored in ascending order at the start of the file so that the peptides of
+ * a precursor mass window are found by binary search without loading the
+ * index on the heap. The index can be queried by multiple threads.
+ *
+ * The fixed modifications at amino acids are given by the sequence of the
+ * peptide and the fixed modifications of the index.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideMassIndex {
+
+    /**
+     * The magic number at the start of the index files.
+     */
+    private static final int MAGIC = 0x43555049;
+    /**
+     * The version of the index file format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The size of the file header in bytes.
+     */
+    private static final int HEADER_SIZE = 96;
+    /**
+     * The size of a peptide record in bytes.
+     */
+    private static final int RECORD_SIZE = 24;
+    /**
+     * The number of bits used to address a position in a mapped segment.
+     */
+    private static final int SEGMENT_BITS = 30;
+    /**
+     * The size of a mapped segment. Segments overlap by eight bytes so that
+     * primitives never need to be read across two segments.
+     */
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    /**
+     * Mask returning the position in a segment.
+     */
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+    /**
+     * The encoding of the strings.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * The encoding of the peptide sequences, one byte per amino acid.
+     */
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    /**
+     * The number of bits used to encode the N-term modification in the
+     * modifications signature, see ProteinDigester.
+     */
+    private static final int SIGNATURE_SHIFT = 16;
+    /**
+     * The index file.
+     */
+    private final File indexFile;
+    /**
+     * The mapped segments of the index file.
+     */
+    private final ByteBuffer[] segments;
+    /**
+     * The number of peptides.
+     */
+    private final long nPeptides;
+    /**
+     * The number of proteins.
+     */
+    private final int nProteins;
+    /**
+     * The position of the masses in the file.
+     */
+    private final long massesPosition;
+    /**
+     * The position of the peptide records in the file.
+     */
+    private final long recordsPosition;
+    /**
+     * The position of the peptide sequences in the file.
+     */
+    private final long sequencesPosition;
+    /**
+     * The position of the protein lists in the file.
+     */
+    private final long proteinsPosition;
+    /**
+     * The position of the table of the accessions in the file.
+     */
+    private final long accessionsPosition;
+    /**
+     * The configuration of the digestion.
+     */
+    private final String configuration;
+    /**
+     * The fixed modifications used for the digestion.
+     */
+    private final String[] fixedModifications;
+
+    /**
+     * Constructor.
+     *
+     * @param indexFile the index file
+     * @param segments the mapped segments of the index file
+     */
+    private PeptideMassIndex(File indexFile, ByteBuffer[] segments) {
+        this.indexFile = indexFile;
+        this.segments = segments;
+        nPeptides = getLong(24);
+        nProteins = getInt(32);
+        int nModifications = getInt(36);
+        massesPosition = getLong(40);
+        recordsPosition = getLong(48);
+        sequencesPosition = getLong(56);
+        proteinsPosition = getLong(64);
+        accessionsPosition = getLong(72);
+        configuration = getString(getLong(80));
+        long modificationsPosition = getLong(88);
+        fixedModifications = new String[nModifications];
+        for (int i = 0; i < nModifications; i++) {
+            fixedModifications[i] = getString(getLong(modificationsPosition + 8L * i));
+        }
+    }
+
+    /**
+     * Opens the peptide index of the given FASTA file. Returns null if the
+     * index file does not exist, does not correspond to the current version of
+     * the FASTA file, or was built using another configuration.
+     *
+     * @param indexFile the index file
+     * @param fastaFile the FASTA file
+     * @param configuration the configuration of the digestion
+     *
+     * @return the index, null if not valid
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the index file
+     */
+    public static PeptideMassIndex open(File indexFile, File fastaFile, String configuration) throws IOException {
+
+        if (!indexFile.exists() || indexFile.length() < HEADER_SIZE) {
+            return null;
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r");
+        try {
+            if (randomAccessFile.readInt() != MAGIC
+                    || randomAccessFile.readInt() != VERSION
+                    || randomAccessFile.readLong() != fastaFile.lastModified()
+                    || randomAccessFile.readLong() != fastaFile.length()) {
+                return null;
+            }
+            FileChannel channel = randomAccessFile.getChannel();
+            long length = channel.size();
+            int nSegments = (int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+            ByteBuffer[] segments = new ByteBuffer[nSegments];
+            for (int i = 0; i < nSegments; i++) {
+                long start = i * SEGMENT_SIZE;
+                long size = Math.min(SEGMENT_SIZE + 8, length - start);
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+                segments[i] = segment;
+            }
+            PeptideMassIndex peptideMassIndex = new PeptideMassIndex(indexFile, segments);
+            if (!peptideMassIndex.getConfiguration().equals(configuration)) {
+                return null;
+            }
+            return peptideMassIndex;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Returns the long at the given position of the file.
+     *
+     * @param position the position
+     *
+     * @return the long at this position
+     */
+    private long getLong(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].getLong((int) (position & SEGMENT_MASK));
+    }
+
+    /**
+     * Returns the int at the given position of the file.
+     *
+     * @param position the position
+     *
+     * @return the int at this position
+     */
+    private int getInt(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].getInt((int) (position & SEGMENT_MASK));
+    }
+
+    /**
+     * Returns the double at the given position of the file.
+     *
+     * @param position the position
+     *
+     * @return the double at this position
+     */
+    private double getDouble(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].getDouble((int) (position & SEGMENT_MASK));
+    }
+
+    /**
+     * Copies bytes of the file in the given array.
+     *
+     * @param position the position of the first byte
+     * @param bytes the array where to copy the bytes
+     * @param length the number of bytes to copy
+     */
+    private void getBytes(long position, byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            long bytePosition = position + i;
+            bytes[i] = segments[(int) (bytePosition >>> SEGMENT_BITS)].get((int) (bytePosition & SEGMENT_MASK));
+        }
+    }
+
+    /**
+     * Returns the string at the given position of the file.
+     *
+     * @param position the position
+     *
+     * @return the string at this position
+     */
+    private String getString(long position) {
+        int length = getInt(position);
+        byte[] bytes = new byte[length];
+        getBytes(position + 4, bytes, length);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Returns the number of peptides in the index.
+     *
+     * @return the number of peptides in the index
+     */
+    public long size() {
+        return nPeptides;
+    }
+
+    /**
+     * Returns the index of the first peptide with a mass higher than or equal
+     * to the given mass, the number of peptides if none.
+     *
+     * @param massMin the minimal mass
+     *
+     * @return the index of the first peptide with a mass higher than or equal
+     * to the given mass
+     */
+    public long getFirstIndex(double massMin) {
+        long low = 0;
+        long high = nPeptides;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (getMass(middle) < massMin) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index after the last peptide with a mass lower than or equal
+     * to the given mass. The peptides of a mass window are the peptides from
+     * getFirstIndex(massMin) included to getEndIndex(massMax) excluded.
+     *
+     * @param massMax the maximal mass
+     *
+     * @return the index after the last peptide with a mass lower than or equal
+     * to the given mass
+     */
+    public long getEndIndex(double massMax) {
+        long low = 0;
+        long high = nPeptides;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (getMass(middle) <= massMax) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the mass of the peptide at the given index including its fixed
+     * modifications.
+     *
+     * @param index the index of the peptide
+     *
+     * @return the mass of the peptide
+     */
+    public double getMass(long index) {
+        return getDouble(massesPosition + 8 * index);
+    }
+
+    /**
+     * Returns the sequence of the peptide at the given index.
+     *
+     * @param index the index of the peptide
+     *
+     * @return the sequence of the peptide
+     */
+    public String getSequence(long index) {
+        long record = recordsPosition + RECORD_SIZE * index;
+        int length = getInt(record + 20);
+        byte[] bytes = new byte[length];
+        getBytes(sequencesPosition + getLong(record), bytes, length);
+        return new String(bytes, ASCII);
+    }
+
+    /**
+     * Returns the length of the sequence of the peptide at the given index.
+     *
+     * @param index the index of the peptide
+     *
+     * @return the length of the sequence of the peptide
+     */
+    public int getSequenceLength(long index) {
+        return getInt(recordsPosition + RECORD_SIZE * index + 20);
+    }
+
+    /**
+     * Returns the signature of the terminal fixed modifications of the peptide
+     * at the given index as encoded by the protein digester.
+     *
+     * @param index the index of the peptide
+     *
+     * @return the signature of the terminal fixed modifications of the peptide
+     */
+    public int getFixedModifications(long index) {
+        return getInt(recordsPosition + RECORD_SIZE * index + 16);
+    }
+
+    /**
+     * Returns the N-term fixed modification of the peptide at the given index,
+     * null if none.
+     *
+     * @param index the index of the peptide
+     *
+     * @return the N-term fixed modification of the peptide
+     */
+    public String getNtermModification(long index) {
+        int code = getFixedModifications(index) & ((1 << SIGNATURE_SHIFT) - 1);
+        return code == 0 ? null : fixedModifications[code - 1];
+    }
+
+    /**
+     * Returns the C-term fixed modification of the peptide at the given index,
+     * null if none.
+     *
+     * @param index the index of the peptide
+     *
+     * @return the C-term fixed modification of the peptide
+     */
+    public String getCtermModification(long index) {
+        int code = getFixedModifications(index) >>> SIGNATURE_SHIFT;
+        return code == 0 ? null : fixedModifications[code - 1];
+    }
+
+    /**
+     * Returns the indexes of the proteins where the peptide at the given index
+     * is found in ascending order.
+     *
+     * @param index the index of the peptide
+     *
+     * @return the indexes of the proteins where the peptide is found
+     */
+    public int[] getProteins(long index) {
+        long position = proteinsPosition + getLong(recordsPosition + RECORD_SIZE * index + 8);
+        int[] proteins = new int[getInt(position)];
+        for (int i = 0; i < proteins.length; i++) {
+            proteins[i] = getInt(position + 4 + 4L * i);
+        }
+        return proteins;
+    }
+
+    /**
+     * Returns the number of proteins in the index.
+     *
+     * @return the number of proteins in the index
+     */
+    public int getNProteins() {
+        return nProteins;
+    }
+
+    /**
+     * Returns the accession of the protein at the given index.
+     *
+     * @param proteinIndex the index of the protein
+     *
+     * @return the accession of the protein
+     */
+    public String getAccession(int proteinIndex) {
+        return getString(getLong(accessionsPosition + 8L * proteinIndex));
+    }
+
+    /**
+     * Returns the configuration of the digestion used to build the index.
+     *
+     * @return the configuration of the digestion
+     */
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Returns the index file.
+     *
+     * @return the index file
+     */
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * Writes a peptide index. The peptides must be added by ascending mass,
+     * the sections of the index are written in temporary files and assembled
+     * by the finish method.
+     */
+    public static class Writer {
+
+        /**
+         * The file where to write the index.
+         */
+        private final File indexFile;
+        /**
+         * The temporary file of the masses.
+         */
+        private final File massesFile;
+        /**
+         * The temporary file of the peptide records.
+         */
+        private final File recordsFile;
+        /**
+         * The temporary file of the peptide sequences.
+         */
+        private final File sequencesFile;
+        /**
+         * The temporary file of the protein lists.
+         */
+        private final File proteinsFile;
+        /**
+         * The stream of the masses.
+         */
+        private final DataOutputStream massesStream;
+        /**
+         * The stream of the peptide records.
+         */
+        private final DataOutputStream recordsStream;
+        /**
+         * The stream of the peptide sequences.
+         */
+        private final DataOutputStream sequencesStream;
+        /**
+         * The stream of the protein lists.
+         */
+        private final DataOutputStream proteinsStream;
+        /**
+         * The number of peptides written.
+         */
+        private long nPeptides = 0;
+        /**
+         * The mass of the last peptide written.
+         */
+        private double lastMass = Double.NEGATIVE_INFINITY;
+        /**
+         * The number of bytes written in the sequences file.
+         */
+        private long sequencesSize = 0;
+        /**
+         * The number of bytes written in the proteins file.
+         */
+        private long proteinsSize = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param indexFile the file where to write the index
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * creating the temporary files
+         */
+        public Writer(File indexFile) throws IOException {
+            this.indexFile = indexFile;
+            File directory = indexFile.getAbsoluteFile().getParentFile();
+            massesFile = File.createTempFile(indexFile.getName(), ".masses", directory);
+            recordsFile = File.createTempFile(indexFile.getName(), ".records", directory);
+            sequencesFile = File.createTempFile(indexFile.getName(), ".sequences", directory);
+            proteinsFile = File.createTempFile(indexFile.getName(), ".proteins", directory);
+            massesStream = getStream(massesFile);
+            recordsStream = getStream(recordsFile);
+            sequencesStream = getStream(sequencesFile);
+            proteinsStream = getStream(proteinsFile);
+        }
+
+        /**
+         * Returns a buffered stream writing to the given file.
+         *
+         * @param file the file
+         *
+         * @return a buffered stream writing to the given file
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while opening the file
+         */
+        private static DataOutputStream getStream(File file) throws IOException {
+            file.deleteOnExit();
+            return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024));
+        }
+
+        /**
+         * Adds a peptide to the index.
+         *
+         * @param mass the mass of the peptide
+         * @param sequence the sequence of the peptide as bytes
+         * @param sequenceLength the length of the sequence
+         * @param fixedModifications the signature of the terminal fixed
+         * modifications
+         * @param proteins the indexes of the proteins where the peptide is
+         * found in ascending order
+         * @param nProteins the number of proteins
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the peptide
+         */
+        public void add(double mass, byte[] sequence, int sequenceLength, int fixedModifications, int[] proteins, int nProteins) throws IOException {
+            if (mass < lastMass) {
+                throw new IllegalArgumentException("Peptides must be added by ascending mass.");
+            }
+            lastMass = mass;
+            massesStream.writeDouble(mass);
+            recordsStream.writeLong(sequencesSize);
+            recordsStream.writeLong(proteinsSize);
+            recordsStream.writeInt(fixedModifications);
+            recordsStream.writeInt(sequenceLength);
+            sequencesStream.write(sequence, 0, sequenceLength);
+            sequencesSize += sequenceLength;
+            proteinsStream.writeInt(nProteins);
+            for (int i = 0; i < nProteins; i++) {
+                proteinsStream.writeInt(proteins[i]);
+            }
+            proteinsSize += 4 + 4L * nProteins;
+            nPeptides++;
+        }
+
+        /**
+         * Returns the number of peptides written.
+         *
+         * @return the number of peptides written
+         */
+        public long size() {
+            return nPeptides;
+        }
+
+        /**
+         * Assembles the index file and deletes the temporary files.
+         *
+         * @param fastaFile the digested FASTA file
+         * @param configuration the configuration of the digestion
+         * @param fixedModifications the fixed modifications used for the
+         * digestion
+         * @param accessions the accessions of the proteins
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the index
+         */
+        public void finish(File fastaFile, String configuration, ArrayList<String> fixedModifications, ArrayList<String> accessions) throws IOException {
+
+            close();
+
+            long massesPosition = HEADER_SIZE;
+            long recordsPosition = massesPosition + massesFile.length();
+            long sequencesPosition = recordsPosition + recordsFile.length();
+            long proteinsPosition = sequencesPosition + sequencesFile.length();
+            long accessionsPosition = proteinsPosition + proteinsFile.length();
+            long stringsPosition = accessionsPosition + 8L * accessions.size();
+
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1024 * 1024));
+            try {
+
+                outputStream.writeInt(MAGIC);
+                outputStream.writeInt(VERSION);
+                outputStream.writeLong(fastaFile.lastModified());
+                outputStream.writeLong(fastaFile.length());
+                outputStream.writeLong(nPeptides);
+                outputStream.writeInt(accessions.size());
+                outputStream.writeInt(fixedModifications.size());
+                outputStream.writeLong(massesPosition);
+                outputStream.writeLong(recordsPosition);
+                outputStream.writeLong(sequencesPosition);
+                outputStream.writeLong(proteinsPosition);
+                outputStream.writeLong(accessionsPosition);
+
+                // the configuration and modifications follow the accessions
+                long configurationPosition = stringsPosition;
+                for (String accession : accessions) {
+                    configurationPosition += 4 + accession.getBytes(UTF8).length;
+                }
+                long modificationsPosition = configurationPosition + 4 + configuration.getBytes(UTF8).length;
+                long modificationNamesPosition = modificationsPosition + 8L * fixedModifications.size();
+                outputStream.writeLong(configurationPosition);
+                outputStream.writeLong(modificationsPosition);
+
+                copy(massesFile, outputStream);
+                copy(recordsFile, outputStream);
+                copy(sequencesFile, outputStream);
+                copy(proteinsFile, outputStream);
+
+                long stringPosition = stringsPosition;
+                for (String accession : accessions) {
+                    outputStream.writeLong(stringPosition);
+                    stringPosition += 4 + accession.getBytes(UTF8).length;
+                }
+                for (String accession : accessions) {
+                    writeString(outputStream, accession);
+                }
+                writeString(outputStream, configuration);
+                stringPosition = modificationNamesPosition;
+                for (String modification : fixedModifications) {
+                    outputStream.writeLong(stringPosition);
+                    stringPosition += 4 + modification.getBytes(UTF8).length;
+                }
+                for (String modification : fixedModifications) {
+                    writeString(outputStream, modification);
+                }
+
+                // padding so that the last primitives can be read from a mapped segment
+                outputStream.writeLong(0);
+
+            } finally {
+                outputStream.close();
+                delete();
+            }
+        }
+
+        /**
+         * Closes the streams of the temporary files.
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * closing the streams
+         */
+        private void close() throws IOException {
+            massesStream.close();
+            recordsStream.close();
+            sequencesStream.close();
+            proteinsStream.close();
+        }
+
+        /**
+         * Closes the streams and deletes the temporary files. The index file
+         * is not deleted.
+         */
+        public void delete() {
+            try {
+                close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            massesFile.delete();
+            recordsFile.delete();
+            sequencesFile.delete();
+            proteinsFile.delete();
+        }
+
+        /**
+         * Copies the content of a file to a stream.
+         *
+         * @param file the file to copy
+         * @param outputStream the stream where to copy the file
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * copying the file
+         */
+        private static void copy(File file, OutputStream outputStream) throws IOException {
+            InputStream inputStream = new BufferedInputStream(new FileInputStream(file), 1024 * 1024);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, read);
+                }
+            } finally {
+                inputStream.close();
+            }
+        }
+
+        /**
+         * Writes a string preceded by its length in bytes.
+         *
+         * @param outputStream the stream where to write
+         * @param string the string
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the string
+         */
+        private static void writeString(DataOutputStream outputStream, String string) throws IOException {
+            byte[] bytes = string.getBytes(UTF8);
+            outputStream.writeInt(bytes.length);
+            outputStream.write(bytes);
+        }
+    }
+}
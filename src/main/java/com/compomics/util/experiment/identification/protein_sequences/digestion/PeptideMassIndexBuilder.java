@@ -0,0 +1,1189 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion;
+
+import com.compomics.util.experiment.biology.Enzyme;
+import com.compomics.util.experiment.identification.protein_sequences.FastaChunkReader;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.preferences.DigestionPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds the peptide mass index of a FASTA file for a given digestion
+ * configuration. The FASTA file is split in chunks which are digested in
+ * parallel. Every chunk sorts its peptides by mass and writes them in runs to
+ * temporary files. The runs of all chunks are then merged into the index,
+ * merging the peptides found in multiple proteins. When there are too many
+ * runs to read them all at once, they are first merged by groups into
+ * intermediate runs.
+ *
+ * The index is written next to the FASTA file and reused as long as the FASTA
+ * file and the digestion configuration do not change. Peptides spanning amino
+ * acid combinations (B, J, Z, X) are not indexed, see ProteinDigester.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideMassIndexBuilder {
+
+    /**
+     * The extension of the peptide index files.
+     */
+    public static final String EXTENSION = ".cupi";
+    /**
+     * The minimal size of the chunks of the FASTA file digested in parallel.
+     */
+    private static final long MIN_DIGESTION_CHUNK_SIZE = 1024 * 1024;
+    /**
+     * The maximal number of peptides held in memory by a chunk before they
+     * are written to a run.
+     */
+    private static final int RUN_SIZE = 1 << 20;
+    /**
+     * The maximal number of amino acids held in memory by a chunk before the
+     * peptides are written to a run.
+     */
+    private static final int RUN_SEQUENCES_SIZE = 1 << 25;
+    /**
+     * The maximal number of runs read at once during the merge.
+     */
+    private static final int MAX_MERGE_FAN_IN = 64;
+    /**
+     * The tolerance added to the mass filters during the digestion, the
+     * filters are then applied to the masses summed along the peptides.
+     */
+    private static final double MASS_FILTER_TOLERANCE = 1e-6;
+    /**
+     * The FASTA file.
+     */
+    private final File fastaFile;
+    /**
+     * The fixed modifications to consider.
+     */
+    private final ArrayList<String> fixedModifications;
+    /**
+     * The cleavage preference.
+     */
+    private final DigestionPreferences.CleavagePreference cleavagePreference;
+    /**
+     * The enzyme to use, null if not digesting with an enzyme.
+     */
+    private final Enzyme enzyme;
+    /**
+     * The maximal number of missed cleavages.
+     */
+    private final int nMissedCleavages;
+    /**
+     * The minimal mass of a peptide, ignored if null.
+     */
+    private final Double massMin;
+    /**
+     * The maximal mass of a peptide, ignored if null.
+     */
+    private final Double massMax;
+    /**
+     * The minimal mass used during the digestion, null if not filtering.
+     */
+    private final Double digestionMassMin;
+    /**
+     * The maximal mass used during the digestion, null if not filtering.
+     */
+    private final Double digestionMassMax;
+    /**
+     * The configuration of the digestion as saved in the index.
+     */
+    private final String configuration;
+
+    /**
+     * Constructor.
+     *
+     * @param fastaFile the FASTA file to digest
+     * @param digestionPreferences the digestion preferences to use
+     * @param fixedModifications the fixed modifications to consider
+     * @param massMin the minimal mass of a peptide, ignored if null
+     * @param massMax the maximal mass of a peptide, ignored if null
+     */
+    public PeptideMassIndexBuilder(File fastaFile, DigestionPreferences digestionPreferences, ArrayList<String> fixedModifications, Double massMin, Double massMax) {
+
+        this.fastaFile = fastaFile;
+        this.fixedModifications = new ArrayList<String>(fixedModifications);
+        this.massMin = massMin;
+        this.massMax = massMax;
+        digestionMassMin = massMin == null ? null : massMin - MASS_FILTER_TOLERANCE;
+        digestionMassMax = massMax == null ? null : massMax + MASS_FILTER_TOLERANCE;
+        cleavagePreference = digestionPreferences.getCleavagePreference();
+
+        StringBuilder configurationBuilder = new StringBuilder();
+        configurationBuilder.append("cleavage=").append(cleavagePreference);
+
+        switch (cleavagePreference) {
+            case unSpecific:
+            case wholeProtein:
+                enzyme = null;
+                nMissedCleavages = 0;
+                break;
+            case enzyme:
+                ArrayList<Enzyme> enzymes = digestionPreferences.getEnzymes();
+                if (enzymes.size() == 1) {
+                    enzyme = enzymes.get(0);
+                    nMissedCleavages = digestionPreferences.getnMissedCleavages(enzyme.getName());
+                    configurationBuilder.append(";enzyme=").append(enzyme.getName());
+                    configurationBuilder.append(";missedCleavages=").append(nMissedCleavages);
+                    break;
+                }
+            default:
+                throw new UnsupportedOperationException("Cleavage preference of type " + cleavagePreference + " not supported.");
+        }
+
+        for (String modification : fixedModifications) {
+            configurationBuilder.append(";fixed=").append(modification);
+        }
+        configurationBuilder.append(";massMin=").append(massMin);
+        configurationBuilder.append(";massMax=").append(massMax);
+        configuration = configurationBuilder.toString();
+    }
+
+    /**
+     * Returns the configuration of the digestion as saved in the index.
+     *
+     * @return the configuration of the digestion
+     */
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Returns the index file for this configuration. The file is located next
+     * to the FASTA file, or in the temporary folder if the folder of the FASTA
+     * file cannot be written.
+     *
+     * @return the index file
+     */
+    public File getIndexFile() {
+        File directory = fastaFile.getAbsoluteFile().getParentFile();
+        if (directory == null || !directory.canWrite()) {
+            directory = new File(System.getProperty("java.io.tmpdir"));
+        }
+        return new File(directory, fastaFile.getName() + "_" + Integer.toHexString(configuration.hashCode()) + EXTENSION);
+    }
+
+    /**
+     * Returns the peptide index of the FASTA file for this configuration. The
+     * index is built if not found or if the FASTA file changed, using all
+     * available processors.
+     *
+     * @param waitingHandler a waiting handler showing the progress, can be
+     * null
+     *
+     * @return the peptide index, null if the process was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file or writing the index
+     */
+    public PeptideMassIndex getIndex(WaitingHandler waitingHandler) throws IOException {
+        return getIndex(waitingHandler, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns the peptide index of the FASTA file for this configuration. The
+     * index is built if not found or if the FASTA file changed.
+     *
+     * @param waitingHandler a waiting handler showing the progress, can be
+     * null
+     * @param nThreads the number of threads to use to digest the FASTA file
+     *
+     * @return the peptide index, null if the process was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file or writing the index
+     */
+    public PeptideMassIndex getIndex(WaitingHandler waitingHandler, int nThreads) throws IOException {
+
+        File indexFile = getIndexFile();
+
+        try {
+            PeptideMassIndex peptideMassIndex = PeptideMassIndex.open(indexFile, fastaFile, configuration);
+            if (peptideMassIndex != null) {
+                return peptideMassIndex;
+            }
+        } catch (Exception e) {
+            System.err.println("Rebuilding the peptide index of " + fastaFile.getName() + ". (Reason: " + e.getLocalizedMessage() + ")");
+        }
+
+        return buildIndex(indexFile, waitingHandler, nThreads);
+    }
+
+    /**
+     * Digests the FASTA file and writes the peptide index.
+     *
+     * @param indexFile the file where to write the index
+     * @param waitingHandler a waiting handler showing the progress, can be
+     * null
+     * @param nThreads the number of threads to use to digest the FASTA file
+     *
+     * @return the peptide index, null if the process was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file or writing the index
+     */
+    private PeptideMassIndex buildIndex(File indexFile, WaitingHandler waitingHandler, int nThreads) throws IOException {
+
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(100);
+        }
+
+        File directory = indexFile.getAbsoluteFile().getParentFile();
+        IteratorFactory iteratorFactory = new IteratorFactory(fixedModifications);
+
+        long fileLength = fastaFile.length();
+        long progressUnit = fileLength / 100;
+        int nChunks = (int) Math.max(1, Math.min(4L * nThreads, fileLength / MIN_DIGESTION_CHUNK_SIZE));
+        AtomicLong progress = new AtomicLong(0);
+
+        ArrayList<ChunkDigester> digesters = new ArrayList<ChunkDigester>(nChunks);
+        for (int i = 0; i < nChunks; i++) {
+            long start = i * fileLength / nChunks;
+            long end = (i + 1) * fileLength / nChunks;
+            digesters.add(new ChunkDigester(i, start, end, iteratorFactory.getProteinDigester(), directory, waitingHandler, progress, progressUnit));
+        }
+
+        PeptideMassIndex.Writer writer = null;
+        File tempFile = new File(directory, indexFile.getName() + ".tmp");
+
+        try {
+
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(nThreads, nChunks)));
+            try {
+                ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(nChunks);
+                for (ChunkDigester digester : digesters) {
+                    futures.add(pool.submit(digester));
+                }
+                for (Future<Object> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof IOException) {
+                            throw (IOException) cause;
+                        } else if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        } else if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        throw new IOException("An error occurred while digesting " + fastaFile.getName() + ": " + cause);
+                    } catch (InterruptedException e) {
+                        throw new IOException("Interrupted while digesting " + fastaFile.getName() + ".");
+                    }
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+
+            if (waitingHandler != null) {
+                if (waitingHandler.isRunCanceled()) {
+                    return null;
+                }
+                waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+            }
+
+            // the proteins are indexed by their order in the file
+            ArrayList<String> accessions = new ArrayList<String>();
+            int[] chunkStarts = new int[nChunks];
+            for (int i = 0; i < nChunks; i++) {
+                chunkStarts[i] = accessions.size();
+                accessions.addAll(digesters.get(i).accessions);
+            }
+
+            writer = new PeptideMassIndex.Writer(tempFile);
+            if (!merge(digesters, chunkStarts, directory, writer, waitingHandler)) {
+                return null;
+            }
+            writer.finish(fastaFile, configuration, fixedModifications, accessions);
+            writer = null;
+
+        } finally {
+            for (ChunkDigester digester : digesters) {
+                digester.deleteRuns();
+            }
+            if (writer != null) {
+                writer.delete();
+                tempFile.delete();
+            }
+        }
+
+        File resultFile;
+        if ((!indexFile.exists() || indexFile.delete()) && tempFile.renameTo(indexFile)) {
+            resultFile = indexFile;
+        } else {
+            // the previous index might still be mapped
+            resultFile = tempFile;
+            tempFile.deleteOnExit();
+        }
+
+        PeptideMassIndex peptideMassIndex = PeptideMassIndex.open(resultFile, fastaFile, configuration);
+        if (peptideMassIndex == null) {
+            throw new IOException("Failed to open the peptide index of " + fastaFile.getName() + ".");
+        }
+        return peptideMassIndex;
+    }
+
+    /**
+     * Merges the runs of the chunks in the index. The peptides found in
+     * multiple proteins are merged. If there are more than MAX_MERGE_FAN_IN
+     * runs, groups of consecutive runs are merged into intermediate runs
+     * until the remaining runs can be read at once.
+     *
+     * @param digesters the digesters of the chunks
+     * @param chunkStarts the index of the first protein of every chunk
+     * @param directory the folder where to write the intermediate runs
+     * @param writer the writer of the index
+     * @param waitingHandler a waiting handler showing the progress, can be
+     * null
+     *
+     * @return a boolean indicating whether the merge was completed, false if
+     * the process was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the runs or writing the index
+     */
+    private boolean merge(ArrayList<ChunkDigester> digesters, int[] chunkStarts, File directory, PeptideMassIndex.Writer writer, WaitingHandler waitingHandler) throws IOException {
+
+        // the runs are listed in the order of the proteins
+        ArrayList<Run> runs = new ArrayList<Run>();
+        for (ChunkDigester digester : digesters) {
+            for (Run run : digester.runs) {
+                runs.add(new Run(run.file, run.size, chunkStarts[digester.chunkIndex]));
+            }
+        }
+
+        ArrayList<File> intermediateFiles = new ArrayList<File>();
+
+        try {
+
+            // only consecutive runs are merged, the proteins of identical peptides thus remain in ascending order
+            while (runs.size() > MAX_MERGE_FAN_IN) {
+
+                ArrayList<Run> mergedRuns = new ArrayList<Run>((runs.size() + MAX_MERGE_FAN_IN - 1) / MAX_MERGE_FAN_IN);
+
+                for (int i = 0; i < runs.size(); i += MAX_MERGE_FAN_IN) {
+
+                    List<Run> group = runs.subList(i, Math.min(i + MAX_MERGE_FAN_IN, runs.size()));
+
+                    if (group.size() == 1) {
+                        mergedRuns.add(group.get(0));
+                        continue;
+                    }
+
+                    File runFile = File.createTempFile(fastaFile.getName(), ".run", directory);
+                    runFile.deleteOnExit();
+                    intermediateFiles.add(runFile);
+                    long nWritten;
+                    DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), 1024 * 1024));
+                    try {
+                        nWritten = mergeRuns(group, null, outputStream, waitingHandler);
+                    } finally {
+                        outputStream.close();
+                    }
+                    if (nWritten == -1) {
+                        return false;
+                    }
+
+                    // the merged runs are not needed anymore
+                    for (Run run : group) {
+                        run.file.delete();
+                    }
+
+                    mergedRuns.add(new Run(runFile, nWritten, 0));
+                }
+
+                runs = mergedRuns;
+            }
+
+            return mergeRuns(runs, writer, null, waitingHandler) != -1;
+
+        } finally {
+            for (File file : intermediateFiles) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Merges the given runs either in the index or in a new run. The peptides
+     * found in multiple proteins are merged.
+     *
+     * @param runs the runs to merge in the order of their proteins
+     * @param writer the writer of the index, null if writing a run
+     * @param outputStream the stream of the new run, ignored if writing the
+     * index
+     * @param waitingHandler a waiting handler showing the progress, can be
+     * null
+     *
+     * @return the number of peptides written, -1 if the process was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the runs or writing the merged peptides
+     */
+    private long mergeRuns(List<Run> runs, PeptideMassIndex.Writer writer, DataOutputStream outputStream, WaitingHandler waitingHandler) throws IOException {
+
+        // the runs are read in the order of the proteins for identical peptides
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(1, runs.size()), new Comparator<RunReader>() {
+            @Override
+            public int compare(RunReader o1, RunReader o2) {
+                int comparison = o1.compareTo(o2);
+                if (comparison != 0) {
+                    return comparison;
+                }
+                return o1.order < o2.order ? -1 : o1.order == o2.order ? 0 : 1;
+            }
+        });
+
+        ArrayList<RunReader> readers = new ArrayList<RunReader>(runs.size());
+
+        try {
+
+            int order = 0;
+            for (Run run : runs) {
+                RunReader reader = new RunReader(run, order++);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+
+            RunReader.Peptide peptide = new RunReader.Peptide();
+            boolean pending = false;
+            long nMerged = 0;
+            long nWritten = 0;
+
+            while (!queue.isEmpty()) {
+
+                RunReader reader = queue.poll();
+
+                if (pending && reader.compareTo(peptide) == 0) {
+                    peptide.addProteins(reader.current);
+                } else {
+                    if (pending) {
+                        writePeptide(peptide, writer, outputStream);
+                        nWritten++;
+                    }
+                    peptide.set(reader.current);
+                    pending = true;
+                }
+
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+
+                if (waitingHandler != null && ++nMerged % 100000 == 0 && waitingHandler.isRunCanceled()) {
+                    return -1;
+                }
+            }
+
+            if (pending) {
+                writePeptide(peptide, writer, outputStream);
+                nWritten++;
+            }
+
+            return nWritten;
+
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Writes a merged peptide either to the index or to a run.
+     *
+     * @param peptide the peptide
+     * @param writer the writer of the index, null if writing a run
+     * @param outputStream the stream of the run, ignored if writing the index
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the peptide
+     */
+    private static void writePeptide(RunReader.Peptide peptide, PeptideMassIndex.Writer writer, DataOutputStream outputStream) throws IOException {
+        if (writer != null) {
+            writer.add(peptide.mass, peptide.sequence, peptide.sequenceLength, peptide.fixedModifications, peptide.proteins, peptide.nProteins);
+        } else {
+            outputStream.writeDouble(peptide.mass);
+            outputStream.writeInt(peptide.fixedModifications);
+            outputStream.writeInt(peptide.sequenceLength);
+            outputStream.write(peptide.sequence, 0, peptide.sequenceLength);
+            outputStream.writeInt(peptide.nProteins);
+            for (int i = 0; i < peptide.nProteins; i++) {
+                outputStream.writeInt(peptide.proteins[i]);
+            }
+        }
+    }
+
+    /**
+     * A run of peptides sorted by mass written to a temporary file.
+     */
+    private static class Run {
+
+        /**
+         * The file of the run.
+         */
+        private final File file;
+        /**
+         * The number of peptides in the run.
+         */
+        private final long size;
+        /**
+         * The offset to add to the proteins of the run to obtain their index
+         * in the FASTA file.
+         */
+        private final int proteinOffset;
+
+        /**
+         * Constructor.
+         *
+         * @param file the file of the run
+         * @param size the number of peptides in the run
+         * @param proteinOffset the offset to add to the proteins of the run to
+         * obtain their index in the FASTA file
+         */
+        public Run(File file, long size, int proteinOffset) {
+            this.file = file;
+            this.size = size;
+            this.proteinOffset = proteinOffset;
+        }
+    }
+
+    /**
+     * Reads the peptides of a run.
+     */
+    private static class RunReader {
+
+        /**
+         * The run.
+         */
+        private final Run run;
+        /**
+         * The order of the run, runs of earlier proteins come first.
+         */
+        private final int order;
+        /**
+         * The stream of the run file.
+         */
+        private final DataInputStream inputStream;
+        /**
+         * The number of peptides read.
+         */
+        private long nRead = 0;
+        /**
+         * The current peptide.
+         */
+        private final Peptide current = new Peptide();
+
+        /**
+         * Constructor.
+         *
+         * @param run the run
+         * @param order the order of the run
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * opening the run file
+         */
+        public RunReader(Run run, int order) throws IOException {
+            this.run = run;
+            this.order = order;
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file), 64 * 1024));
+        }
+
+        /**
+         * Reads the next peptide.
+         *
+         * @return false if all peptides were read
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * reading the run file
+         */
+        public boolean next() throws IOException {
+            if (nRead == run.size) {
+                return false;
+            }
+            current.mass = inputStream.readDouble();
+            current.fixedModifications = inputStream.readInt();
+            current.sequenceLength = inputStream.readInt();
+            current.ensureSequenceCapacity(current.sequenceLength);
+            inputStream.readFully(current.sequence, 0, current.sequenceLength);
+            int nProteins = inputStream.readInt();
+            current.nProteins = 0;
+            current.ensureProteinsCapacity(nProteins);
+            for (int i = 0; i < nProteins; i++) {
+                current.proteins[i] = run.proteinOffset + inputStream.readInt();
+            }
+            current.nProteins = nProteins;
+            nRead++;
+            return true;
+        }
+
+        /**
+         * Compares the current peptide of this run to another peptide.
+         *
+         * @param peptide the other peptide
+         *
+         * @return the comparison of the peptides
+         */
+        public int compareTo(Peptide peptide) {
+            return current.compareTo(peptide);
+        }
+
+        /**
+         * Compares the current peptide of this run to the current peptide of
+         * another run.
+         *
+         * @param other the other run
+         *
+         * @return the comparison of the peptides
+         */
+        public int compareTo(RunReader other) {
+            return current.compareTo(other.current);
+        }
+
+        /**
+         * Closes the run file.
+         */
+        public void close() {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+
+        /**
+         * A peptide of a run.
+         */
+        private static class Peptide {
+
+            /**
+             * The mass.
+             */
+            private double mass;
+            /**
+             * The signature of the terminal fixed modifications.
+             */
+            private int fixedModifications;
+            /**
+             * The sequence as bytes.
+             */
+            private byte[] sequence = new byte[64];
+            /**
+             * The length of the sequence.
+             */
+            private int sequenceLength;
+            /**
+             * The indexes of the proteins.
+             */
+            private int[] proteins = new int[16];
+            /**
+             * The number of proteins.
+             */
+            private int nProteins;
+
+            /**
+             * Makes sure that the sequence array can hold the given length.
+             *
+             * @param length the length of the sequence
+             */
+            private void ensureSequenceCapacity(int length) {
+                if (sequence.length < length) {
+                    sequence = new byte[Math.max(length, 2 * sequence.length)];
+                }
+            }
+
+            /**
+             * Makes sure that the proteins array can hold the given number of
+             * proteins.
+             *
+             * @param size the number of proteins
+             */
+            private void ensureProteinsCapacity(int size) {
+                if (proteins.length < size) {
+                    int[] newProteins = new int[Math.max(size, 2 * proteins.length)];
+                    System.arraycopy(proteins, 0, newProteins, 0, nProteins);
+                    proteins = newProteins;
+                }
+            }
+
+            /**
+             * Sets this peptide to a copy of the given peptide.
+             *
+             * @param peptide the peptide to copy
+             */
+            private void set(Peptide peptide) {
+                mass = peptide.mass;
+                fixedModifications = peptide.fixedModifications;
+                sequenceLength = peptide.sequenceLength;
+                ensureSequenceCapacity(sequenceLength);
+                System.arraycopy(peptide.sequence, 0, sequence, 0, sequenceLength);
+                nProteins = 0;
+                addProteins(peptide);
+            }
+
+            /**
+             * Adds the proteins of the given peptide. The proteins are
+             * expected in ascending order, duplicates are skipped.
+             *
+             * @param peptide the peptide
+             */
+            private void addProteins(Peptide peptide) {
+                ensureProteinsCapacity(nProteins + peptide.nProteins);
+                for (int i = 0; i < peptide.nProteins; i++) {
+                    int protein = peptide.proteins[i];
+                    if (nProteins == 0 || proteins[nProteins - 1] != protein) {
+                        proteins[nProteins++] = protein;
+                    }
+                }
+            }
+
+            /**
+             * Compares this peptide to another peptide by mass, sequence and
+             * modifications.
+             *
+             * @param other the other peptide
+             *
+             * @return the comparison of the peptides
+             */
+            private int compareTo(Peptide other) {
+                return comparePeptides(mass, sequence, 0, sequenceLength, fixedModifications,
+                        other.mass, other.sequence, 0, other.sequenceLength, other.fixedModifications);
+            }
+        }
+    }
+
+    /**
+     * Compares two peptides by mass, sequence and modifications.
+     *
+     * @param mass1 the mass of the first peptide
+     * @param sequences1 the array containing the sequence of the first
+     * peptide
+     * @param start1 the start of the sequence of the first peptide in the
+     * array
+     * @param length1 the length of the sequence of the first peptide
+     * @param fixedModifications1 the modifications signature of the first
+     * peptide
+     * @param mass2 the mass of the second peptide
+     * @param sequences2 the array containing the sequence of the second
+     * peptide
+     * @param start2 the start of the sequence of the second peptide in the
+     * array
+     * @param length2 the length of the sequence of the second peptide
+     * @param fixedModifications2 the modifications signature of the second
+     * peptide
+     *
+     * @return the comparison of the peptides
+     */
+    private static int comparePeptides(double mass1, byte[] sequences1, int start1, int length1, int fixedModifications1,
+            double mass2, byte[] sequences2, int start2, int length2, int fixedModifications2) {
+        int comparison = Double.compare(mass1, mass2);
+        if (comparison != 0) {
+            return comparison;
+        }
+        int length = Math.min(length1, length2);
+        for (int i = 0; i < length; i++) {
+            int difference = sequences1[start1 + i] - sequences2[start2 + i];
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        if (length1 != length2) {
+            return length1 - length2;
+        }
+        return fixedModifications1 < fixedModifications2 ? -1 : fixedModifications1 == fixedModifications2 ? 0 : 1;
+    }
+
+    /**
+     * Digests the proteins of a chunk of the FASTA file. The proteins whose
+     * header starts in the chunk are digested.
+     */
+    private class ChunkDigester implements Callable<Object>, PeptideCandidateConsumer {
+
+        /**
+         * The index of the chunk.
+         */
+        private final int chunkIndex;
+        /**
+         * The start of the chunk in the file.
+         */
+        private final long start;
+        /**
+         * The end of the chunk in the file, exclusive.
+         */
+        private final long end;
+        /**
+         * The digester of the protein sequences.
+         */
+        private final ProteinDigester proteinDigester;
+        /**
+         * The folder where to write the runs.
+         */
+        private final File directory;
+        /**
+         * The waiting handler, can be null.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The number of bytes digested by all chunks.
+         */
+        private final AtomicLong progress;
+        /**
+         * The number of bytes corresponding to one percent of the file.
+         */
+        private final long progressUnit;
+        /**
+         * The accessions of the proteins of the chunk.
+         */
+        private final ArrayList<String> accessions = new ArrayList<String>();
+        /**
+         * The runs written by this chunk.
+         */
+        private final ArrayList<Run> runs = new ArrayList<Run>();
+        /**
+         * The sequence of the protein being digested.
+         */
+        private String proteinSequence;
+        /**
+         * The masses of the peptides in memory.
+         */
+        private double[] masses = new double[1024];
+        /**
+         * The modification signatures of the peptides in memory.
+         */
+        private int[] signatures = new int[1024];
+        /**
+         * The proteins of the peptides in memory, indexed in the chunk.
+         */
+        private int[] proteins = new int[1024];
+        /**
+         * The start of the sequences of the peptides in memory.
+         */
+        private int[] sequenceStarts = new int[1024];
+        /**
+         * The length of the sequences of the peptides in memory.
+         */
+        private int[] sequenceLengths = new int[1024];
+        /**
+         * The number of peptides in memory.
+         */
+        private int nPeptides = 0;
+        /**
+         * The sequences of the peptides in memory.
+         */
+        private byte[] sequences = new byte[16 * 1024];
+        /**
+         * The number of amino acids in memory.
+         */
+        private int sequencesLength = 0;
+        /**
+         * Exception thrown while writing a run during the digestion.
+         */
+        private IOException runException = null;
+
+        /**
+         * Constructor.
+         *
+         * @param chunkIndex the index of the chunk
+         * @param start the start of the chunk in the file
+         * @param end the end of the chunk in the file, exclusive
+         * @param proteinDigester the digester of the protein sequences
+         * @param directory the folder where to write the runs
+         * @param waitingHandler the waiting handler, can be null
+         * @param progress the number of bytes digested by all chunks
+         * @param progressUnit the number of bytes corresponding to one percent
+         * of the file
+         */
+        public ChunkDigester(int chunkIndex, long start, long end, ProteinDigester proteinDigester, File directory,
+                WaitingHandler waitingHandler, AtomicLong progress, long progressUnit) {
+            this.chunkIndex = chunkIndex;
+            this.start = start;
+            this.end = end;
+            this.proteinDigester = proteinDigester;
+            this.directory = directory;
+            this.waitingHandler = waitingHandler;
+            this.progress = progress;
+            this.progressUnit = progressUnit;
+        }
+
+        @Override
+        public Object call() throws IOException {
+
+            FastaChunkReader fastaChunkReader = new FastaChunkReader(fastaFile, start, end);
+
+            try {
+
+                long reported = start;
+
+                while (fastaChunkReader.nextProtein()) {
+
+                    long index = fastaChunkReader.getHeaderIndex();
+                    String accession = fastaChunkReader.getHeader().getAccessionOrRest();
+                    if (accession == null) {
+                        throw new IllegalArgumentException("No accession found for header at position " + index + ".");
+                    }
+                    accessions.add(accession);
+
+                    if (waitingHandler != null) {
+                        if (progressUnit != 0 && index - reported >= progressUnit) {
+                            long digested = progress.addAndGet(index - reported);
+                            reported = index;
+                            waitingHandler.setSecondaryProgressCounter((int) (digested / progressUnit));
+                        }
+                        if (waitingHandler.isRunCanceled()) {
+                            return null;
+                        }
+                    }
+
+                    digest(accession, fastaChunkReader.getSequence());
+                }
+
+            } finally {
+                fastaChunkReader.close();
+            }
+
+            writeRun();
+
+            return null;
+        }
+
+        /**
+         * Digests the sequence of the last protein added.
+         *
+         * @param accession the accession of the protein
+         * @param sequenceBuilder the sequence as present in the FASTA file
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing a run
+         */
+        private void digest(String accession, StringBuilder sequenceBuilder) throws IOException {
+
+            if (sequenceBuilder.length() == 0) {
+                return;
+            }
+
+            proteinSequence = SequenceFactory.importSequenceFromFasta(sequenceBuilder);
+
+            try {
+                proteinDigester.setProtein(proteinSequence);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("An error occurred while digesting the sequence of " + accession + ": " + e.getLocalizedMessage());
+            }
+
+            switch (cleavagePreference) {
+                case unSpecific:
+                    proteinDigester.digestUnspecific(digestionMassMin, digestionMassMax, this);
+                    break;
+                case wholeProtein:
+                    proteinDigester.digestWholeProtein(digestionMassMin, digestionMassMax, this);
+                    break;
+                case enzyme:
+                    proteinDigester.digestEnzyme(enzyme, nMissedCleavages, digestionMassMin, digestionMassMax, this);
+                    break;
+            }
+
+            if (runException != null) {
+                throw runException;
+            }
+        }
+
+        @Override
+        public boolean newCandidate(int peptideStart, int peptideEnd, double mass, int missedCleavages, int fixedModifications) {
+
+            // the masses summed along the protein differ in the last digits from one position to another
+            double peptideMass = proteinDigester.getPeptideMass(peptideStart, peptideEnd);
+            if (massMin != null && peptideMass < massMin || massMax != null && peptideMass > massMax) {
+                return true;
+            }
+
+            int length = peptideEnd - peptideStart;
+
+            if (nPeptides == RUN_SIZE || sequencesLength + length > RUN_SEQUENCES_SIZE && nPeptides > 0) {
+                try {
+                    writeRun();
+                } catch (IOException e) {
+                    runException = e;
+                    return false;
+                }
+            }
+
+            if (nPeptides == masses.length) {
+                int capacity = Math.min(RUN_SIZE, 2 * nPeptides);
+                masses = Arrays.copyOf(masses, capacity);
+                signatures = Arrays.copyOf(signatures, capacity);
+                proteins = Arrays.copyOf(proteins, capacity);
+                sequenceStarts = Arrays.copyOf(sequenceStarts, capacity);
+                sequenceLengths = Arrays.copyOf(sequenceLengths, capacity);
+            }
+            if (sequencesLength + length > sequences.length) {
+                sequences = Arrays.copyOf(sequences, Math.max(sequencesLength + length, 2 * sequences.length));
+            }
+
+            masses[nPeptides] = peptideMass;
+            signatures[nPeptides] = fixedModifications;
+            proteins[nPeptides] = accessions.size() - 1;
+            sequenceStarts[nPeptides] = sequencesLength;
+            sequenceLengths[nPeptides] = length;
+            for (int i = peptideStart; i < peptideEnd; i++) {
+                sequences[sequencesLength++] = (byte) proteinSequence.charAt(i);
+            }
+            nPeptides++;
+
+            return true;
+        }
+
+        /**
+         * Sorts the peptides in memory and writes them to a new run. Identical
+         * peptides are merged.
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the run
+         */
+        private void writeRun() throws IOException {
+
+            if (nPeptides == 0) {
+                return;
+            }
+
+            // stable sort, the proteins of identical peptides stay in ascending order
+            int[] order = new int[nPeptides];
+            for (int i = 0; i < nPeptides; i++) {
+                order[i] = i;
+            }
+            mergeSort(order, new int[nPeptides], 0, nPeptides);
+
+            File runFile = File.createTempFile(fastaFile.getName(), ".run", directory);
+            runFile.deleteOnExit();
+            int nWritten = 0;
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), 1024 * 1024));
+            try {
+                int i = 0;
+                while (i < nPeptides) {
+                    int peptide = order[i];
+                    int j = i + 1;
+                    while (j < nPeptides && compare(peptide, order[j]) == 0) {
+                        j++;
+                    }
+                    outputStream.writeDouble(masses[peptide]);
+                    outputStream.writeInt(signatures[peptide]);
+                    outputStream.writeInt(sequenceLengths[peptide]);
+                    outputStream.write(sequences, sequenceStarts[peptide], sequenceLengths[peptide]);
+                    int nProteins = 1;
+                    for (int k = i + 1; k < j; k++) {
+                        if (proteins[order[k]] != proteins[order[k - 1]]) {
+                            nProteins++;
+                        }
+                    }
+                    outputStream.writeInt(nProteins);
+                    outputStream.writeInt(proteins[peptide]);
+                    for (int k = i + 1; k < j; k++) {
+                        if (proteins[order[k]] != proteins[order[k - 1]]) {
+                            outputStream.writeInt(proteins[order[k]]);
+                        }
+                    }
+                    nWritten++;
+                    i = j;
+                }
+            } finally {
+                outputStream.close();
+            }
+
+            runs.add(new Run(runFile, nWritten, 0));
+            nPeptides = 0;
+            sequencesLength = 0;
+        }
+
+        /**
+         * Compares two peptides in memory.
+         *
+         * @param peptide1 the index of the first peptide
+         * @param peptide2 the index of the second peptide
+         *
+         * @return the comparison of the peptides
+         */
+        private int compare(int peptide1, int peptide2) {
+            return comparePeptides(masses[peptide1], sequences, sequenceStarts[peptide1], sequenceLengths[peptide1], signatures[peptide1],
+                    masses[peptide2], sequences, sequenceStarts[peptide2], sequenceLengths[peptide2], signatures[peptide2]);
+        }
+
+        /**
+         * Stable sort of the indexes of the peptides in memory between the
+         * given positions.
+         *
+         * @param order the indexes of the peptides
+         * @param buffer a buffer of the same size as the indexes
+         * @param from the first position, inclusive
+         * @param to the last position, exclusive
+         */
+        private void mergeSort(int[] order, int[] buffer, int from, int to) {
+
+            if (to - from < 16) {
+                for (int i = from + 1; i < to; i++) {
+                    int peptide = order[i];
+                    int j = i;
+                    while (j > from && compare(order[j - 1], peptide) > 0) {
+                        order[j] = order[j - 1];
+                        j--;
+                    }
+                    order[j] = peptide;
+                }
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            mergeSort(order, buffer, from, middle);
+            mergeSort(order, buffer, middle, to);
+
+            if (compare(order[middle - 1], order[middle]) <= 0) {
+                return;
+            }
+
+            System.arraycopy(order, from, buffer, from, to - from);
+            int i = from, j = middle, k = from;
+            while (i < middle && j < to) {
+                if (compare(buffer[j], buffer[i]) < 0) {
+                    order[k++] = buffer[j++];
+                } else {
+                    order[k++] = buffer[i++];
+                }
+            }
+            while (i < middle) {
+                order[k++] = buffer[i++];
+            }
+            while (j < to) {
+                order[k++] = buffer[j++];
+            }
+        }
+
+        /**
+         * Deletes the runs written by this chunk.
+         */
+        public void deleteRuns() {
+            for (Run run : runs) {
+                run.file.delete();
+            }
+            runs.clear();
+        }
+    }
+}
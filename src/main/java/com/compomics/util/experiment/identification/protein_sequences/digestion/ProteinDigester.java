@@ -0,0 +1,436 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion;
+
+import com.compomics.util.experiment.biology.AminoAcid;
+import com.compomics.util.experiment.biology.Enzyme;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import java.util.ArrayList;
+
+/**
+ * Digests protein sequences and gives the peptide candidates to a consumer as
+ * primitives. The masses of the amino acids including their fixed
+ * modifications are summed along the protein once, the mass of a peptide is
+ * then obtained in constant time from the prefix sums. Peptide objects are
+ * only created on demand for the candidates of interest.
+ *
+ * Peptides spanning amino acid combinations (B, J, Z, X) are not reported,
+ * the combination iterators should be used for such sequences.
+ *
+ * The fixed modifications at amino acids are given by the sequence of the
+ * peptide and its position on the protein. The terminal fixed modifications
+ * are encoded in a signature where the first 16 bits contain the index of the
+ * N-term modification and the following the index of the C-term
+ * modification, shifted by one, 0 meaning no modification.
+ *
+ * The arrays of the digester are reused from one protein to another, a
+ * digester should therefore not be used by multiple threads.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinDigester {
+
+    /**
+     * The number of bits used to encode the N-term modification in the
+     * modifications signature.
+     */
+    private static final int SIGNATURE_SHIFT = 16;
+    /**
+     * The mask of the N-term modification in the modifications signature.
+     */
+    private static final int SIGNATURE_MASK = (1 << SIGNATURE_SHIFT) - 1;
+    /**
+     * Utilities classes for the digestion.
+     */
+    private final ProteinIteratorUtils proteinIteratorUtils;
+    /**
+     * The protein sequence.
+     */
+    private String proteinSequence;
+    /**
+     * The protein sequence as char array.
+     */
+    private char[] sequence = new char[0];
+    /**
+     * The length of the protein sequence.
+     */
+    private int length = 0;
+    /**
+     * The sum of the masses of the amino acids and of their fixed
+     * modifications before every index.
+     */
+    private double[] prefixMasses = new double[1];
+    /**
+     * The mass of every amino acid including its fixed modification.
+     */
+    private double[] aaMasses = new double[0];
+    /**
+     * The number of amino acid combinations before every index.
+     */
+    private int[] prefixCombinations = new int[1];
+    /**
+     * The fixed modification at every amino acid.
+     */
+    private String[] aaModifications = new String[0];
+    /**
+     * The mass of the N-term modification of a peptide starting at every
+     * index.
+     */
+    private double[] nTermMasses = new double[0];
+    /**
+     * The mass of the C-term modification of a peptide ending at every index.
+     */
+    private double[] cTermMasses = new double[0];
+    /**
+     * The code of the N-term modification of a peptide starting at every
+     * index.
+     */
+    private int[] nTermCodes = new int[0];
+    /**
+     * The code of the C-term modification of a peptide ending at every index.
+     */
+    private int[] cTermCodes = new int[0];
+    /**
+     * The cleavage sites found in the protein sequence.
+     */
+    private int[] cleavageSites = new int[2];
+
+    /**
+     * Constructor.
+     *
+     * @param proteinIteratorUtils utils for the creation of the peptides
+     */
+    public ProteinDigester(ProteinIteratorUtils proteinIteratorUtils) {
+        this.proteinIteratorUtils = proteinIteratorUtils;
+    }
+
+    /**
+     * Sets the protein to digest and sums the masses along its sequence.
+     *
+     * @param proteinSequence the protein sequence
+     */
+    public void setProtein(String proteinSequence) {
+
+        this.proteinSequence = proteinSequence;
+        length = proteinSequence.length();
+        ensureCapacity(length);
+        proteinSequence.getChars(0, length, sequence, 0);
+
+        for (int i = 0; i < length; i++) {
+
+            AminoAcid aminoAcid = AminoAcid.getAminoAcid(sequence[i]);
+
+            if (aminoAcid.iscombination()) {
+                prefixCombinations[i + 1] = prefixCombinations[i] + 1;
+                prefixMasses[i + 1] = prefixMasses[i];
+                aaMasses[i] = 0.0;
+                aaModifications[i] = null;
+                nTermMasses[i] = 0.0;
+                nTermCodes[i] = 0;
+                cTermMasses[i] = 0.0;
+                cTermCodes[i] = 0;
+            } else {
+                prefixCombinations[i + 1] = prefixCombinations[i];
+                String aaModification = proteinIteratorUtils.getFixedModificationAt(proteinSequence, i);
+                aaModifications[i] = aaModification;
+                aaMasses[i] = aminoAcid.getMonoisotopicMass() + proteinIteratorUtils.getModificationMass(aaModification);
+                prefixMasses[i + 1] = prefixMasses[i] + aaMasses[i];
+                String nTermModification = proteinIteratorUtils.getNtermModificationAt(proteinSequence, i);
+                nTermMasses[i] = proteinIteratorUtils.getModificationMass(nTermModification);
+                nTermCodes[i] = proteinIteratorUtils.getFixedModificationIndex(nTermModification) + 1;
+                String cTermModification = proteinIteratorUtils.getCtermModificationAt(proteinSequence, i);
+                cTermMasses[i] = proteinIteratorUtils.getModificationMass(cTermModification);
+                cTermCodes[i] = proteinIteratorUtils.getFixedModificationIndex(cTermModification) + 1;
+            }
+        }
+    }
+
+    /**
+     * Makes sure that the arrays can hold a protein of the given length.
+     *
+     * @param proteinLength the length of the protein
+     */
+    private void ensureCapacity(int proteinLength) {
+        if (sequence.length < proteinLength) {
+            int capacity = Math.max(proteinLength, 2 * sequence.length);
+            sequence = new char[capacity];
+            prefixMasses = new double[capacity + 1];
+            prefixCombinations = new int[capacity + 1];
+            aaMasses = new double[capacity];
+            aaModifications = new String[capacity];
+            nTermMasses = new double[capacity];
+            cTermMasses = new double[capacity];
+            nTermCodes = new int[capacity];
+            cTermCodes = new int[capacity];
+        }
+    }
+
+    /**
+     * Returns the protein sequence.
+     *
+     * @return the protein sequence
+     */
+    public String getProteinSequence() {
+        return proteinSequence;
+    }
+
+    /**
+     * Gives the whole protein to the consumer if it passes the mass filters.
+     * Filters are ignored if null.
+     *
+     * @param massMin the minimal mass of a peptide
+     * @param massMax the maximal mass of a peptide
+     * @param consumer the consumer of the peptide candidates
+     *
+     * @return a boolean indicating whether the digestion was completed, false
+     * if stopped by the consumer
+     */
+    public boolean digestWholeProtein(Double massMin, Double massMax, PeptideCandidateConsumer consumer) {
+        if (length == 0 || prefixCombinations[length] != 0) {
+            return true;
+        }
+        double peptideMass = getMass(0, length);
+        if ((massMin == null || peptideMass >= massMin) && (massMax == null || peptideMass <= massMax)) {
+            return consumer.newCandidate(0, length, peptideMass, 0, nTermCodes[0] | cTermCodes[length - 1] << SIGNATURE_SHIFT);
+        }
+        return true;
+    }
+
+    /**
+     * Digests the protein without enzyme specificity and gives the peptides
+     * passing the mass filters to the consumer. Filters are ignored if null.
+     *
+     * @param massMin the minimal mass of a peptide
+     * @param massMax the maximal mass of a peptide
+     * @param consumer the consumer of the peptide candidates
+     *
+     * @return a boolean indicating whether the digestion was completed, false
+     * if stopped by the consumer
+     */
+    public boolean digestUnspecific(Double massMin, Double massMax, PeptideCandidateConsumer consumer) {
+        for (int start = 0; start < length; start++) {
+            if (!digestUnspecific(start, massMin, massMax, consumer)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gives the peptides starting at the given index and passing the mass
+     * filters to the consumer by increasing length. Filters are ignored if
+     * null.
+     *
+     * @param start the index of the first amino acid of the peptides
+     * @param massMin the minimal mass of a peptide
+     * @param massMax the maximal mass of a peptide
+     * @param consumer the consumer of the peptide candidates
+     *
+     * @return a boolean indicating whether the digestion was completed, false
+     * if stopped by the consumer
+     */
+    public boolean digestUnspecific(int start, Double massMin, Double massMax, PeptideCandidateConsumer consumer) {
+
+        double minMass = massMin == null ? Double.NEGATIVE_INFINITY : massMin;
+        double maxMass = massMax == null ? Double.POSITIVE_INFINITY : massMax;
+        double minCtermMass = proteinIteratorUtils.getMinCtermMass();
+        int combinationsBefore = prefixCombinations[start];
+        double massBefore = prefixMasses[start] - nTermMasses[start];
+        int nTermCode = nTermCodes[start];
+
+        for (int end = start + 1; end <= length; end++) {
+
+            if (prefixCombinations[end] != combinationsBefore) {
+                return true;
+            }
+
+            double peptideMass = prefixMasses[end] - massBefore;
+
+            // Masses only increase with the length of the peptide
+            if (peptideMass + minCtermMass > maxMass) {
+                return true;
+            }
+
+            peptideMass += cTermMasses[end - 1] + ProteinIteratorUtils.WATER_MASS;
+
+            if (peptideMass >= minMass && peptideMass <= maxMass
+                    && !consumer.newCandidate(start, end, peptideMass, 0, nTermCode | cTermCodes[end - 1] << SIGNATURE_SHIFT)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Digests the protein with the given enzyme and gives the peptides passing
+     * the mass filters to the consumer. Filters are ignored if null.
+     *
+     * @param enzyme the enzyme to use for digestion
+     * @param nMissedCleavages the maximal number of missed cleavages allowed
+     * @param massMin the minimal mass of a peptide
+     * @param massMax the maximal mass of a peptide
+     * @param consumer the consumer of the peptide candidates
+     *
+     * @return a boolean indicating whether the digestion was completed, false
+     * if stopped by the consumer
+     */
+    public boolean digestEnzyme(Enzyme enzyme, int nMissedCleavages, Double massMin, Double massMax, PeptideCandidateConsumer consumer) {
+
+        if (length == 0) {
+            return true;
+        }
+
+        double minMass = massMin == null ? Double.NEGATIVE_INFINITY : massMin;
+        double maxMass = massMax == null ? Double.POSITIVE_INFINITY : massMax;
+        double minCtermMass = proteinIteratorUtils.getMinCtermMass();
+
+        if (cleavageSites.length < length + 1) {
+            cleavageSites = new int[Math.max(length + 1, 2 * cleavageSites.length)];
+        }
+        int nSites = 0;
+        cleavageSites[nSites++] = 0;
+        for (int i = 1; i < length; i++) {
+            if (enzyme.isCleavageSiteNoCombination(sequence[i - 1], sequence[i])) {
+                cleavageSites[nSites++] = i;
+            }
+        }
+        cleavageSites[nSites++] = length;
+
+        for (int i = 0; i < nSites - 1; i++) {
+
+            int start = cleavageSites[i];
+            int combinationsBefore = prefixCombinations[start];
+            double massBefore = prefixMasses[start] - nTermMasses[start];
+            int nTermCode = nTermCodes[start];
+
+            for (int missedCleavages = 0; missedCleavages <= nMissedCleavages && i + missedCleavages + 1 < nSites; missedCleavages++) {
+
+                int end = cleavageSites[i + missedCleavages + 1];
+
+                if (prefixCombinations[end] != combinationsBefore) {
+                    break;
+                }
+
+                double peptideMass = prefixMasses[end] - massBefore;
+
+                // Masses only increase with the number of missed cleavages
+                if (peptideMass + minCtermMass > maxMass) {
+                    break;
+                }
+
+                peptideMass += cTermMasses[end - 1] + ProteinIteratorUtils.WATER_MASS;
+
+                if (peptideMass >= minMass && peptideMass <= maxMass
+                        && !consumer.newCandidate(start, end, peptideMass, missedCleavages, nTermCode | cTermCodes[end - 1] << SIGNATURE_SHIFT)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the mass of the peptide between the given indexes including its
+     * fixed modifications.
+     *
+     * @param start the index of the first amino acid of the peptide on the
+     * protein
+     * @param end the index after the last amino acid of the peptide on the
+     * protein
+     *
+     * @return the mass of the peptide
+     */
+    public double getMass(int start, int end) {
+        return prefixMasses[end] - prefixMasses[start] + nTermMasses[start] + cTermMasses[end - 1] + ProteinIteratorUtils.WATER_MASS;
+    }
+
+    /**
+     * Returns the mass of the peptide between the given indexes including its
+     * fixed modifications, summed along the peptide sequence. Contrary to
+     * getMass, the mass does not depend on the position of the peptide on the
+     * protein: identical peptides get identical masses.
+     *
+     * @param start the index of the first amino acid of the peptide on the
+     * protein
+     * @param end the index after the last amino acid of the peptide on the
+     * protein
+     *
+     * @return the mass of the peptide
+     */
+    public double getPeptideMass(int start, int end) {
+        double peptideMass = 0.0;
+        for (int i = start; i < end; i++) {
+            peptideMass += aaMasses[i];
+        }
+        return peptideMass + nTermMasses[start] + cTermMasses[end - 1] + ProteinIteratorUtils.WATER_MASS;
+    }
+
+    /**
+     * Returns the peptide between the given indexes with its fixed
+     * modifications.
+     *
+     * @param start the index of the first amino acid of the peptide on the
+     * protein
+     * @param end the index after the last amino acid of the peptide on the
+     * protein
+     *
+     * @return the peptide
+     */
+    public Peptide getPeptide(int start, int end) {
+
+        ArrayList<ModificationMatch> modificationMatches = null;
+
+        String nTermModification = getNtermModification(nTermCodes[start]);
+        if (nTermModification != null) {
+            modificationMatches = new ArrayList<ModificationMatch>(2);
+            modificationMatches.add(new ModificationMatch(nTermModification, false, 1));
+        }
+
+        String cTermModification = getCtermModification(cTermCodes[end - 1] << SIGNATURE_SHIFT);
+        if (cTermModification != null) {
+            if (modificationMatches == null) {
+                modificationMatches = new ArrayList<ModificationMatch>(1);
+            }
+            modificationMatches.add(new ModificationMatch(cTermModification, false, end - start));
+        }
+
+        for (int i = start; i < end; i++) {
+            String aaModification = aaModifications[i];
+            if (aaModification != null) {
+                if (modificationMatches == null) {
+                    modificationMatches = new ArrayList<ModificationMatch>(1);
+                }
+                modificationMatches.add(new ModificationMatch(aaModification, false, i - start + 1));
+            }
+        }
+
+        return new Peptide(proteinSequence.substring(start, end), modificationMatches, false);
+    }
+
+    /**
+     * Returns the N-term modification encoded in the given signature, null if
+     * none.
+     *
+     * @param fixedModifications the signature of the fixed modifications
+     *
+     * @return the N-term modification
+     */
+    public String getNtermModification(int fixedModifications) {
+        int code = fixedModifications & SIGNATURE_MASK;
+        return code == 0 ? null : proteinIteratorUtils.getFixedModification(code - 1);
+    }
+
+    /**
+     * Returns the C-term modification encoded in the given signature, null if
+     * none.
+     *
+     * @param fixedModifications the signature of the fixed modifications
+     *
+     * @return the C-term modification
+     */
+    public String getCtermModification(int fixedModifications) {
+        int code = fixedModifications >>> SIGNATURE_SHIFT;
+        return code == 0 ? null : proteinIteratorUtils.getFixedModification(code - 1);
+    }
+}
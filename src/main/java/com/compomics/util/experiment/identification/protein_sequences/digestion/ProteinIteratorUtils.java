@@ -73,6 +73,12 @@ public class ProteinIteratorUtils {
      * no modification.
      */
     private double minCtermMass = 0.0;
+    /**
+     * The fixed modifications in the order given to the constructor. The index
+     * of a modification in this list is used to encode the modifications of
+     * peptide candidates.
+     */
+    private ArrayList<String> fixedModifications;
     /**
      * The mass of water (H2O).
      */
@@ -87,6 +93,7 @@ public class ProteinIteratorUtils {
      * possible peptides
      */
     public ProteinIteratorUtils(ArrayList<String> fixedModifications, Integer maxX) {
+        this.fixedModifications = new ArrayList<String>(fixedModifications);
         fillPtmMaps(fixedModifications);
         if (maxX != null) {
             maxXsInSequence = maxX;
@@ -322,6 +329,127 @@ public class ProteinIteratorUtils {
         return null;
     }
 
+    /**
+     * Returns the N-term modification of a peptide starting at the given index
+     * on the protein. Null if no modification is found. Patterns are matched
+     * at the given index.
+     *
+     * @param proteinSequence the protein sequence
+     * @param index the index of the first amino acid of the peptide on the
+     * protein
+     *
+     * @return the N-term modification of a peptide starting at the given index
+     */
+    public String getNtermModificationAt(String proteinSequence, int index) {
+        char nTermAaChar = proteinSequence.charAt(index);
+        if (index == 0) {
+            if (fixedProteinNtermModification != null) {
+                return fixedProteinNtermModification;
+            }
+            String fixedProteinNtermModificationAtAa = fixedProteinNtermModificationsAtAa.get(nTermAaChar);
+            if (fixedProteinNtermModificationAtAa != null) {
+                AminoAcidPattern aminoAcidPattern = modificationPatternMap.get(fixedProteinNtermModificationAtAa);
+                if (aminoAcidPattern == null || aminoAcidPattern.matchesAt(proteinSequence, SequenceMatchingPreferences.defaultStringMatching, index)) {
+                    return fixedProteinNtermModificationAtAa;
+                }
+            }
+        }
+        if (fixedPeptideNtermModification != null) {
+            return fixedPeptideNtermModification;
+        }
+        String fixedPeptideNtermModificationAtAa = fixedPeptideNtermModificationsAtAa.get(nTermAaChar);
+        if (fixedPeptideNtermModificationAtAa != null) {
+            AminoAcidPattern aminoAcidPattern = modificationPatternMap.get(fixedPeptideNtermModificationAtAa);
+            if (aminoAcidPattern == null || aminoAcidPattern.matchesAt(proteinSequence, SequenceMatchingPreferences.defaultStringMatching, index)) {
+                return fixedPeptideNtermModificationAtAa;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the C-term modification of a peptide ending at the given index
+     * on the protein. Null if no modification is found. Patterns are matched
+     * at the given index.
+     *
+     * @param proteinSequence the protein sequence
+     * @param index the index of the last amino acid of the peptide on the
+     * protein
+     *
+     * @return the C-term modification of a peptide ending at the given index
+     */
+    public String getCtermModificationAt(String proteinSequence, int index) {
+        char cTermAaChar = proteinSequence.charAt(index);
+        if (index == proteinSequence.length() - 1) {
+            if (fixedProteinCtermModification != null) {
+                return fixedProteinCtermModification;
+            }
+            String fixedProteinCtermModificationAtAa = fixedProteinCtermModificationsAtAa.get(cTermAaChar);
+            if (fixedProteinCtermModificationAtAa != null) {
+                AminoAcidPattern aminoAcidPattern = modificationPatternMap.get(fixedProteinCtermModificationAtAa);
+                if (aminoAcidPattern == null || aminoAcidPattern.matchesAt(proteinSequence, SequenceMatchingPreferences.defaultStringMatching, index)) {
+                    return fixedProteinCtermModificationAtAa;
+                }
+            }
+        }
+        if (fixedPeptideCtermModification != null) {
+            return fixedPeptideCtermModification;
+        }
+        String fixedPeptideCtermModificationAtAa = fixedPeptideCtermModificationsAtAa.get(cTermAaChar);
+        if (fixedPeptideCtermModificationAtAa != null) {
+            AminoAcidPattern aminoAcidPattern = modificationPatternMap.get(fixedPeptideCtermModificationAtAa);
+            if (aminoAcidPattern == null || aminoAcidPattern.matchesAt(proteinSequence, SequenceMatchingPreferences.defaultStringMatching, index)) {
+                return fixedPeptideCtermModificationAtAa;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the fixed modification at the amino acid of the given index on
+     * the protein. Null if no modification is found. Patterns are matched at
+     * the given index.
+     *
+     * @param proteinSequence the protein sequence
+     * @param index the index of the amino acid on the protein
+     *
+     * @return the fixed modification at the amino acid of the given index
+     */
+    public String getFixedModificationAt(String proteinSequence, int index) {
+        String modificationAtAa = fixedModificationsAtAa.get(proteinSequence.charAt(index));
+        if (modificationAtAa != null) {
+            AminoAcidPattern aminoAcidPattern = modificationPatternMap.get(modificationAtAa);
+            if (aminoAcidPattern == null || aminoAcidPattern.matchesAt(proteinSequence, SequenceMatchingPreferences.defaultStringMatching, index)) {
+                return modificationAtAa;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the index of the given fixed modification in the list of fixed
+     * modifications, -1 if not found.
+     *
+     * @param modificationName the name of the modification
+     *
+     * @return the index of the given fixed modification
+     */
+    public int getFixedModificationIndex(String modificationName) {
+        return fixedModifications.indexOf(modificationName);
+    }
+
+    /**
+     * Returns the fixed modification at the given index in the list of fixed
+     * modifications.
+     *
+     * @param index the index of the modification
+     *
+     * @return the name of the fixed modification
+     */
+    public String getFixedModification(int index) {
+        return fixedModifications.get(index);
+    }
+
     /**
      * Returns the mass corresponding to a given modification.
      *
@@ -271,11 +271,12 @@ public class SpecificSingleEnzymeCombinationIterator implements SequenceIterator
                                 if (peptide != null
                                         && (massMin == null || peptide.getMass() >= massMin)
                                         && (massMax == null || peptide.getMass() <= massMax)) {
-                                    result.add(new PeptideWithPosition(peptide, initialIndex));
+                                    result.add(new PeptideWithPosition(peptide, peptideStart));
                                 }
-                                int peptideMissedCleavages = peptideStartMap.get(peptideStart);
+                                // the peptide found has one more missed cleavage than the one it extends, it can only be extended further if below the maximum
+                                int peptideMissedCleavages = peptideStartMap.get(peptideStart) + 1;
                                 if (smallMass.getObject() && peptideMissedCleavages < nMissedCleavages) {
-                                    newPeptideStartMap.put(peptideStart, peptideMissedCleavages + 1);
+                                    newPeptideStartMap.put(peptideStart, peptideMissedCleavages);
                                 }
                             }
                         } else {
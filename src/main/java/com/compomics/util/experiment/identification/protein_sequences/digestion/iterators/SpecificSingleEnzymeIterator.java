@@ -1,66 +1,39 @@
 package com.compomics.util.experiment.identification.protein_sequences.digestion.iterators;
 
 import com.compomics.util.experiment.biology.Enzyme;
-import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideCandidateConsumer;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.ProteinDigester;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.ProteinIteratorUtils;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideWithPosition;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.SequenceIterator;
-import com.compomics.util.general.BoxedObject;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 
 /**
  * Iterator for enzymatic digestion.
  *
  * @author Marc Vaudel
  */
-public class SpecificSingleEnzymeIterator implements SequenceIterator {
+public class SpecificSingleEnzymeIterator implements SequenceIterator, PeptideCandidateConsumer {
 
     /**
-     * Utilities classes for the digestion.
+     * The digester of the protein sequence.
      */
-    private ProteinIteratorUtils proteinIteratorUtils;
+    private ProteinDigester proteinDigester;
     /**
-     * The protein sequence.
+     * The start indexes of the peptides found.
      */
-    private String proteinSequence;
+    private int[] peptideStarts = new int[16];
     /**
-     * The protein sequence as char array.
+     * The end indexes of the peptides found.
      */
-    private char[] proteinSequenceAsCharArray;
+    private int[] peptideEnds = new int[16];
     /**
-     * The minimal mass to consider.
+     * The number of peptides found.
      */
-    private Double massMin;
-    /**
-     * The maximal mass to consider.
-     */
-    private Double massMax;
-    /**
-     * The enzyme to use to digest the sequence.
-     */
-    private Enzyme enzyme;
-    /**
-     * The maximum number of missed cleavages
-     */
-    private int nMissedCleavages;
-    /**
-     * Map of the previous peptide starts to number of missed cleavages.
-     */
-    private HashMap<Integer, Integer> peptideStartMap;
-    /**
-     * Index of the sequence iterator.
-     */
-    private int sequenceIndex = 0;
-    /**
-     * The peptides found.
-     */
-    private ArrayList<PeptideWithPosition> result;
+    private int nPeptides = 0;
     /**
      * Index of the result iterator.
      */
-    private int resultIndex = -1;
+    private int resultIndex = 0;
 
     /**
      * Constructor.
@@ -73,85 +46,38 @@ public class SpecificSingleEnzymeIterator implements SequenceIterator {
      * @param massMax the maximal mass of a peptide
      */
     public SpecificSingleEnzymeIterator(ProteinIteratorUtils proteinIteratorUtils, String proteinSequence, Enzyme enzyme, int nMissedCleavages, Double massMin, Double massMax) {
-        this.proteinIteratorUtils = proteinIteratorUtils;
-        this.proteinSequence = proteinSequence;
-        this.proteinSequenceAsCharArray = proteinSequence.toCharArray();
-        this.enzyme = enzyme;
-        this.nMissedCleavages = nMissedCleavages;
-        this.massMin = massMin;
-        this.massMax = massMax;
-        this.peptideStartMap = new HashMap<Integer, Integer>(nMissedCleavages + 1);
-        this.result = new ArrayList<PeptideWithPosition>(nMissedCleavages + 1);
+        this.proteinDigester = new ProteinDigester(proteinIteratorUtils);
+        proteinDigester.setProtein(proteinSequence);
+        proteinDigester.digestEnzyme(enzyme, nMissedCleavages, massMin, massMax, this);
     }
 
     @Override
     public PeptideWithPosition getNextPeptide() {
 
-        // Return the next result if any
-        resultIndex++;
-        if (resultIndex < result.size()) {
-            return result.get(resultIndex);
-        }
-
-        if (sequenceIndex == proteinSequenceAsCharArray.length) {
+        if (resultIndex == nPeptides) {
             return null;
         }
 
-        // Get the next peptides from the sequence and return the first result
-        iterateSequence();
-        return getNextPeptide();
+        // Only the peptides passing the filters are created
+        int start = peptideStarts[resultIndex];
+        int end = peptideEnds[resultIndex];
+        resultIndex++;
+        return new PeptideWithPosition(proteinDigester.getPeptide(start, end), start);
     }
 
-    /**
-     * Iterates the sequence to the next missed cleavage and stores the peptides
-     * found in the result list.
-     */
-    private void iterateSequence() {
-
-        int initialIndex = sequenceIndex;
-
-        while (++sequenceIndex < proteinSequenceAsCharArray.length) {
-
-            char aaBefore = proteinSequenceAsCharArray[sequenceIndex - 1];
-            char aaAfter = proteinSequenceAsCharArray[sequenceIndex];
-            if (enzyme.isCleavageSiteNoCombination(aaBefore, aaAfter)) {
-                break;
-            }
-        }
-
-        result.clear();
-        char[] newSequence = Arrays.copyOfRange(proteinSequenceAsCharArray, initialIndex, sequenceIndex);
-        BoxedObject<Boolean> smallMass = new BoxedObject<Boolean>(Boolean.TRUE);
-        Peptide peptide = proteinIteratorUtils.getPeptideFromProtein(newSequence, proteinSequence, initialIndex, massMin, massMax, smallMass);
-        if (peptide != null
-                && (massMin == null || peptide.getMass() >= massMin)
-                && (massMax == null || peptide.getMass() <= massMax)) {
-            result.add(new PeptideWithPosition(peptide, initialIndex));
-        }
-
-        if (nMissedCleavages > 0) {
-            if (smallMass.getObject()) {
-                HashMap<Integer, Integer> newPeptideStartMap = new HashMap<Integer, Integer>(peptideStartMap.size());
-                newPeptideStartMap.put(initialIndex, 0);
-                for (int peptideStart : peptideStartMap.keySet()) {
-                    newSequence = Arrays.copyOfRange(proteinSequenceAsCharArray, peptideStart, sequenceIndex);
-                    smallMass.setObject(Boolean.TRUE);
-                    peptide = proteinIteratorUtils.getPeptideFromProtein(newSequence, proteinSequence, peptideStart, massMin, massMax, smallMass);
-                    if (peptide != null
-                            && (massMin == null || peptide.getMass() >= massMin)
-                            && (massMax == null || peptide.getMass() <= massMax)) {
-                        result.add(new PeptideWithPosition(peptide, initialIndex));
-                    }
-                    int peptideMissedCleavages = peptideStartMap.get(peptideStart);
-                    if (smallMass.getObject() && peptideMissedCleavages < nMissedCleavages) {
-                        newPeptideStartMap.put(peptideStart, peptideMissedCleavages + 1);
-                    }
-                }
-                peptideStartMap = newPeptideStartMap;
-            } else {
-                peptideStartMap.clear();
-            }
+    @Override
+    public boolean newCandidate(int start, int end, double mass, int missedCleavages, int fixedModifications) {
+        if (nPeptides == peptideStarts.length) {
+            int[] newPeptideStarts = new int[2 * nPeptides];
+            System.arraycopy(peptideStarts, 0, newPeptideStarts, 0, nPeptides);
+            peptideStarts = newPeptideStarts;
+            int[] newPeptideEnds = new int[2 * nPeptides];
+            System.arraycopy(peptideEnds, 0, newPeptideEnds, 0, nPeptides);
+            peptideEnds = newPeptideEnds;
         }
-        resultIndex = -1;
+        peptideStarts[nPeptides] = start;
+        peptideEnds[nPeptides] = end;
+        nPeptides++;
+        return true;
     }
 }
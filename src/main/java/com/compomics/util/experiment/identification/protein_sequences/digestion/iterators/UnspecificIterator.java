@@ -1,31 +1,26 @@
 package com.compomics.util.experiment.identification.protein_sequences.digestion.iterators;
 
-import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideCandidateConsumer;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.ProteinDigester;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.ProteinIteratorUtils;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideWithPosition;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.SequenceIterator;
-import com.compomics.util.general.BoxedObject;
-import java.util.Arrays;
 
 /**
  * Iterator for unspecific cleavage.
  *
  * @author Marc Vaudel
  */
-public class UnspecificIterator implements SequenceIterator {
+public class UnspecificIterator implements SequenceIterator, PeptideCandidateConsumer {
 
     /**
-     * Utilities classes for the digestion.
+     * The digester of the protein sequence.
      */
-    private ProteinIteratorUtils proteinIteratorUtils;
+    private ProteinDigester proteinDigester;
     /**
-     * The protein sequence.
+     * The length of the protein sequence.
      */
-    private String proteinSequence;
-    /**
-     * The protein sequence as char array.
-     */
-    private char[] proteinSequenceAsCharArray;
+    private int proteinLength;
     /**
      * The minimal mass to consider.
      */
@@ -37,11 +32,19 @@ public class UnspecificIterator implements SequenceIterator {
     /**
      * The peptide beginning index of the iterator.
      */
-    private int index1 = 0;
+    private int index1 = -1;
     /**
-     * The peptide end index of the iterator.
+     * The end indexes of the peptides found at the current beginning index.
      */
-    private int index2 = 0;
+    private int[] peptideEnds = new int[16];
+    /**
+     * The number of peptides found at the current beginning index.
+     */
+    private int nPeptides = 0;
+    /**
+     * Index of the result iterator.
+     */
+    private int resultIndex = 0;
 
     /**
      * Constructor.
@@ -52,9 +55,9 @@ public class UnspecificIterator implements SequenceIterator {
      * @param massMax the maximal mass of a peptide
      */
     public UnspecificIterator(ProteinIteratorUtils proteinIteratorUtils, String proteinSequence, Double massMin, Double massMax) {
-        this.proteinIteratorUtils = proteinIteratorUtils;
-        this.proteinSequence = proteinSequence;
-        this.proteinSequenceAsCharArray = proteinSequence.toCharArray();
+        this.proteinDigester = new ProteinDigester(proteinIteratorUtils);
+        proteinDigester.setProtein(proteinSequence);
+        this.proteinLength = proteinSequence.length();
         this.massMin = massMin;
         this.massMax = massMax;
     }
@@ -62,52 +65,30 @@ public class UnspecificIterator implements SequenceIterator {
     @Override
     public PeptideWithPosition getNextPeptide() {
 
-        // Increase indices
-        if (!increaseIndex()) {
-            return null;
-        }
-
-        // Get the next sequence
-        char[] sequence = Arrays.copyOfRange(proteinSequenceAsCharArray, index1, index2);
-
-        // Construct the peptide
-        BoxedObject<Boolean> smallMass = new BoxedObject<Boolean>(Boolean.TRUE);
-        Peptide peptide = proteinIteratorUtils.getPeptideFromProtein(sequence, proteinSequence, index1, massMin, massMax, smallMass);
-
-        // Skip too heavy peptides
-        if (!smallMass.getObject()) {
+        // Get the peptides at the next beginning indexes until some pass the filters
+        while (resultIndex == nPeptides) {
             index1++;
-            if (index1 == proteinSequenceAsCharArray.length) {
+            if (index1 >= proteinLength) {
                 return null;
             }
-            index2 = index1;
+            nPeptides = 0;
+            resultIndex = 0;
+            proteinDigester.digestUnspecific(index1, massMin, massMax, this);
         }
 
-        // Return the peptide if it passes the filters, continue iterating otherwise
-        if (peptide != null
-                && (massMin == null || peptide.getMass() >= massMin)
-                && (massMax == null || peptide.getMass() <= massMax)) {
-            return new PeptideWithPosition(peptide, index1);
-        } else {
-            return getNextPeptide();
-        }
+        // Only the peptides passing the filters are created
+        int index2 = peptideEnds[resultIndex++];
+        return new PeptideWithPosition(proteinDigester.getPeptide(index1, index2), index1);
     }
 
-    /**
-     * Increases the index.
-     *
-     * @return a boolean indicating whether there is another index
-     */
-    private boolean increaseIndex() {
-
-        index2++;
-        if (index2 == proteinSequenceAsCharArray.length + 1) {
-            index1++;
-            if (index1 == proteinSequenceAsCharArray.length) {
-                return false;
-            }
-            index2 = index1 + 1;
+    @Override
+    public boolean newCandidate(int start, int end, double mass, int missedCleavages, int fixedModifications) {
+        if (nPeptides == peptideEnds.length) {
+            int[] newPeptideEnds = new int[2 * nPeptides];
+            System.arraycopy(peptideEnds, 0, newPeptideEnds, 0, nPeptides);
+            peptideEnds = newPeptideEnds;
         }
+        peptideEnds[nPeptides++] = end;
         return true;
     }
 }
@@ -1,6 +1,7 @@
 package com.compomics.util.experiment.identification.psm_scoring;
 
 import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.peptide_fragmentation.PeptideFragmentationModel;
 import com.compomics.util.experiment.identification.psm_scoring.psm_scores.AAIntensityRankScore;
 import com.compomics.util.experiment.identification.psm_scoring.psm_scores.AAMS2MzFidelityScore;
@@ -9,10 +10,22 @@ import com.compomics.util.experiment.identification.psm_scoring.psm_scores.Hyper
 import com.compomics.util.experiment.identification.psm_scoring.psm_scores.IntensityRankScore;
 import com.compomics.util.experiment.identification.psm_scoring.psm_scores.MS2MzFidelityScore;
 import com.compomics.util.experiment.identification.psm_scoring.psm_scores.PrecursorAccuracy;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.PreparedPeptide;
+import com.compomics.util.experiment.identification.spectrum_annotation.PreparedSpectrum;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.preferences.IdentificationParameters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class can be used to estimate PSM scores.
@@ -21,6 +34,11 @@ import com.compomics.util.preferences.IdentificationParameters;
  */
 public class PsmScoresEstimator {
 
+    /**
+     * The number of consecutive PSMs taken by a thread when scoring in batch.
+     */
+    private static final int BATCH_CHUNK_SIZE = 8;
+
     /**
      * The peptide fragmentation model to use.
      */
@@ -54,6 +72,11 @@ public class PsmScoresEstimator {
      * Instance of the PrecursorAccuracy.
      */
     private PrecursorAccuracy precursorAccuracy;
+    /**
+     * The executor running the threads scoring PSMs in batch, used for all
+     * batches.
+     */
+    private final ExecutorService executor;
 
     /**
      * Constructor.
@@ -61,7 +84,30 @@ public class PsmScoresEstimator {
      * @param peptideFragmentationModel the peptide fragmentation model to use
      */
     public PsmScoresEstimator(PeptideFragmentationModel peptideFragmentationModel) {
+        this(peptideFragmentationModel, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param peptideFragmentationModel the peptide fragmentation model to use
+     * @param executor the executor to use when scoring PSMs in batch, if null
+     * the estimator creates its own executor of daemon threads, released when
+     * idle
+     */
+    public PsmScoresEstimator(PeptideFragmentationModel peptideFragmentationModel, ExecutorService executor) {
         this.peptideFragmentationModel = peptideFragmentationModel;
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PSM scoring");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        this.executor = executor;
         instantiateScores();
     }
 
@@ -192,4 +238,341 @@ public class PsmScoresEstimator {
                 throw new UnsupportedOperationException("Score not implemented.");
         }
     }
+
+    /**
+     * Scores the matches between a spectrum and candidate peptides using the
+     * given scores. The spectrum is indexed once and every peptide is
+     * annotated once for all scores. The PSMs are distributed between threads
+     * in small chunks, idle threads taking the next chunk.
+     *
+     * @param spectrum the spectrum of interest
+     * @param peptides the candidate peptides
+     * @param specificAnnotationSettings the annotation settings specific to
+     * every PSM, in the same order as the peptides
+     * @param identificationParameters the identification parameters
+     * @param scoreIndexes the indexes of the scores to use
+     * @param nThreads the number of threads to use
+     *
+     * @return the scores of every PSM in an array indexed by peptide and score
+     * in the order given
+     *
+     * @throws java.lang.InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    public double[][] getScores(MSnSpectrum spectrum, ArrayList<Peptide> peptides, ArrayList<SpecificAnnotationSettings> specificAnnotationSettings,
+            IdentificationParameters identificationParameters, int[] scoreIndexes, int nThreads) throws InterruptedException {
+        if (peptides.size() != specificAnnotationSettings.size()) {
+            throw new IllegalArgumentException("The number of annotation settings (" + specificAnnotationSettings.size() + ") does not match the number of peptides (" + peptides.size() + ").");
+        }
+        MSnSpectrum[] spectra = new MSnSpectrum[peptides.size()];
+        Arrays.fill(spectra, spectrum);
+        return getScores(spectra, peptides.toArray(new Peptide[peptides.size()]), 
+                specificAnnotationSettings.toArray(new SpecificAnnotationSettings[specificAnnotationSettings.size()]), 
+                identificationParameters, getPsmScores(scoreIndexes), nThreads);
+    }
+
+    /**
+     * Scores the matches between a peptide and candidate spectra using the
+     * given scores. Every spectrum is indexed and annotated once for all
+     * scores. The PSMs are distributed between threads in small chunks, idle
+     * threads taking the next chunk.
+     *
+     * @param peptide the peptide of interest
+     * @param spectra the candidate spectra
+     * @param specificAnnotationSettings the annotation settings specific to
+     * every PSM, in the same order as the spectra
+     * @param identificationParameters the identification parameters
+     * @param scoreIndexes the indexes of the scores to use
+     * @param nThreads the number of threads to use
+     *
+     * @return the scores of every PSM in an array indexed by spectrum and score
+     * in the order given
+     *
+     * @throws java.lang.InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    public double[][] getScores(Peptide peptide, ArrayList<MSnSpectrum> spectra, ArrayList<SpecificAnnotationSettings> specificAnnotationSettings,
+            IdentificationParameters identificationParameters, int[] scoreIndexes, int nThreads) throws InterruptedException {
+        if (spectra.size() != specificAnnotationSettings.size()) {
+            throw new IllegalArgumentException("The number of annotation settings (" + specificAnnotationSettings.size() + ") does not match the number of spectra (" + spectra.size() + ").");
+        }
+        Peptide[] peptides = new Peptide[spectra.size()];
+        Arrays.fill(peptides, peptide);
+        return getScores(spectra.toArray(new MSnSpectrum[spectra.size()]), peptides, 
+                specificAnnotationSettings.toArray(new SpecificAnnotationSettings[specificAnnotationSettings.size()]), 
+                identificationParameters, getPsmScores(scoreIndexes), nThreads);
+    }
+
+    /**
+     * Returns the scores corresponding to the given indexes.
+     *
+     * @param scoreIndexes the indexes of the scores
+     *
+     * @return the scores corresponding to the given indexes
+     */
+    private PsmScore[] getPsmScores(int[] scoreIndexes) {
+        PsmScore[] psmScores = new PsmScore[scoreIndexes.length];
+        for (int i = 0; i < scoreIndexes.length; i++) {
+            PsmScore psmScore = PsmScore.getScore(scoreIndexes[i]);
+            if (psmScore == null) {
+                throw new IllegalArgumentException("Score of index " + scoreIndexes[i] + " not implemented.");
+            }
+            if (psmScore == PsmScore.native_score) {
+                throw new IllegalArgumentException("Impossible to compute the native score of an algorithm");
+            }
+            psmScores[i] = psmScore;
+        }
+        return psmScores;
+    }
+
+    /**
+     * Scores the PSMs made of the spectra and peptides at the same index in
+     * the given arrays. Consecutive PSMs of the same spectrum share the
+     * spectrum preparation.
+     *
+     * @param spectra the spectra of the PSMs
+     * @param peptides the peptides of the PSMs
+     * @param specificAnnotationSettings the annotation settings specific to
+     * every PSM
+     * @param identificationParameters the identification parameters
+     * @param psmScores the scores to use
+     * @param nThreads the number of threads to use
+     *
+     * @return the scores of every PSM in an array indexed by PSM and score
+     *
+     * @throws java.lang.InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    private double[][] getScores(final MSnSpectrum[] spectra, final Peptide[] peptides, final SpecificAnnotationSettings[] specificAnnotationSettings,
+            final IdentificationParameters identificationParameters, final PsmScore[] psmScores, int nThreads) throws InterruptedException {
+
+        final int nPsms = spectra.length;
+        final AnnotationSettings annotationSettings = identificationParameters.getAnnotationPreferences();
+        final boolean needsThresholds = Arrays.asList(psmScores).contains(PsmScore.aa_intensity);
+
+        // the spectrum of the first PSM of a series of PSMs sharing the same spectrum and settings is prepared, the others point to it
+        final int[] preparedIndexes = new int[nPsms];
+        int nPrepared = 0;
+        for (int i = 0; i < nPsms; i++) {
+            if (i > 0 && spectra[i] == spectra[preparedIndexes[i - 1]] 
+                    && specificAnnotationSettings[i].getFragmentIonAccuracy() == specificAnnotationSettings[preparedIndexes[i - 1]].getFragmentIonAccuracy()
+                    && specificAnnotationSettings[i].isFragmentIonPpm() == specificAnnotationSettings[preparedIndexes[i - 1]].isFragmentIonPpm()) {
+                preparedIndexes[i] = preparedIndexes[i - 1];
+            } else {
+                preparedIndexes[i] = i;
+                nPrepared++;
+            }
+        }
+
+        final PreparedSpectrum[] preparedSpectra = new PreparedSpectrum[nPsms];
+        final double[][] intensityThresholds = new double[nPsms][];
+        final double[][] scores = new double[nPsms][];
+        int nWorkers = Math.min(nThreads, (nPsms + BATCH_CHUNK_SIZE - 1) / BATCH_CHUNK_SIZE);
+
+        if (nPrepared < nPsms) {
+
+            // spectra shared between PSMs are prepared before scoring
+            runInParallel(nPsms, nWorkers, new PsmTask() {
+                @Override
+                public void run(int psmIndex, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws InterruptedException {
+                    if (preparedIndexes[psmIndex] == psmIndex) {
+                        prepareSpectrum(psmIndex, spectra, specificAnnotationSettings, annotationSettings, needsThresholds, preparedSpectra, intensityThresholds);
+                    }
+                }
+            });
+        }
+
+        runInParallel(nPsms, nWorkers, new PsmTask() {
+            @Override
+            public void run(int psmIndex, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws InterruptedException {
+                int preparedIndex = preparedIndexes[psmIndex];
+                if (preparedSpectra[preparedIndex] == null) {
+                    prepareSpectrum(preparedIndex, spectra, specificAnnotationSettings, annotationSettings, needsThresholds, preparedSpectra, intensityThresholds);
+                }
+                scores[psmIndex] = getScores(preparedSpectra[preparedIndex], intensityThresholds[preparedIndex], peptides[psmIndex],
+                        specificAnnotationSettings[psmIndex], identificationParameters, psmScores, peptideSpectrumAnnotator);
+            }
+        });
+
+        return scores;
+    }
+
+    /**
+     * Prepares the spectrum of the given PSM for scoring.
+     *
+     * @param psmIndex the index of the PSM
+     * @param spectra the spectra of the PSMs
+     * @param specificAnnotationSettings the annotation settings specific to
+     * every PSM
+     * @param annotationSettings the general annotation settings
+     * @param needsThresholds boolean indicating whether the intensity
+     * thresholds of the spectrum are needed
+     * @param preparedSpectra the prepared spectra where to store the prepared
+     * spectrum
+     * @param intensityThresholds the intensity thresholds where to store the
+     * thresholds of the spectrum
+     *
+     * @throws java.lang.InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    private void prepareSpectrum(int psmIndex, MSnSpectrum[] spectra, SpecificAnnotationSettings[] specificAnnotationSettings, AnnotationSettings annotationSettings,
+            boolean needsThresholds, PreparedSpectrum[] preparedSpectra, double[][] intensityThresholds) throws InterruptedException {
+        MSnSpectrum spectrum = spectra[psmIndex];
+        preparedSpectra[psmIndex] = new PreparedSpectrum(spectrum, annotationSettings, specificAnnotationSettings[psmIndex]);
+        if (needsThresholds) {
+            intensityThresholds[psmIndex] = aaIntensityRankScore.getIntensityThresholds(spectrum);
+        }
+    }
+
+    /**
+     * Scores the match between the given peptide and prepared spectrum using
+     * the given scores. The spectrum is annotated once for all scores.
+     *
+     * @param preparedSpectrum the prepared spectrum
+     * @param intensityThresholds the intensity thresholds of the spectrum,
+     * needed only for the amino acid intensity score
+     * @param peptide the peptide of interest
+     * @param specificAnnotationSettings the annotation settings specific to
+     * this PSM
+     * @param identificationParameters the identification parameters
+     * @param psmScores the scores to use
+     * @param peptideSpectrumAnnotator the spectrum annotator of this thread
+     *
+     * @return the scores of the match in the order given
+     *
+     * @throws java.lang.InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    private double[] getScores(PreparedSpectrum preparedSpectrum, double[] intensityThresholds, Peptide peptide, SpecificAnnotationSettings specificAnnotationSettings,
+            IdentificationParameters identificationParameters, PsmScore[] psmScores, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws InterruptedException {
+
+        AnnotationSettings annotationSettings = identificationParameters.getAnnotationPreferences();
+        MSnSpectrum spectrum = preparedSpectrum.getSpectrum();
+        ArrayList<IonMatch> ionMatches = null;
+        double[] scores = new double[psmScores.length];
+
+        for (int i = 0; i < psmScores.length; i++) {
+            PsmScore psmScore = psmScores[i];
+            if (psmScore == PsmScore.precursor_accuracy) {
+                scores[i] = precursorAccuracy.getScore(peptide, specificAnnotationSettings.getPrecursorCharge(), spectrum.getPrecursor(),
+                        identificationParameters.getSearchParameters().isPrecursorAccuracyTypePpm(),
+                        identificationParameters.getSearchParameters().getMinIsotopicCorrection(),
+                        identificationParameters.getSearchParameters().getMaxIsotopicCorrection());
+            } else if (psmScore == PsmScore.intensity) {
+                scores[i] = intensityRankScore.getScore(peptide, spectrum, annotationSettings, specificAnnotationSettings, peptideSpectrumAnnotator);
+            } else {
+                if (ionMatches == null) {
+                    PreparedPeptide preparedPeptide = new PreparedPeptide(peptide, specificAnnotationSettings.getPrecursorCharge(), specificAnnotationSettings);
+                    ionMatches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationSettings, specificAnnotationSettings, preparedSpectrum, preparedPeptide);
+                }
+                switch (psmScore) {
+                    case hyperScore:
+                        scores[i] = crossCorrelation.getScore(specificAnnotationSettings, ionMatches, preparedSpectrum.getSpectrumIndex().getTotalIntensity());
+                        break;
+                    case ms2_mz_fidelity:
+                        scores[i] = ms2MzFidelityScore.getScore(spectrum, specificAnnotationSettings, ionMatches);
+                        break;
+                    case aa_ms2_mz_fidelity:
+                        scores[i] = aaMS2MzFidelityScore.getScore(peptide, spectrum, specificAnnotationSettings, ionMatches);
+                        break;
+                    case aa_intensity:
+                        scores[i] = aaIntensityRankScore.getScore(peptide, ionMatches, intensityThresholds);
+                        break;
+                    case complementarity:
+                        scores[i] = complementarityScore.getScore(peptide, ionMatches);
+                        break;
+                    default:
+                        throw new UnsupportedOperationException("Score not implemented.");
+                }
+            }
+        }
+
+        return scores;
+    }
+
+    /**
+     * Runs the given task on the given number of PSMs using the given number
+     * of workers of the executor of the estimator. The workers take chunks of
+     * consecutive PSMs until all PSMs are processed, every worker uses its own
+     * spectrum annotator. With a single worker the task is run in the calling
+     * thread.
+     *
+     * @param nPsms the number of PSMs
+     * @param nWorkers the number of workers to use
+     * @param psmTask the task to run on every PSM
+     *
+     * @throws java.lang.InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    private void runInParallel(final int nPsms, int nWorkers, final PsmTask psmTask) throws InterruptedException {
+
+        if (nWorkers <= 1) {
+            PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+            for (int i = 0; i < nPsms; i++) {
+                psmTask.run(i, peptideSpectrumAnnotator);
+            }
+            return;
+        }
+
+        final AtomicInteger nextPsm = new AtomicInteger(0);
+        ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(nWorkers);
+
+        try {
+            for (int i = 0; i < nWorkers; i++) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+                        int start;
+                        while ((start = nextPsm.getAndAdd(BATCH_CHUNK_SIZE)) < nPsms) {
+                            int end = Math.min(start + BATCH_CHUNK_SIZE, nPsms);
+                            for (int psmIndex = start; psmIndex < end; psmIndex++) {
+                                psmTask.run(psmIndex, peptideSpectrumAnnotator);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof InterruptedException) {
+                        throw (InterruptedException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException("An error occurred while scoring PSMs.", cause);
+                }
+            }
+        } finally {
+            // stop the workers of this batch only, the executor is kept for the next batches
+            nextPsm.set(nPsms);
+            for (Future<Object> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Interface for a task run on every PSM of a batch.
+     */
+    private interface PsmTask {
+
+        /**
+         * Runs the task on the PSM of the given index.
+         *
+         * @param psmIndex the index of the PSM
+         * @param peptideSpectrumAnnotator the spectrum annotator of this
+         * thread
+         *
+         * @throws java.lang.InterruptedException exception thrown if the
+         * thread is interrupted
+         */
+        public void run(int psmIndex, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws InterruptedException;
+    }
 }
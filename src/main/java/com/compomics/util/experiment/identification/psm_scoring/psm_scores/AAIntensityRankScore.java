@@ -8,7 +8,6 @@ import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.Peak;
-import com.compomics.util.math.BasicMathFunctions;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
 import java.util.ArrayList;
@@ -48,28 +47,72 @@ public class AAIntensityRankScore {
      * interrupted
      */
     public double getScore(Peptide peptide, MSnSpectrum spectrum, AnnotationSettings annotationPreferences, SpecificAnnotationSettings specificAnnotationPreferences, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws InterruptedException {
-
-        int sequenceLength = peptide.getSequence().length();
-        HashMap<Integer, Double> aaIntensities = new HashMap(sequenceLength);
-        for (int i = 1; i <= sequenceLength; i++) {
-            aaIntensities.put(i, 0.0);
-        }
-
         ArrayList<IonMatch> matches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences,
                 spectrum, peptide);
-        for (IonMatch ionMatch : matches) {
+        return getScore(peptide, matches, getIntensityThresholds(spectrum));
+    }
+
+    /**
+     * Scores the match between the given peptide and spectrum using the
+     * intensity rank of the matched peaks. For every amino-acid, the rank of
+     * the most intense peak is taken and the average value over the sequence is
+     * returned.
+     *
+     * @param peptide the peptide of interest
+     * @param ionMatches the ion matches obtained from spectrum annotation
+     * @param intensityThresholds the intensity thresholds of the spectrum as
+     * given by getIntensityThresholds
+     *
+     * @return the score of the match
+     */
+    public double getScore(Peptide peptide, ArrayList<IonMatch> ionMatches, double[] intensityThresholds) {
+
+        int sequenceLength = peptide.getSequence().length();
+        double[] aaIntensities = new double[sequenceLength];
+        for (IonMatch ionMatch : ionMatches) {
             Ion ion = ionMatch.ion;
             if (ion instanceof PeptideFragmentIon) {
                 PeptideFragmentIon peptideFragmentIon = (PeptideFragmentIon) ion;
-                int number = peptideFragmentIon.getNumber();
-                double intensity = aaIntensities.get(number),
-                        tempIntensity = ionMatch.peak.intensity;
-                if (tempIntensity > intensity) {
-                    aaIntensities.put(number, tempIntensity);
+                int index = peptideFragmentIon.getNumber() - 1;
+                double tempIntensity = ionMatch.peak.intensity;
+                if (tempIntensity > aaIntensities[index]) {
+                    aaIntensities[index] = tempIntensity;
+                }
+            }
+        }
+
+        double rankSum = 0;
+        for (double intensity : aaIntensities) {
+            double rank = nBins;
+            if (intensity > 0) {
+                rank = 0;
+                for (double threshold : intensityThresholds) {
+                    if (intensity >= threshold) {
+                        break;
+                    } else {
+                        rank++;
+                    }
                 }
             }
+            rankSum += rank;
         }
 
+        return rankSum / sequenceLength;
+    }
+
+    /**
+     * Returns the intensities delimiting the intensity bins of the given
+     * spectrum, from the most intense to the least intense.
+     *
+     * @param spectrum the spectrum of interest
+     *
+     * @return the intensity thresholds of the spectrum
+     *
+     * @throws java.lang.InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    public double[] getIntensityThresholds(MSnSpectrum spectrum) throws InterruptedException {
+
         int percentile = spectrum.getNPeaks() / nBins;
         HashMap<Double, ArrayList<Peak>> intensityMap = spectrum.getIntensityMap();
         ArrayList<Double> intensities = new ArrayList<Double>(intensityMap.keySet());
@@ -83,24 +126,10 @@ public class AAIntensityRankScore {
             }
         }
 
-        HashMap<Integer, Double> aaPercentile = new HashMap<Integer, Double>(sequenceLength);
-        for (int aa : aaIntensities.keySet()) {
-            double intensity = aaIntensities.get(aa);
-            double rank = nBins;
-            if (intensity > 0) {
-                rank = 0;
-                for (double threshold : thresholds) {
-                    if (intensity >= threshold) {
-                        break;
-                    } else {
-                        rank++;
-                    }
-                }
-            }
-            aaPercentile.put(aa, rank);
+        double[] result = new double[thresholds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = thresholds.get(i);
         }
-
-        ArrayList<Double> ranks = new ArrayList<Double>(aaPercentile.values());
-        return BasicMathFunctions.mean(ranks);
+        return result;
     }
 }
@@ -6,11 +6,10 @@ import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
 import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
-import com.compomics.util.math.BasicMathFunctions;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
  * The m/z fidelity sub-score as adapted from the DirecTag paper where the
@@ -38,34 +37,52 @@ public class AAMS2MzFidelityScore {
      * interrupted
      */
     public double getScore(Peptide peptide, MSnSpectrum spectrum, AnnotationSettings annotationPreferences, SpecificAnnotationSettings specificAnnotationPreferences, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws InterruptedException {
+        ArrayList<IonMatch> matches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences,
+                spectrum, peptide);
+        return getScore(peptide, spectrum, specificAnnotationPreferences, matches);
+    }
+
+    /**
+     * Scores the match between the given peptide and spectrum using an m/z
+     * fidelity score. Returns the average over the peptide sequence of the
+     * minimal mass error of the ions annotating an amino acid.
+     *
+     * @param peptide the peptide of interest
+     * @param spectrum the spectrum of interest
+     * @param specificAnnotationPreferences the annotation preferences specific to this psm
+     * @param ionMatches the ion matches obtained from spectrum annotation
+     *
+     * @return the score of the match
+     * 
+     * @throws java.lang.InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    public double getScore(Peptide peptide, MSnSpectrum spectrum, SpecificAnnotationSettings specificAnnotationPreferences, ArrayList<IonMatch> ionMatches) throws InterruptedException {
 
+        double maxError = specificAnnotationPreferences.getFragmentIonAccuracyInDa(spectrum.getMaxMz());
         int sequenceLength = peptide.getSequence().length();
-        HashMap<Integer, Double> aaDeviations = new HashMap(sequenceLength);
-        for (int i = 1; i <= sequenceLength; i++) {
-            aaDeviations.put(i, specificAnnotationPreferences.getFragmentIonAccuracyInDa(spectrum.getMaxMz()));
+        if (sequenceLength == 0) {
+            return maxError;
         }
+        double[] aaDeviations = new double[sequenceLength];
+        Arrays.fill(aaDeviations, maxError);
 
-        ArrayList<IonMatch> matches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences,
-                spectrum, peptide);
-        
-        for (IonMatch ionMatch : matches) {
+        for (IonMatch ionMatch : ionMatches) {
             Ion ion = ionMatch.ion;
             if (ion instanceof PeptideFragmentIon) {
                 PeptideFragmentIon peptideFragmentIon = (PeptideFragmentIon) ion;
-                int number = peptideFragmentIon.getNumber();
-                double error = aaDeviations.get(number),
-                        tempError = Math.abs(ionMatch.getAbsoluteError());
-                if (tempError < error) {
-                    aaDeviations.put(number, tempError);
+                int index = peptideFragmentIon.getNumber() - 1;
+                double tempError = Math.abs(ionMatch.getAbsoluteError());
+                if (tempError < aaDeviations[index]) {
+                    aaDeviations[index] = tempError;
                 }
             }
         }
-        
-        ArrayList<Double> mzDeviations = new ArrayList<Double>(aaDeviations.values());
-        if (mzDeviations.isEmpty()) {
-            return specificAnnotationPreferences.getFragmentIonAccuracyInDa(spectrum.getMaxMz());
-        }
 
-        return BasicMathFunctions.mean(mzDeviations);
+        double deviationSum = 0;
+        for (double deviation : aaDeviations) {
+            deviationSum += deviation;
+        }
+        return deviationSum / sequenceLength;
     }
 }
@@ -99,6 +99,31 @@ public class HyperScore {
      */
     public double getScore(Peptide peptide, MSnSpectrum spectrum, AnnotationSettings annotationSettings, SpecificAnnotationSettings specificAnnotationSettings, ArrayList<IonMatch> ionMatches) {
 
+        SpectrumIndex spectrumIndex = new SpectrumIndex();
+        spectrumIndex = (SpectrumIndex) spectrum.getUrParam(spectrumIndex);
+        if (spectrumIndex == null) {
+            // Create new index
+            spectrumIndex = new SpectrumIndex(spectrum.getPeakArrays(), spectrum.getIntensityLimit(annotationSettings.getAnnotationIntensityLimit()),
+                    annotationSettings.getFragmentIonAccuracy(), annotationSettings.isFragmentIonPpm());
+            spectrum.addUrParam(spectrumIndex);
+        }
+
+        return getScore(specificAnnotationSettings, ionMatches, spectrumIndex.getTotalIntensity());
+    }
+
+    /**
+     * Returns the hyperscore.
+     *
+     * @param specificAnnotationSettings the annotation settings specific to
+     * this PSM
+     * @param ionMatches the ion matches obtained from spectrum annotation
+     * @param spectrumIntensity the total intensity of the peaks of the
+     * spectrum above the annotation intensity limit
+     *
+     * @return the score of the match
+     */
+    public double getScore(SpecificAnnotationSettings specificAnnotationSettings, ArrayList<IonMatch> ionMatches, double spectrumIntensity) {
+
         boolean peakMatched = false;
         Double coveredIntensity = 0.0;
         HashSet<Double> coveredMz = new HashSet<Double>(2);
@@ -121,16 +146,7 @@ public class HyperScore {
             return 0.0;
         }
 
-        SpectrumIndex spectrumIndex = new SpectrumIndex();
-        spectrumIndex = (SpectrumIndex) spectrum.getUrParam(spectrumIndex);
-        if (spectrumIndex == null) {
-            // Create new index
-            spectrumIndex = new SpectrumIndex(spectrum.getPeakMap(), spectrum.getIntensityLimit(annotationSettings.getAnnotationIntensityLimit()),
-                    annotationSettings.getFragmentIonAccuracy(), annotationSettings.isFragmentIonPpm());
-            spectrum.addUrParam(spectrumIndex);
-        }
-
-        Double totalIntensity = spectrumIndex.getTotalIntensity() - coveredIntensity;
+        Double totalIntensity = spectrumIntensity - coveredIntensity;
 
         double xCorr = 0;
         HashSet<Integer> ionsForward = new HashSet<Integer>(1);
@@ -38,8 +38,28 @@ public class MS2MzFidelityScore {
 
         ArrayList<IonMatch> matches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences,
                 spectrum, peptide);
-        ArrayList<Double> mzDeviations = new ArrayList<Double>(matches.size());
-        for (IonMatch ionMatch : matches) {
+        return getScore(spectrum, specificAnnotationPreferences, matches);
+    }
+
+    /**
+     * Scores the match between the given peptide and spectrum using an m/z
+     * fidelity score. The mass interquartile distance of the fragment ion mass
+     * error is used as m/z fidelity score.
+     *
+     * @param spectrum the spectrum of interest
+     * @param specificAnnotationPreferences the annotation preferences specific
+     * to this psm
+     * @param ionMatches the ion matches obtained from spectrum annotation
+     *
+     * @return the score of the match
+     * 
+     * @throws java.lang.InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    public double getScore(MSnSpectrum spectrum, SpecificAnnotationSettings specificAnnotationPreferences, ArrayList<IonMatch> ionMatches) throws InterruptedException {
+
+        ArrayList<Double> mzDeviations = new ArrayList<Double>(ionMatches.size());
+        for (IonMatch ionMatch : ionMatches) {
             double mzError = ionMatch.getAbsoluteError();
             mzDeviations.add(mzError);
         }
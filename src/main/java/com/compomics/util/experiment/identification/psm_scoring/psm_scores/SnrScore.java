@@ -8,7 +8,7 @@ import com.compomics.util.experiment.identification.spectrum_annotation.Annotati
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
-import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.PeakArrays;
 import com.compomics.util.experiment.massspectrometry.SimpleNoiseDistribution;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -103,12 +103,12 @@ public class SnrScore {
         
         Double pAnnotatedMinusLog = 0.0;
         Double pNotAnnotatedMinusLog = 0.0;
-        HashMap<Double, Peak> peakMap = spectrum.getPeakMap();
+        PeakArrays peakArrays = spectrum.getPeakArrays();
         SimpleNoiseDistribution binnedCumulativeFunction = spectrum.getIntensityLogDistribution();
         
-        for (Double mz : spectrum.getOrderedMzValues()) {
-            Peak peak = peakMap.get(mz);
-            double intensity = peak.intensity;
+        for (int i = 0; i < peakArrays.size(); i++) {
+            double mz = peakArrays.getMz(i);
+            double intensity = peakArrays.getIntensity(i);
             double pMinusLog = -binnedCumulativeFunction.getBinnedCumulativeProbabilityLog(intensity);
             ArrayList<IonMatch> peakMatches = ionMatches.get(mz);
             if (peakMatches == null) {
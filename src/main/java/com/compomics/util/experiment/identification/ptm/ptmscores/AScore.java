@@ -6,6 +6,8 @@ import com.compomics.util.experiment.biology.PTM;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
 import com.compomics.util.experiment.identification.spectrum_annotation.NeutralLossesMap;
+import com.compomics.util.experiment.identification.spectrum_annotation.PreparedPeptide;
+import com.compomics.util.experiment.identification.spectrum_annotation.PreparedSpectrum;
 import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
@@ -82,6 +84,63 @@ public class AScore {
             SpecificAnnotationSettings specificAnnotationPreferences, boolean accountNeutralLosses, SequenceMatchingPreferences sequenceMatchingPreferences,
             SequenceMatchingPreferences ptmSequenceMatchingPreferences, PeptideSpectrumAnnotator spectrumAnnotator)
             throws IOException, InterruptedException, ClassNotFoundException, SQLException, MathException {
+        return getAScore(peptide, ptms, spectrum, annotationPreferences, specificAnnotationPreferences, accountNeutralLosses, sequenceMatchingPreferences,
+                ptmSequenceMatchingPreferences, spectrumAnnotator, 1);
+    }
+
+    /**
+     * Returns the A-score for the best PTM location using the given number of
+     * threads. In case the two best
+     * locations score the same they are both given with the score of 0. 1 is
+     * the first amino acid. The N-terminus is indexed 0 and the C-terminus with
+     * the peptide length+1. Note that PTMs found on peptides must be loaded in
+     * the PTM factory (com.compomics.util.experiment.biology.PTMFactory), and
+     * if the scoring involves protein terminal PTMs, the protein sequences must
+     * be loaded in the sequence factory
+     * (com.compomics.util.experiment.identification.SequenceFactory) and
+     * indexed using the protein tree (see getDefaultProteinTree in
+     * SequenceFactory). PTMs of same mass should be scored together and given
+     * in the PTMs list. Neutral losses of mass equal to the mass of the PTM
+     * will be ignored. Neutral losses to be accounted for should be given in
+     * the SpecificAnnotationPreferences and will be ignored if
+     * accountNeutralLosses is false.
+     *
+     * @param peptide the peptide of interest
+     * @param ptms the PTMs to score, for instance different phosphorylations
+     * (the PTMs are considered as indistinguishable, i.e. of same mass).
+     * @param spectrum the corresponding spectrum
+     * @param annotationPreferences the global annotation preferences
+     * @param specificAnnotationPreferences the annotation preferences specific
+     * to this peptide and spectrum
+     * @param accountNeutralLosses if false, neutral losses available in the
+     * specific annotation preferences will be ignored
+     * @param sequenceMatchingPreferences the sequence matching preferences for
+     * peptide to protein mapping
+     * @param ptmSequenceMatchingPreferences the sequence matching preferences
+     * for PTM to peptide mapping
+     * @param spectrumAnnotator a spectrum annotator to annotate the spectra
+     * @param nThreads the number of threads to use to score the different
+     * spectrum depths
+     *
+     * @return a map containing the best or two best PTM location(s) and the
+     * corresponding A-score
+     *
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred while scoring the PTM
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from the protein tree (the
+     * protein sequence index)
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with the protein tree
+     * @throws org.apache.commons.math.MathException exception thrown whenever a
+     * math error occurred while computing the score.
+     */
+    public static HashMap<Integer, Double> getAScore(Peptide peptide, ArrayList<PTM> ptms, MSnSpectrum spectrum, AnnotationSettings annotationPreferences,
+            SpecificAnnotationSettings specificAnnotationPreferences, boolean accountNeutralLosses, SequenceMatchingPreferences sequenceMatchingPreferences,
+            SequenceMatchingPreferences ptmSequenceMatchingPreferences, PeptideSpectrumAnnotator spectrumAnnotator, int nThreads)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException, MathException {
 
         if (ptms.isEmpty()) {
             throw new IllegalArgumentException("No PTM given for A-score calculation.");
@@ -145,7 +204,7 @@ public class AScore {
             HashMap<Integer, MSnSpectrum> spectrumMap = getReducedSpectra(spectrum, specificAnnotationPreferences.getFragmentIonAccuracyInDa(spectrum.getMaxMz()), 10);
 
             HashMap<Integer, HashMap<Integer, Double>> positionToScoreMap = getPositionToScoreMap(peptide, noModPeptide, possibleSites,
-                    spectrum, spectrumMap, annotationPreferences, specificAnnotationPreferences, spectrumAnnotator, refPTM);
+                    spectrum, spectrumMap, annotationPreferences, specificAnnotationPreferences, spectrumAnnotator, refPTM, nThreads);
 
             HashMap<Double, ArrayList<Integer>> peptideScoreToPostitionMap = getPeptideScoreToPositionMap(positionToScoreMap);
             ArrayList<Double> scores = new ArrayList<Double>(peptideScoreToPostitionMap.keySet());
@@ -352,7 +411,7 @@ public class AScore {
             }
         }
 
-        BinomialDistribution distribution = new BinomialDistribution(N, p);
+        BinomialDistribution distribution = BinomialDistribution.getBinomialDistribution(N, p);
 
         Double p1 = distribution.getDescendingCumulativeProbabilityAt((double) n);
 
@@ -507,9 +566,45 @@ public class AScore {
      *
      * @throws org.apache.commons.math.MathException exception thrown whenever a
      * math error occurred while computing the score.
+     * @throws java.lang.InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    public static HashMap<Integer, HashMap<Integer, Double>> getPositionToScoreMap(Peptide peptide, Peptide noModPeptide, ArrayList<Integer> possibleSites,
+            MSnSpectrum spectrum, HashMap<Integer, MSnSpectrum> spectrumMap, AnnotationSettings annotationPreferences, SpecificAnnotationSettings specificAnnotationPreferences, PeptideSpectrumAnnotator spectrumAnnotator, PTM refPTM) throws MathException, InterruptedException {
+        return getPositionToScoreMap(peptide, noModPeptide, possibleSites, spectrum, spectrumMap, annotationPreferences, specificAnnotationPreferences, spectrumAnnotator, refPTM, 1);
+    }
+
+    /**
+     * Returns a map PTM localization &gt; score. The fragment ions of every
+     * localization are computed once and matched against the spectra of all
+     * depths, the depths are scored in parallel using the given number of
+     * threads.
+     *
+     * @param peptide the peptide of interest
+     * @param noModPeptide the peptide without the variable modification of
+     * interest
+     * @param refPTM the PTM of interest
+     * @param annotationPreferences the global annotation preferences
+     * @param specificAnnotationPreferences the annotation preferences specific
+     * to this peptide and spectrum
+     * @param spectrumAnnotator the spectrum annotator which should be used to
+     * annotate the spectrum
+     * @param spectrum the spectrum of interest
+     * @param spectrumMap the map of the extracted spectra: depth &gt; extracted
+     * spectrum
+     * @param possibleSites the possible modification sites
+     * @param nThreads the number of threads to use
+     *
+     * @return a map PTM localization &gt; score
+     *
+     * @throws org.apache.commons.math.MathException exception thrown whenever a
+     * math error occurred while computing the score.
+     * @throws java.lang.InterruptedException exception thrown if the thread is
+     * interrupted
      */
     public static HashMap<Integer, HashMap<Integer, Double>> getPositionToScoreMap(Peptide peptide, Peptide noModPeptide, ArrayList<Integer> possibleSites,
-            MSnSpectrum spectrum, HashMap<Integer, MSnSpectrum> spectrumMap, AnnotationSettings annotationPreferences, SpecificAnnotationSettings specificAnnotationPreferences, PeptideSpectrumAnnotator spectrumAnnotator, PTM refPTM) throws MathException {
+            MSnSpectrum spectrum, final HashMap<Integer, MSnSpectrum> spectrumMap, final AnnotationSettings annotationPreferences, final SpecificAnnotationSettings specificAnnotationPreferences,
+            final PeptideSpectrumAnnotator spectrumAnnotator, PTM refPTM, int nThreads) throws MathException, InterruptedException {
 
         HashMap<Integer, HashMap<Integer, Double>> positionToScoreMap = new HashMap<Integer, HashMap<Integer, Double>>();
 
@@ -521,36 +616,56 @@ public class AScore {
 
         String sequence = noModPeptide.getSequence();
         int sequenceLength = sequence.length();
+        final int nSites = possibleSites.size();
+        final PreparedPeptide[] preparedPeptides = new PreparedPeptide[nSites];
+
+        for (int j = 0; j < nSites; j++) {
+            int pos = possibleSites.get(j);
+            Peptide tempPeptide = new Peptide(noModPeptide.getSequence(), noModPeptide.getModificationMatches());
+            int position;
+            if (pos == 0) {
+                position = 1;
+            } else if (pos == sequenceLength + 1) {
+                position = sequenceLength;
+            } else {
+                position = pos;
+            }
+            tempPeptide.addModificationMatch(new ModificationMatch(refPTM.getName(), true, position));
+            preparedPeptides[j] = new PreparedPeptide(tempPeptide, specificAnnotationPreferences.getPrecursorCharge(), specificAnnotationPreferences,
+                    spectrumAnnotator.getMassShift(), spectrumAnnotator.getMassShiftNTerm(), spectrumAnnotator.getMassShiftCTerm());
+        }
 
-        for (int i = 0; i < spectrumMap.size(); i++) {
+        final int nFragmentIons = N;
+        final int nDepths = spectrumMap.size();
+        final double[][] scores = new double[nDepths][nSites];
 
-            double p = ((double) i + 1) / 100;
+        ScoringTasks.run(nDepths, nThreads, new ScoringTasks.ScoringTask() {
+            @Override
+            public void run(int i) throws MathException {
 
-            for (int pos : possibleSites) {
-                Peptide tempPeptide = new Peptide(noModPeptide.getSequence(), noModPeptide.getModificationMatches());
-                int position;
-                if (pos == 0) {
-                    position = 1;
-                } else if (pos == sequenceLength + 1) {
-                    position = sequenceLength;
-                } else {
-                    position = pos;
-                }
-                tempPeptide.addModificationMatch(new ModificationMatch(refPTM.getName(), true, position));
+                double p = ((double) i + 1) / 100;
+                BinomialDistribution distribution = BinomialDistribution.getBinomialDistribution(nFragmentIons, p);
+                PreparedSpectrum preparedSpectrum = new PreparedSpectrum(spectrumMap.get(i), annotationPreferences, specificAnnotationPreferences);
 
-                ArrayList<IonMatch> matches = spectrumAnnotator.getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences,
-                        spectrumMap.get(i), tempPeptide);
-                int n = matches.size();
+                for (int j = 0; j < nSites; j++) {
+                    ArrayList<IonMatch> matches = spectrumAnnotator.getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences,
+                            preparedSpectrum, preparedPeptides[j]);
+                    int n = matches.size();
+                    double bigP = distribution.getDescendingCumulativeProbability(n);
+                    scores[i][j] = -10 * MathUtils.log(10, bigP);
+                }
+            }
+        });
 
-                BinomialDistribution distribution = new BinomialDistribution(N, p);
-                Double bigP = distribution.getDescendingCumulativeProbabilityAt((double) n);
-                Double score = -10 * MathUtils.log(10, bigP);
+        for (int i = 0; i < nDepths; i++) {
+            for (int j = 0; j < nSites; j++) {
+                int pos = possibleSites.get(j);
                 HashMap<Integer, Double> scoresAtPosition = positionToScoreMap.get(pos);
                 if (scoresAtPosition == null) {
                     scoresAtPosition = new HashMap<Integer, Double>(2);
                     positionToScoreMap.put(pos, scoresAtPosition);
                 }
-                scoresAtPosition.put(i + 1, score);
+                scoresAtPosition.put(i + 1, scores[i][j]);
             }
         }
         return positionToScoreMap;
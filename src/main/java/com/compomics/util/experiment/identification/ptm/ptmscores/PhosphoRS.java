@@ -7,6 +7,8 @@ import com.compomics.util.experiment.biology.NeutralLoss;
 import com.compomics.util.experiment.biology.PTM;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.identification.spectrum_annotation.NeutralLossesMap;
+import com.compomics.util.experiment.identification.spectrum_annotation.PreparedPeptide;
+import com.compomics.util.experiment.identification.spectrum_annotation.PreparedSpectrum;
 import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
@@ -52,14 +54,6 @@ public class PhosphoRS {
      * The minimal depth to use per window.
      */
     public static final int MIN_DEPTH = 2;
-    /**
-     * The number of binomial distributions kept in cache.
-     */
-    private static int distributionCacheSize = 1000;
-    /**
-     * The binomial distributions cache.
-     */
-    private static HashMap<Double, HashMap<Integer, BinomialDistribution>> distributionCache = new HashMap<Double, HashMap<Integer, BinomialDistribution>>();
 
     /**
      * Returns the PhosphoRS sequence probabilities for the PTM possible
@@ -111,6 +105,62 @@ public class PhosphoRS {
             SpecificAnnotationSettings specificAnnotationSettings, boolean accountNeutralLosses, SequenceMatchingPreferences sequenceMatchingPreferences,
             SequenceMatchingPreferences ptmSequenceMatchingPreferences, PeptideSpectrumAnnotator spectrumAnnotator)
             throws IOException, InterruptedException, ClassNotFoundException, SQLException, MathException {
+        return getSequenceProbabilities(peptide, ptms, spectrum, annotationSettings, specificAnnotationSettings, accountNeutralLosses, sequenceMatchingPreferences,
+                ptmSequenceMatchingPreferences, spectrumAnnotator, 1);
+    }
+
+    /**
+     * Returns the PhosphoRS sequence probabilities for the PTM possible
+     * locations using the given number of threads. 1 is the first amino acid. The N-terminus is indexed 0 and the
+     * C-terminus with the peptide length+1. Note that PTMs found on peptides
+     * must be loaded in the PTM factory
+     * (com.compomics.util.experiment.biology.PTMFactory), and if the scoring
+     * involves protein terminal PTMs, the protein sequences must be loaded in
+     * the sequence factory
+     * (com.compomics.util.experiment.identification.SequenceFactory) and
+     * indexed using the protein tree (see getDefaultProteinTree in
+     * SequenceFactory). PTMs of same mass should be scored together and given
+     * in the PTMs list. Neutral losses of mass equal to the mass of the PTM
+     * will be ignored. Neutral losses to be accounted for should be given in
+     * the SpecificAnnotationSettings and will be ignored if
+     * accountNeutralLosses is false.
+     *
+     * @param peptide the peptide of interest
+     * @param ptms the PTMs to score, for instance different phosphorylations
+     * (the PTMs are considered as indistinguishable, i.e. of same mass)
+     * @param spectrum the corresponding spectrum
+     * @param annotationSettings the global annotation settings
+     * @param specificAnnotationSettings the annotation settings specific to
+     * this peptide and spectrum
+     * @param accountNeutralLosses a boolean indicating whether or not the
+     * calculation shall account for neutral losses.
+     * @param sequenceMatchingPreferences the sequence matching preferences for
+     * peptide to protein mapping
+     * @param ptmSequenceMatchingPreferences the sequence matching preferences
+     * for PTM to peptide mapping
+     * @param spectrumAnnotator the peptide spectrum annotator to use for
+     * spectrum annotation, can be null
+     * @param nThreads the number of threads to use to score the different
+     * windows and modification profiles
+     *
+     * @return a map site &gt; phosphoRS site probability
+     *
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred while scoring the PTM
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from the protein tree (the
+     * protein sequence index)
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with the protein tree
+     * @throws org.apache.commons.math.MathException exception thrown whenever a
+     * math error occurred while computing the score.
+     */
+    public static HashMap<Integer, Double> getSequenceProbabilities(Peptide peptide, ArrayList<PTM> ptms, MSnSpectrum spectrum, final AnnotationSettings annotationSettings,
+            SpecificAnnotationSettings specificAnnotationSettings, boolean accountNeutralLosses, SequenceMatchingPreferences sequenceMatchingPreferences,
+            SequenceMatchingPreferences ptmSequenceMatchingPreferences, PeptideSpectrumAnnotator spectrumAnnotator, int nThreads)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException, MathException {
 
         if (ptms.isEmpty()) {
             throw new IllegalArgumentException("No PTM given for PhosphoRS calculation.");
@@ -149,7 +199,7 @@ public class PhosphoRS {
                 }
             }
         }
-        SpecificAnnotationSettings scoringAnnotationSetttings = specificAnnotationSettings.clone();
+        final SpecificAnnotationSettings scoringAnnotationSetttings = specificAnnotationSettings.clone();
         scoringAnnotationSetttings.setNeutralLossesMap(scoringLossesMap);
         HashMap<Ion.IonType, HashSet<Integer>> ions = specificAnnotationSettings.getIonTypes(),
                 newIons = new HashMap<Ion.IonType, HashSet<Integer>>(1);
@@ -187,11 +237,11 @@ public class PhosphoRS {
 
         if (possibleSites.size() > nPTM) {
 
-            spectrum = filterSpectrum(spectrum, scoringAnnotationSetttings);
+            final MSnSpectrum filteredSpectrum = filterSpectrum(spectrum, scoringAnnotationSetttings);
 
             Peptide noModPeptide = Peptide.getNoModPeptide(peptide, ptms);
             ArrayList<ArrayList<Integer>> possibleProfiles = getPossibleModificationProfiles(possibleSites, nPTM);
-            ArrayList<String> possibleProfileKeys = new ArrayList<String>(possibleProfiles.size());
+            final ArrayList<String> possibleProfileKeys = new ArrayList<String>(possibleProfiles.size());
             for (ArrayList<Integer> profile : possibleProfiles) {
                 String profileKey = KeyUtils.getKey(profile);
                 possibleProfileKeys.add(profileKey);
@@ -200,12 +250,18 @@ public class PhosphoRS {
 
             HashMap<String, Peptide> profileToPeptide = getPossiblePeptidesMap(peptide, ptms, possibleProfiles);
             HashMap<String, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>> profileToPossibleFragments = getPossiblePeptideFragments(profileToPeptide, scoringAnnotationSetttings);
-            HashMap<String, Integer> profileToN = getPossiblePeptideToN(profileToPeptide, profileToPossibleFragments, spectrumAnnotator, scoringAnnotationSetttings);
+            final HashMap<String, Integer> profileToN = getPossiblePeptideToN(profileToPeptide, profileToPossibleFragments, spectrumAnnotator, scoringAnnotationSetttings);
+
+            final HashMap<Double, ArrayList<String>> siteDeterminingIonsMap = getSiteDeterminingIons(noModPeptide, possibleProfiles, ptms, spectrumAnnotator, scoringAnnotationSetttings);
+            final ArrayList<Double> siteDeterminingIons = new ArrayList<Double>(siteDeterminingIonsMap.keySet());
 
-            HashMap<Double, ArrayList<String>> siteDeterminingIonsMap = getSiteDeterminingIons(noModPeptide, possibleProfiles, ptms, spectrumAnnotator, scoringAnnotationSetttings);
-            ArrayList<Double> siteDeterminingIons = new ArrayList<Double>(siteDeterminingIonsMap.keySet());
+            final HashMap<String, PreparedPeptide> profileToPreparedPeptide = new HashMap<String, PreparedPeptide>(possibleProfileKeys.size());
+            for (String profileKey : possibleProfileKeys) {
+                PreparedPeptide preparedPeptide = new PreparedPeptide(profileToPeptide.get(profileKey), scoringAnnotationSetttings.getPrecursorCharge(), profileToPossibleFragments.get(profileKey));
+                profileToPreparedPeptide.put(profileKey, preparedPeptide);
+            }
 
-            double minMz = spectrum.getMinMz(), maxMz = spectrum.getMaxMz(), tempMax;
+            double minMz = filteredSpectrum.getMinMz(), maxMz = filteredSpectrum.getMaxMz(), tempMax;
 
             HashMap<Double, Peak> reducedSpectrum = new HashMap<Double, Peak>();
 
@@ -215,6 +271,8 @@ public class PhosphoRS {
             int nDecimals = ((int) dOverW) + 1;
             double halfWindow = WINDOW_SIZE / 2;
 
+            final ArrayList<double[]> windows = new ArrayList<double[]>();
+
             while (minMz < maxMz) {
 
                 tempMax = minMz + WINDOW_SIZE;
@@ -227,161 +285,65 @@ public class PhosphoRS {
                     nDecimals = ((int) dOverW) + 1;
                 }
 
-                HashMap<Double, Peak> extractedPeakList = spectrum.getSubSpectrum(minMz, tempMax);
-
-                if (!extractedPeakList.isEmpty()) {
-
-                    MSnSpectrum tempSpectrum = new MSnSpectrum(spectrum.getLevel(), spectrum.getPrecursor(), spectrum.getSpectrumTitle()
-                            + "_PhosphoRS_minMZ_" + minMz, extractedPeakList, spectrum.getFileName());
+                windows.add(new double[]{minMz, tempMax, d, nDecimals});
 
-                    ArrayList<MSnSpectrum> spectra = getReducedSpectra(tempSpectrum);
-
-                    HashMap<String, HashSet<Double>> profileToSiteDeterminingIonsMz = new HashMap<String, HashSet<Double>>(siteDeterminingIons.size());
-                    for (double ionMz : siteDeterminingIons) {
-                        if (ionMz > minMz && ionMz <= tempMax) {
-                            ArrayList<String> profiles = siteDeterminingIonsMap.get(ionMz);
-                            for (String profileKey : profiles) {
-                                HashSet<Double> mzs = profileToSiteDeterminingIonsMz.get(profileKey);
-                                if (mzs == null) {
-                                    mzs = new HashSet<Double>(1);
-                                    profileToSiteDeterminingIonsMz.put(profileKey, mzs);
-                                }
-                                mzs.add(ionMz);
-                            }
-                        }
-                    }
-
-                    if (!profileToSiteDeterminingIonsMz.isEmpty()) {
-
-                        ArrayList<ArrayList<Double>> deltas = new ArrayList<ArrayList<Double>>(spectra.size());
-                        int nDeltas = 0;
-
-                        for (MSnSpectrum currentSpectrum : spectra) {
-                            ArrayList<Double> bigPs = new ArrayList<Double>(possibleProfileKeys.size());
-                            ArrayList<Double> currentDeltas = new ArrayList<Double>(possibleProfileKeys.size());
-                            ArrayList<HashSet<Double>> scored = new ArrayList<HashSet<Double>>(possibleProfileKeys.size());
-                            boolean profileWithNoSiteDeterminingIonsScored = false;
-                            double currentP = getp(currentSpectrum, WINDOW_SIZE, d, nDecimals);
-                            for (String profileKey : possibleProfileKeys) {
-                                HashSet<Double> tempSiteDeterminingIons = profileToSiteDeterminingIonsMz.get(profileKey);
-                                if (tempSiteDeterminingIons == null) {
-                                    if (!profileWithNoSiteDeterminingIonsScored) {
-                                        profileWithNoSiteDeterminingIonsScored = true;
-                                        Peptide tempPeptide = profileToPeptide.get(profileKey);
-                                        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = profileToPossibleFragments.get(profileKey);
-                                        Integer n = profileToN.get(profileKey);
-                                        Double bigP = getPhosphoRsScoreP(tempPeptide, possibleFragmentIons, currentSpectrum, currentP, n, spectrumAnnotator, annotationSettings, scoringAnnotationSetttings);
-                                        BasicMathFunctions.checkProbabilityRange(bigP);
-                                        bigPs.add(bigP);
-                                    }
-                                } else {
-                                    boolean alreadyScored = false;
-                                    for (HashSet<Double> scoredIons : scored) {
-                                        if (Util.sameSets(tempSiteDeterminingIons, scoredIons)) {
-                                            alreadyScored = true;
-                                            break;
-                                        }
-                                    }
-                                    if (!alreadyScored) {
-                                        Peptide tempPeptide = profileToPeptide.get(profileKey);
-                                        Integer n = profileToN.get(profileKey);
-                                        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = profileToPossibleFragments.get(profileKey);
-                                        Double bigP = getPhosphoRsScoreP(tempPeptide, possibleFragmentIons, currentSpectrum, currentP, n, spectrumAnnotator, annotationSettings, scoringAnnotationSetttings);
-                                        BasicMathFunctions.checkProbabilityRange(bigP);
-                                        bigPs.add(bigP);
-                                        scored.add(tempSiteDeterminingIons);
-                                    }
-                                }
-                            }
-                            Collections.sort(bigPs);
-                            for (int j = 0; j < bigPs.size() - 1; j++) {
-                                Double pJ = bigPs.get(j);
-                                Double pJPlusOne = bigPs.get(j + 1);
-                                Double delta = pJ / pJPlusOne;
-                                currentDeltas.add(delta);
-                            }
-                            if (currentDeltas.size() > nDeltas) {
-                                nDeltas = currentDeltas.size();
-                            }
-                            deltas.add(currentDeltas);
-                        }
-
-                        int bestI = 0;
-                        Double largestDelta = 0.0;
-
-                        for (int j = 0; j < nDeltas && largestDelta == 0.0; j++) {
-                            for (int i = 0; i < deltas.size(); i++) {
-                                ArrayList<Double> tempDeltas = deltas.get(i);
-                                if (j < tempDeltas.size() && tempDeltas.get(j) > largestDelta) {
-                                    largestDelta = tempDeltas.get(j);
-                                    bestI = i;
-                                }
-                            }
-                        }
-
-                        if (bestI < MIN_DEPTH - 1 && MIN_DEPTH -1 < spectra.size()) {
-                            bestI = MIN_DEPTH - 1;
-                        }
-                        if (bestI > MAX_DEPTH - 1) {
-                            bestI = MAX_DEPTH - 1;
-                        }
-
-                        reducedSpectrum.putAll(spectra.get(bestI).getPeakMap());
-
-                    } else {
-
-                        Double bestP = 0.0;
-                        int bestI = 0;
-
-                        HashMap<Integer, ArrayList<Ion>> expectedFragmentIons = spectrumAnnotator.getExpectedIons(scoringAnnotationSetttings, peptide);
-                        int nExpectedFragmentIons = 0;
-                        for (ArrayList<Ion> expectedIons : expectedFragmentIons.values()) {
-                            nExpectedFragmentIons += expectedIons.size();
-                        }
-                        IonFactory fragmentFactory = IonFactory.getInstance();
-                        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = fragmentFactory.getFragmentIons(peptide, scoringAnnotationSetttings);
-                        for (int i = 0; i < spectra.size(); i++) {
-                            MSnSpectrum currentSpectrum = spectra.get(i);
-                            double currentP = getp(currentSpectrum, WINDOW_SIZE, d, nDecimals);
-                            Double bigP = getPhosphoRsScoreP(peptide, possibleFragmentIons, currentSpectrum, currentP, nExpectedFragmentIons, spectrumAnnotator, annotationSettings, scoringAnnotationSetttings);
-                            BasicMathFunctions.checkProbabilityRange(bigP);
-                            if (bigP < bestP) {
-                                bestP = bigP;
-                                bestI = i;
-                            }
-                        }
+                minMz = tempMax;
+            }
 
-                        reducedSpectrum.putAll(spectra.get(bestI).getPeakMap());
-                    }
+            final PeptideSpectrumAnnotator finalSpectrumAnnotator = spectrumAnnotator;
+            final int nWindows = windows.size();
+            final ArrayList<HashMap<Double, Peak>> windowPeaks = new ArrayList<HashMap<Double, Peak>>(Collections.nCopies(nWindows, (HashMap<Double, Peak>) null));
+
+            ScoringTasks.run(nWindows, nThreads, new ScoringTasks.ScoringTask() {
+                @Override
+                public void run(int windowIndex) throws InterruptedException, MathException {
+                    double[] window = windows.get(windowIndex);
+                    HashMap<Double, Peak> peaks = getWindowPeaks(filteredSpectrum, window[0], window[1], window[2], (int) window[3], siteDeterminingIons, siteDeterminingIonsMap,
+                            possibleProfileKeys, profileToPreparedPeptide, profileToN, finalSpectrumAnnotator, annotationSettings, scoringAnnotationSetttings);
+                    windowPeaks.set(windowIndex, peaks);
                 }
+            });
 
-                minMz = tempMax;
+            for (HashMap<Double, Peak> peaks : windowPeaks) {
+                if (peaks != null) {
+                    reducedSpectrum.putAll(peaks);
+                }
             }
 
-            MSnSpectrum phosphoRsSpectrum = new MSnSpectrum(spectrum.getLevel(), spectrum.getPrecursor(), spectrum.getSpectrumTitle() + "_phosphoRS", reducedSpectrum, spectrum.getFileName());
+            MSnSpectrum phosphoRsSpectrum = new MSnSpectrum(filteredSpectrum.getLevel(), filteredSpectrum.getPrecursor(), filteredSpectrum.getSpectrumTitle() + "_phosphoRS", reducedSpectrum, filteredSpectrum.getFileName());
 
-            double w = spectrum.getMaxMz() - spectrum.getMinMz();
+            double w = filteredSpectrum.getMaxMz() - filteredSpectrum.getMinMz();
             if (specificAnnotationSettings.isFragmentIonPpm()) {
-                Double refMz = spectrum.getMinMz() + (w / 2);
+                Double refMz = filteredSpectrum.getMinMz() + (w / 2);
                 d = specificAnnotationSettings.getFragmentIonAccuracyInDa(refMz);
             }
             dOverW = d / w;
             dOverW = -FastMath.log10(dOverW);
             nDecimals = ((int) dOverW) + 1;
-            double currentP = getp(phosphoRsSpectrum, w, d, nDecimals);
+            final double currentP = getp(phosphoRsSpectrum, w, d, nDecimals);
+            final PreparedSpectrum preparedSpectrum = new PreparedSpectrum(phosphoRsSpectrum, annotationSettings, scoringAnnotationSetttings);
+            final double[] bigPs = new double[possibleProfileKeys.size()];
+
+            ScoringTasks.run(bigPs.length, nThreads, new ScoringTasks.ScoringTask() {
+                @Override
+                public void run(int profileIndex) throws MathException {
+                    String profileKey = possibleProfileKeys.get(profileIndex);
+                    Integer n = profileToN.get(profileKey);
+                    Double bigP = getPhosphoRsScoreP(profileToPreparedPeptide.get(profileKey), preparedSpectrum, currentP, n, finalSpectrumAnnotator, annotationSettings, scoringAnnotationSetttings);
+                    BasicMathFunctions.checkProbabilityRange(bigP);
+                    bigPs[profileIndex] = bigP;
+                }
+            });
+
             HashMap<String, Double> pInvMap = new HashMap<String, Double>(possibleProfileKeys.size());
             Double pInvTotal = 0.0;
 
-            for (String profileKey : possibleProfileKeys) {
-                Peptide tempPeptide = profileToPeptide.get(profileKey);
-                Integer n = profileToN.get(profileKey);
-                HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = profileToPossibleFragments.get(profileKey);
-                Double bigP = getPhosphoRsScoreP(tempPeptide, possibleFragmentIons, phosphoRsSpectrum, currentP, n, spectrumAnnotator, annotationSettings, scoringAnnotationSetttings);
-                BasicMathFunctions.checkProbabilityRange(bigP);
-                Double pInv = 1.0 / bigP;
-                pInvMap.put(profileKey, pInv);
+            for (int i = 0; i < bigPs.length; i++) {
+                Double pInv = 1.0 / bigPs[i];
+                pInvMap.put(possibleProfileKeys.get(i), pInv);
                 pInvTotal += pInv;
             }
+
             if (pInvTotal <= 0) {
                 throw new IllegalArgumentException("PhosphoRS probability <= 0.");
             }
@@ -425,12 +387,154 @@ public class PhosphoRS {
         return scores;
     }
 
+    /**
+     * Returns the peaks retained in the given m/z window of the spectrum, null
+     * if the window contains no peak. The spectrum of the window is reduced to
+     * the most intense peaks and the depth which best discriminates the
+     * modification profiles is retained.
+     *
+     * @param spectrum the filtered spectrum
+     * @param minMz the lower bound of the window
+     * @param maxMz the upper bound of the window
+     * @param d the m/z tolerance in daltons
+     * @param nDecimals the number of decimals to use for p
+     * @param siteDeterminingIons the m/z of the site determining ions
+     * @param siteDeterminingIonsMap the profiles of the site determining ions
+     * indexed by m/z
+     * @param possibleProfileKeys the keys of the possible modification profiles
+     * @param profileToPreparedPeptide the prepared peptides indexed by profile
+     * key
+     * @param profileToN the number of expected ions indexed by profile key
+     * @param spectrumAnnotator the spectrum annotator
+     * @param annotationSettings the global annotation settings
+     * @param scoringAnnotationSettings the annotation settings specific to this
+     * peptide and spectrum
+     *
+     * @return the peaks retained in the window
+     *
+     * @throws java.lang.InterruptedException exception thrown if the thread is
+     * interrupted
+     * @throws org.apache.commons.math.MathException exception thrown whenever a
+     * math error occurred while computing the score.
+     */
+    private static HashMap<Double, Peak> getWindowPeaks(MSnSpectrum spectrum, double minMz, double maxMz, double d, int nDecimals,
+            ArrayList<Double> siteDeterminingIons, HashMap<Double, ArrayList<String>> siteDeterminingIonsMap, ArrayList<String> possibleProfileKeys,
+            HashMap<String, PreparedPeptide> profileToPreparedPeptide, HashMap<String, Integer> profileToN, PeptideSpectrumAnnotator spectrumAnnotator,
+            AnnotationSettings annotationSettings, SpecificAnnotationSettings scoringAnnotationSettings) throws InterruptedException, MathException {
+
+        HashMap<Double, Peak> extractedPeakList = spectrum.getSubSpectrum(minMz, maxMz);
+
+        if (extractedPeakList.isEmpty()) {
+            return null;
+        }
+
+        MSnSpectrum tempSpectrum = new MSnSpectrum(spectrum.getLevel(), spectrum.getPrecursor(), spectrum.getSpectrumTitle()
+                + "_PhosphoRS_minMZ_" + minMz, extractedPeakList, spectrum.getFileName());
+
+        ArrayList<MSnSpectrum> spectra = getReducedSpectra(tempSpectrum);
+
+        HashMap<String, HashSet<Double>> profileToSiteDeterminingIonsMz = new HashMap<String, HashSet<Double>>(siteDeterminingIons.size());
+        for (double ionMz : siteDeterminingIons) {
+            if (ionMz > minMz && ionMz <= maxMz) {
+                ArrayList<String> profiles = siteDeterminingIonsMap.get(ionMz);
+                for (String profileKey : profiles) {
+                    HashSet<Double> mzs = profileToSiteDeterminingIonsMz.get(profileKey);
+                    if (mzs == null) {
+                        mzs = new HashSet<Double>(1);
+                        profileToSiteDeterminingIonsMz.put(profileKey, mzs);
+                    }
+                    mzs.add(ionMz);
+                }
+            }
+        }
+
+        if (profileToSiteDeterminingIonsMz.isEmpty()) {
+
+            // only a depth with a P lower than 0 would replace the first
+            // depth, P being a probability the depths need not be scored
+            return spectra.get(0).getPeakMap();
+        }
+
+        ArrayList<ArrayList<Double>> deltas = new ArrayList<ArrayList<Double>>(spectra.size());
+        int nDeltas = 0;
+
+        for (MSnSpectrum currentSpectrum : spectra) {
+            ArrayList<Double> bigPs = new ArrayList<Double>(possibleProfileKeys.size());
+            ArrayList<Double> currentDeltas = new ArrayList<Double>(possibleProfileKeys.size());
+            ArrayList<HashSet<Double>> scored = new ArrayList<HashSet<Double>>(possibleProfileKeys.size());
+            boolean profileWithNoSiteDeterminingIonsScored = false;
+            double currentP = getp(currentSpectrum, WINDOW_SIZE, d, nDecimals);
+            PreparedSpectrum preparedSpectrum = null;
+            for (String profileKey : possibleProfileKeys) {
+                HashSet<Double> tempSiteDeterminingIons = profileToSiteDeterminingIonsMz.get(profileKey);
+                boolean toScore;
+                if (tempSiteDeterminingIons == null) {
+                    toScore = !profileWithNoSiteDeterminingIonsScored;
+                    profileWithNoSiteDeterminingIonsScored = true;
+                } else {
+                    toScore = true;
+                    for (HashSet<Double> scoredIons : scored) {
+                        if (Util.sameSets(tempSiteDeterminingIons, scoredIons)) {
+                            toScore = false;
+                            break;
+                        }
+                    }
+                    if (toScore) {
+                        scored.add(tempSiteDeterminingIons);
+                    }
+                }
+                if (toScore) {
+                    if (preparedSpectrum == null) {
+                        preparedSpectrum = new PreparedSpectrum(currentSpectrum, annotationSettings, scoringAnnotationSettings);
+                    }
+                    Integer n = profileToN.get(profileKey);
+                    Double bigP = getPhosphoRsScoreP(profileToPreparedPeptide.get(profileKey), preparedSpectrum, currentP, n, spectrumAnnotator, annotationSettings, scoringAnnotationSettings);
+                    BasicMathFunctions.checkProbabilityRange(bigP);
+                    bigPs.add(bigP);
+                }
+            }
+            Collections.sort(bigPs);
+            for (int j = 0; j < bigPs.size() - 1; j++) {
+                Double pJ = bigPs.get(j);
+                Double pJPlusOne = bigPs.get(j + 1);
+                Double delta = pJ / pJPlusOne;
+                currentDeltas.add(delta);
+            }
+            if (currentDeltas.size() > nDeltas) {
+                nDeltas = currentDeltas.size();
+            }
+            deltas.add(currentDeltas);
+        }
+
+        int bestI = 0;
+        Double largestDelta = 0.0;
+
+        for (int j = 0; j < nDeltas && largestDelta == 0.0; j++) {
+            for (int i = 0; i < deltas.size(); i++) {
+                ArrayList<Double> tempDeltas = deltas.get(i);
+                if (j < tempDeltas.size() && tempDeltas.get(j) > largestDelta) {
+                    largestDelta = tempDeltas.get(j);
+                    bestI = i;
+                }
+            }
+        }
+
+        if (bestI < MIN_DEPTH - 1 && MIN_DEPTH - 1 < spectra.size()) {
+            bestI = MIN_DEPTH - 1;
+        }
+        if (bestI > MAX_DEPTH - 1) {
+            bestI = MAX_DEPTH - 1;
+        }
+
+        return spectra.get(bestI).getPeakMap();
+    }
+
     /**
      * Returns the PhosphoRS score of the given peptide on the given spectrum.
      * This method returns P and not -10.log(P).
      *
-     * @param peptide the peptide of interest
-     * @param spectrum the spectrum of interest
+     * @param preparedPeptide the peptide of interest
+     * @param preparedSpectrum the spectrum of interest
      * @param p the probability for a calculated fragment matching one of the
      * experimental masses by chance as estimated by PhosphoRS
      * @param n the number of expected ions
@@ -440,22 +544,14 @@ public class PhosphoRS {
      * peptide and spectrum
      *
      * @return the phosphoRS score
+     *
+     * @throws org.apache.commons.math.MathException exception thrown whenever a
+     * math error occurred while computing the score.
      */
-    private static Double getPhosphoRsScoreP(Peptide peptide, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possiblePeptideFragments, MSnSpectrum spectrum, double p, int n, PeptideSpectrumAnnotator spectrumAnnotator,
+    private static Double getPhosphoRsScoreP(PreparedPeptide preparedPeptide, PreparedSpectrum preparedSpectrum, double p, int n, PeptideSpectrumAnnotator spectrumAnnotator,
             AnnotationSettings annotationSettings, SpecificAnnotationSettings scoringAnnotationSettings) throws MathException {
 
-        BinomialDistribution distribution = null;
-        HashMap<Integer, BinomialDistribution> distributionsAtP = distributionCache.get(p);
-        boolean inCache = true;
-        if (distributionsAtP != null) {
-            distribution = distributionsAtP.get(n);
-        }
-        if (distribution == null) {
-            distribution = new BinomialDistribution(n, p);
-            inCache = false;
-        }
-
-        ArrayList<IonMatch> matches = spectrumAnnotator.getSpectrumAnnotation(annotationSettings, scoringAnnotationSettings, spectrum, peptide, possiblePeptideFragments);
+        ArrayList<IonMatch> matches = spectrumAnnotator.getSpectrumAnnotation(annotationSettings, scoringAnnotationSettings, preparedSpectrum, preparedPeptide);
         int k = 0;
         for (IonMatch ionMatch : matches) {
             if (ionMatch.ion.getType() == Ion.IonType.PEPTIDE_FRAGMENT_ION) {
@@ -466,35 +562,8 @@ public class PhosphoRS {
             return 1.0;
         }
 
-        Double result = distribution.getDescendingCumulativeProbabilityAt((double) k);
-        if (!inCache && !distribution.isCacheEmpty()) {
-            addDistributionToCache(p, n, distribution);
-        }
-        return result;
-    }
-
-    /**
-     * Adds a distribution to the cache and manages the cache size.
-     *
-     * @param p the distribution p
-     * @param n the distribution n
-     */
-    private static synchronized void addDistributionToCache(double p, int n, BinomialDistribution binomialDistribution) {
-        if (distributionCache.size() >= distributionCacheSize) {
-            HashSet<Double> keys = new HashSet<Double>(distributionCache.keySet());
-            for (Double key : keys) {
-                distributionCache.remove(key);
-                if (distributionCache.size() < distributionCacheSize) {
-                    break;
-                }
-            }
-        }
-        HashMap<Integer, BinomialDistribution> distributionsAtP = distributionCache.get(p);
-        if (distributionsAtP == null) {
-            distributionsAtP = new HashMap<Integer, BinomialDistribution>(2);
-            distributionCache.put(p, distributionsAtP);
-        }
-        distributionsAtP.put(n, binomialDistribution);
+        // p is estimated for every spectrum, the tail is computed directly instead of tabulating a distribution which is not reused
+        return BinomialDistribution.getDescendingCumulativeProbability(n, p, k);
     }
 
     /**
@@ -0,0 +1,126 @@
+package com.compomics.util.experiment.identification.ptm.ptmscores;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.math.MathException;
+
+/**
+ * Runs the independent tasks of a PTM localization scoring, e.g. the spectrum
+ * depths or the modification profiles, on a pool of threads shared by all
+ * scorings.
+ *
+ * @author Marc Vaudel
+ */
+class ScoringTasks {
+
+    /**
+     * The executor running the scoring threads, used for all scorings. The
+     * threads are daemon threads released when idle.
+     */
+    private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "PTM scoring");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Empty default constructor.
+     */
+    private ScoringTasks() {
+    }
+
+    /**
+     * Runs the given task for every index from 0 to nTasks - 1 using the given
+     * number of threads of the shared executor. The threads take the next
+     * index until all tasks are processed. With a single thread the tasks are
+     * run in the calling thread in the order of the indexes.
+     *
+     * @param nTasks the number of tasks
+     * @param nThreads the number of threads to use
+     * @param scoringTask the task to run for every index
+     *
+     * @throws java.lang.InterruptedException exception thrown if a thread is
+     * interrupted
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * a math error occurred while computing a score
+     */
+    static void run(final int nTasks, int nThreads, final ScoringTask scoringTask) throws InterruptedException, MathException {
+
+        int nWorkers = Math.min(nThreads, nTasks);
+
+        if (nWorkers <= 1) {
+            for (int i = 0; i < nTasks; i++) {
+                scoringTask.run(i);
+            }
+            return;
+        }
+
+        final AtomicInteger nextTask = new AtomicInteger(0);
+        ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(nWorkers);
+
+        try {
+            for (int i = 0; i < nWorkers; i++) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        int taskIndex;
+                        while ((taskIndex = nextTask.getAndIncrement()) < nTasks) {
+                            scoringTask.run(taskIndex);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof InterruptedException) {
+                        throw (InterruptedException) cause;
+                    } else if (cause instanceof MathException) {
+                        throw (MathException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException("An error occurred while scoring PTM localizations.", cause);
+                }
+            }
+        } finally {
+            // stop the threads of this scoring only, the executor is kept for the next scorings
+            nextTask.set(nTasks);
+            for (Future<Object> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Interface for a task run for every index.
+     */
+    interface ScoringTask {
+
+        /**
+         * Runs the task for the given index.
+         *
+         * @param taskIndex the index of the task
+         *
+         * @throws java.lang.InterruptedException exception thrown if the
+         * thread is interrupted
+         * @throws org.apache.commons.math.MathException exception thrown
+         * whenever a math error occurred while computing a score
+         */
+        public void run(int taskIndex) throws InterruptedException, MathException;
+    }
+}
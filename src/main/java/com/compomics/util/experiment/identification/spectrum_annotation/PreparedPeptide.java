@@ -0,0 +1,135 @@
+package com.compomics.util.experiment.identification.spectrum_annotation;
+
+import com.compomics.util.experiment.biology.CompactFragmentIons;
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.IonFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A peptide prepared for annotation: the theoretic fragment ions of the
+ * peptide for a given precursor charge. The fragment ions are not modified
+ * after construction and instances can be shared between threads.
+ *
+ * @author Marc Vaudel
+ */
+public class PreparedPeptide {
+
+    /**
+     * The peptide.
+     */
+    private final Peptide peptide;
+    /**
+     * The precursor charge.
+     */
+    private final int precursorCharge;
+    /**
+     * The theoretic fragment ions indexed by ion type and subtype, null if
+     * the ions are taken from the cache of the ion factory.
+     */
+    private final HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentIons;
+    /**
+     * The theoretic fragment ions from the cache of the ion factory, null if
+     * not from the cache.
+     */
+    private final CompactFragmentIons compactFragmentIons;
+
+    /**
+     * Constructor. The fragment ions are taken from the cache of the ion
+     * factory.
+     *
+     * @param peptide the peptide
+     * @param precursorCharge the precursor charge
+     * @param specificAnnotationSettings if provided, only the ions detectable
+     * using these settings will be selected
+     */
+    public PreparedPeptide(Peptide peptide, int precursorCharge, SpecificAnnotationSettings specificAnnotationSettings) {
+        this(peptide, precursorCharge, specificAnnotationSettings, 0, 0, 0);
+    }
+
+    /**
+     * Constructor applying m/z shifts to the fragment ions. Without shift, the
+     * fragment ions are taken from the cache of the ion factory.
+     *
+     * @param peptide the peptide
+     * @param precursorCharge the precursor charge
+     * @param specificAnnotationSettings if provided, only the ions detectable
+     * using these settings will be selected
+     * @param massShift the m/z shift to apply to all ions
+     * @param massShiftNTerm the n-terminal mass shift to apply to all forward
+     * ions
+     * @param massShiftCTerm the c-terminal mass shift to apply to all reverse
+     * ions
+     */
+    public PreparedPeptide(Peptide peptide, int precursorCharge, SpecificAnnotationSettings specificAnnotationSettings, double massShift, double massShiftNTerm, double massShiftCTerm) {
+        this.peptide = peptide;
+        this.precursorCharge = precursorCharge;
+        if (massShift != 0 || massShiftNTerm != 0 || massShiftCTerm != 0) {
+            this.fragmentIons = IonFactory.getInstance().getFragmentIons(peptide, specificAnnotationSettings);
+            this.compactFragmentIons = null;
+            SpectrumAnnotator.applyMassShifts(fragmentIons, massShift, massShiftNTerm, massShiftCTerm);
+        } else {
+            this.fragmentIons = null;
+            this.compactFragmentIons = IonFactory.getInstance().getCachedFragmentIons(peptide, specificAnnotationSettings);
+        }
+    }
+
+    /**
+     * Constructor using precomputed fragment ions. The fragment ions must not
+     * be modified afterwards.
+     *
+     * @param peptide the peptide
+     * @param precursorCharge the precursor charge
+     * @param fragmentIons the theoretic fragment ions of the peptide indexed
+     * by ion type and subtype
+     */
+    public PreparedPeptide(Peptide peptide, int precursorCharge, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentIons) {
+        this.peptide = peptide;
+        this.precursorCharge = precursorCharge;
+        this.fragmentIons = fragmentIons;
+        this.compactFragmentIons = null;
+    }
+
+    /**
+     * Returns the peptide.
+     *
+     * @return the peptide
+     */
+    public Peptide getPeptide() {
+        return peptide;
+    }
+
+    /**
+     * Returns the precursor charge.
+     *
+     * @return the precursor charge
+     */
+    public int getPrecursorCharge() {
+        return precursorCharge;
+    }
+
+    /**
+     * Returns the theoretic fragment ions indexed by ion type and subtype.
+     * The returned map must not be modified. If the ions are taken from the
+     * cache of the ion factory, the ion objects are created at every call.
+     *
+     * @return the theoretic fragment ions
+     */
+    public HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> getFragmentIons() {
+        if (fragmentIons == null) {
+            return compactFragmentIons.getFragmentIons();
+        }
+        return fragmentIons;
+    }
+
+    /**
+     * Returns the theoretic fragment ions taken from the cache of the ion
+     * factory, null if the ions were not taken from the cache.
+     *
+     * @return the theoretic fragment ions taken from the cache
+     */
+    public CompactFragmentIons getCompactFragmentIons() {
+        return compactFragmentIons;
+    }
+}
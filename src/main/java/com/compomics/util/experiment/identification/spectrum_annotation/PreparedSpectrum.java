@@ -0,0 +1,139 @@
+package com.compomics.util.experiment.identification.spectrum_annotation;
+
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.indexes.SpectrumIndex;
+
+/**
+ * A spectrum prepared for annotation: the peaks above the intensity limit
+ * indexed using the fragment ion tolerance. Instances are not modified after
+ * construction and can be shared between threads.
+ *
+ * @author Marc Vaudel
+ */
+public class PreparedSpectrum {
+
+    /**
+     * The spectrum.
+     */
+    private final MSnSpectrum spectrum;
+    /**
+     * The intensity limit used to select the peaks.
+     */
+    private final double intensityLimit;
+    /**
+     * The m/z tolerance for peak matching.
+     */
+    private final double mzTolerance;
+    /**
+     * Boolean indicating whether the tolerance is in ppm (true) or in Dalton
+     * (false).
+     */
+    private final boolean isPpm;
+    /**
+     * The index of the peaks above the intensity limit.
+     */
+    private final SpectrumIndex spectrumIndex;
+
+    /**
+     * Constructor.
+     *
+     * @param spectrum the spectrum
+     * @param intensityLimit the minimal intensity to account for
+     * @param mzTolerance the m/z tolerance for peak matching
+     * @param isPpm a boolean indicating whether the mass tolerance is in ppm
+     * or in Da
+     */
+    public PreparedSpectrum(MSnSpectrum spectrum, double intensityLimit, double mzTolerance, boolean isPpm) {
+        this.spectrum = spectrum;
+        this.intensityLimit = intensityLimit;
+        this.mzTolerance = mzTolerance;
+        this.isPpm = isPpm;
+        this.spectrumIndex = new SpectrumIndex(spectrum.getPeakArrays(), intensityLimit, mzTolerance, isPpm);
+    }
+
+    /**
+     * Constructor using the intensity limit of the annotation settings and
+     * the fragment ion tolerance of the specific annotation settings.
+     *
+     * @param spectrum the spectrum
+     * @param annotationSettings the annotation settings
+     * @param specificAnnotationSettings the specific annotation settings
+     */
+    public PreparedSpectrum(MSnSpectrum spectrum, AnnotationSettings annotationSettings, SpecificAnnotationSettings specificAnnotationSettings) {
+        this(spectrum, spectrum.getIntensityLimit(annotationSettings.getAnnotationIntensityLimit()),
+                specificAnnotationSettings.getFragmentIonAccuracy(), specificAnnotationSettings.isFragmentIonPpm());
+    }
+
+    /**
+     * Returns the spectrum.
+     *
+     * @return the spectrum
+     */
+    public MSnSpectrum getSpectrum() {
+        return spectrum;
+    }
+
+    /**
+     * Returns the key of the spectrum.
+     *
+     * @return the key of the spectrum
+     */
+    public String getSpectrumKey() {
+        return spectrum.getSpectrumKey();
+    }
+
+    /**
+     * Returns the intensity limit used to select the peaks.
+     *
+     * @return the intensity limit used to select the peaks
+     */
+    public double getIntensityLimit() {
+        return intensityLimit;
+    }
+
+    /**
+     * Returns the m/z tolerance for peak matching.
+     *
+     * @return the m/z tolerance for peak matching
+     */
+    public double getMzTolerance() {
+        return mzTolerance;
+    }
+
+    /**
+     * Indicates whether the tolerance is in ppm (true) or in Dalton (false).
+     *
+     * @return a boolean indicating whether the tolerance is in ppm
+     */
+    public boolean isPpm() {
+        return isPpm;
+    }
+
+    /**
+     * Returns the index of the peaks above the intensity limit.
+     *
+     * @return the index of the peaks above the intensity limit
+     */
+    public SpectrumIndex getSpectrumIndex() {
+        return spectrumIndex;
+    }
+
+    /**
+     * Indicates whether this prepared spectrum can be used to annotate the
+     * given spectrum with the given settings.
+     *
+     * @param spectrum the spectrum
+     * @param intensityLimit the minimal intensity to account for
+     * @param mzTolerance the m/z tolerance for peak matching
+     * @param isPpm a boolean indicating whether the mass tolerance is in ppm
+     * or in Da
+     *
+     * @return a boolean indicating whether this prepared spectrum can be used
+     */
+    public boolean isSameAs(MSnSpectrum spectrum, double intensityLimit, double mzTolerance, boolean isPpm) {
+        return this.spectrum.getSpectrumKey().equals(spectrum.getSpectrumKey())
+                && this.intensityLimit == intensityLimit
+                && this.mzTolerance == mzTolerance
+                && this.isPpm == isPpm;
+    }
+}
@@ -3,6 +3,7 @@ package com.compomics.util.experiment.identification.spectrum_annotation;
 import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
 import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
 import com.compomics.util.experiment.biology.IonFactory;
+import com.compomics.util.experiment.biology.CompactFragmentIons;
 import com.compomics.util.experiment.biology.Ion;
 import com.compomics.util.experiment.biology.Ion.IonType;
 import com.compomics.util.experiment.biology.NeutralLoss;
@@ -16,6 +17,7 @@ import com.compomics.util.experiment.identification.spectrum_annotation.spectrum
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.PeakArrays;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.indexes.SpectrumIndex;
 import com.compomics.util.gui.interfaces.SpectrumAnnotation;
@@ -76,7 +78,7 @@ public abstract class SpectrumAnnotator {
     /**
      * Index for the spectrum.
      */
-    private SpectrumIndex spectrumIndex;
+    protected SpectrumIndex spectrumIndex;
     /**
      * The m/z tolerance for peak matching.
      */
@@ -153,20 +155,77 @@ public abstract class SpectrumAnnotator {
      * @return the IonMatch between the ion and the peak
      */
     protected IonMatch matchInSpectrum(Ion theoreticIon, Integer inspectedCharge) {
+        return matchInSpectrum(spectrumIndex, theoreticIon, inspectedCharge, tiesResolution);
+    }
 
-        double fragmentMz = theoreticIon.getTheoreticMz(inspectedCharge);
+    /**
+     * Matches a theoretic ion in the given spectrum index. Returns an IonMatch
+     * containing the ion and the peak. Null if not found. This method does not
+     * use the state of the annotator and can be used concurrently.
+     *
+     * @param spectrumIndex the index of the spectrum
+     * @param theoreticIon the theoretic ion
+     * @param inspectedCharge the expected charge
+     * @param tiesResolution the method used to resolve ties
+     *
+     * @return the IonMatch between the ion and the peak
+     */
+    public static IonMatch matchInSpectrum(SpectrumIndex spectrumIndex, Ion theoreticIon, int inspectedCharge, TiesResolution tiesResolution) {
 
-        // Get the peaks matching the desired m/z
-        ArrayList<Peak> matchedPeaks = spectrumIndex.getMatchingPeaks(fragmentMz);
+        int peakIndex = getPeakIndex(spectrumIndex, theoreticIon.getTheoreticMz(inspectedCharge), tiesResolution);
 
-        if (matchedPeaks.isEmpty()) {
+        if (peakIndex == -1) {
             return null;
         }
 
-        // Select the most accurate or most intense according to the annotation settings
-        IonMatch ionMatch = new IonMatch(null, theoreticIon, inspectedCharge);
-        ionMatch.peak = (matchedPeaks.size() == 1) ? matchedPeaks.get(0) : getBestPeak(matchedPeaks, ionMatch);
-        return ionMatch;
+        return new IonMatch(spectrumIndex.getPeak(peakIndex), theoreticIon, inspectedCharge);
+    }
+
+    /**
+     * Matches a theoretic ion stored in arrays in the given spectrum index.
+     * Returns an IonMatch containing the ion and the peak. Null if not found.
+     * The ion object is only created if a peak is found. This method does not
+     * use the state of the annotator and can be used concurrently.
+     *
+     * @param spectrumIndex the index of the spectrum
+     * @param ions the ions of a given type and subtype
+     * @param ionIndex the index of the ion
+     * @param inspectedCharge the expected charge
+     * @param tiesResolution the method used to resolve ties
+     *
+     * @return the IonMatch between the ion and the peak
+     */
+    public static IonMatch matchInSpectrum(SpectrumIndex spectrumIndex, CompactFragmentIons.IonArrays ions, int ionIndex, int inspectedCharge, TiesResolution tiesResolution) {
+
+        int peakIndex = getPeakIndex(spectrumIndex, ions.getMz(ionIndex, inspectedCharge), tiesResolution);
+
+        if (peakIndex == -1) {
+            return null;
+        }
+
+        return new IonMatch(spectrumIndex.getPeak(peakIndex), ions.getIon(ionIndex), inspectedCharge);
+    }
+
+    /**
+     * Returns the index of the peak matching the given m/z, -1 if none.
+     *
+     * @param spectrumIndex the index of the spectrum
+     * @param fragmentMz the m/z of the fragment
+     * @param tiesResolution the method used to resolve ties
+     *
+     * @return the index of the peak matching the given m/z
+     */
+    private static int getPeakIndex(SpectrumIndex spectrumIndex, double fragmentMz, TiesResolution tiesResolution) {
+
+        // Select the most accurate or most intense peak according to the annotation settings
+        switch (tiesResolution) {
+            case mostAccurateMz:
+                return spectrumIndex.getMostAccurateIndex(fragmentMz);
+            case mostIntense:
+                return spectrumIndex.getMostIntenseIndex(fragmentMz);
+            default:
+                throw new UnsupportedOperationException("Ties resolution method " + tiesResolution + " not implemented.");
+        }
     }
 
     /**
@@ -238,7 +297,7 @@ public abstract class SpectrumAnnotator {
             spectrumIndex = (SpectrumIndex) spectrum.getUrParam(spectrumIndex);
 
             // Create new index
-            spectrumIndex = new SpectrumIndex(spectrum.getPeakMap(), intensityLimit, mzTolerance, isPpm);
+            spectrumIndex = new SpectrumIndex(spectrum.getPeakArrays(), intensityLimit, mzTolerance, isPpm);
             spectrum.addUrParam(spectrumIndex);
         }
     }
@@ -275,6 +334,22 @@ public abstract class SpectrumAnnotator {
      * @return boolean indicating whether the neutral loss should be considered
      */
     public boolean isAccounted(NeutralLossesMap neutralLosses, NeutralLoss neutralLoss, Ion ion) {
+        return isAccounted(neutralLosses, neutralLoss, ion.getType(), ion.getSubType(), getNumber(ion));
+    }
+
+    /**
+     * Returns a boolean indicating whether the neutral loss should be
+     * accounted for on an ion of the given type, subtype and number.
+     *
+     * @param neutralLosses map of expected neutral losses
+     * @param neutralLoss the neutral loss of interest
+     * @param ionType the type of the ion
+     * @param subType the subtype of the ion
+     * @param number the number of the fragment ion, ignored for other ions
+     *
+     * @return boolean indicating whether the neutral loss should be considered
+     */
+    public boolean isAccounted(NeutralLossesMap neutralLosses, NeutralLoss neutralLoss, Ion.IonType ionType, int subType, int number) {
 
         if (neutralLosses == null || neutralLosses.isEmpty()) {
             return false;
@@ -285,34 +360,32 @@ public abstract class SpectrumAnnotator {
             NeutralLoss neutralLossRef = NeutralLoss.getNeutralLoss(neutralLossName);
 
             if (neutralLoss.isSameAs(neutralLossRef)) {
-                switch (ion.getType()) {
+                switch (ionType) {
                     case PEPTIDE_FRAGMENT_ION:
-                        PeptideFragmentIon peptideFragmentIon = ((PeptideFragmentIon) ion);
-                        switch (ion.getSubType()) {
+                        switch (subType) {
                             case PeptideFragmentIon.A_ION:
                             case PeptideFragmentIon.B_ION:
                             case PeptideFragmentIon.C_ION:
-                                return neutralLosses.getForwardStart(neutralLossName) <= peptideFragmentIon.getNumber();
+                                return neutralLosses.getForwardStart(neutralLossName) <= number;
                             case PeptideFragmentIon.X_ION:
                             case PeptideFragmentIon.Y_ION:
                             case PeptideFragmentIon.Z_ION:
-                                return neutralLosses.getRewindStart(neutralLossName) <= peptideFragmentIon.getNumber();
+                                return neutralLosses.getRewindStart(neutralLossName) <= number;
                             default:
-                                throw new UnsupportedOperationException("Fragment ion type " + ion.getSubTypeAsString() + " not implemented in the spectrum annotator.");
+                                throw new UnsupportedOperationException("Fragment ion type " + PeptideFragmentIon.getSubTypeAsString(subType) + " not implemented in the spectrum annotator.");
                         }
                     case TAG_FRAGMENT_ION:
-                        TagFragmentIon tagFragmentIon = ((TagFragmentIon) ion);
-                        switch (ion.getSubType()) {
+                        switch (subType) {
                             case TagFragmentIon.A_ION:
                             case TagFragmentIon.B_ION:
                             case TagFragmentIon.C_ION:
-                                return neutralLosses.getForwardStart(neutralLossName) <= tagFragmentIon.getNumber();
+                                return neutralLosses.getForwardStart(neutralLossName) <= number;
                             case TagFragmentIon.X_ION:
                             case TagFragmentIon.Y_ION:
                             case TagFragmentIon.Z_ION:
-                                return neutralLosses.getRewindStart(neutralLossName) <= tagFragmentIon.getNumber();
+                                return neutralLosses.getRewindStart(neutralLossName) <= number;
                             default:
-                                throw new UnsupportedOperationException("Fragment ion type " + ion.getSubTypeAsString() + " not implemented in the spectrum annotator.");
+                                throw new UnsupportedOperationException("Fragment ion type " + TagFragmentIon.getSubTypeAsString(subType) + " not implemented in the spectrum annotator.");
                         }
                     default:
                         return true;
@@ -322,6 +395,24 @@ public abstract class SpectrumAnnotator {
         return false;
     }
 
+    /**
+     * Returns the number of a peptide or tag fragment ion, -1 for other ions.
+     *
+     * @param ion the ion
+     *
+     * @return the number of the fragment ion
+     */
+    private static int getNumber(Ion ion) {
+        switch (ion.getType()) {
+            case PEPTIDE_FRAGMENT_ION:
+                return ((PeptideFragmentIon) ion).getNumber();
+            case TAG_FRAGMENT_ION:
+                return ((TagFragmentIon) ion).getNumber();
+            default:
+                return -1;
+        }
+    }
+
     /**
      * Returns a boolean indicating whether the neutral losses of the given
      * fragment ion fit the requirement of the given neutral losses map.
@@ -343,6 +434,31 @@ public abstract class SpectrumAnnotator {
         return true;
     }
 
+    /**
+     * Returns a boolean indicating whether the given neutral losses of an ion
+     * of the given type, subtype and number fit the requirement of the given
+     * neutral losses map.
+     *
+     * @param neutralLosses map of expected neutral losses
+     * @param ionType the type of the ion
+     * @param subType the subtype of the ion
+     * @param number the number of the fragment ion, ignored for other ions
+     * @param ionNeutralLosses the neutral losses of the ion, can be null
+     *
+     * @return a boolean indicating whether the neutral losses of the ion fit
+     * the requirement of the given neutral losses map
+     */
+    public boolean lossesValidated(NeutralLossesMap neutralLosses, Ion.IonType ionType, int subType, int number, NeutralLoss[] ionNeutralLosses) {
+        if (ionNeutralLosses != null) {
+            for (NeutralLoss neutralLoss : ionNeutralLosses) {
+                if (!isAccounted(neutralLosses, neutralLoss, ionType, subType, number)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns a boolean indicating whether the given charge can be found on the
      * given fragment ion.
@@ -355,25 +471,38 @@ public abstract class SpectrumAnnotator {
      * given fragment ion
      */
     public boolean chargeValidated(Ion theoreticIon, int charge, int precursorCharge) {
+        return chargeValidated(theoreticIon.getType(), getNumber(theoreticIon), charge, precursorCharge);
+    }
+
+    /**
+     * Returns a boolean indicating whether the given charge can be found on an
+     * ion of the given type and number.
+     *
+     * @param ionType the type of the ion
+     * @param number the number of the fragment ion, ignored for other ions
+     * @param charge the candidate charge
+     * @param precursorCharge the precursor charge
+     *
+     * @return a boolean indicating whether the given charge can be found on
+     * the ion
+     */
+    public boolean chargeValidated(Ion.IonType ionType, int number, int charge, int precursorCharge) {
         if (charge == 1) {
             return true;
         }
-        switch (theoreticIon.getType()) {
+        switch (ionType) {
             case IMMONIUM_ION:
             case RELATED_ION: // note: it is possible to implement higher charges but then modify IonMatch.getPeakAnnotation(boolean html) as well to see the charge displayed on the spectrum
                 return false;
             case REPORTER_ION: // note: it is possible to implement higher charges but then modify IonMatch.getPeakAnnotation(boolean html) as well to see the charge displayed on the spectrum
                 return false;
             case PEPTIDE_FRAGMENT_ION:
-                PeptideFragmentIon peptideFragmentIon = ((PeptideFragmentIon) theoreticIon);
-                return charge <= peptideFragmentIon.getNumber() && charge < precursorCharge;
             case TAG_FRAGMENT_ION:
-                TagFragmentIon tagFragmentIon = ((TagFragmentIon) theoreticIon);
-                return charge <= tagFragmentIon.getNumber() && charge < precursorCharge;
+                return charge <= number && charge < precursorCharge;
             case PRECURSOR_ION:
                 return charge >= precursorCharge;
             default:
-                throw new UnsupportedOperationException("Ion type " + theoreticIon.getTypeAsString() + " not implemented in the spectrum annotator.");
+                throw new UnsupportedOperationException("Ion type " + Ion.getTypeAsString(ionType) + " not implemented in the spectrum annotator.");
         }
     }
 
@@ -470,7 +599,24 @@ public abstract class SpectrumAnnotator {
      */
     protected void updateMassShifts() {
         if (theoreticalFragmentIons != null) {
-            HashMap<Integer, ArrayList<Ion>> peptideFragmentIons = theoreticalFragmentIons.get(IonType.PEPTIDE_FRAGMENT_ION.index);
+            applyMassShifts(theoreticalFragmentIons, massShift, massShiftNTerm, massShiftCTerm);
+        }
+    }
+
+    /**
+     * Adds the given m/z shifts to the theoretic mass of the given fragment
+     * ions.
+     *
+     * @param fragmentIons the fragment ions indexed by type and subtype
+     * @param massShift the m/z shift to apply to all ions
+     * @param massShiftNTerm the n-terminal mass shift to apply to all forward
+     * ions
+     * @param massShiftCTerm the c-terminal mass shift to apply to all reverse
+     * ions
+     */
+    public static void applyMassShifts(HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentIons, double massShift, double massShiftNTerm, double massShiftCTerm) {
+        HashMap<Integer, ArrayList<Ion>> peptideFragmentIons = fragmentIons.get(IonType.PEPTIDE_FRAGMENT_ION.index);
+        if (peptideFragmentIons != null) {
             ArrayList<Ion> ions = peptideFragmentIons.get(PeptideFragmentIon.A_ION);
             if (ions != null) {
                 for (Ion ion : ions) {
@@ -507,9 +653,11 @@ public abstract class SpectrumAnnotator {
                     ion.setTheoreticMass(ion.getTheoreticMass() + massShift + massShiftCTerm);
                 }
             }
+        }
 
-            HashMap<Integer, ArrayList<Ion>> tagFragmentIons = theoreticalFragmentIons.get(IonType.TAG_FRAGMENT_ION.index);
-            ions = tagFragmentIons.get(TagFragmentIon.A_ION);
+        HashMap<Integer, ArrayList<Ion>> tagFragmentIons = fragmentIons.get(IonType.TAG_FRAGMENT_ION.index);
+        if (tagFragmentIons != null) {
+            ArrayList<Ion> ions = tagFragmentIons.get(TagFragmentIon.A_ION);
             if (ions != null) {
                 for (Ion ion : ions) {
                     ion.setTheoreticMass(ion.getTheoreticMass() + massShift + massShiftNTerm);
@@ -689,13 +837,10 @@ public abstract class SpectrumAnnotator {
     public static ArrayList<IonMatch> matchReporterIon(Ion theoreticIon, int charge, Spectrum spectrum, double massTolerance) throws InterruptedException {
         ArrayList<IonMatch> result = new ArrayList<IonMatch>(1);
         double targetMass = theoreticIon.getTheoreticMz(charge);
-        for (double mz : spectrum.getOrderedMzValues()) {
-            if (Math.abs(mz - targetMass) <= massTolerance) {
-                result.add(new IonMatch(spectrum.getPeakMap().get(mz), theoreticIon, charge));
-            }
-            if (mz > targetMass + massTolerance) {
-                break;
-            }
+        PeakArrays peakArrays = spectrum.getPeakArrays();
+        int upperIndex = peakArrays.getUpperIndex(targetMass + massTolerance);
+        for (int i = peakArrays.getLowerIndex(targetMass - massTolerance); i < upperIndex; i++) {
+            result.add(new IonMatch(peakArrays.getPeak(i), theoreticIon, charge));
         }
         return result;
     }
@@ -1,5 +1,6 @@
 package com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators;
 
+import com.compomics.util.experiment.biology.CompactFragmentIons;
 import com.compomics.util.experiment.biology.Ion;
 import com.compomics.util.experiment.biology.IonFactory;
 import com.compomics.util.experiment.biology.NeutralLoss;
@@ -8,11 +9,14 @@ import com.compomics.util.experiment.biology.PTMFactory;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
 import com.compomics.util.experiment.identification.spectrum_annotation.NeutralLossesMap;
+import com.compomics.util.experiment.identification.spectrum_annotation.PreparedPeptide;
+import com.compomics.util.experiment.identification.spectrum_annotation.PreparedSpectrum;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpectrumAnnotator;
 import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.indexes.SpectrumIndex;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
@@ -25,7 +29,9 @@ import java.util.HashSet;
 
 /**
  * Annotates a spectrum with peptide fragments. Warning: not multi-thread safe,
- * use different annotators for each thread.
+ * use different annotators for each thread. The annotation of a
+ * PreparedSpectrum with a PreparedPeptide does not use the state of the
+ * annotator, a single annotator can be used by multiple threads for this.
  *
  * @author Marc Vaudel
  */
@@ -139,14 +145,112 @@ public class PeptideSpectrumAnnotator extends SpectrumAnnotator {
             SpecificAnnotationSettings specificAnnotationSettings, MSnSpectrum spectrum, Peptide peptide, 
             HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possiblePeptideFragments) {
 
-        ArrayList<IonMatch> result = new ArrayList<IonMatch>();
-
         setMassTolerance(specificAnnotationSettings.getFragmentIonAccuracy(), specificAnnotationSettings.isFragmentIonPpm(), annotationSettings.getTiesResolution());
         if (spectrum != null) {
             setSpectrum(spectrum, spectrum.getIntensityLimit(annotationSettings.getAnnotationIntensityLimit()));
         }
         setPeptide(peptide, possiblePeptideFragments, specificAnnotationSettings.getPrecursorCharge(), specificAnnotationSettings);
 
+        return getSpectrumAnnotation(specificAnnotationSettings, spectrumIndex, tiesResolution, theoreticalFragmentIons, precursorCharge);
+    }
+
+    /**
+     * Returns the spectrum annotations of a prepared spectrum with a prepared
+     * peptide in a list of IonMatches. This method does not use nor modify
+     * the state of the annotator and can be called concurrently.
+     *
+     * Note that, except for +1 precursors, fragments ions will be expected to
+     * have a charge strictly smaller than the precursor ion charge.
+     *
+     * @param annotationSettings the annotation settings
+     * @param specificAnnotationSettings the specific annotation settings
+     * @param preparedSpectrum the spectrum to match
+     * @param preparedPeptide the peptide of interest
+     *
+     * @return an ArrayList of IonMatch containing the ion matches with the
+     * given settings
+     */
+    public ArrayList<IonMatch> getSpectrumAnnotation(AnnotationSettings annotationSettings,
+            SpecificAnnotationSettings specificAnnotationSettings, PreparedSpectrum preparedSpectrum, PreparedPeptide preparedPeptide) {
+        CompactFragmentIons compactFragmentIons = preparedPeptide.getCompactFragmentIons();
+        if (compactFragmentIons != null) {
+            return getSpectrumAnnotation(specificAnnotationSettings, preparedSpectrum.getSpectrumIndex(), annotationSettings.getTiesResolution(),
+                    compactFragmentIons, preparedPeptide.getPrecursorCharge());
+        }
+        return getSpectrumAnnotation(specificAnnotationSettings, preparedSpectrum.getSpectrumIndex(), annotationSettings.getTiesResolution(),
+                preparedPeptide.getFragmentIons(), preparedPeptide.getPrecursorCharge());
+    }
+
+    /**
+     * Matches the given fragment ions stored as arrays in the given spectrum
+     * index. The ion objects are only created for the matched ions.
+     *
+     * @param specificAnnotationSettings the specific annotation settings
+     * @param spectrumIndex the index of the spectrum
+     * @param tiesResolution the method used to resolve ties
+     * @param fragmentIons the theoretic fragment ions
+     * @param precursorCharge the precursor charge
+     *
+     * @return an ArrayList of IonMatch containing the ion matches with the
+     * given settings
+     */
+    private ArrayList<IonMatch> getSpectrumAnnotation(SpecificAnnotationSettings specificAnnotationSettings, SpectrumIndex spectrumIndex,
+            TiesResolution tiesResolution, CompactFragmentIons fragmentIons, int precursorCharge) {
+
+        ArrayList<IonMatch> result = new ArrayList<IonMatch>();
+
+        ArrayList<Integer> precursorCharges = new ArrayList<Integer>();
+
+        // possible charges for the precursor
+        for (int i = 1; i <= precursorCharge; i++) {
+            precursorCharges.add(i);
+        }
+
+        NeutralLossesMap neutralLossesMap = specificAnnotationSettings.getNeutralLossesMap();
+        HashMap<Ion.IonType, HashSet<Integer>> ionTypes = specificAnnotationSettings.getIonTypes();
+        for (Ion.IonType ionType : ionTypes.keySet()) {
+            ArrayList<Integer> ionPossibleCharges = (ionType == Ion.IonType.PRECURSOR_ION) ? precursorCharges : specificAnnotationSettings.getSelectedCharges();
+            for (int subType : ionTypes.get(ionType)) {
+                CompactFragmentIons.IonArrays ions = fragmentIons.getIons(ionType.index, subType);
+                if (ions != null) {
+                    for (int i = 0; i < ions.size(); i++) {
+                        int number = ions.getNumber(i);
+                        if (lossesValidated(neutralLossesMap, ionType, subType, number, ions.getNeutralLosses(i))) {
+                            for (Integer charge : ionPossibleCharges) {
+                                if (chargeValidated(ionType, number, charge, precursorCharge)) {
+                                    IonMatch ionMatch = matchInSpectrum(spectrumIndex, ions, i, charge, tiesResolution);
+                                    if (ionMatch != null) {
+                                        result.add(ionMatch);
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Matches the given fragment ions in the given spectrum index.
+     *
+     * @param specificAnnotationSettings the specific annotation settings
+     * @param spectrumIndex the index of the spectrum
+     * @param tiesResolution the method used to resolve ties
+     * @param fragmentIons the theoretic fragment ions indexed by type and
+     * subtype
+     * @param precursorCharge the precursor charge
+     *
+     * @return an ArrayList of IonMatch containing the ion matches with the
+     * given settings
+     */
+    private ArrayList<IonMatch> getSpectrumAnnotation(SpecificAnnotationSettings specificAnnotationSettings, SpectrumIndex spectrumIndex,
+            TiesResolution tiesResolution, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentIons, int precursorCharge) {
+
+        ArrayList<IonMatch> result = new ArrayList<IonMatch>();
+
         ArrayList<Integer> precursorCharges = new ArrayList<Integer>();
 
         // possible charges for the precursor
@@ -156,7 +260,7 @@ public class PeptideSpectrumAnnotator extends SpectrumAnnotator {
 
         HashMap<Ion.IonType, HashSet<Integer>> ionTypes = specificAnnotationSettings.getIonTypes();
         for (Ion.IonType ionType : ionTypes.keySet()) {
-            HashMap<Integer, ArrayList<Ion>> ionMap = theoreticalFragmentIons.get(ionType.index);
+            HashMap<Integer, ArrayList<Ion>> ionMap = fragmentIons.get(ionType.index);
             if (ionMap != null) {
                 HashSet<Integer> subtypes = ionTypes.get(ionType);
                 for (int subType : subtypes) {
@@ -170,7 +274,7 @@ public class PeptideSpectrumAnnotator extends SpectrumAnnotator {
 
                                 for (Integer charge : ionPossibleCharges) {
                                     if (chargeValidated(ion, charge, precursorCharge)) {
-                                        IonMatch ionMatch = matchInSpectrum(ion, charge);
+                                        IonMatch ionMatch = matchInSpectrum(spectrumIndex, ion, charge, tiesResolution);
                                         if (ionMatch != null) {
                                             result.add(ionMatch);
                                         }
@@ -50,6 +50,25 @@ public class TagAssumption extends SpectrumIdentificationAssumption implements U
         this.score = score;
     }
 
+    /**
+     * Constructor.
+     *
+     * @param advocate the advocate supporting this assumption
+     * @param rank the rank of the assumption
+     * @param tag the identified tag
+     * @param identificationCharge the identified charge
+     * @param score the score, can be null
+     * @param identificationFile the identification file
+     */
+    public TagAssumption(int advocate, int rank, Tag tag, Charge identificationCharge, Double score, String identificationFile) {
+        this.advocate = advocate;
+        this.rank = rank;
+        this.tag = tag;
+        this.identificationCharge = identificationCharge;
+        this.score = score;
+        this.identificationFile = identificationFile;
+    }
+
     /**
      * Returns the tag of this assumption.
      *
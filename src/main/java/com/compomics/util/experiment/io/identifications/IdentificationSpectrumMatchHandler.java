@@ -0,0 +1,96 @@
+package com.compomics.util.experiment.io.identifications;
+
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * Spectrum match handler storing the spectrum matches in an identification in
+ * batches. The parsing of the file waits while a batch is stored, the number
+ * of matches in memory is hence bounded by the batch size. The last batch is
+ * stored when calling flush().
+ *
+ * @author Marc Vaudel
+ */
+public class IdentificationSpectrumMatchHandler implements SpectrumMatchHandler {
+
+    /**
+     * The default number of spectrum matches stored at once.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    /**
+     * The identification where to store the matches.
+     */
+    private final Identification identification;
+    /**
+     * The number of spectrum matches stored at once.
+     */
+    private final int batchSize;
+    /**
+     * The spectrum matches waiting to be stored.
+     */
+    private final ArrayList<SpectrumMatch> batch;
+    /**
+     * The number of spectrum matches handled.
+     */
+    private int nSpectrumMatches = 0;
+
+    /**
+     * Constructor using the default batch size.
+     *
+     * @param identification the identification where to store the matches
+     */
+    public IdentificationSpectrumMatchHandler(Identification identification) {
+        this(identification, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param identification the identification where to store the matches
+     * @param batchSize the number of spectrum matches stored at once
+     */
+    public IdentificationSpectrumMatchHandler(Identification identification, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size should be positive.");
+        }
+        this.identification = identification;
+        this.batchSize = batchSize;
+        batch = new ArrayList<SpectrumMatch>(batchSize);
+    }
+
+    @Override
+    public void addSpectrumMatch(SpectrumMatch spectrumMatch) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        batch.add(spectrumMatch);
+        nSpectrumMatches++;
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Stores the spectrum matches waiting in the identification.
+     *
+     * @throws IOException if an IOException occurs
+     * @throws SQLException if an SQLException occurs
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     */
+    public void flush() throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        if (!batch.isEmpty()) {
+            identification.addSpectrumMatches(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Returns the number of spectrum matches handled.
+     *
+     * @return the number of spectrum matches handled
+     */
+    public int getNSpectrumMatches() {
+        return nSpectrumMatches;
+    }
+}
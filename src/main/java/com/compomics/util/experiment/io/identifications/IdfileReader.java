@@ -96,6 +96,36 @@ public interface IdfileReader {
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters, SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException, XmlPullParserException;
 
+    /**
+     * Retrieves all the identifications from an identification file and
+     * passes them one by one to the given handler as they are parsed. Unlike
+     * getAllSpectrumMatches, the matches are not kept in memory by the reader
+     * when the file format allows it. It is very important to close the file
+     * reader after creation. Secondary peptide and tag maps are filled
+     * according to the file content and the sequence matching preferences. If
+     * the sequence matching preferences are null, the maps are not filled.
+     *
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null). The secondary progress methods will be called.
+     * @param searchParameters the search parameters
+     * @param sequenceMatchingPreferences the sequence matching preferences to
+     * use for the creation of the secondary maps
+     * @param expandAaCombinations if true, a peptide assumption (not
+     * implemented for tag assumptions) will be created for all possible amino
+     * acid combination for peptide sequences containing an ambiguity like an X
+     * @param spectrumMatchHandler the handler receiving the spectrum matches
+     *
+     * @throws IOException if an IOException occurs
+     * @throws IllegalArgumentException if an IllegalArgumentException occurs
+     * @throws SQLException if an SQLException occurs
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     * @throws JAXBException if a JAXBException occurs
+     * @throws XmlPullParserException if an XmlPullParserException occurs
+     */
+    public void readSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters, SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchHandler spectrumMatchHandler)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException;
+
     /**
      * Returns a boolean indicating whether the file contains de novo results as tags.
      * 
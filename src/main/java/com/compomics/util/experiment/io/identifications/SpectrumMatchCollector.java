@@ -0,0 +1,37 @@
+package com.compomics.util.experiment.io.identifications;
+
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import java.util.LinkedList;
+
+/**
+ * Spectrum match handler keeping all the spectrum matches in a list.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumMatchCollector implements SpectrumMatchHandler {
+
+    /**
+     * The spectrum matches in the order they were handled.
+     */
+    private final LinkedList<SpectrumMatch> spectrumMatches = new LinkedList<SpectrumMatch>();
+
+    /**
+     * Constructor.
+     */
+    public SpectrumMatchCollector() {
+    }
+
+    @Override
+    public void addSpectrumMatch(SpectrumMatch spectrumMatch) {
+        spectrumMatches.add(spectrumMatch);
+    }
+
+    /**
+     * Returns the spectrum matches in the order they were handled.
+     *
+     * @return the spectrum matches
+     */
+    public LinkedList<SpectrumMatch> getSpectrumMatches() {
+        return spectrumMatches;
+    }
+}
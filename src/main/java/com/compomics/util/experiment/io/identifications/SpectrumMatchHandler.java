@@ -0,0 +1,27 @@
+package com.compomics.util.experiment.io.identifications;
+
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Receives the spectrum matches of an identification file one at a time as
+ * they are parsed. The parsing waits for the handler to return, matches can
+ * hence be stored without keeping the entire file in memory.
+ *
+ * @author Marc Vaudel
+ */
+public interface SpectrumMatchHandler {
+
+    /**
+     * Handles a spectrum match parsed from an identification file.
+     *
+     * @param spectrumMatch the spectrum match
+     *
+     * @throws IOException if an IOException occurs
+     * @throws SQLException if an SQLException occurs
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     */
+    public void addSpectrumMatch(SpectrumMatch spectrumMatch) throws IOException, SQLException, ClassNotFoundException, InterruptedException;
+}
@@ -14,6 +14,8 @@ import com.compomics.util.experiment.identification.identification_parameters.to
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapperType;
 import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTree;
 import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchCollector;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchHandler;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
@@ -454,6 +456,15 @@ public class DirecTagIdfileReader extends ExperimentObject implements IdfileRead
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+        SpectrumMatchCollector spectrumMatchCollector = new SpectrumMatchCollector();
+        readSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, spectrumMatchCollector);
+        return spectrumMatchCollector.getSpectrumMatches();
+    }
+
+    @Override
+    public void readSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchHandler spectrumMatchHandler)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
 
         direcTagParameters = (DirecTagParameters) searchParameters.getAlgorithmSpecificParameters().get(Advocate.direcTag.getIndex());
 
@@ -484,7 +495,6 @@ public class DirecTagIdfileReader extends ExperimentObject implements IdfileRead
             waitingHandler.setSecondaryProgressCounter(0);
         }
 
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
         int sCpt = 0;
         Integer sIdColumnIndex = spectrumLineContent.get("ID");
         Integer chargeColumnIndex = spectrumLineContent.get("Charge");
@@ -511,7 +521,7 @@ public class DirecTagIdfileReader extends ExperimentObject implements IdfileRead
                     if (!sId.equals(lastId)) {
                         if (currentMatch != null && currentMatch.hasAssumption()) {
 
-                            result.add(currentMatch);
+                            spectrumMatchHandler.addSpectrumMatch(currentMatch);
                         }
                         int utilitiesId = sId + 1; // first spectrum is 1 in utilities
                         String spectrumTitle = utilitiesId + "";
@@ -536,12 +546,11 @@ public class DirecTagIdfileReader extends ExperimentObject implements IdfileRead
 
             if (currentMatch != null && currentMatch.hasAssumption()) {
 
-                result.add(currentMatch);
+                spectrumMatchHandler.addSpectrumMatch(currentMatch);
             }
         } finally {
             reader.close();
         }
-        return result;
     }
 
     /**
@@ -9,22 +9,33 @@ import com.compomics.util.experiment.identification.identification_parameters.Se
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchCollector;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchHandler;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.personalization.ExperimentObject;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.net.URLDecoder;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.xml.bind.JAXBException;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserFactory;
@@ -122,6 +133,28 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
      * Boolean indicating whether the mzId file contains de novo tags.
      */
     private boolean hasDenovoTags = false;
+    /**
+     * The number of threads to use to parse the PSMs with the custom parser.
+     */
+    private int nThreads = 1;
+    /**
+     * The default size in bytes of the sections of the file parsed by the
+     * different threads when parsing the PSMs in parallel.
+     */
+    public static final int PARALLEL_CHUNK_SIZE = 16 * 1024 * 1024;
+    /**
+     * The size in bytes of the sections of the file parsed by the different
+     * threads when parsing the PSMs in parallel.
+     */
+    private long parallelChunkSize = PARALLEL_CHUNK_SIZE;
+    /**
+     * The start of a SpectrumIdentificationResult element.
+     */
+    private static final byte[] RESULT_START = "<SpectrumIdentificationResult".getBytes();
+    /**
+     * The start of a SpectrumIdentificationResult end tag.
+     */
+    private static final byte[] RESULT_END = "</SpectrumIdentificationResult".getBytes();
 
     /**
      * Default constructor for the purpose of instantiation.
@@ -209,6 +242,51 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
         return ".mzid";
     }
 
+    /**
+     * Returns the number of threads used to parse the PSMs.
+     *
+     * @return the number of threads used to parse the PSMs
+     */
+    public int getNThreads() {
+        return nThreads;
+    }
+
+    /**
+     * Sets the number of threads used to parse the PSMs. If more than one,
+     * the SpectrumIdentificationResult elements of the file are split in
+     * sections parsed concurrently after the peptides, spectrum files and
+     * modifications have been parsed. The matches are returned in the order
+     * of the file. Only used by the custom parser, one by default.
+     *
+     * @param nThreads the number of threads used to parse the PSMs
+     */
+    public void setNThreads(int nThreads) {
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Returns the size in bytes of the sections of the file parsed by the
+     * different threads.
+     *
+     * @return the size in bytes of the sections of the file parsed by the
+     * different threads
+     */
+    public long getParallelChunkSize() {
+        return parallelChunkSize;
+    }
+
+    /**
+     * Sets the size in bytes of the sections of the file parsed by the
+     * different threads. Files smaller than this size are parsed by a single
+     * thread. PARALLEL_CHUNK_SIZE by default.
+     *
+     * @param parallelChunkSize the size in bytes of the sections of the file
+     * parsed by the different threads
+     */
+    public void setParallelChunkSize(long parallelChunkSize) {
+        this.parallelChunkSize = parallelChunkSize;
+    }
+
     @Override
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
@@ -219,14 +297,25 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+        SpectrumMatchCollector spectrumMatchCollector = new SpectrumMatchCollector();
+        readSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, spectrumMatchCollector);
+        return spectrumMatchCollector.getSpectrumMatches();
+    }
+
+    @Override
+    public void readSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchHandler spectrumMatchHandler)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
 
         this.sequenceMatchingPreferences = sequenceMatchingPreferences;
         this.expandAaCombinations = expandAaCombinations;
 
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
-
         if (useCustomParser) {
 
+            if (nThreads > 1 && mzIdentMLFile.length() > parallelChunkSize && parseFileParallel(waitingHandler, spectrumMatchHandler)) {
+                return;
+            }
+
             // set the waiting handler max value
             if (waitingHandler != null) {
 
@@ -248,7 +337,7 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
                 waitingHandler.setMaxSecondaryProgressCounter(lineCounter);
             }
 
-            return parseFile(waitingHandler);
+            parseFile(waitingHandler, spectrumMatchHandler, true);
         } else {
 
             DataCollection dataCollection = unmarshaller.unmarshal(DataCollection.class);
@@ -453,7 +542,7 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
                         waitingHandler.increaseSecondaryProgressCounter();
                     }
 
-                    result.add(currentMatch);
+                    spectrumMatchHandler.addSpectrumMatch(currentMatch);
                 }
 
                 if (waitingHandler != null) {
@@ -463,8 +552,6 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
                 }
             }
         }
-
-        return result;
     }
 
     /**
@@ -533,17 +620,33 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
      */
     public static void main(String[] args) {
         MzIdentMLIdfileReader temp = new MzIdentMLIdfileReader();
-        temp.parseFile(null);
+        try {
+            temp.parseFile(null, new SpectrumMatchCollector(), true);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 
     /**
-     * Parse the mzid file.
+     * Parse the mzid file. Errors thrown by the spectrum match handler are
+     * passed on, other errors are printed.
+     *
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null)
+     * @param spectrumMatchHandler the handler receiving the spectrum matches
+     * @param parsePsms if false, the parsing stops at the first
+     * SpectrumIdentificationResult
      *
-     * @return the list of spectrum matches
+     * @throws IOException if an IOException occurs in the spectrum match
+     * handler
+     * @throws SQLException if an SQLException occurs in the spectrum match
+     * handler
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs in
+     * the spectrum match handler
+     * @throws InterruptedException if an InterruptedException occurs in the
+     * spectrum match handler
      */
-    private LinkedList<SpectrumMatch> parseFile(WaitingHandler waitingHandler) {
-
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
+    private void parseFile(WaitingHandler waitingHandler, SpectrumMatchHandler spectrumMatchHandler, boolean parsePsms) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
 
         try {
             // create the pull parser
@@ -582,7 +685,10 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
                 } else if (type == XmlPullParser.START_TAG && parser.getName().equals("ModificationParams")) {
                     parseFixedPtms(parser);
                 } else if (type == XmlPullParser.START_TAG && parser.getName().equals("SpectrumIdentificationResult")) {
-                    parsePsm(parser, result);
+                    if (!parsePsms) {
+                        break;
+                    }
+                    parsePsm(parser, spectrumMatchHandler);
                 }
 
                 type = parser.next();
@@ -594,11 +700,272 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
 
             br.close();
 
+        } catch (SpectrumMatchHandlerException e) {
+            Exception cause = e.getException();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("An error occurred while handling the spectrum matches of " + mzIdentMLFileName + ".", cause);
         } catch (Exception e) {
             e.printStackTrace();
         }
+    }
 
-        return result;
+    /**
+     * Parses the mzid file using multiple threads for the PSMs. Errors thrown
+     * by the spectrum match handler are passed on, other errors are printed.
+     *
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null)
+     * @param spectrumMatchHandler the handler receiving the spectrum matches
+     *
+     * @return false if no SpectrumIdentificationResult could be located in the
+     * file, in which case nothing was parsed
+     *
+     * @throws IOException if an IOException occurs
+     * @throws SQLException if an SQLException occurs in the spectrum match
+     * handler
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs in
+     * the spectrum match handler
+     * @throws InterruptedException if an InterruptedException occurs
+     */
+    private boolean parseFileParallel(WaitingHandler waitingHandler, SpectrumMatchHandler spectrumMatchHandler) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+
+        ArrayList<long[]> chunks = getResultChunks(parallelChunkSize);
+
+        if (chunks.isEmpty()) {
+            return false;
+        }
+
+        // parse the software, peptides, spectrum files and modifications
+        parseFile(null, spectrumMatchHandler, false);
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setSecondaryProgressCounter(0);
+            waitingHandler.setMaxSecondaryProgressCounter(chunks.size());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
+        try {
+            LinkedList<ChunkParser> chunkParsers = new LinkedList<ChunkParser>();
+            LinkedList<Future<LinkedList<SpectrumMatch>>> futures = new LinkedList<Future<LinkedList<SpectrumMatch>>>();
+            int nextChunk = 0;
+
+            while (nextChunk < chunks.size() || !futures.isEmpty()) {
+
+                // only a limited number of chunks is kept in memory
+                while (nextChunk < chunks.size() && futures.size() < 2 * nThreads) {
+                    long[] chunk = chunks.get(nextChunk++);
+                    ChunkParser chunkParser = new ChunkParser(chunk[0], chunk[1]);
+                    chunkParsers.add(chunkParser);
+                    futures.add(pool.submit(chunkParser));
+                }
+
+                // pass the matches of the next chunk in the file order
+                ChunkParser chunkParser = chunkParsers.removeFirst();
+                LinkedList<SpectrumMatch> chunkMatches;
+                try {
+                    chunkMatches = futures.removeFirst().get();
+                } catch (ExecutionException e) {
+                    throw new IOException("An error occurred while parsing " + mzIdentMLFileName + ": " + e.getCause().getMessage());
+                }
+
+                for (SpectrumMatch spectrumMatch : chunkMatches) {
+                    spectrumMatchHandler.addSpectrumMatch(spectrumMatch);
+                }
+
+                if (chunkParser.getException() != null) {
+                    chunkParser.getException().printStackTrace();
+                    break;
+                }
+
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return true;
+    }
+
+    /**
+     * Splits the SpectrumIdentificationResult elements of the file in
+     * sections of approximately the given size. Every section starts at the
+     * beginning of a SpectrumIdentificationResult, the last section ends after
+     * the last SpectrumIdentificationResult.
+     *
+     * @param chunkSize the approximate size of a section in bytes
+     *
+     * @return the start and end indexes of the sections, empty if no
+     * SpectrumIdentificationResult was found
+     *
+     * @throws IOException if an IOException occurs while reading the file
+     */
+    private ArrayList<long[]> getResultChunks(long chunkSize) throws IOException {
+
+        ArrayList<long[]> chunks = new ArrayList<long[]>();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(mzIdentMLFile, "r");
+
+        try {
+            byte[] buffer = new byte[1024 * 1024];
+            long start = findResultStart(randomAccessFile, 0, buffer);
+            long end = findLastResultEnd(randomAccessFile, buffer);
+
+            if (start == -1 || end <= start) {
+                return chunks;
+            }
+
+            while (start != -1 && start < end) {
+                long next = findResultStart(randomAccessFile, start + chunkSize, buffer);
+                if (next == -1 || next > end) {
+                    next = end;
+                }
+                chunks.add(new long[]{start, next});
+                start = next < end ? next : -1;
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Returns the index of the first SpectrumIdentificationResult start tag
+     * after the given index, -1 if none.
+     *
+     * @param randomAccessFile the file
+     * @param from the index where to start looking
+     * @param buffer the buffer to use to read the file
+     *
+     * @return the index of the first SpectrumIdentificationResult start tag
+     *
+     * @throws IOException if an IOException occurs while reading the file
+     */
+    private static long findResultStart(RandomAccessFile randomAccessFile, long from, byte[] buffer) throws IOException {
+
+        long length = randomAccessFile.length();
+        long position = from;
+
+        while (position < length) {
+            randomAccessFile.seek(position);
+            int read = randomAccessFile.read(buffer, 0, (int) Math.min(buffer.length, length - position));
+            if (read <= 0) {
+                break;
+            }
+            int index = indexOfResultStart(buffer, 0, read);
+            if (index != -1) {
+                return position + index;
+            }
+            if (position + read >= length) {
+                break;
+            }
+            // the tag can span over two buffers
+            position += Math.max(read - RESULT_START.length, 1);
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the index following the last SpectrumIdentificationResult end
+     * tag, -1 if none.
+     *
+     * @param randomAccessFile the file
+     * @param buffer the buffer to use to read the file
+     *
+     * @return the index following the last SpectrumIdentificationResult end
+     * tag
+     *
+     * @throws IOException if an IOException occurs while reading the file
+     */
+    private static long findLastResultEnd(RandomAccessFile randomAccessFile, byte[] buffer) throws IOException {
+
+        long end = randomAccessFile.length();
+
+        while (end > 0) {
+            long position = Math.max(end - buffer.length, 0);
+            int length = (int) (end - position);
+            randomAccessFile.seek(position);
+            randomAccessFile.readFully(buffer, 0, length);
+            for (int i = length - RESULT_END.length; i >= 0; i--) {
+                if (startsWith(buffer, i, length, RESULT_END)) {
+                    for (int j = i + RESULT_END.length; j < length; j++) {
+                        if (buffer[j] == '>') {
+                            return position + j + 1;
+                        }
+                    }
+                }
+            }
+            if (position == 0) {
+                break;
+            }
+            // the tag can span over two buffers
+            end = position + RESULT_END.length + 1;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first SpectrumIdentificationResult start tag in
+     * the given section of an array, -1 if none.
+     *
+     * @param bytes the array
+     * @param from the index where to start looking
+     * @param to the index where to stop looking
+     *
+     * @return the index of the first SpectrumIdentificationResult start tag
+     */
+    private static int indexOfResultStart(byte[] bytes, int from, int to) {
+        for (int i = from; i + RESULT_START.length < to; i++) {
+            if (startsWith(bytes, i, to, RESULT_START)) {
+                byte next = bytes[i + RESULT_START.length];
+                if (next == ' ' || next == '>' || next == '\t' || next == '\n' || next == '\r') {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Indicates whether the given section of an array starts with the given
+     * pattern at the given index.
+     *
+     * @param bytes the array
+     * @param index the index
+     * @param to the end of the section
+     * @param pattern the pattern
+     *
+     * @return a boolean indicating whether the array contains the pattern at
+     * the given index
+     */
+    private static boolean startsWith(byte[] bytes, int index, int to, byte[] pattern) {
+        if (index + pattern.length > to) {
+            return false;
+        }
+        for (int i = 0; i < pattern.length; i++) {
+            if (bytes[index + i] != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -998,10 +1365,10 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
      * Parse a PSM object.
      *
      * @param parser the XML parser
-     * @param result the list to add the extracted PSM to
+     * @param spectrumMatchHandler the handler receiving the extracted PSM
      * @throws Exception thrown if an exception occurs
      */
-    private void parsePsm(XmlPullParser parser, LinkedList<SpectrumMatch> result) throws Exception {
+    private void parsePsm(XmlPullParser parser, SpectrumMatchHandler spectrumMatchHandler) throws Exception {
 
         String spectraDataRef = null;
         String spectrumId = null;
@@ -1257,7 +1624,11 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
             currentMatch.setKey(Spectrum.getSpectrumKey(spectrumFileName, spectrumTitle)); // @TOOD: can spectrumID be used if spectrumTitle is missing...?
         }
 
-        result.add(currentMatch);
+        try {
+            spectrumMatchHandler.addSpectrumMatch(currentMatch);
+        } catch (Exception e) {
+            throw new SpectrumMatchHandlerException(e);
+        }
     }
 
     /**
@@ -1300,12 +1671,14 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
 
             // get the software version
             String name = advocate.getName();
-            if (!softwareVersions.containsKey(name)) {
-                ArrayList<String> versions = tempSoftwareVersions.get(name);
-                if (versions == null) {
-                    versions = new ArrayList<String>();
+            synchronized (softwareVersions) {
+                if (!softwareVersions.containsKey(name)) {
+                    ArrayList<String> versions = tempSoftwareVersions.get(name);
+                    if (versions == null) {
+                        versions = new ArrayList<String>();
+                    }
+                    softwareVersions.put(name, versions);
                 }
-                softwareVersions.put(name, versions);
             }
 
             // create the e-value object
@@ -1824,4 +2197,142 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
             return modifications;
         }
     }
+
+    /**
+     * Parses the SpectrumIdentificationResult elements of a section of the
+     * file.
+     */
+    private class ChunkParser implements Callable<LinkedList<SpectrumMatch>> {
+
+        /**
+         * The index where the section starts.
+         */
+        private final long start;
+        /**
+         * The index where the section ends.
+         */
+        private final long end;
+        /**
+         * The exception which interrupted the parsing, null if none.
+         */
+        private Exception exception = null;
+
+        /**
+         * Constructor.
+         *
+         * @param start the index where the section starts
+         * @param end the index where the section ends
+         */
+        public ChunkParser(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public LinkedList<SpectrumMatch> call() {
+
+            SpectrumMatchCollector spectrumMatchCollector = new SpectrumMatchCollector();
+
+            try {
+                XmlPullParserFactory factory = XmlPullParserFactory.newInstance(System.getProperty(XmlPullParserFactory.PROPERTY_NAME), null);
+                factory.setNamespaceAware(true);
+                XmlPullParser parser = factory.newPullParser();
+                parser.setInput(new InputStreamReader(new ByteArrayInputStream(getResults())));
+
+                int type = parser.next();
+
+                while (type != XmlPullParser.END_DOCUMENT) {
+                    if (type == XmlPullParser.START_TAG && parser.getName().equals("SpectrumIdentificationResult")) {
+                        parsePsm(parser, spectrumMatchCollector);
+                    }
+                    type = parser.next();
+                }
+            } catch (Exception e) {
+                exception = e;
+            }
+
+            return spectrumMatchCollector.getSpectrumMatches();
+        }
+
+        /**
+         * Returns the SpectrumIdentificationResult elements of the section in
+         * a standalone XML document.
+         *
+         * @return the SpectrumIdentificationResult elements of the section
+         *
+         * @throws IOException if an IOException occurs while reading the file
+         */
+        private byte[] getResults() throws IOException {
+
+            byte[] section = new byte[(int) (end - start)];
+            RandomAccessFile randomAccessFile = new RandomAccessFile(mzIdentMLFile, "r");
+            try {
+                randomAccessFile.seek(start);
+                randomAccessFile.readFully(section);
+            } finally {
+                randomAccessFile.close();
+            }
+
+            // skip what is between the results, e.g. the end of a SpectrumIdentificationList
+            ByteArrayOutputStream results = new ByteArrayOutputStream(section.length + 256);
+            results.write("<SpectrumIdentificationResults xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">\n".getBytes());
+            int index = indexOfResultStart(section, 0, section.length);
+            while (index != -1) {
+                int resultEnd = -1;
+                for (int i = index + RESULT_START.length; i < section.length && resultEnd == -1; i++) {
+                    if (startsWith(section, i, section.length, RESULT_END)) {
+                        for (int j = i + RESULT_END.length; j < section.length; j++) {
+                            if (section[j] == '>') {
+                                resultEnd = j + 1;
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (resultEnd == -1) {
+                    throw new IllegalArgumentException("SpectrumIdentificationResult not closed in " + mzIdentMLFileName + ".");
+                }
+                results.write(section, index, resultEnd - index);
+                results.write('\n');
+                index = indexOfResultStart(section, resultEnd, section.length);
+            }
+            results.write("</SpectrumIdentificationResults>".getBytes());
+
+            return results.toByteArray();
+        }
+
+        /**
+         * Returns the exception which interrupted the parsing, null if none.
+         *
+         * @return the exception which interrupted the parsing
+         */
+        public Exception getException() {
+            return exception;
+        }
+    }
+
+    /**
+     * Wraps an exception thrown by the spectrum match handler in order to
+     * distinguish it from parsing errors.
+     */
+    private static class SpectrumMatchHandlerException extends Exception {
+
+        /**
+         * Constructor.
+         *
+         * @param exception the exception thrown by the spectrum match handler
+         */
+        public SpectrumMatchHandlerException(Exception exception) {
+            super(exception);
+        }
+
+        /**
+         * Returns the exception thrown by the spectrum match handler.
+         *
+         * @return the exception thrown by the spectrum match handler
+         */
+        public Exception getException() {
+            return (Exception) getCause();
+        }
+    }
 }
@@ -12,6 +12,8 @@ import com.compomics.util.experiment.identification.SpectrumIdentificationAssump
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchCollector;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchHandler;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
@@ -107,6 +109,7 @@ public class PepxmlIdfileReader implements IdfileReader {
      * be expanded
      * @param overwriteExtension if true, the extension of the input file will
      * be overwritten to mgf
+     * @param spectrumMatchHandler the handler receiving the spectrum matches
      *
      * @throws XmlPullParserException
      * @throws FileNotFoundException
@@ -115,7 +118,7 @@ public class PepxmlIdfileReader implements IdfileReader {
      * @throws ClassNotFoundException
      * @throws InterruptedException
      */
-    private void parseFile(WaitingHandler waitingHandler, boolean expandAaCombinations, boolean overwriteExtension)
+    private void parseFile(WaitingHandler waitingHandler, boolean expandAaCombinations, boolean overwriteExtension, SpectrumMatchHandler spectrumMatchHandler)
             throws XmlPullParserException, FileNotFoundException, IOException, SQLException, ClassNotFoundException, InterruptedException {
 
         // Create the pull parser.
@@ -133,8 +136,8 @@ public class PepxmlIdfileReader implements IdfileReader {
             int type;
             boolean hasMatch = false;
 
-            HashMap<String, SpectrumMatch> spectrumMatchesMap = new HashMap<String, SpectrumMatch>();
-            spectrumMatches = new LinkedList<SpectrumMatch>();
+            // the queries of a spectrum with different charges are merged if consecutive
+            SpectrumMatch previousMatch = null;
             SpectrumMatch currentMatch = null;
             Integer currentCharge = null;
 
@@ -153,8 +156,7 @@ public class PepxmlIdfileReader implements IdfileReader {
                 }
                 if (type == XmlPullParser.START_TAG && tagName.equals("spectrum_query")) {
                     currentMatch = parseSpectrumQuery(parser);
-                    SpectrumMatch previousMatch = spectrumMatchesMap.get(currentMatch.getKey());
-                    if (previousMatch != null) {
+                    if (previousMatch != null && previousMatch.getKey().equals(currentMatch.getKey())) {
                         currentMatch = previousMatch;
                     }
                     for (int i = 0; i < parser.getAttributeCount(); i++) {
@@ -238,10 +240,11 @@ public class PepxmlIdfileReader implements IdfileReader {
                 }
                 if (type == XmlPullParser.END_TAG && tagName.equals("spectrum_query")) {
                     if (hasMatch) {
-                        String key = currentMatch.getKey();
-                        if (!spectrumMatchesMap.containsKey(key)) {
-                            spectrumMatchesMap.put(key, currentMatch);
-                            spectrumMatches.add(currentMatch);
+                        if (currentMatch != previousMatch) {
+                            if (previousMatch != null) {
+                                spectrumMatchHandler.addSpectrumMatch(previousMatch);
+                            }
+                            previousMatch = currentMatch;
                         }
                         hasMatch = false;
                         currentMatch = null;
@@ -253,7 +256,9 @@ public class PepxmlIdfileReader implements IdfileReader {
                 }
             }
 
-            spectrumMatchesMap.clear();
+            if (previousMatch != null) {
+                spectrumMatchHandler.addSpectrumMatch(previousMatch);
+            }
 
         } finally {
             br.close();
@@ -688,11 +693,26 @@ public class PepxmlIdfileReader implements IdfileReader {
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations) throws IOException, IllegalArgumentException,
             SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException {
         if (spectrumMatches == null) {
-            parseFile(waitingHandler, expandAaCombinations, true);
+            SpectrumMatchCollector spectrumMatchCollector = new SpectrumMatchCollector();
+            parseFile(waitingHandler, expandAaCombinations, true, spectrumMatchCollector);
+            spectrumMatches = spectrumMatchCollector.getSpectrumMatches();
         }
         return spectrumMatches;
     }
 
+    @Override
+    public void readSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchHandler spectrumMatchHandler) throws IOException, IllegalArgumentException,
+            SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException {
+        if (spectrumMatches == null) {
+            parseFile(waitingHandler, expandAaCombinations, true, spectrumMatchHandler);
+        } else {
+            for (SpectrumMatch spectrumMatch : spectrumMatches) {
+                spectrumMatchHandler.addSpectrumMatch(spectrumMatch);
+            }
+        }
+    }
+
     @Override
     public boolean hasDeNovoTags() {
         return false;
@@ -0,0 +1,161 @@
+package com.compomics.util.experiment.io.massspectrometry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only memory mapping of an mgf file. The lines are decoded directly from
+ * the mapped memory from the offsets given by the MgfIndex. Every reader has
+ * its own position, so that the spectra can be read concurrently without
+ * synchronization.
+ *
+ * Files larger than the maximal size of a mapping are mapped in segments which
+ * overlap by SEGMENT_OVERLAP bytes, a spectrum starting in a segment must then
+ * end within the overlap.
+ *
+ * @author Marc Vaudel
+ */
+public class MappedMgfFile {
+
+    /**
+     * The size of a segment.
+     */
+    public static final long SEGMENT_SIZE = 1L << 30;
+    /**
+     * The number of bytes a segment overlaps the next one.
+     */
+    public static final long SEGMENT_OVERLAP = 1L << 26;
+    /**
+     * The mapped segments of the file.
+     */
+    private final MappedByteBuffer[] segments;
+    /**
+     * The length of the file in bytes.
+     */
+    private final long length;
+
+    /**
+     * Constructor. Maps the given file in memory.
+     *
+     * @param mgfFile the mgf file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    public MappedMgfFile(File mgfFile) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(mgfFile, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            length = channel.size();
+            int nSegments = (int) Math.max((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE, 1);
+            segments = new MappedByteBuffer[nSegments];
+            for (int i = 0; i < nSegments; i++) {
+                long start = i * SEGMENT_SIZE;
+                long size = Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, length - start);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+        } finally {
+            // the mapping remains valid after closing the file
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Returns the length of the file in bytes.
+     *
+     * @return the length of the file in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns a new line reader starting at the given offset.
+     *
+     * @param offset the offset in the file, as given by the MgfIndex
+     *
+     * @return a line reader starting at the given offset
+     */
+    public LineReader getLineReader(long offset) {
+        if (offset < 0 || offset > length) {
+            throw new IllegalArgumentException("Offset " + offset + " outside of the file.");
+        }
+        int segmentIndex = (int) Math.min(offset / SEGMENT_SIZE, segments.length - 1);
+        ByteBuffer buffer = segments[segmentIndex].duplicate();
+        buffer.position((int) (offset - segmentIndex * SEGMENT_SIZE));
+        return new LineReader(buffer);
+    }
+
+    /**
+     * Reads the lines of a mapped mgf file. A line reader is not thread safe
+     * and should be used by a single thread.
+     */
+    public static class LineReader {
+
+        /**
+         * The view on the mapped segment, only this reader moves its position.
+         */
+        private final ByteBuffer buffer;
+        /**
+         * Buffer used to decode ASCII lines.
+         */
+        private char[] chars = new char[256];
+
+        /**
+         * Constructor.
+         *
+         * @param buffer the view on the mapped segment
+         */
+        private LineReader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Returns the next line without line terminator, null if the end of
+         * the mapping is reached.
+         *
+         * @return the next line
+         *
+         * @throws UnsupportedEncodingException exception thrown whenever a line
+         * could not be decoded
+         */
+        public String getNextLine() throws UnsupportedEncodingException {
+            int start = buffer.position();
+            int limit = buffer.limit();
+            if (start >= limit) {
+                return null;
+            }
+            int end = start;
+            boolean ascii = true;
+            byte value;
+            while (end < limit && (value = buffer.get(end)) != '\n') {
+                ascii &= value >= 0;
+                end++;
+            }
+            buffer.position(end < limit ? end + 1 : end);
+            if (end > start && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+            int lineLength = end - start;
+            if (!ascii) {
+                byte[] bytes = new byte[lineLength];
+                for (int i = 0; i < lineLength; i++) {
+                    bytes[i] = buffer.get(start + i);
+                }
+                return new String(bytes, "UTF-8");
+            }
+            if (lineLength > chars.length) {
+                chars = new char[Math.max(lineLength, 2 * chars.length)];
+            }
+            for (int i = 0; i < lineLength; i++) {
+                chars[i] = (char) buffer.get(start + i);
+            }
+            return new String(chars, 0, lineLength);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.compomics.util.experiment.io.massspectrometry;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.PeakArrays;
 import com.compomics.util.experiment.massspectrometry.Precursor;
 import com.compomics.util.preferences.UtilitiesUserPreferences;
 import com.compomics.util.waiting.WaitingHandler;
@@ -10,9 +11,15 @@ import com.compomics.util.waiting.WaitingHandler;
 import java.io.*;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
 
 /**
@@ -23,6 +30,19 @@ import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
  */
 public class MgfReader {
 
+    /**
+     * The initial capacity of the peak arrays when parsing a spectrum.
+     */
+    private static final int INITIAL_PEAK_CAPACITY = 256;
+    /**
+     * The minimal size in bytes of the chunks indexed in parallel.
+     */
+    public static final long MIN_INDEX_CHUNK_SIZE = 64L * 1024 * 1024;
+    /**
+     * The size of the buffer used to index the chunks.
+     */
+    private static final int INDEX_BUFFER_SIZE = 1024 * 1024;
+
     /**
      * General constructor for an mgf reader.
      */
@@ -42,7 +62,9 @@ public class MgfReader {
     public static MSnSpectrum getSpectrum(BufferedReader br, String fileName) throws IOException {
 
         String line;
-        HashMap<Double, Peak> spectrum = new HashMap<Double, Peak>();
+        double[] mzArray = new double[INITIAL_PEAK_CAPACITY];
+        double[] intensityArray = new double[INITIAL_PEAK_CAPACITY];
+        int nPeaks = 0;
         double precursorMz = 0;
         double precursorIntensity = 0;
         double rt = -1.0;
@@ -132,7 +154,7 @@ public class MgfReader {
                 } else {
                     precursor = new Precursor(rt, precursorMz, precursorIntensity, precursorCharges);
                 }
-                MSnSpectrum msnSpectrum = new MSnSpectrum(2, precursor, spectrumTitle, spectrum, fileName);
+                MSnSpectrum msnSpectrum = new MSnSpectrum(2, precursor, spectrumTitle, new PeakArrays(mzArray, intensityArray, nPeaks, false), fileName);
                 if (scanNumber.length() > 0) {
                     msnSpectrum.setScanNumber(scanNumber);
                 }
@@ -140,9 +162,14 @@ public class MgfReader {
             } else if (insideSpectrum && !line.equals("")) {
                 try {
                     String values[] = line.split("\\s+");
-                    Double mz = new Double(values[0]);
-                    Double intensity = new Double(values[1]);
-                    spectrum.put(mz, new Peak(mz, intensity));
+                    double mz = Double.parseDouble(values[0]);
+                    double intensity = Double.parseDouble(values[1]);
+                    if (nPeaks == mzArray.length) {
+                        mzArray = Arrays.copyOf(mzArray, 2 * nPeaks);
+                        intensityArray = Arrays.copyOf(intensityArray, 2 * nPeaks);
+                    }
+                    mzArray[nPeaks] = mz;
+                    intensityArray[nPeaks++] = intensity;
                 } catch (Exception e1) {
                     // ignore comments and all other lines
                 }
@@ -193,6 +220,139 @@ public class MgfReader {
         return getIndexMap(mgfFile, null);
     }
 
+    /**
+     * Returns the index of all spectra in the given MGF file. The file is
+     * split in chunks on "BEGIN IONS" lines which are indexed in parallel and
+     * merged into an index with the same content as the one of
+     * getIndexMap(File, WaitingHandler).
+     *
+     * @param mgfFile the given MGF file
+     * @param waitingHandler a waitingHandler showing the progress
+     * @param nThreads the number of threads to use
+     * @return the index of all spectra
+     * @throws FileNotFoundException Exception thrown whenever the file is not
+     * found
+     * @throws IOException Exception thrown whenever an error occurs while
+     * reading the file
+     */
+    public static MgfIndex getIndexMap(File mgfFile, WaitingHandler waitingHandler, int nThreads) throws FileNotFoundException, IOException {
+        long chunkSize = Math.max(mgfFile.length() / Math.max(nThreads, 1) + 1, MIN_INDEX_CHUNK_SIZE);
+        return getIndexMap(mgfFile, waitingHandler, nThreads, chunkSize);
+    }
+
+    /**
+     * Returns the index of all spectra in the given MGF file. The file is
+     * split in chunks of approximately the given size on "BEGIN IONS" lines
+     * which are indexed in parallel and merged into an index with the same
+     * content as the one of getIndexMap(File, WaitingHandler).
+     *
+     * @param mgfFile the given MGF file
+     * @param waitingHandler a waitingHandler showing the progress
+     * @param nThreads the number of threads to use
+     * @param chunkSize the size of the chunks in bytes
+     * @return the index of all spectra
+     * @throws FileNotFoundException Exception thrown whenever the file is not
+     * found
+     * @throws IOException Exception thrown whenever an error occurs while
+     * reading the file
+     */
+    public static MgfIndex getIndexMap(File mgfFile, WaitingHandler waitingHandler, int nThreads, long chunkSize) throws FileNotFoundException, IOException {
+
+        if (!mgfFile.isFile()) {
+            throw new FileNotFoundException(mgfFile.getAbsolutePath() + " not found.");
+        }
+
+        long fileLength = mgfFile.length();
+        int nChunks = (int) Math.max((fileLength + chunkSize - 1) / chunkSize, 1);
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(100);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        ArrayList<ChunkIndex> chunkIndexes = new ArrayList<ChunkIndex>(nChunks);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(Math.min(nThreads, nChunks), 1));
+        try {
+            ArrayList<Future<ChunkIndex>> futures = new ArrayList<Future<ChunkIndex>>(nChunks);
+            for (int i = 0; i < nChunks; i++) {
+                long start = i * chunkSize;
+                long end = i == nChunks - 1 ? fileLength : Math.min((i + 1) * chunkSize, fileLength);
+                futures.add(pool.submit(new ChunkIndexer(mgfFile, start, end, waitingHandler, fileLength / 100)));
+            }
+            for (Future<ChunkIndex> future : futures) {
+                chunkIndexes.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while indexing " + mgfFile.getName() + ".");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("An error occurred while indexing " + mgfFile.getName() + ": " + cause.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        HashMap<String, Long> indexes = new HashMap<String, Long>();
+        HashMap<String, Integer> spectrumIndexes = new HashMap<String, Integer>();
+        HashMap<Integer, Double> precursorMzMap = new HashMap<Integer, Double>();
+        LinkedHashSet<String> spectrumTitles = new LinkedHashSet<String>();
+        HashMap<String, Integer> duplicateTitles = new HashMap<String, Integer>();
+        int spectrumCounter = 0;
+        double maxRT = -1, minRT = Double.MAX_VALUE, maxMz = -1, maxIntensity = 0;
+        int maxCharge = 0, maxPeakCount = 0;
+        boolean peakPicked = true;
+        boolean precursorChargesMissing = false;
+
+        for (ChunkIndex chunkIndex : chunkIndexes) {
+
+            for (int i = 0; i < chunkIndex.titles.size(); i++) {
+                String title = chunkIndex.titles.get(i);
+                Integer nDuplicates = duplicateTitles.get(title);
+                if (nDuplicates != null || spectrumTitles.contains(title)) {
+                    if (nDuplicates == null) {
+                        nDuplicates = 0;
+                        System.err.println("Warning: Spectrum title " + title + " is not unique in " + mgfFile.getName() + "!");
+                    }
+                    duplicateTitles.put(title, ++nDuplicates);
+                    title += "_" + nDuplicates;
+                }
+                spectrumTitles.add(title);
+                indexes.put(title, chunkIndex.titleIndexes.get(i));
+                spectrumIndexes.put(title, spectrumCounter + chunkIndex.titleSpectrumNumbers.get(i));
+            }
+            for (Integer spectrumNumber : chunkIndex.precursorMzMap.keySet()) {
+                precursorMzMap.put(spectrumCounter + spectrumNumber, chunkIndex.precursorMzMap.get(spectrumNumber));
+            }
+
+            spectrumCounter += chunkIndex.nSpectra;
+            maxRT = Math.max(maxRT, chunkIndex.maxRT);
+            minRT = Math.min(minRT, chunkIndex.minRT);
+            maxMz = Math.max(maxMz, chunkIndex.maxMz);
+            maxIntensity = Math.max(maxIntensity, chunkIndex.maxIntensity);
+            maxCharge = Math.max(maxCharge, chunkIndex.maxCharge);
+            maxPeakCount = Math.max(maxPeakCount, chunkIndex.maxPeakCount);
+            peakPicked &= chunkIndex.peakPicked;
+            precursorChargesMissing |= chunkIndex.precursorChargesMissing;
+        }
+
+        if (minRT == Double.MAX_VALUE) {
+            minRT = 0;
+        }
+
+        return new MgfIndex(new ArrayList<String>(spectrumTitles), duplicateTitles, indexes, spectrumIndexes, precursorMzMap, mgfFile.getName(), minRT, maxRT,
+                maxMz, maxIntensity, maxCharge, maxPeakCount, peakPicked, precursorChargesMissing, mgfFile.lastModified(), spectrumCounter);
+    }
+
     /**
      * Returns the index of all spectra in the given MGF file.
      *
@@ -1042,18 +1202,63 @@ public class MgfReader {
      * @throws IllegalArgumentException Exception thrown whenever the file is
      * not of a compatible format
      */
-    public static MSnSpectrum getSpectrum(BufferedRandomAccessFile bufferedRandomAccessFile, long index, String fileName) throws IOException, IllegalArgumentException {
+    public static MSnSpectrum getSpectrum(final BufferedRandomAccessFile bufferedRandomAccessFile, long index, String fileName) throws IOException, IllegalArgumentException {
 
         // @TODO get fileName from the random access file?
         bufferedRandomAccessFile.seek(index);
+        return getSpectrum(new LineSource() {
+            @Override
+            public String getNextLine() throws IOException {
+                return bufferedRandomAccessFile.getNextLine();
+            }
+        }, fileName);
+    }
+
+    /**
+     * Returns the spectrum starting at the given index of a memory mapped mgf
+     * file. The mapped file is not modified, this method can be called
+     * concurrently.
+     *
+     * @param mappedMgfFile the memory mapped mgf file
+     * @param index the index where to start looking for the spectrum
+     * @param fileName the name of the mgf file
+     *
+     * @return the next spectrum encountered
+     *
+     * @throws IOException exception thrown whenever an error is encountered
+     * while reading the spectrum
+     * @throws IllegalArgumentException exception thrown whenever the file is
+     * not of a compatible format
+     */
+    public static MSnSpectrum getSpectrum(MappedMgfFile mappedMgfFile, long index, String fileName) throws IOException, IllegalArgumentException {
+        return getSpectrum(getLineSource(mappedMgfFile, index), fileName);
+    }
+
+    /**
+     * Returns the next spectrum given by the line source.
+     *
+     * @param lineSource the source of the lines of the mgf file
+     * @param fileName the name of the mgf file
+     *
+     * @return the next spectrum encountered
+     *
+     * @throws IOException exception thrown whenever an error is encountered
+     * while reading the spectrum
+     * @throws IllegalArgumentException exception thrown whenever the file is
+     * not of a compatible format
+     */
+    private static MSnSpectrum getSpectrum(LineSource lineSource, String fileName) throws IOException, IllegalArgumentException {
+
         double precursorMz = 0, precursorIntensity = 0, rt = -1.0, rt1 = -1, rt2 = -1;
         ArrayList<Charge> precursorCharges = new ArrayList<Charge>();
         String scanNumber = "", spectrumTitle = "";
-        HashMap<Double, Peak> spectrum = new HashMap<Double, Peak>();
+        double[] mzArray = new double[INITIAL_PEAK_CAPACITY];
+        double[] intensityArray = new double[INITIAL_PEAK_CAPACITY];
+        int nPeaks = 0;
         String line;
         boolean insideSpectrum = false;
 
-        while ((line = bufferedRandomAccessFile.getNextLine()) != null) {
+        while ((line = lineSource.getNextLine()) != null) {
 
             // fix for lines ending with \r
             if (line.endsWith("\r")) {
@@ -1062,7 +1267,7 @@ public class MgfReader {
             
             if (line.startsWith("BEGIN IONS")) {
                 insideSpectrum = true;
-                spectrum = new HashMap<Double, Peak>();
+                nPeaks = 0;
             } else if (line.startsWith("TITLE")) {
                 insideSpectrum = true;
                 spectrumTitle = line.substring(line.indexOf('=') + 1);
@@ -1131,15 +1336,20 @@ public class MgfReader {
                 } else {
                     precursor = new Precursor(rt, precursorMz, precursorIntensity, precursorCharges);
                 }
-                MSnSpectrum msnSpectrum = new MSnSpectrum(2, precursor, spectrumTitle, spectrum, fileName);
+                MSnSpectrum msnSpectrum = new MSnSpectrum(2, precursor, spectrumTitle, new PeakArrays(mzArray, intensityArray, nPeaks, false), fileName);
                 msnSpectrum.setScanNumber(scanNumber);
                 return msnSpectrum;
             } else if (insideSpectrum && !line.equals("")) {
                 try {
                     String values[] = line.split("\\s+");
-                    Double mz = new Double(values[0]);
-                    Double intensity = new Double(values[1]);
-                    spectrum.put(mz, new Peak(mz, intensity));
+                    double mz = Double.parseDouble(values[0]);
+                    double intensity = Double.parseDouble(values[1]);
+                    if (nPeaks == mzArray.length) {
+                        mzArray = Arrays.copyOf(mzArray, 2 * nPeaks);
+                        intensityArray = Arrays.copyOf(intensityArray, 2 * nPeaks);
+                    }
+                    mzArray[nPeaks] = mz;
+                    intensityArray[nPeaks++] = intensity;
                 } catch (Exception e1) {
                     // ignore comments and all other lines
                 }
@@ -1213,15 +1423,58 @@ public class MgfReader {
      * @throws IllegalArgumentException Exception thrown whenever the file is
      * not of a compatible format
      */
-    public static Precursor getPrecursor(BufferedRandomAccessFile bufferedRandomAccessFile, Long index, String fileName) throws IOException, IllegalArgumentException {
+    public static Precursor getPrecursor(final BufferedRandomAccessFile bufferedRandomAccessFile, Long index, String fileName) throws IOException, IllegalArgumentException {
 
         // @TODO: get fileName from the random access file?
         bufferedRandomAccessFile.seek(index);
+        return getPrecursor(new LineSource() {
+            @Override
+            public String getNextLine() throws IOException {
+                return bufferedRandomAccessFile.getNextLine();
+            }
+        }, fileName);
+    }
+
+    /**
+     * Returns the precursor of the spectrum starting at the given index of a
+     * memory mapped mgf file. The mapped file is not modified, this method can
+     * be called concurrently.
+     *
+     * @param mappedMgfFile the memory mapped mgf file
+     * @param index the index where to start looking for the spectrum
+     * @param fileName the name of the mgf file
+     *
+     * @return the precursor of the next spectrum encountered
+     *
+     * @throws IOException exception thrown whenever an error is encountered
+     * while reading the spectrum
+     * @throws IllegalArgumentException exception thrown whenever the file is
+     * not of a compatible format
+     */
+    public static Precursor getPrecursor(MappedMgfFile mappedMgfFile, long index, String fileName) throws IOException, IllegalArgumentException {
+        return getPrecursor(getLineSource(mappedMgfFile, index), fileName);
+    }
+
+    /**
+     * Returns the precursor of the next spectrum given by the line source.
+     *
+     * @param lineSource the source of the lines of the mgf file
+     * @param fileName the name of the mgf file
+     *
+     * @return the precursor of the next spectrum encountered
+     *
+     * @throws IOException exception thrown whenever an error is encountered
+     * while reading the spectrum
+     * @throws IllegalArgumentException exception thrown whenever the file is
+     * not of a compatible format
+     */
+    private static Precursor getPrecursor(LineSource lineSource, String fileName) throws IOException, IllegalArgumentException {
+
         String line, title = null;
         double precursorMz = 0, precursorIntensity = 0, rt = -1.0, rt1 = -1, rt2 = -1;
         ArrayList<Charge> precursorCharges = new ArrayList<Charge>(1);
 
-        while ((line = bufferedRandomAccessFile.getNextLine()) != null) {
+        while ((line = lineSource.getNextLine()) != null) {
             
             // fix for lines ending with \r
             if (line.endsWith("\r")) {
@@ -1278,6 +1531,41 @@ public class MgfReader {
         throw new IllegalArgumentException("End of the file reached before encountering the tag \"END IONS\". File: " + fileName + ", title: " + title);
     }
 
+    /**
+     * Returns a line source reading a memory mapped mgf file from the given
+     * index.
+     *
+     * @param mappedMgfFile the memory mapped mgf file
+     * @param index the index where to start reading
+     *
+     * @return a line source reading the file from the given index
+     */
+    private static LineSource getLineSource(MappedMgfFile mappedMgfFile, long index) {
+        final MappedMgfFile.LineReader lineReader = mappedMgfFile.getLineReader(index);
+        return new LineSource() {
+            @Override
+            public String getNextLine() throws IOException {
+                return lineReader.getNextLine();
+            }
+        };
+    }
+
+    /**
+     * Source of the lines of an mgf file.
+     */
+    private interface LineSource {
+
+        /**
+         * Returns the next line, null if the end of the file is reached.
+         *
+         * @return the next line
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the file
+         */
+        String getNextLine() throws IOException;
+    }
+
     /**
      * Writes an apl file from an MGF file. @TODO: move to
      * massspectrometry.export
@@ -1339,4 +1627,484 @@ public class MgfReader {
         mgfRFile.close();
         aplWriter.close();
     }
+
+    /**
+     * The partial index of a chunk of an mgf file. The spectrum numbers are
+     * relative to the first spectrum of the chunk.
+     */
+    private static class ChunkIndex {
+
+        /**
+         * The number of spectra in the chunk.
+         */
+        private int nSpectra = 0;
+        /**
+         * The titles found in the chunk, before renaming of the duplicates.
+         */
+        private final ArrayList<String> titles = new ArrayList<String>();
+        /**
+         * The index in the file of the spectrum of every title.
+         */
+        private final ArrayList<Long> titleIndexes = new ArrayList<Long>();
+        /**
+         * The number of the spectrum of every title.
+         */
+        private final ArrayList<Integer> titleSpectrumNumbers = new ArrayList<Integer>();
+        /**
+         * The precursor m/z indexed by spectrum number.
+         */
+        private final HashMap<Integer, Double> precursorMzMap = new HashMap<Integer, Double>();
+        /**
+         * The maximal retention time.
+         */
+        private double maxRT = -1;
+        /**
+         * The minimal retention time.
+         */
+        private double minRT = Double.MAX_VALUE;
+        /**
+         * The maximal precursor m/z.
+         */
+        private double maxMz = -1;
+        /**
+         * The maximal precursor intensity.
+         */
+        private double maxIntensity = 0;
+        /**
+         * The maximal precursor charge.
+         */
+        private int maxCharge = 0;
+        /**
+         * The maximal number of peaks in a spectrum.
+         */
+        private int maxPeakCount = 0;
+        /**
+         * Indicates whether no peak of zero intensity was found.
+         */
+        private boolean peakPicked = true;
+        /**
+         * Indicates whether a spectrum without charge was found.
+         */
+        private boolean precursorChargesMissing = false;
+    }
+
+    /**
+     * Indexes a chunk of an mgf file. The chunk goes from the first "BEGIN
+     * IONS" line starting at or after the start of the chunk, or from the
+     * start of the file for the first chunk, to the first "BEGIN IONS" line
+     * starting at or after the end of the chunk. The lines are parsed at the
+     * byte level, strings are only created for the header lines.
+     */
+    private static class ChunkIndexer implements Callable<ChunkIndex> {
+
+        /**
+         * The "BEGIN IONS" tag.
+         */
+        private static final byte[] BEGIN_IONS = "BEGIN IONS".getBytes();
+        /**
+         * The "END IONS" tag.
+         */
+        private static final byte[] END_IONS = "END IONS".getBytes();
+        /**
+         * The "TITLE" tag.
+         */
+        private static final byte[] TITLE = "TITLE".getBytes();
+        /**
+         * The "CHARGE" tag.
+         */
+        private static final byte[] CHARGE = "CHARGE".getBytes();
+        /**
+         * The "PEPMASS" tag.
+         */
+        private static final byte[] PEPMASS = "PEPMASS".getBytes();
+        /**
+         * The "RTINSECONDS" tag.
+         */
+        private static final byte[] RTINSECONDS = "RTINSECONDS".getBytes();
+        /**
+         * The mgf file.
+         */
+        private final File mgfFile;
+        /**
+         * The start of the chunk.
+         */
+        private final long start;
+        /**
+         * The end of the chunk.
+         */
+        private final long end;
+        /**
+         * The waiting handler, can be null.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The number of bytes corresponding to one percent of progress.
+         */
+        private final long progressUnit;
+        /**
+         * The buffer.
+         */
+        private byte[] buffer = new byte[INDEX_BUFFER_SIZE];
+        /**
+         * The position in the file of the first byte of the buffer.
+         */
+        private long bufferOffset;
+        /**
+         * The number of bytes in the buffer.
+         */
+        private int bufferLength = 0;
+        /**
+         * The position in the buffer of the next line.
+         */
+        private int position = 0;
+        /**
+         * The start in the buffer of the current line.
+         */
+        private int lineStart;
+        /**
+         * The end in the buffer of the current line, without line terminator.
+         */
+        private int lineEnd;
+
+        /**
+         * Constructor.
+         *
+         * @param mgfFile the mgf file
+         * @param start the start of the chunk
+         * @param end the end of the chunk
+         * @param waitingHandler the waiting handler, can be null
+         * @param progressUnit the number of bytes corresponding to one
+         * percent of progress
+         */
+        public ChunkIndexer(File mgfFile, long start, long end, WaitingHandler waitingHandler, long progressUnit) {
+            this.mgfFile = mgfFile;
+            this.start = start;
+            this.end = end;
+            this.waitingHandler = waitingHandler;
+            this.progressUnit = progressUnit;
+        }
+
+        @Override
+        public ChunkIndex call() throws IOException {
+
+            ChunkIndex chunkIndex = new ChunkIndex();
+            RandomAccessFile randomAccessFile = new RandomAccessFile(mgfFile, "r");
+
+            try {
+
+                boolean lineFound;
+                if (start == 0) {
+                    bufferOffset = 0;
+                    randomAccessFile.seek(0);
+                    lineFound = nextLine(randomAccessFile);
+                } else {
+                    // skip to the next line start, then to the first spectrum
+                    bufferOffset = start - 1;
+                    randomAccessFile.seek(bufferOffset);
+                    nextLine(randomAccessFile);
+                    while ((lineFound = nextLine(randomAccessFile)) && !lineEquals(BEGIN_IONS)) {
+                    }
+                }
+
+                long currentIndex = 0, reportedIndex = start;
+                String title = null;
+                int peakCount = 0;
+                boolean insideSpectrum = false;
+                boolean chargeTagFound = false;
+
+                for (; lineFound; lineFound = nextLine(randomAccessFile)) {
+
+                    if (lineEquals(BEGIN_IONS)) {
+                        if (bufferOffset + lineStart >= end) {
+                            break;
+                        }
+                        insideSpectrum = true;
+                        chargeTagFound = false;
+                        currentIndex = bufferOffset + position;
+                        chunkIndex.nSpectra++;
+                        peakCount = 0;
+                        if (waitingHandler != null) {
+                            if (waitingHandler.isRunCanceled()) {
+                                break;
+                            }
+                            if (progressUnit > 0 && currentIndex - reportedIndex >= progressUnit) {
+                                int progress = (int) ((currentIndex - reportedIndex) / progressUnit);
+                                reportedIndex += progress * progressUnit;
+                                synchronized (waitingHandler) {
+                                    waitingHandler.increaseSecondaryProgressCounter(progress);
+                                }
+                            }
+                        }
+                    } else if (lineStartsWith(TITLE)) {
+                        String line = getLine();
+                        title = line.substring(line.indexOf('=') + 1);
+                        try {
+                            title = URLDecoder.decode(title, "utf-8");
+                        } catch (UnsupportedEncodingException e) {
+                            if (waitingHandler != null) {
+                                synchronized (waitingHandler) {
+                                    waitingHandler.appendReport("An exception was thrown when trying to decode an mgf title: " + title, true, true);
+                                }
+                            }
+                            System.out.println("An exception was thrown when trying to decode an mgf title: " + title);
+                            e.printStackTrace();
+                        }
+                        chunkIndex.titles.add(title);
+                        chunkIndex.titleIndexes.add(currentIndex);
+                        chunkIndex.titleSpectrumNumbers.add(chunkIndex.nSpectra - 1);
+                    } else if (lineStartsWith(CHARGE)) {
+                        ArrayList<Charge> precursorCharges = parseCharges(getLine());
+                        for (Charge charge : precursorCharges) {
+                            if (charge.value > chunkIndex.maxCharge) {
+                                chunkIndex.maxCharge = charge.value;
+                            }
+                        }
+                        chargeTagFound = true;
+                    } else if (lineStartsWith(PEPMASS)) {
+                        String line = getLine();
+                        String temp = line.substring(line.indexOf("=") + 1);
+                        String[] values = temp.split("\\s");
+                        double precursorMz = Double.parseDouble(values[0]);
+                        if (precursorMz > chunkIndex.maxMz) {
+                            chunkIndex.maxMz = precursorMz;
+                        }
+                        if (values.length > 1) {
+                            double precursorIntensity = Double.parseDouble(values[1]);
+                            if (precursorIntensity > chunkIndex.maxIntensity) {
+                                chunkIndex.maxIntensity = precursorIntensity;
+                            }
+                        }
+                        chunkIndex.precursorMzMap.put(chunkIndex.nSpectra - 1, precursorMz);
+                    } else if (lineStartsWith(RTINSECONDS)) {
+                        parseRetentionTime(getLine(), chunkIndex);
+                    } else if (lineStartsWith(END_IONS)) {
+                        insideSpectrum = false;
+                        if (title != null && peakCount > chunkIndex.maxPeakCount) {
+                            chunkIndex.maxPeakCount = peakCount;
+                        }
+                        title = null;
+                        if (!chargeTagFound) {
+                            chunkIndex.precursorChargesMissing = true;
+                        }
+                    } else if (insideSpectrum && lineEnd > lineStart) {
+                        int intensityStart = lineStart;
+                        if (!isWhiteSpace(buffer[intensityStart])) {
+                            while (intensityStart < lineEnd && !isWhiteSpace(buffer[intensityStart])) {
+                                intensityStart++;
+                            }
+                        }
+                        while (intensityStart < lineEnd && isWhiteSpace(buffer[intensityStart])) {
+                            intensityStart++;
+                        }
+                        int intensityEnd = intensityStart;
+                        while (intensityEnd < lineEnd && !isWhiteSpace(buffer[intensityEnd])) {
+                            intensityEnd++;
+                        }
+                        int zero = parseZero(intensityStart, intensityEnd);
+                        if (zero >= 0) {
+                            if (zero == 1) {
+                                chunkIndex.peakPicked = false;
+                            }
+                            peakCount++;
+                        }
+                    }
+                }
+
+            } finally {
+                randomAccessFile.close();
+            }
+
+            return chunkIndex;
+        }
+
+        /**
+         * Parses the retention time line and updates the retention time range
+         * of the chunk index.
+         *
+         * @param line the retention time line
+         * @param chunkIndex the chunk index
+         */
+        private void parseRetentionTime(String line, ChunkIndex chunkIndex) {
+            String rtInput = "";
+            try {
+                rtInput = line.substring(line.indexOf('=') + 1);
+                String[] rtWindow = rtInput.split("-");
+                if (rtWindow.length == 1) {
+                    String tempRt = rtWindow[0];
+                    // possible fix for values like RTINSECONDS=PT121.250000S
+                    if (tempRt.startsWith("PT") && tempRt.endsWith("S")) {
+                        tempRt = tempRt.substring(2, tempRt.length() - 1);
+                    }
+                    updateRetentionTime(new Double(tempRt), chunkIndex);
+                } else if (rtWindow.length == 2 && !rtWindow[0].equals("")) {
+                    updateRetentionTime(new Double(rtWindow[0]), chunkIndex);
+                    updateRetentionTime(new Double(rtWindow[1]), chunkIndex);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Cannot parse retention time: " + rtInput);
+            }
+        }
+
+        /**
+         * Updates the retention time range of the chunk index.
+         *
+         * @param rt a retention time
+         * @param chunkIndex the chunk index
+         */
+        private void updateRetentionTime(double rt, ChunkIndex chunkIndex) {
+            if (rt > chunkIndex.maxRT) {
+                chunkIndex.maxRT = rt;
+            }
+            if (rt < chunkIndex.minRT) {
+                chunkIndex.minRT = rt;
+            }
+        }
+
+        /**
+         * Moves to the next line, reading from the file when needed.
+         *
+         * @param randomAccessFile the file
+         *
+         * @return true if a line was found
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the file
+         */
+        private boolean nextLine(RandomAccessFile randomAccessFile) throws IOException {
+            int newLine = position;
+            while (true) {
+                while (newLine < bufferLength && buffer[newLine] != '\n') {
+                    newLine++;
+                }
+                if (newLine < bufferLength) {
+                    break;
+                }
+                // move the current line to the start of the buffer and read
+                int lineLength = bufferLength - position;
+                if (position > 0) {
+                    System.arraycopy(buffer, position, buffer, 0, lineLength);
+                    bufferOffset += position;
+                    position = 0;
+                    newLine = lineLength;
+                    bufferLength = lineLength;
+                } else if (bufferLength == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                }
+                int nRead = randomAccessFile.read(buffer, bufferLength, buffer.length - bufferLength);
+                if (nRead <= 0) {
+                    if (bufferLength == position) {
+                        return false;
+                    }
+                    // last line without line terminator
+                    break;
+                }
+                bufferLength += nRead;
+            }
+            lineStart = position;
+            lineEnd = newLine;
+            position = newLine < bufferLength ? newLine + 1 : newLine;
+            if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            return true;
+        }
+
+        /**
+         * Indicates whether the current line equals the given tag.
+         *
+         * @param tag the tag
+         *
+         * @return true if the current line equals the given tag
+         */
+        private boolean lineEquals(byte[] tag) {
+            return lineEnd - lineStart == tag.length && lineStartsWith(tag);
+        }
+
+        /**
+         * Indicates whether the current line starts with the given tag.
+         *
+         * @param tag the tag
+         *
+         * @return true if the current line starts with the given tag
+         */
+        private boolean lineStartsWith(byte[] tag) {
+            if (lineEnd - lineStart < tag.length) {
+                return false;
+            }
+            for (int i = 0; i < tag.length; i++) {
+                if (buffer[lineStart + i] != tag[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the current line as a string, carriage returns are removed.
+         *
+         * @return the current line
+         *
+         * @throws UnsupportedEncodingException if the line cannot be decoded
+         */
+        private String getLine() throws UnsupportedEncodingException {
+            String line = new String(buffer, lineStart, lineEnd - lineStart, "UTF-8");
+            if (line.indexOf('\r') >= 0) {
+                line = line.replace("\r", "");
+            }
+            return line;
+        }
+
+        /**
+         * Indicates whether a byte is a white space as matched by the \s
+         * regular expression.
+         *
+         * @param value the byte
+         *
+         * @return true if the byte is a white space
+         */
+        private static boolean isWhiteSpace(byte value) {
+            return value == ' ' || value == '\t' || value == '\r' || value == '\f' || value == 0x0B;
+        }
+
+        /**
+         * Parses the number between the given positions of the buffer.
+         *
+         * @param from the start of the number
+         * @param to the end of the number
+         *
+         * @return -1 if the number cannot be parsed, 1 if it is zero, 0
+         * otherwise
+         */
+        private int parseZero(int from, int to) {
+            if (from == to) {
+                return -1;
+            }
+            int i = from;
+            if (buffer[i] == '+' || buffer[i] == '-') {
+                i++;
+            }
+            int nDigits = 0;
+            boolean zero = true, point = false, simple = to - from < 300;
+            for (; i < to && simple; i++) {
+                byte value = buffer[i];
+                if (value >= '0' && value <= '9') {
+                    nDigits++;
+                    zero &= value == '0';
+                } else if (value == '.' && !point) {
+                    point = true;
+                } else {
+                    simple = false;
+                }
+            }
+            if (simple && nDigits > 0) {
+                return zero ? 1 : 0;
+            }
+            // other number formats, e.g. with exponent
+            try {
+                return Double.parseDouble(new String(buffer, from, to - from, "ISO-8859-1")) == 0 ? 1 : 0;
+            } catch (Exception e) {
+                return -1;
+            }
+        }
+    }
 }
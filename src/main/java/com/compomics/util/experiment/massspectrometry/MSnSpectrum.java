@@ -78,6 +78,23 @@ public class MSnSpectrum extends Spectrum {
         this.scanStartTime = scanStartTime;
     }
 
+    /**
+     * Constructor for a spectrum backed by peak arrays.
+     *
+     * @param level MS level
+     * @param precursor precursor
+     * @param spectrumTitle spectrum title
+     * @param peakArrays the peaks in arrays sorted by m/z
+     * @param fileName file name
+     */
+    public MSnSpectrum(int level, Precursor precursor, String spectrumTitle, PeakArrays peakArrays, String fileName) {
+        this.level = level;
+        this.precursor = precursor;
+        this.spectrumTitle = spectrumTitle;
+        this.peakArrays = peakArrays;
+        this.fileName = fileName;
+    }
+
     /**
      * Returns the precursor.
      *
@@ -157,15 +174,13 @@ public class MSnSpectrum extends Spectrum {
             results.append("SCANS=").append(scanNumber).append(lineBreak);
         }
 
-        // add the values to a tree map to get them sorted in mz    
-        TreeMap<Double, Double> sortedPeakList = new TreeMap<Double, Double>();
-
-        for (Peak peak : peakList.values()) {
-            sortedPeakList.put(peak.mz, peak.intensity);
-        }
+        // the peak arrays are sorted by m/z
+        PeakArrays currentPeakArrays = getPeakArrays();
 
-        for (Map.Entry<Double, Double> entry : sortedPeakList.entrySet()) {
-            results.append(entry.getKey()).append(" ").append(entry.getValue()).append(lineBreak);
+        if (currentPeakArrays != null) {
+            for (int i = 0; i < currentPeakArrays.size(); i++) {
+                results.append(currentPeakArrays.getMz(i)).append(" ").append(currentPeakArrays.getIntensity(i)).append(lineBreak);
+            }
         }
 
         results.append("END IONS").append(lineBreak).append(lineBreak);
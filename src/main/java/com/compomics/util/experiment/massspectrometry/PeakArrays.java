@@ -0,0 +1,399 @@
+package com.compomics.util.experiment.massspectrometry;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Compact peak list where the m/z and intensity of the peaks are stored in
+ * parallel arrays sorted by m/z. Compared to a map of Peak objects indexed by
+ * m/z, it takes a fraction of the memory and allows binary search based range
+ * queries. The intensities can be stored as floats to further reduce memory.
+ *
+ * @author Marc Vaudel
+ */
+public class PeakArrays implements Serializable {
+
+    /**
+     * The version UID for Serialization/Deserialization compatibility.
+     */
+    static final long serialVersionUID = -3530215394213950683L;
+    /**
+     * The m/z of the peaks in ascending order.
+     */
+    private final double[] mz;
+    /**
+     * The intensities of the peaks, null if stored as floats.
+     */
+    private final double[] intensity;
+    /**
+     * The intensities of the peaks stored as floats, null if stored as
+     * doubles.
+     */
+    private final float[] intensityFloat;
+
+    /**
+     * Constructor. The peaks do not need to be sorted, when an m/z is found
+     * multiple times the last peak is retained like when adding the peaks to a
+     * map.
+     *
+     * @param mz the m/z of the peaks
+     * @param intensity the intensities of the peaks
+     * @param nPeaks the number of peaks to take from the arrays
+     * @param floatIntensities if true the intensities are stored as floats
+     */
+    public PeakArrays(double[] mz, double[] intensity, int nPeaks, boolean floatIntensities) {
+
+        boolean sorted = true;
+        for (int i = 1; i < nPeaks && sorted; i++) {
+            sorted = mz[i - 1] < mz[i];
+        }
+
+        int[] order = null;
+        int size = nPeaks;
+        if (!sorted) {
+            order = getOrder(mz, nPeaks);
+            size = order.length;
+        }
+
+        this.mz = new double[size];
+        if (floatIntensities) {
+            intensityFloat = new float[size];
+            this.intensity = null;
+        } else {
+            this.intensity = new double[size];
+            intensityFloat = null;
+        }
+        for (int i = 0; i < size; i++) {
+            int index = order == null ? i : order[i];
+            this.mz[i] = mz[index];
+            if (floatIntensities) {
+                intensityFloat[i] = (float) intensity[index];
+            } else {
+                this.intensity[i] = intensity[index];
+            }
+        }
+    }
+
+    /**
+     * Constructor from a map of peaks indexed by m/z.
+     *
+     * @param peakMap the peaks indexed by m/z
+     * @param floatIntensities if true the intensities are stored as floats
+     */
+    public PeakArrays(HashMap<Double, Peak> peakMap, boolean floatIntensities) {
+        this(getMz(peakMap), getIntensities(peakMap), peakMap.size(), floatIntensities);
+    }
+
+    /**
+     * Returns the indexes of the peaks ordered by m/z, if an m/z is found
+     * multiple times only the last index is kept.
+     *
+     * @param mz the m/z of the peaks
+     * @param nPeaks the number of peaks
+     *
+     * @return the indexes of the peaks ordered by m/z
+     */
+    private static int[] getOrder(double[] mz, int nPeaks) {
+        int[] indexes = new int[nPeaks];
+        for (int i = 0; i < nPeaks; i++) {
+            indexes[i] = i;
+        }
+        mergeSort(mz, indexes, new int[nPeaks], 0, nPeaks);
+        int[] order = new int[nPeaks];
+        int size = 0;
+        for (int i = 0; i < nPeaks; i++) {
+            if (size > 0 && mz[order[size - 1]] == mz[indexes[i]]) {
+                order[size - 1] = indexes[i];
+            } else {
+                order[size++] = indexes[i];
+            }
+        }
+        return size == nPeaks ? order : Arrays.copyOf(order, size);
+    }
+
+    /**
+     * Stable sort of the indexes of the peaks by m/z between the given
+     * positions.
+     *
+     * @param mz the m/z of the peaks
+     * @param indexes the indexes of the peaks
+     * @param buffer a buffer of the same size as the indexes
+     * @param from the first position, inclusive
+     * @param to the last position, exclusive
+     */
+    private static void mergeSort(double[] mz, int[] indexes, int[] buffer, int from, int to) {
+
+        if (to - from < 16) {
+            for (int i = from + 1; i < to; i++) {
+                int index = indexes[i];
+                int j = i;
+                while (j > from && Double.compare(mz[indexes[j - 1]], mz[index]) > 0) {
+                    indexes[j] = indexes[j - 1];
+                    j--;
+                }
+                indexes[j] = index;
+            }
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        mergeSort(mz, indexes, buffer, from, middle);
+        mergeSort(mz, indexes, buffer, middle, to);
+
+        if (Double.compare(mz[indexes[middle - 1]], mz[indexes[middle]]) <= 0) {
+            return;
+        }
+
+        System.arraycopy(indexes, from, buffer, from, to - from);
+        int i = from, j = middle, k = from;
+        while (i < middle && j < to) {
+            if (Double.compare(mz[buffer[j]], mz[buffer[i]]) < 0) {
+                indexes[k++] = buffer[j++];
+            } else {
+                indexes[k++] = buffer[i++];
+            }
+        }
+        while (i < middle) {
+            indexes[k++] = buffer[i++];
+        }
+        while (j < to) {
+            indexes[k++] = buffer[j++];
+        }
+    }
+
+    /**
+     * Returns the m/z of the peaks of a map. Like the peak map accessors of
+     * the spectrum, the m/z are taken from the keys of the map.
+     *
+     * @param peakMap the peaks indexed by m/z
+     *
+     * @return the m/z of the peaks
+     */
+    private static double[] getMz(HashMap<Double, Peak> peakMap) {
+        double[] result = new double[peakMap.size()];
+        int i = 0;
+        for (Double mz : peakMap.keySet()) {
+            result[i++] = mz;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the intensities of the peaks of a map in the same order as
+     * getMz.
+     *
+     * @param peakMap the peaks indexed by m/z
+     *
+     * @return the intensities of the peaks
+     */
+    private static double[] getIntensities(HashMap<Double, Peak> peakMap) {
+        double[] result = new double[peakMap.size()];
+        int i = 0;
+        for (Peak peak : peakMap.values()) {
+            result[i++] = peak.intensity;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of peaks.
+     *
+     * @return the number of peaks
+     */
+    public int size() {
+        return mz.length;
+    }
+
+    /**
+     * Returns the m/z of the peak at the given index.
+     *
+     * @param index the index of the peak
+     *
+     * @return the m/z of the peak
+     */
+    public double getMz(int index) {
+        return mz[index];
+    }
+
+    /**
+     * Returns the intensity of the peak at the given index.
+     *
+     * @param index the index of the peak
+     *
+     * @return the intensity of the peak
+     */
+    public double getIntensity(int index) {
+        return intensity != null ? intensity[index] : intensityFloat[index];
+    }
+
+    /**
+     * Returns the m/z of the peaks in ascending order. The array is backing
+     * this object and should not be modified.
+     *
+     * @return the m/z of the peaks in ascending order
+     */
+    public double[] getMzArray() {
+        return mz;
+    }
+
+    /**
+     * Returns the intensities of the peaks in the order of the m/z. If the
+     * intensities are stored as doubles the array is backing this object and
+     * should not be modified.
+     *
+     * @return the intensities of the peaks
+     */
+    public double[] getIntensityArray() {
+        if (intensity != null) {
+            return intensity;
+        }
+        double[] result = new double[intensityFloat.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = intensityFloat[i];
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new peak object for the peak at the given index.
+     *
+     * @param index the index of the peak
+     *
+     * @return the peak
+     */
+    public Peak getPeak(int index) {
+        return new Peak(mz[index], getIntensity(index));
+    }
+
+    /**
+     * Returns a new map of the peaks indexed by m/z.
+     *
+     * @return a map of the peaks indexed by m/z
+     */
+    public HashMap<Double, Peak> getPeakMap() {
+        HashMap<Double, Peak> result = new HashMap<Double, Peak>(mz.length);
+        for (int i = 0; i < mz.length; i++) {
+            result.put(mz[i], getPeak(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the index of the first peak with an m/z greater than or equal to
+     * the given m/z, the number of peaks if none.
+     *
+     * @param mzMin the minimal m/z
+     *
+     * @return the index of the first peak with an m/z greater than or equal to
+     * the given m/z
+     */
+    public int getLowerIndex(double mzMin) {
+        int low = 0, high = mz.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mz[middle] < mzMin) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the first peak with an m/z strictly greater than
+     * the given m/z, the number of peaks if none.
+     *
+     * @param mzMax the maximal m/z
+     *
+     * @return the index of the first peak with an m/z strictly greater than
+     * the given m/z
+     */
+    public int getUpperIndex(double mzMax) {
+        int low = 0, high = mz.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mz[middle] <= mzMax) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the most intense peak with an m/z between the given
+     * bounds (inclusive), -1 if none.
+     *
+     * @param mzMin the minimal m/z
+     * @param mzMax the maximal m/z
+     *
+     * @return the index of the most intense peak in the range
+     */
+    public int getMostIntenseIndex(double mzMin, double mzMax) {
+        int result = -1;
+        double maxIntensity = 0;
+        for (int i = getLowerIndex(mzMin); i < mz.length && mz[i] <= mzMax; i++) {
+            double peakIntensity = getIntensity(i);
+            if (result == -1 || peakIntensity > maxIntensity) {
+                result = i;
+                maxIntensity = peakIntensity;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the index of the peak with the m/z closest to the given m/z
+     * within the given tolerance, -1 if none.
+     *
+     * @param targetMz the m/z to look for
+     * @param tolerance the tolerance in m/z
+     *
+     * @return the index of the closest peak
+     */
+    public int getClosestIndex(double targetMz, double tolerance) {
+        int index = getLowerIndex(targetMz);
+        int result = -1;
+        double bestError = tolerance;
+        if (index < mz.length && mz[index] - targetMz <= bestError) {
+            result = index;
+            bestError = mz[index] - targetMz;
+        }
+        if (index > 0 && targetMz - mz[index - 1] <= bestError) {
+            result = index - 1;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the total intensity of the peaks.
+     *
+     * @return the total intensity
+     */
+    public double getTotalIntensity() {
+        double result = 0;
+        for (int i = 0; i < mz.length; i++) {
+            result += getIntensity(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the maximal intensity of the peaks, 0 if no peak.
+     *
+     * @return the maximal intensity
+     */
+    public double getMaxIntensity() {
+        double result = 0;
+        for (int i = 0; i < mz.length; i++) {
+            double peakIntensity = getIntensity(i);
+            if (peakIntensity > result) {
+                result = peakIntensity;
+            }
+        }
+        return result;
+    }
+}
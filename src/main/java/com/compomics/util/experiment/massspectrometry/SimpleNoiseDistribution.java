@@ -40,12 +40,27 @@ public class SimpleNoiseDistribution {
      * @throws MathException thrown if a math error occurs
      */
     public SimpleNoiseDistribution(HashMap<Double, Peak> peakList) throws MathException {
+        this(getIntensitiesLog(peakList));
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param peakArrays the peaks in arrays
+     * @throws MathException thrown if a math error occurs
+     */
+    public SimpleNoiseDistribution(PeakArrays peakArrays) throws MathException {
+        this(getIntensitiesLog(peakArrays));
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param intensitiesLog the log of the peak intensities
+     * @throws MathException thrown if a math error occurs
+     */
+    private SimpleNoiseDistribution(ArrayList<Double> intensitiesLog) throws MathException {
 
-        ArrayList<Double> intensitiesLog = new ArrayList<Double>(peakList.size());
-        for (Peak peak : peakList.values()) {
-            double log = FastMath.log10(peak.intensity);
-            intensitiesLog.add(log);
-        }
         Collections.sort(intensitiesLog);
         NonSymmetricalNormalDistribution intensityLogDistribution = NonSymmetricalNormalDistribution.getRobustNonSymmetricalNormalDistributionFromSortedList(intensitiesLog);
 
@@ -61,6 +76,34 @@ public class SimpleNoiseDistribution {
         }
     }
 
+    /**
+     * Returns the log of the intensities of the peaks of a peak list.
+     * 
+     * @param peakList the peak list
+     * @return the log of the intensities
+     */
+    private static ArrayList<Double> getIntensitiesLog(HashMap<Double, Peak> peakList) {
+        ArrayList<Double> intensitiesLog = new ArrayList<Double>(peakList.size());
+        for (Peak peak : peakList.values()) {
+            intensitiesLog.add(FastMath.log10(peak.intensity));
+        }
+        return intensitiesLog;
+    }
+
+    /**
+     * Returns the log of the intensities of the peaks in arrays.
+     * 
+     * @param peakArrays the peaks in arrays
+     * @return the log of the intensities
+     */
+    private static ArrayList<Double> getIntensitiesLog(PeakArrays peakArrays) {
+        ArrayList<Double> intensitiesLog = new ArrayList<Double>(peakArrays.size());
+        for (int i = 0; i < peakArrays.size(); i++) {
+            intensitiesLog.add(FastMath.log10(peakArrays.getIntensity(i)));
+        }
+        return intensitiesLog;
+    }
+
     /**
      * Get the binned cumulative probability.
      * 
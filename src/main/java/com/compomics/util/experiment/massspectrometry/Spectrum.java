@@ -4,7 +4,6 @@ import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.personalization.ExperimentObject;
 import com.compomics.util.math.BasicMathFunctions;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -36,9 +35,16 @@ public abstract class Spectrum extends ExperimentObject {
      */
     protected int level;
     /**
-     * mz indexed Peak list.
+     * mz indexed Peak list. Null for spectra backed by peak arrays until
+     * requested. Volatile as it is created lazily outside the lock.
      */
-    protected HashMap<Double, Peak> peakList;
+    protected volatile HashMap<Double, Peak> peakList;
+    /**
+     * The peaks in arrays sorted by m/z. If the peak list is not null, this is
+     * a cache of its content. Volatile as it is created lazily outside the
+     * lock.
+     */
+    protected volatile PeakArrays peakArrays = null;
     /**
      * Intensity indexed Peak map.
      */
@@ -197,14 +203,9 @@ public abstract class Spectrum extends ExperimentObject {
         if (jFreePeakList == null) {
             mutex.acquire();
             if (jFreePeakList == null) {
-                double[] mz = new double[peakList.size()];
-                double[] intensity = new double[peakList.size()];
-                int cpt = 0;
-                for (Peak currentPeak : peakList.values()) {
-                    mz[cpt] = currentPeak.mz;
-                    intensity[cpt] = currentPeak.intensity;
-                    cpt++;
-                }
+                PeakArrays currentPeakArrays = getPeakArrays();
+                double[] mz = currentPeakArrays.getMzArray().clone();
+                double[] intensity = currentPeakArrays.getIntensityArray().clone();
 
                 jFreePeakList = new double[6][mz.length];
                 jFreePeakList[0] = mz;
@@ -225,16 +226,70 @@ public abstract class Spectrum extends ExperimentObject {
      * @return a peak map
      */
     public HashMap<Double, Peak> getPeakMap() {
+        HashMap<Double, Peak> result = peakList;
+        if (result == null && peakArrays != null) {
+            result = createPeakMap();
+        }
+        return result;
+    }
+
+    /**
+     * Creates the peak map from the peak arrays.
+     *
+     * @return the peak map
+     */
+    private synchronized HashMap<Double, Peak> createPeakMap() {
+        if (peakList == null && peakArrays != null) {
+            peakList = peakArrays.getPeakMap();
+        }
         return peakList;
     }
 
+    /**
+     * Returns the peaks in arrays sorted by m/z. The arrays should not be
+     * modified. Null if no peak list is set.
+     *
+     * @return the peaks in arrays sorted by m/z
+     */
+    public PeakArrays getPeakArrays() {
+        PeakArrays result = peakArrays;
+        if (result == null && peakList != null) {
+            result = createPeakArrays();
+        }
+        return result;
+    }
+
+    /**
+     * Creates the peak arrays from the peak map.
+     *
+     * @return the peak arrays
+     */
+    private synchronized PeakArrays createPeakArrays() {
+        if (peakArrays == null && peakList != null) {
+            peakArrays = new PeakArrays(peakList, false);
+        }
+        return peakArrays;
+    }
+
+    /**
+     * Sets the peaks of the spectrum as arrays sorted by m/z. The peak map is
+     * only created when requested.
+     *
+     * @param peakArrays the peaks in arrays sorted by m/z
+     */
+    public synchronized void setPeakArrays(PeakArrays peakArrays) {
+        this.peakList = null;
+        resetSavedData();
+        this.peakArrays = peakArrays;
+    }
+
     /**
      * Adds a peak to the spectrum peak list.
      *
      * @param aPeak the peak to add
      */
     public synchronized void addPeak(Peak aPeak) {
-        if (peakList == null) {
+        if (getPeakMap() == null) {
             peakList = new HashMap<Double, Peak>();
         }
         this.peakList.put(aPeak.mz, aPeak);
@@ -313,7 +368,7 @@ public abstract class Spectrum extends ExperimentObject {
      * @return the peak list
      */
     public Collection<Peak> getPeakList() {
-        return peakList.values();
+        return getPeakMap().values();
     }
 
     /**
@@ -339,24 +394,22 @@ public abstract class Spectrum extends ExperimentObject {
 
         if (peakListAsString == null) {
 
-            double[] mzValues = getOrderedMzValues();
+            PeakArrays currentPeakArrays = getPeakArrays();
             mutex.acquire();
 
             StringBuilder sb = new StringBuilder();
             sb.append("[");
 
-            for (double mzValue : mzValues) {
+            for (int i = 0; i < currentPeakArrays.size(); i++) {
 
                 if (sb.length() > 1) {
                     sb.append(",");
                 }
 
-                Peak currentPeak = peakList.get(mzValue);
-
                 sb.append("[");
-                sb.append(currentPeak.mz);
+                sb.append(currentPeakArrays.getMz(i));
                 sb.append(",");
-                sb.append(currentPeak.intensity);
+                sb.append(currentPeakArrays.getIntensity(i));
                 sb.append("]");
             }
 
@@ -394,12 +447,16 @@ public abstract class Spectrum extends ExperimentObject {
     public synchronized void removePeakList() {
         if (peakList != null) {
             peakList.clear();
+        } else if (peakArrays != null) {
+            peakList = new HashMap<Double, Peak>();
         }
+        peakArrays = null;
     }
 
     /**
      * Returns the mz values as an array. Note: the array is not necessarily
-     * ordered.
+     * ordered, the intensities returned by getIntensityValuesAsArray are in
+     * the same order.
      *
      * @return the mz values as an array
      *
@@ -411,11 +468,7 @@ public abstract class Spectrum extends ExperimentObject {
         if (mzValuesAsArray == null) {
             mutex.acquire();
             if (mzValuesAsArray == null) {
-                mzValuesAsArray = new double[peakList.size()];
-                int counter = 0;
-                for (double currentMz : peakList.keySet()) {
-                    mzValuesAsArray[counter++] = currentMz;
-                }
+                mzValuesAsArray = getPeakArrays().getMzArray().clone();
             }
             mutex.release();
         }
@@ -424,7 +477,8 @@ public abstract class Spectrum extends ExperimentObject {
     }
 
     /**
-     * Returns a list of the m/z values sorted in ascending order.
+     * Returns a list of the m/z values sorted in ascending order. The array is
+     * shared and should not be modified.
      *
      * @return a list of the m/z values sorted in ascending order
      *
@@ -433,13 +487,7 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public double[] getOrderedMzValues() throws InterruptedException {
         if (mzValuesOrderedAsArray == null) {
-            getMzValuesAsArray();
-            if (mzValuesOrderedAsArray == null) {
-                mutex.acquire();
-                mzValuesOrderedAsArray = mzValuesAsArray.clone();
-                Arrays.sort(mzValuesOrderedAsArray);
-                mutex.release();
-            }
+            mzValuesOrderedAsArray = getPeakArrays().getMzArray();
         }
         return mzValuesOrderedAsArray;
     }
@@ -464,14 +512,10 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public double[] getIntensityValuesAsArray() throws InterruptedException {
 
-        if (intensityValuesAsArray == null || (intensityValuesAsArray.length != peakList.size())) {
+        if (intensityValuesAsArray == null || (intensityValuesAsArray.length != getNPeaks())) {
             mutex.acquire();
-            if (intensityValuesAsArray == null || (intensityValuesAsArray.length != peakList.size())) {
-                intensityValuesAsArray = new double[peakList.size()];
-                int counter = 0;
-                for (Peak currentPeak : peakList.values()) {
-                    intensityValuesAsArray[counter++] = currentPeak.intensity;
-                }
+            if (intensityValuesAsArray == null || (intensityValuesAsArray.length != getNPeaks())) {
+                intensityValuesAsArray = getPeakArrays().getIntensityArray().clone();
             }
             mutex.release();
         }
@@ -496,17 +540,9 @@ public abstract class Spectrum extends ExperimentObject {
 
             if (intensityValuesNormaizedAsArray == null) {
 
-                intensityValuesNormaizedAsArray = new double[peakList.size()];
-
-                double highestIntensity = 0.0;
-                int counter = 0;
-
-                for (Peak currentPeak : peakList.values()) {
-                    intensityValuesNormaizedAsArray[counter++] = currentPeak.intensity;
-                    if (currentPeak.intensity > highestIntensity) {
-                        highestIntensity = currentPeak.intensity;
-                    }
-                }
+                PeakArrays currentPeakArrays = getPeakArrays();
+                intensityValuesNormaizedAsArray = currentPeakArrays.getIntensityArray().clone();
+                double highestIntensity = currentPeakArrays.getMaxIntensity();
 
                 if (highestIntensity > 0) {
                     for (int i = 0; i < intensityValuesNormaizedAsArray.length; i++) {
@@ -534,20 +570,14 @@ public abstract class Spectrum extends ExperimentObject {
 
         if (mzAndIntensityAsArray == null) {
 
-            double[] orderedMzValues = getOrderedMzValues();
+            PeakArrays currentPeakArrays = getPeakArrays();
             mutex.acquire();
 
             if (mzAndIntensityAsArray == null) {
 
-                mzAndIntensityAsArray = new double[2][peakList.size()];
-                int counter = 0;
-
-                for (double mz : orderedMzValues) {
-                    Peak currentPeak = peakList.get(mz);
-                    mzAndIntensityAsArray[0][counter] = currentPeak.mz;
-                    mzAndIntensityAsArray[1][counter] = currentPeak.intensity;
-                    counter++;
-                }
+                mzAndIntensityAsArray = new double[2][];
+                mzAndIntensityAsArray[0] = currentPeakArrays.getMzArray().clone();
+                mzAndIntensityAsArray[1] = currentPeakArrays.getIntensityArray().clone();
             }
 
             mutex.release();
@@ -571,12 +601,7 @@ public abstract class Spectrum extends ExperimentObject {
             mutex.acquire();
 
             if (totalIntensity == null) {
-
-                totalIntensity = 0.0;
-
-                for (Peak currentPeak : peakList.values()) {
-                    totalIntensity += currentPeak.intensity;
-                }
+                totalIntensity = getPeakArrays().getTotalIntensity();
             }
 
             mutex.release();
@@ -600,14 +625,7 @@ public abstract class Spectrum extends ExperimentObject {
             mutex.acquire();
 
             if (maxIntensity == null) {
-
-                maxIntensity = 0.0;
-
-                for (Peak currentPeak : peakList.values()) {
-                    if (currentPeak.intensity > maxIntensity) {
-                        maxIntensity = currentPeak.intensity;
-                    }
-                }
+                maxIntensity = getPeakArrays().getMaxIntensity();
             }
 
             mutex.release();
@@ -631,10 +649,11 @@ public abstract class Spectrum extends ExperimentObject {
             mutex.acquire();
             if (maxMz == null) {
 
-                if (peakList.keySet().isEmpty()) {
+                PeakArrays currentPeakArrays = getPeakArrays();
+                if (currentPeakArrays.size() == 0) {
                     maxMz = 0.0;
                 } else {
-                    maxMz = Collections.max(peakList.keySet());
+                    maxMz = currentPeakArrays.getMz(currentPeakArrays.size() - 1);
                 }
             }
 
@@ -659,10 +678,11 @@ public abstract class Spectrum extends ExperimentObject {
             mutex.acquire();
 
             if (minMz == null) {
-                if (peakList.keySet().isEmpty()) {
+                PeakArrays currentPeakArrays = getPeakArrays();
+                if (currentPeakArrays.size() == 0) {
                     minMz = 0.0;
                 } else {
-                    minMz = Collections.min(peakList.keySet());
+                    minMz = currentPeakArrays.getMz(0);
                 }
             }
 
@@ -684,10 +704,12 @@ public abstract class Spectrum extends ExperimentObject {
     public ArrayList<Double> getPeaksAboveIntensityThreshold(double threshold) {
 
         ArrayList<Double> peakIntensities = new ArrayList<Double>();
+        PeakArrays currentPeakArrays = getPeakArrays();
 
-        for (Peak currentPeak : peakList.values()) {
-            if (currentPeak.intensity > threshold) {
-                peakIntensities.add(currentPeak.intensity);
+        for (int i = 0; i < currentPeakArrays.size(); i++) {
+            double intensity = currentPeakArrays.getIntensity(i);
+            if (intensity > threshold) {
+                peakIntensities.add(intensity);
             }
         }
 
@@ -720,14 +742,12 @@ public abstract class Spectrum extends ExperimentObject {
      * @return the intensity limit
      */
     private double estimateIntneistyLimit(double intensityFraction) {
-        ArrayList<Double> intensities = new ArrayList<Double>(peakList.size());
+        PeakArrays currentPeakArrays = getPeakArrays();
+        ArrayList<Double> intensities = new ArrayList<Double>(currentPeakArrays.size());
 
-        for (Peak peak : peakList.values()) {
-            double mz = peak.mz;
-            // Skip the low mass region of the spectrum @TODO: skip precursor as well
-            if (mz > 200) {
-                intensities.add(peak.intensity);
-            }
+        // Skip the low mass region of the spectrum @TODO: skip precursor as well
+        for (int i = currentPeakArrays.getUpperIndex(200); i < currentPeakArrays.size(); i++) {
+            intensities.add(currentPeakArrays.getIntensity(i));
         }
 
         if (intensities.isEmpty()) {
@@ -746,11 +766,12 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public HashMap<Double, Peak> getRecalibratedPeakList(HashMap<Double, Double> mzCorrections) {
 
-        HashMap<Double, Peak> result = new HashMap<Double, Peak>(peakList.size());
+        HashMap<Double, Peak> peakMap = getPeakMap();
+        HashMap<Double, Peak> result = new HashMap<Double, Peak>(peakMap.size());
         ArrayList<Double> keys = new ArrayList<Double>(mzCorrections.keySet());
         Collections.sort(keys);
 
-        for (Peak peak : peakList.values()) {
+        for (Peak peak : peakMap.values()) {
 
             double fragmentMz = peak.mz;
             double key1 = keys.get(0);
@@ -801,7 +822,7 @@ public abstract class Spectrum extends ExperimentObject {
      * @return a peak list which does not contain the peak matched
      */
     public HashMap<Double, Peak> getDesignaledPeakList(ArrayList<IonMatch> matches) {
-        HashMap<Double, Peak> result = new HashMap<Double, Peak>(peakList);
+        HashMap<Double, Peak> result = new HashMap<Double, Peak>(getPeakMap());
         for (IonMatch ionMatch : matches) {
             result.remove(ionMatch.peak.mz);
         }
@@ -823,12 +844,14 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public HashMap<Double, Peak> getSubSpectrum(double mzMin, double mzMax) throws InterruptedException {
         HashMap<Double, Peak> result = new HashMap<Double, Peak>();
-        for (double mz : getOrderedMzValues()) {
-            if (mz >= mzMin && mz < mzMax) {
-                result.put(mz, peakList.get(mz));
-            } else if (mz >= mzMax) {
+        PeakArrays currentPeakArrays = getPeakArrays();
+        HashMap<Double, Peak> peakMap = peakList;
+        for (int i = currentPeakArrays.getLowerIndex(mzMin); i < currentPeakArrays.size(); i++) {
+            double mz = currentPeakArrays.getMz(i);
+            if (mz >= mzMax) {
                 break;
             }
+            result.put(mz, peakMap != null ? peakMap.get(mz) : currentPeakArrays.getPeak(i));
         }
         return result;
     }
@@ -850,9 +873,10 @@ public abstract class Spectrum extends ExperimentObject {
 
             if (intensityPeakMap == null) {
 
-                intensityPeakMap = new HashMap<Double, ArrayList<Peak>>(peakList.size());
+                HashMap<Double, Peak> peakMap = getPeakMap();
+                intensityPeakMap = new HashMap<Double, ArrayList<Peak>>(peakMap.size());
 
-                for (Peak peak : peakList.values()) {
+                for (Peak peak : peakMap.values()) {
 
                     double intensity = peak.intensity;
                     ArrayList<Peak> peaksAtIntensity = intensityPeakMap.get(intensity);
@@ -878,10 +902,13 @@ public abstract class Spectrum extends ExperimentObject {
      * @return the number of peaks in the spectrum
      */
     public int getNPeaks() {
-        if (peakList == null) {
-            return 0;
+        if (peakList != null) {
+            return peakList.size();
+        }
+        if (peakArrays != null) {
+            return peakArrays.size();
         }
-        return peakList.size();
+        return 0;
     }
 
     /**
@@ -897,6 +924,7 @@ public abstract class Spectrum extends ExperimentObject {
      * Resets all the saved values to null. Used after altering the peak data.
      */
     private void resetSavedData() {
+        peakArrays = null;
         jFreePeakList = null;
         peakListAsString = null;
         mzValuesAsArray = null;
@@ -927,7 +955,7 @@ public abstract class Spectrum extends ExperimentObject {
         if (binnedCumulativeFunction == null) {
             mutex.acquire();
             if (binnedCumulativeFunction == null) {
-                binnedCumulativeFunction = new SimpleNoiseDistribution(peakList);
+                binnedCumulativeFunction = new SimpleNoiseDistribution(getPeakArrays());
             }
             mutex.release();
         }
@@ -1,5 +1,6 @@
 package com.compomics.util.experiment.massspectrometry;
 
+import com.compomics.util.experiment.io.massspectrometry.MappedMgfFile;
 import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
 import com.compomics.util.experiment.io.massspectrometry.MgfReader;
 import com.compomics.util.experiment.massspectrometry.indexes.PrecursorMap;
@@ -10,6 +11,7 @@ import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
 import uk.ac.ebi.jmzml.model.mzml.BinaryDataArray;
 import uk.ac.ebi.jmzml.model.mzml.CVParam;
@@ -35,11 +37,11 @@ public class SpectrumFactory {
     /**
      * Map of already loaded spectra.
      */
-    private HashMap<String, HashMap<String, Spectrum>> currentSpectrumMap = new HashMap<String, HashMap<String, Spectrum>>();
+    private ConcurrentHashMap<String, ConcurrentHashMap<String, Spectrum>> currentSpectrumMap = new ConcurrentHashMap<String, ConcurrentHashMap<String, Spectrum>>();
     /**
      * Map of already loaded precursors.
      */
-    private HashMap<String, HashMap<String, Precursor>> loadedPrecursorsMap = new HashMap<String, HashMap<String, Precursor>>();
+    private ConcurrentHashMap<String, ConcurrentHashMap<String, Precursor>> loadedPrecursorsMap = new ConcurrentHashMap<String, ConcurrentHashMap<String, Precursor>>();
     /**
      * Maximal number of spectra in cache. By default 1000000, which corresponds to approx. 110MB.
      */
@@ -58,9 +60,20 @@ public class SpectrumFactory {
      */
     private HashMap<String, BufferedRandomAccessFile> mgfRandomAccessFilesMap = new HashMap<String, BufferedRandomAccessFile>();
     /**
-     * Map of the mgf indexes (fileName &gt; mgf index).
+     * Map of the memory mapped mgf files (filename &gt; mapped file).
      */
-    private HashMap<String, MgfIndex> mgfIndexesMap = new HashMap<String, MgfIndex>();
+    private ConcurrentHashMap<String, MappedMgfFile> mappedMgfFilesMap = new ConcurrentHashMap<String, MappedMgfFile>();
+    /**
+     * Indicates whether the mgf files added to the factory are memory mapped.
+     * Spectra and precursors of mapped files are read without locking the
+     * factory.
+     */
+    private boolean memoryMappedMgf = false;
+    /**
+     * Map of the mgf indexes (fileName &gt; mgf index). Read without locking
+     * when accessing memory mapped files.
+     */
+    private ConcurrentHashMap<String, MgfIndex> mgfIndexesMap = new ConcurrentHashMap<String, MgfIndex>();
     /**
      * Map of the mzML unmarshallers (fileName &gt; unmarshaller).
      */
@@ -117,6 +130,7 @@ public class SpectrumFactory {
         loadedSpectra.clear();
         filesMap.clear();
         mgfRandomAccessFilesMap.clear();
+        mappedMgfFilesMap.clear();
         mgfIndexesMap.clear();
         mzMLUnmarshallers.clear();
         idToSpectrumName.clear();
@@ -149,6 +163,28 @@ public class SpectrumFactory {
         return nSpectraCache;
     }
 
+    /**
+     * Indicates whether the mgf files added to the factory are memory mapped.
+     *
+     * @return true if the mgf files added to the factory are memory mapped
+     */
+    public boolean isMemoryMappedMgf() {
+        return memoryMappedMgf;
+    }
+
+    /**
+     * Sets whether the mgf files added to the factory should be memory mapped.
+     * The spectra and precursors of memory mapped files are decoded directly
+     * from the mapped memory and can be read by multiple threads at the same
+     * time. Files already added are not affected.
+     *
+     * @param memoryMappedMgf a boolean indicating whether the mgf files added
+     * to the factory should be memory mapped
+     */
+    public void setMemoryMappedMgf(boolean memoryMappedMgf) {
+        this.memoryMappedMgf = memoryMappedMgf;
+    }
+
     /**
      * Add spectra to the factory.
      *
@@ -209,7 +245,7 @@ public class SpectrumFactory {
             }
 
             if (mgfIndex == null) {
-                mgfIndex = MgfReader.getIndexMap(spectrumFile, waitingHandler);
+                mgfIndex = MgfReader.getIndexMap(spectrumFile, waitingHandler, Runtime.getRuntime().availableProcessors());
 
                 if (waitingHandler != null && waitingHandler.isRunCanceled()) {
                     return; // return without saving the partial index
@@ -222,8 +258,13 @@ public class SpectrumFactory {
                 throw new IllegalArgumentException("An error occurred while indexing " + spectrumFile.getAbsolutePath());
             }
 
-            mgfRandomAccessFilesMap.put(fileName, new BufferedRandomAccessFile(spectrumFile, "r", 1024 * 100));
+            // the index is published before the file so that threads finding the file also find its index
             mgfIndexesMap.put(fileName, mgfIndex);
+            if (memoryMappedMgf) {
+                mappedMgfFilesMap.put(fileName, new MappedMgfFile(spectrumFile));
+            } else {
+                mgfRandomAccessFilesMap.put(fileName, new BufferedRandomAccessFile(spectrumFile, "r", 1024 * 100));
+            }
 
         } else if (fileName.toLowerCase().endsWith(".mzml")) {
             MzMLUnmarshaller mzMLUnmarshaller = new MzMLUnmarshaller(spectrumFile);
@@ -277,20 +318,24 @@ public class SpectrumFactory {
      * not parsed correctly
      */
     public Precursor getPrecursor(String fileName, String spectrumTitle, boolean save) throws IOException, MzMLUnmarshallerException {
-        HashMap<String, Spectrum> fileSpectrumMap = currentSpectrumMap.get(fileName);
+        ConcurrentHashMap<String, Spectrum> fileSpectrumMap = currentSpectrumMap.get(fileName);
         if (fileSpectrumMap != null) {
             Spectrum spectrum = fileSpectrumMap.get(spectrumTitle);
             if (spectrum != null) {
                 return ((MSnSpectrum) spectrum).getPrecursor();
             }
         }
-        HashMap<String, Precursor> filePrecursorMap = loadedPrecursorsMap.get(fileName);
+        ConcurrentHashMap<String, Precursor> filePrecursorMap = loadedPrecursorsMap.get(fileName);
         if (filePrecursorMap != null) {
             Precursor currentPrecursor = filePrecursorMap.get(spectrumTitle);
             if (currentPrecursor != null) {
                 return currentPrecursor;
             }
         }
+        MappedMgfFile mappedMgfFile = mappedMgfFilesMap.get(fileName);
+        if (mappedMgfFile != null) {
+            return getPrecursor(mappedMgfFile, fileName, spectrumTitle, save);
+        }
         return getPrecursor(fileName, spectrumTitle, save, 1);
     }
 
@@ -696,17 +741,64 @@ public class SpectrumFactory {
             throw new IllegalArgumentException("Spectrum file format not supported.");
         }
         if (save) {
-            HashMap<String, Precursor> fileMap = loadedPrecursorsMap.get(fileName);
-            if (fileMap == null) {
-                fileMap = new HashMap<String, Precursor>();
-                loadedPrecursorsMap.put(fileName, fileMap);
-            }
-            fileMap.put(spectrumTitle, currentPrecursor);
+            savePrecursor(fileName, spectrumTitle, currentPrecursor);
         }
 
         return currentPrecursor;
     }
 
+    /**
+     * Returns the precursor of the desired spectrum of a memory mapped mgf
+     * file. The factory is not locked while reading.
+     *
+     * @param mappedMgfFile the memory mapped mgf file
+     * @param fileName the name of the mgf file
+     * @param spectrumTitle the title of the spectrum
+     * @param save boolean indicating whether the loaded precursor should be
+     * stored in the factory
+     *
+     * @return the corresponding precursor
+     *
+     * @throws IOException exception thrown whenever the file was not parsed
+     * correctly
+     * @throws IllegalArgumentException exception thrown whenever the file was
+     * not parsed correctly
+     */
+    private Precursor getPrecursor(MappedMgfFile mappedMgfFile, String fileName, String spectrumTitle, boolean save) throws IOException, IllegalArgumentException {
+
+        // a special fix for mgf files with strange titles...
+        spectrumTitle = fixMgfTitle(spectrumTitle, fileName);
+
+        Long index = mgfIndexesMap.get(fileName).getIndex(spectrumTitle);
+        if (index == null) {
+            throw new IOException("Spectrum \'" + spectrumTitle + "\' in mgf file \'" + fileName + "\' not found.");
+        }
+        Precursor currentPrecursor = MgfReader.getPrecursor(mappedMgfFile, index, fileName);
+        if (save) {
+            savePrecursor(fileName, spectrumTitle, currentPrecursor);
+        }
+        return currentPrecursor;
+    }
+
+    /**
+     * Stores a precursor in the factory.
+     *
+     * @param fileName the name of the spectrum file
+     * @param spectrumTitle the title of the spectrum
+     * @param precursor the precursor
+     */
+    private void savePrecursor(String fileName, String spectrumTitle, Precursor precursor) {
+        ConcurrentHashMap<String, Precursor> fileMap = loadedPrecursorsMap.get(fileName);
+        if (fileMap == null) {
+            ConcurrentHashMap<String, Precursor> newMap = new ConcurrentHashMap<String, Precursor>();
+            fileMap = loadedPrecursorsMap.putIfAbsent(fileName, newMap);
+            if (fileMap == null) {
+                fileMap = newMap;
+            }
+        }
+        fileMap.put(spectrumTitle, precursor);
+    }
+
     /**
      * Returns the desired spectrum.
      *
@@ -721,13 +813,17 @@ public class SpectrumFactory {
      * occurred while parsing the mzML file
      */
     public Spectrum getSpectrum(String spectrumFile, String spectrumTitle) throws IOException, MzMLUnmarshallerException {
-        HashMap<String, Spectrum> fileMap = currentSpectrumMap.get(spectrumFile);
+        ConcurrentHashMap<String, Spectrum> fileMap = currentSpectrumMap.get(spectrumFile);
         if (fileMap != null) {
             Spectrum currentSpectrum = fileMap.get(spectrumTitle);
             if (currentSpectrum != null) {
                 return currentSpectrum;
             }
         }
+        MappedMgfFile mappedMgfFile = mappedMgfFilesMap.get(spectrumFile);
+        if (mappedMgfFile != null) {
+            return getSpectrum(mappedMgfFile, spectrumFile, spectrumTitle);
+        }
         return getSpectrum(spectrumFile, spectrumTitle, 1);
     }
 
@@ -868,24 +964,72 @@ public class SpectrumFactory {
         } else {
             throw new IllegalArgumentException("Spectrum file format not supported.");
         }
-        if (loadedSpectra.size() == nSpectraCache) {
+        saveSpectrum(spectrumFile, spectrumTitle, currentSpectrum);
+        return currentSpectrum;
+    }
+
+    /**
+     * Returns the desired spectrum of a memory mapped mgf file. The factory is
+     * not locked while reading.
+     *
+     * @param mappedMgfFile the memory mapped mgf file
+     * @param spectrumFile the name of the mgf file
+     * @param spectrumTitle the title of the desired spectrum
+     *
+     * @return the desired spectrum
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     * @throws IllegalArgumentException exception thrown whenever an error
+     * occurred while parsing the file
+     */
+    private Spectrum getSpectrum(MappedMgfFile mappedMgfFile, String spectrumFile, String spectrumTitle) throws IOException, IllegalArgumentException {
+
+        // a special fix for mgf files with strange titles...
+        spectrumTitle = fixMgfTitle(spectrumTitle, spectrumFile);
+
+        Long index = mgfIndexesMap.get(spectrumFile).getIndex(spectrumTitle);
+        if (index == null) {
+            throw new IOException("Spectrum \'" + spectrumTitle + "\' in mgf file \'" + spectrumFile + "\' not found!");
+        }
+        Spectrum currentSpectrum = MgfReader.getSpectrum(mappedMgfFile, index, spectrumFile);
+        saveSpectrum(spectrumFile, spectrumTitle, currentSpectrum);
+        return currentSpectrum;
+    }
+
+    /**
+     * Stores a spectrum in the cache, the oldest spectra are removed when the
+     * cache is full.
+     *
+     * @param spectrumFile the name of the spectrum file
+     * @param spectrumTitle the title of the spectrum
+     * @param spectrum the spectrum
+     */
+    private void saveSpectrum(String spectrumFile, String spectrumTitle, Spectrum spectrum) {
+        while (loadedSpectra.size() >= nSpectraCache) {
             String tempKey = loadedSpectra.pollFirst();
+            if (tempKey == null) {
+                break;
+            }
             String tempFile = Spectrum.getSpectrumFile(tempKey);
-            HashMap<String, Spectrum> fileMap = currentSpectrumMap.get(tempFile);
+            ConcurrentHashMap<String, Spectrum> fileMap = currentSpectrumMap.get(tempFile);
             if (fileMap != null) {
                 String tempTitle = Spectrum.getSpectrumTitle(tempKey);
                 fileMap.remove(tempTitle);
             }
         }
-        HashMap<String, Spectrum> fileMap = currentSpectrumMap.get(spectrumFile);
+        ConcurrentHashMap<String, Spectrum> fileMap = currentSpectrumMap.get(spectrumFile);
         if (fileMap == null) {
-            fileMap = new HashMap<String, Spectrum>();
-            currentSpectrumMap.put(spectrumFile, fileMap);
+            ConcurrentHashMap<String, Spectrum> newMap = new ConcurrentHashMap<String, Spectrum>();
+            fileMap = currentSpectrumMap.putIfAbsent(spectrumFile, newMap);
+            if (fileMap == null) {
+                fileMap = newMap;
+            }
+        }
+        if (fileMap.put(spectrumTitle, spectrum) == null) {
+            String spectrumKey = Spectrum.getSpectrumKey(spectrumFile, spectrumTitle);
+            loadedSpectra.add(spectrumKey);
         }
-        fileMap.put(spectrumTitle, currentSpectrum);
-        String spectrumKey = Spectrum.getSpectrumKey(spectrumFile, spectrumTitle);
-        loadedSpectra.add(spectrumKey);
-        return currentSpectrum;
     }
 
     /**
@@ -927,6 +1071,7 @@ public class SpectrumFactory {
         for (BufferedRandomAccessFile randomAccessFile : mgfRandomAccessFilesMap.values()) {
             randomAccessFile.close();
         }
+        mappedMgfFilesMap.clear();
     }
 
     /**
@@ -935,7 +1080,7 @@ public class SpectrumFactory {
      * @return a list of loaded mgf files
      */
     public ArrayList<String> getMgfFileNames() {
-        return new ArrayList<String>(mgfRandomAccessFilesMap.keySet());
+        return new ArrayList<String>(mgfIndexesMap.keySet());
     }
 
     /**
@@ -1,12 +1,24 @@
 package com.compomics.util.experiment.massspectrometry.indexes;
 
+import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Precursor;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import org.apache.commons.math.util.FastMath;
 
 /**
- * This map stores the precursors indexed by mass.
+ * This map stores the precursors indexed by m/z. The m/z of the precursors
+ * are stored in a sorted array and queried by binary search, the charge,
+ * retention time and spectrum of every precursor are stored in parallel
+ * arrays. The map is not modified after construction and can be queried by
+ * multiple threads.
+ *
+ * The map is queried with m/z and not with masses: the charge of the
+ * precursors is not always known, and the masses of precursors of different
+ * charge would not be sorted like their m/z. To find the precursors of a
+ * peptide, query the m/z of the peptide at every charge considered.
  *
  * @author Marc Vaudel
  */
@@ -21,9 +33,21 @@ public class PrecursorMap {
      */
     boolean ppm;
     /**
-     * Map of the precursors by bin and m/z.
+     * The m/z of the precursors in ascending order.
+     */
+    private final double[] mzs;
+    /**
+     * The charge of the precursors, the first possible charge, 0 if none.
+     */
+    private final int[] charges;
+    /**
+     * The retention time of the precursors.
+     */
+    private final double[] rts;
+    /**
+     * The precursors and their spectrum titles.
      */
-    private HashMap<Integer, HashMap<Double, ArrayList<PrecursorWithTitle>>> precursorsMap = new HashMap<Integer, HashMap<Double, ArrayList<PrecursorWithTitle>>>();
+    private final PrecursorWithTitle[] precursors;
     /**
      * An m/z anchor to determine the bins in ppm
      */
@@ -58,28 +82,32 @@ public class PrecursorMap {
         if (ppm) {
             scalingFactor = FastMath.log((1000000 - precursorTolerance) / (1000000 + precursorTolerance));
         }
+        int nPrecursors = precursors.size();
+        this.precursors = new PrecursorWithTitle[nPrecursors];
+        int i = 0;
         for (String spectrumTitle : precursors.keySet()) {
-            Precursor precursor = precursors.get(spectrumTitle);
-            PrecursorWithTitle precursorWithTitle = new PrecursorWithTitle(precursor, spectrumTitle);
-            double mz = precursor.getMz();
-            if (minMz == null || mz < minMz) {
-                minMz = mz;
-            }
-            if (maxMz == null || mz > maxMz) {
-                maxMz = mz;
-            }
-            Integer bin = getBin(mz);
-            HashMap<Double, ArrayList<PrecursorWithTitle>> precursorsInBin = precursorsMap.get(bin);
-            if (precursorsInBin == null) {
-                precursorsInBin = new HashMap<Double, ArrayList<PrecursorWithTitle>>(2);
-                precursorsMap.put(bin, precursorsInBin);
-            }
-            ArrayList<PrecursorWithTitle> precursorsAtMz = precursorsInBin.get(mz);
-            if (precursorsAtMz == null) {
-                precursorsAtMz = new ArrayList<PrecursorWithTitle>(1);
-                precursorsInBin.put(mz, precursorsAtMz);
+            this.precursors[i++] = new PrecursorWithTitle(precursors.get(spectrumTitle), spectrumTitle);
+        }
+        Arrays.sort(this.precursors, new Comparator<PrecursorWithTitle>() {
+            @Override
+            public int compare(PrecursorWithTitle o1, PrecursorWithTitle o2) {
+                int result = Double.compare(o1.precursor.getMz(), o2.precursor.getMz());
+                return result != 0 ? result : o1.spectrumTitle.compareTo(o2.spectrumTitle);
             }
-            precursorsAtMz.add(precursorWithTitle);
+        });
+        mzs = new double[nPrecursors];
+        charges = new int[nPrecursors];
+        rts = new double[nPrecursors];
+        for (i = 0; i < nPrecursors; i++) {
+            Precursor precursor = this.precursors[i].precursor;
+            mzs[i] = precursor.getMz();
+            ArrayList<Charge> possibleCharges = precursor.getPossibleCharges();
+            charges[i] = possibleCharges == null || possibleCharges.isEmpty() ? 0 : possibleCharges.get(0).value;
+            rts[i] = precursor.getRt();
+        }
+        if (nPrecursors > 0) {
+            minMz = mzs[0];
+            maxMz = mzs[nPrecursors - 1];
         }
     }
 
@@ -124,61 +152,231 @@ public class PrecursorMap {
         return bin;
     }
 
+    /**
+     * Returns the number of precursors in the map.
+     *
+     * @return the number of precursors in the map
+     */
+    public int size() {
+        return mzs.length;
+    }
+
+    /**
+     * Returns the m/z of the precursor at the given index.
+     *
+     * @param index the index of the precursor in the map
+     *
+     * @return the m/z of the precursor
+     */
+    public double getMz(int index) {
+        return mzs[index];
+    }
+
+    /**
+     * Returns the charge of the precursor at the given index, the first
+     * possible charge, 0 if none.
+     *
+     * @param index the index of the precursor in the map
+     *
+     * @return the charge of the precursor
+     */
+    public int getCharge(int index) {
+        return charges[index];
+    }
+
+    /**
+     * Returns the retention time of the precursor at the given index.
+     *
+     * @param index the index of the precursor in the map
+     *
+     * @return the retention time of the precursor
+     */
+    public double getRt(int index) {
+        return rts[index];
+    }
+
+    /**
+     * Returns the precursor and spectrum title at the given index.
+     *
+     * @param index the index of the precursor in the map
+     *
+     * @return the precursor and spectrum title
+     */
+    public PrecursorWithTitle getPrecursorWithTitle(int index) {
+        return precursors[index];
+    }
+
+    /**
+     * Returns the lowest m/z matching the given m/z with the tolerance of the
+     * map.
+     *
+     * @param referenceMz the reference m/z
+     *
+     * @return the lowest m/z matching the given m/z
+     */
+    public double getLowerBound(double referenceMz) {
+        if (ppm) {
+            return referenceMz * (1 - precursorTolerance / 1000000);
+        } else {
+            return referenceMz - precursorTolerance;
+        }
+    }
+
+    /**
+     * Returns the highest m/z matching the given m/z with the tolerance of the
+     * map.
+     *
+     * @param referenceMz the reference m/z
+     *
+     * @return the highest m/z matching the given m/z
+     */
+    public double getUpperBound(double referenceMz) {
+        if (ppm) {
+            return referenceMz * (1 + precursorTolerance / 1000000);
+        } else {
+            return referenceMz + precursorTolerance;
+        }
+    }
+
+    /**
+     * Returns the index of the first precursor with an m/z greater than or
+     * equal to the given m/z, the number of precursors if none.
+     *
+     * @param mzMin the minimal m/z
+     *
+     * @return the index of the first precursor with an m/z greater than or
+     * equal to the given m/z
+     */
+    public int getLowerIndex(double mzMin) {
+        return getLowerIndex(mzMin, 0);
+    }
+
+    /**
+     * Returns the index of the first precursor with an m/z greater than or
+     * equal to the given m/z, searching from the given index.
+     *
+     * @param mzMin the minimal m/z
+     * @param from the index where to start searching
+     *
+     * @return the index of the first precursor with an m/z greater than or
+     * equal to the given m/z
+     */
+    private int getLowerIndex(double mzMin, int from) {
+        int low = from, high = mzs.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mzs[middle] < mzMin) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the first precursor with an m/z strictly greater
+     * than the given m/z, the number of precursors if none.
+     *
+     * @param mzMax the maximal m/z
+     *
+     * @return the index of the first precursor with an m/z strictly greater
+     * than the given m/z
+     */
+    public int getUpperIndex(double mzMax) {
+        return getUpperIndex(mzMax, 0);
+    }
+
+    /**
+     * Returns the index of the first precursor with an m/z strictly greater
+     * than the given m/z, searching from the given index.
+     *
+     * @param mzMax the maximal m/z
+     * @param from the index where to start searching
+     *
+     * @return the index of the first precursor with an m/z strictly greater
+     * than the given m/z
+     */
+    private int getUpperIndex(double mzMax, int from) {
+        int low = from, high = mzs.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mzs[middle] <= mzMax) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
     /**
      * Returns a list containing the precursors matching the given m/z.
-     * TODO: check only one/two bins when possible
      *
      * @param referenceMz a mz to query
      *
      * @return a list containing the precursors matching the given m/z
      */
     public ArrayList<PrecursorWithTitle> getMatchingSpectra(double referenceMz) {
-        
-        int bin0 = getBin(referenceMz);
-        ArrayList<PrecursorWithTitle> result = new ArrayList<PrecursorWithTitle>(0);
-        HashMap<Double, ArrayList<PrecursorWithTitle>> binContent = precursorsMap.get(bin0 - 1);
-        if (binContent != null) {
-            for (Double precursorMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (precursorMz - referenceMz) / referenceMz;
-                } else {
-                    error = precursorMz - referenceMz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.addAll(binContent.get(precursorMz));
-                }
-            }
+        int lowerIndex = getLowerIndex(getLowerBound(referenceMz));
+        int upperIndex = getUpperIndex(getUpperBound(referenceMz), lowerIndex);
+        ArrayList<PrecursorWithTitle> result = new ArrayList<PrecursorWithTitle>(upperIndex - lowerIndex);
+        for (int i = lowerIndex; i < upperIndex; i++) {
+            result.add(precursors[i]);
         }
-        binContent = precursorsMap.get(bin0);
-        if (binContent != null) {
-            for (Double precursorMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (precursorMz - referenceMz) / referenceMz;
-                } else {
-                    error = precursorMz - referenceMz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.addAll(binContent.get(precursorMz));
-                }
+        return result;
+    }
+
+    /**
+     * Returns a list containing the precursors matching the given m/z and
+     * eluting in the given retention time window (inclusive).
+     *
+     * @param referenceMz a mz to query
+     * @param rtMin the minimal retention time
+     * @param rtMax the maximal retention time
+     *
+     * @return a list containing the precursors matching the given m/z and
+     * retention time window
+     */
+    public ArrayList<PrecursorWithTitle> getMatchingSpectra(double referenceMz, double rtMin, double rtMax) {
+        int lowerIndex = getLowerIndex(getLowerBound(referenceMz));
+        int upperIndex = getUpperIndex(getUpperBound(referenceMz), lowerIndex);
+        ArrayList<PrecursorWithTitle> result = new ArrayList<PrecursorWithTitle>(0);
+        for (int i = lowerIndex; i < upperIndex; i++) {
+            if (rts[i] >= rtMin && rts[i] <= rtMax) {
+                result.add(precursors[i]);
             }
         }
-        binContent = precursorsMap.get(bin0 + 1);
-        if (binContent != null) {
-            for (Double precursorMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (precursorMz - referenceMz) / referenceMz;
-                } else {
-                    error = precursorMz - referenceMz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.addAll(binContent.get(precursorMz));
-                }
+        return result;
+    }
+
+    /**
+     * Sets the range of precursors matching each of the given m/z. The
+     * precursors matching referenceMzs[i] are at the indexes between
+     * lowerIndexes[i] (inclusive) and upperIndexes[i] (exclusive). The m/z
+     * must be sorted in ascending order, the map is then traversed only once.
+     * The queries are m/z and not masses, the charge of the precursors
+     * matched is not checked, see getCharge.
+     *
+     * @param referenceMzs the m/z to query sorted in ascending order
+     * @param lowerIndexes array where to store the index of the first
+     * precursor matching every m/z
+     * @param upperIndexes array where to store the index following the last
+     * precursor matching every m/z
+     */
+    public void getMatchingIndexes(double[] referenceMzs, int[] lowerIndexes, int[] upperIndexes) {
+        int lowerIndex = 0;
+        int upperIndex = 0;
+        for (int i = 0; i < referenceMzs.length; i++) {
+            double referenceMz = referenceMzs[i];
+            if (i > 0 && referenceMz < referenceMzs[i - 1]) {
+                throw new IllegalArgumentException("The m/z to query must be sorted in ascending order.");
             }
+            lowerIndex = getLowerIndex(getLowerBound(referenceMz), lowerIndex);
+            upperIndex = getUpperIndex(getUpperBound(referenceMz), Math.max(lowerIndex, upperIndex));
+            lowerIndexes[i] = lowerIndex;
+            upperIndexes[i] = upperIndex;
         }
-        return result;
     }
 
     /**
@@ -187,7 +385,16 @@ public class PrecursorMap {
      * @return the bins in the map
      */
     public ArrayList<Integer> getBins() {
-        return new ArrayList<Integer>(precursorsMap.keySet());
+        ArrayList<Integer> result = new ArrayList<Integer>();
+        Integer previousBin = null;
+        for (double mz : mzs) {
+            Integer bin = getBin(mz);
+            if (!bin.equals(previousBin)) {
+                result.add(bin);
+                previousBin = bin;
+            }
+        }
+        return result;
     }
 
     /**
@@ -199,7 +406,32 @@ public class PrecursorMap {
      * @return the precursors at the given bin
      */
     public HashMap<Double, ArrayList<PrecursorWithTitle>> getPrecursorsInBin(int bin) {
-        return precursorsMap.get(bin);
+
+        // the bins are monotonic with the m/z, decreasing in ppm
+        int sign = ppm ? -1 : 1;
+        int low = 0, high = mzs.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sign * getBin(mzs[middle]) < sign * bin) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        HashMap<Double, ArrayList<PrecursorWithTitle>> result = null;
+        for (int i = low; i < mzs.length && getBin(mzs[i]) == bin; i++) {
+            if (result == null) {
+                result = new HashMap<Double, ArrayList<PrecursorWithTitle>>(2);
+            }
+            ArrayList<PrecursorWithTitle> precursorsAtMz = result.get(mzs[i]);
+            if (precursorsAtMz == null) {
+                precursorsAtMz = new ArrayList<PrecursorWithTitle>(1);
+                result.put(mzs[i], precursorsAtMz);
+            }
+            precursorsAtMz.add(precursors[i]);
+        }
+        return result;
     }
 
     /**
@@ -219,7 +451,7 @@ public class PrecursorMap {
 
     /**
      * Returns the minimal m/z encountered among the precursors.
-     * 
+     *
      * @return the minimal m/z encountered among the precursors
      */
     public Double getMinMz() {
@@ -228,13 +460,13 @@ public class PrecursorMap {
 
     /**
      * Returns the maximal m/z encountered among the precursors.
-     * 
+     *
      * @return the maximal m/z encountered among the precursors
      */
     public Double getMaxMz() {
         return maxMz;
     }
-    
+
     /**
      * Convenience class storing the precursor and corresponding spectrum title.
      */
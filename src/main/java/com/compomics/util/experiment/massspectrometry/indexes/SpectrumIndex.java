@@ -1,14 +1,20 @@
 package com.compomics.util.experiment.massspectrometry.indexes;
 
 import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.PeakArrays;
 import com.compomics.util.experiment.personalization.UrParameter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import org.apache.commons.math.util.FastMath;
 
 /**
- * This map stores the fragment ions indexed by mass.
+ * This index stores the fragment ions sorted by mass. The m/z and intensity of
+ * the peaks above the intensity limit are stored in parallel arrays, matching
+ * peaks are found by binary search. Queries by index do not allocate objects,
+ * Peak objects are only created on demand.
  *
  * @author Marc Vaudel
  */
@@ -23,9 +29,17 @@ public class SpectrumIndex implements UrParameter {
      */
     boolean ppm;
     /**
-     * Map of the precursors by bin and m/z.
+     * The m/z of the peaks in ascending order.
      */
-    private HashMap<Integer, HashMap<Double, Peak>> peaksMap;
+    private double[] mz;
+    /**
+     * The intensities of the peaks.
+     */
+    private double[] intensity;
+    /**
+     * The maximal intensity of the peaks up to every index.
+     */
+    private double[] maxIntensity;
     /**
      * An m/z anchor to determine the bins in ppm
      */
@@ -68,31 +82,52 @@ public class SpectrumIndex implements UrParameter {
      * @param ppm boolean indicating whether the tolerance is in ppm
      */
     public SpectrumIndex(HashMap<Double, Peak> peaks, Double intenstiyLimit, double tolerance, boolean ppm) {
-        this.peaksMap = new HashMap<Integer, HashMap<Double, Peak>>();
+        this(new PeakArrays(peaks, false), intenstiyLimit, tolerance, ppm);
+    }
+
+    /**
+     * Builds a new index from peaks in arrays.
+     *
+     * @param peakArrays the peaks in arrays sorted by m/z
+     * @param intenstiyLimit a lower limit for the intensity of the peaks to
+     * index
+     * @param tolerance the tolerance to use
+     * @param ppm boolean indicating whether the tolerance is in ppm
+     */
+    public SpectrumIndex(PeakArrays peakArrays, Double intenstiyLimit, double tolerance, boolean ppm) {
         this.precursorTolerance = tolerance;
         this.ppm = ppm;
         if (ppm) {
             scalingFactor = FastMath.log((1000000 - tolerance) / (1000000 + tolerance));
         }
-        totalIntensity = 0.0;
-        for (Peak peak : peaks.values()) {
-            if (intenstiyLimit == null || peak.intensity >= intenstiyLimit) {
-                totalIntensity += peak.intensity;
-                Integer bin = getBin(peak.mz);
-                if (binMax == null || bin > binMax) {
-                    binMax = bin;
-                }
-                if (binMin == null || bin < binMin) {
-                    binMin = bin;
-                }
-                HashMap<Double, Peak> peaksInBin = peaksMap.get(bin);
-                if (peaksInBin == null) {
-                    peaksInBin = new HashMap<Double, Peak>(4);
-                    peaksMap.put(bin, peaksInBin);
-                }
-                peaksInBin.put(peak.mz, peak);
+        int nPeaks = peakArrays.size();
+        mz = new double[nPeaks];
+        intensity = new double[nPeaks];
+        int size = 0;
+        for (int i = 0; i < nPeaks; i++) {
+            double peakIntensity = peakArrays.getIntensity(i);
+            if (intenstiyLimit == null || peakIntensity >= intenstiyLimit) {
+                mz[size] = peakArrays.getMz(i);
+                intensity[size] = peakIntensity;
+                size++;
             }
         }
+        if (size < nPeaks) {
+            mz = Arrays.copyOf(mz, size);
+            intensity = Arrays.copyOf(intensity, size);
+        }
+        maxIntensity = new double[size];
+        totalIntensity = 0.0;
+        for (int i = 0; i < size; i++) {
+            totalIntensity += intensity[i];
+            maxIntensity[i] = i == 0 ? intensity[i] : Math.max(maxIntensity[i - 1], intensity[i]);
+        }
+        if (size > 0) {
+            int bin1 = getBin(mz[0]);
+            int bin2 = getBin(mz[size - 1]);
+            binMin = Math.min(bin1, bin2);
+            binMax = Math.max(bin1, bin2);
+        }
     }
 
     /**
@@ -137,82 +172,250 @@ public class SpectrumIndex implements UrParameter {
     }
 
     /**
-     * Returns the peaks matching the given m/z. TODO: check only one/two bins
-     * when possible.
+     * Returns the number of peaks in the index.
      *
-     * @param mz a m/z to query
+     * @return the number of peaks in the index
+     */
+    public int size() {
+        return mz.length;
+    }
+
+    /**
+     * Returns the m/z of the peak at the given index.
      *
-     * @return the peaks matching the given m/z
+     * @param index the index of the peak
+     *
+     * @return the m/z of the peak
      */
-    public ArrayList<Peak> getMatchingPeaks(double mz) {
-        int bin0;
+    public double getMz(int index) {
+        return mz[index];
+    }
+
+    /**
+     * Returns the intensity of the peak at the given index.
+     *
+     * @param index the index of the peak
+     *
+     * @return the intensity of the peak
+     */
+    public double getIntensity(int index) {
+        return intensity[index];
+    }
+
+    /**
+     * Returns the maximal intensity of the peaks up to the given index
+     * (inclusive).
+     *
+     * @param index the index of the peak
+     *
+     * @return the maximal intensity of the peaks up to the given index
+     */
+    public double getMaxIntensity(int index) {
+        return maxIntensity[index];
+    }
+
+    /**
+     * Returns the maximal intensity of the peaks with an m/z lower than or
+     * equal to the given m/z, 0 if none.
+     *
+     * @param mzMax the maximal m/z
+     *
+     * @return the maximal intensity of the peaks up to the given m/z
+     */
+    public double getMaxIntensity(double mzMax) {
+        int index = getUpperIndex(mzMax) - 1;
+        return index >= 0 ? maxIntensity[index] : 0;
+    }
+
+    /**
+     * Returns a new peak object for the peak at the given index.
+     *
+     * @param index the index of the peak
+     *
+     * @return the peak
+     */
+    public Peak getPeak(int index) {
+        return new Peak(mz[index], intensity[index]);
+    }
+
+    /**
+     * Returns the index of the first peak with an m/z greater than or equal to
+     * the given m/z, the number of peaks if none.
+     *
+     * @param mzMin the minimal m/z
+     *
+     * @return the index of the first peak with an m/z greater than or equal to
+     * the given m/z
+     */
+    public int getLowerIndex(double mzMin) {
+        int low = 0, high = mz.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mz[middle] < mzMin) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the first peak with an m/z strictly greater than
+     * the given m/z, the number of peaks if none.
+     *
+     * @param mzMax the maximal m/z
+     *
+     * @return the index of the first peak with an m/z strictly greater than
+     * the given m/z
+     */
+    public int getUpperIndex(double mzMax) {
+        int low = 0, high = mz.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mz[middle] <= mzMax) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the lowest m/z matching the given m/z with the tolerance of the
+     * index.
+     *
+     * @param referenceMz the reference m/z
+     *
+     * @return the lowest m/z matching the given m/z
+     */
+    public double getLowerBound(double referenceMz) {
         if (ppm) {
-            bin0 = getBinPpm(mz);
+            return referenceMz * (1 - precursorTolerance / 1000000);
         } else {
-            bin0 = getBinAbsolute(mz);
+            return referenceMz - precursorTolerance;
         }
-        ArrayList<Peak> result = new ArrayList<Peak>(0);
-        HashMap<Double, Peak> binContent = peaksMap.get(bin0 - 1);
-        if (binContent != null) {
-            for (Double peakMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (peakMz - mz) / mz;
-                } else {
-                    error = peakMz - mz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.add(binContent.get(peakMz));
-                }
-            }
+    }
+
+    /**
+     * Returns the highest m/z matching the given m/z with the tolerance of the
+     * index.
+     *
+     * @param referenceMz the reference m/z
+     *
+     * @return the highest m/z matching the given m/z
+     */
+    public double getUpperBound(double referenceMz) {
+        if (ppm) {
+            return referenceMz * (1 + precursorTolerance / 1000000);
+        } else {
+            return referenceMz + precursorTolerance;
+        }
+    }
+
+    /**
+     * Writes the indexes of the peaks matching the given m/z in the given
+     * buffer and returns the number of matching peaks. If the buffer is too
+     * small, only the first matching peaks are written.
+     *
+     * @param mz a m/z to query
+     * @param buffer the buffer where to write the indexes of the matching
+     * peaks
+     *
+     * @return the number of matching peaks
+     */
+    public int getMatchingPeaks(double mz, int[] buffer) {
+        int lowerIndex = getLowerIndex(getLowerBound(mz));
+        int upperIndex = getUpperIndex(getUpperBound(mz));
+        for (int i = lowerIndex; i < upperIndex && i - lowerIndex < buffer.length; i++) {
+            buffer[i - lowerIndex] = i;
         }
-        binContent = peaksMap.get(bin0);
-        if (binContent != null) {
-            for (Double peakMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (peakMz - mz) / mz;
-                } else {
-                    error = peakMz - mz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.add(binContent.get(peakMz));
-                }
+        return Math.max(upperIndex - lowerIndex, 0);
+    }
+
+    /**
+     * Returns the index of the peak matching the given m/z with the lowest
+     * error, -1 if none. If two peaks have the same error the most intense is
+     * returned.
+     *
+     * @param mz a m/z to query
+     *
+     * @return the index of the most accurate peak
+     */
+    public int getMostAccurateIndex(double mz) {
+        int result = -1;
+        double bestError = 0;
+        double upperBound = getUpperBound(mz);
+        for (int i = getLowerIndex(getLowerBound(mz)); i < this.mz.length && this.mz[i] <= upperBound; i++) {
+            double error = Math.abs(this.mz[i] - mz);
+            if (result == -1 || error < bestError || error == bestError && intensity[i] > intensity[result]) {
+                result = i;
+                bestError = error;
             }
         }
-        binContent = peaksMap.get(bin0 + 1);
-        if (binContent != null) {
-            for (Double peakMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (peakMz - mz) / mz;
-                } else {
-                    error = peakMz - mz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.add(binContent.get(peakMz));
-                }
+        return result;
+    }
+
+    /**
+     * Returns the index of the most intense peak matching the given m/z, -1
+     * if none. If two peaks have the same intensity the one with the lowest
+     * error is returned.
+     *
+     * @param mz a m/z to query
+     *
+     * @return the index of the most intense peak
+     */
+    public int getMostIntenseIndex(double mz) {
+        int result = -1;
+        double upperBound = getUpperBound(mz);
+        for (int i = getLowerIndex(getLowerBound(mz)); i < this.mz.length && this.mz[i] <= upperBound; i++) {
+            if (result == -1 || intensity[i] > intensity[result]
+                    || intensity[i] == intensity[result] && Math.abs(this.mz[i] - mz) < Math.abs(this.mz[result] - mz)) {
+                result = i;
             }
         }
         return result;
     }
 
+    /**
+     * Returns the peaks matching the given m/z.
+     *
+     * @param mz a m/z to query
+     *
+     * @return the peaks matching the given m/z
+     */
+    public ArrayList<Peak> getMatchingPeaks(double mz) {
+        int lowerIndex = getLowerIndex(getLowerBound(mz));
+        int upperIndex = getUpperIndex(getUpperBound(mz));
+        ArrayList<Peak> result = new ArrayList<Peak>(Math.max(upperIndex - lowerIndex, 0));
+        for (int i = lowerIndex; i < upperIndex; i++) {
+            result.add(getPeak(i));
+        }
+        return result;
+    }
+
     /**
      * Returns the bins in the map as a list. The list is created every time me method is called.
      *
      * @return the bins in the map
      */
     public ArrayList<Integer> getBins() {
-        return new ArrayList<Integer>(peaksMap.keySet());
+        return new ArrayList<Integer>(getRawBins());
     }
 
     /**
-     * Returns the bins in the map as collection of keys from the map.
+     * Returns the bins in the map as a set. The set is created every time me
+     * method is called.
      *
      * @return the bins in the map
      */
     public Set<Integer> getRawBins() {
-        return peaksMap.keySet();
+        LinkedHashSet<Integer> result = new LinkedHashSet<Integer>();
+        for (double peakMz : mz) {
+            result.add(getBin(peakMz));
+        }
+        return result;
     }
 
     /**
@@ -223,7 +426,27 @@ public class SpectrumIndex implements UrParameter {
      * @return the peaks at the given bin
      */
     public HashMap<Double, Peak> getPeaksInBin(Integer bin) {
-        return peaksMap.get(bin);
+
+        // the bins are monotonic with the m/z, decreasing in ppm
+        int sign = ppm ? -1 : 1;
+        int low = 0, high = mz.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sign * getBin(mz[middle]) < sign * bin) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        HashMap<Double, Peak> result = null;
+        for (int i = low; i < mz.length && getBin(mz[i]) == bin; i++) {
+            if (result == null) {
+                result = new HashMap<Double, Peak>(4);
+            }
+            result.put(mz[i], getPeak(i));
+        }
+        return result;
     }
 
     /**
@@ -243,7 +466,7 @@ public class SpectrumIndex implements UrParameter {
 
     /**
      * Returns the highest bin.
-     * 
+     *
      * @return binMax the highest bin
      */
     public Integer getBinMax() {
@@ -252,7 +475,7 @@ public class SpectrumIndex implements UrParameter {
 
     /**
      * Returns the lowest bin.
-     * 
+     *
      * @return binMin the lowest bin
      */
     public Integer getBinMin() {
@@ -261,7 +484,7 @@ public class SpectrumIndex implements UrParameter {
 
     /**
      * Returns the total intensity of the peaks above the intensity threshold.
-     * 
+     *
      * @return the total intensity of the peaks above the intensity threshold
      */
     public Double getTotalIntensity() {
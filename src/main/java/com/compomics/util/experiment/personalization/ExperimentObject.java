@@ -64,6 +64,16 @@ public abstract class ExperimentObject implements Serializable, Cloneable {
         }
         return urParams.get(parameter.getParameterKey());
     }
+
+    /**
+     * Returns the map of the refinement parameters indexed by parameter key.
+     * Null if no parameter was set. The map is the one backing this object.
+     *
+     * @return the map of the refinement parameters
+     */
+    public HashMap<String, UrParameter> getUrParams() {
+        return urParams;
+    }
     
     /**
      * Clears the loaded parameters.
@@ -0,0 +1,297 @@
+package com.compomics.util.maps;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache bounded by the total weight of its values. Lookups do not lock, when
+ * the cache grows above its capacity the least recently used entries are
+ * evicted. The recency is approximate: the clock only advances when an entry
+ * is added, and a lookup stamps its entry with the current time without
+ * advancing the clock, so that concurrent lookups do not contend on it.
+ *
+ * @author Marc Vaudel
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public class BoundedCache<K, V> {
+
+    /**
+     * Share of the capacity kept when evicting.
+     */
+    private static final double EVICTION_SHARE = 0.9;
+    /**
+     * The cached entries.
+     */
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+    /**
+     * The capacity in total weight.
+     */
+    private volatile long capacity;
+    /**
+     * The total weight of the cached values, every entry counts at least one.
+     */
+    private final AtomicLong weight = new AtomicLong(0);
+    /**
+     * Clock used to date the accesses to the entries, advanced when an entry
+     * is added.
+     */
+    private final AtomicLong clock = new AtomicLong(0);
+    /**
+     * Indicates whether a thread is evicting entries.
+     */
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+    /**
+     * The number of lookups which found an entry.
+     */
+    private final AtomicLong hits = new AtomicLong(0);
+    /**
+     * The number of lookups which did not find an entry.
+     */
+    private final AtomicLong misses = new AtomicLong(0);
+    /**
+     * The number of evicted entries.
+     */
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the capacity in total weight
+     */
+    public BoundedCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the value cached under the given key, null if not cached.
+     *
+     * @param key the key
+     *
+     * @return the cached value
+     */
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        long now = clock.get();
+        if (entry.lastAccess != now) {
+            entry.lastAccess = now;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Caches the value under the given key if not already cached, and evicts
+     * the least recently used entries if the capacity is exceeded.
+     *
+     * @param key the key
+     * @param value the value
+     * @param valueWeight the weight of the value
+     *
+     * @return the value cached under this key, the given one if none was
+     * cached
+     */
+    public V put(K key, V value, long valueWeight) {
+        if (capacity <= 0) {
+            return value;
+        }
+        Entry<V> entry = new Entry<V>(value, Math.max(valueWeight, 1), clock.incrementAndGet());
+        Entry<V> previousEntry = entries.putIfAbsent(key, entry);
+        if (previousEntry != null) {
+            return previousEntry.value;
+        }
+        if (weight.addAndGet(entry.weight) > capacity) {
+            evict();
+        }
+        return value;
+    }
+
+    /**
+     * Evicts the least recently used entries until the weight is below the
+     * share of the capacity to keep. Only one thread evicts at a time, the
+     * other threads continue without waiting.
+     */
+    private void evict() {
+        while (weight.get() > capacity && evicting.compareAndSet(false, true)) {
+            try {
+                long target = (long) (capacity * EVICTION_SHARE);
+                long excess;
+                while ((excess = weight.get() - target) > 0 && !entries.isEmpty()) {
+                    evictOldest(excess);
+                }
+            } finally {
+                evicting.set(false);
+            }
+        }
+    }
+
+    /**
+     * Evicts the entries accessed the longest time ago until the given weight
+     * is removed.
+     *
+     * @param excess the weight to remove
+     */
+    private void evictOldest(long excess) {
+        long[] accesses = new long[entries.size()];
+        int nAccesses = 0;
+        for (Entry<V> entry : entries.values()) {
+            if (nAccesses == accesses.length) {
+                break;
+            }
+            accesses[nAccesses++] = entry.lastAccess;
+        }
+        if (nAccesses == 0) {
+            return;
+        }
+        Arrays.sort(accesses, 0, nAccesses);
+        long nToEvict = Math.max(excess * nAccesses / Math.max(weight.get(), 1), 1);
+        long threshold = accesses[(int) Math.min(nToEvict, nAccesses) - 1];
+        long removed = 0;
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext() && removed < excess) {
+            Map.Entry<K, Entry<V>> mapEntry = iterator.next();
+            Entry<V> entry = mapEntry.getValue();
+            if (entry.lastAccess <= threshold && entries.remove(mapEntry.getKey(), entry)) {
+                weight.addAndGet(-entry.weight);
+                removed += entry.weight;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Empties the cache. The counters are not reset.
+     */
+    public void clear() {
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, Entry<V>> mapEntry = iterator.next();
+            if (entries.remove(mapEntry.getKey(), mapEntry.getValue())) {
+                weight.addAndGet(-mapEntry.getValue().weight);
+            }
+        }
+    }
+
+    /**
+     * Returns the capacity in total weight.
+     *
+     * @return the capacity
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the capacity in total weight. A capacity of zero disables the
+     * cache.
+     *
+     * @param capacity the capacity
+     */
+    public void setCapacity(long capacity) {
+        this.capacity = capacity;
+        if (weight.get() > capacity) {
+            if (capacity <= 0) {
+                clear();
+            } else {
+                evict();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return the number of cached entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the total weight of the cached values.
+     *
+     * @return the total weight of the cached values
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
+    /**
+     * Returns the number of lookups which found an entry.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups which did not find an entry.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of evicted entries.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters.
+     */
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    /**
+     * A cache entry.
+     *
+     * @param <V> the type of value
+     */
+    private static class Entry<V> {
+
+        /**
+         * The cached value.
+         */
+        private final V value;
+        /**
+         * The weight of the entry.
+         */
+        private final long weight;
+        /**
+         * The time of the last access.
+         */
+        private volatile long lastAccess;
+
+        /**
+         * Constructor.
+         *
+         * @param value the cached value
+         * @param weight the weight of the entry
+         * @param lastAccess the time of the last access
+         */
+        Entry(V value, long weight, long lastAccess) {
+            this.value = value;
+            this.weight = weight;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -1,19 +1,38 @@
 package com.compomics.util.math.statistics.distributions;
 
+import com.compomics.util.maps.BoundedCache;
 import com.compomics.util.math.statistics.Distribution;
-import java.util.HashMap;
-import java.util.HashSet;
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.distribution.BinomialDistributionImpl;
 import org.apache.commons.math.special.Beta;
+import org.apache.commons.math.util.MathUtils;
 
 /**
- * Implementation of a binomial distribution.
+ * Implementation of a binomial distribution. The probabilities are computed
+ * for all values at the first request and stored in tables which are not
+ * modified afterwards, the distribution can hence be shared between threads.
+ * Instances for a given number of trials and probability can be shared using
+ * getBinomialDistribution.
  *
  * @author Marc Vaudel
  */
 public class BinomialDistribution implements Distribution {
 
+    /**
+     * The maximal number of trials for which the probabilities are tabulated.
+     * Above, the probabilities are computed at every request.
+     */
+    public static final int MAX_TABLE_SIZE = 100000;
+    /**
+     * The capacity of the registry in total length of the tables of the
+     * distributions it contains.
+     */
+    public static final long REGISTRY_CAPACITY = 1000000;
+    /**
+     * The distributions shared between threads indexed by number of trials
+     * and probability, weighted by the length of their tables.
+     */
+    private static final BoundedCache<DistributionKey, BinomialDistribution> registry = new BoundedCache<DistributionKey, BinomialDistribution>(REGISTRY_CAPACITY);
     /**
      * Instance of the apache distribution.
      */
@@ -27,17 +46,9 @@ public class BinomialDistribution implements Distribution {
      */
     private double p;
     /**
-     * The maximal number of keys kept in each cache map.
-     */
-    private int cacheSize = 1000;
-    /**
-     * A cache for the probabilities.
-     */
-    private HashMap<Integer, Double> pCache = new HashMap<Integer, Double>();
-    /**
-     * A cache for the cumulative probabilities.
+     * The tabulated probabilities, null until first needed.
      */
-    private HashMap<Integer, Double> descendingCumulativePCache = new HashMap<Integer, Double>();
+    private volatile ProbabilityTables probabilityTables = null;
 
     /**
      * Constructor.
@@ -51,85 +62,200 @@ public class BinomialDistribution implements Distribution {
         binomialDistributionImpl = new BinomialDistributionImpl(n, p);
     }
 
+    /**
+     * Returns a binomial distribution for the given number of trials and
+     * probability. The distribution is shared with the other callers
+     * requesting the same parameters. The registry only pays off when the
+     * same parameters are requested repeatedly. For a probability changing at
+     * every call, use getDescendingCumulativeProbability(n, p, k).
+     *
+     * @param n the number of trials
+     * @param p the probability of success of each trial
+     *
+     * @return the binomial distribution
+     */
+    public static BinomialDistribution getBinomialDistribution(int n, double p) {
+        DistributionKey key = new DistributionKey(n, p);
+        BinomialDistribution distribution = registry.get(key);
+        if (distribution == null) {
+            distribution = registry.put(key, new BinomialDistribution(n, p), n <= MAX_TABLE_SIZE ? n + 1 : 1);
+        }
+        return distribution;
+    }
+
+    /**
+     * Empties the registry of shared distributions.
+     */
+    public static void clearRegistry() {
+        registry.clear();
+    }
+
+    /**
+     * Returns the number of trials.
+     *
+     * @return the number of trials
+     */
+    public int getN() {
+        return n;
+    }
+
+    /**
+     * Returns the probability of success of each trial.
+     *
+     * @return the probability of success of each trial
+     */
+    public double getP() {
+        return p;
+    }
+
+    /**
+     * Returns the tabulated probabilities, null if the number of trials is
+     * too large to be tabulated.
+     *
+     * @return the tabulated probabilities
+     */
+    private ProbabilityTables getProbabilityTables() {
+        ProbabilityTables result = probabilityTables;
+        if (result == null && n <= MAX_TABLE_SIZE) {
+            // concurrent threads might compute the same tables, only one is kept
+            result = new ProbabilityTables(binomialDistributionImpl, n, p);
+            probabilityTables = result;
+        }
+        return result;
+    }
+
     @Override
     public Double getProbabilityAt(double x) {
+        return getProbability(x);
+    }
+
+    /**
+     * Returns the probability to have the given number of successes.
+     *
+     * @param x the number of successes
+     *
+     * @return the probability
+     */
+    public double getProbability(double x) {
 
         if (x < 0 || x > n) {
             return 0.0;
         }
 
         int k = (int) x;
-        Double result = pCache.get(k);
-        if (result == null) {
-            result = binomialDistributionImpl.probability(k);
-            addPToCache(k, result);
+        ProbabilityTables tables = getProbabilityTables();
+        if (tables == null) {
+            return binomialDistributionImpl.probability(k);
         }
+        return tables.probabilities[k];
+    }
 
-        return result;
+    /**
+     * Returns the natural logarithm of the probability to have the given
+     * number of successes.
+     *
+     * @param x the number of successes
+     *
+     * @return the log of the probability
+     */
+    public double getLogProbability(double x) {
+
+        if (x < 0 || x > n) {
+            return Double.NEGATIVE_INFINITY;
+        }
 
+        int k = (int) x;
+        ProbabilityTables tables = getProbabilityTables();
+        if (tables == null) {
+            double probability = binomialDistributionImpl.probability(k);
+            if (probability >= Double.MIN_NORMAL) {
+                return Math.log(probability);
+            }
+            return getLogProbability(MathUtils.binomialCoefficientLog(n, k), n, p, k);
+        }
+        return tables.logProbabilities[k];
     }
 
     /**
-     * Adds a probability to the cache and manages the cache size.
+     * Returns the natural logarithm of the probability to have the given
+     * number of successes computed in the log space, so that it does not
+     * underflow when the probability is too small to be represented.
+     *
+     * @param logBinomialCoefficient the log of the binomial coefficient of n
+     * and k
+     * @param n the number of trials
+     * @param p the probability of success of each trial
+     * @param k the number of successes
      *
-     * @param k the value
-     * @param p the probability
+     * @return the log of the probability
      */
-    private synchronized void addPToCache(int k, Double p) {
-        if (pCache.size() >= cacheSize) {
-            HashSet<Integer> keys = new HashSet<Integer>(pCache.keySet());
-            for (Integer key : keys) {
-                pCache.remove(key);
-                if (pCache.size() < cacheSize) {
-                    break;
-                }
-            }
+    private static double getLogProbability(double logBinomialCoefficient, int n, double p, int k) {
+        if (p == 0.0) {
+            return k == 0 ? 0.0 : Double.NEGATIVE_INFINITY;
+        } else if (p == 1.0) {
+            return k == n ? 0.0 : Double.NEGATIVE_INFINITY;
         }
-        pCache.put(k, p);
+        return logBinomialCoefficient + k * Math.log(p) + (n - k) * Math.log1p(-p);
     }
 
     @Override
     public Double getCumulativeProbabilityAt(double x) throws MathException {
 
-        return 1.0 - getDescendingCumulativeProbabilityAt(x);
+        return 1.0 - getDescendingCumulativeProbability(x);
     }
 
     @Override
     public Double getDescendingCumulativeProbabilityAt(double x) throws MathException {
+        return getDescendingCumulativeProbability(x);
+    }
+
+    /**
+     * Returns the probability to have more successes than the given number.
+     *
+     * @param x the number of successes
+     *
+     * @return the descending cumulative probability
+     *
+     * @throws MathException if a MathException occurs
+     */
+    public double getDescendingCumulativeProbability(double x) throws MathException {
 
         int k = (int) x;
-        if (k > n) {
+        if (k >= n) {
             return 0.0;
         } else if (k < 0) {
             return 1.0;
         }
-        Double result = pCache.get(k);
-        if (result == null) {
-            // adapted from http://commons.apache.org/proper/commons-math/apidocs/src-html/org/apache/commons/math3/distribution/BinomialDistribution.html#line.130
-            result = Beta.regularizedBeta(p, x + 1.0, n - x);
-            addDescendingCumulativePToCache(k, result);
+        ProbabilityTables tables = getProbabilityTables();
+        if (tables == null) {
+            return getDescendingCumulativeProbability(n, p, k);
         }
-
-        return result;
+        return tables.descendingCumulativeProbabilities[k];
     }
 
     /**
-     * Adds a probability to the cache and manages the cache size.
+     * Returns the probability to have more successes than the given number
+     * for the given number of trials and probability. The probability is
+     * computed directly, without tabulating the distribution nor using the
+     * registry. This should be preferred when the probability of success
+     * changes at every call, e.g. when it is estimated for every spectrum.
      *
-     * @param k the value
-     * @param p the probability
+     * @param n the number of trials
+     * @param p the probability of success of each trial
+     * @param k the number of successes
+     *
+     * @return the descending cumulative probability
+     *
+     * @throws MathException if a MathException occurs
      */
-    private synchronized void addDescendingCumulativePToCache(int k, Double p) {
-        if (descendingCumulativePCache.size() >= cacheSize) {
-            HashSet<Integer> keys = new HashSet<Integer>(descendingCumulativePCache.keySet());
-            for (Integer key : keys) {
-                descendingCumulativePCache.remove(key);
-                if (descendingCumulativePCache.size() < cacheSize) {
-                    break;
-                }
-            }
+    public static double getDescendingCumulativeProbability(int n, double p, int k) throws MathException {
+        if (k >= n) {
+            return 0.0;
+        } else if (k < 0) {
+            return 1.0;
         }
-        descendingCumulativePCache.put(k, p);
+        // adapted from http://commons.apache.org/proper/commons-math/apidocs/src-html/org/apache/commons/math3/distribution/BinomialDistribution.html#line.130
+        return Beta.regularizedBeta(p, k + 1.0, n - k);
     }
 
     /**
@@ -138,7 +264,7 @@ public class BinomialDistribution implements Distribution {
      * @return a boolean indicating whether all caches are empty
      */
     public boolean isCacheEmpty() {
-        return pCache.isEmpty() && descendingCumulativePCache.isEmpty();
+        return probabilityTables == null;
     }
 
     @Override
@@ -165,4 +291,96 @@ public class BinomialDistribution implements Distribution {
     public Double getValueAtDescendingCumulativeProbability(double p) throws MathException {
         throw new UnsupportedOperationException("Not supported.");
     }
+
+    /**
+     * The probabilities of a binomial distribution for all numbers of
+     * successes.
+     */
+    private static class ProbabilityTables {
+
+        /**
+         * The probability of every number of successes.
+         */
+        private final double[] probabilities;
+        /**
+         * The log of the probability of every number of successes.
+         */
+        private final double[] logProbabilities;
+        /**
+         * The probability to have more successes than every number of
+         * successes.
+         */
+        private final double[] descendingCumulativeProbabilities;
+
+        /**
+         * Constructor.
+         *
+         * @param binomialDistributionImpl the apache distribution
+         * @param n the number of trials
+         * @param p the probability of success of each trial
+         */
+        ProbabilityTables(BinomialDistributionImpl binomialDistributionImpl, int n, double p) {
+
+            probabilities = new double[n + 1];
+            logProbabilities = new double[n + 1];
+            descendingCumulativeProbabilities = new double[n + 1];
+
+            double logBinomialCoefficient = 0.0;
+            for (int k = 0; k <= n; k++) {
+                probabilities[k] = binomialDistributionImpl.probability(k);
+                if (k > 0) {
+                    logBinomialCoefficient += Math.log(((double) (n - k + 1)) / k);
+                }
+                // the log is computed in the log space where the probability underflows
+                logProbabilities[k] = probabilities[k] >= Double.MIN_NORMAL ? Math.log(probabilities[k]) : getLogProbability(logBinomialCoefficient, n, p, k);
+            }
+
+            // sum from the tail to add the small probabilities first
+            double sum = 0.0;
+            for (int k = n - 1; k >= 0; k--) {
+                sum += probabilities[k + 1];
+                descendingCumulativeProbabilities[k] = Math.min(sum, 1.0);
+            }
+        }
+    }
+
+    /**
+     * Key of a distribution in the registry.
+     */
+    private static class DistributionKey {
+
+        /**
+         * The number of trials.
+         */
+        private final int n;
+        /**
+         * The bits of the probability of success of each trial.
+         */
+        private final long pBits;
+
+        /**
+         * Constructor.
+         *
+         * @param n the number of trials
+         * @param p the probability of success of each trial
+         */
+        DistributionKey(int n, double p) {
+            this.n = n;
+            this.pBits = Double.doubleToLongBits(p);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * n + (int) (pBits ^ (pBits >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DistributionKey)) {
+                return false;
+            }
+            DistributionKey other = (DistributionKey) obj;
+            return n == other.n && pBits == other.pBits;
+        }
+    }
 }
@@ -14,9 +14,11 @@ package com.compomics.util.protein;
 
 import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
 import java.io.Serializable;
+import java.nio.charset.Charset;
 import org.apache.log4j.Logger;
 
 import java.util.StringTokenizer;
+import java.util.regex.Pattern;
 
 /**
  * This class represents the header for a Protein instance. It is meant to work
@@ -39,6 +41,65 @@ public class Header implements Cloneable, Serializable {
      * Class specific log4j logger for Header instances.
      */
     static Logger logger = Logger.getLogger(Header.class);
+    /**
+     * The character set used to decode header lines from bytes, one character
+     * per byte like RandomAccessFile.readLine.
+     */
+    private static final Charset HEADER_CHARSET = Charset.forName("ISO-8859-1");
+    /**
+     * Pattern of the Drosophile headers.
+     */
+    private static final Pattern DROSOPHILE_PATTERN = Pattern.compile("^CG.* pep:.*");
+    /**
+     * Pattern of the SGD headers.
+     */
+    private static final Pattern SGD_PATTERN = Pattern.compile(".*SGDID:[^\\s]+,.*");
+    /**
+     * Pattern of the old (before 9.0) SwissProt headers.
+     */
+    private static final Pattern OLD_SWISSPROT_PATTERN = Pattern.compile("^[^\\s]+_[^\\s]+ \\([PQOA][^\\s]+\\) .*");
+    /**
+     * Pattern of the SwissProt headers without database prefix, i.e.
+     * accession|ID descr.
+     */
+    private static final Pattern SWISSPROT_PATTERN = Pattern.compile("^[^\\s]*\\|[^\\s]+_[^\\s]+ .*");
+    /**
+     * Pattern of the Flybase headers.
+     */
+    private static final Pattern FLYBASE_PATTERN = Pattern.compile("^FB.+\\stype=.*");
+    /**
+     * Pattern of the genome translation headers.
+     */
+    private static final Pattern GENOME_TRANSLATION_PATTERN = Pattern.compile(".* [.]*\\[[\\d]+[ ]?\\-[ ]?[\\d]+\\].*");
+    /**
+     * Pattern of the TAIR headers.
+     */
+    private static final Pattern TAIR_PATTERN = Pattern.compile("^[^|\t]* [|] Symbol[^|]*[|] [^|]* [|].*");
+    /**
+     * Pattern of the PSB Arabidopsis thaliana headers.
+     */
+    private static final Pattern PSB_ARABIDOPSIS_PATTERN = Pattern.compile("^nrAt[^\t]*\t.*");
+    /**
+     * Pattern of the Listeria headers.
+     */
+    private static final Pattern LISTERIA_PATTERN = Pattern.compile("^L. monocytogenes[^|]*[|][^|]*[|].*");
+    /**
+     * Pattern of a location at the end of an accession, e.g. P12345(42 49).
+     */
+    private static final Pattern SPACE_LOCATION_PATTERN = Pattern.compile("[^\\(]+\\([\\d]+ [\\d]+\\)$");
+    /**
+     * Pattern of a location at the end of a header where the end is a single
+     * digit, e.g. P12345(42 9).
+     */
+    private static final Pattern SHORT_SPACE_LOCATION_PATTERN = Pattern.compile("[^\\(]+\\([\\d]+ [\\d]\\)$");
+    /**
+     * Pattern of a location at the end of an accession, e.g. P12345(42-49).
+     */
+    private static final Pattern DASH_LOCATION_PATTERN = Pattern.compile("[^\\(]+\\([\\d]+-[\\d]+\\)$");
+    /**
+     * Pattern of a location, e.g. (42-49).
+     */
+    private static final Pattern LOCATION_PATTERN = Pattern.compile("[(][0-9]+-[0-9]+[)]");
 
     /**
      * Private constructor to force use of factory methods.
@@ -215,11 +276,52 @@ public class Header implements Cloneable, Serializable {
      * parsing
      */
     public static Header parseFromFASTA(String aFASTAHeader) throws StringIndexOutOfBoundsException {
+        return parseFromFASTA(aFASTAHeader, true);
+    }
+
+    /**
+     * Factory method that constructs a Header instance based on a FASTA header
+     * line stored in a byte buffer, for example a line of a memory mapped
+     * FASTA file. The surrounding white space and line break are skipped in
+     * the buffer and the header is decoded in a single string, one character
+     * per byte.
+     *
+     * @param buffer the buffer containing the header line
+     * @param offset the index of the first byte of the line
+     * @param length the number of bytes of the line
+     * @return Header with the Header instance representing the given header.
+     * The object returned will have been parsed correctly if it is a standard
+     * SwissProt or NCBI formatted header, and will be plain in all other cases.
+     * @throws StringIndexOutOfBoundsException thrown if issues occur during the
+     * parsing
+     */
+    public static Header parseFromFASTA(byte[] buffer, int offset, int length) throws StringIndexOutOfBoundsException {
+        int start = offset;
+        int end = offset + length;
+        while (start < end && (buffer[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (buffer[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+        return parseFromFASTA(new String(buffer, start, end - start, HEADER_CHARSET), false);
+    }
+
+    /**
+     * Parses a FASTA header line.
+     *
+     * @param aFASTAHeader the String with the original FASTA header line
+     * @param trim if false the header is already trimmed
+     * @return Header with the Header instance representing the given header
+     * @throws StringIndexOutOfBoundsException thrown if issues occur during the
+     * parsing
+     */
+    private static Header parseFromFASTA(String aFASTAHeader, boolean trim) throws StringIndexOutOfBoundsException {
         Header result = null;
 
         if (aFASTAHeader == null) {
             // Do nothing, just return 'null'.
-        } else if (aFASTAHeader.trim().equals("")) {
+        } else if (trim && aFASTAHeader.trim().equals("") || aFASTAHeader.length() == 0) {
             result = new Header();
             result.iRest = "";
             result.iRawHeader = "";
@@ -227,7 +329,9 @@ public class Header implements Cloneable, Serializable {
             result = new Header();
 
             // remove leading and trailing white space
-            aFASTAHeader = aFASTAHeader.trim();
+            if (trim) {
+                aFASTAHeader = aFASTAHeader.trim();
+            }
 
             // save the raw unformatted header
             result.iRawHeader = aFASTAHeader;
@@ -246,7 +350,10 @@ public class Header implements Cloneable, Serializable {
             }
             try {
                 // First determine what kind of Header we've got.
-                if (aFASTAHeader.startsWith("sw|") || aFASTAHeader.startsWith("SW|")) {
+                if (isUniProtHeader(aFASTAHeader)) {
+                    // Standard UniProt header, by far the most common, parsed without going through the other types.
+                    parseUniProtHeader(result, aFASTAHeader);
+                } else if (aFASTAHeader.startsWith("sw|") || aFASTAHeader.startsWith("SW|")) {
                     // SwissProt.
                     // We need to find three elements:
                     //   - the ID (sw, we already know that one).
@@ -519,7 +626,7 @@ public class Header implements Cloneable, Serializable {
                         result.iEnd = Integer.parseInt(temp.substring(minus + 1, end));
                     }
                     result.iDescription = aFASTAHeader.substring(accessionEndLoc + 1).trim();
-                } else if (aFASTAHeader.matches("^CG.* pep:.*")) {
+                } else if (aFASTAHeader.startsWith("CG") && DROSOPHILE_PATTERN.matcher(aFASTAHeader).matches()) {
                     // Drosophile DB.
                     // We need to find two elements:
                     //   - the accession String (retrieved as the trimmed version of everything
@@ -547,7 +654,7 @@ public class Header implements Cloneable, Serializable {
                         result.iEnd = Integer.parseInt(temp.substring(minus + 1, end));
                     }
                     result.iDescription = possibleDescriptionPrefix + aFASTAHeader.substring(pepLoc).trim();
-                } else if (aFASTAHeader.matches(".*SGDID:[^\\s]+,.*")) {
+                } else if (isSgdHeader(aFASTAHeader)) {
                     // OK, SGD entry. The text up to but not including the first space is deemed accession,
                     // everything else is taken as description.
                     // So we need to find two elements:
@@ -596,7 +703,7 @@ public class Header implements Cloneable, Serializable {
                         result.iDescription = "";
                     }
 
-                } else if (aFASTAHeader.matches("^[^\\s]+_[^\\s]+ \\([PQOA][^\\s]+\\) .*") && aFASTAHeader.lastIndexOf("|") == -1) {
+                } else if (aFASTAHeader.lastIndexOf("|") == -1 && OLD_SWISSPROT_PATTERN.matcher(aFASTAHeader).matches()) {
                     // Old (everything before 9.0 release (31 Oct 2006)) standard SwissProt header as
                     // present in the Expasy FTP FASTA file.
                     // Is formatted something like this:
@@ -610,70 +717,19 @@ public class Header implements Cloneable, Serializable {
 
                     // try to get the gene name and taxonomy
                     //parseUniProtDescription(result);  // @TOOD: not sure if the header has the right format...
-                } else if (aFASTAHeader.matches("^sp\\|[^|]*\\|[^\\s]+_[^\\s]+ .*")) {
-                    // New (September 2008 and beyond) standard SwissProt header as
-                    // present in the Expasy FTP FASTA file.
-                    // Is formatted something like this:
-                    //  >sp|accession|ID descr rest (including taxonomy, if available)
-                    String tempHeader = aFASTAHeader.substring(3);
-                    result.iAccession = tempHeader.substring(0, tempHeader.indexOf("|")).trim();
-                    // See if there is location information.
-                    if (result.iAccession.matches("[^\\(]+\\([\\d]+ [\\d]\\)$")) {
-                        int openBracket = result.iAccession.indexOf("(");
-                        result.iStart = Integer.parseInt(result.iAccession.substring(openBracket, result.iAccession.indexOf(" ", openBracket)).trim());
-                        result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf(" ", openBracket), result.iAccession.indexOf(")")).trim());
-                        result.iAccession = result.iAccession.substring(0, openBracket).trim();
-                    } else if (result.iAccession.matches("[^\\(]+\\([\\d]+-[\\d]+\\)$")) {
-                        int openBracket = result.iAccession.indexOf("(");
-                        result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
-                        result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
-                        result.iAccession = result.iAccession.substring(0, openBracket).trim();
-                    }
-                    result.databaseType = DatabaseType.UniProt;
-                    result.iID = "sp";
-                    result.iDescription = tempHeader.substring(tempHeader.indexOf("|") + 1);
-
-                    // try to get the gene name and taxonomy
-                    parseUniProtDescription(result);
-
-                } else if (aFASTAHeader.matches("^tr\\|[^|]*\\|[^\\s]+_[^\\s]+ .*")) {
-                    // New (September 2008 and beyond) standard SwissProt header as
-                    // present in the Expasy FTP FASTA file.
-                    // Is formatted something like this:
-                    //  >tr|accession|ID descr rest (including taxonomy, if available)
-                    String tempHeader = aFASTAHeader.substring(3);
-                    result.iAccession = tempHeader.substring(0, tempHeader.indexOf("|")).trim();
-                    // See if there is location information.
-                    if (result.iAccession.matches("[^\\(]+\\([\\d]+ [\\d]+\\)$")) {
-                        int openBracket = result.iAccession.indexOf("(");
-                        result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf(" ", openBracket)).trim());
-                        result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf(" ", openBracket), result.iAccession.indexOf(")")).trim());
-                        result.iAccession = result.iAccession.substring(0, openBracket).trim();
-                    } else if (result.iAccession.matches("[^\\(]+\\([\\d]+-[\\d]+\\)$")) {
-                        int openBracket = result.iAccession.indexOf("(");
-                        result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
-                        result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
-                        result.iAccession = result.iAccession.substring(0, openBracket).trim();
-                    }
-                    result.databaseType = DatabaseType.UniProt;
-                    result.iID = "tr";
-                    result.iDescription = tempHeader.substring(tempHeader.indexOf("|") + 1);
-
-                    // try to get the gene name and taxonomy
-                    parseUniProtDescription(result);
-                }  else if (aFASTAHeader.matches("^en\\|[^|]*\\|.*")) {
+                } else if (aFASTAHeader.startsWith("en|") && aFASTAHeader.indexOf('|', 3) >= 0 && hasNoLineTerminator(aFASTAHeader, 3)) {
                         // Ensembl Genomes header
                         // Is formatted something like this:
                         //  >en|CCF76815|pCol1B9_SL1344:3971-4420 conserved hypothetical plasmid protein
                         String tempHeader = aFASTAHeader.substring(3);
                         result.iAccession = tempHeader.substring(0, tempHeader.indexOf("|")).trim();
                         // See if there is location information.
-                        if (result.iAccession.matches("[^\\(]+\\([\\d]+ [\\d]+\\)$")) {
+                        if (result.iAccession.indexOf('(') >= 0 && SPACE_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
                             int openBracket = result.iAccession.indexOf("(");
                             result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf(" ", openBracket)).trim());
                             result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf(" ", openBracket), result.iAccession.indexOf(")")).trim());
                             result.iAccession = result.iAccession.substring(0, openBracket).trim();
-                        } else if (result.iAccession.matches("[^\\(]+\\([\\d]+-[\\d]+\\)$")) {
+                        } else if (result.iAccession.indexOf('(') >= 0 && DASH_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
                             int openBracket = result.iAccession.indexOf("(");
                             result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
                             result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
@@ -708,14 +764,14 @@ public class Header implements Cloneable, Serializable {
                     result.iAccession = aFASTAHeader.substring(0, aFASTAHeader.indexOf(" "));
                     result.iDescription = aFASTAHeader.substring(aFASTAHeader.indexOf(" ") + 1);
 
-                } else if (aFASTAHeader.matches("^[^\\s]*\\|[^\\s]+_[^\\s]+ .*")) {
+                } else if (aFASTAHeader.indexOf('|') >= 0 && SWISSPROT_PATTERN.matcher(aFASTAHeader).matches()) {
                     // New (9.0 release (31 Oct 2006) and beyond) standard SwissProt header as
                     // present in the Expasy FTP FASTA file.
                     // Is formatted something like this:
                     //  >accession|ID descr rest (including taxonomy, if available)
                     result.iAccession = aFASTAHeader.substring(0, aFASTAHeader.indexOf("|")).trim();
                     // See if there is location information.
-                    if (aFASTAHeader.matches("[^\\(]+\\([\\d]+ [\\d]\\)$")) {
+                    if (aFASTAHeader.indexOf('(') >= 0 && SHORT_SPACE_LOCATION_PATTERN.matcher(aFASTAHeader).matches()) {
                         int openBracket = aFASTAHeader.indexOf("(");
                         result.iAccession = aFASTAHeader.substring(0, openBracket).trim();
                         result.iStart = Integer.parseInt(aFASTAHeader.substring(openBracket, aFASTAHeader.indexOf(" ", openBracket)).trim());
@@ -727,11 +783,11 @@ public class Header implements Cloneable, Serializable {
 
                     // try to get the gene name and taxonomy
                     parseUniProtDescription(result);
-                } else if (aFASTAHeader.matches("^FB.+\\stype=.*")) {
+                } else if (aFASTAHeader.startsWith("FB") && FLYBASE_PATTERN.matcher(aFASTAHeader).matches()) {
                     // Flybase FASTA format.
                     // Accession number
                     result.iAccession = aFASTAHeader.substring(0, aFASTAHeader.indexOf("type")).trim();
-                    if (result.iAccession.matches("[^\\(]+\\([\\d]+-[\\d]+\\)$")) {
+                    if (result.iAccession.indexOf('(') >= 0 && DASH_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
                         int openBracket = result.iAccession.indexOf("(");
                         result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
                         result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
@@ -740,7 +796,7 @@ public class Header implements Cloneable, Serializable {
                     result.databaseType = DatabaseType.Flybase;
                     result.iID = "";
                     result.iDescription = aFASTAHeader.substring(aFASTAHeader.indexOf("type="));
-                } else if (aFASTAHeader.matches(".* [.]*\\[[\\d]+[ ]?\\-[ ]?[\\d]+\\].*")) {
+                } else if (aFASTAHeader.indexOf('[') >= 0 && GENOME_TRANSLATION_PATTERN.matcher(aFASTAHeader).matches()) {
                     // A header translating a genome sequence into a protein sequences.
                     // We need to find two elements, separated by a space:
                     //   - the accession string (retrieved as the first part of a space delimited String).
@@ -774,7 +830,7 @@ public class Header implements Cloneable, Serializable {
                     }
 
                     result.iDescription = aFASTAHeader.substring(accessionEndLoc + 1).trim();
-                } else if (aFASTAHeader.matches("^[^|\t]* [|] Symbol[^|]*[|] [^|]* [|].*")) {
+                } else if (aFASTAHeader.contains(" | Symbol") && TAIR_PATTERN.matcher(aFASTAHeader).matches()) {
                     // The Arabidopsis thaliana database; TAIR format
                     // We need to find two elements, separated by pipes:
                     //   - the accession number with version (retrieved as the part before the first pipe).
@@ -799,7 +855,7 @@ public class Header implements Cloneable, Serializable {
                         result.iStart = Integer.parseInt(temp.substring(open, minus));
                         result.iEnd = Integer.parseInt(temp.substring(minus + 1, end));
                     }
-                } else if (aFASTAHeader.matches("^nrAt[^\t]*\t.*")) {
+                } else if (aFASTAHeader.startsWith("nrAt") && PSB_ARABIDOPSIS_PATTERN.matcher(aFASTAHeader).matches()) {
                     // The PSB Arabidopsis thaliana database; proprietary format
                     // We need to find three elements:
                     //   - the internal accession (at the start, separated by 'tab' and space from the next part).
@@ -830,7 +886,7 @@ public class Header implements Cloneable, Serializable {
                         result.iStart = Integer.parseInt(temp.substring(open, minus));
                         result.iEnd = Integer.parseInt(temp.substring(minus + 1, end));
                     }
-                } else if (aFASTAHeader.matches("^L. monocytogenes[^|]*[|][^|]*[|].*")) {
+                } else if (aFASTAHeader.startsWith("L") && LISTERIA_PATTERN.matcher(aFASTAHeader).matches()) {
                     // The Listeria database; proprietary format
                     // We need to find three elements:
                     //   - the leader element (at the start, separated by '|' from the next part).
@@ -920,7 +976,7 @@ public class Header implements Cloneable, Serializable {
 
                     if ((accessionEndLoc > 0) && (aFASTAHeader.contains("(")) && (aFASTAHeader.indexOf(")", aFASTAHeader.indexOf("(") + 1) >= 0)) {
                         // Now we have to see if there is location information present.
-                        if (aFASTAHeader.substring(accessionEndLoc + 1, aFASTAHeader.indexOf(")", accessionEndLoc + 2) + 1).matches("[(][0-9]+-[0-9]+[)]") && !aFASTAHeader.substring(accessionEndLoc + 2, aFASTAHeader.indexOf(")", accessionEndLoc + 2)).equals(aFASTAHeader.substring(0, accessionEndLoc).trim())) {
+                        if (LOCATION_PATTERN.matcher(aFASTAHeader.substring(accessionEndLoc + 1, aFASTAHeader.indexOf(")", accessionEndLoc + 2) + 1)).matches() && !aFASTAHeader.substring(accessionEndLoc + 2, aFASTAHeader.indexOf(")", accessionEndLoc + 2)).equals(aFASTAHeader.substring(0, accessionEndLoc).trim())) {
                             // start and end found. Add it to the accession number and remove it from the description.
                             accessionEndLoc = aFASTAHeader.indexOf(")", accessionEndLoc) + 1;
                         }
@@ -1703,6 +1759,119 @@ public class Header implements Cloneable, Serializable {
         }
     }
 
+    /**
+     * Indicates whether the given header is a standard UniProt header, i.e.
+     * sp|accession|ID descr or tr|accession|ID descr, where the ID contains an
+     * underscore. The header is checked without regular expression.
+     *
+     * @param header the header without leading '&gt;'
+     *
+     * @return true if the header is a standard UniProt header
+     */
+    private static boolean isUniProtHeader(String header) {
+        if (!header.startsWith("sp|") && !header.startsWith("tr|")) {
+            return false;
+        }
+        int accessionEnd = header.indexOf('|', 3);
+        if (accessionEnd == -1) {
+            return false;
+        }
+        // the ID runs until the first white space, which must be a space, and has an underscore neither first nor last
+        int idStart = accessionEnd + 1;
+        int idEnd = idStart;
+        while (idEnd < header.length() && !isWhiteSpace(header.charAt(idEnd))) {
+            idEnd++;
+        }
+        if (idEnd == header.length() || header.charAt(idEnd) != ' ') {
+            return false;
+        }
+        int underscore = header.indexOf('_', idStart + 1);
+        if (underscore == -1 || underscore >= idEnd - 1) {
+            return false;
+        }
+        return hasNoLineTerminator(header, idEnd + 1) && !isSgdHeader(header);
+    }
+
+    /**
+     * Parses a standard UniProt header as identified by isUniProtHeader.
+     *
+     * @param result the header where to store the parsed information
+     * @param header the header without leading '&gt;'
+     */
+    private static void parseUniProtHeader(Header result, String header) {
+        // New (September 2008 and beyond) standard SwissProt header as
+        // present in the Expasy FTP FASTA file.
+        // Is formatted something like this:
+        //  >sp|accession|ID descr rest (including taxonomy, if available)
+        //  >tr|accession|ID descr rest (including taxonomy, if available)
+        int accessionEnd = header.indexOf('|', 3);
+        result.iAccession = header.substring(3, accessionEnd).trim();
+        // See if there is location information.
+        if (result.iAccession.indexOf('(') >= 0) {
+            if (SPACE_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
+                int openBracket = result.iAccession.indexOf("(");
+                result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf(" ", openBracket)).trim());
+                result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf(" ", openBracket), result.iAccession.indexOf(")")).trim());
+                result.iAccession = result.iAccession.substring(0, openBracket).trim();
+            } else if (DASH_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
+                int openBracket = result.iAccession.indexOf("(");
+                result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
+                result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
+                result.iAccession = result.iAccession.substring(0, openBracket).trim();
+            }
+        }
+        result.databaseType = DatabaseType.UniProt;
+        result.iID = header.substring(0, 2);
+        result.iDescription = header.substring(accessionEnd + 1);
+
+        // try to get the gene name and taxonomy
+        parseUniProtDescription(result);
+    }
+
+    /**
+     * Indicates whether the given header is an SGD header, i.e. contains
+     * SGDID:xxx, in the description.
+     *
+     * @param header the header without leading '&gt;'
+     *
+     * @return true if the header is an SGD header
+     */
+    private static boolean isSgdHeader(String header) {
+        return header.contains("SGDID:") && SGD_PATTERN.matcher(header).matches();
+    }
+
+    /**
+     * Indicates whether a character is a white space as understood by \s in
+     * regular expressions.
+     *
+     * @param c the character
+     *
+     * @return true if the character is a white space
+     */
+    private static boolean isWhiteSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Indicates whether the given string has no line terminator from the
+     * given index, i.e. whether .* in a regular expression would match the
+     * end of the string.
+     *
+     * @param header the header
+     * @param from the index where to start looking
+     *
+     * @return true if no line terminator is found
+     */
+    private static boolean hasNoLineTerminator(String header, int from) {
+        for (int i = from; i < header.length(); i++) {
+            char c = header.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Tries to extract the gene name, taxonomy and the protein evidence level
      * from a UniProt description.
@@ -7,6 +7,7 @@ import com.compomics.util.experiment.biology.NeutralLoss;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.biology.ions.ElementaryIon;
 import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.biology.ions.PeptideFragmentTable;
 import com.compomics.util.experiment.biology.ions.TagFragmentIon;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
@@ -706,4 +707,26 @@ public class FragmentFactoryTest extends TestCase {
             }
         }
     }
+
+    /**
+     * Tests the fragment table of a peptide.
+     */
+    public void testPeptideFragmentTable() {
+
+        String sequence = "ACDEFGHIKLMNPQRSTVWY";
+        Peptide peptide = new Peptide(sequence, new ArrayList<ModificationMatch>());
+        PeptideFragmentTable fragmentTable = fragmentFactory.getPeptideFragmentTable(peptide);
+
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> ions = fragmentFactory.getFragmentIons(peptide);
+        HashMap<Integer, ArrayList<Ion>> fragmentIons = ions.get(Ion.IonType.PEPTIDE_FRAGMENT_ION.index);
+        for (Integer subType : fragmentIons.keySet()) {
+            for (Ion ion : fragmentIons.get(subType)) {
+                PeptideFragmentIon peptideFragmentIon = (PeptideFragmentIon) ion;
+                if (!peptideFragmentIon.hasNeutralLosses()) {
+                    Assert.assertEquals(peptideFragmentIon.getTheoreticMass(), fragmentTable.getMass(subType, peptideFragmentIon.getNumber()), 1e-9);
+                }
+            }
+        }
+        Assert.assertEquals(2394.1249, fragmentTable.getPeptideMass(), tolerance);
+    }
 }
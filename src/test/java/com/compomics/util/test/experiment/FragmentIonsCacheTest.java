@@ -0,0 +1,186 @@
+package com.compomics.util.test.experiment;
+
+import com.compomics.util.experiment.biology.CompactFragmentIons;
+import com.compomics.util.experiment.biology.FragmentIonsCache;
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.IonFactory;
+import com.compomics.util.experiment.biology.NeutralLoss;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import java.util.ArrayList;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Test for the cache of the fragment ions of the ion factory.
+ *
+ * @author Marc Vaudel
+ */
+public class FragmentIonsCacheTest extends TestCase {
+
+    /**
+     * The ion factory.
+     */
+    private final IonFactory ionFactory = IonFactory.getInstance();
+
+    /**
+     * Tests that the cached ions are found again and are the same as the ions
+     * of the factory.
+     */
+    public void testHits() {
+        FragmentIonsCache cache = getEmptyCache();
+        Peptide peptide = getPeptide("Oxidation of M", 6);
+
+        CompactFragmentIons fragmentIons = ionFactory.getCachedFragmentIons(peptide, null);
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(0, cache.getHits());
+        Assert.assertSame(fragmentIons, ionFactory.getCachedFragmentIons(peptide, null));
+        Assert.assertSame(fragmentIons, ionFactory.getCachedFragmentIons(getPeptide("Oxidation of M", 6), null));
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(fragmentIons.size(), cache.getWeight());
+
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> expectedIons = ionFactory.getFragmentIons(peptide);
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> cachedIons = fragmentIons.getFragmentIons();
+        Assert.assertEquals(expectedIons.keySet(), cachedIons.keySet());
+        int nIons = 0;
+        for (Integer ionType : expectedIons.keySet()) {
+            HashMap<Integer, ArrayList<Ion>> expectedIonsMap = expectedIons.get(ionType);
+            Assert.assertEquals(expectedIonsMap.keySet(), cachedIons.get(ionType).keySet());
+            for (Integer subType : expectedIonsMap.keySet()) {
+                ArrayList<Ion> expectedSubTypeIons = expectedIonsMap.get(subType);
+                ArrayList<Ion> cachedSubTypeIons = cachedIons.get(ionType).get(subType);
+                Assert.assertEquals(expectedSubTypeIons.size(), cachedSubTypeIons.size());
+                for (int i = 0; i < expectedSubTypeIons.size(); i++) {
+                    Ion expectedIon = expectedSubTypeIons.get(i);
+                    Ion cachedIon = cachedSubTypeIons.get(i);
+                    Assert.assertTrue(expectedIon.isSameAs(cachedIon));
+                    Assert.assertEquals(expectedIon.getTheoreticMass(), cachedIon.getTheoreticMass());
+                    Assert.assertEquals(expectedIon.getTheoreticMz(2), fragmentIons.getIons(ionType, subType).getMz(i, 2));
+                    nIons++;
+                }
+            }
+        }
+        Assert.assertEquals(nIons, fragmentIons.size());
+    }
+
+    /**
+     * Tests that peptides with the same sequence and different modifications
+     * do not share their ions, and that the order of the modification matches
+     * does not matter.
+     */
+    public void testModifiedPeptides() {
+        FragmentIonsCache cache = getEmptyCache();
+
+        CompactFragmentIons unmodified = ionFactory.getCachedFragmentIons(getPeptide(null, 0), null);
+        CompactFragmentIons phosphoS = ionFactory.getCachedFragmentIons(getPeptide("Phosphorylation of S", 5), null);
+        CompactFragmentIons phosphoT = ionFactory.getCachedFragmentIons(getPeptide("Phosphorylation of T", 4), null);
+        CompactFragmentIons oxidation = ionFactory.getCachedFragmentIons(getPeptide("Oxidation of M", 6), null);
+        Assert.assertEquals(4, cache.size());
+        Assert.assertEquals(0, cache.getHits());
+
+        // the b4 ion carries the phosphorylation on T4 but not on S5
+        double b4 = getB4Mass(unmodified);
+        Assert.assertEquals(b4, getB4Mass(phosphoS), 1e-10);
+        Assert.assertEquals(b4, getB4Mass(oxidation), 1e-10);
+        Assert.assertEquals(79.966331, getB4Mass(phosphoT) - b4, 1e-5);
+
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        modificationMatches.add(new ModificationMatch("Oxidation of M", true, 6));
+        modificationMatches.add(new ModificationMatch("Phosphorylation of S", true, 5));
+        CompactFragmentIons doublyModified = ionFactory.getCachedFragmentIons(new Peptide("PEPTSMIDEK", modificationMatches), null);
+        Assert.assertNotSame(oxidation, doublyModified);
+        Assert.assertNotSame(phosphoS, doublyModified);
+
+        modificationMatches = new ArrayList<ModificationMatch>();
+        modificationMatches.add(new ModificationMatch("Phosphorylation of S", true, 5));
+        modificationMatches.add(new ModificationMatch("Oxidation of M", true, 6));
+        Assert.assertSame(doublyModified, ionFactory.getCachedFragmentIons(new Peptide("PEPTSMIDEK", modificationMatches), null));
+        Assert.assertEquals(5, cache.size());
+        Assert.assertEquals(1, cache.getHits());
+    }
+
+    /**
+     * Tests that the cache is kept below its capacity and that the entries
+     * looked up recently are kept.
+     */
+    public void testEviction() {
+        FragmentIonsCache cache = getEmptyCache();
+        try {
+            Peptide kept = getPeptide(null, 0);
+            CompactFragmentIons keptIons = ionFactory.getCachedFragmentIons(kept, null);
+            long capacity = 5 * keptIons.size();
+            cache.setCapacity(capacity);
+
+            String[] sequences = new String[]{"PEPTSMIDEK", "KEDIMSTPEP", "EPTSMIDEKP", "MIDEKPEPTS", "TSMIDEKPEP", "DEKPEPTSMI",
+                "PTSMIDEKPE", "SMIDEKPEPT", "IDEKPEPTSM", "EKPEPTSMID", "KPEPTSMIDE", "PEPTIDEKSM"};
+            for (String sequence : sequences) {
+                ionFactory.getCachedFragmentIons(new Peptide(sequence, new ArrayList<ModificationMatch>()), null);
+                Assert.assertSame(keptIons, ionFactory.getCachedFragmentIons(kept, null));
+                Assert.assertTrue(cache.getWeight() <= capacity);
+            }
+            Assert.assertTrue(cache.getEvictions() > 0);
+            Assert.assertTrue(cache.size() < sequences.length);
+            Assert.assertSame(keptIons, ionFactory.getCachedFragmentIons(kept, null));
+
+            cache.setCapacity(0);
+            Assert.assertEquals(0, cache.size());
+            Assert.assertEquals(0, cache.getWeight());
+            Assert.assertNotSame(keptIons, ionFactory.getCachedFragmentIons(kept, null));
+            Assert.assertEquals(0, cache.size());
+        } finally {
+            cache.setCapacity(FragmentIonsCache.DEFAULT_CAPACITY);
+        }
+    }
+
+    /**
+     * Returns the cache of the ion factory, emptied and with the counters
+     * reset.
+     *
+     * @return the cache of the ion factory
+     */
+    private FragmentIonsCache getEmptyCache() {
+        FragmentIonsCache cache = ionFactory.getFragmentIonsCache();
+        cache.setCapacity(FragmentIonsCache.DEFAULT_CAPACITY);
+        cache.clear();
+        cache.resetCounters();
+        return cache;
+    }
+
+    /**
+     * Returns the peptide PEPTSMIDEK carrying the given modification.
+     *
+     * @param ptmName the name of the modification, null for none
+     * @param site the site of the modification
+     *
+     * @return the peptide
+     */
+    private Peptide getPeptide(String ptmName, int site) {
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        if (ptmName != null) {
+            modificationMatches.add(new ModificationMatch(ptmName, true, site));
+        }
+        return new Peptide("PEPTSMIDEK", modificationMatches);
+    }
+
+    /**
+     * Returns the mass of the b4 ion without neutral loss.
+     *
+     * @param fragmentIons the fragment ions
+     *
+     * @return the mass of the b4 ion
+     */
+    private double getB4Mass(CompactFragmentIons fragmentIons) {
+        CompactFragmentIons.IonArrays bIons = fragmentIons.getIons(Ion.IonType.PEPTIDE_FRAGMENT_ION.index, PeptideFragmentIon.B_ION);
+        for (int i = 0; i < bIons.size(); i++) {
+            NeutralLoss[] neutralLosses = bIons.getNeutralLosses(i);
+            if (bIons.getNumber(i) == 4 && (neutralLosses == null || neutralLosses.length == 0)) {
+                return bIons.getMass(i);
+            }
+        }
+        throw new IllegalArgumentException("b4 ion not found.");
+    }
+}
@@ -0,0 +1,255 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.experiment.biology.IonFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.PreparedPeptide;
+import com.compomics.util.experiment.identification.spectrum_annotation.PreparedSpectrum;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpectrumAnnotator.TiesResolution;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.util.ArrayList;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the annotation of prepared spectra and peptides gives the same
+ * ion matches as the annotation using the state of the annotator.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideSpectrumAnnotatorTest extends TestCase {
+
+    /**
+     * The sequences of the test peptides.
+     */
+    private static final String[] SEQUENCES = new String[]{"PEPTIDEK", "ELVISLIVESK", "TESTMSQSTYKR", "NQDERSTYWHAGLIK"};
+    /**
+     * The precursor charges of the test PSMs.
+     */
+    private static final int[] CHARGES = new int[]{2, 3};
+
+    /**
+     * Tests that the annotation of a prepared spectrum with a prepared peptide
+     * returns the same ion matches as the synchronized annotation for peak
+     * matching in Da and ppm with both ties resolutions.
+     *
+     * @throws Exception thrown whenever an error occurred while annotating
+     * the spectra
+     */
+    public void testPreparedAnnotation() throws Exception {
+
+        PeptideSpectrumAnnotator synchronizedAnnotator = new PeptideSpectrumAnnotator();
+        PeptideSpectrumAnnotator statelessAnnotator = new PeptideSpectrumAnnotator();
+        int nMatches = 0;
+
+        for (boolean ppm : new boolean[]{false, true}) {
+            for (TiesResolution tiesResolution : TiesResolution.values()) {
+                AnnotationSettings annotationSettings = getAnnotationSettings(ppm, tiesResolution);
+                for (int i = 0; i < SEQUENCES.length; i++) {
+                    Peptide peptide = getPeptide(SEQUENCES[i]);
+                    for (int charge : CHARGES) {
+                        MSnSpectrum spectrum = SimulatedSpectra.getSpectrum("spectrum " + i + " " + charge, peptide, charge,
+                                IonFactory.getInstance().getFragmentIons(peptide), 13 * i + charge);
+                        SpecificAnnotationSettings specificAnnotationSettings = getSpecificAnnotationSettings(annotationSettings, spectrum, peptide, charge);
+
+                        ArrayList<IonMatch> expected = synchronizedAnnotator.getSpectrumAnnotation(annotationSettings, specificAnnotationSettings, spectrum, peptide);
+                        PreparedSpectrum preparedSpectrum = new PreparedSpectrum(spectrum, annotationSettings, specificAnnotationSettings);
+                        PreparedPeptide preparedPeptide = new PreparedPeptide(peptide, charge, specificAnnotationSettings);
+                        ArrayList<IonMatch> actual = statelessAnnotator.getSpectrumAnnotation(annotationSettings, specificAnnotationSettings, preparedSpectrum, preparedPeptide);
+
+                        assertSameMatches(expected, actual);
+                        nMatches += expected.size();
+                    }
+                }
+            }
+        }
+        Assert.assertTrue(nMatches > 0);
+    }
+
+    /**
+     * Tests that the m/z shifts applied to a prepared peptide give the same
+     * ion matches as the m/z shifts set on the annotator.
+     *
+     * @throws Exception thrown whenever an error occurred while annotating
+     * the spectra
+     */
+    public void testMassShifts() throws Exception {
+
+        double massShift = 0.5;
+        double massShiftNTerm = 0.1;
+        double massShiftCTerm = -0.2;
+        AnnotationSettings annotationSettings = getAnnotationSettings(false, TiesResolution.mostAccurateMz);
+        int nMatches = 0;
+
+        for (int i = 0; i < SEQUENCES.length; i++) {
+            Peptide peptide = getPeptide(SEQUENCES[i]);
+            int charge = 2;
+            PreparedPeptide shiftedPeptide = new PreparedPeptide(peptide, charge, null, massShift, massShiftNTerm, massShiftCTerm);
+            MSnSpectrum spectrum = SimulatedSpectra.getSpectrum("spectrum " + i, peptide, charge, shiftedPeptide.getFragmentIons(), i);
+            SpecificAnnotationSettings specificAnnotationSettings = getSpecificAnnotationSettings(annotationSettings, spectrum, peptide, charge);
+
+            PeptideSpectrumAnnotator synchronizedAnnotator = new PeptideSpectrumAnnotator();
+            synchronizedAnnotator.setMassShifts(massShift, massShiftNTerm, massShiftCTerm);
+            ArrayList<IonMatch> expected = synchronizedAnnotator.getSpectrumAnnotation(annotationSettings, specificAnnotationSettings, spectrum, peptide);
+
+            PreparedSpectrum preparedSpectrum = new PreparedSpectrum(spectrum, annotationSettings, specificAnnotationSettings);
+            PreparedPeptide preparedPeptide = new PreparedPeptide(peptide, charge, specificAnnotationSettings, massShift, massShiftNTerm, massShiftCTerm);
+            ArrayList<IonMatch> actual = new PeptideSpectrumAnnotator().getSpectrumAnnotation(annotationSettings, specificAnnotationSettings, preparedSpectrum, preparedPeptide);
+
+            assertSameMatches(expected, actual);
+            nMatches += expected.size();
+
+            // the shifts are not applied twice when preparing the same peptide again
+            assertSameMatches(expected, new PeptideSpectrumAnnotator().getSpectrumAnnotation(annotationSettings, specificAnnotationSettings, preparedSpectrum,
+                    new PreparedPeptide(peptide, charge, specificAnnotationSettings, massShift, massShiftNTerm, massShiftCTerm)));
+        }
+        Assert.assertTrue(nMatches > 0);
+    }
+
+    /**
+     * Tests that a single annotator used by several threads with shared
+     * prepared spectra and peptides returns the same ion matches as the
+     * synchronized annotation.
+     *
+     * @throws Exception thrown whenever an error occurred while annotating
+     * the spectra
+     */
+    public void testConcurrentAnnotation() throws Exception {
+
+        final AnnotationSettings annotationSettings = getAnnotationSettings(true, TiesResolution.mostIntense);
+        final ArrayList<SpecificAnnotationSettings> specificAnnotationSettings = new ArrayList<SpecificAnnotationSettings>();
+        final ArrayList<PreparedSpectrum> preparedSpectra = new ArrayList<PreparedSpectrum>();
+        final ArrayList<PreparedPeptide> preparedPeptides = new ArrayList<PreparedPeptide>();
+        final ArrayList<ArrayList<IonMatch>> expectedMatches = new ArrayList<ArrayList<IonMatch>>();
+
+        PeptideSpectrumAnnotator synchronizedAnnotator = new PeptideSpectrumAnnotator();
+        for (int i = 0; i < SEQUENCES.length; i++) {
+            MSnSpectrum spectrum = SimulatedSpectra.getSpectrum("spectrum " + i, getPeptide(SEQUENCES[i]), 3,
+                    IonFactory.getInstance().getFragmentIons(getPeptide(SEQUENCES[i])), i);
+            for (int j = 0; j < SEQUENCES.length; j++) {
+                Peptide peptide = getPeptide(SEQUENCES[j]);
+                SpecificAnnotationSettings psmAnnotationSettings = getSpecificAnnotationSettings(annotationSettings, spectrum, peptide, 3);
+                specificAnnotationSettings.add(psmAnnotationSettings);
+                preparedSpectra.add(new PreparedSpectrum(spectrum, annotationSettings, psmAnnotationSettings));
+                preparedPeptides.add(new PreparedPeptide(peptide, 3, psmAnnotationSettings));
+                expectedMatches.add(synchronizedAnnotator.getSpectrumAnnotation(annotationSettings, psmAnnotationSettings, spectrum, peptide));
+            }
+        }
+
+        final PeptideSpectrumAnnotator sharedAnnotator = new PeptideSpectrumAnnotator();
+        final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+        int nThreads = 4;
+        ArrayList<Thread> threads = new ArrayList<Thread>(nThreads);
+        for (int thread = 0; thread < nThreads; thread++) {
+            final int offset = thread;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int iteration = 0; iteration < 50; iteration++) {
+                            for (int k = 0; k < expectedMatches.size(); k++) {
+                                int psmIndex = (k + offset) % expectedMatches.size();
+                                ArrayList<IonMatch> actual = sharedAnnotator.getSpectrumAnnotation(annotationSettings, specificAnnotationSettings.get(psmIndex),
+                                        preparedSpectra.get(psmIndex), preparedPeptides.get(psmIndex));
+                                assertSameMatches(expectedMatches.get(psmIndex), actual);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(errors.isEmpty());
+    }
+
+    /**
+     * Asserts that two lists of ion matches contain the same ions matched on
+     * the same peaks in the same order.
+     *
+     * @param expected the expected ion matches
+     * @param actual the ion matches to test
+     */
+    private static void assertSameMatches(ArrayList<IonMatch> expected, ArrayList<IonMatch> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            IonMatch expectedMatch = expected.get(i);
+            IonMatch actualMatch = actual.get(i);
+            Assert.assertEquals(expectedMatch.getPeakAnnotation(), actualMatch.getPeakAnnotation());
+            Assert.assertEquals(expectedMatch.charge, actualMatch.charge);
+            Assert.assertEquals(expectedMatch.ion.getTheoreticMass(), actualMatch.ion.getTheoreticMass());
+            Assert.assertEquals(expectedMatch.peak.mz, actualMatch.peak.mz);
+            Assert.assertEquals(expectedMatch.peak.intensity, actualMatch.peak.intensity);
+        }
+    }
+
+    /**
+     * Returns annotation settings for b and y ions with a fragment ion
+     * tolerance of 0.02 Da or 20 ppm.
+     *
+     * @param ppm indicates whether the tolerance is in ppm
+     * @param tiesResolution the method used to resolve ties
+     *
+     * @return annotation settings
+     */
+    private static AnnotationSettings getAnnotationSettings(boolean ppm, TiesResolution tiesResolution) {
+        SearchParameters searchParameters = new SearchParameters();
+        searchParameters.setFragmentAccuracyType(ppm ? SearchParameters.MassAccuracyType.PPM : SearchParameters.MassAccuracyType.DA);
+        searchParameters.setFragmentIonAccuracy(ppm ? 20.0 : 0.02);
+        AnnotationSettings annotationSettings = new AnnotationSettings(searchParameters);
+        annotationSettings.setTiesResolution(tiesResolution);
+        return annotationSettings;
+    }
+
+    /**
+     * Returns the annotation settings specific to a PSM.
+     *
+     * @param annotationSettings the annotation settings
+     * @param spectrum the spectrum
+     * @param peptide the peptide
+     * @param charge the precursor charge
+     *
+     * @return the annotation settings specific to the PSM
+     *
+     * @throws Exception thrown whenever an error occurred while setting the
+     * neutral losses
+     */
+    private static SpecificAnnotationSettings getSpecificAnnotationSettings(AnnotationSettings annotationSettings, MSnSpectrum spectrum, Peptide peptide, int charge)
+            throws Exception {
+        PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, 1, 0, new Charge(Charge.PLUS, charge), 0);
+        return annotationSettings.getSpecificAnnotationPreferences(spectrum.getSpectrumKey(), peptideAssumption,
+                SequenceMatchingPreferences.defaultStringMatching, SequenceMatchingPreferences.defaultStringMatching);
+    }
+
+    /**
+     * Returns a peptide, with an oxidized methionine if any.
+     *
+     * @param sequence the sequence of the peptide
+     *
+     * @return a peptide
+     */
+    private static Peptide getPeptide(String sequence) {
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>(1);
+        int methionine = sequence.indexOf('M');
+        if (methionine >= 0) {
+            modificationMatches.add(new ModificationMatch("Oxidation of M", true, methionine + 1));
+        }
+        return new Peptide(sequence, modificationMatches);
+    }
+}
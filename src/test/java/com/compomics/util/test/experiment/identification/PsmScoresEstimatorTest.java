@@ -0,0 +1,286 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.experiment.biology.IonFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.psm_scoring.PsmScore;
+import com.compomics.util.experiment.identification.psm_scoring.PsmScoresEstimator;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.preferences.IdentificationParameters;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.util.ArrayList;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the scoring of PSMs in batch gives the same scores as the
+ * scoring of every PSM separately.
+ *
+ * @author Marc Vaudel
+ */
+public class PsmScoresEstimatorTest extends TestCase {
+
+    /**
+     * The amino acids used to build the test peptides.
+     */
+    private static final String AMINO_ACIDS = "ACDEFGHILMNPQSTVWY";
+    /**
+     * The numbers of threads to test.
+     */
+    private static final int[] N_THREADS = new int[]{1, 4};
+    /**
+     * The indexes of all scores but the native score.
+     */
+    private static final int[] SCORE_INDEXES = new int[]{
+        PsmScore.precursor_accuracy.index,
+        PsmScore.hyperScore.index,
+        PsmScore.ms2_mz_fidelity.index,
+        PsmScore.aa_ms2_mz_fidelity.index,
+        PsmScore.intensity.index,
+        PsmScore.aa_intensity.index,
+        PsmScore.complementarity.index};
+
+    /**
+     * Tests that scoring candidate peptides against a spectrum in batch gives
+     * the scores of every PSM scored separately.
+     *
+     * @throws Exception thrown whenever an error occurred while scoring the
+     * PSMs
+     */
+    public void testScoresOfSpectrum() throws Exception {
+
+        for (boolean ppm : new boolean[]{false, true}) {
+
+            IdentificationParameters identificationParameters = getIdentificationParameters(ppm);
+            ArrayList<Peptide> peptides = getPeptides(50, 1);
+            int charge = 2;
+            MSnSpectrum spectrum = SimulatedSpectra.getSpectrum("spectrum", peptides.get(0), charge,
+                    IonFactory.getInstance().getFragmentIons(peptides.get(0)), 1);
+
+            ArrayList<SpecificAnnotationSettings> specificAnnotationSettings = new ArrayList<SpecificAnnotationSettings>(peptides.size());
+            for (Peptide peptide : peptides) {
+                specificAnnotationSettings.add(getSpecificAnnotationSettings(identificationParameters, spectrum, peptide, charge));
+            }
+
+            double[][] expected = new double[peptides.size()][];
+            PsmScoresEstimator psmScoresEstimator = new PsmScoresEstimator();
+            PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+            for (int i = 0; i < peptides.size(); i++) {
+                expected[i] = getScores(psmScoresEstimator, peptides.get(i), charge, spectrum, identificationParameters,
+                        specificAnnotationSettings.get(i), peptideSpectrumAnnotator);
+            }
+
+            for (int nThreads : N_THREADS) {
+                double[][] scores = new PsmScoresEstimator().getScores(spectrum, peptides, specificAnnotationSettings,
+                        identificationParameters, SCORE_INDEXES, nThreads);
+                assertSameScores(expected, scores);
+            }
+        }
+    }
+
+    /**
+     * Tests that scoring a peptide against candidate spectra in batch gives
+     * the scores of every PSM scored separately, also when consecutive PSMs
+     * share a spectrum.
+     *
+     * @throws Exception thrown whenever an error occurred while scoring the
+     * PSMs
+     */
+    public void testScoresOfPeptide() throws Exception {
+
+        for (boolean ppm : new boolean[]{false, true}) {
+
+            IdentificationParameters identificationParameters = getIdentificationParameters(ppm);
+            ArrayList<Peptide> peptides = getPeptides(20, 2);
+            Peptide peptide = peptides.get(0);
+            int charge = 3;
+
+            ArrayList<MSnSpectrum> spectra = new ArrayList<MSnSpectrum>();
+            for (int i = 0; i < peptides.size(); i++) {
+                Peptide spectrumPeptide = peptides.get(i);
+                MSnSpectrum spectrum = SimulatedSpectra.getSpectrum("spectrum " + i, spectrumPeptide, charge,
+                        IonFactory.getInstance().getFragmentIons(spectrumPeptide), i);
+                // some spectra are repeated to share the spectrum preparation
+                for (int j = 0; j <= i % 3; j++) {
+                    spectra.add(spectrum);
+                }
+            }
+
+            ArrayList<SpecificAnnotationSettings> specificAnnotationSettings = new ArrayList<SpecificAnnotationSettings>(spectra.size());
+            for (int i = 0; i < spectra.size(); i++) {
+                SpecificAnnotationSettings psmAnnotationSettings = getSpecificAnnotationSettings(identificationParameters, spectra.get(i), peptide, charge);
+                // a different tolerance prevents sharing the prepared spectrum
+                if (i % 5 == 4) {
+                    psmAnnotationSettings.setFragmentIonAccuracy(2 * psmAnnotationSettings.getFragmentIonAccuracy());
+                }
+                specificAnnotationSettings.add(psmAnnotationSettings);
+            }
+
+            double[][] expected = new double[spectra.size()][];
+            PsmScoresEstimator psmScoresEstimator = new PsmScoresEstimator();
+            PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+            for (int i = 0; i < spectra.size(); i++) {
+                expected[i] = getScores(psmScoresEstimator, peptide, charge, spectra.get(i), identificationParameters,
+                        specificAnnotationSettings.get(i), peptideSpectrumAnnotator);
+            }
+
+            for (int nThreads : N_THREADS) {
+                double[][] scores = new PsmScoresEstimator().getScores(peptide, spectra, specificAnnotationSettings,
+                        identificationParameters, SCORE_INDEXES, nThreads);
+                assertSameScores(expected, scores);
+            }
+        }
+    }
+
+    /**
+     * Tests that the batch scoring rejects the native score and annotation
+     * settings which do not match the PSMs.
+     *
+     * @throws Exception thrown whenever an error occurred while scoring the
+     * PSMs
+     */
+    public void testInvalidArguments() throws Exception {
+
+        IdentificationParameters identificationParameters = getIdentificationParameters(false);
+        ArrayList<Peptide> peptides = getPeptides(2, 3);
+        MSnSpectrum spectrum = SimulatedSpectra.getSpectrum("spectrum", peptides.get(0), 2,
+                IonFactory.getInstance().getFragmentIons(peptides.get(0)), 3);
+        ArrayList<SpecificAnnotationSettings> specificAnnotationSettings = new ArrayList<SpecificAnnotationSettings>(1);
+        specificAnnotationSettings.add(getSpecificAnnotationSettings(identificationParameters, spectrum, peptides.get(0), 2));
+        PsmScoresEstimator psmScoresEstimator = new PsmScoresEstimator();
+
+        try {
+            psmScoresEstimator.getScores(spectrum, peptides, specificAnnotationSettings, identificationParameters, SCORE_INDEXES, 1);
+            fail("Missing annotation settings not detected.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        peptides.remove(1);
+        try {
+            psmScoresEstimator.getScores(spectrum, peptides, specificAnnotationSettings, identificationParameters, new int[]{PsmScore.native_score.index}, 1);
+            fail("Native score not rejected.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Returns all scores of a PSM scored separately.
+     *
+     * @param psmScoresEstimator the PSM scores estimator
+     * @param peptide the peptide
+     * @param charge the precursor charge
+     * @param spectrum the spectrum
+     * @param identificationParameters the identification parameters
+     * @param specificAnnotationSettings the annotation settings specific to
+     * the PSM
+     * @param peptideSpectrumAnnotator the spectrum annotator
+     *
+     * @return the scores of the PSM in the order of the score indexes
+     *
+     * @throws InterruptedException thrown if the thread is interrupted
+     */
+    private static double[] getScores(PsmScoresEstimator psmScoresEstimator, Peptide peptide, int charge, MSnSpectrum spectrum,
+            IdentificationParameters identificationParameters, SpecificAnnotationSettings specificAnnotationSettings,
+            PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws InterruptedException {
+        double[] scores = new double[SCORE_INDEXES.length];
+        for (int i = 0; i < SCORE_INDEXES.length; i++) {
+            scores[i] = psmScoresEstimator.getScore(peptide, charge, spectrum, identificationParameters, specificAnnotationSettings,
+                    peptideSpectrumAnnotator, SCORE_INDEXES[i]);
+        }
+        return scores;
+    }
+
+    /**
+     * Asserts that two arrays of scores indexed by PSM and score are equal.
+     *
+     * @param expected the expected scores
+     * @param actual the scores to test
+     */
+    private static void assertSameScores(double[][] expected, double[][] actual) {
+        Assert.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i].length, actual[i].length);
+            for (int j = 0; j < expected[i].length; j++) {
+                Assert.assertEquals(expected[i][j], actual[i][j], 1e-9 * Math.max(1, Math.abs(expected[i][j])));
+            }
+        }
+    }
+
+    /**
+     * Returns identification parameters with a fragment ion tolerance of 0.02
+     * Da or 20 ppm.
+     *
+     * @param ppm indicates whether the tolerance is in ppm
+     *
+     * @return identification parameters
+     */
+    private static IdentificationParameters getIdentificationParameters(boolean ppm) {
+        SearchParameters searchParameters = new SearchParameters();
+        searchParameters.setFragmentAccuracyType(ppm ? SearchParameters.MassAccuracyType.PPM : SearchParameters.MassAccuracyType.DA);
+        searchParameters.setFragmentIonAccuracy(ppm ? 20.0 : 0.02);
+        IdentificationParameters identificationParameters = new IdentificationParameters(searchParameters);
+        identificationParameters.getAnnotationPreferences().setTiesResolution(SpectrumAnnotator.TiesResolution.mostAccurateMz);
+        return identificationParameters;
+    }
+
+    /**
+     * Returns the annotation settings specific to a PSM.
+     *
+     * @param identificationParameters the identification parameters
+     * @param spectrum the spectrum
+     * @param peptide the peptide
+     * @param charge the precursor charge
+     *
+     * @return the annotation settings specific to the PSM
+     *
+     * @throws Exception thrown whenever an error occurred while setting the
+     * neutral losses
+     */
+    private static SpecificAnnotationSettings getSpecificAnnotationSettings(IdentificationParameters identificationParameters, MSnSpectrum spectrum,
+            Peptide peptide, int charge) throws Exception {
+        PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, 1, 0, new Charge(Charge.PLUS, charge), 0);
+        return identificationParameters.getAnnotationPreferences().getSpecificAnnotationPreferences(spectrum.getSpectrumKey(), peptideAssumption,
+                SequenceMatchingPreferences.defaultStringMatching, SequenceMatchingPreferences.defaultStringMatching);
+    }
+
+    /**
+     * Returns random tryptic peptides, the methionines of every other peptide
+     * being oxidized.
+     *
+     * @param nPeptides the number of peptides
+     * @param seed the seed of the random numbers
+     *
+     * @return random tryptic peptides
+     */
+    private static ArrayList<Peptide> getPeptides(int nPeptides, long seed) {
+        Random random = new Random(seed);
+        ArrayList<Peptide> peptides = new ArrayList<Peptide>(nPeptides);
+        for (int i = 0; i < nPeptides; i++) {
+            StringBuilder sequence = new StringBuilder();
+            int length = 6 + random.nextInt(15);
+            for (int j = 0; j < length; j++) {
+                sequence.append(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+            }
+            sequence.append(random.nextBoolean() ? 'K' : 'R');
+            ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+            if (i % 2 == 1) {
+                for (int j = 0; j < sequence.length(); j++) {
+                    if (sequence.charAt(j) == 'M') {
+                        modificationMatches.add(new ModificationMatch("Oxidation of M", true, j + 1));
+                    }
+                }
+            }
+            peptides.add(new Peptide(sequence.toString(), modificationMatches));
+        }
+        return peptides;
+    }
+}
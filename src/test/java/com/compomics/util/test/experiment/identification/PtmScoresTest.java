@@ -0,0 +1,283 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.experiment.biology.IonFactory;
+import com.compomics.util.experiment.biology.PTM;
+import com.compomics.util.experiment.biology.PTMFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.ptm.ptmscores.AScore;
+import com.compomics.util.experiment.identification.ptm.ptmscores.PhosphoRS;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.util.ArrayList;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the PTM localization scores against the scores of the original
+ * implementation, and that they do not depend on the number of threads used.
+ *
+ * @author Marc Vaudel
+ */
+public class PtmScoresTest extends TestCase {
+
+    /**
+     * The sequences of the test peptides.
+     */
+    private static final String[] SEQUENCES = new String[]{"SSTPEPTSYDESK", "AGSPTESYLLTSQR", "TYSPESSEGKTSPVR", "LSTSYTPSDEHWK"};
+    /**
+     * The sites of the phosphorylations on the test peptides.
+     */
+    private static final int[][] SITES = new int[][]{{3}, {3, 8}, {2, 12}, {5}};
+    /**
+     * The precursor charges of the test PSMs.
+     */
+    private static final int[] CHARGES = new int[]{2, 3};
+    /**
+     * The relative tolerance on the expected scores.
+     */
+    private static final double TOLERANCE = 1e-9;
+    /**
+     * The A-scores computed with the original implementation for every test
+     * case: Da and ppm tolerance, test peptide, precursor charge, without and
+     * with neutral losses, in this order. Sites and scores are given as
+     * site=score.
+     */
+    private static final String[] EXPECTED_A_SCORES = new String[]{
+        "2=0.0, 3=0.0",
+        "2=0.0, 3=0.0",
+        "2=0.0, 3=0.0",
+        "2=0.0, 3=0.0",
+        "8=21.292971842569834",
+        "8=21.292971842569834",
+        "5=6.329197137658781",
+        "5=6.329197137658781",
+        "2=0.0, 3=0.0",
+        "2=0.0, 3=0.0",
+        "11=0.0, 12=0.0",
+        "11=0.0, 12=0.0",
+        "5=0.0, 6=0.0",
+        "5=0.0, 6=0.0",
+        "4=0.0, 5=0.0",
+        "4=0.0, 5=0.0",
+        "2=0.0, 3=0.0",
+        "2=0.0, 3=0.0",
+        "2=0.0, 3=0.0",
+        "2=0.0, 3=0.0",
+        "8=29.827014465110715",
+        "8=29.827014465110715",
+        "5=4.469075329949991",
+        "5=4.469075329949991",
+        "3=40.5360588577965",
+        "3=40.5360588577965",
+        "11=0.0, 12=0.0",
+        "11=0.0, 12=0.0",
+        "5=0.0, 6=0.0",
+        "5=0.0, 6=0.0",
+        "4=0.0, 5=0.0",
+        "4=0.0, 5=0.0"
+    };
+    /**
+     * The PhosphoRS probabilities computed with the original implementation for every test
+     * case: Da and ppm tolerance, test peptide, precursor charge, without and
+     * with neutral losses, in this order. Sites and scores are given as
+     * site=score.
+     */
+    private static final String[] EXPECTED_PHOSPHO_RS = new String[]{
+        "1=2.404192748496592E-4, 2=16.666626596787527, 3=16.666626596787527, 7=16.666626596787527, 8=16.666626596787527, 9=16.666626596787527, 12=16.666626596787527",
+        "1=0.15042681928130874, 2=49.77411022933176, 3=49.77411022933176, 7=0.15042681928130874, 8=0.15042681928130874, 9=4.990834923621342E-4, 12=1.8688151138176157E-13",
+        "1=33.33323418532048, 2=33.33323418532048, 3=33.33323418532048, 7=2.973920971252351E-4, 8=1.7313815533086104E-8, 9=1.7313815533086104E-8, 12=1.7313815533086104E-8",
+        "1=7.888982386822824E-6, 2=0.0017276091103800044, 3=99.99826450170362, 7=2.0247536804710108E-10, 8=1.1489115287045262E-12, 9=7.084855642002405E-15, 12=3.559905659872444E-19",
+        "3=0.09686577149943823, 5=99.90307529001822, 7=49.99997034314893, 8=49.99997034314893, 11=5.912609223850812E-5, 12=5.912609223850812E-5",
+        "3=99.66663200170066, 5=0.33337272682935665, 7=0.33336795716293915, 8=99.66661777497211, 11=4.769667482297382E-6, 12=4.769667482297382E-6",
+        "3=33.36913843512289, 5=33.36913843512289, 7=0.3246433245532211, 8=33.36913843512289, 11=99.2432980455248, 12=0.3246433245532211",
+        "3=49.703865756500896, 5=49.703865756500896, 7=49.69991784395574, 8=49.99394952152753, 11=0.8863001645700159, 12=0.012100956944950152",
+        "1=0.11230037280452733, 2=0.11230037280452732, 3=99.55127368102617, 6=0.22428396411287593, 7=0.22428396411287593, 11=99.66309975140344, 12=0.1124578937356212",
+        "1=0.0013904468268330487, 2=0.0013904468268330487, 3=99.99513633648186, 6=0.1803246813429038, 7=49.82140902649628, 11=49.821406126122675, 12=0.17894293590255472",
+        "1=0.09819488194753767, 2=0.09819488194753767, 3=33.267749370470014, 6=33.267749370470014, 7=33.267749370470014, 11=0.2945846430639465, 12=99.70577748163095",
+        "1=4.015132204012451E-7, 2=0.0037339280640232096, 3=0.41369544143171755, 6=49.791285315350635, 7=49.791285315350635, 11=0.8237298856056491, 12=99.17626971268412",
+        "2=0.0735190383091551, 3=0.0735190383091551, 4=0.0735190383091551, 5=0.0735190383091551, 6=99.63240480845423, 8=0.0735190383091551",
+        "2=1.3840804495698687E-9, 3=2.996996976955724E-4, 4=0.16451211663295018, 5=0.16451211663295018, 6=99.67037636595464, 8=2.996996976955724E-4",
+        "2=16.666666666666664, 3=16.666666666666664, 4=16.666666666666664, 5=16.666666666666664, 6=16.666666666666664, 8=16.666666666666664",
+        "2=19.9997571589453, 3=19.9997571589453, 4=19.9997571589453, 5=19.9997571589453, 6=19.9997571589453, 8=0.0012142052735080737",
+        "1=0.005981457407095786, 2=16.66566975709882, 3=16.66566975709882, 7=16.66566975709882, 8=16.66566975709882, 9=16.66566975709882, 12=16.66566975709882",
+        "1=0.8123826777492136, 2=48.77393903315127, 3=48.77393903315127, 7=0.8123826777492136, 8=0.8123826777492136, 9=0.014973894403729846, 12=6.046077733231468E-9",
+        "1=33.33221176719809, 2=33.33221176719809, 3=33.33221176719809, 7=8.411746014349168E-4, 8=8.411746014349168E-4, 9=8.411746014349168E-4, 12=8.411746014349168E-4",
+        "1=0.0023481466094408565, 2=0.075604803384479, 3=99.92204094100997, 7=2.989192306062101E-6, 8=2.989192306062101E-6, 9=1.2474303449584648E-7, 12=5.868470638312951E-9",
+        "3=0.4878662282815791, 5=99.51064246670578, 7=49.999230436097605, 8=49.999230436097605, 11=0.0015152164087779208, 12=0.0015152164087779206",
+        "3=98.04088064008808, 5=1.9601067105084993, 7=1.9590644159575665, 8=98.03786351947419, 11=0.0010423569857852942, 12=0.0010423569857852942",
+        "3=33.21287972149922, 5=33.21287972149922, 7=1.4496013916400265, 8=33.21287972149922, 11=49.455879721931154, 12=49.455879721931154",
+        "3=48.115823919902354, 5=48.115823919902354, 7=45.019562047530556, 8=48.115823919902354, 11=5.316483096381175, 12=5.316483096381175",
+        "1=0.6953090378953913, 2=0.6953090378953913, 3=97.23800120506104, 6=1.3777931713624056, 7=1.3777931713624056, 11=97.91431297035763, 12=0.7014814060658087",
+        "1=0.04871116165065969, 2=0.04871116165065969, 3=99.80638626749177, 6=0.09508870658921008, 7=2.0694368708982904, 11=95.90857309918667, 12=2.0230927325327612",
+        "1=19.998147199076275, 2=19.99814719907628, 3=19.99814719907628, 6=19.99814719907628, 7=19.99814719907628, 11=1.868868522068391, 12=98.14039548255019",
+        "1=0.13085981894887574, 2=2.375236355248841, 3=2.375236355248841, 6=47.5596800419378, 7=47.5596800419378, 11=4.757779307899269, 12=95.24152807877856",
+        "2=0.3639299707539687, 3=0.3639299707539687, 4=0.3639299707539687, 5=0.3639299707539687, 6=98.18035014623014, 8=0.3639299707539687",
+        "2=1.046192699412834E-4, 3=0.009145970068407441, 4=0.8983964917290455, 5=0.8983964917290455, 6=98.18481045713516, 8=0.009145970068407441",
+        "2=16.666666666666664, 3=16.666666666666664, 4=16.666666666666664, 5=16.666666666666664, 6=16.666666666666664, 8=16.666666666666664",
+        "2=19.829759200323785, 3=19.829759200323785, 4=19.829759200323785, 5=19.829759200323785, 6=19.829759200323785, 8=0.8512039983810735"
+    };
+
+    /**
+     * Tests that the A-score is the same as the original one and the same
+     * when computed using one and four threads.
+     *
+     * @throws Exception thrown whenever an error occurred while scoring the
+     * PTMs
+     */
+    public void testAScore() throws Exception {
+
+        int testCase = 0;
+        for (boolean ppm : new boolean[]{false, true}) {
+            AnnotationSettings annotationSettings = getAnnotationSettings(ppm);
+            for (int i = 0; i < SEQUENCES.length; i++) {
+                Peptide peptide = getPeptide(SEQUENCES[i], SITES[i]);
+                for (int charge : CHARGES) {
+                    MSnSpectrum spectrum = SimulatedSpectra.getSpectrum("spectrum " + i + " " + charge, peptide, charge,
+                            IonFactory.getInstance().getFragmentIons(peptide), 7 * i + charge);
+                    SpecificAnnotationSettings specificAnnotationSettings = getSpecificAnnotationSettings(annotationSettings, spectrum, peptide, charge);
+                    for (boolean accountNeutralLosses : new boolean[]{false, true}) {
+                        HashMap<Integer, Double> expected = AScore.getAScore(peptide, getPhosphorylations(), spectrum, annotationSettings,
+                                specificAnnotationSettings, accountNeutralLosses, SequenceMatchingPreferences.defaultStringMatching,
+                                SequenceMatchingPreferences.defaultStringMatching, new PeptideSpectrumAnnotator(), 1);
+                        HashMap<Integer, Double> actual = AScore.getAScore(peptide, getPhosphorylations(), spectrum, annotationSettings,
+                                specificAnnotationSettings, accountNeutralLosses, SequenceMatchingPreferences.defaultStringMatching,
+                                SequenceMatchingPreferences.defaultStringMatching, new PeptideSpectrumAnnotator(), 4);
+                        assertScores(EXPECTED_A_SCORES[testCase++], expected);
+                        Assert.assertEquals(expected, actual);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests that the PhosphoRS probabilities are the same as the original
+     * ones and the same when computed using one and four threads.
+     *
+     * @throws Exception thrown whenever an error occurred while scoring the
+     * PTMs
+     */
+    public void testPhosphoRS() throws Exception {
+
+        int testCase = 0;
+        for (boolean ppm : new boolean[]{false, true}) {
+            AnnotationSettings annotationSettings = getAnnotationSettings(ppm);
+            for (int i = 0; i < SEQUENCES.length; i++) {
+                Peptide peptide = getPeptide(SEQUENCES[i], SITES[i]);
+                for (int charge : CHARGES) {
+                    MSnSpectrum spectrum = SimulatedSpectra.getSpectrum("spectrum " + i + " " + charge, peptide, charge,
+                            IonFactory.getInstance().getFragmentIons(peptide), 7 * i + charge);
+                    SpecificAnnotationSettings specificAnnotationSettings = getSpecificAnnotationSettings(annotationSettings, spectrum, peptide, charge);
+                    for (boolean accountNeutralLosses : new boolean[]{false, true}) {
+                        HashMap<Integer, Double> expected = PhosphoRS.getSequenceProbabilities(peptide, getPhosphorylations(), spectrum, annotationSettings,
+                                specificAnnotationSettings, accountNeutralLosses, SequenceMatchingPreferences.defaultStringMatching,
+                                SequenceMatchingPreferences.defaultStringMatching, new PeptideSpectrumAnnotator(), 1);
+                        HashMap<Integer, Double> actual = PhosphoRS.getSequenceProbabilities(peptide, getPhosphorylations(), spectrum, annotationSettings,
+                                specificAnnotationSettings, accountNeutralLosses, SequenceMatchingPreferences.defaultStringMatching,
+                                SequenceMatchingPreferences.defaultStringMatching, new PeptideSpectrumAnnotator(), 4);
+                        assertScores(EXPECTED_PHOSPHO_RS[testCase++], expected);
+                        Assert.assertEquals(expected, actual);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Asserts that the given scores are the expected ones within the relative
+     * tolerance.
+     *
+     * @param expected the expected scores as site=score separated by commas
+     * @param actual the scores indexed by site
+     */
+    private static void assertScores(String expected, HashMap<Integer, Double> actual) {
+        String[] expectedScores = expected.split(", ");
+        Assert.assertEquals(expectedScores.length, actual.size());
+        for (String expectedScore : expectedScores) {
+            String[] split = expectedScore.split("=");
+            double expectedValue = Double.parseDouble(split[1]);
+            Double actualValue = actual.get(Integer.valueOf(split[0]));
+            Assert.assertNotNull(actualValue);
+            Assert.assertEquals(expectedValue, actualValue, TOLERANCE * Math.abs(expectedValue));
+        }
+    }
+
+    /**
+     * Returns the phosphorylations of S, T and Y.
+     *
+     * @return the phosphorylations of S, T and Y
+     */
+    private static ArrayList<PTM> getPhosphorylations() {
+        PTMFactory ptmFactory = PTMFactory.getInstance();
+        ArrayList<PTM> ptms = new ArrayList<PTM>(3);
+        ptms.add(ptmFactory.getPTM("Phosphorylation of S"));
+        ptms.add(ptmFactory.getPTM("Phosphorylation of T"));
+        ptms.add(ptmFactory.getPTM("Phosphorylation of Y"));
+        return ptms;
+    }
+
+    /**
+     * Returns annotation settings with a fragment ion tolerance of 0.02 Da or
+     * 20 ppm and the phosphorylations as variable modifications.
+     *
+     * @param ppm indicates whether the tolerance is in ppm
+     *
+     * @return annotation settings
+     */
+    private static AnnotationSettings getAnnotationSettings(boolean ppm) {
+        SearchParameters searchParameters = new SearchParameters();
+        searchParameters.setFragmentAccuracyType(ppm ? SearchParameters.MassAccuracyType.PPM : SearchParameters.MassAccuracyType.DA);
+        searchParameters.setFragmentIonAccuracy(ppm ? 20.0 : 0.02);
+        PtmSettings ptmSettings = new PtmSettings();
+        for (PTM ptm : getPhosphorylations()) {
+            ptmSettings.addVariableModification(ptm);
+        }
+        searchParameters.setPtmSettings(ptmSettings);
+        return new AnnotationSettings(searchParameters);
+    }
+
+    /**
+     * Returns the annotation settings specific to a PSM.
+     *
+     * @param annotationSettings the annotation settings
+     * @param spectrum the spectrum
+     * @param peptide the peptide
+     * @param charge the precursor charge
+     *
+     * @return the annotation settings specific to the PSM
+     *
+     * @throws Exception thrown whenever an error occurred while setting the
+     * neutral losses
+     */
+    private static SpecificAnnotationSettings getSpecificAnnotationSettings(AnnotationSettings annotationSettings, MSnSpectrum spectrum, Peptide peptide, int charge)
+            throws Exception {
+        PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, 1, 0, new Charge(Charge.PLUS, charge), 0);
+        return annotationSettings.getSpecificAnnotationPreferences(spectrum.getSpectrumKey(), peptideAssumption,
+                SequenceMatchingPreferences.defaultStringMatching, SequenceMatchingPreferences.defaultStringMatching);
+    }
+
+    /**
+     * Returns a peptide phosphorylated at the given sites.
+     *
+     * @param sequence the sequence of the peptide
+     * @param sites the phosphorylated sites, 1 being the first amino acid
+     *
+     * @return a phosphorylated peptide
+     */
+    private static Peptide getPeptide(String sequence, int[] sites) {
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>(sites.length);
+        for (int site : sites) {
+            modificationMatches.add(new ModificationMatch("Phosphorylation of " + sequence.charAt(site - 1), true, site));
+        }
+        return new Peptide(sequence, modificationMatches);
+    }
+}
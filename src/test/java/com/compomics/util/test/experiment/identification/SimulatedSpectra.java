@@ -0,0 +1,76 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.ions.ElementaryIon;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Simulates spectra of peptides for the annotation and scoring tests.
+ *
+ * @author Marc Vaudel
+ */
+class SimulatedSpectra {
+
+    /**
+     * Empty default constructor.
+     */
+    private SimulatedSpectra() {
+    }
+
+    /**
+     * Returns a spectrum where a part of the given fragment ions are found
+     * within 0.01 m/z, some with a second peak close by, along with noise
+     * peaks.
+     *
+     * @param spectrumTitle the title of the spectrum
+     * @param peptide the peptide
+     * @param precursorCharge the precursor charge
+     * @param fragmentIons the fragment ions of the peptide indexed by type and
+     * subtype
+     * @param seed the seed of the random numbers
+     *
+     * @return a simulated spectrum
+     */
+    static MSnSpectrum getSpectrum(String spectrumTitle, Peptide peptide, int precursorCharge,
+            HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentIons, long seed) {
+
+        Random random = new Random(seed);
+        HashMap<Double, Peak> peaks = new HashMap<Double, Peak>();
+        int maxCharge = Math.max(1, precursorCharge - 1);
+        for (HashMap<Integer, ArrayList<Ion>> ionsOfType : fragmentIons.values()) {
+            for (ArrayList<Ion> ions : ionsOfType.values()) {
+                for (Ion ion : ions) {
+                    for (int charge = 1; charge <= maxCharge; charge++) {
+                        if (random.nextDouble() < 0.6) {
+                            double mz = ion.getTheoreticMz(charge) + 0.02 * random.nextDouble() - 0.01;
+                            peaks.put(mz, new Peak(mz, 100 + 10000 * random.nextDouble()));
+                            if (random.nextDouble() < 0.2) {
+                                mz += 0.004;
+                                peaks.put(mz, new Peak(mz, 100 + 10000 * random.nextDouble()));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < 60; i++) {
+            double mz = 100 + 1900 * random.nextDouble();
+            peaks.put(mz, new Peak(mz, 10 + 1000 * random.nextDouble()));
+        }
+
+        double precursorMz = (peptide.getMass() + precursorCharge * ElementaryIon.proton.getTheoreticMass()) / precursorCharge;
+        precursorMz += precursorMz * (10 * random.nextDouble() - 5) / 1000000;
+        ArrayList<Charge> charges = new ArrayList<Charge>(1);
+        charges.add(new Charge(Charge.PLUS, precursorCharge));
+        Precursor precursor = new Precursor(60 * random.nextDouble(), precursorMz, charges);
+
+        return new MSnSpectrum(2, precursor, spectrumTitle, peaks, "simulated.mgf");
+    }
+}
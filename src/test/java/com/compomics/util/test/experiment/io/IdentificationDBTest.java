@@ -1,19 +1,30 @@
 package com.compomics.util.test.experiment.io;
 
 import com.compomics.util.Util;
+import com.compomics.util.db.CompactObjectSerializer;
 import com.compomics.util.db.DerbyUtil;
+import com.compomics.util.db.JavaObjectSerializer;
 import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.db.ObjectsDB;
+import com.compomics.util.experiment.biology.AminoAcidSequence;
+import com.compomics.util.experiment.biology.MassGap;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.IdentificationDB;
 import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
 import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
+import com.compomics.util.experiment.identification.identifications.Ms2Identification;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.PeptideMatch;
 import com.compomics.util.experiment.identification.matches.ProteinMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
 import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.refinementparameters.PepnovoAssumptionDetails;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
 import junit.framework.Assert;
 
 import java.io.File;
@@ -21,6 +32,7 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import junit.framework.TestCase;
 
 /**
@@ -118,4 +130,450 @@ public class IdentificationDBTest extends TestCase {
             Util.deleteDir(dbFolder);
         }
     }
+
+    /**
+     * Tests that building the peptide and protein matches in parallel gives
+     * the same matches as building them one spectrum at a time, also when
+     * some of the matches are already in the database.
+     *
+     * @throws SQLException thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException thrown whenever an error occurred while
+     * serializing
+     * @throws ClassNotFoundException thrown whenever a class was not found
+     * @throws InterruptedException thrown whenever a threading error occurred
+     */
+    public void testBuildPeptidesAndProteins() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        String path = this.getClass().getResource("IdentificationDBTest.class").getPath();
+        path = path.substring(1, path.indexOf("/target/"));
+        String serialPath = path + "/src/test/resources/experiment/testSerialBuildDB";
+        String parallelPath = path + "/src/test/resources/experiment/testParallelBuildDB";
+        try {
+            SequenceMatchingPreferences sequenceMatchingPreferences = SequenceMatchingPreferences.getDefaultSequenceMatching();
+            Identification serialIdentification = new Ms2Identification("serialBuild");
+            serialIdentification.establishConnection(serialPath, true, new ObjectsCache());
+            Identification parallelIdentification = new Ms2Identification("parallelBuild");
+            parallelIdentification.establishConnection(parallelPath, true, new ObjectsCache());
+            try {
+                // first round: three peptides, then the spectra are removed and only the peptide and protein matches stay in the database
+                ArrayList<String> firstKeys = new ArrayList<String>();
+                for (int i = 0; i < 20; i++) {
+                    String spectrumKey = Spectrum.getSpectrumKey("test.mgf", "spectrum " + i);
+                    firstKeys.add(spectrumKey);
+                    serialIdentification.addSpectrumMatch(getBuildTestMatch(spectrumKey, i % 3));
+                    parallelIdentification.addSpectrumMatch(getBuildTestMatch(spectrumKey, i % 3));
+                }
+                for (String spectrumKey : firstKeys) {
+                    serialIdentification.buildPeptidesAndProteins(spectrumKey, sequenceMatchingPreferences);
+                }
+                parallelIdentification.buildPeptidesAndProteins(null, sequenceMatchingPreferences, 4);
+                for (String spectrumKey : firstKeys) {
+                    serialIdentification.removeSpectrumMatch(spectrumKey);
+                    parallelIdentification.removeSpectrumMatch(spectrumKey);
+                }
+                assertSameMatches(serialIdentification, parallelIdentification);
+
+                // second round: the known peptides and proteins get new spectra, a new peptide joins a known protein, and a new protein appears
+                ArrayList<String> secondKeys = new ArrayList<String>();
+                for (int i = 20; i < 60; i++) {
+                    String spectrumKey = Spectrum.getSpectrumKey("test.mgf", "spectrum " + i);
+                    secondKeys.add(spectrumKey);
+                    serialIdentification.addSpectrumMatch(getBuildTestMatch(spectrumKey, i % 5));
+                    parallelIdentification.addSpectrumMatch(getBuildTestMatch(spectrumKey, i % 5));
+                }
+                for (String spectrumKey : secondKeys) {
+                    serialIdentification.buildPeptidesAndProteins(spectrumKey, sequenceMatchingPreferences);
+                }
+                parallelIdentification.buildPeptidesAndProteins(null, sequenceMatchingPreferences, 4);
+                assertSameMatches(serialIdentification, parallelIdentification);
+
+                Assert.assertEquals(5, parallelIdentification.getPeptideIdentification().size());
+                Assert.assertEquals(4, parallelIdentification.getProteinIdentification().size());
+                String peptideKey = getBuildTestPeptide(0).getMatchingKey(sequenceMatchingPreferences);
+                Assert.assertEquals(15, parallelIdentification.getPeptideMatch(peptideKey).getSpectrumMatchesKeys().size());
+                Assert.assertEquals(2, parallelIdentification.getProteinMatch("P1").getPeptideMatchesKeys().size());
+            } finally {
+                serialIdentification.close();
+                parallelIdentification.close();
+            }
+        } finally {
+            DerbyUtil.closeConnection();
+            Util.deleteDir(new File(serialPath));
+            Util.deleteDir(new File(parallelPath));
+        }
+    }
+
+    /**
+     * Asserts that two identifications have the same peptide and protein
+     * matches.
+     *
+     * @param expected the expected identification
+     * @param actual the identification to test
+     *
+     * @throws SQLException thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException thrown whenever an error occurred while
+     * deserializing
+     * @throws ClassNotFoundException thrown whenever a class was not found
+     * @throws InterruptedException thrown whenever a threading error occurred
+     */
+    private void assertSameMatches(Identification expected, Identification actual) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        Assert.assertEquals(expected.getPeptideIdentification(), actual.getPeptideIdentification());
+        for (String peptideKey : expected.getPeptideIdentification()) {
+            PeptideMatch expectedMatch = expected.getPeptideMatch(peptideKey);
+            PeptideMatch actualMatch = actual.getPeptideMatch(peptideKey);
+            Assert.assertEquals(expectedMatch.getSpectrumMatchesKeys().size(), actualMatch.getSpectrumMatchesKeys().size());
+            Assert.assertEquals(new HashSet<String>(expectedMatch.getSpectrumMatchesKeys()), new HashSet<String>(actualMatch.getSpectrumMatchesKeys()));
+            Assert.assertEquals(expectedMatch.getTheoreticPeptide().getParentProteinsNoRemapping(), actualMatch.getTheoreticPeptide().getParentProteinsNoRemapping());
+        }
+        Assert.assertEquals(expected.getProteinIdentification(), actual.getProteinIdentification());
+        for (String proteinKey : expected.getProteinIdentification()) {
+            ProteinMatch expectedMatch = expected.getProteinMatch(proteinKey);
+            ProteinMatch actualMatch = actual.getProteinMatch(proteinKey);
+            Assert.assertEquals(expectedMatch.getPeptideMatchesKeys().size(), actualMatch.getPeptideMatchesKeys().size());
+            Assert.assertEquals(new HashSet<String>(expectedMatch.getPeptideMatchesKeys()), new HashSet<String>(actualMatch.getPeptideMatchesKeys()));
+        }
+        Assert.assertEquals(expected.getProteinMap(), actual.getProteinMap());
+    }
+
+    /**
+     * Returns a spectrum match having the given test peptide as best
+     * assumption.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @param peptideIndex the index of the test peptide
+     *
+     * @return a spectrum match
+     */
+    private SpectrumMatch getBuildTestMatch(String spectrumKey, int peptideIndex) {
+        SpectrumMatch spectrumMatch = new SpectrumMatch(spectrumKey);
+        PeptideAssumption peptideAssumption = new PeptideAssumption(getBuildTestPeptide(peptideIndex), 1, Advocate.mascot.getIndex(), new Charge(Charge.PLUS, 2), 0.1, "no file");
+        spectrumMatch.addHit(Advocate.mascot.getIndex(), peptideAssumption, false);
+        spectrumMatch.setBestPeptideAssumption(peptideAssumption);
+        return spectrumMatch;
+    }
+
+    /**
+     * Returns one of the peptides used to test the building of the matches,
+     * mapped to its proteins.
+     *
+     * @param peptideIndex the index of the test peptide
+     *
+     * @return a peptide
+     */
+    private Peptide getBuildTestPeptide(int peptideIndex) {
+        String[] sequences = {"PEPTIDEK", "ELVISK", "LIVESK", "TESTPEPTIDEK", "ANCHRK"};
+        String[][] accessions = {{"P1"}, {"P1", "P2"}, {"P3"}, {"P1"}, {"P4"}};
+        Peptide peptide = new Peptide(sequences[peptideIndex], new ArrayList<ModificationMatch>());
+        ArrayList<String> proteins = new ArrayList<String>();
+        for (String accession : accessions[peptideIndex]) {
+            proteins.add(accession);
+        }
+        peptide.setParentProteins(proteins);
+        return peptide;
+    }
+
+    /**
+     * Tests that the cache evicts the objects used once before the objects
+     * used repeatedly, and that the evicted objects are written back in the
+     * database.
+     *
+     * @throws SQLException thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException thrown whenever an error occurred while
+     * serializing
+     * @throws ClassNotFoundException thrown whenever a class was not found
+     * @throws InterruptedException thrown whenever a threading error occurred
+     */
+    public void testCache() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        String path = this.getClass().getResource("IdentificationDBTest.class").getPath();
+        path = path.substring(1, path.indexOf("/target/"));
+        path += "/src/test/resources/experiment/testCacheDB";
+        try {
+            ObjectsCache cache = new ObjectsCache();
+            cache.setAutomatedMemoryManagement(false);
+            cache.setCacheSize(10);
+            cache.setBatchSize(4);
+            ObjectsDB objectsDB = new ObjectsDB(path, "testCache", true, cache);
+            try {
+                String tableName = "testTable";
+                objectsDB.addTable(tableName);
+
+                objectsDB.insertObject(tableName, "hot", "hot value", true);
+                Assert.assertEquals("hot value", objectsDB.retrieveObject(tableName, "hot", true));
+                for (int i = 0; i < 50; i++) {
+                    objectsDB.insertObject(tableName, "key" + i, "value" + i, true);
+                    Assert.assertEquals("hot value", objectsDB.retrieveObject(tableName, "hot", true));
+                }
+                Assert.assertEquals(10, cache.getNObjects());
+                Assert.assertTrue(cache.inCache("testCache", tableName, "hot"));
+                Assert.assertEquals(41, cache.getEvictionCount());
+
+                cache.flushWriteBack();
+                Assert.assertEquals(41, cache.getWriteBackCount());
+                Assert.assertTrue(cache.getAverageWriteBackLatency() > 0);
+                for (int i = 0; i < 41; i++) {
+                    Assert.assertFalse(cache.inCache("testCache", tableName, "key" + i));
+                    Assert.assertTrue(objectsDB.inDB(tableName, "key" + i, false));
+                    Assert.assertEquals("value" + i, objectsDB.retrieveObject(tableName, "key" + i, true, false));
+                }
+                Assert.assertEquals(51, cache.getHitCount());
+                Assert.assertTrue(cache.getHitRate() > 0);
+
+                objectsDB.updateObject(tableName, "key45", "new value");
+                cache.saveCache(null, true);
+                Assert.assertTrue(cache.isEmpty());
+                Assert.assertEquals("new value", objectsDB.retrieveObject(tableName, "key45", true));
+            } finally {
+                objectsDB.close();
+            }
+        } finally {
+            File dbFolder = new File(path);
+            DerbyUtil.closeConnection();
+            Util.deleteDir(dbFolder);
+        }
+    }
+
+    /**
+     * Tests that the updates of objects are not lost when the objects are
+     * evicted from the cache concurrently.
+     *
+     * @throws SQLException thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException thrown whenever an error occurred while
+     * serializing
+     * @throws ClassNotFoundException thrown whenever a class was not found
+     * @throws InterruptedException thrown whenever a threading error occurred
+     */
+    public void testCacheConcurrentUpdate() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        String path = this.getClass().getResource("IdentificationDBTest.class").getPath();
+        path = path.substring(1, path.indexOf("/target/"));
+        path += "/src/test/resources/experiment/testCacheUpdateDB";
+        try {
+            ObjectsCache cache = new ObjectsCache();
+            cache.setAutomatedMemoryManagement(false);
+            cache.setCacheSize(10);
+            cache.setBatchSize(4);
+            final ObjectsDB objectsDB = new ObjectsDB(path, "testCacheUpdate", true, cache);
+            try {
+                final String tableName = "testTable";
+                objectsDB.addTable(tableName);
+
+                final int nKeys = 10;
+                final int nRounds = 200;
+                for (int i = 0; i < nKeys; i++) {
+                    objectsDB.insertObject(tableName, "key" + i, "value" + i, true);
+                }
+
+                final ArrayList<Exception> exceptions = new ArrayList<Exception>();
+                Thread updater = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int round = 0; round < nRounds; round++) {
+                                for (int i = 0; i < nKeys; i++) {
+                                    objectsDB.updateObject(tableName, "key" + i, "value" + i + "_" + round);
+                                }
+                            }
+                        } catch (Exception e) {
+                            synchronized (exceptions) {
+                                exceptions.add(e);
+                            }
+                        }
+                    }
+                });
+                Thread evicter = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 0; i < nKeys * nRounds; i++) {
+                                objectsDB.insertObject(tableName, "filler" + i, "filler value" + i, true);
+                            }
+                        } catch (Exception e) {
+                            synchronized (exceptions) {
+                                exceptions.add(e);
+                            }
+                        }
+                    }
+                });
+                updater.start();
+                evicter.start();
+                updater.join();
+                evicter.join();
+                Assert.assertTrue(exceptions.isEmpty());
+
+                cache.saveCache(null, true);
+                Assert.assertTrue(cache.isEmpty());
+                for (int i = 0; i < nKeys; i++) {
+                    Assert.assertEquals("value" + i + "_" + (nRounds - 1), objectsDB.retrieveObject(tableName, "key" + i, true));
+                }
+            } finally {
+                objectsDB.close();
+            }
+        } finally {
+            File dbFolder = new File(path);
+            DerbyUtil.closeConnection();
+            Util.deleteDir(dbFolder);
+        }
+    }
+
+    /**
+     * Tests that the compact serializer restores the matches, that it reads
+     * the objects stored using the Java serialization and that it produces
+     * smaller blobs.
+     *
+     * @throws IOException thrown whenever an error occurred while serializing
+     * @throws ClassNotFoundException thrown whenever a class was not found
+     * @throws SQLException thrown whenever an error occurred while mapping
+     * the proteins
+     * @throws InterruptedException thrown whenever a threading error occurred
+     */
+    public void testCompactSerialization() throws IOException, ClassNotFoundException, SQLException, InterruptedException {
+
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        modificationMatches.add(new ModificationMatch("Oxidation of M", true, 2));
+        ModificationMatch confidentMatch = new ModificationMatch("Phosphorylation of S", true, 5);
+        confidentMatch.setConfident(true);
+        modificationMatches.add(confidentMatch);
+        Peptide peptide = new Peptide("PMEPTSIDEK", modificationMatches);
+        ArrayList<String> proteins = new ArrayList<String>();
+        proteins.add("P12345");
+        proteins.add("Q67890");
+        peptide.setParentProteins(proteins);
+
+        SpectrumMatch spectrumMatch = new SpectrumMatch("spectrum_file_cus_spectrum_title");
+        spectrumMatch.setSpectrumNumber(12);
+        PeptideAssumption bestAssumption = new PeptideAssumption(peptide, 1, Advocate.mascot.getIndex(), new Charge(Charge.PLUS, 2), 0.01, "file.dat");
+        bestAssumption.setRawScore(45.6);
+        ArrayList<double[]> aminoAcidScores = new ArrayList<double[]>();
+        aminoAcidScores.add(new double[]{1.0, 2.5, -3.0});
+        bestAssumption.setAminoAcidScores(aminoAcidScores);
+        PepnovoAssumptionDetails pepnovoAssumptionDetails = new PepnovoAssumptionDetails();
+        pepnovoAssumptionDetails.setRankScore(12.3);
+        bestAssumption.addUrParam(pepnovoAssumptionDetails);
+        spectrumMatch.addHit(Advocate.mascot.getIndex(), bestAssumption, false);
+        spectrumMatch.addHit(Advocate.omssa.getIndex(), new PeptideAssumption(new Peptide("PEPTIDEK", null), 2, Advocate.omssa.getIndex(), new Charge(Charge.PLUS, 3), 0.5, "file.omx"), false);
+        spectrumMatch.setBestPeptideAssumption(bestAssumption);
+
+        CompactObjectSerializer compactSerializer = new CompactObjectSerializer();
+        JavaObjectSerializer javaSerializer = new JavaObjectSerializer();
+        byte[] compactBytes = compactSerializer.serialize(spectrumMatch);
+        byte[] javaBytes = javaSerializer.serialize(spectrumMatch);
+        Assert.assertTrue(compactBytes.length < javaBytes.length / 2);
+
+        for (byte[] bytes : new byte[][]{compactBytes, javaBytes}) {
+            SpectrumMatch result = (SpectrumMatch) compactSerializer.deserialize(bytes);
+            Assert.assertEquals(spectrumMatch.getKey(), result.getKey());
+            Assert.assertEquals(spectrumMatch.getSpectrumNumber(), result.getSpectrumNumber());
+            Assert.assertEquals(2, result.getAssumptionsMap().size());
+            PeptideAssumption resultAssumption = (PeptideAssumption) result.getAssumptionsMap().get(Advocate.mascot.getIndex()).get(0.01).get(0);
+            Assert.assertSame(resultAssumption, result.getBestPeptideAssumption());
+            Assert.assertEquals(1, resultAssumption.getRank());
+            Assert.assertEquals(Advocate.mascot.getIndex(), resultAssumption.getAdvocate());
+            Assert.assertEquals(2, resultAssumption.getIdentificationCharge().value);
+            Assert.assertEquals("file.dat", resultAssumption.getIdentificationFile());
+            Assert.assertEquals(45.6, resultAssumption.getRawScore());
+            Assert.assertEquals(-3.0, resultAssumption.getAminoAcidScores().get(0)[2]);
+            Assert.assertEquals(12.3, ((PepnovoAssumptionDetails) resultAssumption.getUrParam(pepnovoAssumptionDetails)).getRankScore());
+            Peptide resultPeptide = resultAssumption.getPeptide();
+            Assert.assertEquals(peptide.getKey(), resultPeptide.getKey());
+            Assert.assertEquals(proteins, resultPeptide.getParentProteinsNoRemapping());
+            Assert.assertTrue(resultPeptide.getModificationMatches().get(1).isConfident());
+            PeptideAssumption otherAssumption = (PeptideAssumption) result.getAssumptionsMap().get(Advocate.omssa.getIndex()).get(0.5).get(0);
+            Assert.assertEquals("PEPTIDEK", otherAssumption.getPeptide().getSequence());
+            Assert.assertNull(otherAssumption.getPeptide().getModificationMatches());
+        }
+
+        PeptideMatch peptideMatch = new PeptideMatch(peptide, peptide.getKey());
+        peptideMatch.addSpectrumMatchKey(spectrumMatch.getKey());
+        PeptideMatch resultPeptideMatch = (PeptideMatch) compactSerializer.deserialize(compactSerializer.serialize(peptideMatch));
+        Assert.assertEquals(peptideMatch.getKey(), resultPeptideMatch.getKey());
+        Assert.assertEquals(peptideMatch.getSpectrumMatchesKeys(), resultPeptideMatch.getSpectrumMatchesKeys());
+
+        ProteinMatch proteinMatch = new ProteinMatch(peptide, peptideMatch.getKey());
+        ProteinMatch resultProteinMatch = (ProteinMatch) compactSerializer.deserialize(compactSerializer.serialize(proteinMatch));
+        Assert.assertEquals(proteinMatch.getKey(), resultProteinMatch.getKey());
+        Assert.assertEquals(proteinMatch.getMainMatch(), resultProteinMatch.getMainMatch());
+        Assert.assertEquals(proteinMatch.getPeptideMatchesKeys(), resultProteinMatch.getPeptideMatchesKeys());
+
+        HashMap<String, Double> otherObject = new HashMap<String, Double>();
+        otherObject.put("score", 1.0);
+        Assert.assertEquals(otherObject, compactSerializer.deserialize(compactSerializer.serialize(otherObject)));
+    }
+
+    /**
+     * Tests that the tag assumptions are written by their codec, that they
+     * are restored from the compact blobs and from the blobs written by the
+     * Java serialization, and that the codec identifiers reserved for the
+     * library cannot be registered.
+     *
+     * @throws IOException thrown whenever an error occurred while serializing
+     * @throws ClassNotFoundException thrown whenever a class was not found
+     */
+    public void testUrParameterCodecs() throws IOException, ClassNotFoundException {
+
+        HashMap<Integer, ArrayList<ModificationMatch>> modificationMatches = new HashMap<Integer, ArrayList<ModificationMatch>>();
+        ArrayList<ModificationMatch> siteMatches = new ArrayList<ModificationMatch>();
+        siteMatches.add(new ModificationMatch("Oxidation of M", true, 2));
+        modificationMatches.put(2, siteMatches);
+        Tag tag = new Tag(123.4, new AminoAcidSequence("TMAG", modificationMatches), 567.8);
+        TagAssumption tagAssumption = new TagAssumption(Advocate.pepnovo.getIndex(), 1, tag, new Charge(Charge.PLUS, 2), 4.5);
+        tagAssumption.setRawScore(45.0);
+        ArrayList<double[]> aminoAcidScores = new ArrayList<double[]>();
+        aminoAcidScores.add(new double[]{0.5, 0.25, 0.125, 1.0});
+        tagAssumption.setAminoAcidScores(aminoAcidScores);
+        PepnovoAssumptionDetails pepnovoAssumptionDetails = new PepnovoAssumptionDetails();
+        pepnovoAssumptionDetails.setRankScore(7.5);
+        pepnovoAssumptionDetails.setMH(1234.5);
+        tagAssumption.addUrParam(pepnovoAssumptionDetails);
+
+        SpectrumMatch spectrumMatch = new SpectrumMatch("spectrum_file_cus_tag_spectrum");
+        spectrumMatch.addHit(Advocate.pepnovo.getIndex(), tagAssumption, false);
+        spectrumMatch.setBestTagAssumption(tagAssumption);
+        PeptideAssumption peptideAssumption = new PeptideAssumption(new Peptide("TMAGK", null), 1, Advocate.pepnovo.getIndex(), new Charge(Charge.PLUS, 2), 4.5, "file.out");
+        peptideAssumption.addUrParam(tagAssumption);
+        spectrumMatch.addHit(Advocate.mascot.getIndex(), peptideAssumption, false);
+
+        CompactObjectSerializer compactSerializer = new CompactObjectSerializer();
+        JavaObjectSerializer javaSerializer = new JavaObjectSerializer();
+        byte[] compactBytes = compactSerializer.serialize(spectrumMatch);
+        byte[] javaBytes = javaSerializer.serialize(spectrumMatch);
+        Assert.assertTrue(compactBytes.length < javaBytes.length / 4);
+
+        for (byte[] bytes : new byte[][]{compactBytes, javaBytes}) {
+            SpectrumMatch result = (SpectrumMatch) compactSerializer.deserialize(bytes);
+            TagAssumption resultAssumption = (TagAssumption) result.getAssumptionsMap().get(Advocate.pepnovo.getIndex()).get(4.5).get(0);
+            Assert.assertSame(resultAssumption, result.getBestTagAssumption());
+            PeptideAssumption resultPeptideAssumption = (PeptideAssumption) result.getAssumptionsMap().get(Advocate.mascot.getIndex()).get(4.5).get(0);
+            Assert.assertSame(resultAssumption, resultPeptideAssumption.getUrParam(tagAssumption));
+            Assert.assertEquals(Advocate.pepnovo.getIndex(), resultAssumption.getAdvocate());
+            Assert.assertEquals(1, resultAssumption.getRank());
+            Assert.assertEquals(2, resultAssumption.getIdentificationCharge().value);
+            Assert.assertEquals(4.5, resultAssumption.getScore());
+            Assert.assertEquals(45.0, resultAssumption.getRawScore());
+            Assert.assertEquals(0.125, resultAssumption.getAminoAcidScores().get(0)[2]);
+            PepnovoAssumptionDetails resultDetails = (PepnovoAssumptionDetails) resultAssumption.getUrParam(pepnovoAssumptionDetails);
+            Assert.assertEquals(7.5, resultDetails.getRankScore());
+            Assert.assertEquals(1234.5, resultDetails.getMH());
+            Tag resultTag = resultAssumption.getTag();
+            Assert.assertEquals(3, resultTag.getContent().size());
+            Assert.assertEquals(123.4, ((MassGap) resultTag.getContent().get(0)).getMass());
+            AminoAcidSequence resultSequence = (AminoAcidSequence) resultTag.getContent().get(1);
+            Assert.assertEquals("TMAG", resultSequence.getSequence());
+            Assert.assertEquals("Oxidation of M", resultSequence.getModificationsAt(2).get(0).getTheoreticPtm());
+            Assert.assertEquals(567.8, ((MassGap) resultTag.getContent().get(2)).getMass());
+            Assert.assertEquals(tag.asSequence(), resultTag.asSequence());
+            Assert.assertEquals(tag.getMass(), resultTag.getMass());
+        }
+
+        try {
+            compactSerializer.registerCodec(CompactObjectSerializer.TAG_ASSUMPTION_CODEC, HashMap.class, null);
+            Assert.fail("Registered a codec with a reserved id.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
 }
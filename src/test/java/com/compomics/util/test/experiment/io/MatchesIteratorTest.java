@@ -0,0 +1,272 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.experiment.identification.matches_iterators.MatchesIterator;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerDummy;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Test for the loading of matches in batches ahead of the iteration.
+ *
+ * @author Marc Vaudel
+ */
+public class MatchesIteratorTest extends TestCase {
+
+    /**
+     * Tests that the iterator returns all matches in the order of the keys
+     * and that every match is loaded before being returned.
+     *
+     * @throws Exception thrown whenever an error occurred while iterating the
+     * matches
+     */
+    public void testIterationOrder() throws Exception {
+
+        for (int readAhead = 1; readAhead <= 3; readAhead++) {
+            ArrayList<String> keys = getKeys(2500);
+            TestIterator iterator = new TestIterator(keys, null);
+            iterator.setBatchSize(100);
+            iterator.setReadAhead(readAhead);
+            Assert.assertEquals(readAhead, iterator.getReadAhead());
+
+            // slow loading, the batch size increases
+            iterator.loadingTime = 2;
+
+            for (String key : keys) {
+                Assert.assertTrue(iterator.hasNext());
+                Assert.assertEquals(key, iterator.next());
+                Assert.assertTrue(iterator.getBatchSize() >= 100);
+                Assert.assertTrue(iterator.getBatchSize() <= MatchesIterator.MAX_BATCH_SIZE);
+            }
+            Assert.assertFalse(iterator.hasNext());
+            Assert.assertNull(iterator.next());
+            Assert.assertTrue(iterator.nextBatch().isEmpty());
+            Assert.assertEquals(0, iterator.nNotLoaded.get());
+            Assert.assertEquals(keys.size(), iterator.loadedKeys.size());
+        }
+
+        // an empty iterator
+        TestIterator iterator = new TestIterator(new ArrayList<String>(), null);
+        Assert.assertFalse(iterator.hasNext());
+        Assert.assertNull(iterator.next());
+        Assert.assertTrue(iterator.nextBatch().isEmpty());
+        Assert.assertEquals(0, iterator.nBatches.get());
+    }
+
+    /**
+     * Tests that threads iterating the matches in batches get every match
+     * exactly once, each batch containing consecutive matches.
+     *
+     * @throws Exception thrown whenever an error occurred while iterating the
+     * matches
+     */
+    public void testConcurrentBatches() throws Exception {
+
+        final ArrayList<String> keys = getKeys(10000);
+        final TestIterator iterator = new TestIterator(keys, null);
+        iterator.setBatchSize(50);
+        iterator.loadingTime = 1;
+
+        final ArrayList<ArrayList<String>> batches = new ArrayList<ArrayList<String>>();
+        final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+        int nThreads = 4;
+        ArrayList<Thread> threads = new ArrayList<Thread>(nThreads);
+        for (int i = 0; i < nThreads; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ArrayList<String> batch;
+                        while (!(batch = iterator.nextBatch()).isEmpty()) {
+                            synchronized (batches) {
+                                batches.add(batch);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(errors.isEmpty());
+        Assert.assertEquals(0, iterator.nNotLoaded.get());
+
+        HashSet<String> returnedKeys = new HashSet<String>(keys.size());
+        for (ArrayList<String> batch : batches) {
+            int firstIndex = keys.indexOf(batch.get(0));
+            for (int i = 0; i < batch.size(); i++) {
+                Assert.assertEquals(keys.get(firstIndex + i), batch.get(i));
+                Assert.assertTrue(returnedKeys.add(batch.get(i)));
+            }
+        }
+        Assert.assertEquals(keys.size(), returnedKeys.size());
+        Assert.assertTrue(iterator.nextBatch().isEmpty());
+    }
+
+    /**
+     * Tests that the errors occurring while loading a batch are thrown to the
+     * iterating thread.
+     *
+     * @throws Exception thrown whenever an error occurred while iterating the
+     * matches
+     */
+    public void testLoadingError() throws Exception {
+
+        ArrayList<String> keys = getKeys(1000);
+        TestIterator iterator = new TestIterator(keys, null);
+        iterator.setBatchSize(100);
+        iterator.failingKey = keys.get(550);
+        int nReturned = 0;
+        try {
+            while (iterator.hasNext()) {
+                Assert.assertEquals(keys.get(nReturned), iterator.next());
+                nReturned++;
+            }
+            fail("Loading error not thrown.");
+        } catch (IOException e) {
+            Assert.assertEquals("Error loading " + keys.get(550) + ".", e.getMessage());
+        }
+        Assert.assertTrue(nReturned <= 550);
+
+        // unchecked exceptions are thrown as they are
+        iterator = new TestIterator(keys, null);
+        iterator.setBatchSize(100);
+        iterator.failingKey = keys.get(0);
+        iterator.runtimeFailure = true;
+        try {
+            iterator.nextBatch();
+            fail("Loading error not thrown.");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("Error loading " + keys.get(0) + ".", e.getMessage());
+        }
+    }
+
+    /**
+     * Tests that once the process is canceled no more batches are loaded and
+     * the remaining matches are still returned.
+     *
+     * @throws Exception thrown whenever an error occurred while iterating the
+     * matches
+     */
+    public void testCancellation() throws Exception {
+
+        ArrayList<String> keys = getKeys(2000);
+        WaitingHandlerDummy waitingHandler = new WaitingHandlerDummy();
+        TestIterator iterator = new TestIterator(keys, waitingHandler);
+        iterator.setBatchSize(100);
+        iterator.setReadAhead(2);
+
+        for (int i = 0; i < 250; i++) {
+            Assert.assertEquals(keys.get(i), iterator.next());
+        }
+        Assert.assertEquals(0, iterator.nNotLoaded.get());
+
+        waitingHandler.setRunCanceled();
+        int nBatches = iterator.nBatches.get();
+        ArrayList<String> remainingKeys = new ArrayList<String>();
+        String key;
+        while ((key = iterator.next()) != null) {
+            remainingKeys.add(key);
+        }
+        Assert.assertEquals(keys.subList(250, keys.size()), remainingKeys);
+
+        // only the batches submitted before the cancellation are loaded
+        Assert.assertTrue(iterator.nBatches.get() <= nBatches + iterator.getReadAhead());
+        Assert.assertTrue(iterator.loadedKeys.size() < keys.size());
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    /**
+     * Returns a list of keys.
+     *
+     * @param nKeys the number of keys
+     *
+     * @return a list of keys
+     */
+    private ArrayList<String> getKeys(int nKeys) {
+        ArrayList<String> keys = new ArrayList<String>(nKeys);
+        for (int i = 0; i < nKeys; i++) {
+            keys.add("key" + i);
+        }
+        return keys;
+    }
+
+    /**
+     * Iterator returning the keys as matches and recording the loaded keys.
+     */
+    private static class TestIterator extends MatchesIterator<String> {
+
+        /**
+         * The keys loaded.
+         */
+        private final Set<String> loadedKeys = Collections.synchronizedSet(new HashSet<String>());
+        /**
+         * The number of batches loaded.
+         */
+        private final AtomicInteger nBatches = new AtomicInteger(0);
+        /**
+         * The number of matches returned before being loaded.
+         */
+        private final AtomicInteger nNotLoaded = new AtomicInteger(0);
+        /**
+         * The loading time of a batch in milliseconds.
+         */
+        private volatile long loadingTime = 0;
+        /**
+         * The key which cannot be loaded, null if none.
+         */
+        private volatile String failingKey = null;
+        /**
+         * If true an unchecked exception is thrown when the failing key is
+         * loaded.
+         */
+        private volatile boolean runtimeFailure = false;
+
+        /**
+         * Constructor.
+         *
+         * @param keys the keys to iterate
+         * @param waitingHandler the waiting handler
+         */
+        public TestIterator(ArrayList<String> keys, WaitingHandler waitingHandler) {
+            super(keys, null, waitingHandler);
+        }
+
+        @Override
+        protected void loadBatch(ArrayList<String> keysInBatch) throws IOException, InterruptedException {
+            nBatches.incrementAndGet();
+            if (loadingTime > 0) {
+                Thread.sleep(loadingTime);
+            }
+            if (failingKey != null && keysInBatch.contains(failingKey)) {
+                if (runtimeFailure) {
+                    throw new IllegalStateException("Error loading " + failingKey + ".");
+                }
+                throw new IOException("Error loading " + failingKey + ".");
+            }
+            loadedKeys.addAll(keysInBatch);
+        }
+
+        @Override
+        protected String getMatch(String key) {
+            if (!loadedKeys.contains(key)) {
+                nNotLoaded.incrementAndGet();
+            }
+            return key;
+        }
+    }
+}
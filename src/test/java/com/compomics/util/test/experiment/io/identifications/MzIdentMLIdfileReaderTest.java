@@ -0,0 +1,88 @@
+package com.compomics.util.test.experiment.io.identifications;
+
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.io.identifications.idfilereaders.MzIdentMLIdfileReader;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import junit.framework.TestCase;
+
+/**
+ * Test class for the MzIdentMLIdfileReader.
+ *
+ * @author Marc Vaudel
+ */
+public class MzIdentMLIdfileReaderTest extends TestCase {
+
+    /**
+     * Tests that parsing the PSMs in parallel gives the same spectrum matches
+     * in the same order as parsing them with a single thread.
+     *
+     * @throws Exception thrown whenever an error occurred while parsing the
+     * file
+     */
+    public void testParallelParsing() throws Exception {
+
+        File mzIdentMLFile = new File("src/test/resources/experiment/test.mzid");
+
+        MzIdentMLIdfileReader serialReader = new MzIdentMLIdfileReader(mzIdentMLFile);
+        LinkedList<SpectrumMatch> serialMatches = serialReader.getAllSpectrumMatches(null, null);
+        serialReader.close();
+        assertEquals(100, serialMatches.size());
+        assertEquals("test1.mgf_cus_spectrum 1", serialMatches.getFirst().getKey());
+        assertEquals("test2.mgf_cus_spectrum 100", serialMatches.getLast().getKey());
+
+        // small sections so that they start in both spectrum identification lists
+        for (long chunkSize : new long[]{1024, 5000, 100000}) {
+            MzIdentMLIdfileReader parallelReader = new MzIdentMLIdfileReader(mzIdentMLFile);
+            parallelReader.setNThreads(4);
+            parallelReader.setParallelChunkSize(chunkSize);
+            LinkedList<SpectrumMatch> parallelMatches = parallelReader.getAllSpectrumMatches(null, null);
+            parallelReader.close();
+            assertEquals(serialReader.getSoftwareVersions(), parallelReader.getSoftwareVersions());
+            assertEquals(serialMatches.size(), parallelMatches.size());
+            Iterator<SpectrumMatch> parallelIterator = parallelMatches.iterator();
+            for (SpectrumMatch serialMatch : serialMatches) {
+                assertSameMatch(serialMatch, parallelIterator.next());
+            }
+        }
+    }
+
+    /**
+     * Asserts that two spectrum matches have the same key, spectrum number
+     * and hits.
+     *
+     * @param expected the expected spectrum match
+     * @param actual the spectrum match to test
+     */
+    private void assertSameMatch(SpectrumMatch expected, SpectrumMatch actual) {
+        assertEquals(expected.getKey(), actual.getKey());
+        assertEquals(expected.getSpectrumNumber(), actual.getSpectrumNumber());
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> expectedAssumptions = expected.getAssumptionsMap();
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> actualAssumptions = actual.getAssumptionsMap();
+        assertEquals(expectedAssumptions.keySet(), actualAssumptions.keySet());
+        for (Integer advocate : expectedAssumptions.keySet()) {
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> expectedAdvocateAssumptions = expectedAssumptions.get(advocate);
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> actualAdvocateAssumptions = actualAssumptions.get(advocate);
+            assertEquals(expectedAdvocateAssumptions.keySet(), actualAdvocateAssumptions.keySet());
+            for (Double score : expectedAdvocateAssumptions.keySet()) {
+                ArrayList<SpectrumIdentificationAssumption> expectedHits = expectedAdvocateAssumptions.get(score);
+                ArrayList<SpectrumIdentificationAssumption> actualHits = actualAdvocateAssumptions.get(score);
+                assertEquals(expectedHits.size(), actualHits.size());
+                for (int i = 0; i < expectedHits.size(); i++) {
+                    PeptideAssumption expectedHit = (PeptideAssumption) expectedHits.get(i);
+                    PeptideAssumption actualHit = (PeptideAssumption) actualHits.get(i);
+                    assertEquals(expectedHit.getPeptide().getKey(), actualHit.getPeptide().getKey());
+                    assertEquals(expectedHit.getRank(), actualHit.getRank());
+                    assertEquals(expectedHit.getIdentificationCharge().value, actualHit.getIdentificationCharge().value);
+                    assertEquals(expectedHit.getRawScore(), actualHit.getRawScore());
+                    assertEquals(expectedHit.getIdentificationFile(), actualHit.getIdentificationFile());
+                }
+            }
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package com.compomics.util.test.experiment.io.identifications;
 
+import com.compomics.util.experiment.io.identifications.SpectrumMatchHandler;
 import com.compomics.util.experiment.io.identifications.idfilereaders.PepNovoIdfileReader;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import junit.framework.TestCase;
 import org.junit.Before;
@@ -32,4 +34,24 @@ public class PepNovoIdfileReaderTest extends TestCase {
             }
         }
     }
+
+    @Test
+    public void testReadSpectrumMatches() throws Exception {
+        LinkedList<SpectrumMatch> allSpectrumMatches = idfileReader.getAllSpectrumMatches(null, null);
+        final ArrayList<String> keys = new ArrayList<String>();
+        PepNovoIdfileReader streamingReader = new PepNovoIdfileReader(new File("src/test/resources/experiment/test.mgf.out"));
+        streamingReader.readSpectrumMatches(null, null, null, false, new SpectrumMatchHandler() {
+            @Override
+            public void addSpectrumMatch(SpectrumMatch spectrumMatch) {
+                keys.add(spectrumMatch.getKey());
+            }
+        });
+        streamingReader.close();
+        assertFalse(keys.isEmpty());
+        assertEquals(allSpectrumMatches.size(), keys.size());
+        int i = 0;
+        for (SpectrumMatch sm : allSpectrumMatches) {
+            assertEquals(sm.getKey(), keys.get(i++));
+        }
+    }
 }
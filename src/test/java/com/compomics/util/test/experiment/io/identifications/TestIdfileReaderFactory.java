@@ -4,6 +4,7 @@ import com.compomics.util.experiment.identification.identification_parameters.Se
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.io.identifications.IdfileReader;
 import com.compomics.util.experiment.io.identifications.IdfileReaderFactory;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchHandler;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import junit.framework.Assert;
@@ -51,6 +52,13 @@ public class TestIdfileReaderFactory extends TestCase {
                 return null;
             }
 
+            @Override
+            public void readSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+                    SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchHandler spectrumMatchHandler)
+                    throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+                // Does nothing.
+            }
+
             @Override
             public String getExtension() {
                 return ".crazyThingThatDoesNotExist";
@@ -133,6 +141,12 @@ public class TestIdfileReaderFactory extends TestCase {
             return null;
         }
 
+        @Override
+        public void readSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters, SequenceMatchingPreferences sequenceMatchingPreferences,
+                boolean expandAaCombinations, SpectrumMatchHandler spectrumMatchHandler) throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+            // Does nothing.
+        }
+
         @Override
         public String getExtension() {
             return ".yourNotBelievingThisAreYou";
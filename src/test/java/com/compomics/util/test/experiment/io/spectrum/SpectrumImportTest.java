@@ -1,6 +1,12 @@
 package com.compomics.util.test.experiment.io.spectrum;
 
+import com.compomics.util.experiment.io.massspectrometry.MappedMgfFile;
+import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
+import com.compomics.util.experiment.io.massspectrometry.MgfReader;
 import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MS1Spectrum;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Peak;
 import com.compomics.util.experiment.massspectrometry.Precursor;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
@@ -8,6 +14,13 @@ import junit.framework.Assert;
 import junit.framework.TestCase;
 
 import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
 
 /**
  * This test case will test the mgf import and spectrum annotation
@@ -42,4 +55,181 @@ public class SpectrumImportTest extends TestCase {
         Assert.assertTrue(rtMax == 219.71);
         Assert.assertTrue(Math.abs(precursor.getRt() - 218.855) < 0.0001);
     }
+
+    /**
+     * Tests that the spectra read from a memory mapped mgf file are the same
+     * as the ones read from the random access file, and that the factory can
+     * read them from several threads.
+     *
+     * @throws Exception thrown whenever an error occurred
+     */
+    public void testMemoryMappedMgf() throws Exception {
+        File mgfFile = new File("src/test/resources/experiment/test.mgf");
+        MgfIndex mgfIndex = MgfReader.getIndexMap(mgfFile);
+        MappedMgfFile mappedMgfFile = new MappedMgfFile(mgfFile);
+        BufferedRandomAccessFile randomAccessFile = new BufferedRandomAccessFile(mgfFile, "r", 1024 * 100);
+        try {
+            for (String title : mgfIndex.getSpectrumTitles()) {
+                long index = mgfIndex.getIndex(title);
+                MSnSpectrum expected = MgfReader.getSpectrum(randomAccessFile, index, mgfFile.getName());
+                MSnSpectrum spectrum = MgfReader.getSpectrum(mappedMgfFile, index, mgfFile.getName());
+                Assert.assertEquals(expected.getSpectrumTitle(), spectrum.getSpectrumTitle());
+                Assert.assertEquals(expected.getPrecursor().getMz(), spectrum.getPrecursor().getMz());
+                Assert.assertEquals(expected.getPrecursor().getRt(), spectrum.getPrecursor().getRt());
+                Assert.assertEquals(expected.getPrecursor().getPossibleCharges().size(), spectrum.getPrecursor().getPossibleCharges().size());
+                Assert.assertEquals(expected.getPeakMap().size(), spectrum.getPeakMap().size());
+                for (Double mz : expected.getPeakMap().keySet()) {
+                    Assert.assertEquals(expected.getPeakMap().get(mz).intensity, spectrum.getPeakMap().get(mz).intensity);
+                }
+                Precursor precursor = MgfReader.getPrecursor(mappedMgfFile, index, mgfFile.getName());
+                Assert.assertEquals(expected.getPrecursor().getMz(), precursor.getMz());
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+
+        final SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+        spectrumFactory.clearFactory();
+        spectrumFactory.setMemoryMappedMgf(true);
+        try {
+            spectrumFactory.addSpectra(mgfFile, null);
+            final ArrayList<String> titles = new ArrayList<String>();
+            for (int i = 0; i < 50; i++) {
+                titles.addAll(mgfIndex.getSpectrumTitles());
+            }
+            Collections.shuffle(titles);
+            final AtomicInteger nErrors = new AtomicInteger(0);
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (String title : titles) {
+                                spectrumFactory.emptyCache();
+                                if (!((MSnSpectrum) spectrumFactory.getSpectrum("test.mgf", title)).getSpectrumTitle().equals(title)
+                                        || spectrumFactory.getPrecursor("test.mgf", title, false) == null) {
+                                    nErrors.incrementAndGet();
+                                }
+                            }
+                        } catch (Exception e) {
+                            nErrors.incrementAndGet();
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Assert.assertEquals(0, nErrors.get());
+        } finally {
+            spectrumFactory.setMemoryMappedMgf(false);
+            spectrumFactory.clearFactory();
+        }
+    }
+
+    /**
+     * Tests that the spectra read from an mgf file, which only have peak
+     * arrays, can be exported back to mgf and have their peaks removed.
+     *
+     * @throws Exception thrown whenever an error occurred
+     */
+    public void testMgfExport() throws Exception {
+        File mgfFile = new File("src/test/resources/experiment/test.mgf");
+        MgfIndex mgfIndex = MgfReader.getIndexMap(mgfFile);
+        BufferedRandomAccessFile randomAccessFile = new BufferedRandomAccessFile(mgfFile, "r", 1024 * 100);
+        try {
+            for (String title : mgfIndex.getSpectrumTitles()) {
+                MSnSpectrum spectrum = MgfReader.getSpectrum(randomAccessFile, mgfIndex.getIndex(title), mgfFile.getName());
+                String mgf = spectrum.asMgf();
+                Assert.assertTrue(mgf.contains("TITLE=" + title));
+                Assert.assertTrue(mgf.contains("964.581665 0.861346662"));
+                spectrum.removePeakList();
+                Assert.assertEquals(0, spectrum.getNPeaks());
+                Assert.assertFalse(spectrum.asMgf().contains("964.581665"));
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+
+        HashMap<Double, Peak> peaks = new HashMap<Double, Peak>();
+        peaks.put(964.581665, new Peak(964.581665, 0.861346662));
+        MS1Spectrum ms1Spectrum = new MS1Spectrum("test.mgf", "ms1", 218.6808, peaks);
+        Assert.assertEquals(1, ms1Spectrum.getPeakArrays().size());
+        ms1Spectrum.removePeakList();
+        Assert.assertEquals(0, ms1Spectrum.getNPeaks());
+    }
+
+    /**
+     * Tests that the index built in parallel chunks is the same as the one
+     * built serially.
+     *
+     * @throws Exception thrown whenever an error occurred
+     */
+    public void testParallelIndexing() throws Exception {
+        File mgfFile = File.createTempFile("parallel_indexing", ".mgf");
+        try {
+            Random random = new Random(42);
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < 500; i++) {
+                String lineEnd = i % 3 == 0 ? "\r\n" : "\n";
+                content.append("BEGIN IONS").append(lineEnd);
+                content.append("TITLE=spectrum ").append(i % 100 == 7 ? 7 : i).append(lineEnd);
+                content.append("PEPMASS=").append(300 + random.nextInt(1000) + random.nextDouble());
+                if (i % 2 == 0) {
+                    content.append(" ").append(random.nextInt(100000));
+                }
+                content.append(lineEnd);
+                if (i % 11 != 0) {
+                    content.append("CHARGE=").append(1 + random.nextInt(4)).append("+").append(lineEnd);
+                }
+                if (i % 13 == 0) {
+                    content.append("RTINSECONDS=").append(random.nextInt(1000)).append("-").append(1000 + random.nextInt(1000)).append(lineEnd);
+                } else {
+                    content.append("RTINSECONDS=").append(random.nextDouble() * 3000).append(lineEnd);
+                }
+                int nPeaks = random.nextInt(i == 250 ? 500 : 50);
+                for (int j = 0; j < nPeaks; j++) {
+                    content.append(j % 7 == 0 ? " " : "").append(100 + 10 * j + random.nextDouble()).append(j % 5 == 0 ? "\t" : " ");
+                    content.append(i == 123 && j == 2 ? "0.0" : (j % 9 == 0 ? "1.5E3" : "" + random.nextInt(10000))).append(lineEnd);
+                }
+                content.append("END IONS").append(lineEnd).append(lineEnd);
+            }
+            FileWriter fileWriter = new FileWriter(mgfFile);
+            try {
+                fileWriter.write(content.toString());
+            } finally {
+                fileWriter.close();
+            }
+
+            MgfIndex expected = MgfReader.getIndexMap(mgfFile);
+            for (long chunkSize : new long[]{1000, 12345, mgfFile.length()}) {
+                MgfIndex mgfIndex = MgfReader.getIndexMap(mgfFile, null, 4, chunkSize);
+                Assert.assertEquals(expected.getNSpectra(), mgfIndex.getNSpectra());
+                Assert.assertEquals(expected.getSpectrumTitles(), mgfIndex.getSpectrumTitles());
+                Assert.assertEquals(expected.getDuplicatedSpectrumTitles(), mgfIndex.getDuplicatedSpectrumTitles());
+                for (String title : expected.getSpectrumTitles()) {
+                    Assert.assertEquals(expected.getIndex(title), mgfIndex.getIndex(title));
+                    Assert.assertEquals(expected.getSpectrumIndex(title), mgfIndex.getSpectrumIndex(title));
+                }
+                for (int i = 0; i < expected.getNSpectra(); i++) {
+                    Assert.assertEquals(expected.getPrecursorMz(i), mgfIndex.getPrecursorMz(i));
+                }
+                Assert.assertEquals(expected.getMinRT(), mgfIndex.getMinRT());
+                Assert.assertEquals(expected.getMaxRT(), mgfIndex.getMaxRT());
+                Assert.assertEquals(expected.getMaxMz(), mgfIndex.getMaxMz());
+                Assert.assertEquals(expected.getMaxIntensity(), mgfIndex.getMaxIntensity());
+                Assert.assertEquals(expected.getMaxCharge(), mgfIndex.getMaxCharge());
+                Assert.assertEquals(expected.getMaxPeakCount(), mgfIndex.getMaxPeakCount());
+                Assert.assertEquals(expected.isPeakPicked(), mgfIndex.isPeakPicked());
+                Assert.assertEquals(expected.isPrecursorChargesMissing(), mgfIndex.isPrecursorChargesMissing());
+            }
+            Assert.assertFalse(expected.isPeakPicked());
+            Assert.assertTrue(expected.isPrecursorChargesMissing());
+            Assert.assertFalse(expected.getDuplicatedSpectrumTitles().isEmpty());
+        } finally {
+            mgfFile.delete();
+        }
+    }
 }
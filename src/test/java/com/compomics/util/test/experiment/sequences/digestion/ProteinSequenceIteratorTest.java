@@ -1,11 +1,18 @@
 package com.compomics.util.test.experiment.sequences.digestion;
 
+import com.compomics.util.experiment.biology.Enzyme;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.IteratorFactory;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideCandidateConsumer;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideMassIndex;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideMassIndexBuilder;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.ProteinDigester;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideWithPosition;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.SequenceIterator;
 import com.compomics.util.preferences.DigestionPreferences;
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import junit.framework.Assert;
 import junit.framework.TestCase;
@@ -271,4 +278,152 @@ public class ProteinSequenceIteratorTest extends TestCase {
 //        
 //        
     }
+
+    public void testMissedCleavagesCombination() throws XmlPullParserException, IOException {
+
+        IteratorFactory iteratorFactory = new IteratorFactory(new ArrayList<String>());
+        DigestionPreferences digestionPreferences = DigestionPreferences.getDefaultPreferences();
+        digestionPreferences.setnMissedCleavages("Trypsin", 1);
+
+        // Three cleavage sites, the ambiguous amino acid is in the last fragment
+        String testSequence = "TESTKCTESKAGSTKTEJT";
+        SequenceIterator sequenceIterator = iteratorFactory.getSequenceIterator(testSequence, digestionPreferences, null, null);
+        ArrayList<PeptideWithPosition> peptides = new ArrayList<PeptideWithPosition>();
+        PeptideWithPosition peptideWithPosition;
+        while ((peptideWithPosition = sequenceIterator.getNextPeptide()) != null) {
+            peptides.add(peptideWithPosition);
+        }
+
+        // TESTKCTESKAGSTK has two missed cleavages and is not reported
+        String[] expectedSequences = new String[]{"TESTK", "CTESK", "TESTKCTESK", "AGSTK", "CTESKAGSTK", "TEIT", "TELT", "AGSTKTEIT", "AGSTKTELT"};
+        int[] expectedPositions = new int[]{0, 5, 0, 10, 5, 15, 15, 10, 10};
+        Assert.assertTrue(peptides.size() == expectedSequences.length);
+        for (int i = 0; i < expectedSequences.length; i++) {
+            Assert.assertEquals(expectedSequences[i], peptides.get(i).getPeptide().getSequence());
+            Assert.assertTrue(peptides.get(i).getPosition() == expectedPositions[i]);
+        }
+    }
+
+    public void testProteinDigester() throws XmlPullParserException, IOException {
+
+        ArrayList<String> fixedModifications = new ArrayList<String>();
+        fixedModifications.add("Carbamidomethylation of C");
+        fixedModifications.add("Acetylation of protein N-term");
+        fixedModifications.add("Pyrolidone from carbamidomethylated C");
+
+        IteratorFactory iteratorFactory = new IteratorFactory(fixedModifications);
+        ProteinDigester proteinDigester = iteratorFactory.getProteinDigester();
+
+        String testSequence = "TESTKCTESCTKTEST";
+        proteinDigester.setProtein(testSequence);
+
+        final ArrayList<int[]> candidates = new ArrayList<int[]>();
+        final ArrayList<Double> masses = new ArrayList<Double>();
+        PeptideCandidateConsumer consumer = new PeptideCandidateConsumer() {
+            @Override
+            public boolean newCandidate(int start, int end, double mass, int missedCleavages, int fixedModifications) {
+                candidates.add(new int[]{start, end, missedCleavages, fixedModifications});
+                masses.add(mass);
+                return true;
+            }
+        };
+
+        // Unspecific digestion
+        Assert.assertTrue(proteinDigester.digestUnspecific(null, null, consumer));
+        Assert.assertTrue(candidates.size() == 136);
+        candidates.clear();
+        masses.clear();
+        Assert.assertTrue(proteinDigester.digestUnspecific(667.0, 668.0, consumer));
+        Assert.assertTrue(candidates.isEmpty());
+
+        // Trypsin digestion
+        DigestionPreferences digestionPreferences = DigestionPreferences.getDefaultPreferences();
+        Enzyme trypsin = digestionPreferences.getEnzymes().get(0);
+        Assert.assertTrue(proteinDigester.digestEnzyme(trypsin, 2, null, null, consumer));
+        Assert.assertTrue(candidates.size() == 6);
+        for (int i = 0; i < candidates.size(); i++) {
+            int[] candidate = candidates.get(i);
+            Peptide peptide = proteinDigester.getPeptide(candidate[0], candidate[1]);
+            Assert.assertEquals(testSequence.substring(candidate[0], candidate[1]), peptide.getSequence());
+            Assert.assertEquals(peptide.getMass(), masses.get(i), 0.0001);
+            if (candidate[0] == 0) {
+                Assert.assertEquals("Acetylation of protein N-term", proteinDigester.getNtermModification(candidate[3]));
+            } else if (candidate[0] == 5) {
+                Assert.assertEquals("Pyrolidone from carbamidomethylated C", proteinDigester.getNtermModification(candidate[3]));
+                Assert.assertTrue(candidate[2] == (candidate[1] - candidate[0] == 7 ? 0 : 1));
+            } else {
+                Assert.assertNull(proteinDigester.getNtermModification(candidate[3]));
+            }
+            Assert.assertNull(proteinDigester.getCtermModification(candidate[3]));
+        }
+
+        // Stop the digestion from the consumer
+        candidates.clear();
+        Assert.assertFalse(proteinDigester.digestUnspecific(null, null, new PeptideCandidateConsumer() {
+            @Override
+            public boolean newCandidate(int start, int end, double mass, int missedCleavages, int fixedModifications) {
+                candidates.add(new int[]{start, end, missedCleavages, fixedModifications});
+                return candidates.size() < 10;
+            }
+        }));
+        Assert.assertTrue(candidates.size() == 10);
+    }
+
+    public void testPeptideMassIndex() throws XmlPullParserException, IOException {
+
+        File fastaFile = File.createTempFile("peptide_index", ".fasta");
+        fastaFile.deleteOnExit();
+        PrintWriter writer = new PrintWriter(fastaFile);
+        writer.println(">sp|P00001|TEST1 Test protein 1");
+        writer.println("TESTKSHAME");
+        writer.println("DRLAST");
+        writer.println(">sp|P00002|TEST2 Test protein 2");
+        writer.println("MCAKSHAMEDR*");
+        writer.close();
+
+        ArrayList<String> fixedModifications = new ArrayList<String>();
+        fixedModifications.add("Carbamidomethylation of C");
+
+        PeptideMassIndexBuilder builder = new PeptideMassIndexBuilder(fastaFile, DigestionPreferences.getDefaultPreferences(), fixedModifications, null, null);
+        File indexFile = builder.getIndexFile();
+        indexFile.deleteOnExit();
+        PeptideMassIndex peptideMassIndex = builder.getIndex(null, 2);
+
+        Assert.assertTrue(peptideMassIndex.getNProteins() == 2);
+        Assert.assertEquals("P00001", peptideMassIndex.getAccession(0));
+        Assert.assertEquals("P00002", peptideMassIndex.getAccession(1));
+
+        // SHAMEDR is found in both proteins and indexed once
+        Assert.assertTrue(peptideMassIndex.size() == 8);
+        long sharedIndex = -1;
+        for (long i = 0; i < peptideMassIndex.size(); i++) {
+            if (i > 0) {
+                Assert.assertTrue(peptideMassIndex.getMass(i - 1) <= peptideMassIndex.getMass(i));
+            }
+            String sequence = peptideMassIndex.getSequence(i);
+            int[] proteins = peptideMassIndex.getProteins(i);
+            if (sequence.equals("SHAMEDR")) {
+                sharedIndex = i;
+                Assert.assertTrue(proteins.length == 2);
+                Assert.assertTrue(proteins[0] == 0 && proteins[1] == 1);
+            } else {
+                Assert.assertTrue(proteins.length == 1);
+                Assert.assertTrue(proteins[0] == (sequence.startsWith("MCAK") ? 1 : 0));
+            }
+        }
+        Assert.assertTrue(sharedIndex >= 0);
+
+        // Precursor window query
+        double mass = peptideMassIndex.getMass(sharedIndex);
+        long first = peptideMassIndex.getFirstIndex(mass - 0.01);
+        long end = peptideMassIndex.getEndIndex(mass + 0.01);
+        Assert.assertTrue(first <= sharedIndex && sharedIndex < end);
+        Assert.assertTrue(peptideMassIndex.getEndIndex(0.0) == 0);
+        Assert.assertTrue(peptideMassIndex.getFirstIndex(100000.0) == peptideMassIndex.size());
+
+        // The index is reused
+        PeptideMassIndex reopenedIndex = builder.getIndex(null, 2);
+        Assert.assertEquals(peptideMassIndex.getIndexFile(), reopenedIndex.getIndexFile());
+        Assert.assertTrue(reopenedIndex.size() == peptideMassIndex.size());
+    }
 }
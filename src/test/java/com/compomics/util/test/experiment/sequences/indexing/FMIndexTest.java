@@ -114,6 +114,158 @@ public class FMIndexTest extends TestCase {
 
     }
 
+    /**
+     * Tests that an index saved to a file and reopened gives the same
+     * mapping as the index built from the FASTA file.
+     *
+     * @throws FileNotFoundException thrown whenever a file is not found
+     * @throws IOException thrown whenever an error occurs while reading or
+     * writing a file
+     * @throws ClassNotFoundException thrown whenever an error occurs while
+     * deserializing an object
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the tree
+     */
+    public void testIndexFile() throws FileNotFoundException, IOException, ClassNotFoundException, InterruptedException {
+
+        WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
+        File sequences = new File("src/test/resources/experiment/proteinTreeTestSequences");
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
+        PeptideVariantsPreferences peptideVariantsPreferences = PeptideVariantsPreferences.getNoVariantPreferences();
+        SearchParameters searchParameters = new SearchParameters();
+        searchParameters.setPtmSettings(new PtmSettings());
+
+        File indexFile = File.createTempFile("proteinTreeTestSequences", FMIndex.INDEX_FILE_EXTENSION);
+        indexFile.deleteOnExit();
+        Assert.assertTrue(indexFile.delete());
+
+        FMIndex builtIndex = new FMIndex(null, false, peptideVariantsPreferences, searchParameters, indexFile, 4);
+        Assert.assertTrue(indexFile.exists());
+        FMIndex loadedIndex = new FMIndex(null, false, peptideVariantsPreferences, searchParameters, indexFile);
+
+        SequenceMatchingPreferences sequenceMatchingPreferences = new SequenceMatchingPreferences();
+        sequenceMatchingPreferences.setSequenceMatchingType(SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids);
+        sequenceMatchingPreferences.setLimitX(0.25);
+        String[] peptides = new String[]{"ECTQDRGKTAFTEAVLLP", "SSS", "LDLIK"};
+        for (String peptide : peptides) {
+            HashMap<String, HashMap<String, ArrayList<Integer>>> builtIndexes = PeptideProteinMapping.getPeptideProteinIndexesMap(builtIndex.getProteinMapping(peptide, sequenceMatchingPreferences));
+            HashMap<String, HashMap<String, ArrayList<Integer>>> loadedIndexes = PeptideProteinMapping.getPeptideProteinIndexesMap(loadedIndex.getProteinMapping(peptide, sequenceMatchingPreferences));
+            Assert.assertEquals(builtIndexes.keySet(), loadedIndexes.keySet());
+            for (String sequence : builtIndexes.keySet()) {
+                HashMap<String, ArrayList<Integer>> builtProteins = builtIndexes.get(sequence);
+                HashMap<String, ArrayList<Integer>> loadedProteins = loadedIndexes.get(sequence);
+                Assert.assertEquals(builtProteins.keySet(), loadedProteins.keySet());
+                for (String accession : builtProteins.keySet()) {
+                    ArrayList<Integer> builtPositions = builtProteins.get(accession);
+                    ArrayList<Integer> loadedPositions = loadedProteins.get(accession);
+                    Collections.sort(builtPositions);
+                    Collections.sort(loadedPositions);
+                    Assert.assertEquals(builtPositions, loadedPositions);
+                }
+            }
+        }
+        indexFile.delete();
+    }
+
+    /**
+     * Tests that an index which cannot be saved is reported and not left on
+     * the disk.
+     *
+     * @throws FileNotFoundException thrown whenever a file is not found
+     * @throws IOException thrown whenever an error occurs while reading or
+     * writing a file
+     * @throws ClassNotFoundException thrown whenever an error occurs while
+     * deserializing an object
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the tree
+     */
+    public void testIndexFileNotSaved() throws FileNotFoundException, IOException, ClassNotFoundException, InterruptedException {
+
+        WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
+        File sequences = new File("src/test/resources/experiment/proteinTreeTestSequences");
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
+        PeptideVariantsPreferences peptideVariantsPreferences = PeptideVariantsPreferences.getNoVariantPreferences();
+        SearchParameters searchParameters = new SearchParameters();
+        searchParameters.setPtmSettings(new PtmSettings());
+
+        File missingFolder = File.createTempFile("proteinTreeTestSequences", "");
+        Assert.assertTrue(missingFolder.delete());
+        File indexFile = FMIndex.getIndexFile(missingFolder, sequences);
+
+        try {
+            new FMIndex(null, false, peptideVariantsPreferences, searchParameters, indexFile, 4);
+            Assert.fail("Saving the index in a missing folder should fail.");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertFalse(indexFile.exists());
+
+        FMIndex fmIndex = new FMIndex(waitingHandlerCLIImpl, false, peptideVariantsPreferences, searchParameters, indexFile, 4);
+        Assert.assertFalse(indexFile.exists());
+
+        SequenceMatchingPreferences sequenceMatchingPreferences = new SequenceMatchingPreferences();
+        sequenceMatchingPreferences.setSequenceMatchingType(SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids);
+        sequenceMatchingPreferences.setLimitX(0.25);
+        Assert.assertFalse(fmIndex.getProteinMapping("ECTQDRGKTAFTEAVLLP", sequenceMatchingPreferences).isEmpty());
+    }
+
+    /**
+     * Tests that the batch mapping gives the same results as the mapping of
+     * the peptides one by one.
+     *
+     * @throws FileNotFoundException thrown whenever a file is not found
+     * @throws IOException thrown whenever an error occurs while reading or
+     * writing a file
+     * @throws ClassNotFoundException thrown whenever an error occurs while
+     * deserializing an object
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the tree
+     */
+    public void testBatchPeptideToProteinMapping() throws FileNotFoundException, IOException, ClassNotFoundException, InterruptedException {
+
+        WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
+        File sequences = new File("src/test/resources/experiment/proteinTreeTestSequences");
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
+        PeptideVariantsPreferences peptideVariantsPreferences = PeptideVariantsPreferences.getNoVariantPreferences();
+        FMIndex fmIndex = new FMIndex(null, false, null, peptideVariantsPreferences);
+
+        SequenceMatchingPreferences sequenceMatchingPreferences = new SequenceMatchingPreferences();
+        sequenceMatchingPreferences.setSequenceMatchingType(SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids);
+        sequenceMatchingPreferences.setLimitX(0.25);
+
+        String sequence = sequenceFactory.getProtein("Q9FHX5").getSequence();
+        ArrayList<String> peptides = new ArrayList<String>();
+        for (int start = 10; start < 20; ++start) {
+            peptides.add(sequence.substring(start, 30));
+            peptides.add(sequence.substring(start, 25));
+        }
+        peptides.add(sequence.substring(12, 30));
+        peptides.add("SSS");
+        peptides.add("ECTQDRGKTAFTEAVLLP");
+        peptides.add("ECTQDRXKTAFTEAVLLP");
+        peptides.add("XXXXXX");
+
+        HashMap<String, ArrayList<PeptideProteinMapping>> batchMappings = fmIndex.getProteinMapping(peptides, sequenceMatchingPreferences, 4);
+        Assert.assertEquals(peptides.size() - 1, batchMappings.size());
+        for (String peptide : peptides) {
+            ArrayList<String> expected = new ArrayList<String>();
+            for (PeptideProteinMapping peptideProteinMapping : fmIndex.getProteinMapping(peptide, sequenceMatchingPreferences)) {
+                expected.add(peptideProteinMapping.getPeptideSequence() + "_" + peptideProteinMapping.getProteinAccession() + "_" + peptideProteinMapping.getIndex());
+            }
+            ArrayList<String> found = new ArrayList<String>();
+            for (PeptideProteinMapping peptideProteinMapping : batchMappings.get(peptide)) {
+                found.add(peptideProteinMapping.getPeptideSequence() + "_" + peptideProteinMapping.getProteinAccession() + "_" + peptideProteinMapping.getIndex());
+            }
+            Collections.sort(expected);
+            Collections.sort(found);
+            Assert.assertFalse(!peptide.startsWith("X") && expected.isEmpty());
+            Assert.assertEquals(expected, found);
+        }
+    }
+
     /**
      * Tests the import and the mapping of a few peptide sequences.
      *
@@ -0,0 +1,387 @@
+package com.compomics.util.test.experiment.sequences.indexing;
+
+import com.compomics.util.experiment.identification.protein_sequences.BinaryFastaIndex;
+import com.compomics.util.experiment.identification.protein_sequences.FastaIndex;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.protein.Header.DatabaseType;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Test for the binary index of FASTA files and the parallel indexing of FASTA
+ * files.
+ *
+ * @author Marc Vaudel
+ */
+public class FastaIndexTest extends TestCase {
+
+    /**
+     * Two accessions with the same hash in the index.
+     */
+    private static final String[] COLLIDING_ACCESSIONS = new String[]{"QPY3VDXFDMHLDC", "Q3U67HKPHKUVYD"};
+    /**
+     * The amino acids used for the test sequences.
+     */
+    private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+
+    /**
+     * Tests the lookup of accessions in the binary index, including
+     * accessions with the same hash and accessions not in the index.
+     *
+     * @throws IOException thrown whenever an error occurred while reading or
+     * writing a file
+     */
+    public void testBinaryIndexLookups() throws IOException {
+
+        File folder = getTestFolder();
+        try {
+            File fastaFile = new File(folder, "lookups.fasta");
+            writeFile(fastaFile, "> placeholder\n");
+            File indexFile = new File(folder, SequenceFactory.getBinaryIndexName(fastaFile.getName()));
+
+            // entries in two chunks, the accessions with the same hash in different chunks
+            ArrayList<String> accessions = new ArrayList<String>();
+            ArrayList<BinaryFastaIndex.Entries> chunks = new ArrayList<BinaryFastaIndex.Entries>();
+            for (int i = 0; i < 2; i++) {
+                BinaryFastaIndex.Entries entries = new BinaryFastaIndex.Entries();
+                for (int j = 0; j < 50; j++) {
+                    String accession = j == 25 ? COLLIDING_ACCESSIONS[i] : "P" + i + j;
+                    int index = accessions.size();
+                    entries.add(accession, 1000L * index, index + 1, "species " + (index % 3),
+                            index % 2 == 0 ? DatabaseType.UniProt : DatabaseType.Unknown);
+                    entries.setDecoy(j, index % 4 == 0);
+                    accessions.add(accession);
+                }
+                chunks.add(entries);
+            }
+            BinaryFastaIndex.write(indexFile, fastaFile, chunks);
+
+            BinaryFastaIndex binaryIndex = BinaryFastaIndex.open(indexFile, fastaFile);
+            Assert.assertNotNull(binaryIndex);
+            Assert.assertEquals(accessions.size(), binaryIndex.size());
+            Assert.assertEquals(accessions.size(), binaryIndex.getAccessions().size());
+            for (int i = 0; i < accessions.size(); i++) {
+                String accession = accessions.get(i);
+                int index = binaryIndex.getIndex(accession);
+                Assert.assertTrue(index >= 0);
+                Assert.assertEquals(accession, binaryIndex.getAccession(index));
+                Assert.assertEquals(1000L * i, binaryIndex.getFastaOffset(index));
+                Assert.assertEquals(i + 1, binaryIndex.getSequenceLength(index));
+                Assert.assertEquals("species " + (i % 3), binaryIndex.getSpecies(index));
+                Assert.assertEquals(i % 2 == 0 ? DatabaseType.UniProt : DatabaseType.Unknown, binaryIndex.getDatabaseType(index));
+                Assert.assertEquals(i % 4 == 0, binaryIndex.isDecoy(index));
+                Assert.assertTrue(binaryIndex.getAccessions().contains(accession));
+            }
+            Assert.assertTrue(binaryIndex.getIndex(COLLIDING_ACCESSIONS[0]) != binaryIndex.getIndex(COLLIDING_ACCESSIONS[1]));
+
+            Assert.assertEquals(-1, binaryIndex.getIndex("P99"));
+            Assert.assertEquals(-1, binaryIndex.getIndex(""));
+            Assert.assertEquals(-1, binaryIndex.getIndex("QPY3VDXFDMHLDD"));
+            Assert.assertFalse(binaryIndex.getAccessions().contains("P99"));
+
+            // accessions must be unique, also when they collide with another accession
+            BinaryFastaIndex.Entries duplicates = new BinaryFastaIndex.Entries();
+            duplicates.add(COLLIDING_ACCESSIONS[0], 0, 1, "species", DatabaseType.Unknown);
+            duplicates.add(COLLIDING_ACCESSIONS[1], 10, 1, "species", DatabaseType.Unknown);
+            duplicates.add(COLLIDING_ACCESSIONS[0], 20, 1, "species", DatabaseType.Unknown);
+            ArrayList<BinaryFastaIndex.Entries> duplicateChunks = new ArrayList<BinaryFastaIndex.Entries>();
+            duplicateChunks.add(duplicates);
+            try {
+                BinaryFastaIndex.write(new File(folder, "duplicates.cuib"), fastaFile, duplicateChunks);
+                fail("Duplicate accession not detected.");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+
+            // the index is not used once the FASTA file changed
+            writeFile(fastaFile, "> placeholder changed\n");
+            Assert.assertNull(BinaryFastaIndex.open(indexFile, fastaFile));
+            Assert.assertNull(BinaryFastaIndex.open(new File(folder, "missing.cuib"), fastaFile));
+
+        } finally {
+            deleteFolder(folder);
+        }
+    }
+
+    /**
+     * Tests that indexing a FASTA file in chunks gives the same index as
+     * indexing it at once, the chunks starting inside headers and inside
+     * sequences.
+     *
+     * @throws IOException thrown whenever an error occurred while reading or
+     * writing a file
+     */
+    public void testChunkedIndexing() throws IOException {
+
+        File folder = getTestFolder();
+        long indexingChunkSize = SequenceFactory.getIndexingChunkSize();
+        try {
+            File fastaFile = new File(folder, "chunks.fasta");
+            ArrayList<long[]> headerRanges = new ArrayList<long[]>();
+            ArrayList<long[]> sequenceRanges = new ArrayList<long[]>();
+            writeFile(fastaFile, getFastaContent(60, true, headerRanges, sequenceRanges));
+
+            FastaIndex serialIndex = SequenceFactory.getFastaIndex(fastaFile, true, null, 1);
+            Assert.assertEquals(60, serialIndex.getNSequences());
+            Assert.assertEquals(40, serialIndex.getNTarget());
+            Assert.assertEquals(60, serialIndex.getBinaryIndex().size());
+
+            // every byte is the start of a chunk when possible
+            SequenceFactory.setIndexingChunkSize(1);
+            boolean headerSplit = false;
+            boolean sequenceSplit = false;
+            long fileLength = fastaFile.length();
+            for (int nThreads = 2; nThreads <= 16; nThreads++) {
+                int nChunks = 4 * nThreads;
+                for (int i = 1; i < nChunks; i++) {
+                    long start = i * fileLength / nChunks;
+                    headerSplit = headerSplit || isInside(start, headerRanges);
+                    sequenceSplit = sequenceSplit || isInside(start, sequenceRanges);
+                }
+                FastaIndex parallelIndex = SequenceFactory.getFastaIndex(fastaFile, true, null, nThreads);
+                assertSameIndex(serialIndex, parallelIndex);
+            }
+            Assert.assertTrue(headerSplit);
+            Assert.assertTrue(sequenceSplit);
+
+        } finally {
+            SequenceFactory.setIndexingChunkSize(indexingChunkSize);
+            deleteFolder(folder);
+        }
+    }
+
+    /**
+     * Tests that the decoys are flagged in the index of a file where decoy
+     * sequences were appended and that the offsets point to the headers.
+     *
+     * @throws Exception thrown whenever an error occurred while reading or
+     * writing a file
+     */
+    public void testAppendDecoySequences() throws Exception {
+
+        File folder = getTestFolder();
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        try {
+            File fastaFile = new File(folder, "targets.fasta");
+            writeFile(fastaFile, getFastaContent(20, false, new ArrayList<long[]>(), new ArrayList<long[]>()));
+            sequenceFactory.loadFastaFile(fastaFile);
+            Assert.assertEquals(20, sequenceFactory.getNSequences());
+            ArrayList<String> targetAccessions = new ArrayList<String>(sequenceFactory.getAccessions());
+
+            File targetDecoyFile = new File(folder, "targets_concatenated_target_decoy.fasta");
+            sequenceFactory.appendDecoySequences(targetDecoyFile);
+
+            FastaIndex fastaIndex = sequenceFactory.getCurrentFastaIndex();
+            Assert.assertEquals(targetDecoyFile.getName(), fastaIndex.getFileName());
+            Assert.assertEquals(40, fastaIndex.getNSequences());
+            Assert.assertEquals(20, fastaIndex.getNTarget());
+            Assert.assertTrue(fastaIndex.isConcatenatedTargetDecoy());
+
+            BinaryFastaIndex binaryIndex = fastaIndex.getBinaryIndex();
+            Assert.assertEquals(40, binaryIndex.size());
+            RandomAccessFile randomAccessFile = new RandomAccessFile(targetDecoyFile, "r");
+            try {
+                for (String targetAccession : targetAccessions) {
+                    String decoyAccession = SequenceFactory.getDefaultDecoyAccession(targetAccession);
+                    Assert.assertFalse(fastaIndex.isDecoy(targetAccession));
+                    Assert.assertTrue(fastaIndex.isDecoy(decoyAccession));
+                    Assert.assertFalse(sequenceFactory.isDecoyAccession(targetAccession));
+                    Assert.assertTrue(sequenceFactory.isDecoyAccession(decoyAccession));
+                    int targetIndex = binaryIndex.getIndex(targetAccession);
+                    int decoyIndex = binaryIndex.getIndex(decoyAccession);
+                    Assert.assertFalse(binaryIndex.isDecoy(targetIndex));
+                    Assert.assertTrue(binaryIndex.isDecoy(decoyIndex));
+                    Assert.assertEquals(binaryIndex.getSequenceLength(targetIndex), binaryIndex.getSequenceLength(decoyIndex));
+                    randomAccessFile.seek(binaryIndex.getFastaOffset(decoyIndex));
+                    Assert.assertTrue(randomAccessFile.readLine().startsWith(">sp|" + decoyAccession + "|"));
+                    Assert.assertEquals(SequenceFactory.reverseSequence(sequenceFactory.getProtein(targetAccession).getSequence()),
+                            sequenceFactory.getProtein(decoyAccession).getSequence());
+                }
+            } finally {
+                randomAccessFile.close();
+            }
+
+            // the index derived from the written proteins is the index of the file
+            sequenceFactory.clearFactory();
+            FastaIndex parsedIndex = SequenceFactory.getFastaIndex(targetDecoyFile, true, null, 1);
+            assertSameIndex(parsedIndex, fastaIndex);
+
+        } finally {
+            sequenceFactory.clearFactory();
+            deleteFolder(folder);
+        }
+    }
+
+    /**
+     * Tests that the index is rebuilt when the binary index is missing.
+     *
+     * @throws IOException thrown whenever an error occurred while reading or
+     * writing a file
+     */
+    public void testRebuildWithoutBinaryIndex() throws IOException {
+
+        File folder = getTestFolder();
+        try {
+            File fastaFile = new File(folder, "rebuild.fasta");
+            writeFile(fastaFile, getFastaContent(30, true, new ArrayList<long[]>(), new ArrayList<long[]>()));
+            File indexFile = new File(folder, SequenceFactory.getIndexName(fastaFile.getName()));
+            File binaryIndexFile = new File(folder, SequenceFactory.getBinaryIndexName(fastaFile.getName()));
+
+            FastaIndex fastaIndex = SequenceFactory.getFastaIndex(fastaFile, false, null, 1);
+            Assert.assertTrue(indexFile.exists());
+            Assert.assertTrue(binaryIndexFile.exists());
+
+            // the saved index is used as long as the binary index is there
+            FastaIndex savedIndex = SequenceFactory.getFastaIndex(fastaFile, false, null, 1);
+            assertSameIndex(fastaIndex, savedIndex);
+
+            Assert.assertTrue(binaryIndexFile.delete());
+            FastaIndex rebuiltIndex = SequenceFactory.getFastaIndex(fastaFile, false, null, 1);
+            Assert.assertTrue(binaryIndexFile.exists());
+            assertSameIndex(fastaIndex, rebuiltIndex);
+            assertSameIndex(fastaIndex, SequenceFactory.getFastaIndex(fastaFile, false, null, 1));
+
+        } finally {
+            deleteFolder(folder);
+        }
+    }
+
+    /**
+     * Asserts that two FASTA indexes contain the same proteins.
+     *
+     * @param expected the expected index
+     * @param actual the index to test
+     */
+    private void assertSameIndex(FastaIndex expected, FastaIndex actual) {
+        Assert.assertEquals(expected.getNSequences(), actual.getNSequences());
+        Assert.assertEquals(expected.getNTarget(), actual.getNTarget());
+        Assert.assertEquals(expected.getDecoyTag(), actual.getDecoyTag());
+        Assert.assertEquals(expected.getSpecies(), actual.getSpecies());
+        Assert.assertEquals(expected.getDatabaseTypes(), actual.getDatabaseTypes());
+        BinaryFastaIndex expectedBinaryIndex = expected.getBinaryIndex();
+        BinaryFastaIndex actualBinaryIndex = actual.getBinaryIndex();
+        Assert.assertEquals(expectedBinaryIndex.size(), actualBinaryIndex.size());
+        for (int i = 0; i < expectedBinaryIndex.size(); i++) {
+            String accession = expectedBinaryIndex.getAccession(i);
+            int index = actualBinaryIndex.getIndex(accession);
+            Assert.assertTrue(index >= 0);
+            Assert.assertEquals(expectedBinaryIndex.getFastaOffset(i), actualBinaryIndex.getFastaOffset(index));
+            Assert.assertEquals(expectedBinaryIndex.getSequenceLength(i), actualBinaryIndex.getSequenceLength(index));
+            Assert.assertEquals(expectedBinaryIndex.getSpecies(i), actualBinaryIndex.getSpecies(index));
+            Assert.assertEquals(expectedBinaryIndex.getDatabaseType(i), actualBinaryIndex.getDatabaseType(index));
+            Assert.assertEquals(expectedBinaryIndex.isDecoy(i), actualBinaryIndex.isDecoy(index));
+            Assert.assertEquals(expected.isDecoy(accession), actual.isDecoy(accession));
+        }
+    }
+
+    /**
+     * Returns the content of a FASTA file in the UniProt format where the
+     * sequences span several lines.
+     *
+     * @param nSequences the number of sequences
+     * @param decoys if true every third sequence is a decoy
+     * @param headerRanges list where to save the start and end of every
+     * header line
+     * @param sequenceRanges list where to save the start and end of every
+     * sequence
+     *
+     * @return the content of the FASTA file
+     */
+    private String getFastaContent(int nSequences, boolean decoys, ArrayList<long[]> headerRanges, ArrayList<long[]> sequenceRanges) {
+        Random random = new Random(nSequences);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < nSequences; i++) {
+            String accession = "P" + (10000 + i);
+            if (decoys && i % 3 == 2) {
+                accession = SequenceFactory.getDefaultDecoyAccession(accession);
+            }
+            String species = i % 2 == 0 ? "Homo sapiens" : "Mus musculus";
+            long headerStart = content.length();
+            content.append(">sp|").append(accession).append("|PROT").append(i).append("_TEST Test protein ").append(i)
+                    .append(" OS=").append(species).append(" GN=G").append(i).append(" PE=1 SV=1\n");
+            headerRanges.add(new long[]{headerStart, content.length()});
+            long sequenceStart = content.length();
+            int length = 20 + random.nextInt(200);
+            for (int j = 0; j < length; j++) {
+                content.append(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+                if (j % 60 == 59 || j == length - 1) {
+                    content.append('\n');
+                }
+            }
+            sequenceRanges.add(new long[]{sequenceStart, content.length()});
+        }
+        return content.toString();
+    }
+
+    /**
+     * Indicates whether the given position is strictly inside one of the
+     * given ranges.
+     *
+     * @param position the position
+     * @param ranges the ranges, start inclusive and end exclusive
+     *
+     * @return true if the position is inside a range but not at its start
+     */
+    private boolean isInside(long position, ArrayList<long[]> ranges) {
+        for (long[] range : ranges) {
+            if (position > range[0] && position < range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the given content to a file.
+     *
+     * @param file the file
+     * @param content the content
+     *
+     * @throws IOException thrown whenever an error occurred while writing the
+     * file
+     */
+    private void writeFile(File file, String content) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content.getBytes("US-ASCII"));
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Returns a new empty folder for the files of a test.
+     *
+     * @return a new empty folder
+     *
+     * @throws IOException thrown whenever the folder could not be created
+     */
+    private File getTestFolder() throws IOException {
+        File folder = File.createTempFile("fastaIndexTest", "");
+        if (!folder.delete() || !folder.mkdir()) {
+            throw new IOException("Impossible to create the test folder " + folder + ".");
+        }
+        return folder;
+    }
+
+    /**
+     * Deletes a test folder and its files.
+     *
+     * @param folder the folder
+     */
+    private void deleteFolder(File folder) {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+}
@@ -0,0 +1,158 @@
+package com.compomics.util.test.experiment.sequences.indexing;
+
+import com.compomics.util.experiment.identification.protein_inference.fm_index.IndexFileReader;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.IndexFileWriter;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.WaveletTree;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Test for the wavelet tree on interleaved ranks, compared to the wavelet tree
+ * on ranks.
+ *
+ * @author Dominik Kopczynski
+ */
+public class InterleavedRankTest extends TestCase {
+
+    /**
+     * The characters of the text.
+     */
+    private static final String CHARACTERS = "ACDEFGHIKLMNPQRSTVWY/";
+
+    /**
+     * Tests that the wavelet tree on interleaved ranks returns the same
+     * results as the wavelet tree on ranks, before and after being written to
+     * an index file, for lengths around the block boundaries of the ranks.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing or reading the index file
+     */
+    public void testInterleavedRank() throws IOException {
+        Random random = new Random(7);
+        long[] alphabet = getAlphabet();
+        int numMasses = 30;
+        for (int length : new int[]{2, 63, 64, 65, 255, 256, 447, 448, 449, 896, 5000}) {
+            byte[] text = getText(random, length);
+            WaveletTree waveletTree = new WaveletTree(text, alphabet, null, numMasses, false);
+            WaveletTree interleavedTree = new WaveletTree(text, alphabet, null, numMasses, false, true);
+            assertSameQueries(waveletTree, interleavedTree, length, numMasses, random);
+
+            File indexFile = File.createTempFile("interleavedRank", ".fmi");
+            try {
+                IndexFileWriter writer = new IndexFileWriter(indexFile);
+                try {
+                    interleavedTree.write(writer);
+                } finally {
+                    writer.close();
+                }
+                RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r");
+                try {
+                    FileChannel channel = randomAccessFile.getChannel();
+                    WaveletTree mappedTree = new WaveletTree(new IndexFileReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+                    assertSameQueries(waveletTree, mappedTree, length, numMasses, random);
+                } finally {
+                    randomAccessFile.close();
+                }
+            } finally {
+                indexFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Asserts that two wavelet trees return the same results.
+     *
+     * @param expected the reference wavelet tree
+     * @param actual the wavelet tree to test
+     * @param length the length of the text
+     * @param numMasses the number of masses
+     * @param random the random generator used to draw the ranges
+     */
+    private void assertSameQueries(WaveletTree expected, WaveletTree actual, int length, int numMasses, Random random) {
+        int[] lessExpected = expected.createLessTable();
+        int[] lessActual = actual.createLessTable();
+        for (int i = 0; i < 128; ++i) {
+            Assert.assertEquals(lessExpected[i], lessActual[i]);
+        }
+        for (int index = 0; index < length; ++index) {
+            int[] infoExpected = expected.getCharacterInfo(index);
+            int[] infoActual = actual.getCharacterInfo(index);
+            Assert.assertEquals(infoExpected[0], infoActual[0]);
+            Assert.assertEquals(infoExpected[1], infoActual[1]);
+            for (int i = 0; i < CHARACTERS.length(); ++i) {
+                int character = CHARACTERS.charAt(i);
+                Assert.assertEquals(expected.getRank(index, character), actual.getRank(index, character));
+            }
+            Assert.assertEquals(getRangeQueryResults(expected.rangeQuery(index - 1, index), numMasses), getRangeQueryResults(actual.rangeQuery(index - 1, index), numMasses));
+        }
+        for (int query = 0; query < 500; ++query) {
+            int leftIndex = random.nextInt(length) - 1;
+            int rightIndex = Math.min(leftIndex + 1 + random.nextInt(200), length - 1);
+            for (int i = 0; i < CHARACTERS.length(); ++i) {
+                int character = CHARACTERS.charAt(i);
+                int[] rangeExpected = expected.singleRangeQuery(leftIndex, rightIndex, character);
+                int[] rangeActual = actual.singleRangeQuery(leftIndex, rightIndex, character);
+                Assert.assertEquals(rangeExpected[0], rangeActual[0]);
+                Assert.assertEquals(rangeExpected[1], rangeActual[1]);
+            }
+            Assert.assertEquals(getRangeQueryResults(expected.rangeQuery(leftIndex, rightIndex), numMasses), getRangeQueryResults(actual.rangeQuery(leftIndex, rightIndex), numMasses));
+        }
+    }
+
+    /**
+     * Returns a random text with one sentinel.
+     *
+     * @param random the random generator
+     * @param length the length of the text
+     *
+     * @return the text
+     */
+    private byte[] getText(Random random, int length) {
+        byte[] text = new byte[length];
+        for (int i = 0; i < length - 1; ++i) {
+            text[i] = (byte) CHARACTERS.charAt(random.nextInt(CHARACTERS.length()));
+        }
+        text[random.nextInt(length - 1)] = '$';
+        text[length - 1] = (byte) CHARACTERS.charAt(0);
+        return text;
+    }
+
+    /**
+     * Returns the alphabet of the texts.
+     *
+     * @return the alphabet of the texts
+     */
+    private long[] getAlphabet() {
+        long[] alphabet = new long[]{0, 0};
+        for (int i = 0; i < CHARACTERS.length(); ++i) {
+            alphabet[CHARACTERS.charAt(i) >> 6] |= 1L << (CHARACTERS.charAt(i) & 63);
+        }
+        alphabet['$' >> 6] |= 1L << ('$' & 63);
+        alphabet['X' >> 6] |= 1L << ('X' & 63);
+        return alphabet;
+    }
+
+    /**
+     * Returns the results of a range query as sorted strings.
+     *
+     * @param query the range query results
+     * @param numMasses the number of masses
+     *
+     * @return the results as sorted strings
+     */
+    private ArrayList<String> getRangeQueryResults(int[][] query, int numMasses) {
+        ArrayList<String> results = new ArrayList<String>();
+        for (int i = 0; i < query[numMasses][0]; ++i) {
+            results.add(((char) query[i][0]) + " " + query[i][1] + " " + query[i][2]);
+        }
+        Collections.sort(results);
+        return results;
+    }
+}
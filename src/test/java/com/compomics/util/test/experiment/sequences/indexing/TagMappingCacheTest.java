@@ -0,0 +1,179 @@
+package com.compomics.util.test.experiment.sequences.indexing;
+
+import com.compomics.util.experiment.identification.protein_inference.fm_index.MatrixContent;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.TagMappingCache;
+import java.util.ArrayList;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Test for the cache of the tag mapping.
+ *
+ * @author Dominik Kopczynski
+ */
+public class TagMappingCacheTest extends TestCase {
+
+    /**
+     * Tests that the cached matrix contents are found again, also with a
+     * slightly different mass, and that the lookups are counted.
+     */
+    public void testHits() {
+        TagMappingCache cache = new TagMappingCache(100);
+        ArrayList<MatrixContent> matrixContents = getMatrixContents(3);
+        cache.put(0, "TEST", 123.456, matrixContents);
+
+        Assert.assertTrue(cache.get(0, "TEST", 123.456) == matrixContents);
+        Assert.assertTrue(cache.get(0, "TEST", 123.456000001) == matrixContents);
+        Assert.assertNull(cache.get(1, "TEST", 123.456));
+        Assert.assertNull(cache.get(0, "TSET", 123.456));
+        Assert.assertNull(cache.get(0, "TEST", 123.457));
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(3, cache.getMisses());
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(3, cache.getWeight());
+
+        // a second put of the same key keeps the first contents
+        cache.put(0, "TEST", 123.456, getMatrixContents(5));
+        Assert.assertTrue(cache.get(0, "TEST", 123.456) == matrixContents);
+        Assert.assertEquals(3, cache.getWeight());
+
+        cache.setCapacity(0);
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getWeight());
+        cache.put(0, "TEST", 123.456, matrixContents);
+        Assert.assertNull(cache.get(0, "TEST", 123.456));
+    }
+
+    /**
+     * Tests that the cache is brought back below its capacity and that the
+     * entries looked up recently are kept.
+     */
+    public void testEviction() {
+        int capacity = 10;
+        TagMappingCache cache = new TagMappingCache(capacity);
+        for (int i = 0; i < capacity; i++) {
+            cache.put(0, "TAG" + i, i, getMatrixContents(1));
+        }
+        Assert.assertEquals(capacity, cache.size());
+        Assert.assertEquals(0, cache.getEvictions());
+
+        Assert.assertNotNull(cache.get(0, "TAG0", 0));
+        cache.put(0, "TAG" + capacity, capacity, getMatrixContents(1));
+        Assert.assertTrue(cache.getEvictions() > 0);
+        Assert.assertTrue(cache.getWeight() <= capacity);
+        Assert.assertNotNull(cache.get(0, "TAG0", 0));
+        Assert.assertNull(cache.get(0, "TAG1", 1));
+        Assert.assertNotNull(cache.get(0, "TAG" + capacity, capacity));
+
+        for (int i = 0; i < 100; i++) {
+            cache.put(1, "TAG" + i, i, getMatrixContents(1 + i % 3));
+            Assert.assertNotNull(cache.get(0, "TAG0", 0));
+            Assert.assertTrue(cache.getWeight() <= capacity);
+        }
+        Assert.assertNotNull(cache.get(0, "TAG0", 0));
+        Assert.assertEquals(cache.getWeight(), getTotalWeight(cache, 100));
+
+        cache.setCapacity(4);
+        Assert.assertTrue(cache.getWeight() <= 4);
+        Assert.assertEquals(cache.getWeight(), getTotalWeight(cache, 100));
+    }
+
+    /**
+     * Tests that concurrent lookups and insertions return the cached contents
+     * and keep the weight consistent with the entries.
+     *
+     * @throws InterruptedException thrown whenever a threading error occurred
+     */
+    public void testConcurrentAccess() throws InterruptedException {
+        final int capacity = 200;
+        final int nKeys = 1000;
+        final int nLookups = 20000;
+        final TagMappingCache cache = new TagMappingCache(capacity);
+        final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+        int nThreads = 4;
+        ArrayList<Thread> threads = new ArrayList<Thread>(nThreads);
+        for (int thread = 0; thread < nThreads; thread++) {
+            final int seed = thread;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < nLookups; i++) {
+                            int key = (i * 7 + seed * 13) % nKeys;
+                            ArrayList<MatrixContent> matrixContents = cache.get(0, "TAG" + key, key);
+                            if (matrixContents == null) {
+                                cache.put(0, "TAG" + key, key, getMatrixContents(key));
+                            } else {
+                                Assert.assertEquals(Math.max(key, 1), Math.max(matrixContents.size(), 1));
+                                Assert.assertEquals(key, matrixContents.isEmpty() ? 0 : matrixContents.get(0).right);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(errors.isEmpty());
+        Assert.assertEquals(nThreads * nLookups, cache.getHits() + cache.getMisses());
+        Assert.assertEquals(cache.getWeight(), getTotalWeight(cache, nKeys));
+
+        // once the threads are done the next insertion brings the cache back below its capacity
+        cache.put(1, "TAG", 0, getMatrixContents(1));
+        Assert.assertTrue(cache.getWeight() <= capacity);
+        Assert.assertEquals(cache.getWeight(), getTotalWeight(cache, nKeys));
+    }
+
+    /**
+     * Returns the weight of the entries found in the cache, the keys being
+     * "TAG" followed by a number used as mass for the index parts zero and
+     * one, and the key of index part one without number. The lookup counters
+     * are reset afterwards.
+     *
+     * @param cache the cache
+     * @param nKeys the number of numbered keys
+     *
+     * @return the weight of the entries found
+     */
+    private long getTotalWeight(TagMappingCache cache, int nKeys) {
+        long weight = 0;
+        for (int indexPart = 0; indexPart <= 1; indexPart++) {
+            for (int key = 0; key < nKeys; key++) {
+                ArrayList<MatrixContent> matrixContents = cache.get(indexPart, "TAG" + key, key);
+                if (matrixContents != null) {
+                    weight += Math.max(matrixContents.size(), 1);
+                }
+            }
+        }
+        ArrayList<MatrixContent> matrixContents = cache.get(1, "TAG", 0);
+        if (matrixContents != null) {
+            weight += Math.max(matrixContents.size(), 1);
+        }
+        cache.resetCounters();
+        return weight;
+    }
+
+    /**
+     * Returns a list of matrix contents of the given size, the right index of
+     * each content is the size.
+     *
+     * @param size the number of matrix contents
+     *
+     * @return a list of matrix contents
+     */
+    private static ArrayList<MatrixContent> getMatrixContents(int size) {
+        ArrayList<MatrixContent> matrixContents = new ArrayList<MatrixContent>(size);
+        for (int i = 0; i < size; i++) {
+            matrixContents.add(new MatrixContent(size));
+        }
+        return matrixContents;
+    }
+}
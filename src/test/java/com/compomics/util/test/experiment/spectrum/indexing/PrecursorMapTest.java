@@ -0,0 +1,242 @@
+package com.compomics.util.test.experiment.spectrum.indexing;
+
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.indexes.PrecursorMap;
+import com.compomics.util.experiment.massspectrometry.indexes.PrecursorMap.PrecursorWithTitle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the precursor map.
+ *
+ * @author Marc Vaudel
+ */
+public class PrecursorMapTest extends TestCase {
+
+    /**
+     * Tests that the precursors matching an m/z are the precursors within the
+     * tolerance in Da and in ppm.
+     */
+    public void testMatchingSpectra() {
+
+        for (boolean ppm : new boolean[]{false, true}) {
+
+            double tolerance = ppm ? 10 : 0.02;
+            HashMap<String, Precursor> precursors = getPrecursors(5000);
+            PrecursorMap precursorMap = new PrecursorMap(precursors, tolerance, ppm);
+            Assert.assertEquals(precursors.size(), precursorMap.size());
+
+            double minMz = Double.MAX_VALUE;
+            double maxMz = 0;
+            for (Precursor precursor : precursors.values()) {
+                minMz = Math.min(minMz, precursor.getMz());
+                maxMz = Math.max(maxMz, precursor.getMz());
+            }
+            Assert.assertEquals(minMz, precursorMap.getMinMz());
+            Assert.assertEquals(maxMz, precursorMap.getMaxMz());
+
+            for (int i = 0; i < precursorMap.size(); i++) {
+                PrecursorWithTitle precursorWithTitle = precursorMap.getPrecursorWithTitle(i);
+                Precursor precursor = precursorWithTitle.precursor;
+                Assert.assertTrue(precursors.get(precursorWithTitle.spectrumTitle) == precursor);
+                Assert.assertEquals(precursor.getMz(), precursorMap.getMz(i));
+                Assert.assertEquals(precursor.getRt(), precursorMap.getRt(i));
+                int charge = precursor.getPossibleCharges().isEmpty() ? 0 : precursor.getPossibleCharges().get(0).value;
+                Assert.assertEquals(charge, precursorMap.getCharge(i));
+                if (i > 0) {
+                    Assert.assertTrue(precursorMap.getMz(i - 1) <= precursorMap.getMz(i));
+                }
+            }
+
+            int nMatches = 0;
+            for (double referenceMz : getQueries(precursors, tolerance, ppm, 2000)) {
+                ArrayList<PrecursorWithTitle> matches = precursorMap.getMatchingSpectra(referenceMz);
+                assertSameSpectra(getMatchingSpectra(precursors, referenceMz, tolerance, ppm, 0, Double.MAX_VALUE), matches);
+                for (int i = 1; i < matches.size(); i++) {
+                    Assert.assertTrue(matches.get(i - 1).precursor.getMz() <= matches.get(i).precursor.getMz());
+                }
+                nMatches += matches.size();
+            }
+            Assert.assertTrue(nMatches > 500);
+        }
+
+        // an empty map
+        PrecursorMap precursorMap = new PrecursorMap(new HashMap<String, Precursor>(), 10, true);
+        Assert.assertEquals(0, precursorMap.size());
+        Assert.assertNull(precursorMap.getMinMz());
+        Assert.assertTrue(precursorMap.getMatchingSpectra(500).isEmpty());
+        Assert.assertTrue(precursorMap.getMatchingSpectra(500, 0, 100).isEmpty());
+    }
+
+    /**
+     * Tests that the precursors matching an m/z and a retention time window
+     * are the precursors within the tolerance eluting in the window.
+     */
+    public void testMatchingSpectraInRtWindow() {
+
+        Random random = new Random(14);
+        for (boolean ppm : new boolean[]{false, true}) {
+
+            double tolerance = ppm ? 10 : 0.02;
+            HashMap<String, Precursor> precursors = getPrecursors(5000);
+            PrecursorMap precursorMap = new PrecursorMap(precursors, tolerance, ppm);
+
+            for (double referenceMz : getQueries(precursors, tolerance, ppm, 2000)) {
+                double rtMin = 3600 * random.nextDouble();
+                double rtMax = rtMin + 600 * random.nextDouble();
+                ArrayList<PrecursorWithTitle> matches = precursorMap.getMatchingSpectra(referenceMz, rtMin, rtMax);
+                assertSameSpectra(getMatchingSpectra(precursors, referenceMz, tolerance, ppm, rtMin, rtMax), matches);
+            }
+
+            // the whole run
+            for (double referenceMz : getQueries(precursors, tolerance, ppm, 200)) {
+                assertSameSpectra(precursorMap.getMatchingSpectra(referenceMz), precursorMap.getMatchingSpectra(referenceMz, 0, 3600));
+            }
+        }
+    }
+
+    /**
+     * Tests that the ranges of precursors matching a sorted list of m/z are
+     * the precursors matching each m/z queried separately.
+     */
+    public void testMatchingIndexes() {
+
+        for (boolean ppm : new boolean[]{false, true}) {
+
+            double tolerance = ppm ? 10 : 0.02;
+            HashMap<String, Precursor> precursors = getPrecursors(5000);
+            PrecursorMap precursorMap = new PrecursorMap(precursors, tolerance, ppm);
+
+            double[] referenceMzs = getQueries(precursors, tolerance, ppm, 2000);
+            Arrays.sort(referenceMzs);
+            int[] lowerIndexes = new int[referenceMzs.length];
+            int[] upperIndexes = new int[referenceMzs.length];
+            precursorMap.getMatchingIndexes(referenceMzs, lowerIndexes, upperIndexes);
+
+            for (int i = 0; i < referenceMzs.length; i++) {
+                double referenceMz = referenceMzs[i];
+                ArrayList<PrecursorWithTitle> matches = precursorMap.getMatchingSpectra(referenceMz);
+                Assert.assertEquals(matches.size(), upperIndexes[i] - lowerIndexes[i]);
+                for (int j = lowerIndexes[i]; j < upperIndexes[i]; j++) {
+                    Assert.assertTrue(matches.get(j - lowerIndexes[i]) == precursorMap.getPrecursorWithTitle(j));
+                }
+                Assert.assertEquals(precursorMap.getLowerIndex(precursorMap.getLowerBound(referenceMz)), lowerIndexes[i]);
+                Assert.assertEquals(precursorMap.getUpperIndex(precursorMap.getUpperBound(referenceMz)), upperIndexes[i]);
+            }
+
+            // the m/z must be sorted
+            try {
+                precursorMap.getMatchingIndexes(new double[]{1000, 500}, new int[2], new int[2]);
+                fail("Unsorted m/z not detected.");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Asserts that two lists contain the same spectra.
+     *
+     * @param expected the expected spectra
+     * @param actual the spectra to test
+     */
+    private void assertSameSpectra(ArrayList<PrecursorWithTitle> expected, ArrayList<PrecursorWithTitle> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        HashSet<String> expectedTitles = new HashSet<String>(expected.size());
+        for (PrecursorWithTitle precursorWithTitle : expected) {
+            expectedTitles.add(precursorWithTitle.spectrumTitle);
+        }
+        for (PrecursorWithTitle precursorWithTitle : actual) {
+            Assert.assertTrue(expectedTitles.contains(precursorWithTitle.spectrumTitle));
+        }
+    }
+
+    /**
+     * Returns the precursors matching the given m/z and retention time window
+     * by comparing the query to every precursor.
+     *
+     * @param precursors the precursors indexed by spectrum title
+     * @param referenceMz the m/z to query
+     * @param tolerance the m/z tolerance
+     * @param ppm indicates whether the tolerance is in ppm
+     * @param rtMin the minimal retention time
+     * @param rtMax the maximal retention time
+     *
+     * @return the matching precursors
+     */
+    private ArrayList<PrecursorWithTitle> getMatchingSpectra(HashMap<String, Precursor> precursors, double referenceMz,
+            double tolerance, boolean ppm, double rtMin, double rtMax) {
+        PrecursorMap emptyMap = new PrecursorMap(new HashMap<String, Precursor>(), tolerance, ppm);
+        ArrayList<PrecursorWithTitle> result = new ArrayList<PrecursorWithTitle>();
+        for (String spectrumTitle : precursors.keySet()) {
+            Precursor precursor = precursors.get(spectrumTitle);
+            double error = precursor.getMz() - referenceMz;
+            if (ppm) {
+                error = 1000000 * error / referenceMz;
+            }
+            if (Math.abs(error) <= tolerance && precursor.getRt() >= rtMin && precursor.getRt() <= rtMax) {
+                result.add(emptyMap.new PrecursorWithTitle(precursor, spectrumTitle));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns m/z to query, half of them close to precursors, within 1.5
+     * times the tolerance, and half random.
+     *
+     * @param precursors the precursors indexed by spectrum title
+     * @param tolerance the m/z tolerance
+     * @param ppm indicates whether the tolerance is in ppm
+     * @param nQueries the number of m/z to return
+     *
+     * @return m/z to query
+     */
+    private double[] getQueries(HashMap<String, Precursor> precursors, double tolerance, boolean ppm, int nQueries) {
+        Random random = new Random(nQueries);
+        ArrayList<Precursor> precursorList = new ArrayList<Precursor>(precursors.values());
+        double[] queries = new double[nQueries];
+        for (int i = 0; i < nQueries; i++) {
+            if (i % 2 == 0) {
+                double mz = precursorList.get(random.nextInt(precursorList.size())).getMz();
+                double offset = tolerance * (3 * random.nextDouble() - 1.5);
+                queries[i] = ppm ? mz * (1 + offset / 1000000) : mz + offset;
+            } else {
+                queries[i] = 300 + 1700 * random.nextDouble();
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Returns random precursors between 300 and 2000 m/z, some sharing the
+     * same m/z, indexed by spectrum title.
+     *
+     * @param nPrecursors the number of precursors
+     *
+     * @return random precursors indexed by spectrum title
+     */
+    private HashMap<String, Precursor> getPrecursors(int nPrecursors) {
+        Random random = new Random(nPrecursors);
+        HashMap<String, Precursor> precursors = new HashMap<String, Precursor>(nPrecursors);
+        double mz = 0;
+        for (int i = 0; i < nPrecursors; i++) {
+            if (i % 10 != 9) {
+                mz = 300 + 1700 * random.nextDouble();
+            }
+            double rt = 3600 * random.nextDouble();
+            ArrayList<Charge> charges = new ArrayList<Charge>(1);
+            if (i % 7 != 0) {
+                charges.add(new Charge(Charge.PLUS, 1 + random.nextInt(4)));
+            }
+            precursors.put("spectrum " + i, new Precursor(rt, mz, charges));
+        }
+        return precursors;
+    }
+}
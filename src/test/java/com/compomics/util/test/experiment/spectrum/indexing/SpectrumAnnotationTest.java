@@ -1,6 +1,7 @@
 package com.compomics.util.test.experiment.spectrum.indexing;
 
 import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.PeakArrays;
 import com.compomics.util.experiment.massspectrometry.indexes.SpectrumIndex;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -58,8 +59,83 @@ public class SpectrumAnnotationTest extends TestCase {
         Assert.assertTrue(matchingPeaks.size() == 1);
         Assert.assertTrue(matchingPeaks.get(0).mz == 1012.5);
         
-    } 
+    }
 
-    
-    
+    /**
+     * This test evaluates the peak arrays and the SpectrumIndex built from
+     * them.
+     */
+    public void testPeakArrays() {
+
+        double[] mz = new double[]{1012.8, 300.1, 1012.5, 300.1, 500.2};
+        double[] intensity = new double[]{54321, 10, 12345, 20, 30};
+        PeakArrays peakArrays = new PeakArrays(mz, intensity, mz.length, false);
+        Assert.assertEquals(4, peakArrays.size());
+        Assert.assertEquals(300.1, peakArrays.getMz(0));
+        Assert.assertEquals(20.0, peakArrays.getIntensity(0));
+        Assert.assertEquals(1012.8, peakArrays.getMz(3));
+        Assert.assertEquals(2, peakArrays.getLowerIndex(1012.5));
+        Assert.assertEquals(3, peakArrays.getUpperIndex(1012.5));
+        Assert.assertEquals(4, peakArrays.getLowerIndex(2000));
+        Assert.assertEquals(3, peakArrays.getMostIntenseIndex(1000, 1100));
+        Assert.assertEquals(-1, peakArrays.getMostIntenseIndex(600, 700));
+        Assert.assertEquals(2, peakArrays.getClosestIndex(1012.6, 0.2));
+        Assert.assertEquals(-1, peakArrays.getClosestIndex(1012.65, 0.1));
+
+        PeakArrays floatPeakArrays = new PeakArrays(peakArrays.getPeakMap(), true);
+        Assert.assertEquals(peakArrays.getTotalIntensity(), floatPeakArrays.getTotalIntensity());
+
+        HashMap<Double, Peak> peakList = new HashMap<Double, Peak>();
+        peakList.put(1012.5, new Peak(1012.5, 12345));
+        peakList.put(1012.51, new Peak(1012.51, 12354));
+        peakList.put(1012.8, new Peak(1012.8, 54321));
+        peakArrays = new PeakArrays(peakList, false);
+
+        SpectrumIndex spectrumIndex = new SpectrumIndex(peakArrays, 0.0, 20, true);
+        Assert.assertTrue(spectrumIndex.getMatchingPeaks(1000).isEmpty());
+        Assert.assertTrue(spectrumIndex.getMatchingPeaks(1012.52).size() == 2);
+
+        spectrumIndex = new SpectrumIndex(peakArrays, 20000.0, 0.5, false);
+        ArrayList<Peak> matchingPeaks = spectrumIndex.getMatchingPeaks(1012.52);
+        Assert.assertTrue(matchingPeaks.size() == 1);
+        Assert.assertTrue(matchingPeaks.get(0).mz == 1012.8);
+        Assert.assertEquals(54321.0, spectrumIndex.getTotalIntensity());
+    }
+
+    /**
+     * This test evaluates the queries of the SpectrumIndex which do not
+     * allocate peaks.
+     */
+    public void testIndexQueries() {
+
+        HashMap<Double, Peak> peakList = new HashMap<Double, Peak>();
+        peakList.put(1012.5, new Peak(1012.5, 12345));
+        peakList.put(1012.51, new Peak(1012.51, 12354));
+        peakList.put(1012.8, new Peak(1012.8, 54321));
+        peakList.put(300.1, new Peak(300.1, 10));
+
+        SpectrumIndex spectrumIndex = new SpectrumIndex(peakList, 0.0, 0.5, false);
+        Assert.assertEquals(4, spectrumIndex.size());
+        Assert.assertEquals(300.1, spectrumIndex.getMz(0));
+
+        int[] buffer = new int[2];
+        Assert.assertEquals(0, spectrumIndex.getMatchingPeaks(1000, buffer));
+        Assert.assertEquals(3, spectrumIndex.getMatchingPeaks(1012.52, buffer));
+        Assert.assertEquals(1, buffer[0]);
+        Assert.assertEquals(2, buffer[1]);
+
+        Assert.assertEquals(2, spectrumIndex.getMostAccurateIndex(1012.52));
+        Assert.assertEquals(3, spectrumIndex.getMostIntenseIndex(1012.52));
+        Assert.assertEquals(-1, spectrumIndex.getMostIntenseIndex(1000));
+
+        Assert.assertEquals(10.0, spectrumIndex.getMaxIntensity(0));
+        Assert.assertEquals(12354.0, spectrumIndex.getMaxIntensity(1012.6));
+        Assert.assertEquals(0.0, spectrumIndex.getMaxIntensity(100.0));
+
+        spectrumIndex = new SpectrumIndex(peakList, 0.0, 10, true);
+        Assert.assertEquals(1, spectrumIndex.getMostAccurateIndex(1012.49));
+        Assert.assertTrue(spectrumIndex.getPeaksInBin(spectrumIndex.getBin(1012.5)).containsKey(1012.5));
+        Assert.assertEquals(1, spectrumIndex.getPeaksInBin(spectrumIndex.getBin(300.1)).size());
+        Assert.assertNull(spectrumIndex.getPeaksInBin(spectrumIndex.getBin(500.0)));
+    }
 }
@@ -3,6 +3,8 @@ package com.compomics.util.test.math;
 import com.compomics.util.math.statistics.distributions.BinomialDistribution;
 import junit.framework.Assert;
 import junit.framework.TestCase;
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.special.Beta;
 import org.apache.commons.math.util.MathUtils;
 
 /**
@@ -34,6 +36,92 @@ public class TestBinomialDistribution extends TestCase {
         }
     }
 
+    /**
+     * Tests the descending cumulative probabilities against the regularized
+     * beta function, through a distribution and directly, and the sharing
+     * of distributions.
+     *
+     * @throws MathException if a MathException occurs
+     */
+    public void testDescendingCumulativeP() throws MathException {
+        double tolerance = Math.pow(10, -9);
+        int n = 487;
+        double p = 0.125;
+        BinomialDistribution binomialDistribution = BinomialDistribution.getBinomialDistribution(n, p);
+        Assert.assertTrue(binomialDistribution == BinomialDistribution.getBinomialDistribution(n, p));
+        for (int k = 0; k < n; k++) {
+            double expected = Beta.regularizedBeta(p, k + 1.0, n - k);
+            double result = binomialDistribution.getDescendingCumulativeProbability(k);
+            if (expected >= Double.MIN_NORMAL) {
+                Assert.assertTrue(Math.abs(result - expected) / expected < tolerance);
+            } else {
+                Assert.assertTrue(result < 2 * Double.MIN_NORMAL);
+            }
+            Assert.assertEquals(expected, BinomialDistribution.getDescendingCumulativeProbability(n, p, k));
+        }
+        Assert.assertEquals(0.0, binomialDistribution.getDescendingCumulativeProbability(n));
+        Assert.assertEquals(1.0, binomialDistribution.getDescendingCumulativeProbability(-1));
+        Assert.assertEquals(0.0, BinomialDistribution.getDescendingCumulativeProbability(n, p, n));
+        Assert.assertEquals(1.0, BinomialDistribution.getDescendingCumulativeProbability(n, p, -1));
+    }
+
+    /**
+     * Tests that the log of the probabilities is finite and accurate where the
+     * probabilities underflow, with and without tables.
+     */
+    public void testLogP() {
+        double tolerance = Math.pow(10, -9);
+        int n = 487;
+        double p = 0.125;
+        BinomialDistribution binomialDistribution = new BinomialDistribution(n, p);
+        int nUnderflows = 0;
+        for (int k = 0; k <= n; k++) {
+            double expected = MathUtils.binomialCoefficientLog(n, k) + k * Math.log(p) + (n - k) * Math.log(1 - p);
+            double result = binomialDistribution.getLogProbability(k);
+            Assert.assertTrue(Math.abs(result - expected) / Math.abs(expected) < tolerance);
+            if (binomialDistribution.getProbability(k) == 0.0) {
+                nUnderflows++;
+            }
+        }
+        Assert.assertTrue(nUnderflows > 0);
+        Assert.assertEquals(Double.NEGATIVE_INFINITY, binomialDistribution.getLogProbability(n + 1));
+
+        // above the table size the probabilities are computed at every request
+        n = BinomialDistribution.MAX_TABLE_SIZE + 1;
+        binomialDistribution = new BinomialDistribution(n, p);
+        for (int k : new int[]{0, 100, n / 8, n - 100, n}) {
+            double expected = MathUtils.binomialCoefficientLog(n, k) + k * Math.log(p) + (n - k) * Math.log(1 - p);
+            double result = binomialDistribution.getLogProbability(k);
+            Assert.assertTrue(Math.abs(result - expected) / Math.abs(expected) < tolerance);
+        }
+        Assert.assertTrue(binomialDistribution.isCacheEmpty());
+    }
+
+    /**
+     * Tests that the registry of shared distributions is bounded by the
+     * length of the tables of the distributions.
+     */
+    public void testRegistry() {
+        BinomialDistribution.clearRegistry();
+        int n = BinomialDistribution.MAX_TABLE_SIZE;
+        BinomialDistribution first = BinomialDistribution.getBinomialDistribution(n, 0.5);
+        Assert.assertTrue(first == BinomialDistribution.getBinomialDistribution(n, 0.5));
+        int nDistributions = (int) (2 * BinomialDistribution.REGISTRY_CAPACITY / (n + 1));
+        for (int i = 1; i <= nDistributions; i++) {
+            BinomialDistribution.getBinomialDistribution(n, 0.5 / (i + 1));
+        }
+        Assert.assertTrue(first != BinomialDistribution.getBinomialDistribution(n, 0.5));
+
+        // small distributions are kept
+        BinomialDistribution.clearRegistry();
+        BinomialDistribution small = BinomialDistribution.getBinomialDistribution(10, 0.5);
+        for (int i = 1; i <= nDistributions; i++) {
+            BinomialDistribution.getBinomialDistribution(10, 0.5 / (i + 1));
+        }
+        Assert.assertTrue(small == BinomialDistribution.getBinomialDistribution(10, 0.5));
+        BinomialDistribution.clearRegistry();
+    }
+
     /**
      * Results obtained using excel
      */
@@ -1518,4 +1518,41 @@ public class TestHeader extends TestCase {
         Assert.assertEquals(3, h.getStartLocation());
         Assert.assertEquals(8, h.getEndLocation());
     }
+
+    /**
+     * This method tests the parsing of headers from a byte buffer and the
+     * parsing of UniProt headers with a location.
+     */
+    public void testParseFromBytes() throws Exception {
+        final String spSep2008 = ">sp|A7GKH8|PURL_BACCN Phosphoribosylformylglycinamidine synthase 2 OS=Bacillus cereus subsp. cytotoxis (strain NVH 391-98) GN=purL PE=3 SV=1";
+        final String nrStandard = ">gi|20149565|ref|NP_004878.2| small inducible cytokine B14 precursor; CXC chemokine in breast and kidney; small inducible cytokine subfamily B (Cys-X-Cys), member 14 (BRAK) [Homo sapiens]";
+        final String sgd = ">YHR159W YHR159W SGDID:S000001202, Chr VIII from 417552-419066, Uncharacterized ORF";
+
+        for (String header : new String[]{spSep2008, nrStandard, sgd}) {
+            byte[] buffer = ("\n  " + header + " \r\n>next").getBytes("ISO-8859-1");
+            Header fromBytes = Header.parseFromFASTA(buffer, 1, buffer.length - 6);
+            Header fromString = Header.parseFromFASTA(header);
+            Assert.assertEquals(fromString.getRawHeader(), fromBytes.getRawHeader());
+            Assert.assertEquals(fromString.getDatabaseType(), fromBytes.getDatabaseType());
+            Assert.assertEquals(fromString.getID(), fromBytes.getID());
+            Assert.assertEquals(fromString.getAccession(), fromBytes.getAccession());
+            Assert.assertEquals(fromString.getDescription(), fromBytes.getDescription());
+            Assert.assertEquals(fromString.getGeneName(), fromBytes.getGeneName());
+            Assert.assertEquals(fromString.getTaxonomy(), fromBytes.getTaxonomy());
+        }
+
+        byte[] empty = " \r\n".getBytes("ISO-8859-1");
+        Assert.assertEquals("", Header.parseFromFASTA(empty, 0, empty.length).getRawHeader());
+
+        Header h = Header.parseFromFASTA(">sp|A7GKH8(42 49)|PURL_BACCN Phosphoribosylformylglycinamidine synthase 2 OS=Bacillus cereus GN=purL PE=3 SV=1");
+        Assert.assertEquals(Header.DatabaseType.UniProt, h.getDatabaseType());
+        Assert.assertEquals("sp", h.getID());
+        Assert.assertEquals("A7GKH8", h.getAccession());
+        Assert.assertEquals(42, h.getStartLocation());
+        Assert.assertEquals(49, h.getEndLocation());
+        Assert.assertEquals("purL", h.getGeneName());
+
+        h = Header.parseFromFASTA(">sp|P12345|ABC_HUMAN SGDID:S000001202, Uncharacterized ORF");
+        Assert.assertEquals(Header.DatabaseType.SGD, h.getDatabaseType());
+    }
 }